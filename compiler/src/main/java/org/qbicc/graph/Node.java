@@ -112,6 +112,24 @@ public interface Node {
             return blockBuilder;
         }
 
+        /**
+         * Get the entry block of the program being copied.
+         *
+         * @return the original entry block
+         */
+        public BasicBlock getEntryBlock() {
+            return entryBlock;
+        }
+
+        /**
+         * Get the schedule of the program being copied.
+         *
+         * @return the schedule of the original program
+         */
+        public Schedule getSchedule() {
+            return schedule;
+        }
+
         /**
          * Execute this copier on the subprogram that is entered by the given entry block; returns the block copy.
          *
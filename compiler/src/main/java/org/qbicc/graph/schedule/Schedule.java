@@ -41,6 +41,24 @@ public interface Schedule {
      */
     List<Node> getNodesForBlock(BasicBlock block);
 
+    /**
+     * Get the immediate dominator of the given block.
+     *
+     * @param block the basic block to look up (must not be {@code null})
+     * @return the immediate dominator of the block, or {@code null} if the block is the entry block or is not scheduled
+     */
+    BasicBlock getImmediateDominator(BasicBlock block);
+
+    /**
+     * Determine whether the first block dominates the second block.  Every block dominates itself.
+     *
+     * @param dominator the possibly dominating block (must not be {@code null})
+     * @param block the possibly dominated block (must not be {@code null})
+     * @return {@code true} if every path from the entry block to {@code block} passes through {@code dominator},
+     *      or {@code false} if not or if either block is not scheduled
+     */
+    boolean dominates(BasicBlock dominator, BasicBlock block);
+
     /**
      * Create a schedule for the method whose entry block is the given block.
      *
@@ -92,6 +110,21 @@ public interface Schedule {
                 }
                 return Collections.unmodifiableList(blockToNodesMap.get(block));
             }
+            public BasicBlock getImmediateDominator(final BasicBlock block) {
+                BlockInfo info = blockInfos.get(Assert.checkNotNullParam("block", block));
+                return info == null || info.dominator == 0 ? null : allBlocks[info.dominator - 1].block;
+            }
+            public boolean dominates(final BasicBlock dominator, final BasicBlock block) {
+                BlockInfo dominatorInfo = blockInfos.get(Assert.checkNotNullParam("dominator", dominator));
+                BlockInfo info = blockInfos.get(Assert.checkNotNullParam("block", block));
+                if (dominatorInfo == null || info == null) {
+                    return false;
+                }
+                while (info.domDepth > dominatorInfo.domDepth) {
+                    info = allBlocks[info.dominator - 1];
+                }
+                return info == dominatorInfo;
+            }
         };
     }
 
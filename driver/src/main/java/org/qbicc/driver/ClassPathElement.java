@@ -9,7 +9,6 @@ import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
-import java.util.jar.JarFile;
 
 import io.smallrye.common.constraint.Assert;
 import org.qbicc.machine.vfs.VirtualFileSystem;
@@ -49,6 +48,19 @@ public abstract class ClassPathElement implements Closeable {
      */
     public abstract void mount(VirtualFileSystem vfs, VirtualPath mountPoint) throws IOException;
 
+    /**
+     * Get a class path element with the same content as this one which is backed by a class path image in the given
+     * directory, creating the image if it does not exist yet.  A class path image is a copy of a JAR file in which no
+     * entry is compressed, so that every entry can be used directly from the mapped file.
+     *
+     * @param imageDirectory the image directory (must not be {@code null})
+     * @return the image element, or this element if it needs no image
+     * @throws IOException if the image could not be created or opened
+     */
+    ClassPathElement toImage(Path imageDirectory) throws IOException {
+        return this;
+    }
+
     /**
      * Get a class path element for the given directory path.
      *
@@ -69,7 +81,7 @@ public abstract class ClassPathElement implements Closeable {
      */
     public static ClassPathElement forJarFile(Path path) throws IOException {
         Assert.checkNotNullParam("path", path);
-        return new JarFileClassPathElement(new JarFile(path.toFile()));
+        return new JarFileClassPathElement(path);
     }
 
     /**
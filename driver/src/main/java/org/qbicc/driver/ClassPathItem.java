@@ -2,6 +2,8 @@ package org.qbicc.driver;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.ListIterator;
 
@@ -33,6 +35,37 @@ public record ClassPathItem(String name, List<ClassPathElement> classRoots, List
         }
     }
 
+    /**
+     * Get an item with the same content as this one whose JAR file class roots are backed by class path images in the
+     * given directory.  Images which do not exist yet are created.  The class roots which are replaced are closed.
+     *
+     * @param imageDirectory the image directory (must not be {@code null})
+     * @return the item (not {@code null})
+     * @throws IOException if an image could not be created or opened
+     */
+    public ClassPathItem withClassPathImages(Path imageDirectory) throws IOException {
+        Assert.checkNotNullParam("imageDirectory", imageDirectory);
+        List<ClassPathElement> images = new ArrayList<>(classRoots.size());
+        try {
+            for (ClassPathElement classRoot : classRoots) {
+                images.add(classRoot.toImage(imageDirectory));
+            }
+        } catch (Throwable t) {
+            for (int i = 0; i < images.size(); i ++) {
+                if (images.get(i) != classRoots.get(i)) {
+                    images.get(i).close();
+                }
+            }
+            throw t;
+        }
+        for (int i = 0; i < images.size(); i ++) {
+            if (images.get(i) != classRoots.get(i)) {
+                classRoots.get(i).close();
+            }
+        }
+        return new ClassPathItem(name, List.copyOf(images), sourceRoots);
+    }
+
     /**
      * Find a resource in this item.
      *
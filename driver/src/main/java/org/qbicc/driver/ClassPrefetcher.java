@@ -0,0 +1,238 @@
+package org.qbicc.driver;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jboss.logging.Logger;
+import org.qbicc.context.ClassContext;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.plugin.metrics.CountMetric;
+import org.qbicc.plugin.metrics.Metrics;
+import org.qbicc.type.definition.classfile.ClassFile;
+
+/**
+ * A stage which reads and parses class files ahead of need on a separate pool of threads.  Whenever a class is defined
+ * during the ADD phase, the classes named in its constant pool are looked up on the class path and parsed in the
+ * background, so that defining them later does not have to wait for the class path.
+ * <p>
+ * Only the steps which have no side effects are done ahead of time.  A prefetched class is not defined or loaded until
+ * it is actually needed, because defining and loading a class runs the type builders, which may register native
+ * libraries, native types and reachability roots.  A prefetched class which is never needed is simply discarded.
+ */
+final class ClassPrefetcher {
+    private static final Logger statsLog = Logger.getLogger("org.qbicc.driver.prefetch.stats");
+
+    private final Driver driver;
+    private final ClassContext bootstrapContext;
+    private final ExecutorService executor;
+    private final Map<ClassContext, Map<String, Prefetched>> prefetched = new ConcurrentHashMap<>();
+    private final Map<ClassContext, Set<String>> seen = new ConcurrentHashMap<>();
+    private final LongAdder parsed = new LongAdder();
+    private final LongAdder used = new LongAdder();
+    private final LongAdder late = new LongAdder();
+    private final LongAdder savedNanos = new LongAdder();
+    private volatile boolean stopped;
+
+    ClassPrefetcher(final Driver driver, final ClassContext bootstrapContext, final int threadCount, final long stackSize) {
+        this.driver = driver;
+        this.bootstrapContext = bootstrapContext;
+        AtomicInteger threadIndex = new AtomicInteger();
+        ThreadGroup threadGroup = new ThreadGroup("qbicc prefetch thread group");
+        executor = Executors.newFixedThreadPool(threadCount, r -> {
+            Thread thread = new Thread(threadGroup, r, "qbicc prefetch thread " + threadIndex.incrementAndGet() + "/" + threadCount, stackSize, false);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Prefetch the classes named in the constant pool of a newly defined class.  May be called from any thread.
+     *
+     * @param classContext the class context which defined the class (must not be {@code null})
+     * @param classPath the class path from which the class was defined (must not be {@code null})
+     * @param classFile the class file of the class (must not be {@code null})
+     */
+    void scan(final ClassContext classContext, final List<ClassPathItem> classPath, final ClassFile classFile) {
+        submit(() -> {
+            int cnt = classFile.getConstantCount();
+            for (int i = 1; i < cnt; i ++) {
+                if (stopped) {
+                    return;
+                }
+                if (classFile.getConstantType(i) == ClassFile.CONSTANT_Class) {
+                    String name = elementName(classFile.getClassConstantName(i));
+                    if (name != null) {
+                        prefetch(classContext, classPath, name);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Take the prefetched class file of a class which is about to be defined.  A class which is still being prefetched
+     * is not waited for.
+     *
+     * @param classContext the class context which is defining the class (must not be {@code null})
+     * @param name the internal name of the class (must not be {@code null})
+     * @return the prefetched class, or {@code null} if the class file must be read and parsed by the caller
+     */
+    Prefetched take(final ClassContext classContext, final String name) {
+        seen(classContext).add(name);
+        Map<String, Prefetched> map = prefetched.get(classContext);
+        Prefetched entry = map == null ? null : map.remove(name);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.classFile == null) {
+            late.increment();
+            return null;
+        }
+        used.increment();
+        savedNanos.add(entry.nanos);
+        return entry;
+    }
+
+    /**
+     * Stop prefetching and discard all prefetched classes which were not used, reporting statistics.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     */
+    void stop(final CompilationContext ctxt) {
+        stopped = true;
+        executor.shutdown();
+        long unused = 0;
+        for (Map<String, Prefetched> map : prefetched.values()) {
+            for (Prefetched entry : map.values()) {
+                if (entry.classFile != null) {
+                    unused ++;
+                }
+            }
+        }
+        prefetched.clear();
+        seen.clear();
+        CountMetric counts = Metrics.get(ctxt).getOrCreateRootCountMetric("class prefetch");
+        counts.getOrAddChild("parsed").add(parsed.sum());
+        counts.getOrAddChild("used").add(used.sum());
+        counts.getOrAddChild("late").add(late.sum());
+        counts.getOrAddChild("unused").add(unused);
+        statsLog.debugf("Class prefetch statistics");
+        statsLog.debugf("  Parsed classes:       %s", parsed.sum());
+        statsLog.debugf("  Used classes:         %s", used.sum());
+        statsLog.debugf("  Late classes:         %s", late.sum());
+        statsLog.debugf("  Unused classes:       %s", unused);
+        statsLog.debugf("  Saved time:           %s ms", savedNanos.sum() / 1_000_000L);
+    }
+
+    private void prefetch(final ClassContext classContext, final List<ClassPathItem> classPath, final String name) {
+        if (classPath == driver.appClassPath) {
+            // the application class loader delegates to the bootstrap class loader first
+            if (prefetch(bootstrapContext, driver.bootClassPath, name, true)) {
+                return;
+            }
+        }
+        prefetch(classContext, classPath, name, false);
+    }
+
+    /**
+     * Prefetch one class.
+     *
+     * @return {@code true} if the class was found on the class path (or was already handled), or {@code false} if it
+     *      was not found
+     */
+    private boolean prefetch(final ClassContext classContext, final List<ClassPathItem> classPath, final String name, final boolean delegating) {
+        Set<String> seen = seen(classContext);
+        if (seen.contains(name)) {
+            return true;
+        }
+        long start = System.nanoTime();
+        for (ClassPathItem item : classPath) {
+            Prefetched entry = null;
+            try (ClassPathElement.Resource resource = item.findResource(name + ".class")) {
+                if (resource == ClassPathElement.NON_EXISTENT) {
+                    continue;
+                }
+                if (! seen.add(name)) {
+                    // lost a race with another prefetch or with the definition
+                    return true;
+                }
+                // publish the entry first, so that a definition which is already under way is counted as late
+                entry = new Prefetched();
+                prefetched(classContext).put(name, entry);
+                ByteBuffer buffer = resource.getBuffer();
+                byte[] digest = Driver.digest(buffer);
+                ClassFile classFile = ClassFile.of(classContext, buffer);
+                entry.buffer = buffer;
+                entry.digest = digest;
+                entry.nanos = System.nanoTime() - start;
+                entry.classFile = classFile;
+                parsed.increment();
+            } catch (Exception e) {
+                // leave it to the definition to report the problem
+                if (entry != null) {
+                    prefetched(classContext).remove(name, entry);
+                }
+            }
+            return true;
+        }
+        if (! delegating) {
+            // not on the class path; do not look again
+            seen.add(name);
+        }
+        return false;
+    }
+
+    private void submit(final Runnable task) {
+        if (! stopped) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException ignored) {
+                // stopped concurrently
+            }
+        }
+    }
+
+    private Set<String> seen(final ClassContext classContext) {
+        return seen.computeIfAbsent(classContext, c -> ConcurrentHashMap.newKeySet());
+    }
+
+    private Map<String, Prefetched> prefetched(final ClassContext classContext) {
+        return prefetched.computeIfAbsent(classContext, c -> new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Get the name of the class which must be defined to use the given class constant, which may name an array class.
+     */
+    private static String elementName(final String name) {
+        int dims = 0;
+        while (dims < name.length() && name.charAt(dims) == '[') {
+            dims ++;
+        }
+        if (dims == 0) {
+            return name;
+        }
+        if (name.length() > dims + 2 && name.charAt(dims) == 'L' && name.charAt(name.length() - 1) == ';') {
+            return name.substring(dims + 1, name.length() - 1);
+        }
+        // primitive array
+        return null;
+    }
+
+    /**
+     * A prefetched class.  The fields are published by writing the volatile class file field last.
+     */
+    static final class Prefetched {
+        ByteBuffer buffer;
+        byte[] digest;
+        long nanos;
+        volatile ClassFile classFile;
+    }
+}
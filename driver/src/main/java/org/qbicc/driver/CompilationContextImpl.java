@@ -2,10 +2,8 @@ package org.qbicc.driver;
 
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -72,7 +70,7 @@ final class CompilationContextImpl implements CompilationContext {
     private final ConcurrentMap<VmClassLoader, ClassContext> classLoaderContexts = new ConcurrentHashMap<>();
     volatile Set<ExecutableElement> allowedSet = null;
     final Set<ExecutableElement> queued = ConcurrentHashMap.newKeySet();
-    final Queue<ExecutableElement> queue = new ArrayDeque<>();
+    final ElementScheduler scheduler;
     final Set<ExecutableElement> entryPoints = ConcurrentHashMap.newKeySet();
     final ClassContext bootstrapClassContext;
     final Function<VmClassLoader, ClassContext> appClassContextFactory;
@@ -94,8 +92,9 @@ final class CompilationContextImpl implements CompilationContext {
     private final Consumer<ClassContext> classContextListener;
     private final Section implicitSection = addSection(IMPLICIT_SECTION_NAME, 0, Segment.DATA);
 
-    CompilationContextImpl(final BaseDiagnosticContext baseDiagnosticContext, Platform platform, final TypeSystem typeSystem, final LiteralFactory literalFactory, BiFunction<ClassContext, String, DefinedTypeDefinition> bootstrapFinder, BiFunction<ClassContext, String, byte[]> bootstrapResourceFinder, BiFunction<ClassContext, String, List<byte[]>> bootstrapResourcesFinder, BiFunction<ClassContext, String, DefinedTypeDefinition> appFinder, BiFunction<ClassContext, String, byte[]> appResourceFinder, BiFunction<ClassContext, String, List<byte[]>> appResourcesFinder, Function<CompilationContext, Vm> vmFactory, final Path outputDir, final List<BiFunction<? super ClassContext, DescriptorTypeResolver, DescriptorTypeResolver>> resolverFactories, List<BiFunction<? super ClassContext, DefinedTypeDefinition.Builder, DefinedTypeDefinition.Builder>> typeBuilderFactories, NativeMethodConfigurator nativeMethodConfigurator, Consumer<ClassContext> classContextListener) {
+    CompilationContextImpl(final BaseDiagnosticContext baseDiagnosticContext, Platform platform, final TypeSystem typeSystem, final LiteralFactory literalFactory, BiFunction<ClassContext, String, DefinedTypeDefinition> bootstrapFinder, BiFunction<ClassContext, String, byte[]> bootstrapResourceFinder, BiFunction<ClassContext, String, List<byte[]>> bootstrapResourcesFinder, BiFunction<ClassContext, String, DefinedTypeDefinition> appFinder, BiFunction<ClassContext, String, byte[]> appResourceFinder, BiFunction<ClassContext, String, List<byte[]>> appResourcesFinder, Function<CompilationContext, Vm> vmFactory, final Path outputDir, final List<BiFunction<? super ClassContext, DescriptorTypeResolver, DescriptorTypeResolver>> resolverFactories, List<BiFunction<? super ClassContext, DefinedTypeDefinition.Builder, DefinedTypeDefinition.Builder>> typeBuilderFactories, NativeMethodConfigurator nativeMethodConfigurator, Consumer<ClassContext> classContextListener, ElementScheduler scheduler) {
         this.baseDiagnosticContext = baseDiagnosticContext;
+        this.scheduler = scheduler;
         this.platform = platform;
         this.typeSystem = typeSystem;
         this.literalFactory = literalFactory;
@@ -287,10 +286,7 @@ final class CompilationContextImpl implements CompilationContext {
             error(element, "Element was unreachable in the previous phase but became reachable in this phase");
         }
         if (queued.add(element)) {
-            synchronized (queue) {
-                queue.add(element);
-                queue.notify();
-            }
+            scheduler.add(element);
         }
     }
 
@@ -309,9 +305,7 @@ final class CompilationContextImpl implements CompilationContext {
     }
 
     public ExecutableElement dequeue() {
-        synchronized (queue) {
-            return queue.poll();
-        }
+        return scheduler.poll();
     }
 
     void lockEnqueuedSet() {
@@ -785,50 +779,21 @@ final class CompilationContextImpl implements CompilationContext {
         return copier;
     }
 
-    int waiting;
-
     void processQueue(Consumer<ExecutableElement> consumer) {
+        ElementScheduler scheduler = this.scheduler;
         synchronized (this) {
-            waiting = 0;
+            scheduler.start(activeThreads);
         }
-        runParallelTask(ctxt -> {
-            ExecutableElement element;
-            for (;;) {
-                synchronized (queue) {
-                    element = queue.poll();
-                    if (element == null) {
-                        waiting++;
-                        if (waiting == activeThreads) {
-                            // no elements left! let everyone know
-                            queue.notifyAll();
-                            return;
-                        }
-                        for (;;) {
-                            try {
-                                queue.wait();
-                            } catch (InterruptedException ignored) {
-                                // safe to ignore
-                            }
-                            element = queue.poll();
-                            if (element != null) {
-                                break;
-                            }
-                            if (waiting == activeThreads) {
-                                // awoken from sleep to exit
-                                return;
-                            }
-                        }
-                        waiting--;
-                    }
-                }
-                try {
-                    consumer.accept(element);
-                } catch (Throwable e) {
-                    log.error("An exception was thrown from a queue processing task", e);
-                    error(element, "Exception while processing queue task for element: %s", e);
-                }
+        scheduler.resetStats(this);
+        runParallelTask(ctxt -> scheduler.drain(element -> {
+            try {
+                consumer.accept(element);
+            } catch (Throwable e) {
+                log.error("An exception was thrown from a queue processing task", e);
+                error(element, "Exception while processing queue task for element: %s", e);
             }
-        });
+        }));
+        scheduler.reportStats(this);
     }
 
     void startThreads(final int threadCnt, final long stackSize) {
@@ -3,6 +3,8 @@ package org.qbicc.driver;
 import java.io.Closeable;
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -11,6 +13,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
@@ -36,6 +39,7 @@ import org.qbicc.interpreter.Vm;
 import org.qbicc.machine.arch.Platform;
 import org.qbicc.machine.object.ObjectFileProvider;
 import org.qbicc.machine.tool.CToolChain;
+import org.qbicc.plugin.metrics.Metrics;
 import org.qbicc.tool.llvm.LlvmToolChain;
 import org.qbicc.type.TypeSystem;
 import org.qbicc.type.definition.DefinedTypeDefinition;
@@ -51,6 +55,7 @@ import org.qbicc.type.definition.element.ExecutableElement;
  */
 public class Driver implements Closeable {
     private static final Logger log = Logger.getLogger("org.qbicc.driver");
+    private static final Logger metricsLog = Logger.getLogger("org.qbicc.driver.metrics");
     private static final AttachmentKey<Driver> KEY = new AttachmentKey<>();
 
     static final String MODULE_INFO = "module-info.class";
@@ -93,6 +98,9 @@ public class Driver implements Closeable {
     final float threadsPerCpu;
     final long stackSize;
     final Consumer<ClassContext> classContextListener;
+    final Map<ClassContext, Map<String, byte[]>> classDigests = new ConcurrentHashMap<>();
+    final int prefetchThreads;
+    volatile ClassPrefetcher prefetcher;
 
     Driver(final Builder builder) {
         initialContext = Assert.checkNotNullParam("builder.initialContext", builder.initialContext);
@@ -166,12 +174,13 @@ public class Driver implements Closeable {
 
         java.util.function.Function<CompilationContext, Vm> vmFactory = Assert.checkNotNullParam("builder.vmFactory", builder.vmFactory);
         NativeMethodConfigurator nativeMethodConfigurator = constructNativeMethodConfigurator(builder);
-        compilationContext = new CompilationContextImpl(initialContext, builder.targetPlatform, typeSystem, literalFactory, this::defaultFinder, this::defaultResourceFinder, this::defaultResourcesFinder, this::appFinder, this::appResourceFinder, this::appResourcesFinder, vmFactory, outputDir, resolverFactories, typeBuilderFactories, nativeMethodConfigurator, classContextListener);
+        compilationContext = new CompilationContextImpl(initialContext, builder.targetPlatform, typeSystem, literalFactory, this::defaultFinder, this::defaultResourceFinder, this::defaultResourcesFinder, this::appFinder, this::appResourceFinder, this::appResourcesFinder, vmFactory, outputDir, resolverFactories, typeBuilderFactories, nativeMethodConfigurator, classContextListener, ElementScheduler.create(builder.schedulerType));
         // start with ADD
         compilationContext.setBlockFactory(addBuilderFactory);
 
         threadsPerCpu = builder.threadsPerCpu;
         stackSize = builder.stackSize;
+        prefetchThreads = builder.prefetchThreads;
         compilationContext.putAttachment(KEY, this);
     }
 
@@ -195,6 +204,19 @@ public class Driver implements Closeable {
         return List.copyOf(bootModules.keySet());
     }
 
+    /**
+     * Get the SHA-256 digest of the class file from which the given type was defined.  Only types which were loaded
+     * from the class path have a digest; types which were defined at run time do not.
+     *
+     * @param definition the type definition (must not be {@code null})
+     * @return the digest, or {@code null} if the type was not loaded from the class path
+     */
+    public byte[] getClassDigest(DefinedTypeDefinition definition) {
+        Map<String, byte[]> digests = classDigests.get(definition.getContext());
+        byte[] digest = digests == null ? null : digests.get(definition.getInternalName());
+        return digest == null ? null : digest.clone();
+    }
+
     private NativeMethodConfigurator constructNativeMethodConfigurator(final Builder builder) {
         List<UnaryOperator<NativeMethodConfigurator>> list = new ArrayList<>(builder.nativeMethodConfiguratorFactories);
         Collections.reverse(list);
@@ -286,6 +308,19 @@ public class Driver implements Closeable {
     }
 
     private DefinedTypeDefinition findClassDefinition(final ClassContext classContext, final String name, final List<ClassPathItem> classPath) {
+        ClassPrefetcher prefetcher = this.prefetcher;
+        if (prefetcher != null) {
+            ClassPrefetcher.Prefetched prefetched = prefetcher.take(classContext, name);
+            if (prefetched != null) {
+                try {
+                    return defineClass(classContext, name, classPath, prefetched.classFile, prefetched.digest);
+                } catch (Exception e) {
+                    log.warnf(e, "An exception was thrown while loading class \"%s\" from the bootstrap loader", name);
+                    classContext.getCompilationContext().warning("Failed to load class \"%s\" from the bootstrap loader due to an exception: %s", name, e);
+                    return null;
+                }
+            }
+        }
         String fileName = name + ".class";
         ByteBuffer buffer;
         for (ClassPathItem item : classPath) {
@@ -294,12 +329,9 @@ public class Driver implements Closeable {
                     continue;
                 }
                 buffer = resource.getBuffer();
+                byte[] digest = digest(buffer);
                 ClassFile classFile = ClassFile.of(classContext, buffer);
-                DefinedTypeDefinition.Builder builder = classContext.newTypeBuilder();
-                classFile.accept(builder);
-                DefinedTypeDefinition def = builder.build();
-                classContext.defineClass(name, def);
-                return def;
+                return defineClass(classContext, name, classPath, classFile, digest);
             } catch (Exception e) {
                 log.warnf(e, "An exception was thrown while loading class \"%s\" from the bootstrap loader", name);
                 classContext.getCompilationContext().warning("Failed to load class \"%s\" from the bootstrap loader due to an exception: %s", name, e);
@@ -309,6 +341,30 @@ public class Driver implements Closeable {
         return null;
     }
 
+    private DefinedTypeDefinition defineClass(final ClassContext classContext, final String name, final List<ClassPathItem> classPath, final ClassFile classFile, final byte[] digest) {
+        DefinedTypeDefinition.Builder builder = classContext.newTypeBuilder();
+        classFile.accept(builder);
+        DefinedTypeDefinition def = builder.build();
+        classContext.defineClass(name, def);
+        classDigests.computeIfAbsent(classContext, c -> new ConcurrentHashMap<>()).put(name, digest);
+        ClassPrefetcher prefetcher = this.prefetcher;
+        if (prefetcher != null) {
+            prefetcher.scan(classContext, classPath, classFile);
+        }
+        return def;
+    }
+
+    static byte[] digest(final ByteBuffer buffer) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(buffer.duplicate());
+        return digest.digest();
+    }
+
     private byte[] findResource(final ClassContext classContext, final String name, final List<ClassPathItem> classPath) {
         ByteBuffer buffer;
         for (ClassPathItem item : classPath) {
@@ -383,6 +439,9 @@ public class Driver implements Closeable {
         } finally {
             // shut down threads
             compilationContext.exitThreads();
+            if (metricsLog.isDebugEnabled()) {
+                metricsLog.debugf("Compilation metrics:%n%s", Metrics.get(compilationContext).formatAll(new StringBuilder()));
+            }
         }
     }
 
@@ -429,34 +488,48 @@ public class Driver implements Closeable {
                 return false;
             }
         }
-        LoadedTypeDefinition stringClass = loadBootstrapClass("java/lang/String");
-        if (stringClass == null) {
-            return false;
-        }
-        LoadedTypeDefinition threadClass = loadBootstrapClass("java/lang/Thread");
-        if (threadClass == null) {
-            return false;
-        }
-        LoadedTypeDefinition vmClass = loadBootstrapClass("org/qbicc/runtime/main/VM");
-        if (vmClass == null) {
-            return false;
+        long addStart = System.nanoTime();
+        if (prefetchThreads > 0) {
+            // class files are only read and parsed ahead during ADD, which is when nearly all classes are defined
+            prefetcher = new ClassPrefetcher(this, compilationContext.getBootstrapClassContext(), prefetchThreads, stackSize);
         }
+        try {
+            LoadedTypeDefinition stringClass = loadBootstrapClass("java/lang/String");
+            if (stringClass == null) {
+                return false;
+            }
+            LoadedTypeDefinition threadClass = loadBootstrapClass("java/lang/Thread");
+            if (threadClass == null) {
+                return false;
+            }
+            LoadedTypeDefinition vmClass = loadBootstrapClass("org/qbicc/runtime/main/VM");
+            if (vmClass == null) {
+                return false;
+            }
 
-        // trace out the program graph, enqueueing each item one time and then processing every item in the queue;
-        // in this stage we're just loading everything that *might* be reachable
-        for (ExecutableElement entryPoint : compilationContext.getEntryPoints()) {
-            compilationContext.enqueue(entryPoint);
-        }
+            // trace out the program graph, enqueueing each item one time and then processing every item in the queue;
+            // in this stage we're just loading everything that *might* be reachable
+            for (ExecutableElement entryPoint : compilationContext.getEntryPoints()) {
+                compilationContext.enqueue(entryPoint);
+            }
 
-        compilationContext.processQueue(element -> {
-            MDC.put("phase", "ADD");
-            for (Consumer<ExecutableElement> handler : addElementHandlers) try {
-                handler.accept(element);
-            } catch (Exception e) {
-                log.error("An exception was thrown in an element handler", e);
-                compilationContext.error(element, "Element handler threw an exception: %s", e);
+            compilationContext.processQueue(element -> {
+                MDC.put("phase", "ADD");
+                for (Consumer<ExecutableElement> handler : addElementHandlers) try {
+                    handler.accept(element);
+                } catch (Exception e) {
+                    log.error("An exception was thrown in an element handler", e);
+                    compilationContext.error(element, "Element handler threw an exception: %s", e);
+                }
+            });
+        } finally {
+            ClassPrefetcher prefetcher = this.prefetcher;
+            if (prefetcher != null) {
+                this.prefetcher = null;
+                prefetcher.stop(compilationContext);
             }
-        });
+            log.debugf("Processed the ADD queue in %d ms with %d class prefetch thread(s)", Long.valueOf((System.nanoTime() - addStart) / 1_000_000L), Integer.valueOf(prefetchThreads));
+        }
 
         if (compilationContext.errors() > 0) {
             // bail out
@@ -708,6 +781,8 @@ public class Driver implements Closeable {
         float threadsPerCpu = 2.0f;
         // 16 MB is the default stack size
         long stackSize = 0x1000000L;
+        int prefetchThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+        SchedulerType schedulerType = SchedulerType.WORK_STEALING;
 
         String mainClass;
         Consumer<ClassContext> classContextListener = Functions.discardingConsumer();
@@ -896,6 +971,32 @@ public class Driver implements Closeable {
             return this;
         }
 
+        public int getPrefetchThreads() {
+            return prefetchThreads;
+        }
+
+        /**
+         * Set the number of threads which read and parse class files ahead of need during the ADD phase.  A value of
+         * zero disables prefetching.
+         *
+         * @param prefetchThreads the number of prefetch threads
+         * @return this builder
+         */
+        public Builder setPrefetchThreads(int prefetchThreads) {
+            Assert.checkMinimumParameter("prefetchThreads", 0, prefetchThreads);
+            this.prefetchThreads = prefetchThreads;
+            return this;
+        }
+
+        public SchedulerType getSchedulerType() {
+            return schedulerType;
+        }
+
+        public Builder setSchedulerType(SchedulerType schedulerType) {
+            this.schedulerType = Assert.checkNotNullParam("schedulerType", schedulerType);
+            return this;
+        }
+
         public Builder addNativeMethodConfiguratorFactory(UnaryOperator<NativeMethodConfigurator> factory) {
             Assert.checkNotNullParam("factory", factory);
             nativeMethodConfiguratorFactories.add(factory);
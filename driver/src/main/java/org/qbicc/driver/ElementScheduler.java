@@ -0,0 +1,113 @@
+package org.qbicc.driver;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.jboss.logging.Logger;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.plugin.metrics.CountMetric;
+import org.qbicc.plugin.metrics.Metrics;
+import org.qbicc.plugin.metrics.Timer;
+import org.qbicc.type.definition.element.ExecutableElement;
+
+/**
+ * A scheduler which holds the enqueued elements of a phase and hands them out to the compiler threads.
+ */
+abstract class ElementScheduler {
+    static final Logger statsLog = Logger.getLogger("org.qbicc.driver.scheduler.stats");
+
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder steals = new LongAdder();
+    private final AtomicLong peakDepth = new AtomicLong();
+    private volatile Timer idleTimer;
+
+    ElementScheduler() {}
+
+    static ElementScheduler create(SchedulerType type) {
+        switch (type) {
+            case SHARED_QUEUE: return new SharedQueueScheduler();
+            case WORK_STEALING: return new WorkStealingScheduler();
+            default: throw new IllegalArgumentException();
+        }
+    }
+
+    /**
+     * Add an element to the scheduler.  May be called from any thread at any time.
+     *
+     * @param element the element to add (must not be {@code null})
+     */
+    abstract void add(ExecutableElement element);
+
+    /**
+     * Remove an element from the scheduler without processing it.
+     *
+     * @return the removed element, or {@code null} if there are no elements pending
+     */
+    abstract ExecutableElement poll();
+
+    /**
+     * Prepare for a queue processing run.  Called by the coordinating thread before any compiler thread calls
+     * {@link #drain}.
+     *
+     * @param threadCount the number of compiler threads which will participate in the run
+     */
+    abstract void start(int threadCount);
+
+    /**
+     * Process elements on the calling compiler thread until no element remains to be processed by any thread.
+     *
+     * @param consumer the element consumer (must not be {@code null})
+     */
+    abstract void drain(Consumer<ExecutableElement> consumer);
+
+    void resetStats(CompilationContext ctxt) {
+        processed.reset();
+        steals.reset();
+        peakDepth.set(0);
+        idleTimer = Metrics.get(ctxt).getOrCreateRootTimer("scheduler idle").getOrAddChild(String.valueOf(Phase.getCurrent(ctxt)));
+    }
+
+    void countProcessed() {
+        processed.increment();
+    }
+
+    void countSteal() {
+        steals.increment();
+    }
+
+    void updateDepth(long depth) {
+        long peak = peakDepth.get();
+        while (depth > peak) {
+            if (peakDepth.compareAndSet(peak, depth)) {
+                return;
+            }
+            peak = peakDepth.get();
+        }
+    }
+
+    void runIdle(Runnable task) {
+        Timer idleTimer = this.idleTimer;
+        if (idleTimer == null) {
+            task.run();
+        } else {
+            idleTimer.runTimed(task);
+        }
+    }
+
+    void reportStats(CompilationContext ctxt) {
+        String phase = String.valueOf(Phase.getCurrent(ctxt));
+        Metrics metrics = Metrics.get(ctxt);
+        CountMetric counts = metrics.getOrCreateRootCountMetric("scheduler").getOrAddChild(phase);
+        counts.getOrAddChild("processed").add(processed.sum());
+        counts.getOrAddChild("steals").add(steals.sum());
+        // a separate root, so that the peak is not summed into the counts of the phase
+        metrics.getOrCreateRootCountMetric("scheduler peak queue depth").getOrAddChild(phase).max(peakDepth.get());
+        Timer idleTimer = this.idleTimer;
+        statsLog.debugf("Scheduler statistics (%s)", getClass().getSimpleName());
+        statsLog.debugf("  Processed elements: %s", processed.sum());
+        statsLog.debugf("  Steals:             %s", steals.sum());
+        statsLog.debugf("  Peak queue depth:   %s", peakDepth.get());
+        statsLog.debugf("  Total idle time:    %s", idleTimer == null ? "n/a" : idleTimer.getFormattedValue());
+    }
+}
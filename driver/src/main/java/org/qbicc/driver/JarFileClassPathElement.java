@@ -2,19 +2,81 @@ package org.qbicc.driver;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
 
+import io.smallrye.common.os.OS;
 import org.qbicc.machine.vfs.VirtualFileSystem;
 import org.qbicc.machine.vfs.VirtualPath;
 
+/**
+ * A class path element for a JAR file.  The JAR file is mapped into memory once, and its central directory is read
+ * into an index.  Stored entries are then returned as slices of the mapping without any copying, and deflated entries
+ * are inflated directly from the mapping into off-heap memory the first time they are requested, and kept there for
+ * later requests.  Entries which cannot be read this way (and all entries, if the file cannot be mapped) are read
+ * through the {@link JarFile} instead.
+ */
 final class JarFileClassPathElement extends ClassPathElement {
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int CEN_HDR = 46;
+    private static final int END_HDR = 22;
+    private static final int LOC_HDR = 30;
+    private static final String IMAGE_FORMAT_VERSION = "qbicc-class-path-image-1";
+
+    private final Path path;
     private final JarFile jarFile;
+    // big-endian, as class files are; null if the file is not mapped
+    private final ByteBuffer mapped;
+    // null if the file is not mapped
+    private final Map<String, Entry> index;
+    private final Map<String, ByteBuffer> inflated = new ConcurrentHashMap<>();
+    private final Arena arena = new Arena();
 
-    JarFileClassPathElement(final JarFile jarFile) {
-        this.jarFile = jarFile;
+    JarFileClassPathElement(final Path path) throws IOException {
+        this.path = path;
+        jarFile = new JarFile(path.toFile());
+        ByteBuffer mapped = null;
+        Map<String, Entry> index = null;
+        // mapped files cannot be deleted or replaced on Windows
+        if (OS.current() != OS.WINDOWS) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size <= Integer.MAX_VALUE) {
+                    mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+                    index = readIndex(mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+                }
+            } catch (Throwable t) {
+                jarFile.close();
+                throw t;
+            }
+        }
+        this.index = index;
+        this.mapped = index == null ? null : mapped;
     }
 
     public String getName() {
@@ -22,6 +84,15 @@ final class JarFileClassPathElement extends ClassPathElement {
     }
 
     public ClassPathElement.Resource getResource(final String name) {
+        if (index != null) {
+            Entry entry = index.get(name);
+            if (entry == null) {
+                return NON_EXISTENT;
+            }
+            if (entry.method() == ZipEntry.STORED || entry.method() == ZipEntry.DEFLATED) {
+                return new MappedResource(name, entry);
+            }
+        }
         JarEntry jarEntry = jarFile.getJarEntry(name);
         return jarEntry == null ? NON_EXISTENT : new Resource(jarEntry);
     }
@@ -44,10 +115,237 @@ final class JarFileClassPathElement extends ClassPathElement {
         }
     }
 
+    @Override
+    ClassPathElement toImage(final Path imageDirectory) throws IOException {
+        if (index != null) {
+            boolean stored = true;
+            for (Entry entry : index.values()) {
+                stored &= entry.method() == ZipEntry.STORED;
+            }
+            if (stored) {
+                // this file is an image already
+                return this;
+            }
+        }
+        Path imagePath = imageDirectory.resolve(imageKey() + ".jar");
+        if (! Files.exists(imagePath)) {
+            writeImage(imagePath);
+        }
+        return new JarFileClassPathElement(imagePath);
+    }
+
     public void close() throws IOException {
+        inflated.clear();
         jarFile.close();
     }
 
+    /**
+     * Compute the name of the image of this file, which covers the location, size, and modification time of the file,
+     * so that an image is made once for each version of a JAR file.
+     */
+    private String imageKey() throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        String key = IMAGE_FORMAT_VERSION + '\n' + path.toAbsolutePath() + '\n' + Files.size(path) + '\n' + Files.getLastModifiedTime(path).toMillis();
+        return HexFormat.of().formatHex(digest.digest(key.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Write a copy of this file in which every entry is stored rather than deflated.
+     */
+    private void writeImage(final Path imagePath) throws IOException {
+        Path imageDirectory = imagePath.getParent();
+        Files.createDirectories(imageDirectory);
+        // write to a temporary file first so that other builds never see a partial image
+        Path tmp = Files.createTempFile(imageDirectory, imagePath.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream os = Files.newOutputStream(tmp)) {
+                try (ZipOutputStream zos = new ZipOutputStream(os)) {
+                    zos.setMethod(ZipOutputStream.STORED);
+                    CRC32 crc = new CRC32();
+                    Iterator<JarEntry> iterator = jarFile.entries().asIterator();
+                    while (iterator.hasNext()) {
+                        JarEntry entry = iterator.next();
+                        byte[] bytes;
+                        try (InputStream is = jarFile.getInputStream(entry)) {
+                            bytes = is.readAllBytes();
+                        }
+                        crc.reset();
+                        crc.update(bytes);
+                        ZipEntry copy = new ZipEntry(entry.getName());
+                        copy.setMethod(ZipEntry.STORED);
+                        copy.setSize(bytes.length);
+                        copy.setCompressedSize(bytes.length);
+                        copy.setCrc(crc.getValue());
+                        copy.setTime(entry.getTime());
+                        zos.putNextEntry(copy);
+                        zos.write(bytes);
+                        zos.closeEntry();
+                    }
+                }
+            }
+            try {
+                Files.move(tmp, imagePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ignored) {
+                Files.move(tmp, imagePath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Read the central directory of the mapped file.
+     *
+     * @param buf a little-endian view of the whole file
+     * @return the index, or {@code null} if the file uses a feature (such as ZIP64) which is not supported here
+     */
+    private static Map<String, Entry> readIndex(final ByteBuffer buf) {
+        int size = buf.capacity();
+        int end = -1;
+        for (int pos = size - END_HDR; pos >= Math.max(0, size - END_HDR - 0xffff); pos --) {
+            if (buf.getInt(pos) == END_SIG && pos + END_HDR + (buf.getShort(pos + 20) & 0xffff) == size) {
+                end = pos;
+                break;
+            }
+        }
+        if (end == -1) {
+            return null;
+        }
+        int count = buf.getShort(end + 10) & 0xffff;
+        long cenSize = buf.getInt(end + 12) & 0xffffffffL;
+        long cenOffset = buf.getInt(end + 16) & 0xffffffffL;
+        if (count == 0xffff || cenOffset == 0xffffffffL || cenOffset + cenSize > end) {
+            // ZIP64, or data before the archive
+            return null;
+        }
+        Map<String, Entry> index = new HashMap<>(count * 2);
+        int pos = (int) cenOffset;
+        for (int i = 0; i < count; i ++) {
+            if (pos + CEN_HDR > end || buf.getInt(pos) != CEN_SIG) {
+                return null;
+            }
+            int flags = buf.getShort(pos + 8) & 0xffff;
+            int method = buf.getShort(pos + 10) & 0xffff;
+            long compressedSize = buf.getInt(pos + 20) & 0xffffffffL;
+            long uncompressedSize = buf.getInt(pos + 24) & 0xffffffffL;
+            int nameLen = buf.getShort(pos + 28) & 0xffff;
+            int extraLen = buf.getShort(pos + 30) & 0xffff;
+            int commentLen = buf.getShort(pos + 32) & 0xffff;
+            long localOffset = buf.getInt(pos + 42) & 0xffffffffL;
+            byte[] nameBytes = new byte[nameLen];
+            buf.get(pos + CEN_HDR, nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+            if ((flags & 1) != 0 || compressedSize >= Integer.MAX_VALUE || uncompressedSize >= Integer.MAX_VALUE || localOffset >= cenOffset) {
+                // encrypted or ZIP64 entry; read it through the JAR file
+                method = -1;
+            }
+            index.putIfAbsent(name, new Entry(method, (int) localOffset, (int) compressedSize, (int) uncompressedSize));
+            pos += CEN_HDR + nameLen + extraLen + commentLen;
+        }
+        return index;
+    }
+
+    record Entry(int method, int localOffset, int compressedSize, int size) {}
+
+    /**
+     * The off-heap memory into which entries are inflated.  Small entries are packed into shared chunks.
+     */
+    static final class Arena {
+        private static final int CHUNK_SIZE = 1 << 22;
+        // protected by this
+        private ByteBuffer chunk;
+
+        ByteBuffer allocate(int size) {
+            if (size > CHUNK_SIZE >> 4) {
+                return ByteBuffer.allocateDirect(size);
+            }
+            synchronized (this) {
+                ByteBuffer chunk = this.chunk;
+                if (chunk == null || chunk.remaining() < size) {
+                    chunk = this.chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+                }
+                ByteBuffer slice = chunk.slice(chunk.position(), size);
+                chunk.position(chunk.position() + size);
+                return slice;
+            }
+        }
+    }
+
+    final class MappedResource extends ClassPathElement.Resource {
+        private final String name;
+        private final Entry entry;
+
+        MappedResource(final String name, final Entry entry) {
+            this.name = name;
+            this.entry = entry;
+        }
+
+        public ByteBuffer getBuffer() throws IOException {
+            ByteBuffer buffer = inflated.get(name);
+            if (buffer == null) {
+                int dataOffset = dataOffset();
+                if (entry.method() == ZipEntry.STORED) {
+                    return mapped.slice(dataOffset, entry.size());
+                }
+                buffer = inflate(mapped.slice(dataOffset, entry.compressedSize()));
+                ByteBuffer appearing = inflated.putIfAbsent(name, buffer);
+                if (appearing != null) {
+                    buffer = appearing;
+                }
+            }
+            // callers may move the position
+            return buffer.duplicate();
+        }
+
+        private int dataOffset() throws ZipException {
+            int localOffset = entry.localOffset();
+            if (localOffset + LOC_HDR > mapped.capacity() || Integer.reverseBytes(mapped.getInt(localOffset)) != LOC_SIG) {
+                throw new ZipException("Invalid local header for entry \"" + name + "\" of " + getName());
+            }
+            // the local name and extra fields may differ in length from the central ones
+            int nameLen = Short.toUnsignedInt(Short.reverseBytes(mapped.getShort(localOffset + 26)));
+            int extraLen = Short.toUnsignedInt(Short.reverseBytes(mapped.getShort(localOffset + 28)));
+            int dataOffset = localOffset + LOC_HDR + nameLen + extraLen;
+            int length = entry.method() == ZipEntry.STORED ? entry.size() : entry.compressedSize();
+            if (dataOffset + length > mapped.capacity()) {
+                throw new ZipException("Truncated entry \"" + name + "\" of " + getName());
+            }
+            return dataOffset;
+        }
+
+        private ByteBuffer inflate(final ByteBuffer input) throws ZipException {
+            ByteBuffer output = arena.allocate(entry.size());
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(input);
+                while (output.hasRemaining()) {
+                    if (inflater.inflate(output) == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                }
+            } catch (DataFormatException e) {
+                ZipException ze = new ZipException("Invalid compressed data for entry \"" + name + "\" of " + getName());
+                ze.initCause(e);
+                throw ze;
+            } finally {
+                inflater.end();
+            }
+            if (output.hasRemaining()) {
+                throw new ZipException("Truncated entry \"" + name + "\" of " + getName());
+            }
+            return output.flip();
+        }
+
+        public void close() {
+            // no operation
+        }
+    }
+
     final class Resource extends ClassPathElement.Resource {
         private final JarEntry entry;
 
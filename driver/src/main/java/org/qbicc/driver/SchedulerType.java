@@ -0,0 +1,16 @@
+package org.qbicc.driver;
+
+/**
+ * The strategy used to distribute enqueued elements among the compiler threads.
+ */
+public enum SchedulerType {
+    /**
+     * All compiler threads take elements from a single queue which is guarded by one lock.
+     */
+    SHARED_QUEUE,
+    /**
+     * Each compiler thread has its own deque of elements, and idle threads steal elements from busy threads.
+     */
+    WORK_STEALING,
+    ;
+}
@@ -0,0 +1,82 @@
+package org.qbicc.driver;
+
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+import org.qbicc.type.definition.element.ExecutableElement;
+
+/**
+ * A scheduler where all threads share one queue under a single lock.
+ */
+final class SharedQueueScheduler extends ElementScheduler {
+    private final ArrayDeque<ExecutableElement> queue = new ArrayDeque<>();
+    private int threadCount;
+    private int waiting;
+
+    SharedQueueScheduler() {}
+
+    @Override
+    void add(ExecutableElement element) {
+        synchronized (queue) {
+            queue.add(element);
+            updateDepth(queue.size());
+            queue.notify();
+        }
+    }
+
+    @Override
+    ExecutableElement poll() {
+        synchronized (queue) {
+            return queue.poll();
+        }
+    }
+
+    @Override
+    void start(int threadCount) {
+        synchronized (queue) {
+            this.threadCount = threadCount;
+            waiting = 0;
+        }
+    }
+
+    @Override
+    void drain(Consumer<ExecutableElement> consumer) {
+        ExecutableElement element;
+        for (;;) {
+            synchronized (queue) {
+                element = queue.poll();
+                if (element == null) {
+                    waiting++;
+                    if (waiting == threadCount) {
+                        // no elements left! let everyone know
+                        queue.notifyAll();
+                        return;
+                    }
+                    for (;;) {
+                        runIdle(this::awaitElement);
+                        element = queue.poll();
+                        if (element != null) {
+                            break;
+                        }
+                        if (waiting == threadCount) {
+                            // awoken from sleep to exit
+                            return;
+                        }
+                    }
+                    waiting--;
+                }
+            }
+            consumer.accept(element);
+            countProcessed();
+        }
+    }
+
+    private void awaitElement() {
+        assert Thread.holdsLock(queue);
+        try {
+            queue.wait();
+        } catch (InterruptedException ignored) {
+            // safe to ignore
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package org.qbicc.driver;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import org.qbicc.type.definition.element.ExecutableElement;
+
+/**
+ * A scheduler where each compiler thread owns a deque of elements.  Elements enqueued by a compiler thread are pushed
+ * on to its own deque and processed in LIFO order; elements enqueued by any other thread go to a shared injection
+ * queue.  A thread which runs out of work takes from the injection queue, and then steals from the opposite end of
+ * the deques of other threads.
+ * <p>
+ * Completion is detected using a count of elements which are either queued or being processed.  Since an element
+ * can only be enqueued by a thread which is processing another element (or before the run starts), a count of zero
+ * means that no more work can appear.
+ */
+final class WorkStealingScheduler extends ElementScheduler {
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final ConcurrentLinkedQueue<ExecutableElement> injected = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Worker> currentWorker = new ThreadLocal<>();
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicInteger idle = new AtomicInteger();
+    private final AtomicInteger registered = new AtomicInteger();
+    private volatile AtomicReferenceArray<Worker> workers = new AtomicReferenceArray<>(0);
+
+    WorkStealingScheduler() {}
+
+    @Override
+    void add(ExecutableElement element) {
+        updateDepth(pending.incrementAndGet());
+        Worker worker = currentWorker.get();
+        if (worker != null) {
+            worker.deque.addFirst(element);
+        } else {
+            injected.add(element);
+        }
+        if (idle.get() > 0) {
+            wakeOne();
+        }
+    }
+
+    @Override
+    ExecutableElement poll() {
+        ExecutableElement element = injected.poll();
+        if (element == null) {
+            AtomicReferenceArray<Worker> workers = this.workers;
+            for (int i = 0; i < workers.length() && element == null; i ++) {
+                Worker worker = workers.get(i);
+                if (worker != null) {
+                    element = worker.deque.pollLast();
+                }
+            }
+        }
+        if (element != null) {
+            pending.decrementAndGet();
+        }
+        return element;
+    }
+
+    @Override
+    void start(int threadCount) {
+        registered.set(0);
+        workers = new AtomicReferenceArray<>(threadCount);
+    }
+
+    @Override
+    void drain(Consumer<ExecutableElement> consumer) {
+        AtomicReferenceArray<Worker> workers = this.workers;
+        Worker self = new Worker(Thread.currentThread());
+        int index = registered.getAndIncrement();
+        workers.set(index, self);
+        currentWorker.set(self);
+        try {
+            long parkNanos = 1;
+            for (;;) {
+                ExecutableElement element = self.deque.pollFirst();
+                if (element == null) {
+                    element = injected.poll();
+                    if (element == null) {
+                        element = steal(workers, index);
+                    }
+                }
+                if (element == null) {
+                    if (pending.get() == 0) {
+                        // everything has been processed; release any parked threads so they can exit too
+                        wakeAll(workers);
+                        return;
+                    }
+                    // some thread is still running an element, which may produce more work
+                    park(self, workers, index, parkNanos);
+                    parkNanos = Math.min(parkNanos << 1, MAX_PARK_NANOS);
+                    continue;
+                }
+                parkNanos = 1;
+                try {
+                    consumer.accept(element);
+                } finally {
+                    countProcessed();
+                    if (pending.decrementAndGet() == 0) {
+                        wakeAll(workers);
+                    }
+                }
+            }
+        } finally {
+            currentWorker.remove();
+        }
+    }
+
+    private ExecutableElement steal(AtomicReferenceArray<Worker> workers, int selfIndex) {
+        int cnt = workers.length();
+        if (cnt <= 1) {
+            return null;
+        }
+        int start = ThreadLocalRandom.current().nextInt(cnt);
+        for (int i = 0; i < cnt; i ++) {
+            int idx = (start + i) % cnt;
+            if (idx == selfIndex) {
+                continue;
+            }
+            Worker victim = workers.get(idx);
+            if (victim != null) {
+                ExecutableElement element = victim.deque.pollLast();
+                if (element != null) {
+                    countSteal();
+                    return element;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void park(Worker self, AtomicReferenceArray<Worker> workers, int selfIndex, long parkNanos) {
+        self.parked = true;
+        idle.incrementAndGet();
+        try {
+            // re-check after publishing the idle state, so that an element added concurrently is not missed
+            if (pending.get() != 0 && injected.isEmpty() && ! hasStealableWork(workers, selfIndex)) {
+                runIdle(() -> LockSupport.parkNanos(this, parkNanos));
+            }
+        } finally {
+            idle.decrementAndGet();
+            self.parked = false;
+        }
+    }
+
+    private static boolean hasStealableWork(AtomicReferenceArray<Worker> workers, int selfIndex) {
+        for (int i = 0; i < workers.length(); i ++) {
+            Worker worker = workers.get(i);
+            if (i != selfIndex && worker != null && ! worker.deque.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void wakeOne() {
+        AtomicReferenceArray<Worker> workers = this.workers;
+        for (int i = 0; i < workers.length(); i ++) {
+            Worker worker = workers.get(i);
+            if (worker != null && worker.parked) {
+                LockSupport.unpark(worker.thread);
+                return;
+            }
+        }
+    }
+
+    private static void wakeAll(AtomicReferenceArray<Worker> workers) {
+        for (int i = 0; i < workers.length(); i ++) {
+            Worker worker = workers.get(i);
+            if (worker != null && worker.parked) {
+                LockSupport.unpark(worker.thread);
+            }
+        }
+    }
+
+    static final class Worker {
+        final Thread thread;
+        final ConcurrentLinkedDeque<ExecutableElement> deque = new ConcurrentLinkedDeque<>();
+        volatile boolean parked;
+
+        Worker(Thread thread) {
+            this.thread = thread;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package org.qbicc.driver;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import io.smallrye.common.os.OS;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of the reading of JAR files through their central directory.
+ */
+public class TestJarFileClassPathElement {
+    private static final byte[] STORED = "stored contents".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] DEFLATED = "deflated contents, deflated contents, deflated contents".repeat(100).getBytes(StandardCharsets.UTF_8);
+
+    @BeforeAll
+    public static void checkMapped() {
+        // files are not mapped on Windows
+        assumeFalse(OS.current() == OS.WINDOWS);
+    }
+
+    @Test
+    public void testStoredAndDeflated(@TempDir Path dir) throws IOException {
+        Path jar = dir.resolve("test.jar");
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(jar))) {
+            putStored(zos, "a/Stored.class", STORED);
+            putDeflated(zos, "a/Deflated.class", DEFLATED, true);
+        }
+        try (ClassPathElement element = ClassPathElement.forJarFile(jar)) {
+            assertMapped(element, "a/Stored.class", STORED);
+            assertMapped(element, "a/Deflated.class", DEFLATED);
+            // inflated entries are kept, but every caller gets its own position
+            assertMapped(element, "a/Deflated.class", DEFLATED);
+            assertSame(ClassPathElement.NON_EXISTENT, element.getResource("a/Missing.class"));
+        }
+    }
+
+    @Test
+    public void testDataDescriptor(@TempDir Path dir) throws IOException {
+        Path jar = dir.resolve("test.jar");
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(jar))) {
+            // the sizes are only known once the entry is written, so they follow it in a data descriptor
+            putDeflated(zos, "a/Deflated.class", DEFLATED, false);
+            putStored(zos, "a/Stored.class", STORED);
+        }
+        try (ClassPathElement element = ClassPathElement.forJarFile(jar)) {
+            assertMapped(element, "a/Deflated.class", DEFLATED);
+            assertMapped(element, "a/Stored.class", STORED);
+        }
+    }
+
+    @Test
+    public void testArchiveComment(@TempDir Path dir) throws IOException {
+        Path jar = dir.resolve("test.jar");
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(jar))) {
+            putDeflated(zos, "a/Deflated.class", DEFLATED, true);
+            zos.setComment("a comment which follows the end of the central directory");
+        }
+        try (ClassPathElement element = ClassPathElement.forJarFile(jar)) {
+            assertMapped(element, "a/Deflated.class", DEFLATED);
+        }
+    }
+
+    @Test
+    public void testZip64(@TempDir Path dir) throws IOException {
+        Path jar = dir.resolve("test.jar");
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(jar))) {
+            putDeflated(zos, "a/Deflated.class", DEFLATED, true);
+            // too many entries for the end of the central directory, so the count is in the ZIP64 end record
+            for (int i = 0; i < 0xffff; i ++) {
+                putStored(zos, "b/" + i, new byte[0]);
+            }
+        }
+        try (ClassPathElement element = ClassPathElement.forJarFile(jar)) {
+            assertRead(element, "a/Deflated.class", DEFLATED);
+            assertRead(element, "b/65534", new byte[0]);
+            assertSame(ClassPathElement.NON_EXISTENT, element.getResource("b/65535"));
+        }
+    }
+
+    @Test
+    public void testPrefixedArchive(@TempDir Path dir) throws IOException {
+        Path jar = dir.resolve("test.jar");
+        try (OutputStream os = Files.newOutputStream(jar)) {
+            // such as the launcher of a self-extracting archive, which the offsets of the archive do not count
+            os.write(new byte[100]);
+            try (ZipOutputStream zos = new ZipOutputStream(os)) {
+                putDeflated(zos, "a/Deflated.class", DEFLATED, true);
+            }
+        }
+        try (ClassPathElement element = ClassPathElement.forJarFile(jar)) {
+            assertRead(element, "a/Deflated.class", DEFLATED);
+        }
+    }
+
+    @Test
+    public void testImage(@TempDir Path dir) throws IOException {
+        Path jar = dir.resolve("test.jar");
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(jar))) {
+            putStored(zos, "a/Stored.class", STORED);
+            putDeflated(zos, "a/Deflated.class", DEFLATED, false);
+        }
+        Path imageDirectory = dir.resolve("images");
+        try (ClassPathElement element = ClassPathElement.forJarFile(jar)) {
+            try (ClassPathElement image = element.toImage(imageDirectory)) {
+                assertNotSame(element, image);
+                assertMapped(image, "a/Stored.class", STORED);
+                assertMapped(image, "a/Deflated.class", DEFLATED);
+                // every entry of the image is stored, so it needs no image of its own
+                assertSame(image, image.toImage(imageDirectory));
+            }
+            List<Path> images = list(imageDirectory);
+            assertEquals(1, images.size());
+            assertTrue(images.get(0).getFileName().toString().endsWith(".jar"));
+            // replace the image with a new file rather than truncating the mapped one
+            Files.delete(images.get(0));
+            try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(images.get(0)))) {
+                putStored(zos, "marker", new byte[0]);
+            }
+            // the image of an unchanged file is reused
+            try (ClassPathElement image = element.toImage(imageDirectory)) {
+                assertMapped(image, "marker", new byte[0]);
+            }
+            assertEquals(images, list(imageDirectory));
+        }
+    }
+
+    private static void putStored(ZipOutputStream zos, String name, byte[] bytes) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(bytes.length);
+        entry.setCompressedSize(bytes.length);
+        entry.setCrc(crc.getValue());
+        zos.putNextEntry(entry);
+        zos.write(bytes);
+        zos.closeEntry();
+    }
+
+    private static void putDeflated(ZipOutputStream zos, String name, byte[] bytes, boolean sized) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.DEFLATED);
+        if (sized) {
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            entry.setSize(bytes.length);
+            entry.setCrc(crc.getValue());
+        }
+        zos.putNextEntry(entry);
+        zos.write(bytes);
+        zos.closeEntry();
+    }
+
+    private static void assertMapped(ClassPathElement element, String name, byte[] expected) throws IOException {
+        ClassPathElement.Resource resource = element.getResource(name);
+        assertInstanceOf(JarFileClassPathElement.MappedResource.class, resource, name + " is not read from the mapping");
+        assertContents(resource, expected);
+    }
+
+    private static void assertRead(ClassPathElement element, String name, byte[] expected) throws IOException {
+        ClassPathElement.Resource resource = element.getResource(name);
+        assertInstanceOf(JarFileClassPathElement.Resource.class, resource, name + " is not read through the JAR file");
+        assertContents(resource, expected);
+    }
+
+    private static void assertContents(ClassPathElement.Resource resource, byte[] expected) throws IOException {
+        ByteBuffer buffer = resource.getBuffer();
+        byte[] actual = new byte[buffer.remaining()];
+        buffer.get(actual);
+        assertArrayEquals(expected, actual);
+    }
+
+    private static List<Path> list(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.sorted().toList();
+        }
+    }
+}
@@ -0,0 +1,6 @@
+qbicc-profile-2
+entry org/qbicc/tests/snippets/GuardedDevirtualization sidesOf (Lorg/qbicc/tests/snippets/GuardedDevirtualization$Shape;)I -1 0 100
+call org/qbicc/tests/snippets/GuardedDevirtualization sidesOf (Lorg/qbicc/tests/snippets/GuardedDevirtualization$Shape;)I 1 0 100
+receiver org/qbicc/tests/snippets/GuardedDevirtualization sidesOf (Lorg/qbicc/tests/snippets/GuardedDevirtualization$Shape;)I 1 0 org/qbicc/tests/snippets/GuardedDevirtualization$Square 60
+receiver org/qbicc/tests/snippets/GuardedDevirtualization sidesOf (Lorg/qbicc/tests/snippets/GuardedDevirtualization$Shape;)I 1 0 org/qbicc/tests/snippets/GuardedDevirtualization$Pentagon 35
+receiver org/qbicc/tests/snippets/GuardedDevirtualization sidesOf (Lorg/qbicc/tests/snippets/GuardedDevirtualization$Shape;)I 1 0 org/qbicc/tests/snippets/GuardedDevirtualization$Triangle 5
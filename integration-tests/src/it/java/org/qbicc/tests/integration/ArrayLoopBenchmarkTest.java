@@ -0,0 +1,35 @@
+package org.qbicc.tests.integration;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.qbicc.tests.integration.utils.Benchmark;
+
+/**
+ * Run the array loop benchmark, and verify the results of the loops and that no index checks remain in them.
+ */
+@Tag("arrays")
+public class ArrayLoopBenchmarkTest {
+
+    private static final Logger LOGGER = Logger.getLogger(ArrayLoopBenchmarkTest.class.getName());
+
+    @Test
+    void runArrayLoopBenchmark() throws IOException {
+        Path nativeOutputPath = Path.of(".").resolve("target").resolve("native");
+        Benchmark benchmark = Benchmark.run("array-loop-benchmark", nativeOutputPath, "qbicc-integration-tests", "sum ok", LOGGER);
+
+        assertTrue(benchmark.get("summed elements per ms") > 0);
+
+        // the loops may be inlined into main, so every method of the class is checked
+        Map<String, String> methods = benchmark.functionBodies("org.qbicc.tests.arrays.ArrayLoopBenchmark");
+        methods.forEach((name, body) ->
+            assertFalse(body.contains("raiseArrayIndexOutOfBoundsException"), "The index checks of " + name + " were not removed"));
+    }
+}
@@ -0,0 +1,38 @@
+package org.qbicc.tests.integration;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.qbicc.tests.integration.utils.Benchmark;
+
+/**
+ * Run the allocation benchmark with the semispace collector, and verify that live objects survive collection, that
+ * the collector runs, and that its pauses and the allocation throughput are within bounds.
+ */
+@Tag("gc")
+public class GcBenchmarkTest {
+
+    private static final Logger LOGGER = Logger.getLogger(GcBenchmarkTest.class.getName());
+
+    // far above the expected values, so that only a collector which does not work fails
+    private static final long MAX_PAUSE_US = 1_000_000;
+    private static final long MIN_ALLOCATIONS_PER_MS = 1_000;
+
+    @Test
+    void runSemispaceBenchmark() throws IOException {
+        Path nativeOutputPath = Path.of(".").resolve("target").resolve("native-semispace");
+        Benchmark benchmark = Benchmark.run("gc-benchmark", nativeOutputPath, "qbicc-integration-tests-semispace", "checksum ok", LOGGER);
+
+        // the benchmark collects explicitly every ten rounds, and the tree is live throughout
+        assertTrue(benchmark.get("collections") >= 5, "Too few collections");
+        assertTrue(benchmark.get("copied bytes") > 0, "No live objects were copied");
+
+        assertTrue(benchmark.get("max pause us") < MAX_PAUSE_US, "Collection pause is too long");
+        assertTrue(benchmark.get("allocations per ms") >= MIN_ALLOCATIONS_PER_MS, "Allocation throughput is too low");
+    }
+}
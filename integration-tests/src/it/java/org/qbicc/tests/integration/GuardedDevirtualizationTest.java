@@ -0,0 +1,39 @@
+package org.qbicc.tests.integration;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.qbicc.tests.integration.utils.TestConstants.BASE_DIR;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Pattern;
+
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.qbicc.tests.integration.utils.NativeExecutable;
+
+/**
+ * Run the guarded devirtualization snippet in the image which is built with {@code --devirtualization-fan-out=2} and
+ * a profile of its call sites, and check its output against the same pattern as the snippet in the default image.
+ */
+@Tag("snippets")
+public class GuardedDevirtualizationTest {
+
+    private static final Logger LOGGER = Logger.getLogger(GuardedDevirtualizationTest.class.getName());
+
+    @Test
+    void runGuardedDevirtualization() throws IOException {
+        Path outputExecutable = Path.of(".").resolve("target").resolve("native-guarded").resolve("qbicc-integration-tests-guarded");
+        Pattern outputPattern = Pattern.compile(Files.readString(Path.of(BASE_DIR, "integration-tests", "src", "it-in", "snippets", "GuardedDevirtualization.pattern")));
+
+        StringBuilder stdOut = new StringBuilder();
+        StringBuilder stdErr = new StringBuilder();
+        NativeExecutable.run("snippet-GuardedDevirtualization", outputExecutable, stdOut, stdErr, LOGGER);
+
+        assertTrue(stdErr.toString().isBlank(), "Native image execution should produce no error. " + stdErr);
+
+        assertTrue(outputPattern.matcher(stdOut.toString()).matches(),
+            "Standard output should have matched the pattern:\n[" + outputPattern.pattern() + "] but output was:\n[" + stdOut + "]");
+    }
+}
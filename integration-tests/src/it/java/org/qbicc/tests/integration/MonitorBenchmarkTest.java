@@ -0,0 +1,39 @@
+package org.qbicc.tests.integration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.qbicc.tests.integration.utils.Benchmark;
+
+/**
+ * Run the object monitor benchmark, and verify that synchronized blocks exclude each other and that locks which are
+ * not contended are taken by the inline thin lock fast path.
+ */
+@Tag("monitor")
+public class MonitorBenchmarkTest {
+
+    private static final Logger LOGGER = Logger.getLogger(MonitorBenchmarkTest.class.getName());
+
+    @Test
+    void runMonitorBenchmark() throws IOException {
+        Path nativeOutputPath = Path.of(".").resolve("target").resolve("native");
+        Benchmark benchmark = Benchmark.run("monitor-benchmark", nativeOutputPath, "qbicc-integration-tests", "counter ok", LOGGER);
+
+        // no lock is inflated unless another thread contends for it
+        assertEquals(0, benchmark.get("uncontended inflations"));
+        assertEquals(0, benchmark.get("recursive inflations"));
+        assertTrue(benchmark.get("uncontended locks per ms") > 0);
+
+        // the lock of a synchronized method is taken by an inline compare-and-set
+        Map<String, String> counter = benchmark.functionBodies("org.qbicc.tests.monitor.MonitorBenchmark$Counter");
+        String increment = counter.get("increment");
+        assertTrue(increment != null && increment.contains("cmpxchg"), "The thin lock fast path is not inline:\n" + increment);
+    }
+}
@@ -0,0 +1,39 @@
+package org.qbicc.tests.integration;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.qbicc.tests.integration.utils.TestConstants.BASE_DIR;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Pattern;
+
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.qbicc.tests.integration.utils.NativeExecutable;
+
+/**
+ * Run the selector dispatch snippet in the image which is built with {@code --interface-dispatch=selector}, and check
+ * its output against the same pattern as the snippet in the default image.
+ */
+@Tag("snippets")
+public class SelectorDispatchTest {
+
+    private static final Logger LOGGER = Logger.getLogger(SelectorDispatchTest.class.getName());
+
+    @Test
+    void runSelectorDispatch() throws IOException {
+        Path outputExecutable = Path.of(".").resolve("target").resolve("native-selector").resolve("qbicc-integration-tests-selector");
+        Pattern outputPattern = Pattern.compile(Files.readString(Path.of(BASE_DIR, "integration-tests", "src", "it-in", "snippets", "SelectorDispatch.pattern")));
+
+        StringBuilder stdOut = new StringBuilder();
+        StringBuilder stdErr = new StringBuilder();
+        NativeExecutable.run("snippet-SelectorDispatch", outputExecutable, stdOut, stdErr, LOGGER);
+
+        assertTrue(stdErr.toString().isBlank(), "Native image execution should produce no error. " + stdErr);
+
+        assertTrue(outputPattern.matcher(stdOut.toString()).matches(),
+            "Standard output should have matched the pattern:\n[" + outputPattern.pattern() + "] but output was:\n[" + stdOut + "]");
+    }
+}
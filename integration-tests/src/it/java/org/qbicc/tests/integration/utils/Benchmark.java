@@ -0,0 +1,110 @@
+package org.qbicc.tests.integration.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.jboss.logging.Logger;
+
+/**
+ * The results of a benchmark run by one of the integration test executables.  A benchmark prints a line which shows
+ * that its results were verified, followed by one line for each of its measurements, such as
+ * {@code allocations per ms: 1234}.
+ */
+public final class Benchmark {
+    private static final Pattern MEASUREMENT = Pattern.compile("(.+): (-?\\d+)");
+
+    private final Path nativeOutputPath;
+    private final Map<String, Long> measurements;
+
+    private Benchmark(Path nativeOutputPath, Map<String, Long> measurements) {
+        this.nativeOutputPath = nativeOutputPath;
+        this.measurements = measurements;
+    }
+
+    /**
+     * Run a benchmark, and check that it verified its results and that it printed nothing else than its measurements.
+     *
+     * @param name the name of the benchmark, which is given to the executable
+     * @param nativeOutputPath the output path of the build of the executable
+     * @param executableName the name of the executable
+     * @param verifiedLine the line which the benchmark prints once its results are verified
+     * @param logger the logger for the output of the benchmark
+     * @return the results of the benchmark
+     */
+    public static Benchmark run(String name, Path nativeOutputPath, String executableName, String verifiedLine, Logger logger) throws IOException {
+        StringBuilder stdOut = new StringBuilder();
+        StringBuilder stdErr = new StringBuilder();
+        NativeExecutable.run(name, nativeOutputPath.resolve(executableName), stdOut, stdErr, logger);
+
+        assertTrue(stdErr.toString().isBlank(), "Native image execution should produce no error. " + stdErr);
+
+        List<String> lines = stdOut.toString().lines().toList();
+        assertFalse(lines.isEmpty(), "The benchmark produced no output");
+        assertEquals(verifiedLine, lines.get(0), "Unexpected benchmark output:\n[" + stdOut + "]");
+        Map<String, Long> measurements = new LinkedHashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            Matcher matcher = MEASUREMENT.matcher(line);
+            assertTrue(matcher.matches(), "Unexpected benchmark output line: " + line);
+            measurements.put(matcher.group(1), Long.valueOf(matcher.group(2)));
+        }
+        return new Benchmark(nativeOutputPath, measurements);
+    }
+
+    /**
+     * Get a measurement of the benchmark.
+     *
+     * @param name the name of the measurement
+     * @return the measured value
+     */
+    public long get(String name) {
+        Long value = measurements.get(name);
+        assertNotNull(value, "The benchmark did not report \"" + name + "\"");
+        return value.longValue();
+    }
+
+    /**
+     * Get the LLVM IR of the methods of a class, as generated for the executable.
+     *
+     * @param className the binary name of the class
+     * @return the body of each defined method by method name; the bodies of overloaded methods are joined
+     */
+    public Map<String, String> functionBodies(String className) throws IOException {
+        Pattern define = Pattern.compile("^define [^@]*@\"?" + Pattern.quote("_J" + className.replace('.', '_') + "_") + "(\\w+?)__");
+        Map<String, String> bodies = new HashMap<>();
+        try (Stream<Path> files = Files.walk(nativeOutputPath)) {
+            for (Path file : (Iterable<Path>) files.filter(p -> p.toString().endsWith(".ll"))::iterator) {
+                String method = null;
+                StringBuilder body = new StringBuilder();
+                for (String line : Files.readAllLines(file)) {
+                    if (method == null) {
+                        Matcher matcher = define.matcher(line);
+                        if (matcher.find()) {
+                            method = matcher.group(1);
+                        }
+                    } else if (line.equals("}")) {
+                        bodies.merge(method, body.toString(), String::concat);
+                        method = null;
+                        body.setLength(0);
+                    } else {
+                        body.append(line).append('\n');
+                    }
+                }
+            }
+        }
+        assertFalse(bodies.isEmpty(), "No methods of " + className + " were generated");
+        return bodies;
+    }
+}
@@ -1,16 +1,22 @@
 package org.qbicc.tests;
 
+import org.qbicc.tests.arrays.ArrayLoopBenchmark;
+import org.qbicc.tests.monitor.MonitorBenchmark;
 import org.qbicc.tests.snippets.ArithmeticCompare;
 import org.qbicc.tests.snippets.ArithmeticNegation;
+import org.qbicc.tests.snippets.ArrayLoops;
 import org.qbicc.tests.snippets.Arrays;
 import org.qbicc.tests.snippets.ClassInit;
 import org.qbicc.tests.snippets.ClassLiteralTests;
 import org.qbicc.tests.snippets.DynamicTypeTests;
+import org.qbicc.tests.snippets.GuardedDevirtualization;
 import org.qbicc.tests.snippets.InvokeInterface;
 import org.qbicc.tests.snippets.InvokeVirtual;
 import org.qbicc.tests.snippets.MathMinMax;
 import org.qbicc.tests.snippets.MethodHandle;
+import org.qbicc.tests.snippets.SelectorDispatch;
 import org.qbicc.tests.snippets.Synchronized;
+import org.qbicc.tests.snippets.TlabAllocation;
 import org.qbicc.tests.snippets.TryCatch;
 
 /**
@@ -31,15 +37,21 @@ public final class TestRunner {
             case "snippet-ArithmeticCompare" -> ArithmeticCompare.main(testArgs);
             case "snippet-ArithmeticNegation" -> ArithmeticNegation.main(testArgs);
             case "snippet-Arrays" -> Arrays.main(testArgs);
+            case "snippet-ArrayLoops" -> ArrayLoops.main(testArgs);
             case "snippet-ClassInit" -> ClassInit.main(testArgs);
             case "snippet-DynamicTypeTests" -> DynamicTypeTests.main(testArgs);
+            case "snippet-GuardedDevirtualization" -> GuardedDevirtualization.main(testArgs);
             case "snippet-InvokeInterface" -> InvokeInterface.main(testArgs);
             case "snippet-InvokeVirtual" -> InvokeVirtual.main(testArgs);
             case "snippet-MathMinMax" -> MathMinMax.main(testArgs);
             case "snippet-MethodHandle" -> MethodHandle.main(testArgs);
+            case "snippet-SelectorDispatch" -> SelectorDispatch.main(testArgs);
             case "snippet-TryCatch" -> TryCatch.main(testArgs);
             case "snippet-ClassLiteralTests" -> ClassLiteralTests.main(testArgs);
             case "snippet-Synchronized" -> Synchronized.main(testArgs);
+            case "snippet-TlabAllocation" -> TlabAllocation.main(testArgs);
+            case "monitor-benchmark" -> MonitorBenchmark.main(testArgs);
+            case "array-loop-benchmark" -> ArrayLoopBenchmark.main(testArgs);
             default -> {
                 System.err.printf("Unknown test name \"%s\"%n", test);
                 System.exit(1);
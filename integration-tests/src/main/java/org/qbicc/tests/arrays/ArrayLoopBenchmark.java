@@ -0,0 +1,89 @@
+package org.qbicc.tests.arrays;
+
+/**
+ * A benchmark for loops which walk over arrays.  The index of each access in these loops is known to be within the
+ * bounds of the array, so no index checks should remain in the compiled loops; compare with a build which uses
+ * {@code --no-opt-bounds-checks}.  The result of each loop is verified after the runs.
+ */
+public final class ArrayLoopBenchmark {
+    private static final int LENGTH = 1 << 16;
+    private static final int ITERATIONS = 500;
+
+    private ArrayLoopBenchmark() {}
+
+    static void fill(int[] array, int value) {
+        for (int i = 0; i < array.length; i ++) {
+            array[i] = value + i;
+        }
+    }
+
+    static long sum(int[] array) {
+        long sum = 0;
+        for (int i = 0; i < array.length; i ++) {
+            sum += array[i];
+        }
+        return sum;
+    }
+
+    static long sumReversed(int[] array) {
+        long sum = 0;
+        for (int i = array.length - 1; i >= 0; i --) {
+            sum += array[i];
+        }
+        return sum;
+    }
+
+    static void copy(int[] from, int[] to) {
+        int length = Math.min(from.length, to.length);
+        for (int i = 0; i < length; i ++) {
+            to[i] = from[i];
+        }
+    }
+
+    public static void main(String[] args) {
+        int[] array = new int[LENGTH];
+        int[] copy = new int[LENGTH];
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i ++) {
+            fill(array, i);
+        }
+        long fillNanos = System.nanoTime() - start;
+
+        long sum = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i ++) {
+            sum += sum(array);
+        }
+        long sumNanos = System.nanoTime() - start;
+
+        long reversedSum = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i ++) {
+            reversedSum += sumReversed(array);
+        }
+        long reversedNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i ++) {
+            copy(array, copy);
+        }
+        long copyNanos = System.nanoTime() - start;
+
+        // the array was last filled with ITERATIONS - 1 + i
+        long expected = ((long) LENGTH * (ITERATIONS - 1) + (long) LENGTH * (LENGTH - 1) / 2) * ITERATIONS;
+        if (sum != expected || reversedSum != expected || sum(copy) * ITERATIONS != expected) {
+            System.out.println("sum mismatch");
+            return;
+        }
+        long elements = (long) LENGTH * ITERATIONS;
+        System.out.println("sum ok");
+        System.out.println(new StringBuilder().append("filled elements per ms: ").append(opsPerMilli(elements, fillNanos)).toString());
+        System.out.println(new StringBuilder().append("summed elements per ms: ").append(opsPerMilli(elements, sumNanos)).toString());
+        System.out.println(new StringBuilder().append("reverse summed elements per ms: ").append(opsPerMilli(elements, reversedNanos)).toString());
+        System.out.println(new StringBuilder().append("copied elements per ms: ").append(opsPerMilli(elements, copyNanos)).toString());
+    }
+
+    private static long opsPerMilli(long ops, long nanos) {
+        return ops * 1_000_000 / Math.max(nanos, 1);
+    }
+}
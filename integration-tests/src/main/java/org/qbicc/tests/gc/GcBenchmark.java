@@ -0,0 +1,79 @@
+package org.qbicc.tests.gc;
+
+import org.qbicc.runtime.gc.semispace.SemispaceHelpers;
+
+/**
+ * An allocation benchmark for the collectors.  A tree of long-lived objects is kept alive while many short-lived
+ * objects are allocated; the contents of the tree are verified after every round.  This benchmark is built with the
+ * semispace collector, whose collection count is reported along with the pauses of the explicit collections.
+ */
+public final class GcBenchmark {
+    private static final int ROUNDS = 50;
+    private static final int ALLOCATIONS_PER_ROUND = 200_000;
+    private static final int TREE_DEPTH = 12;
+
+    private GcBenchmark() {}
+
+    static final class Node {
+        final Node left;
+        final Node right;
+        final int value;
+
+        Node(Node left, Node right, int value) {
+            this.left = left;
+            this.right = right;
+            this.value = value;
+        }
+    }
+
+    static Node buildTree(int depth, int value) {
+        if (depth == 0) {
+            return new Node(null, null, value);
+        }
+        return new Node(buildTree(depth - 1, value * 2), buildTree(depth - 1, value * 2 + 1), value);
+    }
+
+    static long sum(Node node) {
+        return node == null ? 0 : node.value + sum(node.left) + sum(node.right);
+    }
+
+    public static void main(String[] args) {
+        Node tree = buildTree(TREE_DEPTH, 1);
+        long expected = sum(tree);
+        Object[] survivors = new Object[64];
+        long maxRoundNanos = 0;
+        long maxPauseNanos = 0;
+        long collections = SemispaceHelpers.getCollectionCount();
+        long copiedBytes = SemispaceHelpers.getCopiedBytes();
+        long totalNanos = 0;
+        long garbage = 0;
+        for (int round = 0; round < ROUNDS; round ++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ALLOCATIONS_PER_ROUND; i ++) {
+                int[] data = new int[i & 31];
+                garbage += data.length;
+                survivors[i & 63] = new Node(null, null, i);
+            }
+            if (round % 10 == 9) {
+                long pauseStart = System.nanoTime();
+                Runtime.getRuntime().gc();
+                maxPauseNanos = Math.max(maxPauseNanos, System.nanoTime() - pauseStart);
+            }
+            long elapsed = System.nanoTime() - start;
+            maxRoundNanos = Math.max(maxRoundNanos, elapsed);
+            totalNanos += elapsed;
+            if (sum(tree) != expected) {
+                System.out.println("checksum mismatch");
+                return;
+            }
+        }
+        long allocations = (long) ROUNDS * ALLOCATIONS_PER_ROUND * 2;
+        System.out.println("checksum ok");
+        System.out.println(new StringBuilder().append("garbage elements: ").append(garbage).toString());
+        System.out.println(new StringBuilder().append("max round latency us: ").append(maxRoundNanos / 1000).toString());
+        System.out.println(new StringBuilder().append("allocations per ms: ").append(allocations * 1_000_000 / Math.max(totalNanos, 1)).toString());
+        System.out.println(new StringBuilder().append("collections: ").append(SemispaceHelpers.getCollectionCount() - collections).toString());
+        System.out.println(new StringBuilder().append("copied bytes: ").append(SemispaceHelpers.getCopiedBytes() - copiedBytes).toString());
+        System.out.println(new StringBuilder().append("max pause us: ").append(maxPauseNanos / 1000).toString());
+    }
+}
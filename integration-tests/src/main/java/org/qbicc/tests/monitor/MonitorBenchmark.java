@@ -0,0 +1,83 @@
+package org.qbicc.tests.monitor;
+
+import org.qbicc.runtime.main.Monitor;
+
+/**
+ * A benchmark for object monitors.  A counter is incremented in uncontended, recursive and contended synchronized
+ * blocks; the value of the counter is verified after each run.  The number of locks which were inflated into a
+ * monitor is reported for each run, which is zero when every lock was taken by its thin lock.
+ */
+public final class MonitorBenchmark {
+    private static final int ITERATIONS = 2_000_000;
+    private static final int CONTENDING_THREADS = 4;
+
+    private MonitorBenchmark() {}
+
+    static final class Counter {
+        long value;
+
+        synchronized void increment() {
+            value ++;
+        }
+
+        synchronized void incrementTwice() {
+            increment();
+            increment();
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Counter counter = new Counter();
+        long inflations = Monitor.getInflationCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i ++) {
+            counter.increment();
+        }
+        long uncontendedNanos = System.nanoTime() - start;
+        long uncontendedInflations = Monitor.getInflationCount() - inflations;
+
+        inflations = Monitor.getInflationCount();
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i ++) {
+            counter.incrementTwice();
+        }
+        long recursiveNanos = System.nanoTime() - start;
+        long recursiveInflations = Monitor.getInflationCount() - inflations;
+
+        Thread[] threads = new Thread[CONTENDING_THREADS];
+        for (int i = 0; i < threads.length; i ++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < ITERATIONS / CONTENDING_THREADS; j ++) {
+                    counter.increment();
+                }
+            });
+        }
+        inflations = Monitor.getInflationCount();
+        start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long contendedNanos = System.nanoTime() - start;
+        long contendedInflations = Monitor.getInflationCount() - inflations;
+
+        long expected = (long) ITERATIONS * 3 + (long) ITERATIONS / CONTENDING_THREADS * CONTENDING_THREADS;
+        if (counter.value != expected) {
+            System.out.println("counter mismatch");
+            return;
+        }
+        System.out.println("counter ok");
+        System.out.println(new StringBuilder().append("uncontended locks per ms: ").append(opsPerMilli(ITERATIONS, uncontendedNanos)).toString());
+        System.out.println(new StringBuilder().append("recursive locks per ms: ").append(opsPerMilli(ITERATIONS * 3L, recursiveNanos)).toString());
+        System.out.println(new StringBuilder().append("contended locks per ms: ").append(opsPerMilli(ITERATIONS, contendedNanos)).toString());
+        System.out.println(new StringBuilder().append("uncontended inflations: ").append(uncontendedInflations).toString());
+        System.out.println(new StringBuilder().append("recursive inflations: ").append(recursiveInflations).toString());
+        System.out.println(new StringBuilder().append("contended inflations: ").append(contendedInflations).toString());
+    }
+
+    private static long opsPerMilli(long ops, long nanos) {
+        return ops * 1_000_000 / Math.max(nanos, 1);
+    }
+}
@@ -0,0 +1,93 @@
+package org.qbicc.tests.snippets;
+
+import static org.qbicc.runtime.CNative.*;
+
+public class ArrayLoops {
+    @extern
+    public static native int putchar(int arg);
+
+    static int[] data(int length) {
+        int[] data = new int[length];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = i + 1;
+        }
+        return data;
+    }
+
+    static void report(boolean ok) {
+        putchar(ok ? 'Y' : 'N');
+    }
+
+    static int sumForward(int[] data) {
+        int sum = 0;
+        for (int i = 0; i < data.length; i++) {
+            sum += data[i];
+        }
+        return sum;
+    }
+
+    static int sumBackward(int[] data) {
+        int sum = 0;
+        for (int i = data.length - 1; i >= 0; i--) {
+            sum += data[i];
+        }
+        return sum;
+    }
+
+    static int sumEach(int[] data) {
+        int sum = 0;
+        for (int value : data) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    static int sumNested(int[][] data) {
+        int sum = 0;
+        for (int i = 0; i < data.length; i++) {
+            for (int j = 0; j < data[i].length; j++) {
+                sum += data[i][j];
+            }
+        }
+        return sum;
+    }
+
+    static int sumPastEnd(int[] data) {
+        int sum = 0;
+        // the last iteration is out of bounds, so the check must stay
+        for (int i = 0; i <= data.length; i++) {
+            sum += data[i];
+        }
+        return sum;
+    }
+
+    static int sumBeforeStart(int[] data) {
+        int sum = 0;
+        // the first iteration is out of bounds, so the check must stay
+        for (int i = -1; i < data.length; i++) {
+            sum += data[i];
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) {
+        int[] data = data(100);
+        report(sumForward(data) == 5050);
+        report(sumBackward(data) == 5050);
+        report(sumEach(data) == 5050);
+        report(sumNested(new int[][] { data(10), data(0), data(20) }) == 265);
+        try {
+            sumPastEnd(data);
+            report(false);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            report(true);
+        }
+        try {
+            sumBeforeStart(data);
+            report(false);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            report(true);
+        }
+        putchar('\n');
+    }
+}
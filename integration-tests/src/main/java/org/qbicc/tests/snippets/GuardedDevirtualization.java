@@ -0,0 +1,79 @@
+package org.qbicc.tests.snippets;
+
+import static org.qbicc.runtime.CNative.*;
+
+/**
+ * Virtual and interface calls which are guarded by tests of their receiver classes when the devirtualization fan-out
+ * is at least two: a call site whose profile names two dominant receiver classes but which also sees a third, which
+ * must take the dispatched fallback, and an interface call site with exactly two instantiated receiver classes inside
+ * a {@code try} block, one of which throws.  The output is the same with or without guarded calls.
+ */
+public class GuardedDevirtualization {
+    static abstract class Shape {
+        abstract int sides();
+    }
+
+    static class Triangle extends Shape {
+        int sides() { return 3; }
+    }
+
+    static class Square extends Shape {
+        int sides() { return 4; }
+    }
+
+    static class Pentagon extends Shape {
+        int sides() { return 5; }
+    }
+
+    interface Animal {
+        int legs();
+    }
+
+    static class Bird implements Animal {
+        public int legs() { return 2; }
+    }
+
+    static class Snake implements Animal {
+        public int legs() { throw new UnsupportedOperationException(); }
+    }
+
+    @extern
+    public static native int putchar(int arg);
+
+    static void report(boolean pass) {
+        putchar(pass ? 'P' : 'F');
+    }
+
+    // the profile of the call site at bytecode index 1 names Square and Pentagon
+    static int sidesOf(Shape shape) {
+        return shape.sides();
+    }
+
+    static int legsOf(Animal animal) {
+        try {
+            return animal.legs();
+        } catch (UnsupportedOperationException e) {
+            return -1;
+        }
+    }
+
+    static Shape shape(int i) {
+        return switch (i % 3) {
+            case 0 -> new Square();
+            case 1 -> new Pentagon();
+            default -> new Triangle();
+        };
+    }
+
+    public static void main(String[] args) {
+        int sum = 0;
+        for (int i = 0; i < 6; i ++) {
+            sum += sidesOf(shape(i));
+        }
+        report(sum == 24);
+        report(sidesOf(new Triangle()) == 3);
+        report(legsOf(new Bird()) == 2);
+        report(legsOf(new Snake()) == -1);
+        putchar('\n');
+    }
+}
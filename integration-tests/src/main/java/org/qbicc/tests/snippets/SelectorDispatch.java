@@ -0,0 +1,126 @@
+package org.qbicc.tests.snippets;
+
+import static org.qbicc.runtime.CNative.*;
+
+/**
+ * Interface calls which exercise the selector table: classes with the same interfaces, whose rows overlap the rows of
+ * unrelated classes, unrelated interfaces which share a column, and receivers which do not implement the interface.
+ * The output is the same under every interface dispatch strategy.
+ */
+public class SelectorDispatch {
+    interface Red {
+        int red();
+    }
+
+    interface Blue {
+        int blue();
+        int blue2();
+    }
+
+    interface Green extends Red {
+        int green();
+    }
+
+    static class RedBlue1 implements Red, Blue {
+        public int red() { return 1; }
+        public int blue() { return 2; }
+        public int blue2() { return 3; }
+    }
+
+    static class RedBlue2 implements Red, Blue {
+        public int red() { return 10; }
+        public int blue() { return 20; }
+        public int blue2() { return 30; }
+    }
+
+    static class OnlyBlue implements Blue {
+        public int blue() { return 200; }
+        public int blue2() { return 300; }
+    }
+
+    static class OnlyGreen implements Green {
+        public int red() { return 1000; }
+        public int green() { return 2000; }
+    }
+
+    // implements no interface, so it has no row in the selector table
+    static class Plain {
+    }
+
+    static class Holder {
+        Red red;
+    }
+
+    @extern
+    public static native int putchar(int arg);
+
+    static void report(boolean pass) {
+        putchar(pass ? 'P' : 'F');
+    }
+
+    static Red red(int i) {
+        return switch (i) {
+            case 0 -> new RedBlue1();
+            case 1 -> new RedBlue2();
+            default -> new OnlyGreen();
+        };
+    }
+
+    static Blue blue(int i) {
+        return switch (i) {
+            case 0 -> new RedBlue1();
+            case 1 -> new RedBlue2();
+            default -> new OnlyBlue();
+        };
+    }
+
+    static int sumRed() {
+        int sum = 0;
+        for (int i = 0; i < 3; i ++) {
+            sum += red(i).red();
+        }
+        return sum;
+    }
+
+    static int sumBlue() {
+        int sum = 0;
+        for (int i = 0; i < 3; i ++) {
+            Blue b = blue(i);
+            sum += b.blue() + b.blue2();
+        }
+        return sum;
+    }
+
+    static int green() {
+        Green g = new OnlyGreen();
+        return g.green() + g.red();
+    }
+
+    /**
+     * Call {@code Red.red()} on a receiver which does not implement {@code Red}.  The verifier accepts interface
+     * receivers of any class, but the Java language does not, so the address of the receiver is stored through a pointer
+     * to the field.
+     */
+    static boolean missRaisesIcce(Object receiver) {
+        Holder holder = new Holder();
+        ptr<ptr<?>> field = addr_of(holder.red).cast();
+        field.storePlain(refToPtr(receiver));
+        try {
+            holder.red.red();
+        } catch (IncompatibleClassChangeError e) {
+            return true;
+        }
+        return false;
+    }
+
+    public static void main(String[] args) {
+        report(sumRed() == 1011);
+        report(sumBlue() == 555);
+        report(green() == 3000);
+        // the receiver's row is at offset zero, whose entries belong to other rows
+        report(missRaisesIcce(new Plain()));
+        // the receiver's row holds a method of an unrelated interface at the same column
+        report(missRaisesIcce(new OnlyBlue()));
+        putchar('\n');
+    }
+}
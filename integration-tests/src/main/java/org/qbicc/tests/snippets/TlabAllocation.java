@@ -0,0 +1,96 @@
+package org.qbicc.tests.snippets;
+
+import static org.qbicc.runtime.CNative.*;
+
+/**
+ * Allocate across the boundaries of the thread-local allocation buffers, which are 32 KiB by default, and check that
+ * no two objects overlap.
+ */
+public class TlabAllocation {
+    @extern
+    public static native int putchar(int arg);
+
+    static final class Node {
+        final int value;
+        final Node next;
+
+        Node(int value, Node next) {
+            this.value = value;
+            this.next = next;
+        }
+    }
+
+    static void report(boolean ok) {
+        putchar(ok ? 'Y' : 'N');
+    }
+
+    // many small objects, so that the buffer is refilled many times
+    static boolean smallObjects(int count) {
+        Node list = null;
+        for (int i = 0; i < count; i++) {
+            list = new Node(i, list);
+        }
+        for (int i = count - 1; i >= 0; i--) {
+            if (list == null || list.value != i) {
+                return false;
+            }
+            list = list.next;
+        }
+        return list == null;
+    }
+
+    // arrays just under and just over half a buffer, which are buffered and allocated directly respectively
+    static boolean halfBufferArrays() {
+        int[][] arrays = new int[16][];
+        for (int i = 0; i < arrays.length; i++) {
+            int[] array = new int[(i & 1) == 0 ? 4000 : 4200];
+            for (int j = 0; j < array.length; j++) {
+                if (array[j] != 0) {
+                    return false;
+                }
+                array[j] = i;
+            }
+            arrays[i] = array;
+            // a small object between the arrays uses up the remainder of the buffer
+            new Node(i, null);
+        }
+        for (int i = 0; i < arrays.length; i++) {
+            int[] array = arrays[i];
+            for (int j = 0; j < array.length; j++) {
+                if (array[j] != i) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // each thread refills its own buffer
+    static boolean concurrentThreads() throws InterruptedException {
+        boolean[] results = new boolean[4];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            int index = i;
+            threads[i] = new Thread(() -> results[index] = smallObjects(50_000));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (boolean result : results) {
+            if (! result) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        report(smallObjects(100_000));
+        report(halfBufferArrays());
+        report(concurrentThreads());
+        putchar('\n');
+    }
+}
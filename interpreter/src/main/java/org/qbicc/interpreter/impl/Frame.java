@@ -4,10 +4,8 @@ import static org.qbicc.graph.atomic.AccessModes.*;
 
 import java.lang.invoke.VarHandle;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.Lock;
 
@@ -191,7 +189,11 @@ import org.qbicc.type.definition.element.StaticFieldElement;
 import org.qbicc.type.descriptor.MethodDescriptor;
 
 final strictfp class Frame implements ActionVisitor<VmThreadImpl, Void>, ValueVisitor<VmThreadImpl, Object>, TerminatorVisitor<VmThreadImpl, BasicBlock> {
-    private static final Object MISSING = new Object();
+    static final Object MISSING = new Object();
+    /**
+     * Marks a slot whose value is held in {@link #prims}.
+     */
+    static final Object PRIM = new Object();
 
     /**
      * The calling frame.
@@ -214,9 +216,30 @@ final strictfp class Frame implements ActionVisitor<VmThreadImpl, Void>, ValueVi
     final Memory memory;
 
     /**
-     * Frame values.
+     * The numbering of the values of the element's body.
+     */
+    final ValueNumbering numbering;
+
+    /**
+     * The type of each value slot.
      */
-    final Map<Value, Object> values = new HashMap<>();
+    final ValueType[] slotTypes;
+
+    /**
+     * Frame values, indexed by their number.
+     */
+    final Object[] values;
+
+    /**
+     * Primitive frame values, for slots whose value is {@link #PRIM}.
+     */
+    final long[] prims;
+
+    /**
+     * Scratch space for setting phi values.
+     */
+    final Object[] moveValues;
+    final long[] movePrims;
 
     /**
      * Current block.
@@ -238,11 +261,17 @@ final strictfp class Frame implements ActionVisitor<VmThreadImpl, Void>, ValueVi
      */
     Set<Lock> heldLocks;
 
-    Frame(Frame enclosing, ExecutableElement element, Memory memory) {
+    Frame(Frame enclosing, ExecutableElement element, Memory memory, Instructions instructions) {
         this.enclosing = enclosing;
         this.depth = enclosing == null ? 0 : enclosing.depth + 1;
         this.element = element;
         this.memory = memory;
+        this.numbering = instructions.numbering;
+        this.slotTypes = instructions.slotTypes;
+        this.values = instructions.initialValues.clone();
+        this.prims = instructions.initialPrims.clone();
+        this.moveValues = new Object[instructions.maxMoves];
+        this.movePrims = new long[instructions.maxMoves];
     }
 
     /////////////////////
@@ -1479,7 +1508,7 @@ final strictfp class Frame implements ActionVisitor<VmThreadImpl, Void>, ValueVi
     @Override
     public BasicBlock visit(VmThreadImpl thread, Invoke node) {
         try {
-            values.put(node.getReturnValue(), call(thread, node.getValueHandle(), require(node.getArguments())));
+            setValue(node.getReturnValue(), call(thread, node.getValueHandle(), require(node.getArguments())));
             return node.getResumeTarget();
         } catch (Thrown t) {
             thread.setThrown(t.getThrowable());
@@ -2820,13 +2849,23 @@ final strictfp class Frame implements ActionVisitor<VmThreadImpl, Void>, ValueVi
         if (value instanceof Literal) {
             return value.accept(this, null);
         }
-        Object v = values.getOrDefault(value, MISSING);
+        int idx = numbering.getIndex(value);
+        Object v = idx == -1 ? MISSING : values[idx];
         if (v == MISSING) {
             throw new IllegalStateException("Missing required value");
+        } else if (v == PRIM) {
+            return box(prims[idx], slotTypes[idx]);
         }
         return v;
     }
 
+    void setValue(Value value, Object v) {
+        int idx = numbering.getIndex(value);
+        if (idx != -1) {
+            values[idx] = v;
+        }
+    }
+
     ValueType unboxType(Value value) {
         return (ValueType) require(value);
     }
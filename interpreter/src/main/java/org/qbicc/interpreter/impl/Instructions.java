@@ -0,0 +1,522 @@
+package org.qbicc.interpreter.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.qbicc.graph.Action;
+import org.qbicc.graph.Add;
+import org.qbicc.graph.And;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BinaryValue;
+import org.qbicc.graph.Goto;
+import org.qbicc.graph.If;
+import org.qbicc.graph.IsEq;
+import org.qbicc.graph.IsGe;
+import org.qbicc.graph.IsGt;
+import org.qbicc.graph.IsLe;
+import org.qbicc.graph.IsLt;
+import org.qbicc.graph.IsNe;
+import org.qbicc.graph.Multiply;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.Or;
+import org.qbicc.graph.PhiValue;
+import org.qbicc.graph.Shl;
+import org.qbicc.graph.Shr;
+import org.qbicc.graph.Sub;
+import org.qbicc.graph.Terminator;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.Xor;
+import org.qbicc.graph.literal.BooleanLiteral;
+import org.qbicc.graph.literal.IntegerLiteral;
+import org.qbicc.graph.literal.Literal;
+import org.qbicc.graph.schedule.Schedule;
+import org.qbicc.type.IntegerType;
+import org.qbicc.type.SignedIntegerType;
+import org.qbicc.type.ValueType;
+import org.qbicc.type.definition.MethodBody;
+
+/**
+ * The pre-decoded instructions of a method body.  The scheduled nodes of each block are lowered once into a flat
+ * array of instructions whose operands are resolved to frame slots.  Integer arithmetic, integer comparisons and
+ * simple branches are executed directly on primitive slots; every other node is executed by visiting it with the
+ * frame as before.
+ */
+final class Instructions {
+    // each instruction is {opcode, destination slot, first operand slot, second operand slot}
+    static final int INSN_SIZE = 4;
+
+    static final int OP_VALUE = 0;
+    static final int OP_ACTION = 1;
+
+    static final int OP_ADD_32 = 2;
+    static final int OP_SUB_32 = 3;
+    static final int OP_MUL_32 = 4;
+    static final int OP_AND_32 = 5;
+    static final int OP_OR_32 = 6;
+    static final int OP_XOR_32 = 7;
+    static final int OP_SHL_32 = 8;
+    static final int OP_SHR_32 = 9;
+    static final int OP_USHR_32 = 10;
+    static final int OP_IS_EQ_32 = 11;
+    static final int OP_IS_NE_32 = 12;
+    static final int OP_IS_LT_32 = 13;
+    static final int OP_IS_LE_32 = 14;
+    static final int OP_IS_GT_32 = 15;
+    static final int OP_IS_GE_32 = 16;
+
+    static final int OP_ADD_64 = 17;
+    static final int OP_SUB_64 = 18;
+    static final int OP_MUL_64 = 19;
+    static final int OP_AND_64 = 20;
+    static final int OP_OR_64 = 21;
+    static final int OP_XOR_64 = 22;
+    static final int OP_SHL_64 = 23;
+    static final int OP_SHR_64 = 24;
+    static final int OP_USHR_64 = 25;
+    static final int OP_IS_EQ_64 = 26;
+    static final int OP_IS_NE_64 = 27;
+    static final int OP_IS_LT_64 = 28;
+    static final int OP_IS_LE_64 = 29;
+    static final int OP_IS_GT_64 = 30;
+    static final int OP_IS_GE_64 = 31;
+
+    static final int TERM_OTHER = 0;
+    static final int TERM_GOTO = 1;
+    static final int TERM_IF = 2;
+
+    final ValueNumbering numbering;
+    final ValueType[] slotTypes;
+    final Object[] initialValues;
+    final long[] initialPrims;
+    final int maxMoves;
+    final Block entry;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param body the method body (must not be {@code null})
+     * @param scheduled the scheduled non-terminator nodes of each block (must not be {@code null})
+     * @param values every instance of every value of the body (must not be {@code null})
+     */
+    Instructions(MethodBody body, Map<BasicBlock, List<Node>> scheduled, Set<Value> values) {
+        numbering = new ValueNumbering(values);
+        int count = numbering.getCount();
+        List<ValueType> types = new ArrayList<>(count);
+        for (int i = 0; i < count; i ++) {
+            types.add(null);
+        }
+        for (Value value : values) {
+            types.set(numbering.getIndex(value), value.getType());
+        }
+        Decoder decoder = new Decoder(body.getSchedule(), scheduled, types);
+        entry = decoder.decode(body.getEntryBlock());
+        int slots = types.size();
+        slotTypes = types.toArray(ValueType[]::new);
+        initialValues = new Object[slots];
+        initialPrims = new long[slots];
+        Arrays.fill(initialValues, Frame.MISSING);
+        for (Map.Entry<Integer, Long> constant : decoder.constants.entrySet()) {
+            initialValues[constant.getKey().intValue()] = Frame.PRIM;
+            initialPrims[constant.getKey().intValue()] = constant.getValue().longValue();
+        }
+        maxMoves = decoder.maxMoves;
+    }
+
+    /**
+     * The decoded form of a basic block.
+     */
+    static final class Block {
+        final BasicBlock block;
+        int[] code;
+        Node[] nodes;
+        Terminator terminator;
+        int terminatorOp;
+        // the condition slot of an {@code If}
+        int condition;
+        // the outgoing edges in successor order
+        Edge[] edges;
+
+        Block(BasicBlock block) {
+            this.block = block;
+        }
+
+        Edge findEdge(BasicBlock target) {
+            for (Edge edge : edges) {
+                if (edge.target.block == target) {
+                    return edge;
+                }
+            }
+            throw new IllegalStateException("No edge to " + target);
+        }
+    }
+
+    /**
+     * A control flow edge along with the phi values to set when it is taken.
+     */
+    static final class Edge {
+        Block target;
+        // slot of each outbound value, or -1 if it must be computed from {@link #sources}
+        int[] sourceSlots;
+        Value[] sources;
+        int[] phiSlots;
+    }
+
+    final class Decoder {
+        private final Schedule schedule;
+        private final Map<BasicBlock, List<Node>> scheduled;
+        private final List<ValueType> types;
+        private final Map<BasicBlock, Block> blocks = new HashMap<>();
+        private final Map<Long, Integer> constantSlots = new HashMap<>();
+        final Map<Integer, Long> constants = new HashMap<>();
+        int maxMoves;
+
+        Decoder(Schedule schedule, Map<BasicBlock, List<Node>> scheduled, List<ValueType> types) {
+            this.schedule = schedule;
+            this.scheduled = scheduled;
+            this.types = types;
+        }
+
+        Block decode(BasicBlock entryBlock) {
+            Block entry = getBlock(entryBlock);
+            ArrayList<Block> work = new ArrayList<>();
+            work.add(entry);
+            while (! work.isEmpty()) {
+                Block block = work.remove(work.size() - 1);
+                if (block.code == null) {
+                    decodeBlock(block);
+                    for (Edge edge : block.edges) {
+                        if (edge.target.code == null) {
+                            work.add(edge.target);
+                        }
+                    }
+                }
+            }
+            return entry;
+        }
+
+        private Block getBlock(BasicBlock block) {
+            return blocks.computeIfAbsent(block, Block::new);
+        }
+
+        private void decodeBlock(Block block) {
+            List<Node> nodes = scheduled.getOrDefault(block.block, List.of());
+            int[] code = new int[nodes.size() * INSN_SIZE];
+            int pos = 0;
+            for (Node node : nodes) {
+                if (node instanceof Value value) {
+                    decodeValue(value, code, pos);
+                } else {
+                    assert node instanceof Action;
+                    code[pos] = OP_ACTION;
+                    code[pos + 1] = -1;
+                }
+                pos += INSN_SIZE;
+            }
+            block.code = code;
+            block.nodes = nodes.toArray(Node[]::new);
+            Terminator t = block.block.getTerminator();
+            block.terminator = t;
+            block.terminatorOp = TERM_OTHER;
+            if (t instanceof Goto) {
+                block.terminatorOp = TERM_GOTO;
+            } else if (t instanceof If ifNode) {
+                int condition = operandSlot(ifNode.getCondition());
+                if (condition != -1) {
+                    block.terminatorOp = TERM_IF;
+                    block.condition = condition;
+                }
+            }
+            int cnt = t.getSuccessorCount();
+            Edge[] edges = new Edge[cnt];
+            for (int i = 0; i < cnt; i ++) {
+                edges[i] = decodeEdge(t, getBlock(t.getSuccessor(i)));
+            }
+            block.edges = edges;
+        }
+
+        private void decodeValue(Value value, int[] code, int pos) {
+            int dst = numbering.getIndex(value);
+            code[pos] = OP_VALUE;
+            code[pos + 1] = dst;
+            if (dst == -1 || ! (value instanceof BinaryValue bv)) {
+                return;
+            }
+            ValueType inputType = bv.getLeftInput().getType();
+            ValueType outputType = bv.getType();
+            boolean wide;
+            if (isWidth(inputType, 32)) {
+                wide = false;
+            } else if (isWidth(inputType, 64)) {
+                wide = true;
+            } else {
+                return;
+            }
+            int op = comparisonOp(value);
+            if (op == -1 && inputType.equals(outputType)) {
+                op = arithmeticOp(value, inputType instanceof SignedIntegerType);
+            }
+            if (op == -1) {
+                return;
+            }
+            int a = operandSlot(bv.getLeftInput());
+            int b = operandSlot(bv.getRightInput());
+            if (a == -1 || b == -1) {
+                return;
+            }
+            code[pos] = wide ? op + (OP_ADD_64 - OP_ADD_32) : op;
+            code[pos + 2] = a;
+            code[pos + 3] = b;
+        }
+
+        private Edge decodeEdge(Terminator t, Block target) {
+            Edge edge = new Edge();
+            edge.target = target;
+            List<Value> sources = new ArrayList<>();
+            List<Integer> phiSlots = new ArrayList<>();
+            for (PhiValue phiValue : t.getOutboundValues().keySet()) {
+                // only register outbound values that will be used by the target
+                if (phiValue.getPinnedBlock() == target.block && schedule.getBlockForNode(phiValue) != null) {
+                    int phiSlot = numbering.getIndex(phiValue);
+                    if (phiSlot != -1) {
+                        sources.add(t.getOutboundValue(phiValue));
+                        phiSlots.add(Integer.valueOf(phiSlot));
+                    }
+                }
+            }
+            int cnt = sources.size();
+            edge.sources = sources.toArray(Value[]::new);
+            edge.sourceSlots = new int[cnt];
+            edge.phiSlots = new int[cnt];
+            for (int i = 0; i < cnt; i ++) {
+                Value source = edge.sources[i];
+                edge.sourceSlots[i] = source instanceof Literal ? -1 : numbering.getIndex(source);
+                edge.phiSlots[i] = phiSlots.get(i).intValue();
+            }
+            maxMoves = Math.max(maxMoves, cnt);
+            return edge;
+        }
+
+        /**
+         * Get the slot of an operand of a decoded instruction, allocating constant slots for integer and boolean
+         * literals.
+         *
+         * @return the slot, or {@code -1} if the operand cannot be read from a slot
+         */
+        private int operandSlot(Value value) {
+            long constant;
+            if (value instanceof IntegerLiteral il) {
+                constant = il.longValue();
+            } else if (value instanceof BooleanLiteral bl) {
+                constant = bl.booleanValue() ? 1 : 0;
+            } else if (value instanceof Literal) {
+                return -1;
+            } else {
+                return numbering.getIndex(value);
+            }
+            return constantSlots.computeIfAbsent(Long.valueOf(constant), c -> {
+                Integer slot = Integer.valueOf(types.size());
+                types.add(value.getType());
+                constants.put(slot, c);
+                return slot;
+            }).intValue();
+        }
+    }
+
+    private static boolean isWidth(ValueType type, int bits) {
+        return type instanceof IntegerType it && it.getMinBits() == bits;
+    }
+
+    private static int comparisonOp(Value value) {
+        if (value instanceof IsEq) {
+            return OP_IS_EQ_32;
+        } else if (value instanceof IsNe) {
+            return OP_IS_NE_32;
+        } else if (value instanceof IsLt) {
+            return OP_IS_LT_32;
+        } else if (value instanceof IsLe) {
+            return OP_IS_LE_32;
+        } else if (value instanceof IsGt) {
+            return OP_IS_GT_32;
+        } else if (value instanceof IsGe) {
+            return OP_IS_GE_32;
+        } else {
+            return -1;
+        }
+    }
+
+    private static int arithmeticOp(Value value, boolean signed) {
+        if (value instanceof Add) {
+            return OP_ADD_32;
+        } else if (value instanceof Sub) {
+            return OP_SUB_32;
+        } else if (value instanceof Multiply) {
+            return OP_MUL_32;
+        } else if (value instanceof And) {
+            return OP_AND_32;
+        } else if (value instanceof Or) {
+            return OP_OR_32;
+        } else if (value instanceof Xor) {
+            return OP_XOR_32;
+        } else if (value instanceof Shl) {
+            return OP_SHL_32;
+        } else if (value instanceof Shr) {
+            return signed ? OP_SHR_32 : OP_USHR_32;
+        } else {
+            return -1;
+        }
+    }
+
+    /**
+     * Execute the instructions in the given frame.
+     *
+     * @param frame the frame, whose inputs are already bound (must not be {@code null})
+     * @param thread the current thread (must not be {@code null})
+     * @return the return value of the method
+     */
+    Object execute(Frame frame, VmThreadImpl thread) {
+        final Object[] values = frame.values;
+        final long[] prims = frame.prims;
+        Block block = entry;
+        for (;;) {
+            frame.block = block.block;
+            final int[] code = block.code;
+            final Node[] nodes = block.nodes;
+            for (int i = 0, pos = 0; pos < code.length; i ++, pos += INSN_SIZE) {
+                Node node = nodes[i];
+                frame.ip = node;
+                int op = code[pos];
+                int dst = code[pos + 1];
+                if (op >= OP_ADD_32) {
+                    int a = code[pos + 2];
+                    int b = code[pos + 3];
+                    Object left = values[a];
+                    Object right = values[b];
+                    if (isWord(left) && isWord(right)) {
+                        prims[dst] = compute(op, left == Frame.PRIM ? prims[a] : toLong(left), right == Frame.PRIM ? prims[b] : toLong(right));
+                        values[dst] = Frame.PRIM;
+                        continue;
+                    }
+                    // some other kind of value (for example a pointer); use the general implementation
+                    op = OP_VALUE;
+                }
+                if (op == OP_VALUE) {
+                    Object result = ((Value) node).accept(frame, thread);
+                    if (dst != -1) {
+                        values[dst] = result;
+                    }
+                } else {
+                    ((Action) node).accept(frame, thread);
+                }
+            }
+            Terminator t = block.terminator;
+            frame.ip = t;
+            Edge edge;
+            switch (block.terminatorOp) {
+                case TERM_GOTO -> edge = block.edges[0];
+                case TERM_IF -> {
+                    int c = block.condition;
+                    if (values[c] == Frame.PRIM) {
+                        edge = block.edges[prims[c] != 0 ? 0 : 1];
+                    } else {
+                        edge = block.findEdge(t.accept(frame, thread));
+                    }
+                }
+                default -> {
+                    BasicBlock next = t.accept(frame, thread);
+                    if (next == null) {
+                        // we're returning
+                        return frame.output;
+                    }
+                    edge = block.findEdge(next);
+                }
+            }
+            move(frame, edge);
+            block = edge.target;
+        }
+    }
+
+    /**
+     * Set the phi values of the target of an edge.  All of the outbound values are read before any phi is written,
+     * because an outbound value may itself be a phi of the target.
+     */
+    private static void move(Frame frame, Edge edge) {
+        final int[] phiSlots = edge.phiSlots;
+        final int cnt = phiSlots.length;
+        if (cnt == 0) {
+            return;
+        }
+        final Object[] values = frame.values;
+        final long[] prims = frame.prims;
+        final int[] sourceSlots = edge.sourceSlots;
+        final Object[] tmpValues = frame.moveValues;
+        final long[] tmpPrims = frame.movePrims;
+        for (int i = 0; i < cnt; i ++) {
+            int src = sourceSlots[i];
+            if (src == -1) {
+                tmpValues[i] = frame.require(edge.sources[i]);
+            } else {
+                Object value = values[src];
+                if (value == Frame.MISSING) {
+                    // report the missing value
+                    frame.require(edge.sources[i]);
+                }
+                tmpValues[i] = value;
+                tmpPrims[i] = prims[src];
+            }
+        }
+        for (int i = 0; i < cnt; i ++) {
+            int dst = phiSlots[i];
+            values[dst] = tmpValues[i];
+            prims[dst] = tmpPrims[i];
+            tmpValues[i] = null;
+        }
+    }
+
+    private static boolean isWord(Object value) {
+        return value == Frame.PRIM || value instanceof Number || value instanceof Boolean;
+    }
+
+    private static long toLong(Object value) {
+        return value instanceof Boolean bool ? bool.booleanValue() ? 1 : 0 : ((Number) value).longValue();
+    }
+
+    private static long compute(int op, long left, long right) {
+        return switch (op) {
+            case OP_ADD_32 -> (int) left + (int) right;
+            case OP_SUB_32 -> (int) left - (int) right;
+            case OP_MUL_32 -> (int) left * (int) right;
+            case OP_AND_32 -> (int) left & (int) right;
+            case OP_OR_32 -> (int) left | (int) right;
+            case OP_XOR_32 -> (int) left ^ (int) right;
+            case OP_SHL_32 -> (int) left << (int) right;
+            case OP_SHR_32 -> (int) left >> (int) right;
+            case OP_USHR_32 -> (int) left >>> (int) right;
+            case OP_IS_EQ_32 -> (int) left == (int) right ? 1 : 0;
+            case OP_IS_NE_32 -> (int) left != (int) right ? 1 : 0;
+            case OP_IS_LT_32 -> (int) left < (int) right ? 1 : 0;
+            case OP_IS_LE_32 -> (int) left <= (int) right ? 1 : 0;
+            case OP_IS_GT_32 -> (int) left > (int) right ? 1 : 0;
+            case OP_IS_GE_32 -> (int) left >= (int) right ? 1 : 0;
+            case OP_ADD_64 -> left + right;
+            case OP_SUB_64 -> left - right;
+            case OP_MUL_64 -> left * right;
+            case OP_AND_64 -> left & right;
+            case OP_OR_64 -> left | right;
+            case OP_XOR_64 -> left ^ right;
+            case OP_SHL_64 -> left << right;
+            case OP_SHR_64 -> left >> right;
+            case OP_USHR_64 -> left >>> right;
+            case OP_IS_EQ_64 -> left == right ? 1 : 0;
+            case OP_IS_NE_64 -> left != right ? 1 : 0;
+            case OP_IS_LT_64 -> left < right ? 1 : 0;
+            case OP_IS_LE_64 -> left <= right ? 1 : 0;
+            case OP_IS_GT_64 -> left > right ? 1 : 0;
+            case OP_IS_GE_64 -> left >= right ? 1 : 0;
+            default -> throw new IllegalStateException("Invalid opcode " + op);
+        };
+    }
+}
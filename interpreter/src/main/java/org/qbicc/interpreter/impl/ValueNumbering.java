@@ -0,0 +1,83 @@
+package org.qbicc.interpreter.impl;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.qbicc.graph.Value;
+
+/**
+ * A numbering of the values of a method body, which maps each value to the index of its slot in a {@link Frame}.
+ * Values which are equal share a slot.  Values are looked up by identity using open addressing, so that the
+ * structural {@code hashCode} and {@code equals} of nodes are normally only called when the numbering is built.
+ * An instance which was not seen when the numbering was built is looked up by equality instead.
+ */
+final class ValueNumbering {
+    private final Value[] keys;
+    private final int[] indices;
+    private final int mask;
+    private final Map<Value, Integer> slots;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param values every instance of every value to number (must not be {@code null})
+     */
+    ValueNumbering(Collection<? extends Value> values) {
+        // keep the table at most half full
+        int size = Integer.highestOneBit(Math.max(values.size(), 1) * 2 + 1) << 1;
+        keys = new Value[size];
+        indices = new int[size];
+        mask = size - 1;
+        Map<Value, Integer> slots = new HashMap<>(values.size());
+        for (Value value : values) {
+            int idx = hash(value) & mask;
+            while (keys[idx] != null) {
+                if (keys[idx] == value) {
+                    break;
+                }
+                idx = (idx + 1) & mask;
+            }
+            if (keys[idx] == null) {
+                keys[idx] = value;
+                indices[idx] = slots.computeIfAbsent(value, v -> Integer.valueOf(slots.size())).intValue();
+            }
+        }
+        this.slots = slots;
+    }
+
+    /**
+     * Get the slot index of the given value.
+     *
+     * @param value the value (must not be {@code null})
+     * @return the slot index, or {@code -1} if the value is not numbered
+     */
+    int getIndex(Value value) {
+        final Value[] keys = this.keys;
+        int idx = hash(value) & mask;
+        Value key;
+        while ((key = keys[idx]) != null) {
+            if (key == value) {
+                return indices[idx];
+            }
+            idx = (idx + 1) & mask;
+        }
+        Integer slot = slots.get(value);
+        return slot == null ? -1 : slot.intValue();
+    }
+
+    /**
+     * Get the number of slots.
+     *
+     * @return the number of slots
+     */
+    int getCount() {
+        return slots.size();
+    }
+
+    private static int hash(Value value) {
+        int h = System.identityHashCode(value);
+        // spread the bits, since identity hash codes can be clustered
+        return h ^ (h >>> 16);
+    }
+}
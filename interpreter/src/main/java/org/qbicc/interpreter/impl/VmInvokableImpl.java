@@ -4,13 +4,14 @@ import java.lang.invoke.ConstantBootstraps;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.VarHandle;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import org.qbicc.graph.Action;
 import org.qbicc.graph.BasicBlock;
 import org.qbicc.graph.LocalVariable;
 import org.qbicc.graph.Node;
@@ -19,7 +20,7 @@ import org.qbicc.graph.PhiValue;
 import org.qbicc.graph.Terminator;
 import org.qbicc.graph.Unschedulable;
 import org.qbicc.graph.Value;
-import org.qbicc.graph.schedule.Schedule;
+import org.qbicc.graph.literal.Literal;
 import org.qbicc.interpreter.Memory;
 import org.qbicc.interpreter.Thrown;
 import org.qbicc.interpreter.VmInvokable;
@@ -41,9 +42,8 @@ final class VmInvokableImpl implements VmInvokable {
     private static final VarHandle countHandle = ConstantBootstraps.fieldVarHandle(MethodHandles.lookup(), "count", VarHandle.class, VmInvokableImpl.class, long.class);
 
     private final ExecutableElement element;
-    private final Map<BasicBlock, List<Node>> scheduled;
+    private final Instructions instructions;
     private final ValueType frameMemoryType;
-    private final Schedule schedule;
     @SuppressWarnings("unused") // VarHandle
     private volatile long count;
 
@@ -51,22 +51,28 @@ final class VmInvokableImpl implements VmInvokable {
         this.element = element;
         TypeSystem ts = element.getEnclosingType().getContext().getTypeSystem();
         final CompoundType.Builder builder = CompoundType.builder(ts);
-        scheduled = buildScheduled(element, builder);
+        final Set<Value> values = Collections.newSetFromMap(new IdentityHashMap<>());
+        Map<BasicBlock, List<Node>> scheduled = buildScheduled(element, builder, values);
+        instructions = new Instructions(element.getMethodBody(), scheduled, values);
         if (builder.getMemberCountSoFar() == 0) {
             frameMemoryType = ts.getVoidType();
         } else {
             frameMemoryType = builder.build();
         }
-        schedule = element.getMethodBody().getSchedule();
     }
 
-    private static Map<BasicBlock, List<Node>> buildScheduled(final ExecutableElement element, CompoundType.Builder localVarLocations) {
+    private static Map<BasicBlock, List<Node>> buildScheduled(final ExecutableElement element, CompoundType.Builder localVarLocations, Set<Value> values) {
         if (! element.tryCreateMethodBody()) {
             throw new IllegalStateException("No method body for " + element);
         }
         MethodBody body = element.getMethodBody();
         Map<BasicBlock, List<Node>> scheduled = new HashMap<>();
+        if (! element.isStatic()) {
+            values.add(body.getThisValue());
+        }
+        values.addAll(body.getParameterValues());
         buildScheduled(body, new HashSet<>(), scheduled, body.getEntryBlock().getTerminator(), localVarLocations);
+        collectValues(Collections.newSetFromMap(new IdentityHashMap<>()), body.getEntryBlock().getTerminator(), values);
         return scheduled;
     }
 
@@ -110,6 +116,38 @@ final class VmInvokableImpl implements VmInvokable {
         }
     }
 
+    /**
+     * Find every instance of every value.  Nodes which are equal are scheduled once, but they may still be distinct
+     * objects, each of which must be numbered.
+     */
+    private static void collectValues(final Set<Node> visited, Node node, Set<Value> values) {
+        if (! visited.add(node)) {
+            return;
+        }
+        if (node instanceof Value value && ! (value instanceof Literal)) {
+            values.add(value);
+        }
+        if (node.hasValueHandleDependency()) {
+            collectValues(visited, node.getValueHandle(), values);
+        }
+        if (node instanceof OrderedNode) {
+            collectValues(visited, ((OrderedNode) node).getDependency(), values);
+        }
+        int cnt = node.getValueDependencyCount();
+        for (int i = 0; i < cnt; i ++) {
+            collectValues(visited, node.getValueDependency(i), values);
+        }
+        if (node instanceof Terminator terminator) {
+            for (PhiValue phiValue : terminator.getOutboundValues().keySet()) {
+                collectValues(visited, terminator.getOutboundValue(phiValue), values);
+            }
+            int sc = terminator.getSuccessorCount();
+            for (int i = 0; i < sc; i ++) {
+                collectValues(visited, terminator.getSuccessor(i).getTerminator(), values);
+            }
+        }
+    }
+
     private static List<Node> newList(final BasicBlock ignored) {
         return new ArrayList<>();
     }
@@ -139,12 +177,12 @@ final class VmInvokableImpl implements VmInvokable {
         }
         Frame caller = thread.currentFrame;
         Memory memory = thread.getVM().allocate(frameMemoryType, 1);
-        Frame frame = new Frame(caller, element, memory);
+        Frame frame = new Frame(caller, element, memory, instructions);
         thread.currentFrame = frame;
         // bind inputs
         MethodBody body = element.getMethodBody();
         if (! element.isStatic()) {
-            frame.values.put(body.getThisValue(), target);
+            frame.setValue(body.getThisValue(), target);
         }
         if (element instanceof InvokableElement) {
             for (int i = 0; i < args.size(); i++) {
@@ -154,7 +192,7 @@ final class VmInvokableImpl implements VmInvokable {
                     arg = thread.getVM().manuallyInitialize(new VmStringImpl(thread.getVM(), thread.vm.stringClass, (String) arg));
                 }
                 try {
-                    frame.values.put(body.getParameterValue(i), arg);
+                    frame.setValue(body.getParameterValue(i), arg);
                 } catch (ArrayIndexOutOfBoundsException e) {
                     // for breakpoints
                     throw e;
@@ -162,42 +200,7 @@ final class VmInvokableImpl implements VmInvokable {
             }
         }
         try {
-            frame.block = body.getEntryBlock();
-            for (;;) {
-                List<Node> nodes = scheduled.getOrDefault(frame.block, List.of());
-                for (Node node : nodes) {
-                    frame.ip = node;
-                    if (frame.ip instanceof Value) {
-                        Value value = (Value) frame.ip;
-                        frame.values.put(value, value.accept(frame, thread));
-                    } else {
-                        assert frame.ip instanceof Action;
-                        ((Action) frame.ip).accept(frame, thread);
-                    }
-                }
-                Terminator t = frame.block.getTerminator();
-                frame.ip = t;
-                // keep it simple for now
-                BasicBlock next = t.accept(frame, thread);
-                if (next == null) {
-                    // we're returning
-                    return frame.output;
-                }
-                // register outbound phi values
-                for (PhiValue phiValue : t.getOutboundValues().keySet()) {
-                    // only register outbound values that will be used by the target
-                    if (phiValue.getPinnedBlock() == next) {
-                        if (schedule.getBlockForNode(phiValue) != null) {
-                            // reachable value
-                            Value value = t.getOutboundValue(phiValue);
-                            Object realValue = frame.require(value);
-                            frame.values.put(value, realValue);
-                            frame.values.put(phiValue, realValue);
-                        }
-                    }
-                }
-                frame.block = next;
-            }
+            return instructions.execute(frame, thread);
         } catch (IllegalStateException | UnsupportedOperationException t) {
             // capture exception from frame state
             VmThrowableClassImpl internalErrorClass = (VmThrowableClassImpl) thread.vm.getBootstrapClassLoader().loadClass("java/lang/InternalError");
@@ -2,6 +2,7 @@ package org.qbicc.machine.llvm;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 
 import org.qbicc.machine.llvm.debuginfo.DIBasicType;
 import org.qbicc.machine.llvm.debuginfo.DICompileUnit;
@@ -62,6 +63,30 @@ public interface Module {
 
     void writeTo(BufferedWriter output) throws IOException;
 
+    /**
+     * Write the header, types, globals and functions which have been added to this module so far, along with the
+     * debug locations and local variables, and release them.  A later call to this method or to
+     * {@link #writeTo(BufferedWriter)} writes only what was added since, and the remaining metadata.  This allows a
+     * module to be written one function at a time, without holding every function body in memory.
+     * <p>
+     * Items which have been written must not be changed afterwards.  A module which has been flushed can no longer be
+     * written as bitcode.
+     *
+     * @param output the output (must not be {@code null})
+     * @throws IOException if writing fails
+     */
+    void flushTo(BufferedWriter output) throws IOException;
+
+    /**
+     * Write this module as LLVM bitcode.
+     *
+     * @param output the output stream (must not be {@code null})
+     * @throws UnsupportedBitcodeException if the module contains something which cannot be written as bitcode;
+     *      such modules can still be written as text by {@link #writeTo(BufferedWriter)}
+     * @throws IOException if writing fails
+     */
+    void writeBitcodeTo(OutputStream output) throws IOException;
+
     static Module newModule() {
         return LLVM.newModule();
     }
@@ -0,0 +1,51 @@
+package org.qbicc.machine.llvm;
+
+import java.io.IOException;
+import java.io.Serial;
+
+/**
+ * An exception thrown when a module contains something which cannot be written as LLVM bitcode.  Such a module can
+ * still be written in its textual form.
+ */
+public class UnsupportedBitcodeException extends IOException {
+    @Serial
+    private static final long serialVersionUID = -4312786218815203529L;
+
+    /**
+     * Constructs a new {@code UnsupportedBitcodeException} instance.  The message is left blank ({@code null}), and no
+     * cause is specified.
+     */
+    public UnsupportedBitcodeException() {
+    }
+
+    /**
+     * Constructs a new {@code UnsupportedBitcodeException} instance with an initial message.  No
+     * cause is specified.
+     *
+     * @param msg the message
+     */
+    public UnsupportedBitcodeException(final String msg) {
+        super(msg);
+    }
+
+    /**
+     * Constructs a new {@code UnsupportedBitcodeException} instance with an initial cause.  If
+     * a non-{@code null} cause is specified, its message is used to initialize the message of this
+     * {@code UnsupportedBitcodeException}; otherwise the message is left blank ({@code null}).
+     *
+     * @param cause the cause
+     */
+    public UnsupportedBitcodeException(final Throwable cause) {
+        super(cause);
+    }
+
+    /**
+     * Constructs a new {@code UnsupportedBitcodeException} instance with an initial message and cause.
+     *
+     * @param msg   the message
+     * @param cause the cause
+     */
+    public UnsupportedBitcodeException(final String msg, final Throwable cause) {
+        super(msg, cause);
+    }
+}
@@ -245,11 +245,7 @@ abstract class AbstractFunction extends AbstractMetable implements Function {
         }
 
         public LLValue asValue() {
-            return new AbstractValue() {
-                public Appendable appendTo(final Appendable target) throws IOException {
-                    return target.append('%').append(name);
-                }
-            };
+            return new AsValue();
         }
 
         public Appendable appendTo(final Appendable target) throws IOException {
@@ -267,5 +263,15 @@ abstract class AbstractFunction extends AbstractMetable implements Function {
             }
             return target;
         }
+
+        final class AsValue extends AbstractValue {
+            ParameterImpl parameter() {
+                return ParameterImpl.this;
+            }
+
+            public Appendable appendTo(final Appendable target) throws IOException {
+                return target.append('%').append(name);
+            }
+        }
     }
 }
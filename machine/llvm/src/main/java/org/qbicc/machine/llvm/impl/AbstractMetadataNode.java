@@ -6,8 +6,8 @@ import org.qbicc.machine.llvm.debuginfo.MetadataNode;
 import java.io.IOException;
 
 abstract class AbstractMetadataNode extends AbstractCommentable implements MetadataNode {
-    private final String name;
-    private final int index;
+    final String name;
+    final int index;
 
     AbstractMetadataNode(final int index) {
         this.name = null;
@@ -7,10 +7,10 @@ import org.qbicc.machine.llvm.op.Alloca;
 import io.smallrye.common.constraint.Assert;
 
 final class AllocaImpl extends AbstractYieldingInstruction implements Alloca {
-    private final AbstractValue type;
-    private AbstractValue numElementsType;
-    private AbstractValue numElements;
-    private AbstractValue align;
+    final AbstractValue type;
+    AbstractValue numElementsType;
+    AbstractValue numElements;
+    AbstractValue align;
 
     AllocaImpl(final BasicBlockImpl block, final AbstractValue type) {
         super(block);
@@ -6,8 +6,8 @@ import java.io.IOException;
  *
  */
 final class ArrayType extends AbstractValue {
-    private final int dimension;
-    private final AbstractValue elementType;
+    final int dimension;
+    final AbstractValue elementType;
 
     ArrayType(final int dimension, final AbstractValue elementType) {
         this.dimension = dimension;
@@ -8,9 +8,9 @@ import org.qbicc.machine.llvm.AsmFlag;
 
 final class AsmExpression extends AbstractValue {
 
-    private final String instruction;
-    private final String constraints;
-    private final Set<AsmFlag> flags;
+    final String instruction;
+    final String constraints;
+    final Set<AsmFlag> flags;
 
     AsmExpression(final String instruction, final String constraints, final Set<AsmFlag> flags) {
         this.instruction = Assert.checkNotNullParam("instruction", instruction);
@@ -9,7 +9,7 @@ import org.qbicc.machine.llvm.op.Assignment;
  *
  */
 final class AssignmentImpl extends AbstractYieldingInstruction implements Assignment {
-    private final AbstractValue rvalue;
+    final AbstractValue rvalue;
 
     AssignmentImpl(final BasicBlockImpl block, final AbstractValue value) {
         super(block);
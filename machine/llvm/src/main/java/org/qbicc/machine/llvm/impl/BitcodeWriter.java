@@ -0,0 +1,2285 @@
+package org.qbicc.machine.llvm.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.qbicc.machine.llvm.AsmFlag;
+import org.qbicc.machine.llvm.CallingConvention;
+import org.qbicc.machine.llvm.DllStorageClass;
+import org.qbicc.machine.llvm.FastMathFlag;
+import org.qbicc.machine.llvm.LLValue;
+import org.qbicc.machine.llvm.Linkage;
+import org.qbicc.machine.llvm.RuntimePreemption;
+import org.qbicc.machine.llvm.TailType;
+import org.qbicc.machine.llvm.ThreadLocalStorageModel;
+import org.qbicc.machine.llvm.UnsupportedBitcodeException;
+import org.qbicc.machine.llvm.Visibility;
+import org.qbicc.machine.llvm.debuginfo.DIEncoding;
+import org.qbicc.machine.llvm.debuginfo.DIFlags;
+import org.qbicc.machine.llvm.debuginfo.DIOpcode;
+import org.qbicc.machine.llvm.debuginfo.DISPFlags;
+import org.qbicc.machine.llvm.debuginfo.DITag;
+import org.qbicc.machine.llvm.impl.BitstreamWriter.Abbrev;
+import org.qbicc.machine.llvm.impl.BitstreamWriter.Op;
+import org.qbicc.machine.llvm.impl.BitstreamWriter.Record;
+import org.qbicc.machine.llvm.op.OrderingConstraint;
+
+/**
+ * A writer which encodes a module as LLVM bitcode.  The records are those read by LLVM 12 and later for modules
+ * with typed pointers.  Constructs which have no encoding here cause an {@link UnsupportedBitcodeException} to be
+ * thrown, in which case the textual form of the module should be written instead.
+ * <p>
+ * The function blocks are encoded before the rest of the module, into a separate stream, because the type,
+ * attribute and metadata kind tables which precede them are only complete once every function has been seen.
+ */
+final class BitcodeWriter {
+    // block IDs
+    private static final int MODULE_BLOCK_ID = 8;
+    private static final int PARAMATTR_BLOCK_ID = 9;
+    private static final int PARAMATTR_GROUP_BLOCK_ID = 10;
+    private static final int CONSTANTS_BLOCK_ID = 11;
+    private static final int FUNCTION_BLOCK_ID = 12;
+    private static final int IDENTIFICATION_BLOCK_ID = 13;
+    private static final int METADATA_BLOCK_ID = 15;
+    private static final int METADATA_ATTACHMENT_ID = 16;
+    private static final int TYPE_BLOCK_ID = 17;
+    private static final int METADATA_KIND_BLOCK_ID = 22;
+    private static final int STRTAB_BLOCK_ID = 23;
+    private static final int SYNC_SCOPE_NAMES_BLOCK_ID = 26;
+
+    // module records
+    private static final int MODULE_CODE_VERSION = 1;
+    private static final int MODULE_CODE_DATALAYOUT = 3;
+    private static final int MODULE_CODE_SECTIONNAME = 5;
+    private static final int MODULE_CODE_GLOBALVAR = 7;
+    private static final int MODULE_CODE_FUNCTION = 8;
+    private static final int MODULE_CODE_GCNAME = 11;
+
+    // type records
+    private static final int TYPE_CODE_NUMENTRY = 1;
+    private static final int TYPE_CODE_VOID = 2;
+    private static final int TYPE_CODE_FLOAT = 3;
+    private static final int TYPE_CODE_DOUBLE = 4;
+    private static final int TYPE_CODE_LABEL = 5;
+    private static final int TYPE_CODE_OPAQUE = 6;
+    private static final int TYPE_CODE_INTEGER = 7;
+    private static final int TYPE_CODE_POINTER = 8;
+    private static final int TYPE_CODE_HALF = 10;
+    private static final int TYPE_CODE_ARRAY = 11;
+    private static final int TYPE_CODE_VECTOR = 12;
+    private static final int TYPE_CODE_FP128 = 14;
+    private static final int TYPE_CODE_METADATA = 16;
+    private static final int TYPE_CODE_STRUCT_ANON = 18;
+    private static final int TYPE_CODE_STRUCT_NAME = 19;
+    private static final int TYPE_CODE_STRUCT_NAMED = 20;
+    private static final int TYPE_CODE_FUNCTION = 21;
+    private static final int TYPE_CODE_TOKEN = 22;
+
+    // constant records
+    private static final int CST_CODE_SETTYPE = 1;
+    private static final int CST_CODE_NULL = 2;
+    private static final int CST_CODE_UNDEF = 3;
+    private static final int CST_CODE_INTEGER = 4;
+    private static final int CST_CODE_WIDE_INTEGER = 5;
+    private static final int CST_CODE_FLOAT = 6;
+    private static final int CST_CODE_AGGREGATE = 7;
+    private static final int CST_CODE_STRING = 8;
+    private static final int CST_CODE_CE_CAST = 11;
+    private static final int CST_CODE_CE_GEP = 12;
+    private static final int CST_CODE_INLINEASM_NO_UNWIND = 23;
+    private static final int CST_CODE_INLINEASM = 28;
+
+    // function records
+    private static final int FUNC_CODE_DECLAREBLOCKS = 1;
+    private static final int FUNC_CODE_INST_BINOP = 2;
+    private static final int FUNC_CODE_INST_CAST = 3;
+    private static final int FUNC_CODE_INST_RET = 10;
+    private static final int FUNC_CODE_INST_BR = 11;
+    private static final int FUNC_CODE_INST_SWITCH = 12;
+    private static final int FUNC_CODE_INST_INVOKE = 13;
+    private static final int FUNC_CODE_INST_UNREACHABLE = 15;
+    private static final int FUNC_CODE_INST_PHI = 16;
+    private static final int FUNC_CODE_INST_ALLOCA = 19;
+    private static final int FUNC_CODE_INST_LOAD = 20;
+    private static final int FUNC_CODE_INST_VAARG = 23;
+    private static final int FUNC_CODE_INST_EXTRACTVAL = 26;
+    private static final int FUNC_CODE_INST_INSERTVAL = 27;
+    private static final int FUNC_CODE_INST_CMP2 = 28;
+    private static final int FUNC_CODE_INST_VSELECT = 29;
+    private static final int FUNC_CODE_DEBUG_LOC_AGAIN = 33;
+    private static final int FUNC_CODE_INST_CALL = 34;
+    private static final int FUNC_CODE_DEBUG_LOC = 35;
+    private static final int FUNC_CODE_INST_FENCE = 36;
+    private static final int FUNC_CODE_INST_ATOMICRMW = 38;
+    private static final int FUNC_CODE_INST_LOADATOMIC = 41;
+    private static final int FUNC_CODE_INST_GEP = 43;
+    private static final int FUNC_CODE_INST_STORE = 44;
+    private static final int FUNC_CODE_INST_STOREATOMIC = 45;
+    private static final int FUNC_CODE_INST_CMPXCHG = 46;
+    private static final int FUNC_CODE_INST_LANDINGPAD = 47;
+    private static final int FUNC_CODE_INST_UNOP = 56;
+
+    // metadata records
+    private static final int METADATA_NAME = 4;
+    private static final int METADATA_VALUE = 2;
+    private static final int METADATA_NODE = 3;
+    private static final int METADATA_DISTINCT_NODE = 5;
+    private static final int METADATA_KIND = 6;
+    private static final int METADATA_LOCATION = 7;
+    private static final int METADATA_NAMED_NODE = 10;
+    private static final int METADATA_ATTACHMENT = 11;
+    private static final int METADATA_SUBRANGE = 13;
+    private static final int METADATA_BASIC_TYPE = 15;
+    private static final int METADATA_FILE = 16;
+    private static final int METADATA_DERIVED_TYPE = 17;
+    private static final int METADATA_COMPOSITE_TYPE = 18;
+    private static final int METADATA_SUBROUTINE_TYPE = 19;
+    private static final int METADATA_COMPILE_UNIT = 20;
+    private static final int METADATA_SUBPROGRAM = 21;
+    private static final int METADATA_GLOBAL_VAR = 27;
+    private static final int METADATA_LOCAL_VAR = 28;
+    private static final int METADATA_EXPRESSION = 29;
+    private static final int METADATA_STRINGS = 35;
+    private static final int METADATA_GLOBAL_DECL_ATTACHMENT = 36;
+    private static final int METADATA_GLOBAL_VAR_EXPR = 37;
+
+    private static final long FUNCTION_ATTRIBUTE_INDEX = 0xFFFF_FFFFL;
+
+    private final ModuleImpl module;
+    private final List<Emittable> metaNodes;
+
+    // types
+    private final List<TypeEntry> typeList = new ArrayList<>();
+    private final Map<TypeKey, TypeEntry> typeMap = new HashMap<>();
+    private final Map<AbstractValue, TypeEntry> typeCache = new IdentityHashMap<>();
+    private final Map<IdentifiedTypeImpl, TypeEntry> namedTypes = new IdentityHashMap<>();
+    private final Map<String, TypeEntry> simpleTypes = new HashMap<>();
+
+    // module-level values
+    private final List<GlobalImpl> globals = new ArrayList<>();
+    private final List<AbstractFunction> functions = new ArrayList<>();
+    private final Map<GlobalImpl, Integer> globalIds = new IdentityHashMap<>();
+    private final Map<String, Integer> namedValueIds = new HashMap<>();
+    private final Map<String, Integer> sections = new LinkedHashMap<>();
+    private final Map<String, Integer> gcNames = new LinkedHashMap<>();
+    private ConstantTable moduleConstants;
+    private int moduleValueCount;
+
+    // attributes
+    private final Map<String, Integer> attributeGroupIds = new HashMap<>();
+    private final List<Record> attributeGroups = new ArrayList<>();
+    private final Map<List<Integer>, Integer> attributeListIds = new HashMap<>();
+    private final List<List<Integer>> attributeLists = new ArrayList<>();
+
+    // metadata
+    private final Map<String, Integer> mdStrings = new LinkedHashMap<>();
+    private final Map<Integer, Integer> mdNodePositions = new HashMap<>();
+    private final Map<Integer, AbstractMetadataNode> mdNodes = new HashMap<>();
+    private final MetadataTable moduleMetadata = new MetadataTable();
+    private final Map<String, Integer> mdKinds = new LinkedHashMap<>();
+    private int moduleMdCount;
+
+    // the current scope
+    private ConstantTable constants;
+    private MetadataTable metadata;
+    private FunctionState function;
+
+    // abbreviations
+    private int loadAbbrev;
+    private int binopAbbrev;
+    private int binopFlagsAbbrev;
+    private int castAbbrev;
+    private int retVoidAbbrev;
+    private int retValAbbrev;
+    private int unreachableAbbrev;
+    private int gepAbbrev;
+    private int storeAbbrev;
+    private int brAbbrev;
+    private int debugLocAbbrev;
+    private int setTypeAbbrev;
+    private int integerAbbrev;
+    private int ceCastAbbrev;
+    private int nullAbbrev;
+
+    private final Record record = new Record();
+
+    BitcodeWriter(final ModuleImpl module) {
+        this.module = module;
+        metaNodes = new ArrayList<>(module.meta.size() + module.localMeta.size());
+        metaNodes.addAll(module.meta);
+        metaNodes.addAll(module.localMeta);
+    }
+
+    void writeTo(OutputStream os) throws IOException {
+        enumerateModule();
+        BitstreamWriter body = new BitstreamWriter(3);
+        defineBlockInfo(body, false);
+        for (AbstractFunction fn : functions) {
+            if (fn instanceof FunctionDefinitionImpl def) {
+                writeFunction(body, def);
+            }
+        }
+        BitstreamWriter out = new BitstreamWriter();
+        // magic
+        out.emit('B', 8);
+        out.emit('C', 8);
+        out.emit(0x0, 4);
+        out.emit(0xC, 4);
+        out.emit(0xE, 4);
+        out.emit(0xD, 4);
+        writeIdentification(out);
+        out.enterBlock(MODULE_BLOCK_ID, 3);
+        out.emitRecord(MODULE_CODE_VERSION, record.clear().add(2));
+        out.enterBlock(BitstreamWriter.BLOCKINFO_BLOCK_ID, 2);
+        defineBlockInfo(out, true);
+        out.exitBlock();
+        writeTypes(out);
+        writeAttributes(out);
+        ByteArrayOutputStream strtab = new ByteArrayOutputStream();
+        writeModuleInfo(out, strtab);
+        writeConstants(out, moduleConstants);
+        writeMetadataKinds(out);
+        writeModuleMetadata(out);
+        writeSyncScopeNames(out);
+        out.writeBytes(body.toByteArray());
+        out.exitBlock();
+        out.enterBlock(STRTAB_BLOCK_ID, 3);
+        int blobAbbrev = out.defineAbbrev(new Abbrev(Op.literal(1), Op.blob()));
+        out.emitRecord(blobAbbrev, 1, record.clear(), strtab.toByteArray());
+        out.exitBlock();
+        out.writeTo(os);
+    }
+
+    // =================
+    // Module enumeration
+    // =================
+
+    private void enumerateModule() throws UnsupportedBitcodeException {
+        for (Emittable item : module.globals) {
+            GlobalImpl global = (GlobalImpl) item;
+            globalIds.put(global, Integer.valueOf(globals.size()));
+            namedValueIds.put(globalName(global), Integer.valueOf(globals.size()));
+            globals.add(global);
+            if (global.section != null) {
+                sections.putIfAbsent(global.section, Integer.valueOf(sections.size() + 1));
+            }
+        }
+        for (Emittable item : module.functions) {
+            AbstractFunction fn = (AbstractFunction) item;
+            namedValueIds.put(fn.name, Integer.valueOf(globals.size() + functions.size()));
+            functions.add(fn);
+            if (fn instanceof FunctionDefinitionImpl def) {
+                if (def.section != null) {
+                    sections.putIfAbsent(def.section, Integer.valueOf(sections.size() + 1));
+                }
+                if (def.gc != null) {
+                    gcNames.putIfAbsent(def.gc, Integer.valueOf(gcNames.size() + 1));
+                }
+            }
+        }
+        // the function types are used by the function records
+        for (AbstractFunction fn : functions) {
+            functionType(fn);
+        }
+        moduleConstants = new ConstantTable(globals.size() + functions.size());
+        constants = moduleConstants;
+        metadata = moduleMetadata;
+        for (GlobalImpl global : globals) {
+            TypeEntry type = type(global.type);
+            if (global.value != null) {
+                valueId(global.value, type);
+            }
+        }
+        for (AbstractFunction fn : functions) {
+            if (fn instanceof FunctionDefinitionImpl def && def.personalityValue != null) {
+                valueId(def.personalityValue, type(def.personalityType));
+            }
+        }
+        mdKind("dbg");
+        // enumerate the module metadata; the IDs are final once every string has been seen
+        int position = 0;
+        for (Emittable item : metaNodes) {
+            AbstractMetadataNode node = (AbstractMetadataNode) item;
+            mdNodePositions.put(Integer.valueOf(node.index), Integer.valueOf(position ++));
+            mdNodes.put(Integer.valueOf(node.index), node);
+        }
+        for (Emittable item : metaNodes) {
+            writeMetadataNode(null, (AbstractMetadataNode) item);
+        }
+        for (Emittable item : module.namedMeta) {
+            namedNodeRecord((MetadataTupleImpl) item);
+        }
+        for (GlobalImpl global : globals) {
+            attachmentRecord(global.lastMetaItem, false);
+        }
+        for (AbstractFunction fn : functions) {
+            if (fn instanceof FunctionDeclarationImpl) {
+                attachmentRecord(fn.lastMetaItem, false);
+            }
+        }
+        moduleValueCount = globals.size() + functions.size() + moduleConstants.entries.size();
+        moduleMdCount = mdStrings.size() + metaNodes.size() + moduleMetadata.entries.size();
+    }
+
+    private static String globalName(GlobalImpl global) throws UnsupportedBitcodeException {
+        AbstractValue lvalue = global.lvalue;
+        if (lvalue instanceof NamedGlobalValueOf named) {
+            return named.rawName;
+        } else if (lvalue instanceof GlobalValueOf numbered) {
+            return "G" + Integer.toHexString(numbered.index);
+        } else {
+            throw new UnsupportedBitcodeException("Global has no name");
+        }
+    }
+
+    // =================
+    // Types
+    // =================
+
+    private TypeEntry type(LLValue type) throws UnsupportedBitcodeException {
+        return type((AbstractValue) type);
+    }
+
+    private TypeEntry type(AbstractValue type) throws UnsupportedBitcodeException {
+        if (type instanceof SingleWord word) {
+            return simpleType(word.toString());
+        }
+        TypeEntry entry = typeCache.get(type);
+        if (entry != null) {
+            return entry;
+        }
+        if (type instanceof PointerTo ptr) {
+            entry = intern(TYPE_CODE_POINTER, ptr.addrSpace, 0, type(ptr.type));
+        } else if (type instanceof ArrayType array) {
+            entry = intern(TYPE_CODE_ARRAY, array.dimension, 0, type(array.elementType));
+        } else if (type instanceof VectorOf vector) {
+            entry = intern(TYPE_CODE_VECTOR, vector.dimension, vector.vscale ? 1 : 0, type(vector.elementType));
+        } else if (type instanceof MetadataType) {
+            entry = simpleType("metadata");
+        } else if (type instanceof FunctionType fnType) {
+            TypeEntry[] elements = new TypeEntry[fnType.argTypes.size() + 1];
+            elements[0] = type(fnType.returnType);
+            for (int i = 1; i < elements.length; i ++) {
+                elements[i] = type(fnType.argTypes.get(i - 1));
+            }
+            entry = intern(TYPE_CODE_FUNCTION, fnType.variadic ? 1 : 0, 0, elements);
+        } else if (type instanceof StructTypeImpl struct) {
+            entry = intern(TYPE_CODE_STRUCT_ANON, 0, 0, structMembers(struct));
+        } else if (type instanceof IdentifiedTypeImpl.Ref ref) {
+            entry = namedType(ref.identifiedType());
+        } else {
+            throw new UnsupportedBitcodeException("Unsupported type " + type);
+        }
+        typeCache.put(type, entry);
+        return entry;
+    }
+
+    private TypeEntry[] structMembers(StructTypeImpl struct) throws UnsupportedBitcodeException {
+        List<TypeEntry> members = new ArrayList<>(struct.members.size());
+        for (int i = 0; i < struct.members.size(); i ++) {
+            if (! struct.literalPaddingMember(struct.memberNames.get(i))) {
+                members.add(type(struct.members.get(i)));
+            }
+        }
+        return members.toArray(TypeEntry[]::new);
+    }
+
+    private TypeEntry namedType(IdentifiedTypeImpl identifiedType) throws UnsupportedBitcodeException {
+        TypeEntry entry = namedTypes.get(identifiedType);
+        if (entry != null) {
+            // possibly still in progress, which is allowed for named structures
+            return entry;
+        }
+        AbstractValue body = identifiedType.type;
+        entry = new TypeEntry(body == null ? TYPE_CODE_OPAQUE : TYPE_CODE_STRUCT_NAMED, 0, 0, null);
+        entry.name = unquote(identifiedType.name);
+        namedTypes.put(identifiedType, entry);
+        if (body instanceof StructTypeImpl struct) {
+            entry.elements = structMembers(struct);
+        } else if (body != null) {
+            throw new UnsupportedBitcodeException("Identified type which is not a structure");
+        }
+        entry.id = typeList.size();
+        typeList.add(entry);
+        return entry;
+    }
+
+    private TypeEntry simpleType(String name) throws UnsupportedBitcodeException {
+        TypeEntry entry = simpleTypes.get(name);
+        if (entry == null) {
+            entry = switch (name) {
+                case "void" -> intern(TYPE_CODE_VOID, 0, 0);
+                case "half" -> intern(TYPE_CODE_HALF, 0, 0);
+                case "float" -> intern(TYPE_CODE_FLOAT, 0, 0);
+                case "double" -> intern(TYPE_CODE_DOUBLE, 0, 0);
+                case "fp128" -> intern(TYPE_CODE_FP128, 0, 0);
+                case "label" -> intern(TYPE_CODE_LABEL, 0, 0);
+                case "metadata" -> intern(TYPE_CODE_METADATA, 0, 0);
+                case "token" -> intern(TYPE_CODE_TOKEN, 0, 0);
+                default -> {
+                    if (name.length() > 1 && name.charAt(0) == 'i') {
+                        try {
+                            yield intern(TYPE_CODE_INTEGER, Integer.parseInt(name.substring(1)), 0);
+                        } catch (NumberFormatException ignored) {
+                        }
+                    }
+                    throw new UnsupportedBitcodeException("Unsupported type " + name);
+                }
+            };
+            simpleTypes.put(name, entry);
+        }
+        return entry;
+    }
+
+    private TypeEntry intern(int code, long a, long b, TypeEntry... elements) {
+        TypeKey key = new TypeKey(code, a, b, List.of(elements));
+        TypeEntry entry = typeMap.get(key);
+        if (entry == null) {
+            entry = new TypeEntry(code, a, b, elements);
+            entry.id = typeList.size();
+            typeList.add(entry);
+            typeMap.put(key, entry);
+        }
+        return entry;
+    }
+
+    private TypeEntry pointerTo(TypeEntry pointee, int addrSpace) {
+        return intern(TYPE_CODE_POINTER, addrSpace, 0, pointee);
+    }
+
+    private TypeEntry functionType(AbstractFunction fn) throws UnsupportedBitcodeException {
+        List<TypeEntry> params = new ArrayList<>();
+        for (AbstractFunction.ParameterImpl param = fn.lastParam; param != null; param = param.prev) {
+            params.add(0, type(param.type));
+        }
+        params.add(0, type(fn.returnType.type));
+        return intern(TYPE_CODE_FUNCTION, fn.variadic ? 1 : 0, 0, params.toArray(TypeEntry[]::new));
+    }
+
+    private void writeTypes(BitstreamWriter out) {
+        out.enterBlock(TYPE_BLOCK_ID, 4);
+        out.emitRecord(TYPE_CODE_NUMENTRY, record.clear().add(typeList.size()));
+        for (TypeEntry entry : typeList) {
+            record.clear();
+            switch (entry.code) {
+                case TYPE_CODE_INTEGER -> record.add(entry.a);
+                case TYPE_CODE_POINTER -> record.add(entry.elements[0].id).add(entry.a);
+                case TYPE_CODE_ARRAY -> record.add(entry.a).add(entry.elements[0].id);
+                case TYPE_CODE_VECTOR -> {
+                    record.add(entry.a).add(entry.elements[0].id);
+                    if (entry.b != 0) {
+                        record.add(1);
+                    }
+                }
+                case TYPE_CODE_FUNCTION, TYPE_CODE_STRUCT_ANON, TYPE_CODE_STRUCT_NAMED -> {
+                    // vararg flag or packed flag
+                    record.add(entry.a);
+                    for (TypeEntry element : entry.elements) {
+                        record.add(element.id);
+                    }
+                }
+                case TYPE_CODE_OPAQUE -> record.add(0);
+            }
+            if (entry.name != null) {
+                Record name = new Record().addChars(entry.name.getBytes(StandardCharsets.UTF_8));
+                out.emitRecord(TYPE_CODE_STRUCT_NAME, name);
+            }
+            out.emitRecord(entry.code, record);
+        }
+        out.exitBlock();
+    }
+
+    // =================
+    // Values and constants
+    // =================
+
+    /**
+     * Get the absolute value ID of the given value, enumerating it as a constant of the current scope if needed.
+     *
+     * @param value the value
+     * @param type the type of the value at its use site
+     * @return the value ID
+     */
+    private int valueId(AbstractValue value, TypeEntry type) throws UnsupportedBitcodeException {
+        if (value instanceof LocalValueOf local) {
+            return instructionValueId(local.instruction, type);
+        } else if (value instanceof NamedLocalValueOf local) {
+            return instructionValueId(local.instruction, type);
+        } else if (value instanceof AbstractFunction.ParameterImpl.AsValue param) {
+            if (function == null || param.parameter().function != function.def) {
+                throw new UnsupportedBitcodeException("Parameter used outside of its function");
+            }
+            return moduleValueCount + function.paramIndex(param.parameter());
+        } else if (value instanceof GlobalValueOf global) {
+            Integer id = globalIds.get((GlobalImpl) global.instruction);
+            if (id == null) {
+                throw new UnsupportedBitcodeException("Global of another module");
+            }
+            return id.intValue();
+        } else if (value instanceof NamedGlobalValueOf global) {
+            Integer id = namedValueIds.get(global.rawName);
+            if (id == null) {
+                throw new UnsupportedBitcodeException("Undefined global " + global.rawName);
+            }
+            return id.intValue();
+        } else {
+            return constants.constantId(value, type);
+        }
+    }
+
+    private int instructionValueId(AbstractInstruction instruction, TypeEntry type) throws UnsupportedBitcodeException {
+        if (instruction instanceof AssignmentImpl assignment) {
+            // an assignment only names its value
+            return valueId(assignment.rvalue, type);
+        }
+        if (function == null) {
+            throw new UnsupportedBitcodeException("Local value used outside of a function");
+        }
+        if (function.collecting) {
+            return 0;
+        }
+        Integer id = function.instructionIds.get(instruction);
+        if (id == null) {
+            throw new UnsupportedBitcodeException("Value of another function");
+        }
+        return id.intValue();
+    }
+
+    private static long constIndex(AbstractValue value) throws UnsupportedBitcodeException {
+        if (value instanceof IntConstant ic) {
+            return ic.value;
+        } else if (value instanceof LongConstant lc) {
+            return lc.value;
+        } else {
+            throw new UnsupportedBitcodeException("Non-constant aggregate index");
+        }
+    }
+
+    final class ConstantTable {
+        final int base;
+        final List<ConstantEntry> entries = new ArrayList<>();
+        final Map<ConstantKey, Integer> ids = new HashMap<>();
+
+        ConstantTable(int base) {
+            this.base = base;
+        }
+
+        int constantId(AbstractValue value, TypeEntry type) throws UnsupportedBitcodeException {
+            ConstantKey key = new ConstantKey(type, constantKey(value, type));
+            Integer id = ids.get(key);
+            if (id != null) {
+                return id.intValue();
+            }
+            // enumerate the operands first
+            constantRecord(value, type, new Record());
+            int newId = base + entries.size();
+            entries.add(new ConstantEntry(type, value));
+            ids.put(key, Integer.valueOf(newId));
+            return newId;
+        }
+    }
+
+    private static Object constantKey(AbstractValue value, TypeEntry type) {
+        if (value instanceof IntConstant ic) {
+            return Long.valueOf(ic.value);
+        } else if (value instanceof LongConstant lc) {
+            return Long.valueOf(lc.value);
+        } else if (value instanceof FloatConstant fc) {
+            return new FloatBits(Double.doubleToRawLongBits(fc.value));
+        } else if (value instanceof DoubleConstant dc) {
+            return new FloatBits(Double.doubleToRawLongBits(dc.value));
+        } else {
+            // single words compare by name, everything else by identity
+            return value;
+        }
+    }
+
+    /**
+     * Build the record for a constant, and get its code.  Operands which are constants are enumerated.
+     */
+    private int constantRecord(AbstractValue value, TypeEntry type, Record r) throws UnsupportedBitcodeException {
+        if (value instanceof IntConstant ic) {
+            return integerRecord(ic.value, type, r);
+        } else if (value instanceof LongConstant lc) {
+            return integerRecord(lc.value, type, r);
+        } else if (value instanceof FloatConstant fc) {
+            return floatRecord(fc.value, type, r);
+        } else if (value instanceof DoubleConstant dc) {
+            return floatRecord(dc.value, type, r);
+        } else if (value instanceof SingleWord word) {
+            switch (word.toString()) {
+                case "true": return integerRecord(1, type, r);
+                case "false": return integerRecord(0, type, r);
+                case "null":
+                case "zeroinitializer": return CST_CODE_NULL;
+                case "undef": return CST_CODE_UNDEF;
+                default: throw new UnsupportedBitcodeException("Unsupported constant " + word);
+            }
+        } else if (value instanceof ByteArrayImpl bytes) {
+            if (type.code != TYPE_CODE_ARRAY || type.a != bytes.contents.length || type.elements[0] != simpleType("i8")) {
+                throw new UnsupportedBitcodeException("Byte array of wrong type");
+            }
+            if (bytes.contents.length == 0) {
+                return CST_CODE_NULL;
+            }
+            for (byte b : bytes.contents) {
+                r.add(b & 0xff);
+            }
+            return CST_CODE_STRING;
+        } else if (value instanceof ArrayImpl array) {
+            if (type.code != TYPE_CODE_ARRAY && type.code != TYPE_CODE_VECTOR || type.a != array.values.size()) {
+                throw new UnsupportedBitcodeException("Array of wrong type");
+            }
+            if (array.values.isEmpty()) {
+                return CST_CODE_NULL;
+            }
+            TypeEntry elementType = type(array.elementType);
+            for (AbstractValue item : array.values) {
+                r.add(valueId(item, elementType));
+            }
+            return CST_CODE_AGGREGATE;
+        } else if (value instanceof StructImpl struct) {
+            int count = struct.pairs.size() / 2;
+            if (type.code != TYPE_CODE_STRUCT_ANON && type.code != TYPE_CODE_STRUCT_NAMED || type.elements.length != count) {
+                throw new UnsupportedBitcodeException("Structure of wrong type");
+            }
+            if (count == 0) {
+                return CST_CODE_NULL;
+            }
+            for (int i = 0; i < count; i ++) {
+                r.add(valueId(struct.pairs.get(i * 2 + 1), type(struct.pairs.get(i * 2))));
+            }
+            return CST_CODE_AGGREGATE;
+        } else if (value instanceof BitcastConstant cast) {
+            return castConstantRecord(11, cast.value, cast.fromType, r);
+        } else if (value instanceof AddrspacecastConstant cast) {
+            return castConstantRecord(12, cast.value, cast.fromType, r);
+        } else if (value instanceof IntToPtrConstant cast) {
+            return castConstantRecord(10, cast.value, cast.fromType, r);
+        } else if (value instanceof PtrToIntConstant cast) {
+            return castConstantRecord(9, cast.value, cast.fromType, r);
+        } else if (value instanceof GetElementPtrConstant gep) {
+            TypeEntry ptrType = type(gep.ptrType);
+            r.add(type(gep.type).id);
+            r.add(ptrType.id).add(valueId((AbstractValue) gep.pointer, ptrType));
+            List<GetElementPtrConstant.ArgImpl> args = new ArrayList<>();
+            for (GetElementPtrConstant.ArgImpl arg = gep.lastArg; arg != null; arg = arg.prev) {
+                args.add(0, arg);
+            }
+            for (GetElementPtrConstant.ArgImpl arg : args) {
+                TypeEntry indexType = type(arg.type);
+                r.add(indexType.id).add(valueId(arg.index, indexType));
+            }
+            return CST_CODE_CE_GEP;
+        } else if (value instanceof AsmExpression asm) {
+            Set<AsmFlag> flags = asm.flags;
+            boolean unwind = flags.contains(AsmFlag.UNWIND);
+            r.add((flags.contains(AsmFlag.SIDE_EFFECT) ? 1 : 0)
+                | (flags.contains(AsmFlag.ALIGN_STACK) ? 2 : 0)
+                | (flags.contains(AsmFlag.INTEL_DIALECT) ? 4 : 0)
+                | (unwind ? 8 : 0));
+            byte[] instruction = asm.instruction.getBytes(StandardCharsets.UTF_8);
+            r.add(instruction.length).addChars(instruction);
+            byte[] constraints = asm.constraints.getBytes(StandardCharsets.UTF_8);
+            r.add(constraints.length).addChars(constraints);
+            return unwind ? CST_CODE_INLINEASM : CST_CODE_INLINEASM_NO_UNWIND;
+        } else {
+            throw new UnsupportedBitcodeException("Unsupported constant " + value);
+        }
+    }
+
+    private int castConstantRecord(int opcode, LLValue value, LLValue fromType, Record r) throws UnsupportedBitcodeException {
+        TypeEntry type = type(fromType);
+        r.add(opcode).add(type.id).add(valueId((AbstractValue) value, type));
+        return CST_CODE_CE_CAST;
+    }
+
+    private static int integerRecord(long value, TypeEntry type, Record r) throws UnsupportedBitcodeException {
+        if (type.code != TYPE_CODE_INTEGER) {
+            throw new UnsupportedBitcodeException("Integer constant of non-integer type");
+        }
+        int width = (int) type.a;
+        if (width <= 64) {
+            r.addSigned(value << (64 - width) >> (64 - width));
+            return CST_CODE_INTEGER;
+        }
+        // little-endian words, sign-extended
+        for (int i = 0; i < (width + 63) >> 6; i ++) {
+            r.addSigned(i == 0 ? value : value >> 63);
+        }
+        return CST_CODE_WIDE_INTEGER;
+    }
+
+    private int floatRecord(double value, TypeEntry type, Record r) throws UnsupportedBitcodeException {
+        if (type.code == TYPE_CODE_DOUBLE) {
+            r.add(Double.doubleToRawLongBits(value));
+        } else if (type.code == TYPE_CODE_FLOAT) {
+            r.add(Float.floatToRawIntBits((float) value) & 0xFFFF_FFFFL);
+        } else if ((type.code == TYPE_CODE_HALF || type.code == TYPE_CODE_FP128) && Double.doubleToRawLongBits(value) == 0) {
+            return CST_CODE_NULL;
+        } else {
+            throw new UnsupportedBitcodeException("Unsupported floating point constant type");
+        }
+        return CST_CODE_FLOAT;
+    }
+
+    private void writeConstants(BitstreamWriter out, ConstantTable table) throws UnsupportedBitcodeException {
+        if (table.entries.isEmpty()) {
+            return;
+        }
+        ConstantTable saved = constants;
+        constants = table;
+        out.enterBlock(CONSTANTS_BLOCK_ID, 4);
+        TypeEntry lastType = null;
+        Record r = new Record();
+        for (ConstantEntry entry : table.entries) {
+            if (entry.type != lastType) {
+                out.emitRecord(setTypeAbbrev, CST_CODE_SETTYPE, record.clear().add(entry.type.id), null);
+                lastType = entry.type;
+            }
+            int code = constantRecord(entry.value, entry.type, r.clear());
+            if (code == CST_CODE_NULL) {
+                out.emitRecord(nullAbbrev, code, r, null);
+            } else if (code == CST_CODE_INTEGER) {
+                out.emitRecord(integerAbbrev, code, r, null);
+            } else if (code == CST_CODE_CE_CAST) {
+                out.emitRecord(ceCastAbbrev, code, r, null);
+            } else {
+                out.emitRecord(code, r);
+            }
+        }
+        out.exitBlock();
+        constants = saved;
+    }
+
+    // =================
+    // Attributes
+    // =================
+
+    private int attributeListId(List<AbstractValue> fnAttributes, List<AbstractValue> retAttributes, List<List<AbstractValue>> paramAttributes) throws UnsupportedBitcodeException {
+        List<Integer> groups = new ArrayList<>();
+        if (! fnAttributes.isEmpty()) {
+            groups.add(attributeGroupId(FUNCTION_ATTRIBUTE_INDEX, fnAttributes));
+        }
+        if (! retAttributes.isEmpty()) {
+            groups.add(attributeGroupId(0, retAttributes));
+        }
+        for (int i = 0; i < paramAttributes.size(); i ++) {
+            if (! paramAttributes.get(i).isEmpty()) {
+                groups.add(attributeGroupId(i + 1, paramAttributes.get(i)));
+            }
+        }
+        if (groups.isEmpty()) {
+            return 0;
+        }
+        Integer id = attributeListIds.get(groups);
+        if (id == null) {
+            attributeLists.add(groups);
+            id = Integer.valueOf(attributeLists.size());
+            attributeListIds.put(groups, id);
+        }
+        return id.intValue();
+    }
+
+    private Integer attributeGroupId(long index, List<AbstractValue> attributes) throws UnsupportedBitcodeException {
+        StringBuilder b = new StringBuilder().append(index);
+        for (AbstractValue attribute : attributes) {
+            b.append(' ').append(attribute);
+        }
+        String key = b.toString();
+        Integer id = attributeGroupIds.get(key);
+        if (id == null) {
+            id = Integer.valueOf(attributeGroups.size() + 1);
+            Record r = new Record().add(id.intValue()).add(index);
+            for (AbstractValue attribute : attributes) {
+                encodeAttribute(attribute, r);
+            }
+            attributeGroups.add(r);
+            attributeGroupIds.put(key, id);
+        }
+        return id;
+    }
+
+    private static void encodeAttribute(AbstractValue attribute, Record r) throws UnsupportedBitcodeException {
+        if (! (attribute instanceof SingleWord)) {
+            throw new UnsupportedBitcodeException("Unsupported attribute " + attribute);
+        }
+        String text = attribute.toString();
+        if (text.startsWith("\"")) {
+            int end = text.indexOf('"', 1);
+            byte[] key = unquoteBytes(text.substring(0, end + 1));
+            if (end + 1 == text.length()) {
+                r.add(3).addChars(key).add(0);
+            } else if (text.startsWith("=\"", end + 1) && text.endsWith("\"")) {
+                r.add(4).addChars(key).add(0).addChars(unquoteBytes(text.substring(end + 2))).add(0);
+            } else {
+                throw new UnsupportedBitcodeException("Unsupported attribute " + text);
+            }
+        } else {
+            int kind = switch (text) {
+                case "alwaysinline" -> 2;
+                case "inlinehint" -> 4;
+                case "inreg" -> 5;
+                case "naked" -> 7;
+                case "noalias" -> 9;
+                case "nocapture" -> 11;
+                case "noinline" -> 14;
+                case "noreturn" -> 17;
+                case "nounwind" -> 18;
+                case "readnone" -> 20;
+                case "readonly" -> 21;
+                case "returns_twice" -> 23;
+                case "signext" -> 24;
+                case "uwtable" -> 33;
+                case "zeroext" -> 34;
+                case "cold" -> 36;
+                case "optnone" -> 37;
+                case "nonnull" -> 39;
+                case "argmemonly" -> 45;
+                case "norecurse" -> 48;
+                case "writeonly" -> 52;
+                case "speculatable" -> 53;
+                case "willreturn" -> 61;
+                case "nofree" -> 62;
+                case "nosync" -> 63;
+                default -> throw new UnsupportedBitcodeException("Unsupported attribute " + text);
+            };
+            r.add(0).add(kind);
+        }
+    }
+
+    private void writeAttributes(BitstreamWriter out) {
+        if (attributeGroups.isEmpty()) {
+            return;
+        }
+        out.enterBlock(PARAMATTR_GROUP_BLOCK_ID, 3);
+        for (Record group : attributeGroups) {
+            out.emitRecord(3, group);
+        }
+        out.exitBlock();
+        out.enterBlock(PARAMATTR_BLOCK_ID, 3);
+        for (List<Integer> list : attributeLists) {
+            record.clear();
+            for (Integer group : list) {
+                record.add(group.intValue());
+            }
+            out.emitRecord(2, record);
+        }
+        out.exitBlock();
+    }
+
+    // =================
+    // Module records
+    // =================
+
+    private void writeIdentification(BitstreamWriter out) {
+        out.enterBlock(IDENTIFICATION_BLOCK_ID, 5);
+        out.emitRecord(1, record.clear().addChars("qbicc".getBytes(StandardCharsets.UTF_8)));
+        // epoch
+        out.emitRecord(2, record.clear().add(0));
+        out.exitBlock();
+    }
+
+    private void writeModuleInfo(BitstreamWriter out, ByteArrayOutputStream strtab) throws UnsupportedBitcodeException {
+        for (Emittable item : module.header) {
+            if (item instanceof DataLayoutImpl dataLayout) {
+                out.emitRecord(MODULE_CODE_DATALAYOUT, record.clear().addChars(dataLayout.layoutString().getBytes(StandardCharsets.UTF_8)));
+            } else {
+                throw new UnsupportedBitcodeException("Unsupported module header item");
+            }
+        }
+        for (String section : sections.keySet()) {
+            out.emitRecord(MODULE_CODE_SECTIONNAME, record.clear().addChars(section.getBytes(StandardCharsets.UTF_8)));
+        }
+        for (String gc : gcNames.keySet()) {
+            out.emitRecord(MODULE_CODE_GCNAME, record.clear().addChars(gc.getBytes(StandardCharsets.UTF_8)));
+        }
+        constants = moduleConstants;
+        for (GlobalImpl global : globals) {
+            byte[] name = globalName(global).getBytes(StandardCharsets.UTF_8);
+            TypeEntry type = type(global.type);
+            record.clear();
+            record.add(strtab.size()).add(name.length);
+            strtab.writeBytes(name);
+            record.add(type.id);
+            record.add((long) global.addressSpace << 2 | 2 | (global.constant ? 1 : 0));
+            record.add(global.value == null ? 0 : valueId(global.value, type) + 1);
+            record.add(global.appending ? 2 : linkage(global.linkage));
+            record.add(log2Align(global.alignment));
+            record.add(global.section == null ? 0 : sections.get(global.section).intValue());
+            record.add(visibility(global.visibility));
+            record.add(threadLocal(global.threadLocalStorageModel));
+            record.add(global.addressNaming.ordinal());
+            // externally initialized
+            record.add(0);
+            record.add(dllStorageClass(global.dllStorageClass));
+            // comdat, attributes
+            record.add(0).add(0);
+            record.add(global.preemption == RuntimePreemption.LOCAL ? 1 : 0);
+            out.emitRecord(MODULE_CODE_GLOBALVAR, record);
+        }
+        for (AbstractFunction fn : functions) {
+            byte[] name = fn.name.getBytes(StandardCharsets.UTF_8);
+            FunctionDefinitionImpl def = fn instanceof FunctionDefinitionImpl d ? d : null;
+            int attributes = functionAttributeListId(fn);
+            record.clear();
+            record.add(strtab.size()).add(name.length);
+            strtab.writeBytes(name);
+            record.add(functionType(fn).id);
+            record.add(callingConvention(fn.callingConvention));
+            record.add(def == null ? 1 : 0);
+            record.add(linkage(fn.linkage));
+            record.add(attributes);
+            record.add(log2Align(fn.alignment));
+            record.add(def == null || def.section == null ? 0 : sections.get(def.section).intValue());
+            record.add(visibility(fn.visibility));
+            record.add(def == null || def.gc == null ? 0 : gcNames.get(def.gc).intValue());
+            record.add(fn.addressNaming.ordinal());
+            // prologue data
+            record.add(0);
+            record.add(dllStorageClass(fn.dllStorageClass));
+            // comdat, prefix data
+            record.add(0).add(0);
+            record.add(def == null || def.personalityValue == null ? 0 : valueId(def.personalityValue, type(def.personalityType)) + 1);
+            record.add(def != null && def.preemption == RuntimePreemption.LOCAL ? 1 : 0);
+            record.add(fn.addressSpace);
+            out.emitRecord(MODULE_CODE_FUNCTION, record);
+        }
+    }
+
+    private int functionAttributeListId(AbstractFunction fn) throws UnsupportedBitcodeException {
+        List<List<AbstractValue>> params = new ArrayList<>();
+        for (AbstractFunction.ParameterImpl param = fn.lastParam; param != null; param = param.prev) {
+            params.add(0, param.attributes);
+        }
+        return attributeListId(fn.attributes, fn.returnType.attributes, params);
+    }
+
+    private void writeSyncScopeNames(BitstreamWriter out) {
+        out.enterBlock(SYNC_SCOPE_NAMES_BLOCK_ID, 2);
+        out.emitRecord(1, record.clear().addChars("singlethread".getBytes(StandardCharsets.UTF_8)));
+        out.emitRecord(1, record.clear());
+        out.exitBlock();
+    }
+
+    private static int linkage(Linkage linkage) {
+        return switch (linkage) {
+            case EXTERNAL -> 0;
+            case APPENDING -> 2;
+            case INTERNAL -> 3;
+            case EXTERN_WEAK -> 7;
+            case COMMON -> 8;
+            case PRIVATE -> 9;
+            case AVAILABLE_EXTERNALLY -> 12;
+            case WEAK -> 16;
+            case WEAK_ODR -> 17;
+            case LINK_ONCE -> 18;
+            case LINK_ONCE_ODR -> 19;
+        };
+    }
+
+    private static int visibility(Visibility visibility) {
+        return switch (visibility) {
+            case DEFAULT -> 0;
+            case HIDDEN -> 1;
+            case PROTECTED -> 2;
+        };
+    }
+
+    private static int dllStorageClass(DllStorageClass dllStorageClass) {
+        return switch (dllStorageClass) {
+            case NONE -> 0;
+            case IMPORT -> 1;
+            case EXPORT -> 2;
+        };
+    }
+
+    private static int threadLocal(ThreadLocalStorageModel model) {
+        return model == null ? 0 : switch (model) {
+            case GENERAL_DYNAMIC -> 1;
+            case LOCAL_DYNAMIC -> 2;
+            case INITIAL_EXEC -> 3;
+            case LOCAL_EXEC -> 4;
+        };
+    }
+
+    private static int callingConvention(CallingConvention cc) {
+        return switch (cc) {
+            case C -> 0;
+            case FAST -> 8;
+            case COLD -> 9;
+            case CC_10 -> 10;
+            case CC_11 -> 11;
+            case WEBKIT_JS -> 12;
+            case ANYREG -> 13;
+            case PRESERVE_MOST -> 14;
+            case PRESERVE_ALL -> 15;
+            case SWIFT -> 16;
+            case CXX_FAST_TLS -> 17;
+            case TAIL -> 18;
+            case CFGUARD_CHECK -> 19;
+        };
+    }
+
+    private static int log2Align(int alignment) {
+        return alignment <= 0 ? 0 : Integer.numberOfTrailingZeros(alignment) + 1;
+    }
+
+    // =================
+    // Block information
+    // =================
+
+    private void defineBlockInfo(BitstreamWriter out, boolean write) {
+        loadAbbrev = blockInfoAbbrev(out, write, FUNCTION_BLOCK_ID, new Abbrev(Op.literal(FUNC_CODE_INST_LOAD), Op.vbr(6), Op.vbr(6), Op.vbr(4), Op.fixed(1)));
+        binopAbbrev = blockInfoAbbrev(out, write, FUNCTION_BLOCK_ID, new Abbrev(Op.literal(FUNC_CODE_INST_BINOP), Op.vbr(6), Op.vbr(6), Op.fixed(4)));
+        binopFlagsAbbrev = blockInfoAbbrev(out, write, FUNCTION_BLOCK_ID, new Abbrev(Op.literal(FUNC_CODE_INST_BINOP), Op.vbr(6), Op.vbr(6), Op.fixed(4), Op.fixed(8)));
+        castAbbrev = blockInfoAbbrev(out, write, FUNCTION_BLOCK_ID, new Abbrev(Op.literal(FUNC_CODE_INST_CAST), Op.vbr(6), Op.vbr(6), Op.fixed(4)));
+        retVoidAbbrev = blockInfoAbbrev(out, write, FUNCTION_BLOCK_ID, new Abbrev(Op.literal(FUNC_CODE_INST_RET)));
+        retValAbbrev = blockInfoAbbrev(out, write, FUNCTION_BLOCK_ID, new Abbrev(Op.literal(FUNC_CODE_INST_RET), Op.vbr(6)));
+        unreachableAbbrev = blockInfoAbbrev(out, write, FUNCTION_BLOCK_ID, new Abbrev(Op.literal(FUNC_CODE_INST_UNREACHABLE)));
+        gepAbbrev = blockInfoAbbrev(out, write, FUNCTION_BLOCK_ID, new Abbrev(Op.literal(FUNC_CODE_INST_GEP), Op.fixed(1), Op.vbr(6), Op.array(), Op.vbr(6)));
+        storeAbbrev = blockInfoAbbrev(out, write, FUNCTION_BLOCK_ID, new Abbrev(Op.literal(FUNC_CODE_INST_STORE), Op.vbr(6), Op.vbr(6), Op.vbr(4), Op.fixed(1)));
+        brAbbrev = blockInfoAbbrev(out, write, FUNCTION_BLOCK_ID, new Abbrev(Op.literal(FUNC_CODE_INST_BR), Op.array(), Op.vbr(6)));
+        debugLocAbbrev = blockInfoAbbrev(out, write, FUNCTION_BLOCK_ID, new Abbrev(Op.literal(FUNC_CODE_DEBUG_LOC), Op.vbr(6), Op.vbr(6), Op.vbr(6), Op.vbr(6), Op.fixed(1)));
+        setTypeAbbrev = blockInfoAbbrev(out, write, CONSTANTS_BLOCK_ID, new Abbrev(Op.literal(CST_CODE_SETTYPE), Op.vbr(6)));
+        integerAbbrev = blockInfoAbbrev(out, write, CONSTANTS_BLOCK_ID, new Abbrev(Op.literal(CST_CODE_INTEGER), Op.vbr(8)));
+        ceCastAbbrev = blockInfoAbbrev(out, write, CONSTANTS_BLOCK_ID, new Abbrev(Op.literal(CST_CODE_CE_CAST), Op.fixed(4), Op.vbr(6), Op.vbr(8)));
+        nullAbbrev = blockInfoAbbrev(out, write, CONSTANTS_BLOCK_ID, new Abbrev(Op.literal(CST_CODE_NULL)));
+    }
+
+    private static int blockInfoAbbrev(BitstreamWriter out, boolean write, int blockId, Abbrev abbrev) {
+        return write ? out.defineBlockInfoAbbrev(blockId, abbrev) : out.registerBlockInfoAbbrev(blockId, abbrev);
+    }
+
+    // =================
+    // Metadata
+    // =================
+
+    /**
+     * The metadata of a scope which is numbered as it is found: the values, and the nodes which are written inline.
+     */
+    static final class MetadataTable {
+        final List<Object> entries = new ArrayList<>();
+        final Map<Object, Integer> indexes = new HashMap<>();
+
+        int index(Object key, Object entry) {
+            Integer index = indexes.get(key);
+            if (index == null) {
+                index = Integer.valueOf(entries.size());
+                entries.add(entry);
+                indexes.put(key, index);
+            }
+            return index.intValue();
+        }
+    }
+
+    private int mdKind(String name) {
+        return mdKinds.computeIfAbsent(name, k -> Integer.valueOf(mdKinds.size())).intValue();
+    }
+
+    private int mdString(String string) throws UnsupportedBitcodeException {
+        Integer id = mdStrings.get(string);
+        if (id == null) {
+            if (metadata != moduleMetadata || moduleMdCount != 0) {
+                throw new UnsupportedBitcodeException("Metadata string in function");
+            }
+            id = Integer.valueOf(mdStrings.size());
+            mdStrings.put(string, id);
+        }
+        return id.intValue();
+    }
+
+    private int mdStringOrNull(String string) throws UnsupportedBitcodeException {
+        return string == null ? 0 : mdString(string) + 1;
+    }
+
+    private int mdNodeId(int index) throws UnsupportedBitcodeException {
+        Integer position = mdNodePositions.get(Integer.valueOf(index));
+        if (position == null) {
+            throw new UnsupportedBitcodeException("Reference to unknown metadata node");
+        }
+        return mdStrings.size() + position.intValue();
+    }
+
+    private int mdTableId(Object key, Object entry) {
+        if (metadata == moduleMetadata) {
+            return mdStrings.size() + metaNodes.size() + moduleMetadata.index(key, entry);
+        }
+        if (entry instanceof long[]) {
+            // an inline node which may be shared with the module
+            Integer index = moduleMetadata.indexes.get(key);
+            if (index != null) {
+                return mdStrings.size() + metaNodes.size() + index.intValue();
+            }
+        }
+        return moduleMdCount + metadata.index(key, entry);
+    }
+
+    /**
+     * Get the metadata ID of an operand, plus one, or zero for a {@code null} operand.
+     */
+    private int mdOrNull(AbstractValue value) throws UnsupportedBitcodeException {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof MetadataNodeRef ref) {
+            return mdNodeId(ref.index) + 1;
+        } else if (value instanceof MetadataString string) {
+            return mdString(string.value) + 1;
+        } else if (value instanceof DIExpressionImpl.AsValue expr) {
+            DIExpressionImpl node = expr.node();
+            if (node.index >= 0) {
+                return mdNodeId(node.index) + 1;
+            }
+            long[] ops = expressionOps(node);
+            return mdTableId(List.of(Arrays.stream(ops).boxed().toArray()), ops) + 1;
+        } else if (value instanceof DIGlobalVariableExpressionImpl.AsValue expr) {
+            DIGlobalVariableExpressionImpl node = expr.node();
+            if (node.index >= 0) {
+                return mdNodeId(node.index) + 1;
+            }
+            return mdTableId(node, node) + 1;
+        } else if (value instanceof SingleWord word && word.toString().equals("null")) {
+            return 0;
+        } else {
+            throw new UnsupportedBitcodeException("Unsupported metadata operand " + value);
+        }
+    }
+
+    /**
+     * Get the metadata ID of a typed metadata operand, plus one.
+     */
+    private int mdTyped(AbstractValue type, AbstractValue value) throws UnsupportedBitcodeException {
+        if (type == null || type instanceof MetadataType mt && mt.type == null) {
+            return mdOrNull(value);
+        }
+        TypeEntry entry = type(type instanceof MetadataType mt ? mt.type : type);
+        if (value instanceof LocalValueOf || value instanceof NamedLocalValueOf || value instanceof AbstractFunction.ParameterImpl.AsValue) {
+            // resolved when the function metadata is written
+            return mdTableId(new LocalValueKey(entry, localTarget(value)), new MetadataValue(entry, value)) + 1;
+        }
+        int valueId = valueId(value, entry);
+        return mdTableId(new ValueKey(entry, valueId), new MetadataValue(entry, value)) + 1;
+    }
+
+    private static Object localTarget(AbstractValue value) {
+        if (value instanceof LocalValueOf local) {
+            return local.instruction;
+        } else if (value instanceof NamedLocalValueOf local) {
+            return local.instruction;
+        } else {
+            return ((AbstractFunction.ParameterImpl.AsValue) value).parameter();
+        }
+    }
+
+    private static long[] expressionOps(DIExpressionImpl expr) {
+        List<DIExpressionImpl.Arg> args = new ArrayList<>();
+        for (DIExpressionImpl.Arg arg = expr.lastArg; arg != null; arg = arg.prev) {
+            args.add(0, arg);
+        }
+        long[] ops = new long[args.size()];
+        for (int i = 0; i < ops.length; i ++) {
+            DIExpressionImpl.Arg arg = args.get(i);
+            if (arg instanceof DIExpressionImpl.IntArg intArg) {
+                ops[i] = intArg.val;
+            } else if (((DIExpressionImpl.EnumArg) arg).val instanceof DIOpcode op) {
+                ops[i] = switch (op) {
+                    case Deref -> 0x06;
+                    case Plus -> 0x22;
+                    case Minus -> 0x1c;
+                    case PlusUConst -> 0x23;
+                    case Fragment -> 0x1000;
+                    case Convert -> 0x1001;
+                    case TagOffset -> 0x1002;
+                    case EntryValue -> 0x1003;
+                    case ImplicitPointer -> 0x1004;
+                    case Arg -> 0x1005;
+                    case Swap -> 0x16;
+                    case XDeref -> 0x18;
+                    case StackValue -> 0x9f;
+                    case PushObjectAddress -> 0x97;
+                    case Over -> 0x14;
+                };
+            } else {
+                ops[i] = encoding((DIEncoding) ((DIExpressionImpl.EnumArg) arg).val);
+            }
+        }
+        return ops;
+    }
+
+    private void writeMetadataKinds(BitstreamWriter out) {
+        out.enterBlock(METADATA_KIND_BLOCK_ID, 3);
+        for (Map.Entry<String, Integer> entry : mdKinds.entrySet()) {
+            record.clear().add(entry.getValue().intValue()).addChars(entry.getKey().getBytes(StandardCharsets.UTF_8));
+            out.emitRecord(METADATA_KIND, record);
+        }
+        out.exitBlock();
+    }
+
+    private void writeModuleMetadata(BitstreamWriter out) throws UnsupportedBitcodeException {
+        metadata = moduleMetadata;
+        constants = moduleConstants;
+        out.enterBlock(METADATA_BLOCK_ID, 3);
+        if (! mdStrings.isEmpty()) {
+            int stringsAbbrev = out.defineAbbrev(new Abbrev(Op.literal(METADATA_STRINGS), Op.vbr(6), Op.vbr(6), Op.blob()));
+            BitstreamWriter lengths = new BitstreamWriter();
+            ByteArrayOutputStream chars = new ByteArrayOutputStream();
+            for (String string : mdStrings.keySet()) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                lengths.emitVBR(bytes.length, 6);
+                chars.writeBytes(bytes);
+            }
+            byte[] lengthBytes = lengths.toByteArray();
+            ByteArrayOutputStream blob = new ByteArrayOutputStream();
+            blob.writeBytes(lengthBytes);
+            blob.writeBytes(chars.toByteArray());
+            out.emitRecord(stringsAbbrev, METADATA_STRINGS, record.clear().add(mdStrings.size()).add(lengthBytes.length), blob.toByteArray());
+        }
+        int locationAbbrev = out.defineAbbrev(new Abbrev(Op.literal(METADATA_LOCATION), Op.fixed(1), Op.vbr(6), Op.vbr(8), Op.vbr(6), Op.vbr(6), Op.fixed(1)));
+        for (Emittable item : metaNodes) {
+            writeMetadataNode(out, (AbstractMetadataNode) item, locationAbbrev);
+        }
+        writeMetadataTable(out, moduleMetadata);
+        int nameAbbrev = out.defineAbbrev(new Abbrev(Op.literal(METADATA_NAME), Op.array(), Op.fixed(8)));
+        for (Emittable item : module.namedMeta) {
+            MetadataTupleImpl tuple = (MetadataTupleImpl) item;
+            out.emitRecord(nameAbbrev, METADATA_NAME, record.clear().addChars(tuple.name.getBytes(StandardCharsets.UTF_8)), null);
+            out.emitRecord(METADATA_NAMED_NODE, namedNodeRecord(tuple));
+        }
+        for (GlobalImpl global : globals) {
+            if (global.lastMetaItem != null) {
+                Record r = attachmentRecord(global.lastMetaItem, false);
+                out.emitRecord(METADATA_GLOBAL_DECL_ATTACHMENT, new Record().add(globalIds.get(global).intValue()).addAll(r));
+            }
+        }
+        for (AbstractFunction fn : functions) {
+            if (fn instanceof FunctionDeclarationImpl && fn.lastMetaItem != null) {
+                Record r = attachmentRecord(fn.lastMetaItem, false);
+                out.emitRecord(METADATA_GLOBAL_DECL_ATTACHMENT, new Record().add(namedValueIds.get(fn.name).intValue()).addAll(r));
+            }
+        }
+        out.exitBlock();
+    }
+
+    private Record namedNodeRecord(MetadataTupleImpl tuple) throws UnsupportedBitcodeException {
+        Record r = new Record();
+        for (MetadataTupleImpl.Element element : tupleElements(tuple)) {
+            if (element.type != null || ! (element.value instanceof MetadataNodeRef ref)) {
+                throw new UnsupportedBitcodeException("Named metadata operand which is not a node");
+            }
+            r.add(mdNodeId(ref.index));
+        }
+        return r;
+    }
+
+    private static List<MetadataTupleImpl.Element> tupleElements(MetadataTupleImpl tuple) {
+        List<MetadataTupleImpl.Element> elements = new ArrayList<>();
+        for (MetadataTupleImpl.Element element = tuple.lastElement; element != null; element = element.prev) {
+            elements.add(0, element);
+        }
+        return elements;
+    }
+
+    /**
+     * Build the attachment operands of a metadata item list: {@code [kind, node]*}, leaving out the debug location
+     * of instructions, which is written separately.
+     */
+    private Record attachmentRecord(AbstractMetable.MetaItem lastItem, boolean instruction) throws UnsupportedBitcodeException {
+        Record r = new Record();
+        List<AbstractMetable.MetaItem> items = new ArrayList<>();
+        for (AbstractMetable.MetaItem item = lastItem; item != null; item = item.prev) {
+            items.add(0, item);
+        }
+        for (AbstractMetable.MetaItem item : items) {
+            if (instruction && item.name.equals("dbg")) {
+                continue;
+            }
+            int id = mdOrNull(item.metaValue);
+            if (id == 0) {
+                throw new UnsupportedBitcodeException("Null metadata attachment");
+            }
+            r.add(mdKind(item.name)).add(id - 1);
+        }
+        return r;
+    }
+
+    private void writeMetadataTable(BitstreamWriter out, MetadataTable table) throws UnsupportedBitcodeException {
+        for (Object entry : table.entries) {
+            if (entry instanceof MetadataValue value) {
+                out.emitRecord(METADATA_VALUE, record.clear().add(value.type.id).add(valueId(value.value, value.type)));
+            } else if (entry instanceof long[] ops) {
+                record.clear().add(6);
+                for (long op : ops) {
+                    record.add(op);
+                }
+                out.emitRecord(METADATA_EXPRESSION, record);
+            } else {
+                DIGlobalVariableExpressionImpl expr = (DIGlobalVariableExpressionImpl) entry;
+                out.emitRecord(METADATA_GLOBAL_VAR_EXPR, record.clear().add(0).add(mdOrNull(expr.var_)).add(mdOrNull(expr.expr)));
+            }
+        }
+    }
+
+    private void writeMetadataNode(BitstreamWriter out, AbstractMetadataNode node) throws UnsupportedBitcodeException {
+        writeMetadataNode(out, node, 0);
+    }
+
+    /**
+     * Write the record of a metadata node.  If {@code out} is {@code null}, the operands are only enumerated.
+     */
+    private void writeMetadataNode(BitstreamWriter out, AbstractMetadataNode node, int locationAbbrev) throws UnsupportedBitcodeException {
+        Record r = new Record();
+        int code;
+        if (node instanceof MetadataTupleImpl tuple) {
+            for (MetadataTupleImpl.Element element : tupleElements(tuple)) {
+                r.add(mdTyped(element.type, element.value));
+            }
+            code = METADATA_NODE;
+        } else if (node instanceof DILocationImpl loc) {
+            r.add(loc.distinct ? 1 : 0).add(loc.line).add(loc.column).add(mdOrNull(loc.scope) - 1L).add(mdOrNull(loc.inlinedAt)).add(0);
+            if (out != null) {
+                out.emitRecord(locationAbbrev, METADATA_LOCATION, r, null);
+            }
+            return;
+        } else if (node instanceof DIFileImpl file) {
+            r.add(0).add(mdStringOrNull(file.filename)).add(mdStringOrNull(file.directory));
+            code = METADATA_FILE;
+        } else if (node instanceof DIBasicTypeImpl basic) {
+            r.add(0).add(0x24).add(mdStringOrNull(basic.name)).add(basic.size).add(basic.align).add(encoding(basic.encoding)).add(0);
+            code = METADATA_BASIC_TYPE;
+        } else if (node instanceof DIDerivedTypeImpl derived) {
+            r.add(0).add(tag(derived.tag)).add(mdStringOrNull(derived.name)).add(mdOrNull(derived.file)).add(derived.line);
+            // scope
+            r.add(0);
+            r.add(mdOrNull(derived.baseType)).add(derived.size).add(derived.align).add(derived.offset).add(flags(derived.flags));
+            // extra data
+            r.add(0);
+            code = METADATA_DERIVED_TYPE;
+        } else if (node instanceof DICompositeTypeImpl composite) {
+            r.add(2).add(tag(composite.tag)).add(mdStringOrNull(composite.name)).add(mdOrNull(composite.file)).add(composite.line);
+            // scope
+            r.add(0);
+            r.add(mdOrNull(composite.baseType)).add(composite.size).add(composite.align);
+            // offset
+            r.add(0);
+            r.add(flags(composite.flags)).add(mdOrNull(composite.elements));
+            // runtime language, vtable holder, template parameters, identifier
+            r.add(0).add(0).add(0).add(0);
+            code = METADATA_COMPOSITE_TYPE;
+        } else if (node instanceof DISubroutineTypeImpl subroutine) {
+            r.add(2).add(0).add(mdOrNull(subroutine.types)).add(0);
+            code = METADATA_SUBROUTINE_TYPE;
+        } else if (node instanceof DICompileUnitImpl cu) {
+            r.add(1).add(language(cu.language)).add(mdOrNull(cu.file)).add(mdStringOrNull(cu.producer)).add(cu.isOptimized ? 1 : 0);
+            r.add(mdStringOrNull(cu.flags)).add(cu.runtimeVersion).add(mdStringOrNull(cu.splitDebugFilename)).add(cu.emissionKind.ordinal());
+            r.add(mdOrNull(cu.enums)).add(mdOrNull(cu.retainedTypes));
+            // subprograms
+            r.add(0);
+            r.add(mdOrNull(cu.globals)).add(mdOrNull(cu.imports));
+            // DWO ID
+            r.add(0);
+            r.add(mdOrNull(cu.macros));
+            // split debug inlining
+            r.add(1);
+            code = METADATA_COMPILE_UNIT;
+        } else if (node instanceof DISubprogramImpl sp) {
+            long spFlags = sp.virtuality.ordinal() | (sp.isLocal ? 4 : 0) | (sp.isDefinition ? 8 : 0) | (sp.isOptimized ? 16 : 0);
+            for (DISPFlags flag : sp.spFlags) {
+                spFlags |= switch (flag) {
+                    case LocalToUnit -> 4;
+                    case Definition -> 8;
+                    case Optimized -> 16;
+                    case Pure -> 32;
+                    case Elemental -> 64;
+                    case Recursive -> 128;
+                    case MainSubprogram -> 256;
+                    case Deleted -> 512;
+                    case ObjCDirect -> 2048;
+                };
+            }
+            // distinct, has unit, has SP flags
+            r.add(1 | 2 | 4).add(mdOrNull(sp.scope)).add(mdStringOrNull(sp.name)).add(mdStringOrNull(sp.linkageName)).add(mdOrNull(sp.file));
+            r.add(sp.line).add(mdOrNull(sp.type)).add(sp.scopeLine).add(mdOrNull(sp.containingType)).add(spFlags).add(sp.virtualIndex);
+            r.add(flags(sp.flags)).add(mdOrNull(sp.unit)).add(mdOrNull(sp.templateParams)).add(mdOrNull(sp.declaration)).add(mdOrNull(sp.retainedNodes));
+            // this adjustment
+            r.add(0);
+            r.add(mdOrNull(sp.thrownTypes));
+            code = METADATA_SUBPROGRAM;
+        } else if (node instanceof DILocalVariableImpl var) {
+            // has alignment
+            r.add(2).add(mdOrNull(var.scope)).add(mdStringOrNull(var.name)).add(mdOrNull(var.file)).add(var.line).add(mdOrNull(var.type));
+            r.add(Math.max(var.argument, 0)).add(flags(var.flags)).add(var.align);
+            code = METADATA_LOCAL_VAR;
+        } else if (node instanceof DIGlobalVariableImpl var) {
+            // version 2
+            r.add(4).add(mdOrNull(var.scope)).add(mdStringOrNull(var.name));
+            // linkage name
+            r.add(0);
+            r.add(mdOrNull(var.file)).add(var.line).add(mdOrNull(var.type)).add(var.isLocal ? 1 : 0).add(var.isDefinition ? 1 : 0);
+            // static data member declaration, template parameters
+            r.add(0).add(0);
+            r.add(var.align);
+            code = METADATA_GLOBAL_VAR;
+        } else if (node instanceof DIGlobalVariableExpressionImpl expr) {
+            r.add(0).add(mdOrNull(expr.var_)).add(mdOrNull(expr.expr));
+            code = METADATA_GLOBAL_VAR_EXPR;
+        } else if (node instanceof DIExpressionImpl expr) {
+            // version 3
+            r.add(6);
+            for (long op : expressionOps(expr)) {
+                r.add(op);
+            }
+            code = METADATA_EXPRESSION;
+        } else if (node instanceof DISubrangeImpl subrange) {
+            // version 0: count and lower bound
+            r.add(0).add(subrange.count).add(0);
+            code = METADATA_SUBRANGE;
+        } else {
+            throw new UnsupportedBitcodeException("Unsupported metadata node " + node.getClass().getSimpleName());
+        }
+        if (out != null) {
+            out.emitRecord(code, r);
+        }
+    }
+
+    private static int language(String language) throws UnsupportedBitcodeException {
+        return switch (language) {
+            case "DW_LANG_C89" -> 0x1;
+            case "DW_LANG_C" -> 0x2;
+            case "DW_LANG_C_plus_plus" -> 0x4;
+            case "DW_LANG_Java" -> 0xb;
+            case "DW_LANG_C99" -> 0xc;
+            case "DW_LANG_C_plus_plus_11" -> 0x1a;
+            case "DW_LANG_C11" -> 0x1d;
+            case "DW_LANG_C_plus_plus_14" -> 0x21;
+            default -> throw new UnsupportedBitcodeException("Unsupported language " + language);
+        };
+    }
+
+    private static int encoding(DIEncoding encoding) {
+        return switch (encoding) {
+            case Address -> 0x1;
+            case Boolean -> 0x2;
+            case ComplexFloat -> 0x3;
+            case Float -> 0x4;
+            case Signed -> 0x5;
+            case SignedChar -> 0x6;
+            case Unsigned -> 0x7;
+            case UnsignedChar -> 0x8;
+        };
+    }
+
+    private static int tag(DITag tag) {
+        return switch (tag) {
+            case ArrayType -> 0x01;
+            case ClassType -> 0x02;
+            case EnumerationType -> 0x04;
+            case Member -> 0x0d;
+            case PointerType -> 0x0f;
+            case ReferenceType -> 0x10;
+            case StructureType -> 0x13;
+            case Typedef -> 0x16;
+            case UnionType -> 0x17;
+            case Inheritance -> 0x1c;
+            case PtrToMemberType -> 0x1f;
+            case ConstType -> 0x26;
+            case Friend -> 0x2a;
+            case VolatileType -> 0x35;
+            case RestrictType -> 0x37;
+            case AtomicType -> 0x47;
+        };
+    }
+
+    private static long flags(Set<DIFlags> flags) {
+        long result = 0;
+        for (DIFlags flag : flags) {
+            result |= switch (flag) {
+                case Private -> 1;
+                case Protected -> 2;
+                case Public -> 3;
+                case FwdDecl -> 1 << 2;
+                case AppleBlock -> 1 << 3;
+                case Virtual -> 1 << 5;
+                case Artificial -> 1 << 6;
+                case Explicit -> 1 << 7;
+                case Prototyped -> 1 << 8;
+                case ObjcClassComplete -> 1 << 9;
+                case ObjectPointer -> 1 << 10;
+                case Vector -> 1 << 11;
+                case StaticMember -> 1 << 12;
+                case LValueReference -> 1 << 13;
+                case RValueReference -> 1 << 14;
+                case ExportSymbols -> 1 << 15;
+                case SingleInheritance -> 1 << 16;
+                case MultipleInheritance -> 2 << 16;
+                case VirtualInheritance -> 3 << 16;
+                case IntroducedVirtual -> 1 << 18;
+                case BitField -> 1 << 19;
+                case NoReturn -> 1 << 20;
+                case TypePassByValue -> 1 << 22;
+                case TypePassByReference -> 1 << 23;
+                case EnumClass -> 1 << 24;
+                case Thunk -> 1 << 25;
+                case NonTrivial -> 1 << 26;
+                case BigEndian -> 1 << 27;
+                case LittleEndian -> 1 << 28;
+                case AllCallsDescribed -> 1 << 29;
+            };
+        }
+        return result;
+    }
+
+    // =================
+    // Functions
+    // =================
+
+    final class FunctionState {
+        final FunctionDefinitionImpl def;
+        final List<AbstractFunction.ParameterImpl> params = new ArrayList<>();
+        final List<BasicBlockImpl> blocks = new ArrayList<>();
+        final Map<BasicBlockImpl, Integer> blockIds = new IdentityHashMap<>();
+        final Map<AbstractInstruction, Integer> instructionIds = new IdentityHashMap<>();
+        final Map<AbstractInstruction, TypeEntry> resultTypes = new IdentityHashMap<>();
+        boolean collecting = true;
+        int instNum;
+
+        FunctionState(FunctionDefinitionImpl def) {
+            this.def = def;
+            for (AbstractFunction.ParameterImpl param = def.lastParam; param != null; param = param.prev) {
+                params.add(0, param);
+            }
+            for (BasicBlockImpl block = def.lastBlock; block != null; block = block.prev) {
+                if (! block.phis.isEmpty() || ! block.items.isEmpty() || block.terminator != null) {
+                    if (block.terminator == null) {
+                        throw new IllegalStateException("Basic block not terminated");
+                    }
+                    blocks.add(0, block);
+                }
+            }
+            for (int i = 0; i < blocks.size(); i ++) {
+                blockIds.put(blocks.get(i), Integer.valueOf(i));
+            }
+        }
+
+        int paramIndex(AbstractFunction.ParameterImpl param) throws UnsupportedBitcodeException {
+            int index = params.indexOf(param);
+            if (index < 0) {
+                throw new UnsupportedBitcodeException("Unknown parameter");
+            }
+            return index;
+        }
+
+        int blockId(BasicBlockImpl block) throws UnsupportedBitcodeException {
+            Integer id = blockIds.get(block);
+            if (id == null) {
+                throw new UnsupportedBitcodeException("Branch to an empty or foreign block");
+            }
+            return id.intValue();
+        }
+    }
+
+    private static List<AbstractInstruction> instructions(BasicBlockImpl block) {
+        List<AbstractInstruction> list = new ArrayList<>(block.phis.size() + block.items.size() + 1);
+        for (AbstractEmittable item : block.phis) {
+            list.add((AbstractInstruction) item);
+        }
+        for (AbstractEmittable item : block.items) {
+            list.add((AbstractInstruction) item);
+        }
+        list.add((AbstractInstruction) block.terminator);
+        return list;
+    }
+
+    private void writeFunction(BitstreamWriter out, FunctionDefinitionImpl def) throws UnsupportedBitcodeException {
+        FunctionState fs = new FunctionState(def);
+        function = fs;
+        ConstantTable fnConstants = new ConstantTable(moduleValueCount + fs.params.size());
+        constants = fnConstants;
+        metadata = new MetadataTable();
+        // first compute the result types, so that forward references can be typed
+        for (BasicBlockImpl block : fs.blocks) {
+            for (AbstractInstruction insn : instructions(block)) {
+                TypeEntry type = resultType(insn);
+                if (type != null && type.code != TYPE_CODE_VOID) {
+                    fs.resultTypes.put(insn, type);
+                }
+            }
+        }
+        // then enumerate the constants and metadata
+        Record r = new Record();
+        for (BasicBlockImpl block : fs.blocks) {
+            for (AbstractInstruction insn : instructions(block)) {
+                instructionRecord(insn, r.clear());
+                attachmentRecord(insn.lastMetaItem, true);
+                debugLocation(insn);
+            }
+        }
+        int nextId = fnConstants.base + fnConstants.entries.size();
+        for (BasicBlockImpl block : fs.blocks) {
+            for (AbstractInstruction insn : instructions(block)) {
+                if (fs.resultTypes.containsKey(insn)) {
+                    fs.instructionIds.put(insn, Integer.valueOf(nextId ++));
+                }
+            }
+        }
+        fs.collecting = false;
+
+        out.enterBlock(FUNCTION_BLOCK_ID, 4);
+        out.emitRecord(FUNC_CODE_DECLAREBLOCKS, record.clear().add(fs.blocks.size()));
+        writeConstants(out, fnConstants);
+        constants = fnConstants;
+        if (! metadata.entries.isEmpty()) {
+            out.enterBlock(METADATA_BLOCK_ID, 3);
+            writeMetadataTable(out, metadata);
+            out.exitBlock();
+        }
+        fs.instNum = fnConstants.base + fnConstants.entries.size();
+        DILocationImpl lastLocation = null;
+        List<Record> attachments = new ArrayList<>();
+        int instIndex = 0;
+        for (BasicBlockImpl block : fs.blocks) {
+            for (AbstractInstruction insn : instructions(block)) {
+                int code = instructionRecord(insn, r.clear());
+                emitInstruction(out, code, r);
+                if (fs.resultTypes.containsKey(insn)) {
+                    fs.instNum ++;
+                }
+                DILocationImpl location = debugLocation(insn);
+                if (location != null) {
+                    if (location == lastLocation) {
+                        out.emitRecord(FUNC_CODE_DEBUG_LOC_AGAIN, record.clear());
+                    } else {
+                        record.clear().add(location.line).add(location.column).add(mdOrNull(location.scope)).add(mdOrNull(location.inlinedAt)).add(0);
+                        out.emitRecord(debugLocAbbrev, FUNC_CODE_DEBUG_LOC, record, null);
+                        lastLocation = location;
+                    }
+                }
+                Record attachment = attachmentRecord(insn.lastMetaItem, true);
+                if (attachment.size > 0) {
+                    attachments.add(new Record().add(instIndex).addAll(attachment));
+                }
+                instIndex ++;
+            }
+        }
+        Record fnAttachment = attachmentRecord(def.lastMetaItem, false);
+        if (fnAttachment.size > 0 || ! attachments.isEmpty()) {
+            out.enterBlock(METADATA_ATTACHMENT_ID, 3);
+            if (fnAttachment.size > 0) {
+                out.emitRecord(METADATA_ATTACHMENT, fnAttachment);
+            }
+            for (Record attachment : attachments) {
+                out.emitRecord(METADATA_ATTACHMENT, attachment);
+            }
+            out.exitBlock();
+        }
+        out.exitBlock();
+        function = null;
+        constants = moduleConstants;
+        metadata = moduleMetadata;
+    }
+
+    private DILocationImpl debugLocation(AbstractInstruction insn) throws UnsupportedBitcodeException {
+        for (AbstractMetable.MetaItem item = insn.lastMetaItem; item != null; item = item.prev) {
+            if (item.name.equals("dbg")) {
+                if (item.metaValue instanceof MetadataNodeRef ref && mdNodes.get(Integer.valueOf(ref.index)) instanceof DILocationImpl location) {
+                    // enumerate the scope
+                    mdOrNull(location.scope);
+                    mdOrNull(location.inlinedAt);
+                    return location;
+                }
+                throw new UnsupportedBitcodeException("Debug location which is not a location node");
+            }
+        }
+        return null;
+    }
+
+    private void emitInstruction(BitstreamWriter out, int code, Record r) {
+        int abbrev = switch (code) {
+            case FUNC_CODE_INST_LOAD -> r.size == 4 ? loadAbbrev : 0;
+            case FUNC_CODE_INST_BINOP -> r.size == 3 ? binopAbbrev : r.size == 4 ? binopFlagsAbbrev : 0;
+            case FUNC_CODE_INST_CAST -> r.size == 3 ? castAbbrev : 0;
+            case FUNC_CODE_INST_RET -> r.size == 0 ? retVoidAbbrev : r.size == 1 ? retValAbbrev : 0;
+            case FUNC_CODE_INST_UNREACHABLE -> unreachableAbbrev;
+            case FUNC_CODE_INST_GEP -> gepAbbrev;
+            case FUNC_CODE_INST_STORE -> r.size == 4 ? storeAbbrev : 0;
+            case FUNC_CODE_INST_BR -> brAbbrev;
+            default -> 0;
+        };
+        if (abbrev == 0) {
+            out.emitRecord(code, r);
+        } else {
+            out.emitRecord(abbrev, code, r, null);
+        }
+    }
+
+    // operand encoding, relative to the current instruction
+
+    private void pushValue(AbstractValue value, TypeEntry type, Record r) throws UnsupportedBitcodeException {
+        r.add((function.instNum - valueId(value, type)) & 0xFFFF_FFFFL);
+    }
+
+    private void pushValueAndType(AbstractValue value, TypeEntry type, Record r) throws UnsupportedBitcodeException {
+        int id = valueId(value, type);
+        r.add((function.instNum - id) & 0xFFFF_FFFFL);
+        if (id >= function.instNum) {
+            r.add(type.id);
+        }
+    }
+
+    private void pushValueSigned(AbstractValue value, TypeEntry type, Record r) throws UnsupportedBitcodeException {
+        r.addSigned((long) function.instNum - valueId(value, type));
+    }
+
+    private TypeEntry resultType(AbstractInstruction insn) throws UnsupportedBitcodeException {
+        if (insn instanceof IcmpImpl || insn instanceof FCmpImpl) {
+            TypeEntry operand = type(((AbstractBinary) insn).type);
+            TypeEntry i1 = simpleType("i1");
+            return operand.code == TYPE_CODE_VECTOR ? intern(TYPE_CODE_VECTOR, operand.a, operand.b, i1) : i1;
+        } else if (insn instanceof AbstractBinary binary) {
+            return type(binary.type);
+        } else if (insn instanceof AbstractCastInstruction cast) {
+            return type(cast.toType);
+        } else if (insn instanceof AbstractFastMathUnary unary) {
+            return type(unary.type);
+        } else if (insn instanceof CallImpl call) {
+            return call.type instanceof FunctionType fnType ? type(fnType.returnType) : type(call.type);
+        } else if (insn instanceof InvokeImpl invoke) {
+            return invoke.type instanceof FunctionType fnType ? type(fnType.returnType) : type(invoke.type);
+        } else if (insn instanceof LoadImpl load) {
+            return type(load.pointeeType);
+        } else if (insn instanceof AtomicRmwImpl rmw) {
+            return type(rmw.pointeeType);
+        } else if (insn instanceof CmpAndSwapImpl cas) {
+            return intern(TYPE_CODE_STRUCT_ANON, 0, 0, type(cas.type), simpleType("i1"));
+        } else if (insn instanceof AllocaImpl alloca) {
+            return pointerTo(type(alloca.type), 0);
+        } else if (insn instanceof GetElementPtrImpl gep) {
+            TypeEntry current = type(gep.type);
+            List<GetElementPtrImpl.ArgImpl> args = gepArgs(gep);
+            for (int i = 1; i < args.size(); i ++) {
+                current = elementType(current, args.get(i).index);
+            }
+            return pointerTo(current, (int) type(gep.ptrType).a);
+        } else if (insn instanceof SelectImpl select) {
+            return type(select.valueType);
+        } else if (insn instanceof PhiImpl phi) {
+            return type(phi.type);
+        } else if (insn instanceof ExtractValueImpl extract) {
+            TypeEntry current = type(extract.aggregateType);
+            List<AbstractValue> indexes = new ArrayList<>();
+            for (ExtractValueImpl.ArgImpl arg = extract.lastArg; arg != null; arg = arg.prev) {
+                indexes.add(0, arg.index);
+            }
+            for (AbstractValue index : indexes) {
+                current = elementType(current, index);
+            }
+            return current;
+        } else if (insn instanceof InsertValueImpl insert) {
+            return type(insert.aggregateType);
+        } else if (insn instanceof LandingPadImpl landingPad) {
+            return type(landingPad.resultType);
+        } else if (insn instanceof VaArg vaArg) {
+            return type(vaArg.outputType);
+        } else {
+            // no value, or an assignment which only names one
+            return null;
+        }
+    }
+
+    private TypeEntry elementType(TypeEntry aggregate, AbstractValue index) throws UnsupportedBitcodeException {
+        return switch (aggregate.code) {
+            case TYPE_CODE_ARRAY, TYPE_CODE_VECTOR -> aggregate.elements[0];
+            case TYPE_CODE_STRUCT_ANON, TYPE_CODE_STRUCT_NAMED -> aggregate.elements[(int) constIndex(index)];
+            default -> throw new UnsupportedBitcodeException("Index into a non-aggregate type");
+        };
+    }
+
+    private static List<GetElementPtrImpl.ArgImpl> gepArgs(GetElementPtrImpl gep) {
+        List<GetElementPtrImpl.ArgImpl> args = new ArrayList<>();
+        for (GetElementPtrImpl.ArgImpl arg = gep.lastArg; arg != null; arg = arg.prev) {
+            args.add(0, arg);
+        }
+        return args;
+    }
+
+    /**
+     * Build the record of an instruction, and get its code.
+     */
+    private int instructionRecord(AbstractInstruction insn, Record r) throws UnsupportedBitcodeException {
+        FunctionState fs = function;
+        if (insn instanceof IcmpImpl icmp) {
+            TypeEntry type = type(icmp.type);
+            pushValueAndType(icmp.arg1, type, r);
+            pushValue(icmp.arg2, type, r);
+            r.add(switch (icmp.cond) {
+                case eq -> 32;
+                case ne -> 33;
+                case ugt -> 34;
+                case uge -> 35;
+                case ult -> 36;
+                case ule -> 37;
+                case sgt -> 38;
+                case sge -> 39;
+                case slt -> 40;
+                case sle -> 41;
+            });
+            return FUNC_CODE_INST_CMP2;
+        } else if (insn instanceof FCmpImpl fcmp) {
+            TypeEntry type = type(fcmp.type);
+            pushValueAndType(fcmp.arg1, type, r);
+            pushValue(fcmp.arg2, type, r);
+            r.add(switch (fcmp.cond) {
+                case oeq -> 1;
+                case ogt -> 2;
+                case oge -> 3;
+                case olt -> 4;
+                case ole -> 5;
+                case one -> 6;
+                case ord -> 7;
+                case uno -> 8;
+                case ueq -> 9;
+                case ugt -> 10;
+                case uge -> 11;
+                case ult -> 12;
+                case ule -> 13;
+                case une -> 14;
+            });
+            if (! fcmp.flags.isEmpty()) {
+                r.add(fastMathFlags(fcmp.flags));
+            }
+            return FUNC_CODE_INST_CMP2;
+        } else if (insn instanceof AbstractBinary binary) {
+            TypeEntry type = type(binary.type);
+            pushValueAndType(binary.arg1, type, r);
+            pushValue(binary.arg2, type, r);
+            r.add(binaryOpcode(binary));
+            long flags = 0;
+            if (binary instanceof AbstractNuwNswBinary wrapping) {
+                flags = (wrapping.nuw ? 1 : 0) | (wrapping.nsw ? 2 : 0);
+            } else if (binary instanceof AbstractExactBinary exact) {
+                flags = exact.exact ? 1 : 0;
+            } else if (binary instanceof AbstractFastMathBinary fastMath) {
+                flags = fastMathFlags(fastMath.flags);
+            }
+            if (flags != 0) {
+                r.add(flags);
+            }
+            return FUNC_CODE_INST_BINOP;
+        } else if (insn instanceof AbstractCastInstruction cast) {
+            pushValueAndType(cast.value, type(cast.type), r);
+            r.add(type(cast.toType).id);
+            r.add(castOpcode(cast));
+            return FUNC_CODE_INST_CAST;
+        } else if (insn instanceof FNegImpl fneg) {
+            pushValueAndType(fneg.arg, type(fneg.type), r);
+            r.add(0);
+            if (! fneg.flags.isEmpty()) {
+                r.add(fastMathFlags(fneg.flags));
+            }
+            return FUNC_CODE_INST_UNOP;
+        } else if (insn instanceof CallImpl call) {
+            List<CallImpl.ArgImpl> args = new ArrayList<>();
+            for (CallImpl.ArgImpl arg = call.lastArg; arg != null; arg = arg.prev) {
+                args.add(0, arg);
+            }
+            List<List<AbstractValue>> argAttributes = new ArrayList<>();
+            List<AbstractValue> argTypes = new ArrayList<>();
+            List<AbstractValue> argValues = new ArrayList<>();
+            for (CallImpl.ArgImpl arg : args) {
+                argAttributes.add(arg.attributes);
+                argTypes.add(arg.type);
+                argValues.add(arg.value);
+            }
+            TypeEntry fnType = callType(call.type, argTypes);
+            r.add(attributeListId(call.attributes, call.returns.attributes, argAttributes));
+            long flags = call.flags.isEmpty() ? 0 : fastMathFlags(call.flags);
+            r.add((long) callingConvention(call.cconv) << 1
+                | (call.tailType != TailType.notail ? 1 : 0)
+                | (call.tailType == TailType.musttail ? 1 << 14 : 0)
+                | 1 << 15
+                | (flags != 0 ? 1 << 17 : 0));
+            if (flags != 0) {
+                r.add(flags);
+            }
+            r.add(fnType.id);
+            pushValueAndType(call.function, pointerTo(fnType, call.addressSpace), r);
+            pushArguments(fnType, argTypes, argValues, r);
+            return FUNC_CODE_INST_CALL;
+        } else if (insn instanceof InvokeImpl invoke) {
+            List<InvokeImpl.ArgImpl> args = new ArrayList<>();
+            for (InvokeImpl.ArgImpl arg = invoke.lastArg; arg != null; arg = arg.prev) {
+                args.add(0, arg);
+            }
+            List<List<AbstractValue>> argAttributes = new ArrayList<>();
+            List<AbstractValue> argTypes = new ArrayList<>();
+            List<AbstractValue> argValues = new ArrayList<>();
+            for (InvokeImpl.ArgImpl arg : args) {
+                argAttributes.add(arg.attributes);
+                argTypes.add(arg.type);
+                argValues.add(arg.value);
+            }
+            TypeEntry fnType = callType(invoke.type, argTypes);
+            r.add(attributeListId(invoke.attributes, invoke.returns.attributes, argAttributes));
+            // explicit type
+            r.add(callingConvention(invoke.cconv) | 1 << 13);
+            r.add(fs.blockId(invoke.normal)).add(fs.blockId(invoke.unwind));
+            r.add(fnType.id);
+            pushValueAndType(invoke.function, pointerTo(fnType, invoke.addressSpace), r);
+            pushArguments(fnType, argTypes, argValues, r);
+            return FUNC_CODE_INST_INVOKE;
+        } else if (insn instanceof LoadImpl load) {
+            pushValueAndType(load.pointer, type(load.type), r);
+            r.add(type(load.pointeeType).id).add(log2Align(load.alignment)).add(load.volatile_ ? 1 : 0);
+            if (load.constraint != null) {
+                r.add(ordering(load.constraint)).add(syncScope(load.syncScope));
+                return FUNC_CODE_INST_LOADATOMIC;
+            }
+            return FUNC_CODE_INST_LOAD;
+        } else if (insn instanceof StoreImpl store) {
+            pushValueAndType(store.pointer, type(store.type), r);
+            pushValueAndType(store.value, type(store.pointeeType), r);
+            r.add(log2Align(store.alignment)).add(store.volatile_ ? 1 : 0);
+            if (store.constraint != null) {
+                r.add(ordering(store.constraint)).add(syncScope(store.syncScope));
+                return FUNC_CODE_INST_STOREATOMIC;
+            }
+            return FUNC_CODE_INST_STORE;
+        } else if (insn instanceof AtomicRmwImpl rmw) {
+            pushValueAndType(rmw.pointer, type(rmw.type), r);
+            pushValue(rmw.value, type(rmw.pointeeType), r);
+            r.add(rmw.operation.ordinal()).add(rmw.volatile_ ? 1 : 0).add(ordering(rmw.constraint)).add(syncScope(rmw.syncScope));
+            return FUNC_CODE_INST_ATOMICRMW;
+        } else if (insn instanceof CmpAndSwapImpl cas) {
+            TypeEntry type = type(cas.type);
+            pushValueAndType(cas.pointer, type(cas.pointerType), r);
+            pushValueAndType(cas.expect, type, r);
+            pushValue(cas.update, type, r);
+            r.add(cas.isVolatile ? 1 : 0).add(ordering(cas.successOrdering)).add(syncScope(cas.syncScope));
+            r.add(ordering(cas.failureOrdering)).add(cas.weak ? 1 : 0);
+            return FUNC_CODE_INST_CMPXCHG;
+        } else if (insn instanceof FenceImpl fence) {
+            r.add(ordering(fence.ordering)).add(syncScope(fence.syncScope));
+            return FUNC_CODE_INST_FENCE;
+        } else if (insn instanceof AllocaImpl alloca) {
+            TypeEntry countType = alloca.numElementsType == null ? simpleType("i32") : type(alloca.numElementsType);
+            AbstractValue count = alloca.numElements == null ? new IntConstant(1) : alloca.numElements;
+            r.add(type(alloca.type).id).add(countType.id).add(valueId(count, countType));
+            long align = alloca.align == null ? 0 : log2Align((int) constIndex(alloca.align));
+            // explicit type
+            r.add(align | 1 << 6);
+            return FUNC_CODE_INST_ALLOCA;
+        } else if (insn instanceof GetElementPtrImpl gep) {
+            r.add(0).add(type(gep.type).id);
+            pushValueAndType(gep.pointer, type(gep.ptrType), r);
+            for (GetElementPtrImpl.ArgImpl arg : gepArgs(gep)) {
+                pushValueAndType(arg.index, type(arg.type), r);
+            }
+            return FUNC_CODE_INST_GEP;
+        } else if (insn instanceof SelectImpl select) {
+            TypeEntry type = type(select.valueType);
+            pushValueAndType(select.trueValue, type, r);
+            pushValue(select.falseValue, type, r);
+            pushValueAndType(select.cond, type(select.condType), r);
+            if (! select.flags.isEmpty()) {
+                r.add(fastMathFlags(select.flags));
+            }
+            return FUNC_CODE_INST_VSELECT;
+        } else if (insn instanceof PhiImpl phi) {
+            TypeEntry type = type(phi.type);
+            if (phi.lastItem == null) {
+                // written as "select i1 true, T undef, T undef"
+                AbstractValue undef = (AbstractValue) LLVM.UNDEF;
+                pushValueAndType(undef, type, r);
+                pushValue(undef, type, r);
+                pushValueAndType((AbstractValue) LLVM.TRUE, simpleType("i1"), r);
+                return FUNC_CODE_INST_VSELECT;
+            }
+            r.add(type.id);
+            List<PhiImpl.Item> items = new ArrayList<>();
+            for (PhiImpl.Item item = phi.lastItem; item != null; item = item.prev) {
+                items.add(0, item);
+            }
+            for (PhiImpl.Item item : items) {
+                pushValueSigned(item.data, type, r);
+                r.add(fs.blockId(item.incoming));
+            }
+            if (! phi.mathFlags.isEmpty()) {
+                r.add(fastMathFlags(phi.mathFlags));
+            }
+            return FUNC_CODE_INST_PHI;
+        } else if (insn instanceof ExtractValueImpl extract) {
+            pushValueAndType(extract.aggregate, type(extract.aggregateType), r);
+            List<AbstractValue> indexes = new ArrayList<>();
+            for (ExtractValueImpl.ArgImpl arg = extract.lastArg; arg != null; arg = arg.prev) {
+                indexes.add(0, arg.index);
+            }
+            for (AbstractValue index : indexes) {
+                r.add(constIndex(index));
+            }
+            return FUNC_CODE_INST_EXTRACTVAL;
+        } else if (insn instanceof InsertValueImpl insert) {
+            pushValueAndType(insert.aggregate, type(insert.aggregateType), r);
+            pushValueAndType(insert.insert, type(insert.insertType), r);
+            List<AbstractValue> indexes = new ArrayList<>();
+            for (InsertValueImpl.ArgImpl arg = insert.lastArg; arg != null; arg = arg.prev) {
+                indexes.add(0, arg.index);
+            }
+            for (AbstractValue index : indexes) {
+                r.add(constIndex(index));
+            }
+            return FUNC_CODE_INST_INSERTVAL;
+        } else if (insn instanceof LandingPadImpl landingPad) {
+            r.add(type(landingPad.resultType).id).add(landingPad.cleanup ? 1 : 0);
+            List<LandingPadImpl.Clause> clauses = new ArrayList<>();
+            for (LandingPadImpl.Clause clause = landingPad.last; clause != null; clause = clause.prev) {
+                clauses.add(0, clause);
+            }
+            r.add(clauses.size());
+            for (LandingPadImpl.Clause clause : clauses) {
+                r.add(clause instanceof LandingPadImpl.Catch ? 0 : 1);
+                pushValueAndType(clause.value, type(clause.type), r);
+            }
+            return FUNC_CODE_INST_LANDINGPAD;
+        } else if (insn instanceof VaArg vaArg) {
+            TypeEntry listType = type(vaArg.vaListType);
+            r.add(listType.id);
+            pushValue(vaArg.vaList, listType, r);
+            r.add(type(vaArg.outputType).id);
+            return FUNC_CODE_INST_VAARG;
+        } else if (insn instanceof SwitchImpl switch_) {
+            TypeEntry type = type(switch_.type);
+            r.add(type.id);
+            pushValue(switch_.value, type, r);
+            r.add(fs.blockId(switch_.defaultTarget));
+            List<SwitchImpl.CaseImpl> cases = new ArrayList<>();
+            for (SwitchImpl.CaseImpl case_ = switch_.lastCase; case_ != null; case_ = case_.prev) {
+                cases.add(0, case_);
+            }
+            for (SwitchImpl.CaseImpl case_ : cases) {
+                r.add(valueId(case_.value, type)).add(fs.blockId(case_.target));
+            }
+            return FUNC_CODE_INST_SWITCH;
+        } else if (insn instanceof ConditionalBranchImpl branch) {
+            r.add(fs.blockId(branch.ifTrue)).add(fs.blockId(branch.ifFalse));
+            pushValue(branch.cond, simpleType("i1"), r);
+            return FUNC_CODE_INST_BR;
+        } else if (insn instanceof UnconditionalBranchImpl branch) {
+            r.add(fs.blockId(branch.dest));
+            return FUNC_CODE_INST_BR;
+        } else if (insn instanceof ValueReturn ret) {
+            pushValueAndType(ret.val, type(ret.type), r);
+            return FUNC_CODE_INST_RET;
+        } else if (insn instanceof VoidReturn) {
+            return FUNC_CODE_INST_RET;
+        } else if (insn instanceof Unreachable) {
+            return FUNC_CODE_INST_UNREACHABLE;
+        } else if (insn instanceof AssignmentImpl) {
+            return -1;
+        } else {
+            throw new UnsupportedBitcodeException("Unsupported instruction " + insn.getClass().getSimpleName());
+        }
+    }
+
+    private TypeEntry callType(AbstractValue type, List<AbstractValue> argTypes) throws UnsupportedBitcodeException {
+        if (type instanceof FunctionType) {
+            return type(type);
+        }
+        TypeEntry[] elements = new TypeEntry[argTypes.size() + 1];
+        elements[0] = type(type);
+        for (int i = 0; i < argTypes.size(); i ++) {
+            elements[i + 1] = type(argTypes.get(i));
+        }
+        return intern(TYPE_CODE_FUNCTION, 0, 0, elements);
+    }
+
+    private void pushArguments(TypeEntry fnType, List<AbstractValue> argTypes, List<AbstractValue> argValues, Record r) throws UnsupportedBitcodeException {
+        int fixed = fnType.elements.length - 1;
+        if (argValues.size() < fixed || argValues.size() > fixed && fnType.a == 0) {
+            throw new UnsupportedBitcodeException("Wrong number of call arguments");
+        }
+        for (int i = 0; i < argValues.size(); i ++) {
+            AbstractValue argType = argTypes.get(i);
+            AbstractValue value = argValues.get(i);
+            if (argType instanceof MetadataType) {
+                // metadata operands are relative metadata IDs
+                r.add((function.instNum - (mdTyped(argType, value) - 1)) & 0xFFFF_FFFFL);
+            } else if (i < fixed) {
+                pushValue(value, fnType.elements[i + 1], r);
+            } else {
+                pushValueAndType(value, type(argType), r);
+            }
+        }
+    }
+
+    private static int binaryOpcode(AbstractBinary binary) throws UnsupportedBitcodeException {
+        if (binary instanceof AddImpl || binary instanceof FAddImpl) {
+            return 0;
+        } else if (binary instanceof SubImpl || binary instanceof FSubImpl) {
+            return 1;
+        } else if (binary instanceof MulImpl || binary instanceof FMulImpl) {
+            return 2;
+        } else if (binary instanceof UdivImpl) {
+            return 3;
+        } else if (binary instanceof SdivImpl || binary instanceof FDivImpl) {
+            return 4;
+        } else if (binary instanceof URemImpl) {
+            return 5;
+        } else if (binary instanceof SRemImpl || binary instanceof FRemImpl) {
+            return 6;
+        } else if (binary instanceof ShlImpl) {
+            return 7;
+        } else if (binary instanceof LshrImpl) {
+            return 8;
+        } else if (binary instanceof AshrImpl) {
+            return 9;
+        } else if (binary instanceof AndImpl) {
+            return 10;
+        } else if (binary instanceof OrImpl) {
+            return 11;
+        } else if (binary instanceof XorImpl) {
+            return 12;
+        } else {
+            throw new UnsupportedBitcodeException("Unsupported binary operation " + binary.getClass().getSimpleName());
+        }
+    }
+
+    private static int castOpcode(AbstractCastInstruction cast) throws UnsupportedBitcodeException {
+        if (cast instanceof TruncImpl) {
+            return 0;
+        } else if (cast instanceof ZExtImpl) {
+            return 1;
+        } else if (cast instanceof SExtImpl) {
+            return 2;
+        } else if (cast instanceof FPToUI) {
+            return 3;
+        } else if (cast instanceof FPToSI) {
+            return 4;
+        } else if (cast instanceof UIToFP) {
+            return 5;
+        } else if (cast instanceof SIToFP) {
+            return 6;
+        } else if (cast instanceof FTruncImpl) {
+            return 7;
+        } else if (cast instanceof FPExtImpl) {
+            return 8;
+        } else if (cast instanceof PtrToInt) {
+            return 9;
+        } else if (cast instanceof IntToPtr) {
+            return 10;
+        } else if (cast instanceof BitCastImpl) {
+            return 11;
+        } else if (cast instanceof AddrSpaceCast) {
+            return 12;
+        } else {
+            throw new UnsupportedBitcodeException("Unsupported cast " + cast.getClass().getSimpleName());
+        }
+    }
+
+    private static long fastMathFlags(Set<FastMathFlag> flags) {
+        long result = 0;
+        for (FastMathFlag flag : flags) {
+            result |= switch (flag) {
+                case nnan -> 1 << 1;
+                case ninf -> 1 << 2;
+                case nsz -> 1 << 3;
+                case arcp -> 1 << 4;
+                case contract -> 1 << 5;
+                case afn -> 1 << 6;
+                case reassoc -> 1 << 7;
+            };
+        }
+        return result;
+    }
+
+    private static int ordering(OrderingConstraint constraint) {
+        return switch (constraint) {
+            case unordered -> 1;
+            case monotonic -> 2;
+            case acquire -> 3;
+            case release -> 4;
+            case acq_rel -> 5;
+            case seq_cst -> 6;
+        };
+    }
+
+    private static int syncScope(String syncScope) throws UnsupportedBitcodeException {
+        if (syncScope == null) {
+            return 1;
+        } else if (syncScope.equals("singlethread")) {
+            return 0;
+        } else {
+            throw new UnsupportedBitcodeException("Unsupported synchronization scope " + syncScope);
+        }
+    }
+
+    // =================
+    // Strings
+    // =================
+
+    private static String unquote(String name) {
+        return new String(unquoteBytes(name), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Get the bytes of a name which may be quoted and escaped in the way of {@link AbstractEmittable#appendEscapedString}.
+     */
+    private static byte[] unquoteBytes(String name) {
+        if (name.length() < 2 || name.charAt(0) != '"' || name.charAt(name.length() - 1) != '"') {
+            return name.getBytes(StandardCharsets.UTF_8);
+        }
+        ByteArrayOutputStream b = new ByteArrayOutputStream(name.length());
+        for (int i = 1; i < name.length() - 1; i ++) {
+            char c = name.charAt(i);
+            if (c == '\\') {
+                b.write(Integer.parseInt(name.substring(i + 1, i + 3), 16));
+                i += 2;
+            } else {
+                b.write(c);
+            }
+        }
+        return b.toByteArray();
+    }
+
+    // =================
+    // Records
+    // =================
+
+    static final class TypeEntry {
+        final int code;
+        final long a;
+        final long b;
+        TypeEntry[] elements;
+        String name;
+        int id = -1;
+
+        TypeEntry(int code, long a, long b, TypeEntry[] elements) {
+            this.code = code;
+            this.a = a;
+            this.b = b;
+            this.elements = elements;
+        }
+    }
+
+    record TypeKey(int code, long a, long b, List<TypeEntry> elements) {}
+
+    record ConstantKey(TypeEntry type, Object value) {}
+
+    record ConstantEntry(TypeEntry type, AbstractValue value) {}
+
+    record FloatBits(long bits) {}
+
+    record MetadataValue(TypeEntry type, AbstractValue value) {}
+
+    record ValueKey(TypeEntry type, int valueId) {}
+
+    record LocalValueKey(TypeEntry type, Object target) {}
+}
@@ -0,0 +1,366 @@
+package org.qbicc.machine.llvm.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A writer for the LLVM bitstream container format.  Bits are packed least significant bit first into little-endian
+ * 32-bit words.  Blocks record their length in words, which is filled in when the block is ended.
+ */
+final class BitstreamWriter {
+    static final int END_BLOCK = 0;
+    static final int ENTER_SUBBLOCK = 1;
+    static final int DEFINE_ABBREV = 2;
+    static final int UNABBREV_RECORD = 3;
+    static final int FIRST_APPLICATION_ABBREV = 4;
+
+    static final int BLOCKINFO_BLOCK_ID = 0;
+    static final int BLOCKINFO_CODE_SETBID = 1;
+
+    private byte[] bytes = new byte[1 << 12];
+    private int length;
+    private long pending;
+    private int pendingBits;
+
+    private int abbrevWidth = 2;
+    private List<Abbrev> abbrevs = new ArrayList<>();
+    private final ArrayList<Block> blocks = new ArrayList<>();
+    private final Map<Integer, List<Abbrev>> blockInfo = new HashMap<>();
+
+    BitstreamWriter() {}
+
+    /**
+     * Construct a new instance whose output will be appended to a block which uses the given abbreviation width.
+     *
+     * @param abbrevWidth the abbreviation width of the enclosing block
+     */
+    BitstreamWriter(int abbrevWidth) {
+        this.abbrevWidth = abbrevWidth;
+    }
+
+    // raw output
+
+    void emit(long value, int width) {
+        if (width == 0) {
+            return;
+        }
+        pending |= (value & (-1L >>> (64 - width))) << pendingBits;
+        pendingBits += width;
+        if (pendingBits >= 32) {
+            writeWord((int) pending);
+            pending >>>= 32;
+            pendingBits -= 32;
+        }
+    }
+
+    void emitVBR(long value, int width) {
+        long threshold = 1L << (width - 1);
+        while (Long.compareUnsigned(value, threshold) >= 0) {
+            emit((value & (threshold - 1)) | threshold, width);
+            value >>>= width - 1;
+        }
+        emit(value, width);
+    }
+
+    void alignToWord() {
+        if (pendingBits > 0) {
+            writeWord((int) pending);
+            pending = 0;
+            pendingBits = 0;
+        }
+    }
+
+    private void writeWord(int word) {
+        ensureCapacity(4);
+        bytes[length] = (byte) word;
+        bytes[length + 1] = (byte) (word >>> 8);
+        bytes[length + 2] = (byte) (word >>> 16);
+        bytes[length + 3] = (byte) (word >>> 24);
+        length += 4;
+    }
+
+    void writeBytes(byte[] data) {
+        alignToWord();
+        ensureCapacity(data.length + 3);
+        System.arraycopy(data, 0, bytes, length, data.length);
+        length += data.length;
+        while ((length & 3) != 0) {
+            bytes[length ++] = 0;
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length << 1, length + extra));
+        }
+    }
+
+    /**
+     * Get the number of bytes written so far.  Any partial word is not counted.
+     *
+     * @return the number of bytes
+     */
+    int size() {
+        return length;
+    }
+
+    byte[] toByteArray() {
+        alignToWord();
+        return Arrays.copyOf(bytes, length);
+    }
+
+    void writeTo(OutputStream os) throws IOException {
+        alignToWord();
+        os.write(bytes, 0, length);
+    }
+
+    // blocks
+
+    void enterBlock(int blockId, int width) {
+        emit(ENTER_SUBBLOCK, abbrevWidth);
+        emitVBR(blockId, 8);
+        emitVBR(width, 4);
+        alignToWord();
+        int sizeOffset = length;
+        writeWord(0);
+        blocks.add(new Block(abbrevWidth, abbrevs, sizeOffset));
+        abbrevWidth = width;
+        List<Abbrev> inherited = blockInfo.get(Integer.valueOf(blockId));
+        abbrevs = inherited == null ? new ArrayList<>() : new ArrayList<>(inherited);
+    }
+
+    void exitBlock() {
+        emit(END_BLOCK, abbrevWidth);
+        alignToWord();
+        Block block = blocks.remove(blocks.size() - 1);
+        int words = (length - block.sizeOffset) / 4 - 1;
+        bytes[block.sizeOffset] = (byte) words;
+        bytes[block.sizeOffset + 1] = (byte) (words >>> 8);
+        bytes[block.sizeOffset + 2] = (byte) (words >>> 16);
+        bytes[block.sizeOffset + 3] = (byte) (words >>> 24);
+        abbrevWidth = block.abbrevWidth;
+        abbrevs = block.abbrevs;
+    }
+
+    // abbreviations
+
+    /**
+     * Define an abbreviation in the current block.
+     *
+     * @param abbrev the abbreviation
+     * @return the abbreviation ID to use for records
+     */
+    int defineAbbrev(Abbrev abbrev) {
+        emitAbbrevDefinition(abbrev);
+        abbrevs.add(abbrev);
+        return FIRST_APPLICATION_ABBREV + abbrevs.size() - 1;
+    }
+
+    /**
+     * Register a block information abbreviation without writing it.  Used by writers whose output is appended to
+     * a stream which defines the abbreviation in its {@code BLOCKINFO} block.
+     *
+     * @param blockId the block ID
+     * @param abbrev the abbreviation
+     * @return the abbreviation ID to use for records
+     */
+    int registerBlockInfoAbbrev(int blockId, Abbrev abbrev) {
+        List<Abbrev> list = blockInfo.computeIfAbsent(Integer.valueOf(blockId), k -> new ArrayList<>());
+        list.add(abbrev);
+        return FIRST_APPLICATION_ABBREV + list.size() - 1;
+    }
+
+    /**
+     * Write and register a block information abbreviation.  The current block must be the {@code BLOCKINFO} block.
+     *
+     * @param blockId the block ID
+     * @param abbrev the abbreviation
+     * @return the abbreviation ID to use for records
+     */
+    int defineBlockInfoAbbrev(int blockId, Abbrev abbrev) {
+        emitRecord(BLOCKINFO_CODE_SETBID, new long[] { blockId }, 1);
+        emitAbbrevDefinition(abbrev);
+        return registerBlockInfoAbbrev(blockId, abbrev);
+    }
+
+    private void emitAbbrevDefinition(Abbrev abbrev) {
+        emit(DEFINE_ABBREV, abbrevWidth);
+        emitVBR(abbrev.ops.length, 5);
+        for (Op op : abbrev.ops) {
+            if (op.encoding == Encoding.LITERAL) {
+                emit(1, 1);
+                emitVBR(op.value, 8);
+            } else {
+                emit(0, 1);
+                emit(op.encoding.ordinal(), 3);
+                if (op.encoding == Encoding.FIXED || op.encoding == Encoding.VBR) {
+                    emitVBR(op.value, 5);
+                }
+            }
+        }
+    }
+
+    // records
+
+    void emitRecord(int code, long[] values, int count) {
+        emit(UNABBREV_RECORD, abbrevWidth);
+        emitVBR(code, 6);
+        emitVBR(count, 6);
+        for (int i = 0; i < count; i ++) {
+            emitVBR(values[i], 6);
+        }
+    }
+
+    void emitRecord(int code, Record record) {
+        emitRecord(code, record.values, record.size);
+    }
+
+    /**
+     * Write a record using an abbreviation.  The record code is the first operand of the abbreviation.
+     *
+     * @param abbrevId the abbreviation ID
+     * @param code the record code
+     * @param record the record operands
+     * @param blob the blob contents, or {@code null} if the abbreviation has no blob operand
+     */
+    void emitRecord(int abbrevId, int code, Record record, byte[] blob) {
+        Abbrev abbrev = abbrevs.get(abbrevId - FIRST_APPLICATION_ABBREV);
+        emit(abbrevId, abbrevWidth);
+        Op[] ops = abbrev.ops;
+        // the code is the first scalar
+        emitScalar(ops[0], code);
+        int idx = 0;
+        for (int i = 1; i < ops.length; i ++) {
+            Op op = ops[i];
+            if (op.encoding == Encoding.ARRAY) {
+                Op elem = ops[++ i];
+                emitVBR(record.size - idx, 6);
+                while (idx < record.size) {
+                    emitScalar(elem, record.values[idx ++]);
+                }
+            } else if (op.encoding == Encoding.BLOB) {
+                emitVBR(blob.length, 6);
+                writeBytes(blob);
+            } else {
+                emitScalar(op, record.values[idx ++]);
+            }
+        }
+    }
+
+    private void emitScalar(Op op, long value) {
+        switch (op.encoding) {
+            case LITERAL -> {
+                if (op.value != value) {
+                    throw new IllegalStateException("Record value does not match abbreviation literal");
+                }
+            }
+            case FIXED -> emit(value, (int) op.value);
+            case VBR -> emitVBR(value, (int) op.value);
+            case CHAR6 -> emit(char6((int) value), 6);
+            default -> throw new IllegalStateException();
+        }
+    }
+
+    static boolean isChar6(int c) {
+        return 'a' <= c && c <= 'z' || 'A' <= c && c <= 'Z' || '0' <= c && c <= '9' || c == '.' || c == '_';
+    }
+
+    private static int char6(int c) {
+        if ('a' <= c && c <= 'z') {
+            return c - 'a';
+        } else if ('A' <= c && c <= 'Z') {
+            return c - 'A' + 26;
+        } else if ('0' <= c && c <= '9') {
+            return c - '0' + 52;
+        } else if (c == '.') {
+            return 62;
+        } else if (c == '_') {
+            return 63;
+        } else {
+            throw new IllegalArgumentException("Not a char6 character");
+        }
+    }
+
+    enum Encoding {
+        LITERAL,
+        FIXED,
+        VBR,
+        ARRAY,
+        CHAR6,
+        BLOB,
+    }
+
+    record Op(Encoding encoding, long value) {
+        static Op literal(long value) {
+            return new Op(Encoding.LITERAL, value);
+        }
+
+        static Op fixed(int width) {
+            return new Op(Encoding.FIXED, width);
+        }
+
+        static Op vbr(int width) {
+            return new Op(Encoding.VBR, width);
+        }
+
+        static Op array() {
+            return new Op(Encoding.ARRAY, 0);
+        }
+
+        static Op char6() {
+            return new Op(Encoding.CHAR6, 0);
+        }
+
+        static Op blob() {
+            return new Op(Encoding.BLOB, 0);
+        }
+    }
+
+    record Abbrev(Op... ops) {}
+
+    private record Block(int abbrevWidth, List<Abbrev> abbrevs, int sizeOffset) {}
+
+    /**
+     * A reusable list of record operands.
+     */
+    static final class Record {
+        long[] values = new long[16];
+        int size;
+
+        Record add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size << 1);
+            }
+            values[size ++] = value;
+            return this;
+        }
+
+        Record addChars(byte[] chars) {
+            for (byte b : chars) {
+                add(b & 0xff);
+            }
+            return this;
+        }
+
+        Record addAll(Record other) {
+            for (int i = 0; i < other.size; i ++) {
+                add(other.values[i]);
+            }
+            return this;
+        }
+
+        Record addSigned(long value) {
+            return add(value >= 0 ? value << 1 : (-value << 1) | 1);
+        }
+
+        Record clear() {
+            size = 0;
+            return this;
+        }
+    }
+}
@@ -7,18 +7,18 @@ import org.qbicc.machine.llvm.op.OrderingConstraint;
 import java.io.IOException;
 
 final class CmpAndSwapImpl extends AbstractYieldingInstruction implements CmpAndSwap {
-    private final AbstractValue pointerType;
-    private final AbstractValue type;
-    private final AbstractValue pointer;
-    private final AbstractValue expect;
-    private final AbstractValue update;
-    private final OrderingConstraint successOrdering;
-    private final OrderingConstraint failureOrdering;
+    final AbstractValue pointerType;
+    final AbstractValue type;
+    final AbstractValue pointer;
+    final AbstractValue expect;
+    final AbstractValue update;
+    final OrderingConstraint successOrdering;
+    final OrderingConstraint failureOrdering;
     /* optional arguments */
-    private boolean weak;   /* not mapped from add phase */
-    private boolean isVolatile; /* not mapped from add phase */
-    private String syncScope;   /* not mapped from add phase */
-    private int alignment;  /* not mapped from add phase */
+    boolean weak;   /* not mapped from add phase */
+    boolean isVolatile; /* not mapped from add phase */
+    String syncScope;   /* not mapped from add phase */
+    int alignment;  /* not mapped from add phase */
 
     public CmpAndSwapImpl(BasicBlockImpl block, AbstractValue pointerType, AbstractValue type, AbstractValue pointer,
                           AbstractValue expect, AbstractValue update, OrderingConstraint successOrdering,
@@ -5,9 +5,9 @@ import java.io.IOException;
 import org.qbicc.machine.llvm.Types;
 
 final class ConditionalBranchImpl extends AbstractBranch {
-    private final AbstractValue cond;
-    private final BasicBlockImpl ifTrue;
-    private final BasicBlockImpl ifFalse;
+    final AbstractValue cond;
+    final BasicBlockImpl ifTrue;
+    final BasicBlockImpl ifFalse;
 
     ConditionalBranchImpl(final AbstractValue cond, final BasicBlockImpl ifTrue, final BasicBlockImpl ifFalse) {
         super();
@@ -7,13 +7,13 @@ import org.qbicc.machine.llvm.debuginfo.DIEncoding;
 import java.io.IOException;
 
 public class DIBasicTypeImpl extends AbstractMetadataNode implements DIBasicType {
-    private final DIEncoding encoding;
-    private final long size;
-    private final int align;
+    final DIEncoding encoding;
+    final long size;
+    final int align;
 
-    private String name;
-    private AbstractValue file;
-    private int line;
+    String name;
+    AbstractValue file;
+    int line;
 
     DIBasicTypeImpl(final int index, final DIEncoding encoding, final long size, final int align) {
         super(index);
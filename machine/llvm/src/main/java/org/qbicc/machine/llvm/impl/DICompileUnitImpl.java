@@ -7,19 +7,19 @@ import org.qbicc.machine.llvm.debuginfo.DebugEmissionKind;
 import java.io.IOException;
 
 final class DICompileUnitImpl extends AbstractMetadataNode implements DICompileUnit {
-    private final String language;
-    private final AbstractValue file;
-    private String producer;
-    private boolean isOptimized;
-    private String flags;
-    private int runtimeVersion;
-    private String splitDebugFilename;
-    private final DebugEmissionKind emissionKind;
-    private AbstractValue enums;
-    private AbstractValue retainedTypes;
-    private AbstractValue globals;
-    private AbstractValue imports;
-    private AbstractValue macros;
+    final String language;
+    final AbstractValue file;
+    String producer;
+    boolean isOptimized;
+    String flags;
+    int runtimeVersion;
+    String splitDebugFilename;
+    final DebugEmissionKind emissionKind;
+    AbstractValue enums;
+    AbstractValue retainedTypes;
+    AbstractValue globals;
+    AbstractValue imports;
+    AbstractValue macros;
 
     DICompileUnitImpl(final int index, final String language, final AbstractValue file, final DebugEmissionKind emissionKind) {
         super(index);
@@ -10,16 +10,16 @@ import org.qbicc.machine.llvm.debuginfo.DITag;
 import io.smallrye.common.constraint.Assert;
 
 public class DICompositeTypeImpl extends AbstractMetadataNode implements DICompositeType {
-    private final DITag tag;
-    private final long size;
-    private final int align;
-
-    private AbstractValue elements;
-    private AbstractValue baseType;
-    private String name;
-    private EnumSet<DIFlags> flags = EnumSet.noneOf(DIFlags.class);
-    private AbstractValue file;
-    private int line;
+    final DITag tag;
+    final long size;
+    final int align;
+
+    AbstractValue elements;
+    AbstractValue baseType;
+    String name;
+    EnumSet<DIFlags> flags = EnumSet.noneOf(DIFlags.class);
+    AbstractValue file;
+    int line;
 
     DICompositeTypeImpl(final int index, final DITag tag, final long size, final int align) {
         super(index);
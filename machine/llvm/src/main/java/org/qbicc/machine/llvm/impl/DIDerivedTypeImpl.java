@@ -10,16 +10,16 @@ import java.io.IOException;
 import java.util.EnumSet;
 
 public class DIDerivedTypeImpl extends AbstractMetadataNode implements DIDerivedType {
-    private final DITag tag;
-    private final long size;
-    private final int align;
-
-    private AbstractValue baseType;
-    private String name;
-    private EnumSet<DIFlags> flags = EnumSet.noneOf(DIFlags.class);
-    private long offset;
-    private AbstractValue file;
-    private int line;
+    final DITag tag;
+    final long size;
+    final int align;
+
+    AbstractValue baseType;
+    String name;
+    EnumSet<DIFlags> flags = EnumSet.noneOf(DIFlags.class);
+    long offset;
+    AbstractValue file;
+    int line;
 
     DIDerivedTypeImpl(final int index, final DITag tag, final long size, final int align) {
         super(index);
@@ -60,6 +60,10 @@ final class DIExpressionImpl extends AbstractMetadataNode implements DIExpressio
     }
 
     final class AsValue extends AbstractValue {
+        DIExpressionImpl node() {
+            return DIExpressionImpl.this;
+        }
+
         @Override
         public Appendable appendTo(Appendable target) throws IOException {
             target.append("!DIExpression(");
@@ -5,8 +5,8 @@ import org.qbicc.machine.llvm.debuginfo.DIFile;
 import java.io.IOException;
 
 final class DIFileImpl extends AbstractMetadataNode implements DIFile {
-    private final String filename;
-    private final String directory;
+    final String filename;
+    final String directory;
 
     DIFileImpl(final int index, final String filename, final String directory) {
         super(index);
@@ -36,6 +36,10 @@ final class DIGlobalVariableExpressionImpl extends AbstractMetadataNode implemen
     }
 
     final class AsValue extends AbstractValue {
+        DIGlobalVariableExpressionImpl node() {
+            return DIGlobalVariableExpressionImpl.this;
+        }
+
         @Override
         public Appendable appendTo(Appendable target) throws IOException {
             target.append("!DIGlobalVariableExpression(");
@@ -8,16 +8,16 @@ import org.qbicc.machine.llvm.debuginfo.DIFlags;
 import org.qbicc.machine.llvm.debuginfo.DIGlobalVariable;
 
 final class DIGlobalVariableImpl extends AbstractMetadataNode implements DIGlobalVariable {
-    private final String name;
-    private final AbstractValue type;
-    private final AbstractValue scope;
-    private final AbstractValue file;
-    private final int line;
-    private final int align;
-    private int argument = -1;
-    private EnumSet<DIFlags> flags = EnumSet.noneOf(DIFlags.class);
-    private boolean isDefinition;
-    private boolean isLocal;
+    final String name;
+    final AbstractValue type;
+    final AbstractValue scope;
+    final AbstractValue file;
+    final int line;
+    final int align;
+    int argument = -1;
+    EnumSet<DIFlags> flags = EnumSet.noneOf(DIFlags.class);
+    boolean isDefinition;
+    boolean isLocal;
 
     DIGlobalVariableImpl(int index, String name, AbstractValue type, AbstractValue scope, AbstractValue file, int line, int align) {
         super(index);
@@ -8,14 +8,14 @@ import org.qbicc.machine.llvm.debuginfo.DIFlags;
 import org.qbicc.machine.llvm.debuginfo.DILocalVariable;
 
 final class DILocalVariableImpl extends AbstractMetadataNode implements DILocalVariable {
-    private final String name;
-    private final AbstractValue type;
-    private final AbstractValue scope;
-    private final AbstractValue file;
-    private final int line;
-    private final int align;
-    private int argument = -1;
-    private EnumSet<DIFlags> flags = EnumSet.noneOf(DIFlags.class);
+    final String name;
+    final AbstractValue type;
+    final AbstractValue scope;
+    final AbstractValue file;
+    final int line;
+    final int align;
+    int argument = -1;
+    EnumSet<DIFlags> flags = EnumSet.noneOf(DIFlags.class);
 
     DILocalVariableImpl(int index, String name, AbstractValue type, AbstractValue scope, AbstractValue file, int line, int align) {
         super(index);
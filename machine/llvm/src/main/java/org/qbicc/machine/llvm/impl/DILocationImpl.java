@@ -5,11 +5,11 @@ import org.qbicc.machine.llvm.debuginfo.DILocation;
 import java.io.IOException;
 
 public class DILocationImpl extends AbstractMetadataNode implements DILocation {
-    private final int line;
-    private final int column;
-    private final AbstractValue scope;
-    private final AbstractValue inlinedAt;
-    private boolean distinct;
+    final int line;
+    final int column;
+    final AbstractValue scope;
+    final AbstractValue inlinedAt;
+    boolean distinct;
 
     DILocationImpl(final int index, final int line, final int column, final AbstractValue scope, final AbstractValue inlinedAt) {
         super(index);
@@ -11,26 +11,26 @@ import java.io.IOException;
 import java.util.EnumSet;
 
 public class DISubprogramImpl extends AbstractMetadataNode implements DISubprogram {
-    private final String name;
-    private String linkageName;
-    private AbstractValue scope;
-    private AbstractValue file;
-    private int line;
-    private final AbstractValue type;
-    private boolean isLocal;
-    private boolean isDefinition = true;
-    private int scopeLine;
-    private AbstractValue containingType;
-    private Virtuality virtuality = Virtuality.None;
-    private int virtualIndex;
-    private EnumSet<DIFlags> flags = EnumSet.noneOf(DIFlags.class);
-    private EnumSet<DISPFlags> spFlags = EnumSet.noneOf(DISPFlags.class);
-    private boolean isOptimized;
-    private final AbstractValue unit;
-    private AbstractValue templateParams;
-    private AbstractValue declaration;
-    private AbstractValue retainedNodes;
-    private AbstractValue thrownTypes;
+    final String name;
+    String linkageName;
+    AbstractValue scope;
+    AbstractValue file;
+    int line;
+    final AbstractValue type;
+    boolean isLocal;
+    boolean isDefinition = true;
+    int scopeLine;
+    AbstractValue containingType;
+    Virtuality virtuality = Virtuality.None;
+    int virtualIndex;
+    EnumSet<DIFlags> flags = EnumSet.noneOf(DIFlags.class);
+    EnumSet<DISPFlags> spFlags = EnumSet.noneOf(DISPFlags.class);
+    boolean isOptimized;
+    final AbstractValue unit;
+    AbstractValue templateParams;
+    AbstractValue declaration;
+    AbstractValue retainedNodes;
+    AbstractValue thrownTypes;
 
     DISubprogramImpl(final int index, final String name, final AbstractValue type, final AbstractValue unit) {
         super(index);
@@ -5,7 +5,7 @@ import org.qbicc.machine.llvm.debuginfo.DISubrange;
 import java.io.IOException;
 
 final class DISubrangeImpl extends AbstractMetadataNode implements DISubrange {
-    private final long count;
+    final long count;
 
     DISubrangeImpl(final int index, final long count) {
         super(index);
@@ -5,7 +5,7 @@ import org.qbicc.machine.llvm.debuginfo.DISubroutineType;
 import java.io.IOException;
 
 public class DISubroutineTypeImpl extends AbstractMetadataNode implements DISubroutineType {
-    private final AbstractValue types;
+    final AbstractValue types;
 
     DISubroutineTypeImpl(final int index, final AbstractValue types) {
         super(index);
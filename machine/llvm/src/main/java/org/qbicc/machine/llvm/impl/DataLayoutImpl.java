@@ -126,6 +126,11 @@ final class DataLayoutImpl extends AbstractEmittable implements DataLayout {
     @Override
     public Appendable appendTo(Appendable target) throws IOException {
         target.append("target datalayout = ");
+        appendEscapedString(target, layoutString());
+        return target;
+    }
+
+    String layoutString() {
         StringBuilder b = new StringBuilder(40);
         if (byteOrder == ByteOrder.BIG_ENDIAN) {
             b.append("E");
@@ -174,7 +179,6 @@ final class DataLayoutImpl extends AbstractEmittable implements DataLayout {
                 b.append(':').append(nativeWidths[i]);
             }
         }
-        appendEscapedString(target, b.toString());
-        return target;
+        return b.toString();
     }
 }
@@ -10,8 +10,8 @@ import io.smallrye.common.constraint.Assert;
  *
  */
 final class ExtractValueImpl extends AbstractYieldingInstruction implements ExtractValue {
-    private final AbstractValue aggregateType;
-    private final AbstractValue aggregate;
+    final AbstractValue aggregateType;
+    final AbstractValue aggregate;
     ArgImpl lastArg;
 
     ExtractValueImpl(final BasicBlockImpl basicBlock, final AbstractValue aggregateType, final AbstractValue aggregate) {
@@ -5,7 +5,7 @@ import java.io.IOException;
 import org.qbicc.machine.llvm.FloatCondition;
 
 final class FCmpImpl extends AbstractFastMathBinary {
-    private final FloatCondition cond;
+    final FloatCondition cond;
 
     FCmpImpl(final BasicBlockImpl block, final FloatCondition cond, final AbstractValue type, final AbstractValue arg1, final AbstractValue arg2) {
         super(block, type, arg1, arg2);
@@ -24,9 +24,9 @@ final class FunctionDefinitionImpl extends AbstractFunction implements FunctionD
     RuntimePreemption preemption = RuntimePreemption.PREEMPTABLE;
     private int blockCounter;
     private int localCounter;
-    private String gc = null;
-    private AbstractValue personalityType = null;
-    private AbstractValue personalityValue = null;
+    String gc = null;
+    AbstractValue personalityType = null;
+    AbstractValue personalityValue = null;
 
     FunctionDefinitionImpl(final ModuleImpl module, final String name) {
         super(name);
@@ -8,8 +8,8 @@ import org.qbicc.machine.llvm.LLValue;
 
 final class FunctionType extends AbstractValue {
     final LLValue returnType;
-    private final List<LLValue> argTypes;
-    private final boolean variadic;
+    final List<LLValue> argTypes;
+    final boolean variadic;
 
     FunctionType(final LLValue returnType, final List<LLValue> argTypes, boolean variadic) {
         this.returnType = returnType;
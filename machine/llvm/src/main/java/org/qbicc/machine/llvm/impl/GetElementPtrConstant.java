@@ -8,9 +8,9 @@ import java.util.Arrays;
 import java.util.Iterator;
 
 final class GetElementPtrConstant extends AbstractValue {
-    private final LLValue type;
-    private final LLValue ptrType;
-    private final LLValue pointer;
+    final LLValue type;
+    final LLValue ptrType;
+    final LLValue pointer;
     ArgImpl lastArg;
 
     GetElementPtrConstant(final LLValue type, final LLValue ptrType, final LLValue pointer, LLValue ... args) {
@@ -49,7 +49,7 @@ final class GetElementPtrConstant extends AbstractValue {
         return target;
     }
 
-    private static final class ArgImpl extends AbstractEmittable {
+    static final class ArgImpl extends AbstractEmittable {
         final boolean inRange;
         final AbstractValue type;
         final AbstractValue index;
@@ -10,9 +10,9 @@ import io.smallrye.common.constraint.Assert;
  *
  */
 final class GetElementPtrImpl extends AbstractYieldingInstruction implements GetElementPtr {
-    private final AbstractValue type;
-    private final AbstractValue ptrType;
-    private final AbstractValue pointer;
+    final AbstractValue type;
+    final AbstractValue ptrType;
+    final AbstractValue pointer;
     ArgImpl lastArg;
 
     GetElementPtrImpl(final BasicBlockImpl basicBlock, final AbstractValue type, final AbstractValue ptrType, final AbstractValue pointer) {
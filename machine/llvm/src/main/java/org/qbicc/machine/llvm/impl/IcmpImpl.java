@@ -5,7 +5,7 @@ import java.io.IOException;
 import org.qbicc.machine.llvm.IntCondition;
 
 final class IcmpImpl extends AbstractBinary {
-    private final IntCondition cond;
+    final IntCondition cond;
 
     IcmpImpl(final BasicBlockImpl block, final IntCondition cond, final AbstractValue type, final AbstractValue arg1, final AbstractValue arg2) {
         super(block, type, arg1, arg2);
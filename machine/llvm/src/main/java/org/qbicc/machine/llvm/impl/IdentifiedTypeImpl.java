@@ -6,8 +6,8 @@ import org.qbicc.machine.llvm.IdentifiedType;
 import java.io.IOException;
 
 final class IdentifiedTypeImpl extends AbstractCommentable implements IdentifiedType {
-    private final String name;
-    private AbstractValue type;
+    final String name;
+    AbstractValue type;
 
     IdentifiedTypeImpl(final String name) {
         this.name = name;
@@ -38,7 +38,11 @@ final class IdentifiedTypeImpl extends AbstractCommentable implements Identified
         return (IdentifiedType) super.comment(comment);
     }
 
-    private final class Ref extends AbstractValue {
+    final class Ref extends AbstractValue {
+        IdentifiedTypeImpl identifiedType() {
+            return IdentifiedTypeImpl.this;
+        }
+
         public Appendable appendTo(Appendable target) throws IOException {
             return target.append('%').append(name);
         }
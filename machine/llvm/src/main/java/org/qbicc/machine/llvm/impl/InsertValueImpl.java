@@ -10,10 +10,10 @@ import org.qbicc.machine.llvm.op.ExtractValue;
  *
  */
 final class InsertValueImpl extends AbstractYieldingInstruction implements ExtractValue {
-    private final AbstractValue aggregateType;
-    private final AbstractValue aggregate;
-    private final AbstractValue insertType;
-    private final AbstractValue insert;
+    final AbstractValue aggregateType;
+    final AbstractValue aggregate;
+    final AbstractValue insertType;
+    final AbstractValue insert;
     ArgImpl lastArg;
 
     InsertValueImpl(final BasicBlockImpl basicBlock, final AbstractValue aggregateType, final AbstractValue aggregate, AbstractValue insertType, AbstractValue insert) {
@@ -7,7 +7,7 @@ import org.qbicc.machine.llvm.op.LandingPad;
 import io.smallrye.common.constraint.Assert;
 
 final class LandingPadImpl extends AbstractYieldingInstruction implements LandingPad {
-    private final AbstractValue resultType;
+    final AbstractValue resultType;
     boolean cleanup;
     Clause last;
 
@@ -62,9 +62,9 @@ final class LandingPadImpl extends AbstractYieldingInstruction implements Landin
     }
 
     static abstract class Clause extends AbstractEmittable {
-        private final Clause prev;
-        private final AbstractValue type;
-        private final AbstractValue value;
+        final Clause prev;
+        final AbstractValue type;
+        final AbstractValue value;
 
         Clause(final Clause prev, final AbstractValue type, final AbstractValue value) {
             this.prev = prev;
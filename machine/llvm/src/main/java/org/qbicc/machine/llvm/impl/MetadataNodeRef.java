@@ -3,7 +3,7 @@ package org.qbicc.machine.llvm.impl;
 import java.io.IOException;
 
 public class MetadataNodeRef extends AbstractValue {
-    private final int index;
+    final int index;
 
     public MetadataNodeRef(final int index) {
         this.index = index;
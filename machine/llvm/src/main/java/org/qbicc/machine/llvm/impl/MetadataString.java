@@ -3,7 +3,7 @@ package org.qbicc.machine.llvm.impl;
 import java.io.IOException;
 
 final class MetadataString extends AbstractValue {
-    private final String value;
+    final String value;
 
     MetadataString(final String value) {
         this.value = value;
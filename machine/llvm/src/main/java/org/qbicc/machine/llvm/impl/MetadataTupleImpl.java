@@ -6,7 +6,7 @@ import org.qbicc.machine.llvm.debuginfo.MetadataTuple;
 import java.io.IOException;
 
 final class MetadataTupleImpl extends AbstractMetadataNode implements MetadataTuple {
-    private Element lastElement;
+    Element lastElement;
 
     MetadataTupleImpl(final int index) {
         super(index);
@@ -3,7 +3,7 @@ package org.qbicc.machine.llvm.impl;
 import java.io.IOException;
 
 public class MetadataType extends AbstractValue {
-    private final AbstractValue type;
+    final AbstractValue type;
 
     MetadataType(final AbstractValue type) {
         this.type = type;
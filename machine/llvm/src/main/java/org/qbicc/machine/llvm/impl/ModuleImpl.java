@@ -2,6 +2,7 @@ package org.qbicc.machine.llvm.impl;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -38,14 +39,17 @@ import io.smallrye.common.constraint.Assert;
  *
  */
 final class ModuleImpl implements Module {
-    private final List<Emittable> header = new ArrayList<>();
-    private final List<Emittable> types = new ArrayList<>();
-    private final List<Emittable> globals = new ArrayList<>();
-    private final List<Emittable> functions = new ArrayList<>();
-    private final List<Emittable> namedMeta = new ArrayList<>();
-    private final List<Emittable> meta = new ArrayList<>();
+    final List<Emittable> header = new ArrayList<>();
+    final List<Emittable> types = new ArrayList<>();
+    final List<Emittable> globals = new ArrayList<>();
+    final List<Emittable> functions = new ArrayList<>();
+    final List<Emittable> namedMeta = new ArrayList<>();
+    final List<Emittable> meta = new ArrayList<>();
+    // locations and local variables, which are complete once the function which uses them is
+    final List<Emittable> localMeta = new ArrayList<>();
 
     private int globalCounter;
+    private boolean flushed;
     private int metadataNodeCounter;
 
     private MetadataTuple flags;
@@ -121,7 +125,7 @@ final class ModuleImpl implements Module {
 
     public DILocation diLocation(final int line, final int column, final LLValue scope, final LLValue inlinedAt) {
         Assert.checkNotNullParam("scope", scope);
-        return add(meta, new DILocationImpl(nextMetadataNodeId(), line, column, (AbstractValue)scope, (AbstractValue)inlinedAt));
+        return add(localMeta, new DILocationImpl(nextMetadataNodeId(), line, column, (AbstractValue)scope, (AbstractValue)inlinedAt));
     }
 
     public DISubprogram diSubprogram(final String name, final LLValue type, final LLValue unit) {
@@ -159,7 +163,7 @@ final class ModuleImpl implements Module {
         Assert.checkNotNullParam("type", type);
         Assert.checkNotNullParam("scope", scope);
         Assert.checkNotNullParam("file", file);
-        return add(meta, new DILocalVariableImpl(nextMetadataNodeId(), name, (AbstractValue) type, (AbstractValue) scope, (AbstractValue) file, line, align));
+        return add(localMeta, new DILocalVariableImpl(nextMetadataNodeId(), name, (AbstractValue) type, (AbstractValue) scope, (AbstractValue) file, line, align));
     }
 
     public DIExpression diExpression() {
@@ -220,6 +224,20 @@ final class ModuleImpl implements Module {
             output.newLine();
     }
 
+    private void flushItems(final List<Emittable> items, final BufferedWriter output, boolean lineBetweenItems) throws IOException {
+        writeItems(items, output, lineBetweenItems);
+        items.clear();
+    }
+
+    public void flushTo(final BufferedWriter output) throws IOException {
+        flushed = true;
+        flushItems(header, output, true);
+        flushItems(types, output, false);
+        flushItems(globals, output, false);
+        flushItems(functions, output, true);
+        flushItems(localMeta, output, false);
+    }
+
     public void writeTo(final BufferedWriter output) throws IOException {
         writeItems(header, output, true);
         writeItems(types, output, false);
@@ -227,5 +245,13 @@ final class ModuleImpl implements Module {
         writeItems(functions, output, true);
         writeItems(namedMeta, output, false);
         writeItems(meta, output, false);
+        writeItems(localMeta, output, false);
+    }
+
+    public void writeBitcodeTo(final OutputStream output) throws IOException {
+        if (flushed) {
+            throw new IllegalStateException("Module has already been partly written");
+        }
+        new BitcodeWriter(this).writeTo(output);
     }
 }
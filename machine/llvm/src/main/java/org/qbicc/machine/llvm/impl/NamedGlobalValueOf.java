@@ -3,10 +3,12 @@ package org.qbicc.machine.llvm.impl;
 import java.io.IOException;
 
 final class NamedGlobalValueOf extends AbstractValue {
-    private final String name;
+    final String name;
+    final String rawName;
 
     NamedGlobalValueOf(String name) {
         super();
+        this.rawName = name;
         this.name = LLVM.needsQuotes(name) ? LLVM.quoteString(name) : name;
     }
 
@@ -5,8 +5,8 @@ import java.io.IOException;
 import org.qbicc.machine.llvm.op.YieldingInstruction;
 
 final class NamedLocalValueOf extends AbstractValue {
-    private final AbstractInstruction instruction;
-    private final String name;
+    final AbstractInstruction instruction;
+    final String name;
 
     NamedLocalValueOf(AbstractInstruction instruction, final String name) {
         super();
@@ -11,9 +11,9 @@ import org.qbicc.machine.llvm.op.Phi;
 import io.smallrye.common.constraint.Assert;
 
 final class PhiImpl extends AbstractYieldingInstruction implements Phi {
-    private final AbstractValue type;
-    private Set<FastMathFlag> mathFlags = Collections.emptySet();
-    private Item lastItem;
+    final AbstractValue type;
+    Set<FastMathFlag> mathFlags = Collections.emptySet();
+    Item lastItem;
 
     PhiImpl(final BasicBlockImpl block, final AbstractValue type) {
         super(block);
@@ -62,9 +62,9 @@ final class PhiImpl extends AbstractYieldingInstruction implements Phi {
     }
 
     static final class Item extends AbstractEmittable {
-        private final Item prev;
-        private final AbstractValue data;
-        private final BasicBlockImpl incoming;
+        final Item prev;
+        final AbstractValue data;
+        final BasicBlockImpl incoming;
 
         Item(final Item prev, final AbstractValue data, final BasicBlockImpl incoming) {
             this.prev = prev;
@@ -4,8 +4,8 @@ import java.io.IOException;
 import java.util.Objects;
 
 final class PointerTo extends AbstractValue {
-    private final AbstractValue type;
-    private final int addrSpace;
+    final AbstractValue type;
+    final int addrSpace;
 
     PointerTo(final AbstractValue type, final int addrSpace) {
         this.type = type;
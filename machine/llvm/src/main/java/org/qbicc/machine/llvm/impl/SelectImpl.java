@@ -9,11 +9,11 @@ import org.qbicc.machine.llvm.op.Select;
 import io.smallrye.common.constraint.Assert;
 
 final class SelectImpl extends AbstractYieldingInstruction implements Select {
-    private final AbstractValue condType;
-    private final AbstractValue cond;
-    private final AbstractValue valueType;
-    private final AbstractValue trueValue;
-    private final AbstractValue falseValue;
+    final AbstractValue condType;
+    final AbstractValue cond;
+    final AbstractValue valueType;
+    final AbstractValue trueValue;
+    final AbstractValue falseValue;
     Set<FastMathFlag> flags = Set.of();
 
     public SelectImpl(final BasicBlockImpl block, final AbstractValue condType, final AbstractValue cond, final AbstractValue valueType, final AbstractValue trueValue, final AbstractValue falseValue) {
@@ -12,7 +12,7 @@ import io.smallrye.common.constraint.Assert;
  *
  */
 final class StructImpl extends AbstractValue implements Struct {
-    private final ArrayList<AbstractValue> pairs = new ArrayList<>();
+    final ArrayList<AbstractValue> pairs = new ArrayList<>();
 
     StructImpl() {}
 
@@ -7,10 +7,10 @@ import org.qbicc.machine.llvm.op.Switch;
 import java.io.IOException;
 
 final class SwitchImpl extends AbstractInstruction implements Switch {
-    private final AbstractValue type;
-    private final AbstractValue value;
-    private final BasicBlockImpl defaultTarget;
-    private CaseImpl lastCase;
+    final AbstractValue type;
+    final AbstractValue value;
+    final BasicBlockImpl defaultTarget;
+    CaseImpl lastCase;
 
     SwitchImpl(final AbstractValue type, final AbstractValue value, final BasicBlockImpl defaultTarget) {
         super();
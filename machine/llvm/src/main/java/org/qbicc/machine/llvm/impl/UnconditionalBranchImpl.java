@@ -3,7 +3,7 @@ package org.qbicc.machine.llvm.impl;
 import java.io.IOException;
 
 final class UnconditionalBranchImpl extends AbstractBranch {
-    private final BasicBlockImpl dest;
+    final BasicBlockImpl dest;
 
     UnconditionalBranchImpl(final BasicBlockImpl dest) {
         super();
@@ -3,9 +3,9 @@ package org.qbicc.machine.llvm.impl;
 import java.io.IOException;
 
 final class VaArg extends AbstractYieldingInstruction {
-    private final AbstractValue vaListType;
-    private final AbstractValue vaList;
-    private final AbstractValue outputType;
+    final AbstractValue vaListType;
+    final AbstractValue vaList;
+    final AbstractValue outputType;
 
     VaArg(BasicBlockImpl block, AbstractValue vaListType, AbstractValue vaList, AbstractValue outputType) {
         super(block);
@@ -4,8 +4,8 @@ import java.io.IOException;
 
 final class ValueReturn extends AbstractReturn {
 
-    private final AbstractValue type;
-    private final AbstractValue val;
+    final AbstractValue type;
+    final AbstractValue val;
 
     ValueReturn(final AbstractValue type, final AbstractValue val) {
         super();
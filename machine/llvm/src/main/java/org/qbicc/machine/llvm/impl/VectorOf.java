@@ -6,9 +6,9 @@ import java.io.IOException;
  *
  */
 final class VectorOf extends AbstractValue {
-    private final int dimension;
-    private final AbstractValue elementType;
-    private final boolean vscale;
+    final int dimension;
+    final AbstractValue elementType;
+    final boolean vscale;
 
     VectorOf(final int dimension, final AbstractValue elementType, final boolean vscale) {
         this.dimension = dimension;
@@ -0,0 +1,263 @@
+package org.qbicc.machine.llvm.impl;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.qbicc.machine.llvm.Types.*;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.qbicc.machine.llvm.FloatCondition;
+import org.qbicc.machine.llvm.Function;
+import org.qbicc.machine.llvm.FunctionDefinition;
+import org.qbicc.machine.llvm.IntCondition;
+import org.qbicc.machine.llvm.LLBasicBlock;
+import org.qbicc.machine.llvm.LLBuilder;
+import org.qbicc.machine.llvm.LLValue;
+import org.qbicc.machine.llvm.Module;
+import org.qbicc.machine.llvm.ModuleFlagBehavior;
+import org.qbicc.machine.llvm.UnsupportedBitcodeException;
+import org.qbicc.machine.llvm.Values;
+import org.qbicc.machine.llvm.debuginfo.DebugEmissionKind;
+import org.qbicc.machine.llvm.op.Call;
+import org.qbicc.machine.llvm.op.Phi;
+
+/**
+ * Round trip tests of the bitcode writer, which decode the bitcode of a module and compare it with the textual IR of
+ * the same module.  When {@code llvm-dis} is available, its disassembly of the bitcode is compared as well, and when
+ * {@code opt} is available, it verifies the bitcode.
+ */
+public class BitcodeRoundTripTest {
+    @Test
+    public void testGlobals() throws IOException {
+        ModuleSummary summary = assertRoundTrip(globalsModule());
+        assertEquals(List.of(
+            "global @counter i32 42",
+            "constant @table [4 x i8] c\"\\01\\02AB\"",
+            "global @counterPtr i32* @counter",
+            "global @pair %Pair zeroinitializer",
+            "global @external i64"
+        ), summary.code());
+    }
+
+    @Test
+    public void testLoop() throws IOException {
+        ModuleSummary summary = assertRoundTrip(loopModule());
+        assertEquals(List.of(
+            "declare @callee i32 (i32)",
+            "define @sum i64 (i32*, i32) blocks 4",
+            "  alloca i32",
+            "  store",
+            "  br 1",
+            "  phi i32 from 0 2",
+            "  icmp slt",
+            "  br 2 3",
+            "  getelementptr i32 2",
+            "  load i32",
+            "  call @callee",
+            "  load i32",
+            "  binop add",
+            "  store",
+            "  binop add",
+            "  br 1",
+            "  load i32",
+            "  cast sext i64",
+            "  ret value"
+        ), summary.code());
+    }
+
+    @Test
+    public void testFloatingPoint() throws IOException {
+        ModuleSummary summary = assertRoundTrip(floatingPointModule());
+        assertTrue(summary.code().containsAll(List.of("  fcmp olt", "  binop add", "  cast sitofp double", "  select", "  unreachable")), summary.code().toString());
+    }
+
+    @Test
+    public void testDebugInfo() throws IOException {
+        ModuleSummary summary = assertRoundTrip(debugInfoModule());
+        assertTrue(summary.code().containsAll(List.of("  call @sum @11:5", "  ret value @12:7")), summary.code().toString());
+        assertTrue(summary.metadata().containsAll(List.of("string Test.java", "node DISubprogram", "named !llvm.dbg.cu 1")), summary.metadata().toString());
+    }
+
+    @Test
+    public void testLlvmDis(@TempDir Path dir) throws IOException, InterruptedException {
+        Assumptions.assumeTrue(toolAvailable("llvm-dis"), "llvm-dis is not available");
+        for (Module module : List.of(globalsModule(), loopModule(), floatingPointModule(), debugInfoModule())) {
+            Path bitcode = dir.resolve("module.bc");
+            Files.write(bitcode, bitcode(module));
+            Process process = new ProcessBuilder("llvm-dis", "-o", "-", bitcode.toString()).redirectErrorStream(true).start();
+            String disassembly = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            assertEquals(0, process.waitFor(), disassembly);
+            // newer versions of LLVM read every pointer type as an opaque pointer
+            assertEquals(ModuleSummary.fromText(text(module), true).code(), ModuleSummary.fromText(disassembly, true).code());
+        }
+    }
+
+    @Test
+    public void testOptVerify(@TempDir Path dir) throws IOException, InterruptedException {
+        Assumptions.assumeTrue(toolAvailable("opt"), "opt is not available");
+        for (Module module : List.of(globalsModule(), loopModule(), floatingPointModule(), debugInfoModule())) {
+            Path bitcode = dir.resolve("module.bc");
+            Files.write(bitcode, bitcode(module));
+            Process process = new ProcessBuilder("opt", "-verify", "-disable-output", bitcode.toString()).redirectErrorStream(true).start();
+            String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            assertEquals(0, process.waitFor(), output);
+        }
+    }
+
+    @Test
+    public void testUnsupported() {
+        final Module module = Module.newModule();
+        LLValue file = module.diFile("Test.kt", "/tmp").asRef();
+        module.diCompileUnit("DW_LANG_Kotlin", file, DebugEmissionKind.FullDebug).producer("qbicc").asRef();
+        UnsupportedBitcodeException e = assertThrows(UnsupportedBitcodeException.class, () -> bitcode(module));
+        assertEquals("Unsupported language DW_LANG_Kotlin", e.getMessage());
+    }
+
+    private static ModuleSummary assertRoundTrip(Module module) throws IOException {
+        String text = text(module);
+        ModuleSummary expected = ModuleSummary.fromText(text, false);
+        ModuleSummary actual = ModuleSummary.fromBitcode(bitcode(module), false);
+        assertEquals(expected.code(), actual.code(), text);
+        assertEquals(expected.metadata(), actual.metadata(), text);
+        return actual;
+    }
+
+    private static String text(Module module) throws IOException {
+        StringWriter stringWriter = new StringWriter();
+        try (BufferedWriter writer = new BufferedWriter(stringWriter)) {
+            module.writeTo(writer);
+        }
+        return stringWriter.toString();
+    }
+
+    private static byte[] bitcode(Module module) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        module.writeBitcodeTo(os);
+        return os.toByteArray();
+    }
+
+    private static boolean toolAvailable(String tool) {
+        try {
+            Process process = new ProcessBuilder(tool, "--version").redirectErrorStream(true).start();
+            process.getInputStream().readAllBytes();
+            return process.waitFor(30, TimeUnit.SECONDS) && process.exitValue() == 0;
+        } catch (IOException | InterruptedException e) {
+            return false;
+        }
+    }
+
+    private static Module globalsModule() {
+        final Module module = Module.newModule();
+        LLValue pair = module.identifiedType("Pair").type(structType(false).member(i32, "a").member(i64, "b")).asTypeRef();
+        module.global(i32).value(Values.intConstant(42)).asGlobal("counter");
+        module.constant(array(4, i8)).value(Values.byteArray(new byte[] { 1, 2, 'A', 'B' })).asGlobal("table");
+        module.global(ptrTo(i32)).value(Values.global("counter")).asGlobal("counterPtr");
+        module.global(pair).value(Values.zeroinitializer).asGlobal("pair");
+        module.global(i64).asGlobal("external");
+        return module;
+    }
+
+    private static Module loopModule() {
+        final Module module = Module.newModule();
+        declareCallee(module);
+        defineSum(module);
+        return module;
+    }
+
+    private static Function declareCallee(Module module) {
+        final Function callee = module.declare("callee");
+        callee.returns(i32);
+        callee.param(i32);
+        return callee;
+    }
+
+    /**
+     * Define a function which sums the result of calling {@code callee} on each element of an array, with a loop and
+     * an accumulator on the stack.
+     */
+    private static FunctionDefinition defineSum(Module module) {
+        final FunctionDefinition sum = module.define("sum");
+        sum.returns(i64);
+        LLValue p = sum.param(ptrTo(i32)).name("p").asValue();
+        LLValue n = sum.param(i32).name("n").asValue();
+        LLBasicBlock entry = sum.getRootBlock();
+        LLBasicBlock loop = sum.createBlock();
+        LLBasicBlock body = sum.createBlock();
+        LLBasicBlock exit = sum.createBlock();
+        LLBuilder b = LLBuilder.newBuilder(entry);
+        LLValue acc = b.alloca(i32).asLocal("acc");
+        b.store(ptrTo(i32), Values.ZERO, i32, acc);
+        b.br(loop);
+        b.moveToBlock(loop);
+        Phi phi = b.phi(i32);
+        LLValue i = phi.asLocal("i");
+        LLValue cond = b.icmp(IntCondition.slt, i32, i, n).asLocal("cond");
+        b.br(cond, body, exit);
+        b.moveToBlock(body);
+        LLValue elemPtr = b.getelementptr(i32, ptrTo(i32), p).arg(false, i32, i).asLocal("elemPtr");
+        LLValue elem = b.load(ptrTo(i32), i32, elemPtr).asLocal("elem");
+        Call call = b.call(function(i32, List.of(i32), false), Values.global("callee"));
+        call.arg(i32, elem);
+        LLValue mapped = call.asLocal("mapped");
+        LLValue old = b.load(ptrTo(i32), i32, acc).asLocal("old");
+        b.store(ptrTo(i32), b.add(i32, old, mapped).asLocal("new"), i32, acc);
+        LLValue next = b.add(i32, i, Values.intConstant(1)).asLocal("next");
+        b.br(loop);
+        phi.item(Values.ZERO, entry).item(next, body);
+        b.moveToBlock(exit);
+        LLValue result = b.load(ptrTo(i32), i32, acc).asLocal("result");
+        b.ret(i64, b.sext(i32, result, i64).asLocal("wide"));
+        return sum;
+    }
+
+    private static Module floatingPointModule() {
+        final Module module = Module.newModule();
+        final FunctionDefinition clamp = module.define("clamp");
+        clamp.returns(float64);
+        LLValue x = clamp.param(i32).name("x").asValue();
+        LLValue limit = clamp.param(float64).name("limit").asValue();
+        LLBasicBlock entry = clamp.getRootBlock();
+        LLBasicBlock dead = clamp.createBlock();
+        LLBuilder b = LLBuilder.newBuilder(entry);
+        LLValue converted = b.sitofp(i32, x, float64).asLocal("converted");
+        LLValue half = b.fadd(float64, converted, Values.floatConstant(0.5)).asLocal("half");
+        LLValue less = b.fcmp(FloatCondition.olt, float64, half, limit).asLocal("less");
+        b.ret(float64, b.select(i1, less, float64, half, limit).asLocal("clamped"));
+        b.moveToBlock(dead);
+        b.unreachable();
+        return module;
+    }
+
+    private static Module debugInfoModule() {
+        final Module module = Module.newModule();
+        module.global(ptrTo(i32)).value(Values.NULL).asGlobal("data");
+        declareCallee(module);
+        defineSum(module);
+        LLValue file = module.diFile("Test.java", "/tmp").asRef();
+        LLValue unit = module.diCompileUnit("DW_LANG_C_plus_plus", file, DebugEmissionKind.FullDebug).producer("qbicc").asRef();
+        LLValue types = module.metadataTuple().elem(null, null).asRef();
+        LLValue subprogram = module.diSubprogram("main", module.diSubroutineType(types).asRef(), unit).location(file, 10, 10).asRef();
+        module.addFlag(ModuleFlagBehavior.Warning, "Debug Info Version", i32, Values.intConstant(3));
+        final FunctionDefinition main = module.define("main").meta("dbg", subprogram);
+        main.returns(i32);
+        LLBuilder b = LLBuilder.newBuilder(main.getRootBlock());
+        b.setDebugLocation(module.diLocation(11, 5, subprogram, null).asRef());
+        LLValue loaded = b.load(ptrTo(ptrTo(i32)), ptrTo(i32), Values.global("data")).asLocal("loaded");
+        Call call = b.call(function(i64, List.of(ptrTo(i32), i32), false), Values.global("sum"));
+        call.arg(ptrTo(i32), loaded).arg(i32, Values.intConstant(1));
+        LLValue count = call.asLocal("count");
+        b.setDebugLocation(module.diLocation(12, 7, subprogram, null).asRef());
+        b.ret(i32, b.trunc(i64, count, i32).asLocal("narrow"));
+        return module;
+    }
+}
@@ -0,0 +1,232 @@
+package org.qbicc.machine.llvm.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A reader for the LLVM bitstream container format, which decodes a stream into its tree of blocks and records.  The
+ * block lengths which are written ahead of each block are checked against the actual contents.
+ */
+final class BitstreamReader {
+    private static final String CHAR6 = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789._";
+
+    private final byte[] bytes;
+    private final long limit;
+    private long position;
+    private final Map<Integer, List<Abbrev>> blockInfo = new HashMap<>();
+
+    BitstreamReader(byte[] bytes, int offset) {
+        if ((bytes.length & 3) != 0) {
+            throw new IllegalArgumentException("Stream is not a whole number of words");
+        }
+        this.bytes = bytes;
+        this.limit = (long) bytes.length << 3;
+        this.position = (long) offset << 3;
+    }
+
+    /**
+     * Read every block of the stream up to its end.
+     *
+     * @param abbrevWidth the abbreviation width of the top level
+     * @return the top level blocks
+     */
+    List<Block> readAll(int abbrevWidth) {
+        List<Block> list = new ArrayList<>();
+        while (position < limit) {
+            int abbrevId = (int) read(abbrevWidth);
+            if (abbrevId != BitstreamWriter.ENTER_SUBBLOCK) {
+                throw new IllegalStateException("Expected a block at the top level, got abbreviation " + abbrevId);
+            }
+            list.add(readBlock());
+        }
+        return list;
+    }
+
+    private Block readBlock() {
+        int blockId = (int) readVBR(8);
+        int width = (int) readVBR(4);
+        alignToWord();
+        long words = read(32);
+        long end = position + (words << 5);
+        if (end > limit) {
+            throw new IllegalStateException("Block " + blockId + " extends past the end of the stream");
+        }
+        Block block = new Block(blockId, new ArrayList<>());
+        List<Abbrev> abbrevs = new ArrayList<>(blockInfo.getOrDefault(Integer.valueOf(blockId), List.of()));
+        int infoTarget = -1;
+        for (;;) {
+            int abbrevId = (int) read(width);
+            switch (abbrevId) {
+                case BitstreamWriter.END_BLOCK -> {
+                    alignToWord();
+                    if (position != end) {
+                        throw new IllegalStateException("Block " + blockId + " ends at bit " + position + " but its length gives " + end);
+                    }
+                    return block;
+                }
+                case BitstreamWriter.ENTER_SUBBLOCK -> block.items.add(readBlock());
+                case BitstreamWriter.DEFINE_ABBREV -> {
+                    Abbrev abbrev = readAbbrev();
+                    if (blockId == BitstreamWriter.BLOCKINFO_BLOCK_ID) {
+                        if (infoTarget == -1) {
+                            throw new IllegalStateException("Block information abbreviation without a block ID");
+                        }
+                        blockInfo.computeIfAbsent(Integer.valueOf(infoTarget), k -> new ArrayList<>()).add(abbrev);
+                    } else {
+                        abbrevs.add(abbrev);
+                    }
+                }
+                case BitstreamWriter.UNABBREV_RECORD -> {
+                    int code = (int) readVBR(6);
+                    long[] ops = new long[(int) readVBR(6)];
+                    for (int i = 0; i < ops.length; i ++) {
+                        ops[i] = readVBR(6);
+                    }
+                    Record record = new Record(code, ops, null);
+                    if (blockId == BitstreamWriter.BLOCKINFO_BLOCK_ID && code == BitstreamWriter.BLOCKINFO_CODE_SETBID) {
+                        infoTarget = (int) ops[0];
+                    }
+                    block.items.add(record);
+                }
+                default -> {
+                    int index = abbrevId - BitstreamWriter.FIRST_APPLICATION_ABBREV;
+                    if (index >= abbrevs.size()) {
+                        throw new IllegalStateException("Undefined abbreviation " + abbrevId + " in block " + blockId);
+                    }
+                    block.items.add(readAbbreviatedRecord(abbrevs.get(index)));
+                }
+            }
+        }
+    }
+
+    private Abbrev readAbbrev() {
+        int count = (int) readVBR(5);
+        List<BitstreamWriter.Op> ops = new ArrayList<>(count);
+        for (int i = 0; i < count; i ++) {
+            if (read(1) == 1) {
+                ops.add(BitstreamWriter.Op.literal(readVBR(8)));
+            } else {
+                BitstreamWriter.Encoding encoding = BitstreamWriter.Encoding.values()[(int) read(3)];
+                long value = encoding == BitstreamWriter.Encoding.FIXED || encoding == BitstreamWriter.Encoding.VBR ? readVBR(5) : 0;
+                ops.add(new BitstreamWriter.Op(encoding, value));
+            }
+        }
+        return new Abbrev(ops);
+    }
+
+    private Record readAbbreviatedRecord(Abbrev abbrev) {
+        List<Long> values = new ArrayList<>();
+        byte[] blob = null;
+        List<BitstreamWriter.Op> ops = abbrev.ops;
+        for (int i = 0; i < ops.size(); i ++) {
+            BitstreamWriter.Op op = ops.get(i);
+            switch (op.encoding()) {
+                case ARRAY -> {
+                    BitstreamWriter.Op elem = ops.get(++ i);
+                    long length = readVBR(6);
+                    for (long j = 0; j < length; j ++) {
+                        values.add(Long.valueOf(readScalar(elem)));
+                    }
+                }
+                case BLOB -> {
+                    int length = (int) readVBR(6);
+                    alignToWord();
+                    blob = new byte[length];
+                    System.arraycopy(bytes, (int) (position >>> 3), blob, 0, length);
+                    position += (long) length << 3;
+                    alignToWord();
+                }
+                default -> values.add(Long.valueOf(readScalar(op)));
+            }
+        }
+        long[] operands = new long[values.size() - 1];
+        for (int i = 0; i < operands.length; i ++) {
+            operands[i] = values.get(i + 1).longValue();
+        }
+        return new Record(values.get(0).intValue(), operands, blob);
+    }
+
+    private long readScalar(BitstreamWriter.Op op) {
+        return switch (op.encoding()) {
+            case LITERAL -> op.value();
+            case FIXED -> read((int) op.value());
+            case VBR -> readVBR((int) op.value());
+            case CHAR6 -> CHAR6.charAt((int) read(6));
+            default -> throw new IllegalStateException("Invalid scalar operand encoding " + op.encoding());
+        };
+    }
+
+    long read(int width) {
+        if (position + width > limit) {
+            throw new IllegalStateException("Read past the end of the stream");
+        }
+        long value = 0;
+        for (int i = 0; i < width; i ++) {
+            long bit = position + i;
+            value |= (long) (bytes[(int) (bit >>> 3)] >>> (bit & 7) & 1) << i;
+        }
+        position += width;
+        return value;
+    }
+
+    long readVBR(int width) {
+        long threshold = 1L << (width - 1);
+        long value = 0;
+        int shift = 0;
+        long chunk;
+        do {
+            chunk = read(width);
+            value |= (chunk & (threshold - 1)) << shift;
+            shift += width - 1;
+        } while ((chunk & threshold) != 0);
+        return value;
+    }
+
+    void alignToWord() {
+        position = (position + 31) & ~31L;
+    }
+
+    private record Abbrev(List<BitstreamWriter.Op> ops) {}
+
+    record Block(int id, List<Object> items) {
+        List<Block> blocks(int id) {
+            List<Block> list = new ArrayList<>();
+            for (Object item : items) {
+                if (item instanceof Block block && block.id == id) {
+                    list.add(block);
+                }
+            }
+            return list;
+        }
+
+        Block block(int id) {
+            List<Block> list = blocks(id);
+            if (list.size() != 1) {
+                throw new IllegalStateException("Expected one block " + id + " but found " + list.size());
+            }
+            return list.get(0);
+        }
+
+        List<Record> records() {
+            List<Record> list = new ArrayList<>();
+            for (Object item : items) {
+                if (item instanceof Record record) {
+                    list.add(record);
+                }
+            }
+            return list;
+        }
+    }
+
+    record Record(int code, long[] ops, byte[] blob) {
+        String chars(int from) {
+            StringBuilder b = new StringBuilder();
+            for (int i = from; i < ops.length; i ++) {
+                b.append((char) ops[i]);
+            }
+            return b.toString();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.qbicc.machine.llvm.impl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.qbicc.machine.llvm.impl.BitstreamWriter.Abbrev;
+import org.qbicc.machine.llvm.impl.BitstreamWriter.Op;
+import org.qbicc.machine.llvm.impl.BitstreamWriter.Record;
+
+/**
+ * Round trip tests of the bitstream writer, which read the written stream back with {@link BitstreamReader}.
+ */
+public class BitstreamWriterTest {
+    @Test
+    public void testUnabbreviatedRecord() {
+        BitstreamWriter out = new BitstreamWriter();
+        out.enterBlock(8, 3);
+        long[] values = { 0, 31, 32, 1L << 40, -1L, Integer.MAX_VALUE };
+        out.emitRecord(5, values, values.length);
+        out.emitRecord(6, new Record().addSigned(-7).addSigned(7));
+        out.exitBlock();
+
+        List<BitstreamReader.Record> records = readSingleBlock(out, 8).records();
+        assertEquals(2, records.size());
+        assertEquals(5, records.get(0).code());
+        assertArrayEquals(values, records.get(0).ops());
+        assertArrayEquals(new long[] { 15, 14 }, records.get(1).ops());
+    }
+
+    @Test
+    public void testAbbreviatedRecords() {
+        BitstreamWriter out = new BitstreamWriter();
+        out.enterBlock(8, 4);
+        int fixed = out.defineAbbrev(new Abbrev(Op.literal(3), Op.fixed(3), Op.vbr(6), Op.fixed(32)));
+        int chars = out.defineAbbrev(new Abbrev(Op.fixed(4), Op.array(), Op.char6()));
+        int blob = out.defineAbbrev(new Abbrev(Op.literal(9), Op.vbr(6), Op.blob()));
+        out.emitRecord(fixed, 3, new Record().add(5).add(1000).add(0xFFFF_FFFFL), null);
+        out.emitRecord(chars, 12, new Record().addChars("llvm.dbg_cu".getBytes(StandardCharsets.UTF_8)), null);
+        out.emitRecord(blob, 9, new Record().add(77), new byte[] { 1, 2, 3, 4, 5 });
+        // records after the blob must be read from the following word
+        out.emitRecord(fixed, 3, new Record().add(7).add(0).add(1), null);
+        out.exitBlock();
+
+        List<BitstreamReader.Record> records = readSingleBlock(out, 8).records();
+        assertEquals(4, records.size());
+        assertEquals(3, records.get(0).code());
+        assertArrayEquals(new long[] { 5, 1000, 0xFFFF_FFFFL }, records.get(0).ops());
+        assertEquals(12, records.get(1).code());
+        assertEquals("llvm.dbg_cu", records.get(1).chars(0));
+        assertEquals(9, records.get(2).code());
+        assertArrayEquals(new long[] { 77 }, records.get(2).ops());
+        assertArrayEquals(new byte[] { 1, 2, 3, 4, 5 }, records.get(2).blob());
+        assertArrayEquals(new long[] { 7, 0, 1 }, records.get(3).ops());
+    }
+
+    @Test
+    public void testNestedBlocks() {
+        BitstreamWriter out = new BitstreamWriter();
+        out.enterBlock(8, 3);
+        out.emitRecord(1, new Record().add(2));
+        out.enterBlock(17, 5);
+        out.emitRecord(7, new Record().add(32));
+        out.enterBlock(11, 2);
+        out.exitBlock();
+        out.exitBlock();
+        out.emitRecord(3, new Record().add(4));
+        out.exitBlock();
+
+        BitstreamReader.Block module = readSingleBlock(out, 8);
+        assertEquals(3, module.items().size());
+        assertArrayEquals(new long[] { 32 }, module.block(17).records().get(0).ops());
+        assertTrue(module.block(17).block(11).items().isEmpty());
+        assertArrayEquals(new long[] { 4 }, module.records().get(1).ops());
+    }
+
+    @Test
+    public void testBlockInfoAbbreviation() {
+        BitstreamWriter out = new BitstreamWriter();
+        out.enterBlock(BitstreamWriter.BLOCKINFO_BLOCK_ID, 2);
+        int abbrev = out.defineBlockInfoAbbrev(12, new Abbrev(Op.literal(20), Op.vbr(4), Op.fixed(1)));
+        out.exitBlock();
+        out.enterBlock(12, 4);
+        int local = out.defineAbbrev(new Abbrev(Op.literal(21), Op.vbr(8)));
+        out.emitRecord(abbrev, 20, new Record().add(100).add(1), null);
+        out.emitRecord(local, 21, new Record().add(300), null);
+        out.exitBlock();
+
+        List<BitstreamReader.Block> blocks = new BitstreamReader(out.toByteArray(), 0).readAll(2);
+        assertEquals(2, blocks.size());
+        List<BitstreamReader.Record> records = blocks.get(1).records();
+        assertEquals(20, records.get(0).code());
+        assertArrayEquals(new long[] { 100, 1 }, records.get(0).ops());
+        assertEquals(21, records.get(1).code());
+        assertArrayEquals(new long[] { 300 }, records.get(1).ops());
+    }
+
+    @Test
+    public void testAppendedStream() {
+        // a nested stream uses the abbreviations which the enclosing stream defines in its block information block
+        BitstreamWriter body = new BitstreamWriter(3);
+        Abbrev abbrev = new Abbrev(Op.literal(2), Op.vbr(6), Op.vbr(6));
+        int abbrevId = body.registerBlockInfoAbbrev(12, abbrev);
+        body.enterBlock(12, 4);
+        body.emitRecord(abbrevId, 2, new Record().add(40).add(41), null);
+        body.exitBlock();
+
+        BitstreamWriter out = new BitstreamWriter();
+        out.enterBlock(8, 3);
+        out.enterBlock(BitstreamWriter.BLOCKINFO_BLOCK_ID, 2);
+        out.defineBlockInfoAbbrev(12, abbrev);
+        out.exitBlock();
+        out.writeBytes(body.toByteArray());
+        out.exitBlock();
+
+        BitstreamReader.Block function = readSingleBlock(out, 8).block(12);
+        assertArrayEquals(new long[] { 40, 41 }, function.records().get(0).ops());
+    }
+
+    private static BitstreamReader.Block readSingleBlock(BitstreamWriter out, int blockId) {
+        List<BitstreamReader.Block> blocks = new BitstreamReader(out.toByteArray(), 0).readAll(2);
+        assertEquals(1, blocks.size());
+        assertEquals(blockId, blocks.get(0).id());
+        return blocks.get(0);
+    }
+}
@@ -0,0 +1,791 @@
+package org.qbicc.machine.llvm.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A structural summary of a module which can be extracted both from bitcode and from textual IR, so that the two
+ * forms of output can be compared.  The summary covers the globals and their initializers, the function declarations
+ * and definitions with their types, the opcode and principal type of every instruction, branch and phi block
+ * numbers, direct call targets, debug locations, and the module metadata strings, node kinds and named nodes.  Value
+ * names and other operands are not part of the summary.
+ *
+ * @param code the globals, functions and instructions, in module order
+ * @param metadata the metadata strings and node kinds, sorted, followed by the named metadata in module order
+ */
+record ModuleSummary(List<String> code, List<String> metadata) {
+
+    private static final String[] BINARY_OPS = { "add", "sub", "mul", "udiv", "sdiv", "urem", "srem", "shl", "lshr", "ashr", "and", "or", "xor" };
+    private static final String[] CAST_OPS = { "trunc", "zext", "sext", "fptoui", "fptosi", "uitofp", "sitofp", "fptrunc", "fpext", "ptrtoint", "inttoptr", "bitcast", "addrspacecast" };
+    private static final String[] FLOAT_CONDITIONS = { "false", "oeq", "ogt", "oge", "olt", "ole", "one", "ord", "uno", "ueq", "ugt", "uge", "ult", "ule", "une", "true" };
+    private static final String[] INT_CONDITIONS = { "eq", "ne", "ugt", "uge", "ult", "ule", "sgt", "sge", "slt", "sle" };
+    // floating point operations share the opcode of their integer counterpart
+    private static final Map<String, String> FLOAT_BINARY_OPS = Map.of("fadd", "add", "fsub", "sub", "fmul", "mul", "fdiv", "sdiv", "frem", "srem");
+    private static final Set<String> TYPE_KEYWORDS = Set.of("void", "half", "float", "double", "fp128", "x86_fp80", "label", "metadata", "token", "ptr", "opaque");
+    private static final Set<Integer> VALUE_INSTRUCTIONS = Set.of(2, 3, 16, 19, 20, 23, 26, 27, 28, 29, 38, 41, 43, 46, 47, 56);
+    private static final Map<Integer, String> METADATA_KINDS = Map.ofEntries(
+        Map.entry(3, "tuple"),
+        Map.entry(5, "tuple"),
+        Map.entry(7, "DILocation"),
+        Map.entry(13, "DISubrange"),
+        Map.entry(15, "DIBasicType"),
+        Map.entry(16, "DIFile"),
+        Map.entry(17, "DIDerivedType"),
+        Map.entry(18, "DICompositeType"),
+        Map.entry(19, "DISubroutineType"),
+        Map.entry(20, "DICompileUnit"),
+        Map.entry(21, "DISubprogram"),
+        Map.entry(27, "DIGlobalVariable"),
+        Map.entry(28, "DILocalVariable")
+    );
+
+    private static final Pattern GLOBAL_NAME = Pattern.compile("@(\"(?:[^\"\\\\]|\\\\.)*\"|[-\\w.$]+)");
+    private static final Pattern STRING = Pattern.compile("\"((?:[^\"\\\\]|\\\\.)*)\"");
+    private static final Pattern LABEL = Pattern.compile("^(\"(?:[^\"\\\\]|\\\\.)*\"|[-\\w.$]+):");
+    private static final Pattern LABEL_REF = Pattern.compile("label %(\"(?:[^\"\\\\]|\\\\.)*\"|[-\\w.$]+)");
+    private static final Pattern DEBUG_LOC = Pattern.compile(",\\s*!dbg !(\\d+)");
+    private static final Pattern LOCATION = Pattern.compile("^!(\\d+) = (?:distinct )?!DILocation\\(line: (\\d+), column: (\\d+)");
+    private static final Pattern NODE = Pattern.compile("^!(\\d+) = (?:distinct )?!(\\w*)[({]");
+    private static final Pattern NAMED_NODE = Pattern.compile("^!([-\\w.$]+) = !\\{(.*)}");
+
+    // =================
+    // Bitcode
+    // =================
+
+    /**
+     * Decode the summary of a bitcode module.
+     *
+     * @param bytes the bitcode
+     * @param opaquePointers {@code true} to render every pointer type as {@code ptr}
+     * @return the summary
+     */
+    static ModuleSummary fromBitcode(byte[] bytes, boolean opaquePointers) {
+        if (bytes.length < 4 || bytes[0] != 'B' || bytes[1] != 'C' || bytes[2] != (byte) 0xC0 || bytes[3] != (byte) 0xDE) {
+            throw new IllegalArgumentException("Not a bitcode file");
+        }
+        List<BitstreamReader.Block> top = new BitstreamReader(bytes, 4).readAll(2);
+        BitstreamReader.Block module = null;
+        byte[] strtab = null;
+        for (BitstreamReader.Block block : top) {
+            if (block.id() == 8) {
+                module = block;
+            } else if (block.id() == 23) {
+                strtab = block.records().get(0).blob();
+            }
+        }
+        if (module == null || strtab == null) {
+            throw new IllegalArgumentException("Module or string table block is missing");
+        }
+        List<TypeRecord> types = new ArrayList<>();
+        String structName = null;
+        for (BitstreamReader.Record record : module.block(17).records()) {
+            if (record.code() == 19) {
+                structName = record.chars(0);
+            } else if (record.code() != 1) {
+                types.add(new TypeRecord(record.code(), record.ops(), structName));
+                structName = null;
+            }
+        }
+        BitcodeDecoder decoder = new BitcodeDecoder(types, opaquePointers);
+
+        List<BitstreamReader.Record> globals = new ArrayList<>();
+        List<BitstreamReader.Record> functions = new ArrayList<>();
+        for (BitstreamReader.Record record : module.records()) {
+            if (record.code() == 7 || record.code() == 8) {
+                long[] ops = record.ops();
+                decoder.valueNames.add(new String(strtab, (int) ops[0], (int) ops[1], StandardCharsets.UTF_8));
+                (record.code() == 7 ? globals : functions).add(record);
+            }
+        }
+        List<BitstreamReader.Block> moduleConstants = module.blocks(11);
+        if (! moduleConstants.isEmpty()) {
+            decoder.constants.addAll(decoder.constants(moduleConstants.get(0)));
+        }
+        int moduleValueCount = decoder.valueNames.size() + decoder.constants.size();
+
+        List<String> code = new ArrayList<>();
+        int valueIndex = 0;
+        for (BitstreamReader.Record global : globals) {
+            long[] ops = global.ops();
+            StringBuilder b = new StringBuilder();
+            b.append((ops[3] & 1) != 0 ? "constant" : "global").append(" @").append(decoder.valueNames.get(valueIndex ++));
+            b.append(' ').append(decoder.type((int) ops[2]));
+            if (ops[4] != 0) {
+                b.append(' ').append(decoder.value((int) ops[4] - 1));
+            }
+            code.add(b.toString());
+        }
+        List<BitstreamReader.Block> bodies = module.blocks(12);
+        int bodyIndex = 0;
+        for (BitstreamReader.Record function : functions) {
+            long[] ops = function.ops();
+            String name = decoder.valueNames.get(valueIndex ++);
+            boolean declaration = ops[4] != 0;
+            if (declaration) {
+                code.add("declare @" + name + " " + decoder.type((int) ops[2]));
+            } else {
+                decoder.function(code, name, (int) ops[2], bodies.get(bodyIndex ++), moduleValueCount);
+            }
+        }
+        if (bodyIndex != bodies.size()) {
+            throw new IllegalStateException("There are more function blocks than definitions");
+        }
+
+        List<String> strings = new ArrayList<>();
+        List<String> kinds = new ArrayList<>();
+        List<String> named = new ArrayList<>();
+        for (BitstreamReader.Block metadata : module.blocks(15)) {
+            String pendingName = null;
+            for (BitstreamReader.Record record : metadata.records()) {
+                switch (record.code()) {
+                    case 35 -> {
+                        BitstreamReader lengths = new BitstreamReader(Arrays.copyOf(record.blob(), (int) record.ops()[1]), 0);
+                        int offset = (int) record.ops()[1];
+                        for (long i = 0; i < record.ops()[0]; i ++) {
+                            int length = (int) lengths.readVBR(6);
+                            strings.add("string " + new String(record.blob(), offset, length, StandardCharsets.UTF_8));
+                            offset += length;
+                        }
+                    }
+                    case 4 -> pendingName = record.chars(0);
+                    case 10 -> named.add("named !" + pendingName + " " + record.ops().length);
+                    default -> {
+                        String kind = METADATA_KINDS.get(Integer.valueOf(record.code()));
+                        if (kind != null) {
+                            kinds.add("node " + kind);
+                        }
+                    }
+                }
+            }
+        }
+        return new ModuleSummary(code, metadata(strings, kinds, named));
+    }
+
+    private record TypeRecord(int code, long[] ops, String name) {}
+
+    private static final class BitcodeDecoder {
+        final List<TypeRecord> types;
+        final boolean opaquePointers;
+        final List<String> valueNames = new ArrayList<>();
+        final List<String> constants = new ArrayList<>();
+
+        BitcodeDecoder(List<TypeRecord> types, boolean opaquePointers) {
+            this.types = types;
+            this.opaquePointers = opaquePointers;
+        }
+
+        String type(int id) {
+            TypeRecord type = types.get(id);
+            long[] ops = type.ops;
+            return switch (type.code) {
+                case 2 -> "void";
+                case 3 -> "float";
+                case 4 -> "double";
+                case 5 -> "label";
+                case 6, 20 -> "%" + type.name;
+                case 7 -> "i" + ops[0];
+                case 8 -> pointer(opaquePointers ? null : type((int) ops[0]), ops.length > 1 ? (int) ops[1] : 0);
+                case 10 -> "half";
+                case 11 -> "[" + ops[0] + " x " + type((int) ops[1]) + "]";
+                case 12 -> "<" + (ops.length > 2 && ops[2] != 0 ? "vscale x " : "") + ops[0] + " x " + type((int) ops[1]) + ">";
+                case 14 -> "fp128";
+                case 16 -> "metadata";
+                case 18 -> struct(ops[0] != 0, Arrays.copyOfRange(ops, 1, ops.length));
+                case 21 -> function(type((int) ops[1]), Arrays.copyOfRange(ops, 2, ops.length), ops[0] != 0);
+                case 22 -> "token";
+                case 25 -> pointer(null, ops.length > 0 ? (int) ops[0] : 0);
+                default -> "type" + type.code;
+            };
+        }
+
+        private String pointer(String pointee, int addressSpace) {
+            String space = addressSpace == 0 ? "" : " addrspace(" + addressSpace + ")";
+            return pointee == null ? "ptr" + space : pointee + space + "*";
+        }
+
+        private String struct(boolean packed, long[] members) {
+            List<String> list = new ArrayList<>();
+            for (long member : members) {
+                list.add(type((int) member));
+            }
+            return structType(packed, list);
+        }
+
+        private String function(String returnType, long[] params, boolean variadic) {
+            List<String> list = new ArrayList<>();
+            for (long param : params) {
+                list.add(type((int) param));
+            }
+            return functionType(returnType, list, variadic);
+        }
+
+        String value(int id) {
+            return id < valueNames.size() ? "@" + valueNames.get(id) : constants.get(id - valueNames.size());
+        }
+
+        List<String> constants(BitstreamReader.Block block) {
+            List<String> list = new ArrayList<>();
+            int type = -1;
+            for (BitstreamReader.Record record : block.records()) {
+                long[] ops = record.ops();
+                switch (record.code()) {
+                    case 1 -> type = (int) ops[0];
+                    case 2 -> list.add(types.get(type).code == 8 || types.get(type).code == 25 ? "null" : "zeroinitializer");
+                    case 3 -> list.add("undef");
+                    case 4 -> list.add(Long.toString(signed(ops[0])));
+                    case 8, 9 -> {
+                        byte[] contents = new byte[ops.length + (record.code() == 9 ? 1 : 0)];
+                        for (int i = 0; i < ops.length; i ++) {
+                            contents[i] = (byte) ops[i];
+                        }
+                        list.add(byteArray(contents));
+                    }
+                    default -> list.add("constant" + record.code());
+                }
+            }
+            return list;
+        }
+
+        void function(List<String> code, String name, int typeId, BitstreamReader.Block body, int moduleValueCount) {
+            TypeRecord fnType = types.get(typeId);
+            int nextValue = moduleValueCount + fnType.ops.length - 2;
+            List<BitstreamReader.Block> constantBlocks = body.blocks(11);
+            if (! constantBlocks.isEmpty()) {
+                nextValue += constants(constantBlocks.get(0)).size();
+            }
+            List<String> instructions = new ArrayList<>();
+            long blocks = 0;
+            String location = null;
+            for (BitstreamReader.Record record : body.records()) {
+                int recordCode = record.code();
+                long[] ops = record.ops();
+                if (recordCode == 1) {
+                    blocks = ops[0];
+                } else if (recordCode == 35 || recordCode == 33) {
+                    if (recordCode == 35) {
+                        location = " @" + ops[0] + ":" + ops[1];
+                    }
+                    int last = instructions.size() - 1;
+                    instructions.set(last, instructions.get(last) + location);
+                } else {
+                    instructions.add("  " + instruction(recordCode, ops, nextValue));
+                    if (VALUE_INSTRUCTIONS.contains(Integer.valueOf(recordCode)) || (recordCode == 34 || recordCode == 13) && callReturnsValue(recordCode, ops)) {
+                        nextValue ++;
+                    }
+                }
+            }
+            code.add("define @" + name + " " + type(typeId) + " blocks " + blocks);
+            code.addAll(instructions);
+        }
+
+        private String instruction(int recordCode, long[] ops, int valueId) {
+            return switch (recordCode) {
+                case 2 -> "binop " + BINARY_OPS[(int) ops[skipValue(ops, 0) + 1]];
+                case 3 -> {
+                    int i = skipValue(ops, 0);
+                    yield "cast " + CAST_OPS[(int) ops[i + 1]] + " " + type((int) ops[i]);
+                }
+                case 28 -> {
+                    int predicate = (int) ops[skipValue(ops, 0) + 1];
+                    yield predicate >= 32 ? "icmp " + INT_CONDITIONS[predicate - 32] : "fcmp " + FLOAT_CONDITIONS[predicate];
+                }
+                case 20, 41 -> "load " + type((int) ops[skipValue(ops, 0)]);
+                case 44, 45 -> "store";
+                case 19 -> "alloca " + type((int) ops[0]);
+                case 43 -> {
+                    int count = 0;
+                    for (int i = 2; i < ops.length; i = skipValue(ops, i)) {
+                        count ++;
+                    }
+                    yield "getelementptr " + type((int) ops[1]) + " " + count;
+                }
+                case 16 -> {
+                    StringBuilder b = new StringBuilder("phi ").append(type((int) ops[0])).append(" from");
+                    for (int i = 2; i < ops.length; i += 2) {
+                        b.append(' ').append(ops[i]);
+                    }
+                    yield b.toString();
+                }
+                case 11 -> ops.length == 1 ? "br " + ops[0] : "br " + ops[0] + " " + ops[1];
+                case 10 -> ops.length == 0 ? "ret void" : "ret value";
+                case 34 -> {
+                    long cc = ops[1];
+                    int i = 2 + ((cc & 1 << 17) != 0 ? 1 : 0) + ((cc & 1 << 15) != 0 ? 1 : 0);
+                    int callee = (int) (valueId - ops[i]);
+                    yield callee >= 0 && callee < valueNames.size() ? "call @" + valueNames.get(callee) : "call";
+                }
+                case 12 -> "switch";
+                case 13 -> "invoke";
+                case 15 -> "unreachable";
+                case 23 -> "va_arg";
+                case 26 -> "extractvalue";
+                case 27 -> "insertvalue";
+                case 29 -> "select";
+                case 36 -> "fence";
+                case 38 -> "atomicrmw";
+                case 46 -> "cmpxchg";
+                case 47 -> "landingpad";
+                case 56 -> "fneg";
+                default -> "instruction" + recordCode;
+            };
+        }
+
+        private boolean callReturnsValue(int recordCode, long[] ops) {
+            // the calls always have an explicit function type
+            int i = recordCode == 34 ? 2 + ((ops[1] & 1 << 17) != 0 ? 1 : 0) : 4;
+            TypeRecord fnType = types.get((int) ops[i]);
+            return types.get((int) fnType.ops[1]).code != 2;
+        }
+
+        /**
+         * Get the index following a relative value operand, which has a type operand if it is a forward reference.
+         */
+        private static int skipValue(long[] ops, int i) {
+            long relative = ops[i] & 0xFFFF_FFFFL;
+            return relative == 0 || relative > Integer.MAX_VALUE ? i + 2 : i + 1;
+        }
+
+        private static long signed(long value) {
+            return (value & 1) == 0 ? value >>> 1 : -(value >>> 1);
+        }
+    }
+
+    // =================
+    // Textual IR
+    // =================
+
+    /**
+     * Extract the summary of a module from its textual IR.
+     *
+     * @param text the textual IR
+     * @param opaquePointers {@code true} to render every pointer type as {@code ptr}
+     * @return the summary
+     */
+    static ModuleSummary fromText(String text, boolean opaquePointers) {
+        List<String> lines = new ArrayList<>();
+        for (String line : text.split("\n")) {
+            line = stripComment(line).strip();
+            if (! line.isEmpty()) {
+                lines.add(line);
+            }
+        }
+        Map<String, String> locations = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        List<String> kinds = new ArrayList<>();
+        List<String> named = new ArrayList<>();
+        for (String line : lines) {
+            if (! line.startsWith("!")) {
+                continue;
+            }
+            Matcher matcher = STRING.matcher(line);
+            while (matcher.find()) {
+                strings.add("string " + unescape(matcher.group(1)));
+            }
+            if ((matcher = LOCATION.matcher(line)).find()) {
+                locations.put(matcher.group(1), " @" + matcher.group(2) + ":" + matcher.group(3));
+            }
+            if ((matcher = NODE.matcher(line)).find()) {
+                kinds.add("node " + (matcher.group(2).isEmpty() ? "tuple" : matcher.group(2)));
+            } else if ((matcher = NAMED_NODE.matcher(line)).find()) {
+                String elements = matcher.group(2).strip();
+                named.add("named !" + matcher.group(1) + " " + (elements.isEmpty() ? 0 : elements.split(",").length));
+            }
+        }
+
+        TextParser parser = new TextParser(opaquePointers, locations);
+        List<String> code = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i ++) {
+            String line = lines.get(i);
+            if (line.startsWith("@")) {
+                code.add(parser.global(line));
+            } else if (line.startsWith("declare ")) {
+                code.add("declare " + parser.function(line.substring(8)));
+            } else if (line.startsWith("define ")) {
+                List<String> body = new ArrayList<>();
+                while (! lines.get(++ i).equals("}")) {
+                    body.add(lines.get(i));
+                }
+                parser.body(code, "define " + parser.function(line.substring(7)), body);
+            }
+        }
+        return new ModuleSummary(code, metadata(strings, kinds, named));
+    }
+
+    private static final class TextParser {
+        final boolean opaquePointers;
+        final Map<String, String> locations;
+        String text;
+        int pos;
+
+        TextParser(boolean opaquePointers, Map<String, String> locations) {
+            this.opaquePointers = opaquePointers;
+            this.locations = locations;
+        }
+
+        String global(String line) {
+            Matcher matcher = GLOBAL_NAME.matcher(line);
+            matcher.lookingAt();
+            String name = unquote(matcher.group(1));
+            reset(line, matcher.end());
+            String keyword;
+            do {
+                keyword = token();
+            } while (! keyword.equals("global") && ! keyword.equals("constant"));
+            String type = type();
+            skipSpaces();
+            String initializer = topLevel(',').strip();
+            if (initializer.startsWith("@")) {
+                Matcher value = GLOBAL_NAME.matcher(initializer);
+                value.lookingAt();
+                initializer = "@" + unquote(value.group(1));
+            }
+            return keyword + " @" + name + " " + type + (initializer.isEmpty() ? "" : " " + initializer);
+        }
+
+        /**
+         * Summarize a function header, given the text which follows {@code define} or {@code declare}.
+         */
+        String function(String header) {
+            Matcher matcher = GLOBAL_NAME.matcher(header);
+            matcher.find();
+            reset(header.substring(0, matcher.start()), 0);
+            while (! startsType()) {
+                token();
+            }
+            String returnType = type();
+            reset(header, matcher.end() + 1);
+            List<String> params = new ArrayList<>();
+            boolean variadic = false;
+            for (String param : arguments()) {
+                if (param.equals("...")) {
+                    variadic = true;
+                } else {
+                    reset(param, 0);
+                    params.add(type());
+                }
+            }
+            return "@" + unquote(matcher.group(1)) + " " + functionType(returnType, params, variadic);
+        }
+
+        void body(List<String> code, String header, List<String> lines) {
+            Map<String, Integer> labels = new HashMap<>();
+            int blocks = LABEL.matcher(lines.get(0)).find() ? 0 : 1;
+            for (String line : lines) {
+                Matcher matcher = LABEL.matcher(line);
+                if (matcher.find()) {
+                    labels.put(unquote(matcher.group(1)), Integer.valueOf(blocks ++));
+                }
+            }
+            code.add(header + " blocks " + blocks);
+            for (String line : lines) {
+                if (! LABEL.matcher(line).find()) {
+                    code.add("  " + instruction(line, labels));
+                }
+            }
+        }
+
+        private String instruction(String line, Map<String, Integer> labels) {
+            String location = "";
+            Matcher dbg = DEBUG_LOC.matcher(line);
+            if (dbg.find()) {
+                location = locations.get(dbg.group(1));
+                line = line.substring(0, dbg.start());
+            }
+            if (line.startsWith("%")) {
+                line = line.substring(line.indexOf(" = ") + 3);
+            }
+            reset(line, 0);
+            String opcode = token();
+            while (opcode.equals("tail") || opcode.equals("musttail") || opcode.equals("notail")) {
+                opcode = token();
+            }
+            String summary;
+            if (FLOAT_BINARY_OPS.containsKey(opcode)) {
+                summary = "binop " + FLOAT_BINARY_OPS.get(opcode);
+            } else if (Arrays.asList(BINARY_OPS).contains(opcode)) {
+                summary = "binop " + opcode;
+            } else if (Arrays.asList(CAST_OPS).contains(opcode)) {
+                reset(line, line.lastIndexOf(" to ") + 4);
+                summary = "cast " + opcode + " " + type();
+            } else if (opcode.equals("icmp") || opcode.equals("fcmp")) {
+                summary = opcode + " " + token();
+            } else if (opcode.equals("load") || opcode.equals("alloca")) {
+                skipKeywords("atomic", "volatile", "inalloca");
+                summary = opcode + " " + type();
+            } else if (opcode.equals("getelementptr")) {
+                skipKeywords("inbounds");
+                List<String> args = arguments();
+                reset(args.get(0), 0);
+                summary = opcode + " " + type() + " " + (args.size() - 1);
+            } else if (opcode.equals("phi")) {
+                StringBuilder b = new StringBuilder("phi ").append(type()).append(" from");
+                for (String incoming : line.substring(pos).split("]")) {
+                    if (incoming.contains("%") || incoming.contains(",")) {
+                        String label = incoming.substring(incoming.lastIndexOf('%') + 1).strip();
+                        b.append(' ').append(labels.getOrDefault(unquote(label), Integer.valueOf(0)));
+                    }
+                }
+                summary = b.toString();
+            } else if (opcode.equals("br")) {
+                StringBuilder b = new StringBuilder("br");
+                Matcher matcher = LABEL_REF.matcher(line);
+                while (matcher.find()) {
+                    b.append(' ').append(labels.getOrDefault(unquote(matcher.group(1)), Integer.valueOf(0)));
+                }
+                summary = b.toString();
+            } else if (opcode.equals("ret")) {
+                summary = line.strip().equals("ret void") ? "ret void" : "ret value";
+            } else if (opcode.equals("call")) {
+                Matcher matcher = Pattern.compile(GLOBAL_NAME.pattern() + "\\(").matcher(line);
+                summary = matcher.find() ? "call @" + unquote(matcher.group(1)) : "call";
+            } else {
+                summary = opcode;
+            }
+            return summary + location;
+        }
+
+        private void reset(String text, int pos) {
+            this.text = text;
+            this.pos = pos;
+        }
+
+        private void skipSpaces() {
+            while (pos < text.length() && text.charAt(pos) == ' ') {
+                pos ++;
+            }
+        }
+
+        private String token() {
+            skipSpaces();
+            int start = pos;
+            while (pos < text.length() && " ,()[]{}<>*".indexOf(text.charAt(pos)) == -1) {
+                pos ++;
+            }
+            if (pos < text.length() && text.charAt(pos) == '(' && pos > start) {
+                // an attribute with arguments, such as addrspace(1)
+                pos = text.indexOf(')', pos) + 1;
+            }
+            return text.substring(start, pos);
+        }
+
+        private void skipKeywords(String... keywords) {
+            for (;;) {
+                int saved = pos;
+                if (! Arrays.asList(keywords).contains(token())) {
+                    pos = saved;
+                    return;
+                }
+            }
+        }
+
+        private boolean startsType() {
+            skipSpaces();
+            if (pos == text.length()) {
+                throw new IllegalArgumentException("No type in " + text);
+            }
+            char c = text.charAt(pos);
+            if (c == '[' || c == '{' || c == '<' || c == '%') {
+                return true;
+            }
+            int saved = pos;
+            String token = token();
+            pos = saved;
+            return TYPE_KEYWORDS.contains(token) || token.matches("i\\d+");
+        }
+
+        /**
+         * Parse a type at the current position.
+         */
+        private String type() {
+            skipSpaces();
+            String type;
+            char c = text.charAt(pos);
+            if (c == '[' || c == '<' && text.charAt(pos + 1) != '{') {
+                pos ++;
+                String vscale = "";
+                String count = token();
+                if (count.equals("vscale")) {
+                    token();
+                    vscale = "vscale x ";
+                    count = token();
+                }
+                token();
+                String element = type();
+                skipSpaces();
+                pos ++;
+                type = c == '[' ? "[" + count + " x " + element + "]" : "<" + vscale + count + " x " + element + ">";
+            } else if (c == '{' || c == '<') {
+                boolean packed = c == '<';
+                pos += packed ? 2 : 1;
+                List<String> members = new ArrayList<>();
+                skipSpaces();
+                while (text.charAt(pos) != '}') {
+                    members.add(type());
+                    skipSpaces();
+                    if (text.charAt(pos) == ',') {
+                        pos ++;
+                        skipSpaces();
+                    }
+                }
+                pos += packed ? 2 : 1;
+                type = structType(packed, members);
+            } else {
+                type = token();
+            }
+            for (;;) {
+                int saved = pos;
+                skipSpaces();
+                if (pos < text.length() && text.charAt(pos) == '*') {
+                    pos ++;
+                    type = opaquePointers ? "ptr" : type + "*";
+                } else if (text.startsWith("addrspace(", pos)) {
+                    String space = token();
+                    skipSpaces();
+                    if (type.equals("ptr")) {
+                        type = "ptr " + space;
+                    } else {
+                        pos ++;
+                        type = opaquePointers ? "ptr " + space : type + " " + space + "*";
+                    }
+                } else if (pos < text.length() && text.charAt(pos) == '(') {
+                    pos ++;
+                    List<String> params = new ArrayList<>();
+                    boolean variadic = false;
+                    for (String param : arguments()) {
+                        if (param.equals("...")) {
+                            variadic = true;
+                        } else {
+                            TextParser nested = new TextParser(opaquePointers, locations);
+                            nested.reset(param, 0);
+                            params.add(nested.type());
+                        }
+                    }
+                    type = functionType(type, params, variadic);
+                } else {
+                    pos = saved;
+                    return type;
+                }
+            }
+        }
+
+        /**
+         * Split the comma separated list which starts at the current position, up to the closing parenthesis or the
+         * end of the text.
+         */
+        private List<String> arguments() {
+            List<String> list = new ArrayList<>();
+            for (;;) {
+                skipSpaces();
+                String argument = topLevel(',', ')').strip();
+                if (! argument.isEmpty()) {
+                    list.add(argument);
+                }
+                if (pos >= text.length() || text.charAt(pos ++) == ')') {
+                    return list;
+                }
+            }
+        }
+
+        /**
+         * Get the text up to the first of the given characters which is not nested in brackets or quotes.
+         */
+        private String topLevel(char... terminators) {
+            int start = pos;
+            int depth = 0;
+            boolean quoted = false;
+            for (; pos < text.length(); pos ++) {
+                char c = text.charAt(pos);
+                if (quoted) {
+                    quoted = c != '"';
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (depth == 0 && new String(terminators).indexOf(c) != -1) {
+                    break;
+                } else if ("([{<".indexOf(c) != -1) {
+                    depth ++;
+                } else if (")]}>".indexOf(c) != -1) {
+                    depth --;
+                }
+            }
+            return text.substring(start, pos);
+        }
+    }
+
+    // =================
+    // Shared rendering
+    // =================
+
+    private static String structType(boolean packed, List<String> members) {
+        String body = members.isEmpty() ? "{}" : "{ " + String.join(", ", members) + " }";
+        return packed ? "<" + body + ">" : body;
+    }
+
+    private static String functionType(String returnType, List<String> params, boolean variadic) {
+        List<String> list = new ArrayList<>(params);
+        if (variadic) {
+            list.add("...");
+        }
+        return returnType + " (" + String.join(", ", list) + ")";
+    }
+
+    private static String byteArray(byte[] contents) {
+        StringBuilder b = new StringBuilder("c\"");
+        for (byte value : contents) {
+            int ch = value & 0xff;
+            if (32 <= ch && ch <= 126 && ch != '\\' && ch != '"') {
+                b.append((char) ch);
+            } else {
+                b.append('\\').append(Character.toUpperCase(Character.forDigit(ch >> 4, 16))).append(Character.toUpperCase(Character.forDigit(ch & 0xf, 16)));
+            }
+        }
+        return b.append('"').toString();
+    }
+
+    private static List<String> metadata(List<String> strings, List<String> kinds, List<String> named) {
+        List<String> list = new ArrayList<>(strings.stream().distinct().sorted().toList());
+        list.addAll(kinds.stream().sorted().toList());
+        list.addAll(named);
+        return list;
+    }
+
+    private static String stripComment(String line) {
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i ++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = ! quoted;
+            } else if (c == ';' && ! quoted) {
+                return line.substring(0, i);
+            }
+        }
+        return line;
+    }
+
+    private static String unquote(String name) {
+        return name.startsWith("\"") ? unescape(name.substring(1, name.length() - 1)) : name;
+    }
+
+    private static String unescape(String string) {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < string.length(); i ++) {
+            char c = string.charAt(i);
+            if (c == '\\' && string.charAt(i + 1) == '\\') {
+                b.append('\\');
+                i ++;
+            } else if (c == '\\') {
+                b.append((char) Integer.parseInt(string.substring(i + 1, i + 3), 16));
+                i += 2;
+            } else {
+                b.append(c);
+            }
+        }
+        return b.toString();
+    }
+}
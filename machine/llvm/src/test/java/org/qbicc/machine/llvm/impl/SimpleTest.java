@@ -1,10 +1,13 @@
 package org.qbicc.machine.llvm.impl;
 
+import static org.junit.jupiter.api.Assertions.*;
 import static org.qbicc.machine.llvm.Types.*;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.util.Arrays;
 
 import org.qbicc.machine.llvm.FunctionDefinition;
 import org.qbicc.machine.llvm.LLBuilder;
@@ -27,4 +30,17 @@ public class SimpleTest {
             writer.flush();
         }
     }
+
+    @Test
+    public void testBitcodeOutput() throws IOException {
+        final Module module = Module.newModule();
+        final FunctionDefinition main = module.define("main");
+        main.returns(i32);
+        LLBuilder.newBuilder(main.getRootBlock()).ret(i32, Values.ZERO);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        module.writeBitcodeTo(os);
+        byte[] bytes = os.toByteArray();
+        assertArrayEquals(new byte[] { 'B', 'C', (byte) 0xc0, (byte) 0xde }, Arrays.copyOf(bytes, 4));
+        assertEquals(0, bytes.length % 4);
+    }
 }
@@ -14,6 +14,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -72,83 +73,137 @@ public final class CProbe {
      * @throws IOException if communications with or execution of the compiler failed
      */
     public Result run(CToolChain toolChain, ObjectFileProvider objectFileProvider, DiagnosticContext errorReporter) throws IOException {
-        final CCompilerInvoker inv = toolChain.newCompilerInvoker();
-        StringBuilder b = new StringBuilder();
-        for (Step item : items) {
-            item.appendTo(b);
-        }
-        inv.setSource(InputSource.from(b));
         final Path path = Files.createTempFile("qbicc-probe-", "." + objectFileProvider.getObjectType().objectSuffix());
         try (Closeable c = ProbeUtil.deleting(path)) {
-            inv.setOutputPath(path);
-            if (errorReporter != null) {
-                inv.setMessageHandler(new ToolMessageHandler() {
-                    public void handleMessage(final ToolInvoker invoker, final Level level, final String file, final int line, final int column, final String message) {
-                        if (level == Level.ERROR) {
-                            errorReporter.error(Location.builder().setSourceFilePath(file).setLineNumber(line).build(), "%s: %s", invoker.getTool().getToolName(), message);
-                        } else if (level == Level.WARNING) {
-                            errorReporter.warning(Location.builder().setSourceFilePath(file).setLineNumber(line).build(), "%s: %s", invoker.getTool().getToolName(), message);
-                        } else if (level == Level.INFO) {
-                            errorReporter.note(Location.builder().setSourceFilePath(file).setLineNumber(line).build(), "%s: %s", invoker.getTool().getToolName(), message);
-                        }
-                    }
-                });
-            }
-            try {
-                inv.invoke();
-            } catch (CompilationFailureException e) {
+            if (compile(toolChain, getSource(), path, errorReporter) != Outcome.COMPILED) {
                 // no result
                 return null;
             }
-            // analyze the result
-            try (final ObjectFile objectFile = objectFileProvider.openObjectFile(path)) {
-                int cnt = constants.size();
-                ByteOrder byteOrder = objectFile.getByteOrder();
-                final Map<String, ConstantInfo> constantInfos = new HashMap<>(cnt);
-                for (int i = 0; i < cnt; i ++) {
-                    String name = constants.get(i);
-                    boolean defined = objectFile.getSymbolValueAsByte("cp_is_defined" + i) != 0;
-                    int size = (int) objectFile.getSymbolValueAsLong("cp_size" + i);
-                    boolean signed = objectFile.getSymbolValueAsByte("cp_is_signed" + i) != 0;
-                    boolean unsigned = objectFile.getSymbolValueAsByte("cp_is_unsigned" + i) != 0;
-                    boolean floating = objectFile.getSymbolValueAsByte("cp_is_floating" + i) != 0;
-                    boolean bool = objectFile.getSymbolValueAsByte("cp_is_bool" + i) != 0;
-                    String symbol = objectFile.getRelocationSymbolForSymbolValue(name);
-                    constantInfos.put(name, new ConstantInfo(defined, objectFile.getSymbolAsBytes("cp_value" + i, size), symbol, byteOrder, signed, unsigned, floating, bool));
+            return analyze(objectFileProvider, path);
+        }
+    }
+
+    /**
+     * Run the probe, reusing the result of an identical earlier probe from the given cache if there is one.
+     *
+     * @param toolChain the C tool chain to use (must not be {@code null})
+     * @param objectFileProvider the object file provider to use (must not be {@code null})
+     * @param errorReporter the context to report errors to, or {@code null} to skip error reporting
+     * @param cache the probe cache to use, or {@code null} to always run the compiler
+     * @return the result, or {@code null} if the compilation failed
+     * @throws IOException if communications with or execution of the compiler failed
+     */
+    public Result run(CToolChain toolChain, ObjectFileProvider objectFileProvider, DiagnosticContext errorReporter, ProbeCache cache) throws IOException {
+        if (cache == null) {
+            return run(toolChain, objectFileProvider, errorReporter);
+        }
+        return cache.run(this, toolChain, objectFileProvider, errorReporter);
+    }
+
+    String getSource() {
+        StringBuilder b = new StringBuilder();
+        for (Step item : items) {
+            item.appendTo(b);
+        }
+        return b.toString();
+    }
+
+    /**
+     * The outcome of compiling a probe.
+     */
+    enum Outcome {
+        /**
+         * The probe was compiled.
+         */
+        COMPILED,
+        /**
+         * The compiler reported errors in the probe source, so compiling it again gives the same outcome.
+         */
+        REJECTED,
+        /**
+         * The compiler failed without reporting an error, for example because it was killed.
+         */
+        FAILED,
+    }
+
+    static Outcome compile(CToolChain toolChain, String source, Path path, DiagnosticContext errorReporter) throws IOException {
+        final CCompilerInvoker inv = toolChain.newCompilerInvoker();
+        inv.setSource(InputSource.from(source));
+        inv.setOutputPath(path);
+        final AtomicBoolean rejected = new AtomicBoolean();
+        inv.setMessageHandler(new ToolMessageHandler() {
+            public void handleMessage(final ToolInvoker invoker, final Level level, final String file, final int line, final int column, final String message) {
+                if (level == Level.ERROR) {
+                    rejected.set(true);
+                }
+                if (errorReporter == null) {
+                    return;
                 }
-                cnt = functionNames.size();
-                final Map<String, FunctionInfo> functionInfos = new HashMap<>(cnt);
-                for (int i = 0; i < cnt; i ++) {
-                    String name = functionNames.get(i);
-                    int size = (int) objectFile.getSymbolValueAsLong("fn_name_size" + i) - 1; // -1 to exclude the '\0' character
-                    String stringValue = objectFile.getSymbolValueAsUtfString("fn_name" + i, size);
-                    functionInfos.put(name, new FunctionInfo(stringValue));
+                if (level == Level.ERROR) {
+                    errorReporter.error(Location.builder().setSourceFilePath(file).setLineNumber(line).build(), "%s: %s", invoker.getTool().getToolName(), message);
+                } else if (level == Level.WARNING) {
+                    errorReporter.warning(Location.builder().setSourceFilePath(file).setLineNumber(line).build(), "%s: %s", invoker.getTool().getToolName(), message);
+                } else if (level == Level.INFO) {
+                    errorReporter.note(Location.builder().setSourceFilePath(file).setLineNumber(line).build(), "%s: %s", invoker.getTool().getToolName(), message);
                 }
-                cnt = types.size();
-                final Map<Type, Type.Info> typeInfos = new HashMap<>(cnt);
-                final Map<Type, Map<String, Type.Info>> memberInfos = new HashMap<>();
-                for (int i = 0; i < cnt; i ++) {
-                    Type type = types.get(i);
-                    long overallSize = objectFile.getSymbolValueAsLong("tp_overall_size" + i);
-                    long overallAlign = objectFile.getSymbolValueAsLong("tp_overall_align" + i);
-                    boolean signed = objectFile.getSymbolValueAsByte("tp_is_signed" + i) != 0;
-                    boolean unsigned = objectFile.getSymbolValueAsByte("tp_is_unsigned" + i) != 0;
-                    boolean floating = objectFile.getSymbolValueAsByte("tp_is_floating" + i) != 0;
-                    Type.Info info = new Type.Info(overallSize, overallAlign, 0, signed, unsigned, floating);
-                    Map<String, Type.Info> memberInfo = new HashMap<>(type.getMembers().size());
-                    for (String memberName : type.getMembers()) {
-                        long memberSize = objectFile.getSymbolValueAsLong("tp_sizeof_" + memberName + i);
-                        long memberOffset = objectFile.getSymbolValueAsLong("tp_offsetof_" + memberName + i);
-                        boolean memberSigned = objectFile.getSymbolValueAsByte("tp_is_signed_" + memberName + i) != 0;
-                        boolean memberUnsigned = objectFile.getSymbolValueAsByte("tp_is_unsigned_" + memberName + i) != 0;
-                        boolean memberFloating = objectFile.getSymbolValueAsByte("tp_is_floating_" + memberName + i) != 0;
-                        memberInfo.put(memberName, new Type.Info(memberSize, 0, memberOffset, memberSigned, memberUnsigned, memberFloating));
-                    }
-                    typeInfos.put(type, info);
-                    memberInfos.put(type, memberInfo);
+            }
+        });
+        try {
+            inv.invoke();
+        } catch (CompilationFailureException e) {
+            return rejected.get() ? Outcome.REJECTED : Outcome.FAILED;
+        }
+        return Outcome.COMPILED;
+    }
+
+    Result analyze(ObjectFileProvider objectFileProvider, Path path) throws IOException {
+        try (final ObjectFile objectFile = objectFileProvider.openObjectFile(path)) {
+            int cnt = constants.size();
+            ByteOrder byteOrder = objectFile.getByteOrder();
+            final Map<String, ConstantInfo> constantInfos = new HashMap<>(cnt);
+            for (int i = 0; i < cnt; i ++) {
+                String name = constants.get(i);
+                boolean defined = objectFile.getSymbolValueAsByte("cp_is_defined" + i) != 0;
+                int size = (int) objectFile.getSymbolValueAsLong("cp_size" + i);
+                boolean signed = objectFile.getSymbolValueAsByte("cp_is_signed" + i) != 0;
+                boolean unsigned = objectFile.getSymbolValueAsByte("cp_is_unsigned" + i) != 0;
+                boolean floating = objectFile.getSymbolValueAsByte("cp_is_floating" + i) != 0;
+                boolean bool = objectFile.getSymbolValueAsByte("cp_is_bool" + i) != 0;
+                String symbol = objectFile.getRelocationSymbolForSymbolValue(name);
+                constantInfos.put(name, new ConstantInfo(defined, objectFile.getSymbolAsBytes("cp_value" + i, size), symbol, byteOrder, signed, unsigned, floating, bool));
+            }
+            cnt = functionNames.size();
+            final Map<String, FunctionInfo> functionInfos = new HashMap<>(cnt);
+            for (int i = 0; i < cnt; i ++) {
+                String name = functionNames.get(i);
+                int size = (int) objectFile.getSymbolValueAsLong("fn_name_size" + i) - 1; // -1 to exclude the '\0' character
+                String stringValue = objectFile.getSymbolValueAsUtfString("fn_name" + i, size);
+                functionInfos.put(name, new FunctionInfo(stringValue));
+            }
+            cnt = types.size();
+            final Map<Type, Type.Info> typeInfos = new HashMap<>(cnt);
+            final Map<Type, Map<String, Type.Info>> memberInfos = new HashMap<>();
+            for (int i = 0; i < cnt; i ++) {
+                Type type = types.get(i);
+                long overallSize = objectFile.getSymbolValueAsLong("tp_overall_size" + i);
+                long overallAlign = objectFile.getSymbolValueAsLong("tp_overall_align" + i);
+                boolean signed = objectFile.getSymbolValueAsByte("tp_is_signed" + i) != 0;
+                boolean unsigned = objectFile.getSymbolValueAsByte("tp_is_unsigned" + i) != 0;
+                boolean floating = objectFile.getSymbolValueAsByte("tp_is_floating" + i) != 0;
+                Type.Info info = new Type.Info(overallSize, overallAlign, 0, signed, unsigned, floating);
+                Map<String, Type.Info> memberInfo = new HashMap<>(type.getMembers().size());
+                for (String memberName : type.getMembers()) {
+                    long memberSize = objectFile.getSymbolValueAsLong("tp_sizeof_" + memberName + i);
+                    long memberOffset = objectFile.getSymbolValueAsLong("tp_offsetof_" + memberName + i);
+                    boolean memberSigned = objectFile.getSymbolValueAsByte("tp_is_signed_" + memberName + i) != 0;
+                    boolean memberUnsigned = objectFile.getSymbolValueAsByte("tp_is_unsigned_" + memberName + i) != 0;
+                    boolean memberFloating = objectFile.getSymbolValueAsByte("tp_is_floating_" + memberName + i) != 0;
+                    memberInfo.put(memberName, new Type.Info(memberSize, 0, memberOffset, memberSigned, memberUnsigned, memberFloating));
                 }
-                return new Result(typeInfos, memberInfos, functionInfos, constantInfos, byteOrder);
+                typeInfos.put(type, info);
+                memberInfos.put(type, memberInfo);
             }
+            return new Result(typeInfos, memberInfos, functionInfos, constantInfos, byteOrder);
         }
     }
 
@@ -0,0 +1,171 @@
+package org.qbicc.machine.probe;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jboss.logging.Logger;
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.DiagnosticContext;
+import org.qbicc.machine.object.ObjectFileProvider;
+import org.qbicc.machine.tool.CToolChain;
+
+/**
+ * A cache of probe results, keyed by the tool chain, the target platform, and the probe source.  Results are
+ * always cached in memory for the duration of the build; if a cache directory is given, the object file of each
+ * successful probe (and a marker for each one which the compiler rejected with errors) is also kept there, so that later builds for the same target
+ * with the same tool chain need not run the compiler at all.
+ * <p>
+ * The cache key does not cover the contents of the headers included by a probe, so the cache directory must be
+ * cleared when the system headers change without a change of tool chain version.
+ */
+public final class ProbeCache {
+    private static final Logger log = Logger.getLogger("org.qbicc.machine.probe");
+    private static final AttachmentKey<ProbeCache> KEY = new AttachmentKey<>();
+    private static final String FORMAT_VERSION = "qbicc-probe-cache-1";
+    private static final String FAILED_SUFFIX = ".failed";
+
+    private final Path directory;
+    private final Map<String, CProbe.Result> results = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> failures = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder compilations = new LongAdder();
+
+    /**
+     * Construct a new instance.
+     *
+     * @param directory the directory in which to keep results across builds, or {@code null} to only cache results
+     *      in memory
+     */
+    public ProbeCache(final Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Install a probe cache into the given context.
+     *
+     * @param ctxt the context (must not be {@code null})
+     * @param directory the directory in which to keep results across builds, or {@code null} to only cache results
+     *      in memory
+     */
+    public static void init(DiagnosticContext ctxt, Path directory) {
+        ctxt.putAttachment(KEY, new ProbeCache(directory));
+    }
+
+    /**
+     * Get the probe cache of the given context, creating an in-memory cache if none was installed.
+     *
+     * @param ctxt the context (must not be {@code null})
+     * @return the probe cache (not {@code null})
+     */
+    public static ProbeCache get(DiagnosticContext ctxt) {
+        ProbeCache cache = ctxt.getAttachment(KEY);
+        if (cache == null) {
+            cache = new ProbeCache(null);
+            ProbeCache appearing = ctxt.putAttachmentIfAbsent(KEY, cache);
+            if (appearing != null) {
+                cache = appearing;
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Report the number of probes which were answered from the cache of the given context and the number which
+     * needed the compiler.
+     *
+     * @param ctxt the context (must not be {@code null})
+     */
+    public static void reportStats(DiagnosticContext ctxt) {
+        if (log.isDebugEnabled()) {
+            ProbeCache cache = get(ctxt);
+            log.debugf("Answered %,d probes from the cache and compiled %,d probes", cache.hits.sum(), cache.compilations.sum());
+        }
+    }
+
+    CProbe.Result run(CProbe probe, CToolChain toolChain, ObjectFileProvider objectFileProvider, DiagnosticContext errorReporter) throws IOException {
+        String source = probe.getSource();
+        String key = keyOf(toolChain, source);
+        CProbe.Result result = results.get(key);
+        if (result != null) {
+            hits.increment();
+            return result;
+        }
+        // failures are only reused when there are no errors to report
+        boolean reuseFailure = errorReporter == null;
+        if (reuseFailure && failures.containsKey(key)) {
+            hits.increment();
+            return null;
+        }
+        String suffix = "." + objectFileProvider.getObjectType().objectSuffix();
+        if (directory != null) {
+            Path cached = directory.resolve(key + suffix);
+            if (Files.exists(cached)) {
+                try {
+                    result = probe.analyze(objectFileProvider, cached);
+                    hits.increment();
+                    results.putIfAbsent(key, result);
+                    return result;
+                } catch (IOException | RuntimeException e) {
+                    // a damaged entry; compile it again
+                    log.debugf(e, "Discarding unreadable probe cache entry %s", cached);
+                    Files.deleteIfExists(cached);
+                }
+            }
+            if (reuseFailure && Files.exists(directory.resolve(key + FAILED_SUFFIX))) {
+                hits.increment();
+                failures.put(key, Boolean.TRUE);
+                return null;
+            }
+            Files.createDirectories(directory);
+        }
+        compilations.increment();
+        Path path = directory == null ? Files.createTempFile("qbicc-probe-", suffix) : Files.createTempFile(directory, "qbicc-probe-", suffix);
+        try (Closeable c = ProbeUtil.deleting(path)) {
+            CProbe.Outcome outcome = CProbe.compile(toolChain, source, path, errorReporter);
+            if (outcome != CProbe.Outcome.COMPILED) {
+                failures.put(key, Boolean.TRUE);
+                // a failure without errors from the compiler may not recur, so it is only remembered for this build
+                if (directory != null && outcome == CProbe.Outcome.REJECTED) {
+                    Files.write(directory.resolve(key + FAILED_SUFFIX), new byte[0]);
+                }
+                return null;
+            }
+            result = probe.analyze(objectFileProvider, path);
+            if (directory != null) {
+                // concurrent builds may race to store the same entry; either copy will do
+                Files.move(path, directory.resolve(key + suffix), StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        results.putIfAbsent(key, result);
+        return result;
+    }
+
+    private static String keyOf(CToolChain toolChain, String source) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder b = new StringBuilder();
+        b.append(FORMAT_VERSION).append('\n');
+        b.append(toolChain.getImplementationName()).append('\n');
+        b.append(toolChain.getVersion()).append('\n');
+        b.append(toolChain.getPlatform()).append('\n');
+        // the compiler also searches these for headers
+        b.append(System.getenv("CPATH")).append('\n');
+        b.append(System.getenv("C_INCLUDE_PATH")).append('\n');
+        b.append(source);
+        return HexFormat.of().formatHex(digest.digest(b.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -2,8 +2,11 @@ package org.qbicc.machine.probe;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Stream;
 
 import org.qbicc.machine.arch.ObjectType;
 import org.qbicc.machine.arch.Platform;
@@ -13,6 +16,7 @@ import org.qbicc.machine.tool.ToolProvider;
 import org.qbicc.machine.tool.ToolUtil;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 /**
  *
@@ -96,4 +100,25 @@ public class TestProbes {
         assertTrue(result.getConstantInfo("INT8_MAX").isDefined());
         assertEquals(Byte.MAX_VALUE, result.getConstantInfo("INT8_MAX").getValueAsInt());
     }
+
+    @Test
+    public void testCachedProbe(@TempDir Path dir) throws Exception {
+        final CProbe probe = CProbe.builder().include("<stdint.h>").probeConstant("INT16_MAX").build();
+        assertNotNull(probe.run(compiler, objectFileProvider, null, new ProbeCache(dir)));
+        // a new cache reads the object file of the first one
+        final CProbe.Result result = probe.run(compiler, objectFileProvider, null, new ProbeCache(dir));
+        assertNotNull(result);
+        assertEquals(Short.MAX_VALUE, result.getConstantInfo("INT16_MAX").getValueAsInt());
+    }
+
+    @Test
+    public void testRejectedProbe(@TempDir Path dir) throws Exception {
+        final CProbe probe = CProbe.builder().include("<qbicc_no_such_header.h>").probeConstant("NO_SUCH_CONSTANT").build();
+        assertNull(probe.run(compiler, objectFileProvider, null, new ProbeCache(dir)));
+        // the compiler reported an error, so the failure is kept for later builds
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(1, files.filter(p -> p.getFileName().toString().endsWith(".failed")).count());
+        }
+        assertNull(probe.run(compiler, objectFileProvider, null, new ProbeCache(dir)));
+    }
 }
@@ -47,6 +47,7 @@ import org.qbicc.driver.ElementInitializer;
 import org.qbicc.driver.ElementVisitorAdapter;
 import org.qbicc.driver.GraphGenConfig;
 import org.qbicc.driver.Phase;
+import org.qbicc.driver.SchedulerType;
 import org.qbicc.driver.plugin.DriverPlugin;
 import org.qbicc.interpreter.Vm;
 import org.qbicc.interpreter.VmThread;
@@ -55,6 +56,7 @@ import org.qbicc.machine.arch.Cpu;
 import org.qbicc.machine.arch.Platform;
 import org.qbicc.machine.object.ObjectFileProvider;
 import org.qbicc.machine.probe.CProbe;
+import org.qbicc.machine.probe.ProbeCache;
 import org.qbicc.machine.tool.CToolChain;
 import org.qbicc.machine.vfs.AbsoluteVirtualPath;
 import org.qbicc.machine.vfs.VFSUtils;
@@ -72,12 +74,19 @@ import org.qbicc.plugin.correctness.StaticChecksBasicBlockBuilder;
 import org.qbicc.plugin.dispatch.DevirtualizingBasicBlockBuilder;
 import org.qbicc.plugin.dispatch.DispatchTableBuilder;
 import org.qbicc.plugin.dispatch.DispatchTableEmitter;
+import org.qbicc.plugin.dispatch.InterfaceDispatch;
 import org.qbicc.plugin.dot.DotGenerator;
 import org.qbicc.plugin.gc.common.GcCommon;
 import org.qbicc.plugin.gc.common.MultiNewArrayExpansionBasicBlockBuilder;
+import org.qbicc.plugin.gc.nogc.NoGc;
 import org.qbicc.plugin.gc.nogc.NoGcBasicBlockBuilder;
 import org.qbicc.plugin.gc.nogc.NoGcSetupHook;
 import org.qbicc.plugin.gc.nogc.NoGcTypeSystemConfigurator;
+import org.qbicc.plugin.gc.semispace.SemispaceBasicBlockBuilder;
+import org.qbicc.plugin.gc.semispace.SemispaceIntrinsics;
+import org.qbicc.plugin.gc.semispace.SemispaceSetupHook;
+import org.qbicc.plugin.gc.semispace.SemispaceTableEmitter;
+import org.qbicc.plugin.gc.semispace.SemispaceTypeSystemConfigurator;
 import org.qbicc.plugin.instanceofcheckcast.InstanceOfCheckCastBasicBlockBuilder;
 import org.qbicc.plugin.instanceofcheckcast.SupersDisplayBuilder;
 import org.qbicc.plugin.instanceofcheckcast.SupersDisplayEmitter;
@@ -90,6 +99,7 @@ import org.qbicc.plugin.llvm.LLVMCompatibleBasicBlockBuilder;
 import org.qbicc.plugin.llvm.LLVMCompileStage;
 import org.qbicc.plugin.llvm.LLVMCompiler;
 import org.qbicc.plugin.llvm.LLVMCompilerImpl;
+import org.qbicc.plugin.llvm.LLVMObjectCache;
 import org.qbicc.plugin.llvm.LLVMDefaultModuleCompileStage;
 import org.qbicc.plugin.llvm.LLVMEmscriptenCompiler;
 import org.qbicc.plugin.llvm.LLVMGenerator;
@@ -126,12 +136,16 @@ import org.qbicc.plugin.native_.PointerTypeResolver;
 import org.qbicc.plugin.native_.StructMemberAccessBasicBlockBuilder;
 import org.qbicc.plugin.nativeimage.FeatureProcessor;
 import org.qbicc.plugin.objectmonitor.ObjectMonitorBasicBlockBuilder;
+import org.qbicc.plugin.objectmonitor.ThinLocks;
+import org.qbicc.plugin.opt.BoundsCheckRemovingVisitor;
 import org.qbicc.plugin.opt.FinalFieldLoadOptimizer;
 import org.qbicc.plugin.opt.GotoRemovingVisitor;
+import org.qbicc.plugin.opt.InitCheckRemovingVisitor;
 import org.qbicc.plugin.opt.InliningBasicBlockBuilder;
 import org.qbicc.plugin.opt.LocalMemoryTrackingBasicBlockBuilder;
 import org.qbicc.plugin.opt.PhiOptimizerVisitor;
 import org.qbicc.plugin.opt.SimpleOptBasicBlockBuilder;
+import org.qbicc.plugin.opt.ValueNumberingVisitor;
 import org.qbicc.plugin.opt.ea.EscapeAnalysisDotGenerator;
 import org.qbicc.plugin.opt.ea.EscapeAnalysisDotVisitor;
 import org.qbicc.plugin.opt.ea.EscapeAnalysisInterMethodAnalysis;
@@ -142,6 +156,11 @@ import org.qbicc.plugin.patcher.AccessorTypeBuilder;
 import org.qbicc.plugin.patcher.Patcher;
 import org.qbicc.plugin.patcher.PatcherResolverBasicBlockBuilder;
 import org.qbicc.plugin.patcher.PatcherTypeResolver;
+import org.qbicc.plugin.profile.BranchProfileBasicBlockBuilder;
+import org.qbicc.plugin.profile.ProfileCounters;
+import org.qbicc.plugin.profile.ProfileData;
+import org.qbicc.plugin.profile.ProfileInstrumentingBasicBlockBuilder;
+import org.qbicc.plugin.reachability.ReachabilityAnalysisKind;
 import org.qbicc.plugin.reachability.ReachabilityAnnotationTypeBuilder;
 import org.qbicc.plugin.reachability.ReachabilityBlockBuilder;
 import org.qbicc.plugin.reachability.ReachabilityInfo;
@@ -189,6 +208,9 @@ public class Main implements Callable<DiagnosticContext> {
     private final boolean optMemoryTracking;
     private final boolean optPhis;
     private final boolean optGotos;
+    private final boolean optInitChecks;
+    private final boolean optGvn;
+    private final boolean optBoundsChecks;
     private final boolean optInlining;
     private final boolean optEscapeAnalysis;
     private final Platform platform;
@@ -198,6 +220,25 @@ public class Main implements Callable<DiagnosticContext> {
     private final List<String> buildFeatures;
     private final ClassPathResolver classPathResolver;
     private final Backend backend;
+    private final SchedulerType schedulerType;
+    private final float threadsPerCpu;
+    private final int classPrefetchThreads;
+    private final boolean llvmEmitAsm;
+    private final Path llvmCacheDir;
+    private final Path probeCacheDir;
+    private final Path classPathImageDir;
+    private final long llvmCacheMaxSize;
+    private final int llvmUnits;
+    private final boolean llvmBitcode;
+    private final boolean llvmStreaming;
+    private final long tlabSize;
+    private final InterfaceDispatch interfaceDispatch;
+    private final ReachabilityAnalysisKind reachabilityAnalysis;
+    private final boolean heapImage;
+    private final boolean pgoInstrument;
+    private final Path pgoProfile;
+    private final int devirtualizationFanOut;
+    private final boolean devirtualizationProfile;
 
     Main(Builder builder) {
         outputPath = builder.outputPath;
@@ -213,11 +254,33 @@ public class Main implements Callable<DiagnosticContext> {
         optInlining = builder.optInlining;
         optPhis = builder.optPhis;
         optGotos = builder.optGotos;
+        optInitChecks = builder.optInitChecks;
+        optGvn = builder.optGvn;
+        optBoundsChecks = builder.optBoundsChecks;
         optEscapeAnalysis = builder.optEscapeAnalysis;
         platform = builder.platform;
         isWasm = platform.getCpu() == Cpu.WASM32;
         smallTypeIds = builder.smallTypeIds;
         backend = builder.backend;
+        schedulerType = builder.schedulerType;
+        threadsPerCpu = builder.threadsPerCpu;
+        classPrefetchThreads = builder.classPrefetchThreads;
+        llvmEmitAsm = builder.llvmEmitAsm;
+        llvmCacheDir = builder.llvmCacheDir;
+        probeCacheDir = builder.probeCacheDir;
+        classPathImageDir = builder.classPathImageDir;
+        llvmCacheMaxSize = builder.llvmCacheMaxSize;
+        llvmUnits = builder.llvmUnits;
+        llvmBitcode = builder.llvmBitcode;
+        llvmStreaming = builder.llvmStreaming;
+        tlabSize = builder.tlabSize;
+        interfaceDispatch = builder.interfaceDispatch;
+        reachabilityAnalysis = builder.reachabilityAnalysis;
+        heapImage = builder.heapImage;
+        pgoInstrument = builder.pgoInstrument;
+        pgoProfile = builder.pgoProfile;
+        devirtualizationFanOut = builder.devirtualizationFanOut;
+        devirtualizationProfile = builder.devirtualizationProfile;
         ArrayList<ClassPathEntry> bootPaths = new ArrayList<>(builder.bootPathsPrepend.size() + 6 + builder.bootPathsAppend.size());
         bootPaths.addAll(builder.bootPathsPrepend);
         // add core things
@@ -229,8 +292,11 @@ public class Main implements Callable<DiagnosticContext> {
         bootPaths.add(getCoreComponent("qbicc-runtime-unwind"));
         bootPaths.add(getCoreComponent("qbicc-runtime-zlib"));
         boolean nogc = gc.equals("none");
+        boolean semispace = gc.equals("semispace");
         if (nogc) {
             bootPaths.add(getCoreComponent("qbicc-runtime-gc-nogc"));
+        } else if (semispace) {
+            bootPaths.add(getCoreComponent("qbicc-runtime-gc-semispace"));
         }
         bootPaths.add(ClassPathEntry.ofClassLibraries(builder.classLibVersion));
         bootPaths.addAll(builder.bootPathsAppend);
@@ -269,13 +335,22 @@ public class Main implements Callable<DiagnosticContext> {
         final Driver.Builder builder = Driver.builder();
         builder.setInitialContext(initialContext);
         boolean nogc = gc.equals("none");
+        boolean semispace = gc.equals("semispace");
         boolean llvm = backend.equals(Backend.llvm);
+        // the semispace collector does not scan the reference fields of stack-allocated objects
+        boolean optEscapeAnalysis = this.optEscapeAnalysis && ! semispace;
+        if (this.optEscapeAnalysis && semispace) {
+            initialContext.warning("Escape analysis is disabled because the semispace collector does not support stack-allocated objects");
+        }
         int errors = initialContext.errors();
         if (errors == 0) {
             builder.setOutputDirectory(outputPath);
+            builder.setSchedulerType(schedulerType);
+            builder.setThreadsPerCpu(threadsPerCpu);
+            builder.setPrefetchThreads(classPrefetchThreads);
             // process the class paths
             try {
-                classPathResolver.resolveClassPath(initialContext, builder::addBootClassPathItem, bootPaths);
+                classPathResolver.resolveClassPath(initialContext, item -> builder.addBootClassPathItem(toImage(initialContext, item)), bootPaths);
             } catch (IOException e) {
                 // todo: close class path items?
                 return;
@@ -299,6 +374,7 @@ public class Main implements Callable<DiagnosticContext> {
                 } else {
                     CToolChain toolChain = toolChains.next();
                     builder.setToolChain(toolChain);
+                    ProbeCache.init(initialContext, probeCacheDir);
                     // probe the basic system sizes
                     CProbe.Builder probeBuilder = CProbe.builder();
                     probeBuilder.include("<stdint.h>");
@@ -334,7 +410,7 @@ public class Main implements Callable<DiagnosticContext> {
                     // execute
                     CProbe probe = probeBuilder.build();
                     try {
-                        CProbe.Result probeResult = probe.run(toolChain, objectFileProvider, initialContext);
+                        CProbe.Result probeResult = probe.run(toolChain, objectFileProvider, initialContext, ProbeCache.get(initialContext));
                         if (probeResult == null) {
                             initialContext.error("Type system probe compiler execution failed");
                         } else {
@@ -372,12 +448,20 @@ public class Main implements Callable<DiagnosticContext> {
                             tsBuilder.setEndianness(probeResult.getByteOrder());
                             if (nogc) {
                                 new NoGcTypeSystemConfigurator().accept(tsBuilder);
+                            } else if (semispace) {
+                                new SemispaceTypeSystemConfigurator().accept(tsBuilder);
                             }
                             builder.setTypeSystem(tsBuilder.build());
                             // add additional manual initializers by chaining `.andThen(...)`
                             builder.setVmFactory(cc -> {
+                                // reserve the lock bits before the object header is laid out
+                                ThinLocks.get(cc);
                                 CoreClasses.init(cc);
                                 ThrowExceptionHelper.init(cc);
+                                if (nogc) {
+                                    // inject the thread-local allocation buffer fields before Thread is laid out
+                                    NoGc.get(cc);
+                                }
                                 return VmImpl.create(cc,
                                     new BasicHeaderManualInitializer(cc)
                                 );
@@ -449,6 +533,7 @@ public class Main implements Callable<DiagnosticContext> {
                                 builder.addPreHook(Phase.ADD, Reflection::get);
                                 builder.addPreHook(Phase.ADD, ThrowExceptionHelper::get);
                                 builder.addPreHook(Phase.ADD, GcCommon::registerIntrinsics);
+                                builder.addPreHook(Phase.ADD, ThinLocks::registerIntrinsics);
                                 builder.addPreHook(Phase.ADD, compilationContext -> {
                                     Vm vm = compilationContext.getVm();
                                     VmThread initThread = vm.newThread("initialization", vm.getMainThreadGroup(), false,  Thread.currentThread().getPriority());
@@ -466,21 +551,33 @@ public class Main implements Callable<DiagnosticContext> {
                                 });
                                 builder.addPreHook(Phase.ADD, new AddMainClassHook());
                                 if (nogc) {
-                                    builder.addPreHook(Phase.ADD, new NoGcSetupHook());
+                                    builder.addPreHook(Phase.ADD, new NoGcSetupHook(tlabSize));
+                                } else if (semispace) {
+                                    builder.addPreHook(Phase.ADD, SemispaceIntrinsics::register);
+                                    builder.addPreHook(Phase.ADD, new SemispaceSetupHook());
                                 }
                                 builder.addPreHook(Phase.ADD, ReachabilityInfo::forceCoreClassesReachable);
                                 builder.addPreHook(Phase.ADD, compilationContext -> {
                                     FeatureProcessor.processBuildFeature(compilationContext, buildFeatures, hostAppClassLoader);
                                 });
                                 builder.addPreHook(Phase.ADD, ReachabilityRoots::processReachabilityRoots);
+                                if (pgoProfile != null) {
+                                    builder.addPreHook(Phase.ADD, ctxt -> ProfileData.load(ctxt, pgoProfile));
+                                }
                                 builder.addElementHandler(Phase.ADD, new ElementBodyCreator());
                                 builder.addElementHandler(Phase.ADD, new BuildTimeOnlyElementHandler());
                                 builder.addElementHandler(Phase.ADD, new ElementVisitorAdapter(new DotGenerator(Phase.ADD, graphGenConfig)));
                                 builder.addElementHandler(Phase.ADD, new ElementInitializer());
                                 builder.addElementHandler(Phase.ADD, elem -> ReachabilityInfo.processReachableElement(elem)); // TODO: We need this to compensate for elements "appearing out of thin air" during the add phase.  Ideally we should be able to eliminate this.
                                 builder.addElementHandler(Phase.ADD, new ReflectiveMethodAccessorGenerator());
+                                // the profiling builders must see the operations of the bytecode before any other builder
+                                if (pgoInstrument) {
+                                    builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, ProfileInstrumentingBasicBlockBuilder::createIfNeeded);
+                                } else if (pgoProfile != null) {
+                                    builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, BranchProfileBasicBlockBuilder::createIfNeeded);
+                                }
                                 builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, IntrinsicBasicBlockBuilder::createForAddPhase);
-                                if (nogc) {
+                                if (nogc || semispace) {
                                     builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, MultiNewArrayExpansionBasicBlockBuilder::new);
                                 }
                                 builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, PatcherResolverBasicBlockBuilder::createIfNeeded);
@@ -514,6 +611,9 @@ public class Main implements Callable<DiagnosticContext> {
                                 });
                                 builder.addPostHook(Phase.ADD, ctxt -> Reflection.get(ctxt).transferToReflectionData());
                                 builder.addPostHook(Phase.ADD, ReachabilityInfo::reportStats);
+                                if (pgoInstrument) {
+                                    builder.addPostHook(Phase.ADD, ProfileCounters::installCounters);
+                                }
                                 builder.addPostHook(Phase.ADD, ReachabilityInfo::clear);
 
                                 builder.addPreHook(Phase.ANALYZE, new VMHelpersSetupHook());
@@ -534,10 +634,16 @@ public class Main implements Callable<DiagnosticContext> {
                                 if (optPhis) {
                                     builder.addCopyFactory(Phase.ANALYZE, PhiOptimizerVisitor::new);
                                 }
+                                if (optGvn) {
+                                    builder.addCopyFactory(Phase.ANALYZE, ValueNumberingVisitor::new);
+                                }
+                                if (optBoundsChecks) {
+                                    builder.addCopyFactory(Phase.ANALYZE, BoundsCheckRemovingVisitor::new);
+                                }
                                 builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.TRANSFORM, IntrinsicBasicBlockBuilder::createForAnalyzePhase);
                                 builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.TRANSFORM, FinalFieldLoadOptimizer::new);
                                 builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.TRANSFORM, ThreadLocalBasicBlockBuilder::new);
-                                builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.TRANSFORM, DevirtualizingBasicBlockBuilder::new);
+                                builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.TRANSFORM, (ctxt, delegate) -> DevirtualizingBasicBlockBuilder.createForAnalyzePhase(ctxt, delegate, devirtualizationFanOut, devirtualizationProfile));
                                 if (optMemoryTracking) {
                                     builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.TRANSFORM, LocalMemoryTrackingBasicBlockBuilder::new);
                                 }
@@ -555,10 +661,13 @@ public class Main implements Callable<DiagnosticContext> {
                                     builder.addPostHook(Phase.ANALYZE, new EscapeAnalysisInterMethodAnalysis());
                                     builder.addPostHook(Phase.ANALYZE, new EscapeAnalysisDotGenerator(graphGenConfig));
                                 }
-                                builder.addPostHook(Phase.ANALYZE, new DispatchTableBuilder());
+                                builder.addPostHook(Phase.ANALYZE, new DispatchTableBuilder(interfaceDispatch));
                                 builder.addPostHook(Phase.ANALYZE, new SupersDisplayBuilder());
 
                                 builder.addPreHook(Phase.LOWER, ReachabilityRoots::enqueueReachabilityRoots);
+                                if (heapImage) {
+                                    builder.addPreHook(Phase.LOWER, BuildtimeHeap::enableImages);
+                                }
                                 builder.addPreHook(Phase.LOWER, new ClassObjectSerializer());
                                 if (optEscapeAnalysis) {
                                     builder.addCopyFactory(Phase.LOWER, EscapeAnalysisOptimizeVisitor::new);
@@ -571,6 +680,15 @@ public class Main implements Callable<DiagnosticContext> {
                                 if (optPhis) {
                                     builder.addCopyFactory(Phase.LOWER, PhiOptimizerVisitor::new);
                                 }
+                                if (optInitChecks) {
+                                    builder.addCopyFactory(Phase.LOWER, InitCheckRemovingVisitor::new);
+                                }
+                                if (optGvn) {
+                                    builder.addCopyFactory(Phase.LOWER, ValueNumberingVisitor::new);
+                                }
+                                if (optBoundsChecks) {
+                                    builder.addCopyFactory(Phase.LOWER, BoundsCheckRemovingVisitor::new);
+                                }
                                 builder.addCopyFactory(Phase.LOWER, BooleanAccessCopier::new);
                                 builder.addCopyFactory(Phase.LOWER, MemberPointerCopier::new);
                                 builder.addCopyFactory(Phase.LOWER, ObjectLiteralSerializingVisitor::new);
@@ -580,9 +698,11 @@ public class Main implements Callable<DiagnosticContext> {
                                 } else {
                                     builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, ThrowLoweringBasicBlockBuilder::new);
                                 }
-                                builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, DevirtualizingBasicBlockBuilder::new);
+                                builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, (ctxt, delegate) -> DevirtualizingBasicBlockBuilder.createForLowerPhase(ctxt, delegate, devirtualizationFanOut, devirtualizationProfile));
                                 if (nogc) {
                                     builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, NoGcBasicBlockBuilder::new);
+                                } else if (semispace) {
+                                    builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, SemispaceBasicBlockBuilder::new);
                                 }
                                 builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, IntrinsicBasicBlockBuilder::createForLowerPhase);
                                 builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, InvocationLoweringBasicBlockBuilder::new);
@@ -605,30 +725,36 @@ public class Main implements Callable<DiagnosticContext> {
                                 builder.addBuilderFactory(Phase.LOWER, BuilderStage.INTEGRITY, StaticChecksBasicBlockBuilder::new);
                                 builder.addPostHook(Phase.LOWER, NativeXtorLoweringHook::process);
                                 builder.addPostHook(Phase.LOWER, BuildtimeHeap::reportStats);
+                                builder.addPostHook(Phase.LOWER, ProbeCache::reportStats);
 
                                 LLVMReferencePointerFactory referencePointerFactory =
                                     isWasm ? LLVMReferencePointerFactory.SIMPLE : LLVMReferencePointerFactory.COLLECTED;
 
                                 LLVMCompiler.Factory llvmCompilerFactory =
-                                    isWasm? LLVMEmscriptenCompiler::new : LLVMCompilerImpl::new;
+                                    isWasm? LLVMEmscriptenCompiler::new : (context, pie) -> new LLVMCompilerImpl(context, pie, llvmEmitAsm);
 
                                 builder.addPreHook(Phase.GENERATE, new StringInternTableEmitter());
+                                builder.addPreHook(Phase.GENERATE, BuildtimeHeap::emitObjects);
                                 builder.addPreHook(Phase.GENERATE, new SupersDisplayEmitter());
                                 builder.addPreHook(Phase.GENERATE, new DispatchTableEmitter());
+                                if (semispace) {
+                                    builder.addPreHook(Phase.GENERATE, new SemispaceTableEmitter());
+                                }
 
                                 if (llvm) {
-                                    builder.addPreHook(Phase.GENERATE, new LLVMGenerator(isPie ? 2 : 0, isPie ? 2 : 0, referencePointerFactory));
+                                    builder.addPreHook(Phase.GENERATE, new LLVMGenerator(isPie ? 2 : 0, isPie ? 2 : 0, referencePointerFactory, llvmUnits, llvmBitcode, llvmStreaming));
                                 }
 
                                 builder.addPostHook(Phase.GENERATE, new DotGenerator(Phase.GENERATE, graphGenConfig));
                                 if (compileOutput) {
                                     if (llvm) {
-                                        builder.addPostHook(Phase.GENERATE, new LLVMCompileStage(isPie, llvmCompilerFactory));
+                                        LLVMObjectCache objectCache = llvmCacheDir == null ? null : new LLVMObjectCache(llvmCacheDir, llvmCacheMaxSize);
+                                        builder.addPostHook(Phase.GENERATE, new LLVMCompileStage(isPie, llvmCompilerFactory, objectCache));
                                     }
                                 }
                                 if (llvm) {
-                                    builder.addPostHook(Phase.GENERATE, new MethodDataEmitter());
-                                    builder.addPostHook(Phase.GENERATE, new LLVMDefaultModuleCompileStage(isPie, compileOutput, referencePointerFactory, llvmCompilerFactory));
+                                    builder.addPostHook(Phase.GENERATE, new MethodDataEmitter(semispace));
+                                    builder.addPostHook(Phase.GENERATE, new LLVMDefaultModuleCompileStage(isPie, compileOutput, referencePointerFactory, llvmCompilerFactory, llvmBitcode, llvmStreaming));
                                     if (! isWasm) {
                                         builder.addPostHook(Phase.GENERATE, new LLVMStripStackMapStage());
                                     }
@@ -643,6 +769,8 @@ public class Main implements Callable<DiagnosticContext> {
                                 try (Driver driver = builder.build()) {
                                     ctxt = driver.getCompilationContext();
                                     MainMethod.get(ctxt).setMainClass(mainClass);
+                                    ProfileCounters.get(ctxt).setMainClass(mainClass);
+                                    ReachabilityInfo.get(ctxt).setAnalysisKind(reachabilityAnalysis);
                                     driver.execute();
                                 }
                             }
@@ -660,6 +788,18 @@ public class Main implements Callable<DiagnosticContext> {
         return ClassPathEntry.of(new DefaultArtifact("org.qbicc", artifactId, "jar", MainProperties.QBICC_VERSION));
     }
 
+    private ClassPathItem toImage(DiagnosticContext ctxt, ClassPathItem item) {
+        if (classPathImageDir == null) {
+            return item;
+        }
+        try {
+            return item.withClassPathImages(classPathImageDir);
+        } catch (IOException e) {
+            ctxt.warning("Failed to create a class path image of \"%s\" in %s: %s", item.name(), classPathImageDir, e);
+            return item;
+        }
+    }
+
     private void resolveClassPath(DiagnosticContext ctxt, Consumer<ClassPathItem> classPathItemConsumer, final List<ClassPathEntry> paths) throws IOException {
         QbiccMavenResolver resolver = new QbiccMavenResolver(new QbiccServiceLocator());
         File globalSettings = resolver.getGlobalSettings();
@@ -792,9 +932,29 @@ public class Main implements Callable<DiagnosticContext> {
             .setOptInlining(optionsProcessor.optArgs.optInlining)
             .setOptGotos(optionsProcessor.optArgs.optGotos)
             .setOptPhis(optionsProcessor.optArgs.optPhis)
+            .setOptInitChecks(optionsProcessor.optArgs.optInitChecks)
+            .setOptGvn(optionsProcessor.optArgs.optGvn)
+            .setOptBoundsChecks(optionsProcessor.optArgs.optBoundsChecks)
             .setOptEscapeAnalysis(optionsProcessor.optArgs.optEscapeAnalysis)
             .setSmallTypeIds(optionsProcessor.smallTypeIds)
             .setBackend(optionsProcessor.backend)
+            .setSchedulerType(optionsProcessor.workStealing ? SchedulerType.WORK_STEALING : SchedulerType.SHARED_QUEUE)
+            .setThreadsPerCpu(optionsProcessor.threadsPerCpu)
+            .setLlvmEmitAsm(optionsProcessor.llvmEmitAsm)
+            .setLlvmCacheDirectory(optionsProcessor.llvmCacheDir)
+            .setProbeCacheDirectory(optionsProcessor.probeCacheDir)
+            .setClassPathImageDirectory(optionsProcessor.classPathImageDir)
+            .setLlvmCacheMaxSize(optionsProcessor.llvmCacheMaxSize << 20)
+            .setLlvmBitcode(optionsProcessor.llvmBitcode)
+            .setLlvmStreaming(optionsProcessor.llvmStreaming)
+            .setTlabSize(optionsProcessor.tlabSize)
+            .setInterfaceDispatch(optionsProcessor.interfaceDispatch)
+            .setReachabilityAnalysis(optionsProcessor.reachabilityAnalysis)
+            .setHeapImage(optionsProcessor.heapImage)
+            .setPgoInstrument(optionsProcessor.pgoInstrument)
+            .setPgoProfile(optionsProcessor.pgoProfile)
+            .setDevirtualizationFanOut(optionsProcessor.devirtualizationFanOut)
+            .setDevirtualizationProfile(optionsProcessor.devirtualizationProfile)
             .setGraphGenConfig(optionsProcessor.graphGenConfig)
             .addLibrarySearchPaths(splitPathString(System.getenv("LIBRARY_PATH")))
             .addLibrarySearchPaths(optionsProcessor.libSearchPaths);
@@ -802,6 +962,12 @@ public class Main implements Callable<DiagnosticContext> {
         if (platform != null) {
             mainBuilder.setPlatform(platform);
         }
+        if (optionsProcessor.llvmUnits != null) {
+            mainBuilder.setLlvmUnits(optionsProcessor.llvmUnits.intValue());
+        }
+        if (optionsProcessor.classPrefetchThreads != null) {
+            mainBuilder.setClassPrefetchThreads(optionsProcessor.classPrefetchThreads.intValue());
+        }
 
         Main main = mainBuilder.build();
         DiagnosticContext context = main.call();
@@ -830,6 +996,7 @@ public class Main implements Callable<DiagnosticContext> {
     private static final class CommandLineProcessor {
         private enum GCType {
             NONE("none"),
+            SEMISPACE("semispace"),
             ;
             private final String gcType;
 
@@ -913,6 +1080,48 @@ public class Main implements Callable<DiagnosticContext> {
         private Platform platform;
         @CommandLine.Option(names = "--string-pool-stats")
         private boolean stringPoolStats;
+        @CommandLine.Option(names = "--scheduler-stats")
+        private boolean schedulerStats;
+        @CommandLine.Option(names = "--metrics", description = "Report the compilation timers and counters at the end of the build")
+        private boolean metrics;
+        @CommandLine.Option(names = "--llvm-emit-asm", description = "Write and assemble an intermediate assembly file for each LLVM module (for debugging)")
+        boolean llvmEmitAsm;
+        @CommandLine.Option(names = "--llvm-cache-dir", description = "Directory of a persistent cache of compiled LLVM modules which is shared between builds")
+        Path llvmCacheDir;
+        @CommandLine.Option(names = "--probe-cache-dir", description = "Directory of a persistent cache of C compiler probe results which is shared between builds for the same target")
+        Path probeCacheDir;
+        @CommandLine.Option(names = "--class-path-image-dir", description = "Directory of uncompressed images of the boot class path JARs, which are created once for each version of a JAR and shared between builds")
+        Path classPathImageDir;
+        @CommandLine.Option(names = "--llvm-cache-max-size", defaultValue = "4096", description = "Maximum size of the LLVM module cache, in MiB")
+        long llvmCacheMaxSize;
+        @CommandLine.Option(names = "--llvm-units", description = "Number of LLVM modules to group the classes into, or 0 for one module per class (default)")
+        Integer llvmUnits;
+        @CommandLine.Option(names = "--llvm-bitcode", description = "Write the LLVM modules as bitcode instead of textual IR, where possible")
+        boolean llvmBitcode;
+        @CommandLine.Option(names = "--llvm-streaming", description = "Write each LLVM module function by function as it is generated, to reduce peak heap (not used with --llvm-bitcode)")
+        boolean llvmStreaming;
+        @CommandLine.Option(names = "--tlab-size", defaultValue = "32768", description = "Size of the thread-local allocation buffers of the no-GC allocator in bytes, or 0 to disable them")
+        long tlabSize;
+        @CommandLine.Option(names = "--interface-dispatch", defaultValue = "searched", description = "Interface method dispatch strategy. Valid values: ${COMPLETION-CANDIDATES}")
+        InterfaceDispatch interfaceDispatch;
+        @CommandLine.Option(names = "--reachability-analysis", defaultValue = "rta", description = "Analysis which determines the reachable methods. Valid values: ${COMPLETION-CANDIDATES}")
+        ReachabilityAnalysisKind reachabilityAnalysis;
+        @CommandLine.Option(names = "--heap-image", description = "Serialize the initial heap as one pre-laid-out image per section instead of one global per object")
+        boolean heapImage;
+        @CommandLine.Option(names = "--pgo-instrument", description = "Build an image which writes an execution profile for profile-guided optimization")
+        boolean pgoInstrument;
+        @CommandLine.Option(names = "--pgo-profile", description = "Execution profile written by an instrumented image, used to guide optimization")
+        Path pgoProfile;
+        @CommandLine.Option(names = "--devirtualization-fan-out", defaultValue = "1", description = "Maximum number of receiver classes to test before a virtual or interface call, which call their methods directly, or 0 to disable guarded calls")
+        int devirtualizationFanOut;
+        @CommandLine.Option(names = "--no-devirtualization-profile", negatable = true, defaultValue = "true", description = "Enable/disable the use of the execution profile to select and order the receiver classes of guarded calls")
+        boolean devirtualizationProfile;
+        @CommandLine.Option(names = "--no-work-stealing", negatable = true, defaultValue = "true", description = "Enable/disable work-stealing distribution of elements to compiler threads")
+        boolean workStealing;
+        @CommandLine.Option(names = "--threads-per-cpu", defaultValue = "2.0", description = "Number of compiler threads to run per available CPU (at least one thread is always used)")
+        float threadsPerCpu;
+        @CommandLine.Option(names = "--class-prefetch-threads", description = "Number of threads which read and parse class files ahead of need (default: one per four available CPUs), or 0 to disable prefetching")
+        Integer classPrefetchThreads;
 
         @CommandLine.Option(names = { "--library-search-path", "-L" }, description = "Additional library search paths")
         private List<Path> libSearchPaths;
@@ -959,6 +1168,12 @@ public class Main implements Callable<DiagnosticContext> {
             boolean optPhis;
             @CommandLine.Option(names = "--no-opt-gotos", negatable = true, defaultValue = "true", description = "Enable/disable `goto` elimination")
             boolean optGotos;
+            @CommandLine.Option(names = "--no-opt-init-checks", negatable = true, defaultValue = "true", description = "Enable/disable removal and hoisting of redundant run time initialization checks")
+            boolean optInitChecks;
+            @CommandLine.Option(names = "--no-opt-gvn", negatable = true, defaultValue = "true", description = "Enable/disable global value numbering")
+            boolean optGvn;
+            @CommandLine.Option(names = "--no-opt-bounds-checks", negatable = true, defaultValue = "true", description = "Enable/disable removal of array index checks which are known to pass")
+            boolean optBoundsChecks;
             @CommandLine.Option(names = "--escape-analysis", negatable = true, defaultValue = "false", description = "Enable/disable escape analysis")
             boolean optEscapeAnalysis;
         }
@@ -1006,6 +1221,12 @@ public class Main implements Callable<DiagnosticContext> {
             if (stringPoolStats) {
                 Logger.getLogger("org.qbicc.plugin.stringpool.stats").setLevel(Level.DEBUG);
             }
+            if (schedulerStats) {
+                Logger.getLogger("org.qbicc.driver.scheduler.stats").setLevel(Level.DEBUG);
+            }
+            if (metrics) {
+                Logger.getLogger("org.qbicc.driver.metrics").setLevel(Level.DEBUG);
+            }
             if (outputPath == null) {
                 outputPath = Path.of(System.getProperty("java.io.tmpdir"), "qbicc-output-" + Integer.toHexString(ThreadLocalRandom.current().nextInt()));
             }
@@ -1050,10 +1271,32 @@ public class Main implements Callable<DiagnosticContext> {
         private boolean optInlining = false;
         private boolean optPhis = true;
         private boolean optGotos = true;
+        private boolean optInitChecks = true;
+        private boolean optGvn = true;
+        private boolean optBoundsChecks = true;
         private boolean optEscapeAnalysis = false;
         private GraphGenConfig graphGenConfig;
         private boolean smallTypeIds = false;
         private Backend backend = Backend.llvm;
+        private SchedulerType schedulerType = SchedulerType.WORK_STEALING;
+        private float threadsPerCpu = 2.0f;
+        private int classPrefetchThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+        private boolean llvmEmitAsm = false;
+        private Path llvmCacheDir;
+        private Path probeCacheDir;
+        private Path classPathImageDir;
+        private long llvmCacheMaxSize = 4096L << 20;
+        private int llvmUnits = 0;
+        private boolean llvmBitcode = false;
+        private boolean llvmStreaming = false;
+        private long tlabSize = 32768;
+        private InterfaceDispatch interfaceDispatch = InterfaceDispatch.searched;
+        private ReachabilityAnalysisKind reachabilityAnalysis = ReachabilityAnalysisKind.rta;
+        private boolean heapImage = false;
+        private boolean pgoInstrument = false;
+        private Path pgoProfile;
+        private int devirtualizationFanOut = 1;
+        private boolean devirtualizationProfile = true;
         private List<Path> librarySearchPaths = List.of();
         private List<String> buildFeatures = new ArrayList<>();
         private ClassPathResolver classPathResolver;
@@ -1204,6 +1447,21 @@ public class Main implements Callable<DiagnosticContext> {
             return this;
         }
 
+        public Builder setOptInitChecks(boolean optInitChecks) {
+            this.optInitChecks = optInitChecks;
+            return this;
+        }
+
+        public Builder setOptGvn(boolean optGvn) {
+            this.optGvn = optGvn;
+            return this;
+        }
+
+        public Builder setOptBoundsChecks(boolean optBoundsChecks) {
+            this.optBoundsChecks = optBoundsChecks;
+            return this;
+        }
+
         public Builder setOptEscapeAnalysis(boolean optEscapeAnalysis) {
             this.optEscapeAnalysis = optEscapeAnalysis;
             return this;
@@ -1214,6 +1472,107 @@ public class Main implements Callable<DiagnosticContext> {
             return this;
         }
 
+        public Builder setSchedulerType(SchedulerType schedulerType) {
+            this.schedulerType = Assert.checkNotNullParam("schedulerType", schedulerType);
+            return this;
+        }
+
+        public Builder setThreadsPerCpu(float threadsPerCpu) {
+            Assert.checkMinimumParameter("threadsPerCpu", 0.0f, threadsPerCpu);
+            this.threadsPerCpu = threadsPerCpu;
+            return this;
+        }
+
+        public Builder setClassPrefetchThreads(int classPrefetchThreads) {
+            Assert.checkMinimumParameter("classPrefetchThreads", 0, classPrefetchThreads);
+            this.classPrefetchThreads = classPrefetchThreads;
+            return this;
+        }
+
+        public Builder setLlvmEmitAsm(boolean llvmEmitAsm) {
+            this.llvmEmitAsm = llvmEmitAsm;
+            return this;
+        }
+
+        public Builder setLlvmCacheDirectory(Path llvmCacheDir) {
+            this.llvmCacheDir = llvmCacheDir;
+            return this;
+        }
+
+        public Builder setProbeCacheDirectory(Path probeCacheDir) {
+            this.probeCacheDir = probeCacheDir;
+            return this;
+        }
+
+        public Builder setClassPathImageDirectory(Path classPathImageDir) {
+            this.classPathImageDir = classPathImageDir;
+            return this;
+        }
+
+        public Builder setLlvmCacheMaxSize(long llvmCacheMaxSize) {
+            Assert.checkMinimumParameter("llvmCacheMaxSize", 0L, llvmCacheMaxSize);
+            this.llvmCacheMaxSize = llvmCacheMaxSize;
+            return this;
+        }
+
+        public Builder setLlvmUnits(int llvmUnits) {
+            Assert.checkMinimumParameter("llvmUnits", 0, llvmUnits);
+            this.llvmUnits = llvmUnits;
+            return this;
+        }
+
+        public Builder setLlvmBitcode(boolean llvmBitcode) {
+            this.llvmBitcode = llvmBitcode;
+            return this;
+        }
+
+        public Builder setLlvmStreaming(boolean llvmStreaming) {
+            this.llvmStreaming = llvmStreaming;
+            return this;
+        }
+
+        public Builder setTlabSize(long tlabSize) {
+            Assert.checkMinimumParameter("tlabSize", 0L, tlabSize);
+            this.tlabSize = tlabSize;
+            return this;
+        }
+
+        public Builder setInterfaceDispatch(InterfaceDispatch interfaceDispatch) {
+            this.interfaceDispatch = Assert.checkNotNullParam("interfaceDispatch", interfaceDispatch);
+            return this;
+        }
+
+        public Builder setReachabilityAnalysis(ReachabilityAnalysisKind reachabilityAnalysis) {
+            this.reachabilityAnalysis = Assert.checkNotNullParam("reachabilityAnalysis", reachabilityAnalysis);
+            return this;
+        }
+
+        public Builder setHeapImage(boolean heapImage) {
+            this.heapImage = heapImage;
+            return this;
+        }
+
+        public Builder setPgoInstrument(boolean pgoInstrument) {
+            this.pgoInstrument = pgoInstrument;
+            return this;
+        }
+
+        public Builder setPgoProfile(Path pgoProfile) {
+            this.pgoProfile = pgoProfile;
+            return this;
+        }
+
+        public Builder setDevirtualizationFanOut(int devirtualizationFanOut) {
+            Assert.checkMinimumParameter("devirtualizationFanOut", 0, devirtualizationFanOut);
+            this.devirtualizationFanOut = devirtualizationFanOut;
+            return this;
+        }
+
+        public Builder setDevirtualizationProfile(boolean devirtualizationProfile) {
+            this.devirtualizationProfile = devirtualizationProfile;
+            return this;
+        }
+
         public Builder setSmallTypeIds(boolean smallTypeIds) {
             this.smallTypeIds = smallTypeIds;
             return this;
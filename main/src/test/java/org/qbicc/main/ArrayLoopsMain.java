@@ -0,0 +1,82 @@
+package org.qbicc.main;
+
+/**
+ * A program with counted loops over arrays, whose bounds checks can be removed, and loops whose checks must stay.
+ */
+public class ArrayLoopsMain {
+    static int sink;
+
+    static int sumForward(int[] data) {
+        int sum = 0;
+        for (int i = 0; i < data.length; i++) {
+            sum += data[i];
+        }
+        return sum;
+    }
+
+    static int sumBackward(int[] data) {
+        int sum = 0;
+        for (int i = data.length - 1; i >= 0; i--) {
+            sum += data[i];
+        }
+        return sum;
+    }
+
+    static int sumEach(int[] data) {
+        int sum = 0;
+        for (int value : data) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    static int sumNested(int[][] data) {
+        int sum = 0;
+        for (int i = 0; i < data.length; i++) {
+            // each load of data[i] may give a different array, so the row is loaded once
+            int[] row = data[i];
+            for (int j = 0; j < row.length; j++) {
+                sum += row[j];
+            }
+        }
+        return sum;
+    }
+
+    static void copy(int[] from, int[] to) {
+        int length = Math.min(from.length, to.length);
+        for (int i = 0; i < length; i++) {
+            to[i] = from[i];
+        }
+    }
+
+    static int sumPastEnd(int[] data) {
+        int sum = 0;
+        for (int i = 0; i <= data.length; i++) {
+            sum += data[i];
+        }
+        return sum;
+    }
+
+    static int sumBeforeStart(int[] data) {
+        int sum = 0;
+        for (int i = -1; i < data.length; i++) {
+            sum += data[i];
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) {
+        int[] data = new int[args.length + 10];
+        copy(data, new int[args.length + 5]);
+        int sum = sumForward(data) + sumBackward(data) + sumEach(data) + sumNested(new int[][] { data, data });
+        try {
+            sum += sumPastEnd(data);
+        } catch (ArrayIndexOutOfBoundsException ignored) {
+        }
+        try {
+            sum += sumBeforeStart(data);
+        } catch (ArrayIndexOutOfBoundsException ignored) {
+        }
+        sink = sum;
+    }
+}
@@ -0,0 +1,12 @@
+package org.qbicc.main;
+
+/**
+ * The program of the compilations which are shared by the tests of the generated code, which runs each of the
+ * programs that the tests inspect.
+ */
+public final class CombinedMain {
+    public static void main(String[] args) {
+        ArrayLoopsMain.main(args);
+        ReachabilityMain.main(args);
+    }
+}
@@ -0,0 +1,43 @@
+package org.qbicc.main;
+
+/**
+ * A program whose static initializer does a lot of work, which is run by the build-time interpreter.  The initializer
+ * records how long it took in {@link #initNanos}, whose value is serialized into the built program.
+ */
+public final class HeavyInitializerMain {
+    static final int PRIME_COUNT;
+    static final long CHECKSUM;
+    static long initNanos;
+
+    static {
+        final long start = System.nanoTime();
+        // sieve of Eratosthenes
+        final int limit = 1 << 20;
+        final boolean[] composite = new boolean[limit];
+        int count = 0;
+        for (int i = 2; i < limit; i ++) {
+            if (! composite[i]) {
+                count ++;
+                for (long j = (long) i * i; j < limit; j += i) {
+                    composite[(int) j] = true;
+                }
+            }
+        }
+        PRIME_COUNT = count;
+        // integer hash mixing
+        long hash = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < 1_000_000; i ++) {
+            hash ^= i;
+            hash *= 0xBF58476D1CE4E5B9L;
+            hash ^= hash >>> 31;
+        }
+        CHECKSUM = hash;
+        initNanos = System.nanoTime() - start;
+    }
+
+    public static void main(String[] args) {
+        if (PRIME_COUNT == 0 && CHECKSUM == 0 || initNanos < 0) {
+            throw new IllegalStateException();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.qbicc.main;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.qbicc.context.Diagnostic;
+import org.qbicc.context.DiagnosticContext;
+
+/**
+ * A benchmark of the build-time interpreter.  It builds {@link HeavyInitializerMain} repeatedly, and reports the
+ * median time which its static initializer took to run in the build-time interpreter.  The initializer times itself,
+ * so the rest of the build is not measured; the time is read back from the generated program.
+ * <p>
+ * This is not run as part of the test suite.  To run it:
+ * <pre>
+ * mvn -pl main test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.qbicc.main.InterpreterBenchmark -Dexec.args="3 1234"
+ * </pre>
+ * The first argument is the number of measured iterations (default 3), after one warm-up build.  The optional second
+ * argument is a baseline median in milliseconds, such as the median of an earlier interpreter, to compare with.
+ */
+public final class InterpreterBenchmark {
+    private static final Pattern INIT_NANOS = Pattern.compile("^@\"?" + Pattern.quote(HeavyInitializerMain.class.getName() + ".initNanos") + "\"? = .* i64 (\\d+)");
+
+    private InterpreterBenchmark() {}
+
+    public static void main(String[] args) throws Exception {
+        final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        final long baseline = args.length > 1 ? Long.parseLong(args[1]) : -1;
+        final Path outputPath = Path.of(System.getProperty("qbicc.test.outputPath", "target/benchmark-output"));
+        build(outputPath);
+        final long[] times = new long[iterations];
+        for (int i = 0; i < iterations; i ++) {
+            times[i] = build(outputPath);
+            System.out.printf("Iteration %d: static initializer %d ms%n", Integer.valueOf(i + 1), Long.valueOf(times[i]));
+        }
+        final long median = median(times);
+        if (baseline > 0) {
+            System.out.printf("Median: static initializer %d ms, baseline %d ms (%.2fx)%n", Long.valueOf(median), Long.valueOf(baseline), Double.valueOf((double) baseline / median));
+        } else {
+            System.out.printf("Median: static initializer %d ms%n", Long.valueOf(median));
+        }
+    }
+
+    /**
+     * Build the program and get the time its static initializer took.
+     *
+     * @param outputPath the output path of the build
+     * @return the time in milliseconds
+     */
+    private static long build(Path outputPath) throws IOException {
+        final Main.Builder builder = Main.builder();
+        builder.setMainClass(HeavyInitializerMain.class.getName());
+        final String myPath = InterpreterBenchmark.class.getProtectionDomain().getCodeSource().getLocation().getPath();
+        builder.addAppPath(ClassPathEntry.of(Path.of(myPath)));
+        builder.setCompileOutput(false);
+        builder.setOutputName("benchmark-app");
+        builder.setOutputPath(outputPath);
+        final DiagnosticContext dc = builder.build().call();
+        if (dc.errors() > 0) {
+            for (Diagnostic d : dc.getDiagnostics()) {
+                try {
+                    d.appendTo(System.err);
+                } catch (IOException ignored) {
+                    // just give up
+                    break;
+                }
+            }
+            throw new IllegalStateException("Build of " + HeavyInitializerMain.class.getName() + " failed");
+        }
+        try (Stream<Path> files = Files.walk(outputPath)) {
+            for (Path file : (Iterable<Path>) files.filter(p -> p.toString().endsWith(".ll"))::iterator) {
+                for (String line : Files.readAllLines(file)) {
+                    Matcher matcher = INIT_NANOS.matcher(line);
+                    if (matcher.find()) {
+                        return Long.parseLong(matcher.group(1)) / 1_000_000L;
+                    }
+                }
+            }
+        }
+        throw new IllegalStateException("The time of the static initializer was not found in the generated program");
+    }
+
+    private static long median(long[] values) {
+        final long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,59 @@
+package org.qbicc.main;
+
+/**
+ * A program whose interface call sites are given receivers in different ways, so that the points-to analysis can bind
+ * some of them to a single method, while the rapid type analysis sees every instantiated implementation at each.
+ */
+public final class PointsToMain {
+    interface Op {
+        int apply(int x);
+    }
+
+    static final class Inc implements Op {
+        public int apply(int x) {
+            return x + 1;
+        }
+    }
+
+    static final class Twice implements Op {
+        public int apply(int x) {
+            return x * 2;
+        }
+    }
+
+    static final class Negate implements Op {
+        public int apply(int x) {
+            return -x;
+        }
+    }
+
+    static final class Holder {
+        Op op;
+    }
+
+    // not final, so that its value is loaded from the build time heap
+    static Op heapOp = new Negate();
+
+    static Object sink;
+
+    public static void main(String[] args) {
+        Holder holder = new Holder();
+        holder.op = new Twice();
+        sink = Integer.valueOf(applyArgument(new Inc(), args.length) + applyField(holder, 1) + applyHeap(2));
+    }
+
+    // only an Inc flows to the parameter
+    static int applyArgument(Op op, int x) {
+        return op.apply(x);
+    }
+
+    // a loaded value may be of any instantiated class
+    static int applyField(Holder holder, int x) {
+        return holder.op.apply(x);
+    }
+
+    // so may an object of the build time heap
+    static int applyHeap(int x) {
+        return heapOp.apply(x);
+    }
+}
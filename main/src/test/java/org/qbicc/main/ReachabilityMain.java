@@ -0,0 +1,64 @@
+package org.qbicc.main;
+
+/**
+ * A program whose methods are discovered by the reachability analysis in different orders relative to the
+ * instantiation of their receivers.
+ */
+public final class ReachabilityMain {
+    interface Shape {
+        int sides();
+
+        default String describe() {
+            return "shape";
+        }
+    }
+
+    static final class Square implements Shape {
+        public int sides() {
+            return 4;
+        }
+    }
+
+    // never instantiated, so its methods are not reachable although the interface methods are called
+    static final class Circle implements Shape {
+        public int sides() {
+            return 0;
+        }
+
+        public String describe() {
+            return "circle";
+        }
+    }
+
+    static class Base {
+        int value() {
+            return 1;
+        }
+
+        int unused() {
+            return 0;
+        }
+    }
+
+    static final class Derived extends Base {
+        int value() {
+            return super.value() + 1;
+        }
+    }
+
+    static Object sink;
+
+    public static void main(String[] args) {
+        // the implementor is instantiated before its inherited default method is first called
+        Shape shape = new Square();
+        sink = shape.describe();
+        // the method is called before any receiver is instantiated
+        sink = Integer.valueOf(callValue(null));
+        Derived derived = new Derived();
+        sink = Integer.valueOf(callValue(derived) + shape.sides());
+    }
+
+    static int callValue(Base base) {
+        return base == null ? 0 : base.value();
+    }
+}
@@ -0,0 +1,70 @@
+package org.qbicc.main;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Assertions;
+import org.qbicc.context.Diagnostic;
+import org.qbicc.context.DiagnosticContext;
+import org.qbicc.driver.SchedulerType;
+
+/**
+ * The compilations of {@link CombinedMain} which are shared by the tests of the generated code, since each one takes
+ * minutes.  Each compilation runs the first time that a test asks for it, and its output is kept for the rest of the
+ * test run.
+ * <p>
+ * Inlining is disabled so that each method of the programs keeps its own function, each class gets its own LLVM module,
+ * and the initial heap is serialized as images.
+ */
+final class SharedCompilations {
+    private static Path serial;
+    private static Path parallel;
+
+    private SharedCompilations() {}
+
+    /**
+     * Get the output of the compilation on one thread.
+     *
+     * @return the output path of the compilation
+     */
+    static synchronized Path serial() throws IOException {
+        if (serial == null) {
+            serial = compile("shared-serial", SchedulerType.SHARED_QUEUE, 0.0f);
+        }
+        return serial;
+    }
+
+    /**
+     * Get the output of the compilation on several threads per CPU.
+     *
+     * @return the output path of the compilation
+     */
+    static synchronized Path parallel() throws IOException {
+        if (parallel == null) {
+            parallel = compile("shared-parallel", SchedulerType.WORK_STEALING, 4.0f);
+        }
+        return parallel;
+    }
+
+    private static Path compile(String name, SchedulerType schedulerType, float threadsPerCpu) throws IOException {
+        final Path outputPath = Path.of(System.getProperty("qbicc.test.outputPath", "target/test-output")).resolve(name);
+        final Main.Builder builder = Main.builder();
+        builder.setMainClass(CombinedMain.class.getName());
+        final String myPath = SharedCompilations.class.getProtectionDomain().getCodeSource().getLocation().getPath();
+        builder.addAppPath(ClassPathEntry.of(Path.of(myPath)));
+        builder.setCompileOutput(false);
+        builder.setOutputName("test-app");
+        builder.setOutputPath(outputPath);
+        builder.setSchedulerType(schedulerType);
+        builder.setThreadsPerCpu(threadsPerCpu);
+        builder.setOptInlining(false);
+        builder.setLlvmUnits(0);
+        builder.setHeapImage(true);
+        final DiagnosticContext dc = builder.build().call();
+        for (Diagnostic d : dc.getDiagnostics()) {
+            d.appendTo(System.out);
+        }
+        Assertions.assertEquals(0, dc.errors());
+        return outputPath;
+    }
+}
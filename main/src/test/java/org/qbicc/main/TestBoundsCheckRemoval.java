@@ -0,0 +1,65 @@
+package org.qbicc.main;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Check that the bounds checks of the counted loops of {@link ArrayLoopsMain} are removed from the generated code, and
+ * that the checks of the loops which go out of bounds are kept.  The generated code is that of the shared parallel
+ * compilation.
+ */
+public class TestBoundsCheckRemoval {
+    private static final Pattern DEFINE = Pattern.compile("^define [^@]*@\"?_Jorg_qbicc_main_ArrayLoopsMain_(\\w+?)__");
+    private static final String RAISE = "raiseArrayIndexOutOfBoundsException";
+
+    @Test
+    public void testCountedLoopChecksAreRemoved() throws IOException {
+        final Map<String, String> bodies = functionBodies(SharedCompilations.parallel());
+        for (String name : List.of("sumForward", "sumBackward", "sumEach", "sumNested", "copy")) {
+            Assertions.assertTrue(bodies.containsKey(name), name + " was not generated");
+            Assertions.assertFalse(bodies.get(name).contains(RAISE), name + " still has a bounds check");
+        }
+        for (String name : List.of("sumPastEnd", "sumBeforeStart")) {
+            Assertions.assertTrue(bodies.containsKey(name), name + " was not generated");
+            Assertions.assertTrue(bodies.get(name).contains(RAISE), name + " lost its bounds check");
+        }
+    }
+
+    /**
+     * Get the text of each function of {@code ArrayLoopsMain} in the generated LLVM modules, by method name.
+     */
+    private static Map<String, String> functionBodies(Path outputPath) throws IOException {
+        final Map<String, String> bodies = new HashMap<>();
+        try (Stream<Path> files = Files.walk(outputPath)) {
+            for (Path file : (Iterable<Path>) files.filter(p -> p.toString().endsWith(".ll"))::iterator) {
+                String name = null;
+                StringBuilder body = new StringBuilder();
+                for (String line : Files.readAllLines(file)) {
+                    if (name == null) {
+                        Matcher matcher = DEFINE.matcher(line);
+                        if (matcher.find()) {
+                            name = matcher.group(1);
+                        }
+                    } else if (line.equals("}")) {
+                        bodies.put(name, body.toString());
+                        name = null;
+                        body.setLength(0);
+                    } else {
+                        body.append(line).append('\n');
+                    }
+                }
+            }
+        }
+        return bodies;
+    }
+}
@@ -0,0 +1,34 @@
+package org.qbicc.main;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the initial heap when it is serialized as pre-laid-out images, as it is by the shared compilations.
+ */
+public class TestHeapImage {
+    @Test
+    public void testHeapImageCompile() throws IOException {
+        final Path outputPath = SharedCompilations.parallel();
+        Assertions.assertTrue(defines(outputPath, "@qbicc_initial_heap_obj_image = "), "The object image was not emitted");
+        Assertions.assertTrue(defines(outputPath, "@qbicc_initial_heap_iss_image = "), "The interned string image was not emitted");
+    }
+
+    private static boolean defines(Path outputPath, String prefix) throws IOException {
+        try (Stream<Path> files = Files.walk(outputPath)) {
+            for (Path file : (Iterable<Path>) files.filter(p -> p.toString().endsWith(".ll"))::iterator) {
+                try (Stream<String> lines = Files.lines(file)) {
+                    if (lines.anyMatch(line -> line.startsWith(prefix))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+}
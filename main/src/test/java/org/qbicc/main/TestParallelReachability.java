@@ -0,0 +1,101 @@
+package org.qbicc.main;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Check that the reachability analysis finds the same program regardless of how the compiler threads interleave, and
+ * that it finds the expected methods of {@link ReachabilityMain}.  The shared serial and parallel compilations are
+ * compared.
+ * <p>
+ * Hidden classes are numbered in the order that the build-time interpreter spins them, so lambda classes and lambda
+ * forms are compared without their numbers.  The one expected difference is in the lambda forms of direct method
+ * handles to static methods: while the class of the method is not yet initialized, the handle gets an
+ * {@code invokeStaticInit} form which initializes it.  Whether a class is initialized by the time that one of its
+ * handles is made depends on the order in which the threads initialize classes at build time, so these lambda forms
+ * are left out.
+ * <p>
+ * The analysis checks deferred methods against every instantiated subtype, where it used to only check the reachable
+ * subclasses.  Compiling {@code ReachabilityMain} and all of the integration test snippets both ways gave the same
+ * functions, so no difference is expected here.
+ */
+public class TestParallelReachability {
+    private static final Pattern DEFINE = Pattern.compile("^define [^@]*@([^\\s(]+)\\(");
+    private static final Pattern HIDDEN_CLASS_NUMBER = Pattern.compile("(\\$\\$Lambda)\\$\\d+(\\$\\d+)?|~\\d+|(LambdaForm\\$\\w+)\\$\\d+");
+    private static final String PREFIX = "_Jorg_qbicc_main_ReachabilityMain";
+
+    @Test
+    public void testSerialAndParallelAgree() throws IOException {
+        final Path serialPath = SharedCompilations.serial();
+        final List<String> serial = definedSymbols(serialPath);
+        Assertions.assertEquals(serial, definedSymbols(SharedCompilations.parallel()));
+
+        final Set<String> functions = new HashSet<>();
+        for (String symbol : serial) {
+            functions.add(symbol.substring(symbol.indexOf(':') + 1).replace("\"", ""));
+        }
+        // the default method is reachable through the implementor which was instantiated before the call
+        assertReachable(functions, "$Shape_describe___Ljava_lang_String_2");
+        assertReachable(functions, "$Square_sides___I");
+        // the overriding method is reachable although its class was instantiated after the first call
+        assertReachable(functions, "$Derived_value___I");
+        assertReachable(functions, "$Base_value___I");
+        assertNotReachable(functions, "$Base_unused___I");
+        assertNotReachable(functions, "$Circle_sides___I");
+        assertNotReachable(functions, "$Circle_describe___Ljava_lang_String_2");
+    }
+
+    private static void assertReachable(Set<String> functions, String name) {
+        Assertions.assertTrue(functions.contains(PREFIX + name), name + " is not reachable");
+    }
+
+    private static void assertNotReachable(Set<String> functions, String name) {
+        Assertions.assertFalse(functions.contains(PREFIX + name), name + " is reachable");
+    }
+
+    /**
+     * Get the sorted list of functions defined by the generated LLVM modules, each qualified by the path of its module.
+     */
+    private static List<String> definedSymbols(Path outputPath) throws IOException {
+        final List<String> symbols = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(outputPath)) {
+            for (Path file : (Iterable<Path>) files.filter(p -> p.toString().endsWith(".ll"))::iterator) {
+                final String module = normalize(outputPath.relativize(file).toString());
+                final List<String> functions = new ArrayList<>();
+                try (Stream<String> lines = Files.lines(file)) {
+                    lines.forEach(line -> {
+                        Matcher matcher = DEFINE.matcher(line);
+                        if (matcher.find()) {
+                            functions.add(normalize(matcher.group(1)));
+                        }
+                    });
+                }
+                if (module.contains("LambdaForm$") && functions.stream().anyMatch(f -> f.contains("_invokeStaticInit_"))) {
+                    continue;
+                }
+                symbols.add(module);
+                for (String function : functions) {
+                    symbols.add(module + ":" + function);
+                }
+            }
+        }
+        Collections.sort(symbols);
+        return symbols;
+    }
+
+    private static String normalize(String name) {
+        return HIDDEN_CLASS_NUMBER.matcher(name).replaceAll("$1$3");
+    }
+}
@@ -0,0 +1,83 @@
+package org.qbicc.main;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.qbicc.context.Diagnostic;
+import org.qbicc.context.DiagnosticContext;
+import org.qbicc.plugin.reachability.ReachabilityAnalysisKind;
+
+/**
+ * Check that the points-to analysis binds the call sites of {@link PointsToMain} which can only have one receiver
+ * class, and leaves the call sites whose receivers are loaded from memory dispatched.
+ */
+public class TestPointsToReachability {
+    private static final String PREFIX = "_Jorg_qbicc_main_PointsToMain";
+
+    @Test
+    public void testPointsToAnalysis() throws IOException {
+        final Path outputPath = Path.of(System.getProperty("qbicc.test.outputPath", "target/test-output")).resolve("reachability-pta");
+        final Main.Builder builder = Main.builder();
+        builder.setMainClass(PointsToMain.class.getName());
+        final String myPath = TestPointsToReachability.class.getProtectionDomain().getCodeSource().getLocation().getPath();
+        builder.addAppPath(ClassPathEntry.of(Path.of(myPath)));
+        builder.setCompileOutput(false);
+        builder.setOutputName("test-app");
+        builder.setOutputPath(outputPath);
+        builder.setReachabilityAnalysis(ReachabilityAnalysisKind.pta);
+        final DiagnosticContext dc = builder.build().call();
+        for (Diagnostic d : dc.getDiagnostics()) {
+            d.appendTo(System.out);
+        }
+        Assertions.assertEquals(0, dc.errors());
+
+        final List<String> applyArgument = function(outputPath, "_applyArgument__");
+        Assertions.assertTrue(callsDirectly(applyArgument, "$Inc_apply__I_I"), "The call with a single receiver class is not bound");
+        Assertions.assertFalse(callsIndirectly(applyArgument), "The call with a single receiver class is dispatched");
+        for (String name : List.of("_applyField__", "_applyHeap__")) {
+            final List<String> body = function(outputPath, name);
+            Assertions.assertTrue(callsIndirectly(body), "The call in " + name + " is not dispatched");
+            for (String op : List.of("$Inc", "$Twice", "$Negate")) {
+                Assertions.assertFalse(callsDirectly(body, op + "_apply__I_I"), "The call in " + name + " is bound to " + op);
+            }
+        }
+    }
+
+    private static boolean callsDirectly(List<String> body, String name) {
+        return body.stream().anyMatch(line -> line.contains(" call ") && line.contains("@\"" + PREFIX + name + "\"("));
+    }
+
+    private static boolean callsIndirectly(List<String> body) {
+        return body.stream().anyMatch(line -> line.contains(" call ") && line.matches(".* %\\w+\\(.*"));
+    }
+
+    /**
+     * Get the lines of the definition of the function of {@link PointsToMain} whose name contains the given string.
+     */
+    private static List<String> function(Path outputPath, String name) throws IOException {
+        try (Stream<Path> files = Files.walk(outputPath)) {
+            for (Path file : (Iterable<Path>) files.filter(p -> p.toString().endsWith(".ll"))::iterator) {
+                final List<String> body = new ArrayList<>();
+                for (String line : Files.readAllLines(file)) {
+                    if (body.isEmpty()) {
+                        if (line.startsWith("define ") && line.contains(PREFIX + name)) {
+                            body.add(line);
+                        }
+                    } else if (line.equals("}")) {
+                        return body;
+                    } else {
+                        body.add(line);
+                    }
+                }
+            }
+        }
+        Assertions.fail("The function " + name + " was not found");
+        return List.of();
+    }
+}
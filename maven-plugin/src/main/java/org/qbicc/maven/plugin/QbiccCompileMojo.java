@@ -29,6 +29,8 @@ import org.qbicc.machine.arch.Platform;
 import org.qbicc.main.ClassPathEntry;
 import org.qbicc.main.DefaultArtifactRequestor;
 import org.qbicc.main.Main;
+import org.qbicc.plugin.dispatch.InterfaceDispatch;
+import org.qbicc.plugin.reachability.ReachabilityAnalysisKind;
 
 /**
  *
@@ -78,6 +80,21 @@ public class QbiccCompileMojo extends AbstractMojo {
     @Parameter
     private String platform;
 
+    @Parameter(defaultValue = "none")
+    private String gc;
+
+    @Parameter(defaultValue = "searched")
+    private String interfaceDispatch;
+
+    @Parameter(defaultValue = "rta")
+    private String reachabilityAnalysis;
+
+    @Parameter(defaultValue = "1")
+    private int devirtualizationFanOut;
+
+    @Parameter
+    private File pgoProfile;
+
     @Component
     private RepositorySystem repoSystem;
 
@@ -132,6 +149,13 @@ public class QbiccCompileMojo extends AbstractMojo {
             builder.setClassLibVersion(classLibraryVersion);
         }
         builder.setOutputName(outputName);
+        builder.setGc(gc);
+        builder.setInterfaceDispatch(InterfaceDispatch.valueOf(interfaceDispatch));
+        builder.setReachabilityAnalysis(ReachabilityAnalysisKind.valueOf(reachabilityAnalysis));
+        builder.setDevirtualizationFanOut(devirtualizationFanOut);
+        if (pgoProfile != null) {
+            builder.setPgoProfile(pgoProfile.toPath());
+        }
         if (platform != null) {
             builder.setPlatform(Platform.parse(platform));
         }
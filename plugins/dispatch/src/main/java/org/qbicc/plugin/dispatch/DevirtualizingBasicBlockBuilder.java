@@ -1,13 +1,28 @@
 package org.qbicc.plugin.dispatch;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.qbicc.context.ClassContext;
 import org.qbicc.context.CompilationContext;
 import org.qbicc.graph.*;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.plugin.coreclasses.CoreClasses;
+import org.qbicc.plugin.profile.ProfileData;
+import org.qbicc.plugin.reachability.ReachabilityInfo;
 import org.qbicc.type.ClassObjectType;
 import org.qbicc.type.InstanceMethodType;
 import org.qbicc.type.PhysicalObjectType;
 import org.qbicc.type.ReferenceType;
 import org.qbicc.type.ValueType;
+import org.qbicc.type.VoidType;
+import org.qbicc.type.definition.DefinedTypeDefinition;
 import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.element.FunctionElement;
 import org.qbicc.type.definition.element.MethodElement;
 import org.jboss.logging.Logger;
 import org.qbicc.type.descriptor.MethodDescriptor;
@@ -15,11 +30,138 @@ import org.qbicc.type.descriptor.MethodDescriptor;
 public class DevirtualizingBasicBlockBuilder extends DelegatingBasicBlockBuilder {
     private static final Logger log = Logger.getLogger("org.qbicc.plugin.dispatch.devirt");
 
+    /**
+     * The percentage of the profiled calls of a call site which must go to the guarded receiver classes for the call
+     * to be guarded by tests of those classes.
+     */
+    private static final int DOMINANT_RECEIVER_PERCENT = 90;
+
     private final CompilationContext ctxt;
+    private final ProfileData profile;
+    private final ReachabilityInfo reachability;
+    private final int maxReceivers;
 
     public DevirtualizingBasicBlockBuilder(final CompilationContext ctxt, final BasicBlockBuilder delegate) {
+        this(ctxt, delegate, null, null, 0);
+    }
+
+    private DevirtualizingBasicBlockBuilder(final CompilationContext ctxt, final BasicBlockBuilder delegate, final ProfileData profile, final ReachabilityInfo reachability, final int maxReceivers) {
         super(delegate);
         this.ctxt = ctxt;
+        this.profile = profile;
+        this.reachability = reachability;
+        this.maxReceivers = maxReceivers;
+    }
+
+    /**
+     * Create a devirtualizer for the analyze phase.  In addition to binding calls statically, a virtual or interface
+     * call whose receivers were nearly all of a few classes in the profile is guarded by a chain of tests of those
+     * classes, each of which calls the method of its class directly, so that it can be inlined.  This can only be done
+     * once it is known which methods are reachable.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @param delegate the delegate block builder (must not be {@code null})
+     * @param maxReceivers the maximum number of receiver classes to test at a call site
+     * @param useProfile {@code true} to guard calls according to the profile, if there is one
+     * @return the devirtualizer (not {@code null})
+     */
+    public static DevirtualizingBasicBlockBuilder createForAnalyzePhase(final CompilationContext ctxt, final BasicBlockBuilder delegate, final int maxReceivers, final boolean useProfile) {
+        return new DevirtualizingBasicBlockBuilder(ctxt, delegate, useProfile ? getProfile(ctxt) : null, null, maxReceivers);
+    }
+
+    /**
+     * Create a devirtualizer for the lower phase.  In addition to binding calls statically, a virtual or interface
+     * call for which the reachability analysis of the analyze phase found a single target method is bound to that
+     * method, and a call which may only have a few instantiated receiver classes is guarded by a chain of tests of
+     * those classes, each of which calls the method of its class directly.  The classes are tested in the order of
+     * their frequency in the profile, if there is one.  The dispatched call remains as the fallback of the chain.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @param delegate the delegate block builder (must not be {@code null})
+     * @param maxReceivers the maximum number of receiver classes to test at a call site
+     * @param useProfile {@code true} to order the tests according to the profile, if there is one
+     * @return the devirtualizer (not {@code null})
+     */
+    public static DevirtualizingBasicBlockBuilder createForLowerPhase(final CompilationContext ctxt, final BasicBlockBuilder delegate, final int maxReceivers, final boolean useProfile) {
+        return new DevirtualizingBasicBlockBuilder(ctxt, delegate, useProfile ? getProfile(ctxt) : null, ReachabilityInfo.get(ctxt), maxReceivers);
+    }
+
+    private static ProfileData getProfile(final CompilationContext ctxt) {
+        ProfileData profile = ProfileData.get(ctxt);
+        return profile.isEmpty() ? null : profile;
+    }
+
+    @Override
+    public Value call(ValueHandle target, List<Value> arguments) {
+        List<LoadedTypeDefinition> receiverTypes = findGuardedReceivers(target);
+        if (receiverTypes == null) {
+            return super.call(target, arguments);
+        }
+        ValueType returnType = ((InstanceMethodElementHandle) target).getCallSiteType().getReturnType();
+        boolean isVoid = returnType instanceof VoidType;
+        BlockLabel resume = new BlockLabel();
+        PhiValue result = isVoid ? null : phi(returnType, resume);
+        guard((InstanceMethodElementHandle) target, receiverTypes, (handle, dispatched) -> {
+            Value branchResult = dispatched ? super.call(handle, arguments) : call(handle, arguments);
+            BasicBlock from = goto_(resume);
+            if (! isVoid) {
+                result.setValueForBlock(ctxt, getCurrentElement(), from, branchResult);
+            }
+        });
+        begin(resume);
+        return isVoid ? ctxt.getLiteralFactory().zeroInitializerLiteralOfType(returnType) : result;
+    }
+
+    @Override
+    public Value invoke(ValueHandle target, List<Value> arguments, BlockLabel catchLabel, BlockLabel resumeLabel) {
+        List<LoadedTypeDefinition> receiverTypes = findGuardedReceivers(target);
+        if (receiverTypes == null) {
+            return super.invoke(target, arguments, catchLabel, resumeLabel);
+        }
+        ValueType returnType = ((InstanceMethodElementHandle) target).getCallSiteType().getReturnType();
+        boolean isVoid = returnType instanceof VoidType;
+        PhiValue result = isVoid ? null : phi(returnType, resumeLabel);
+        guard((InstanceMethodElementHandle) target, receiverTypes, (handle, dispatched) -> {
+            // the result of each invocation is pinned to its own resume block, which joins the others at the real one
+            BlockLabel resume = new BlockLabel();
+            Value branchResult = dispatched ? super.invoke(handle, arguments, catchLabel, resume) : invoke(handle, arguments, catchLabel, resume);
+            begin(resume);
+            BasicBlock from = goto_(resumeLabel);
+            if (! isVoid) {
+                result.setValueForBlock(ctxt, getCurrentElement(), from, branchResult);
+            }
+        });
+        return isVoid ? ctxt.getLiteralFactory().zeroInitializerLiteralOfType(returnType) : result;
+    }
+
+    @Override
+    public BasicBlock tailCall(ValueHandle target, List<Value> arguments) {
+        List<LoadedTypeDefinition> receiverTypes = findGuardedReceivers(target);
+        if (receiverTypes == null) {
+            return super.tailCall(target, arguments);
+        }
+        return guard((InstanceMethodElementHandle) target, receiverTypes, (handle, dispatched) -> {
+            if (dispatched) {
+                super.tailCall(handle, arguments);
+            } else {
+                tailCall(handle, arguments);
+            }
+        });
+    }
+
+    @Override
+    public BasicBlock tailInvoke(ValueHandle target, List<Value> arguments, BlockLabel catchLabel) {
+        List<LoadedTypeDefinition> receiverTypes = findGuardedReceivers(target);
+        if (receiverTypes == null) {
+            return super.tailInvoke(target, arguments, catchLabel);
+        }
+        return guard((InstanceMethodElementHandle) target, receiverTypes, (handle, dispatched) -> {
+            if (dispatched) {
+                super.tailInvoke(handle, arguments, catchLabel);
+            } else {
+                tailInvoke(handle, arguments, catchLabel);
+            }
+        });
     }
 
     @Override
@@ -28,6 +170,10 @@ public class DevirtualizingBasicBlockBuilder extends DelegatingBasicBlockBuilder
         if (exactTarget != null) {
             return exactMethodOf(instance, exactTarget, callSiteDescriptor, callSiteType);
         }
+        MethodElement analyzedTarget = findAnalyzedTarget(instance, target);
+        if (analyzedTarget != null) {
+            return exactMethodOf(bitCast(instance, analyzedTarget.getEnclosingType().load().getObjectType().getReference()), analyzedTarget, callSiteDescriptor, callSiteType);
+        }
         MethodElement virtualTarget = virtualizeInvokeInterface(instance, target);
         if (virtualTarget != null) {
             return virtualMethodOf(instance, virtualTarget, callSiteDescriptor, callSiteType);
@@ -38,7 +184,217 @@ public class DevirtualizingBasicBlockBuilder extends DelegatingBasicBlockBuilder
     @Override
     public ValueHandle virtualMethodOf(Value instance, MethodElement target, MethodDescriptor callSiteDescriptor, InstanceMethodType callSiteType) {
         MethodElement exactTarget = staticallyBind(instance, target);
-        return exactTarget != null ? exactMethodOf(instance, exactTarget, callSiteDescriptor, callSiteType) : super.virtualMethodOf(instance, target, callSiteDescriptor, callSiteType);
+        if (exactTarget != null) {
+            return exactMethodOf(instance, exactTarget, callSiteDescriptor, callSiteType);
+        }
+        MethodElement analyzedTarget = findAnalyzedTarget(instance, target);
+        if (analyzedTarget != null) {
+            return exactMethodOf(bitCast(instance, analyzedTarget.getEnclosingType().load().getObjectType().getReference()), analyzedTarget, callSiteDescriptor, callSiteType);
+        }
+        return super.virtualMethodOf(instance, target, callSiteDescriptor, callSiteType);
+    }
+
+    /*
+     * Get the receiver classes to test before the given call, or null if it is not guarded.
+     */
+    private List<LoadedTypeDefinition> findGuardedReceivers(final ValueHandle target) {
+        if ((target instanceof VirtualMethodElementHandle || target instanceof InterfaceMethodElementHandle) && ! (getCurrentElement() instanceof FunctionElement)) {
+            InstanceMethodElementHandle handle = (InstanceMethodElementHandle) target;
+            List<LoadedTypeDefinition> receiverTypes = reachability == null ? findProfiledReceivers(handle.getExecutable()) : findAnalyzedReceivers(handle);
+            if (receiverTypes != null) {
+                log.debugf("Guarding call to %s::%s for receivers %s", handle.getExecutable().getEnclosingType().getDescriptor(), handle.getExecutable().getName(), receiverTypes);
+            }
+            return receiverTypes;
+        }
+        return null;
+    }
+
+    /*
+     * Test the receiver against the given classes in order, and emit the call of the method of the receiver class
+     * directly in a block of its own if it is of one of them, or the dispatched call otherwise.  Classes which share a
+     * method share its call.  Each call must terminate its block.  Returns the block which holds the first test.
+     */
+    private BasicBlock guard(final InstanceMethodElementHandle target, final List<LoadedTypeDefinition> receiverTypes, final GuardedBranch branch) {
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        MethodElement method = target.getExecutable();
+        Map<MethodElement, BlockLabel> exactLabels = new LinkedHashMap<>();
+        BlockLabel virtual = new BlockLabel();
+        Value instance = target.getInstance();
+        // the receiver was already checked for null
+        Value typeId = load(instanceFieldOf(referenceHandle(instance), CoreClasses.get(ctxt).getObjectTypeIdField()));
+        BasicBlock first = null;
+        for (int i = 0; i < receiverTypes.size(); i ++) {
+            LoadedTypeDefinition receiverType = receiverTypes.get(i);
+            MethodElement exactTarget = receiverType.resolveMethodElementVirtual(method.getName(), method.getDescriptor());
+            BlockLabel exact = exactLabels.computeIfAbsent(exactTarget, m -> new BlockLabel());
+            BlockLabel next = i == receiverTypes.size() - 1 ? virtual : new BlockLabel();
+            BasicBlock test = if_(isEq(typeId, lf.literalOfType(receiverType.getClassType())), exact, next);
+            if (first == null) {
+                first = test;
+            }
+            if (next != virtual) {
+                begin(next);
+            }
+        }
+        for (Map.Entry<MethodElement, BlockLabel> entry : exactLabels.entrySet()) {
+            MethodElement exactTarget = entry.getKey();
+            try {
+                begin(entry.getValue());
+                Value exactInstance = bitCast(instance, exactTarget.getEnclosingType().load().getObjectType().getReference());
+                branch.emit(exactMethodOf(exactInstance, exactTarget, target.getCallSiteDescriptor(), target.getCallSiteType()), false);
+            } catch (BlockEarlyTermination ignored) {
+                // continue
+            }
+        }
+        try {
+            begin(virtual);
+            branch.emit(target, true);
+        } catch (BlockEarlyTermination ignored) {
+            // continue
+        }
+        return first;
+    }
+
+    /**
+     * The call of one branch of a guarded call site.
+     */
+    private interface GuardedBranch {
+        /**
+         * Emit the call, terminating the current block.
+         *
+         * @param handle the target of the call
+         * @param dispatched {@code true} if this is the dispatched call of the fallback branch, which must not be
+         *      guarded again, or {@code false} if the target is exact
+         */
+        void emit(ValueHandle handle, boolean dispatched);
+    }
+
+    /*
+     * Find the most frequent receiver classes of the current call site in the profile which together account for
+     * nearly all of its calls, if they are few enough and are instantiated in this build.
+     */
+    private List<LoadedTypeDefinition> findProfiledReceivers(final MethodElement target) {
+        if (profile == null || maxReceivers < 1) {
+            return null;
+        }
+        Map<String, Long> receivers = profile.getReceiverCounts(getCurrentElement(), getLocation().getByteCodeIndex());
+        if (receivers.isEmpty()) {
+            return null;
+        }
+        long total = 0;
+        for (Long count : receivers.values()) {
+            total += count.longValue();
+        }
+        List<LoadedTypeDefinition> receiverTypes = new ArrayList<>();
+        long guarded = 0;
+        for (Map.Entry<String, Long> entry : receivers.entrySet()) {
+            if (receiverTypes.size() == maxReceivers) {
+                break;
+            }
+            LoadedTypeDefinition receiverType = findProfiledReceiver(target, entry.getKey());
+            if (receiverType != null) {
+                receiverTypes.add(receiverType);
+                guarded += entry.getValue().longValue();
+                if (guarded * 100 >= total * DOMINANT_RECEIVER_PERCENT) {
+                    return receiverTypes;
+                }
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Find a receiver class of the current call site which was named in the profile, if it is a class which is
+     * instantiated in this build and whose method may be called directly.
+     */
+    private LoadedTypeDefinition findProfiledReceiver(final MethodElement target, final String name) {
+        // the receiver class is most likely visible from the caller
+        ClassContext classContext = getCurrentElement().getEnclosingType().getContext();
+        DefinedTypeDefinition definition = classContext.findDefinedType(name);
+        if (definition == null) {
+            definition = target.getEnclosingType().getContext().findDefinedType(name);
+        }
+        if (definition == null || definition.isInterface() || definition.isAbstract()) {
+            return null;
+        }
+        LoadedTypeDefinition loaded = definition.load();
+        if (! loaded.getClassType().isSubtypeOf(target.getEnclosingType().load().getObjectType())) {
+            return null;
+        }
+        MethodElement exactTarget = loaded.resolveMethodElementVirtual(target.getName(), target.getDescriptor());
+        if (exactTarget == null || exactTarget.isAbstract() || ! ctxt.mayBeEnqueued(exactTarget)) {
+            return null;
+        }
+        // it must be instantiated
+        for (int i = 0; i < loaded.getConstructorCount(); i ++) {
+            if (ctxt.mayBeEnqueued(loaded.getConstructor(i))) {
+                return loaded;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Find the instantiated receiver classes of the current call site according to the reachability analysis of the
+     * analyze phase, if there are at least two of them and few enough.  The classes are ordered by their frequency in
+     * the profile, if there is one.
+     */
+    private List<LoadedTypeDefinition> findAnalyzedReceivers(final InstanceMethodElementHandle target) {
+        Value instance = target.getInstance();
+        if (maxReceivers < 2 || ! (instance.getType() instanceof ReferenceType referenceType)) {
+            return null;
+        }
+        MethodElement method = target.getExecutable();
+        LoadedTypeDefinition bound = method.getEnclosingType().load();
+        PhysicalObjectType upperBound = referenceType.getUpperBound();
+        if (upperBound instanceof ClassObjectType classType && classType.isSubtypeOf(bound.getObjectType())) {
+            bound = classType.getDefinition().load();
+        }
+        Set<MethodElement> analyzedTargets = reachability.getDispatchTargets(getCurrentElement(), getLocation().getByteCodeIndex(), method);
+        List<LoadedTypeDefinition> receiverTypes = new ArrayList<>();
+        for (LoadedTypeDefinition receiverType : reachability.getInstantiatedSubtypes(bound)) {
+            if (receiverType.isInterface() || receiverType.isAbstract()) {
+                continue;
+            }
+            MethodElement exactTarget = receiverType.resolveMethodElementVirtual(method.getName(), method.getDescriptor());
+            if (exactTarget == null || exactTarget.isAbstract() || ! reachability.isInvokableInstanceMethod(exactTarget)) {
+                // no instance of this class can get here
+                continue;
+            }
+            if (analyzedTargets != null && ! analyzedTargets.contains(exactTarget)) {
+                continue;
+            }
+            if (receiverTypes.size() == maxReceivers) {
+                return null;
+            }
+            receiverTypes.add(receiverType);
+        }
+        if (receiverTypes.size() < 2) {
+            return null;
+        }
+        // keep the emitted code the same from build to build
+        receiverTypes.sort(Comparator.comparingInt(LoadedTypeDefinition::getTypeId));
+        if (profile != null) {
+            Map<String, Long> counts = profile.getReceiverCounts(getCurrentElement(), getLocation().getByteCodeIndex());
+            receiverTypes.sort(Comparator.comparingLong(t -> - counts.getOrDefault(t.getInternalName(), Long.valueOf(0)).longValue()));
+        }
+        return receiverTypes;
+    }
+
+    /*
+     * Find the only method which the reachability analysis found to be invoked by the current call site, if any.
+     */
+    private MethodElement findAnalyzedTarget(final Value instance, final MethodElement target) {
+        if (reachability == null || ! (instance.getType() instanceof ReferenceType)) {
+            return null;
+        }
+        Set<MethodElement> targets = reachability.getDispatchTargets(getCurrentElement(), getLocation().getByteCodeIndex(), target);
+        if (targets == null || targets.size() != 1) {
+            return null;
+        }
+        MethodElement analyzedTarget = targets.iterator().next();
+        log.debugf("Binding call to %s::%s to its only analyzed target %s", target.getEnclosingType().getDescriptor(), target.getName(), analyzedTarget);
+        return analyzedTarget;
     }
 
     /*
@@ -9,10 +9,21 @@ import org.qbicc.type.definition.LoadedTypeDefinition;
 import java.util.function.Consumer;
 
 public class DispatchTableBuilder implements Consumer<CompilationContext>  {
+    private final InterfaceDispatch interfaceDispatch;
+
+    public DispatchTableBuilder() {
+        this(InterfaceDispatch.searched);
+    }
+
+    public DispatchTableBuilder(InterfaceDispatch interfaceDispatch) {
+        this.interfaceDispatch = interfaceDispatch;
+    }
+
     @Override
     public void accept(CompilationContext ctxt) {
         ReachabilityInfo info = ReachabilityInfo.get(ctxt);
         DispatchTables tables = DispatchTables.get(ctxt);
+        tables.setInterfaceDispatch(interfaceDispatch);
 
         // Starting from java.lang.Object walk down the live class hierarchy and
         //  compute vtable layouts that contain just the dispatchable methods.
@@ -41,5 +52,11 @@ public class DispatchTableBuilder implements Consumer<CompilationContext>  {
 
         // Now build the interface dispatching structures for the dispatchable methods
         info.visitReachableInterfaces(tables::buildFilteredITableForInterface);
+
+        if (interfaceDispatch == InterfaceDispatch.selector) {
+            // Assign the selector table columns and rows, and synthesize GlobalVariables for them
+            tables.buildSelectorTable(jlo);
+            tables.buildSelectorTableGlobals(jlo);
+        }
     }
 }
@@ -22,13 +22,20 @@ public class DispatchTableEmitter implements Consumer<CompilationContext>  {
         tables.emitVTable(jlo);
         info.visitReachableSubclassesPreOrder(jlo, tables::emitVTable);
 
-        // Walk down the live class hierarchy and emit the itables for each class
-        tables.emitITables(jlo);
-        info.visitReachableSubclassesPreOrder(jlo, tables::emitITables);
+        boolean selector = tables.getInterfaceDispatch() == InterfaceDispatch.selector;
+        if (! selector) {
+            // Walk down the live class hierarchy and emit the itables for each class
+            tables.emitITables(jlo);
+            info.visitReachableSubclassesPreOrder(jlo, tables::emitITables);
+        }
 
         // Emit the root tables of all program vtables, itables, and rtinits in the object file for java.lang.Object
         tables.emitVTableTable(jlo);
-        tables.emitITableTable(jlo);
+        if (selector) {
+            tables.emitSelectorTable(jlo);
+        } else {
+            tables.emitITableTable(jlo);
+        }
         tables.emitRTInitTable(jlo);
     }
 }
\ No newline at end of file
@@ -2,12 +2,16 @@ package org.qbicc.plugin.dispatch;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import io.smallrye.common.constraint.Assert;
 import org.jboss.logging.Logger;
@@ -31,6 +35,7 @@ import org.qbicc.type.ArrayType;
 import org.qbicc.type.CompoundType;
 import org.qbicc.type.FunctionType;
 import org.qbicc.type.TypeSystem;
+import org.qbicc.type.UnsignedIntegerType;
 import org.qbicc.type.WordType;
 import org.qbicc.type.definition.DefinedTypeDefinition;
 import org.qbicc.type.definition.LoadedTypeDefinition;
@@ -46,6 +51,12 @@ public class DispatchTables {
     private static final Logger tlog = Logger.getLogger("org.qbicc.plugin.dispatch.tables");
 
     private static final AttachmentKey<DispatchTables> KEY = new AttachmentKey<>();
+    /**
+     * The number of type IDs which are not assigned to reachable classes.  Type IDs are assigned from 1...N, where N is
+     * the number of reachable classes as computed by RTA plus this number, for the poison type, void, 8 primitive types,
+     * the array base class, 8 primitive arrays and reference array.  The tables indexed by type ID are sized by it.
+     */
+    private static final int FIXED_TYPE_IDS = 20;
 
     private final CompilationContext ctxt;
     private final Map<LoadedTypeDefinition, VTableInfo> vtables = new ConcurrentHashMap<>();
@@ -56,6 +67,15 @@ public class DispatchTables {
     private GlobalVariableElement itablesGlobal;
     private GlobalVariableElement rtinitsGlobal;
     private CompoundType itableDictType;
+    private InterfaceDispatch interfaceDispatch = InterfaceDispatch.searched;
+    // selector-indexed dispatch: the row offset of each class, and the table they index into
+    private final Map<LoadedTypeDefinition, int[]> selectorRows = new HashMap<>();
+    private final Map<LoadedTypeDefinition, Integer> selectorRowOffsets = new HashMap<>();
+    private int selectorTableLength;
+    private GlobalVariableElement selectorRowOffsetsGlobal;
+    private GlobalVariableElement selectorTableGlobal;
+    private CompoundType selectorEntryType;
+    private final AtomicInteger interfaceCallSites = new AtomicInteger();
 
     // Used to accumulate statistics
     private int emittedVTableCount;
@@ -64,6 +84,7 @@ public class DispatchTables {
     private int emittedClassITableBytes;
     private int emittedClassITableDictBytes;
     private int emittedClassITableDictCount;
+    private int emittedSelectorEntryCount;
 
     private DispatchTables(final CompilationContext ctxt) {
         this.ctxt = ctxt;
@@ -87,6 +108,21 @@ public class DispatchTables {
 
     public ITableInfo getITableInfo(LoadedTypeDefinition cls) { return itables.get(cls); }
 
+    public InterfaceDispatch getInterfaceDispatch() {
+        return interfaceDispatch;
+    }
+
+    void setInterfaceDispatch(InterfaceDispatch interfaceDispatch) {
+        this.interfaceDispatch = Assert.checkNotNullParam("interfaceDispatch", interfaceDispatch);
+    }
+
+    /**
+     * Record that an interface method invocation was lowered, for the dispatch statistics.
+     */
+    public void registerInterfaceCallSite() {
+        interfaceCallSites.incrementAndGet();
+    }
+
     void buildFilteredVTable(LoadedTypeDefinition cls) {
         tlog.debugf("Building VTable for %s", cls.getDescriptor());
         ReachabilityInfo reachabilityInfo = ReachabilityInfo.get(ctxt);
@@ -203,15 +239,116 @@ public class DispatchTables {
         itables.put(cls, new ITableInfo(itable, itableType, cls));
     }
 
+    /**
+     * Assign the columns and selector IDs of the interface methods, and place the row of every concrete class into
+     * the selector table.
+     *
+     * Each interface is given a range of columns which does not overlap the columns of any other interface which is
+     * implemented by the same class, so each class row holds at most one method per column. The rows are then
+     * overlapped wherever their occupied columns do not collide. Since a column can be shared by unrelated
+     * interfaces and a position by unrelated rows, every entry records the ID of its selector, which is checked at
+     * the call site.
+     *
+     * @param jlo the type definition of {@code java.lang.Object}
+     */
+    void buildSelectorTable(LoadedTypeDefinition jlo) {
+        ReachabilityInfo reachabilityInfo = ReachabilityInfo.get(ctxt);
+        Map<ITableInfo, List<LoadedTypeDefinition>> implementors = new HashMap<>();
+        List<LoadedTypeDefinition> concreteClasses = new ArrayList<>();
+        Consumer<LoadedTypeDefinition> collector = cls -> {
+            if (cls.isAbstract() && ! cls.isFinal()) {
+                return;
+            }
+            concreteClasses.add(cls);
+            cls.forEachInterfaceFullImplementedSet(i -> {
+                ITableInfo iti = itables.get(i);
+                if (iti != null && iti.getItable().length > 0) {
+                    implementors.computeIfAbsent(iti, k -> new ArrayList<>()).add(cls);
+                }
+            });
+        };
+        collector.accept(jlo);
+        reachabilityInfo.visitReachableSubclassesPreOrder(jlo, collector);
+
+        // color the interfaces, most widely implemented first
+        List<ITableInfo> interfaces = new ArrayList<>(itables.values());
+        interfaces.sort(Comparator.<ITableInfo>comparingInt(iti -> implementors.getOrDefault(iti, List.of()).size()).reversed()
+            .thenComparingInt(iti -> iti.getInterface().getTypeId()));
+        Map<LoadedTypeDefinition, BitSet> classColumns = new HashMap<>();
+        int nextSelector = 1; // zero marks an empty entry
+        int columnCount = 0;
+        for (ITableInfo iti : interfaces) {
+            int length = iti.getItable().length;
+            List<LoadedTypeDefinition> classes = implementors.getOrDefault(iti, List.of());
+            BitSet used = new BitSet();
+            for (LoadedTypeDefinition cls : classes) {
+                used.or(classColumns.computeIfAbsent(cls, k -> new BitSet()));
+            }
+            int base = used.nextClearBit(0);
+            while (length > 0 && used.nextSetBit(base) != -1 && used.nextSetBit(base) < base + length) {
+                base = used.nextClearBit(used.nextSetBit(base));
+            }
+            for (LoadedTypeDefinition cls : classes) {
+                classColumns.get(cls).set(base, base + length);
+            }
+            iti.setSelectors(base, nextSelector);
+            nextSelector += length;
+            columnCount = Math.max(columnCount, base + length);
+        }
+
+        // place the rows, largest first; offset zero is reserved for classes without a row
+        concreteClasses.sort(Comparator.<LoadedTypeDefinition>comparingInt(cls -> classColumns.getOrDefault(cls, new BitSet()).cardinality()).reversed()
+            .thenComparingInt(LoadedTypeDefinition::getTypeId));
+        BitSet occupied = new BitSet();
+        BitSet usedOffsets = new BitSet();
+        usedOffsets.set(0);
+        int maxOffset = 0;
+        for (LoadedTypeDefinition cls : concreteClasses) {
+            BitSet columns = classColumns.get(cls);
+            if (columns == null || columns.isEmpty()) {
+                continue;
+            }
+            int[] row = columns.stream().toArray();
+            int offset = 1;
+            for (;;) {
+                // skip ahead to the first position where the leading column fits
+                offset = Math.max(offset, occupied.nextClearBit(offset + row[0]) - row[0]);
+                if (! usedOffsets.get(offset) && fits(occupied, offset, row)) {
+                    break;
+                }
+                offset ++;
+            }
+            for (int column : row) {
+                occupied.set(offset + column);
+            }
+            usedOffsets.set(offset);
+            selectorRows.put(cls, row);
+            selectorRowOffsets.put(cls, Integer.valueOf(offset));
+            maxOffset = Math.max(maxOffset, offset);
+        }
+        // every row offset plus any column must stay in bounds
+        selectorTableLength = maxOffset + columnCount;
+        slog.debugf("Assigned %d interface selectors to %d columns; %d class rows packed into %d entries (%d occupied)",
+            Integer.valueOf(nextSelector - 1), Integer.valueOf(columnCount), Integer.valueOf(selectorRows.size()),
+            Integer.valueOf(selectorTableLength), Integer.valueOf(occupied.cardinality()));
+    }
+
+    private static boolean fits(BitSet occupied, int offset, int[] row) {
+        for (int column : row) {
+            if (occupied.get(offset + column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public void registerRuntimeInitializer(InitializerElement init) {
         runtimeInitializers.add(init);
     }
 
     void buildVTablesGlobal(DefinedTypeDefinition containingType) {
         GlobalVariableElement.Builder builder = GlobalVariableElement.builder("qbicc_vtables_array", BaseTypeDescriptor.V);
-        // Invariant: typeIds are assigned from 1...N, where N is the number of reachable classes as computed by RTA
-        // plus 20 for the poison type, void, 8 primitive types, the array base class, 8 primitive arrays and reference array.
-        builder.setType(ctxt.getTypeSystem().getArrayType(ctxt.getTypeSystem().getVoidType().getPointer().getPointer(), vtables.size()+20));  //TODO: communicate this +20 better
+        builder.setType(ctxt.getTypeSystem().getArrayType(ctxt.getTypeSystem().getVoidType().getPointer().getPointer(), vtables.size() + FIXED_TYPE_IDS));
         builder.setEnclosingType(containingType);
         builder.setSignature(BaseTypeSignature.V);
         vtablesGlobal = builder.build();
@@ -225,14 +362,33 @@ public class DispatchTables {
             ts.getPointerAlignment(), () -> List.of(itableMember, typeIdMember));
 
         GlobalVariableElement.Builder builder = GlobalVariableElement.builder("qbicc_itable_dicts_array", BaseTypeDescriptor.V);
-        // Invariant: typeIds are assigned from 1...N, where N is the number of reachable classes as computed by RTA
-        // plus 20 for the poison type, void, 8 primitive types, the array base class, 8 primitive arrays and reference array.
-        builder.setType(ts.getArrayType(ts.getArrayType(itableDictType, 0).getPointer(), vtables.size()+20));  //TODO: communicate this +20 better
+        builder.setType(ts.getArrayType(ts.getArrayType(itableDictType, 0).getPointer(), vtables.size() + FIXED_TYPE_IDS));
         builder.setEnclosingType(containingType);
         builder.setSignature(BaseTypeSignature.V);
         itablesGlobal = builder.build();
     }
 
+    void buildSelectorTableGlobals(DefinedTypeDefinition containingType) {
+        TypeSystem ts = ctxt.getTypeSystem();
+        UnsignedIntegerType u32 = ts.getUnsignedInteger32Type();
+        CompoundType.Member functionMember = ts.getCompoundTypeMember("function", ts.getVoidType().getPointer(), 0, ts.getPointerAlignment());
+        CompoundType.Member selectorMember = ts.getCompoundTypeMember("selector", u32, ts.getPointerSize(), u32.getAlign());
+        selectorEntryType = ts.getCompoundType(CompoundType.Tag.STRUCT, "qbicc_selector_entry", ts.getPointerSize() + u32.getSize(),
+            ts.getPointerAlignment(), () -> List.of(functionMember, selectorMember));
+
+        GlobalVariableElement.Builder builder = GlobalVariableElement.builder("qbicc_selector_row_offsets", BaseTypeDescriptor.V);
+        builder.setType(ts.getArrayType(u32, vtables.size() + FIXED_TYPE_IDS));
+        builder.setEnclosingType(containingType);
+        builder.setSignature(BaseTypeSignature.V);
+        selectorRowOffsetsGlobal = builder.build();
+
+        builder = GlobalVariableElement.builder("qbicc_selector_table", BaseTypeDescriptor.V);
+        builder.setType(ts.getArrayType(selectorEntryType, selectorTableLength));
+        builder.setEnclosingType(containingType);
+        builder.setSignature(BaseTypeSignature.V);
+        selectorTableGlobal = builder.build();
+    }
+
     void buildRTInitGlobal(DefinedTypeDefinition containingType) {
         TypeSystem ts = ctxt.getTypeSystem();
         FunctionType initType = ctxt.getFunctionTypeForInitializer();
@@ -331,50 +487,20 @@ public class DispatchTables {
         ProgramModule programModule = cSection.getProgramModule();
 
         ArrayList<Literal> itableLiterals = new ArrayList<>(myITables.size() + 1);
-        RuntimeMethodFinder methodFinder = RuntimeMethodFinder.get(ctxt);
-        ReachabilityInfo reachabilityInfo = ReachabilityInfo.get(ctxt);
         for (ITableInfo itableInfo : myITables) {
             MethodElement[] itable = itableInfo.getItable();
             LoadedTypeDefinition currentInterface = itableInfo.getInterface();
 
             HashMap<CompoundType.Member, Literal> valueMap = new HashMap<>();
             for (int i = 0; i < itable.length; i++) {
-                MethodElement methImpl = cls.resolveMethodElementVirtual(itable[i].getName(), itable[i].getDescriptor());
-                FunctionType implType = ctxt.getFunctionTypeForElement(methImpl);
-                if (methImpl == null) {
-                    MethodElement icceStub = methodFinder.getMethod("raiseIncompatibleClassChangeError");
-                    Function icceImpl = ctxt.getExactFunction(icceStub);
-                    PointerLiteral iceeLiteral = lf.literalOf(programModule.declareFunction(icceImpl).getPointer());
-                    valueMap.put(itableInfo.getType().getMember(i), lf.bitcastLiteral(iceeLiteral, implType.getPointer()));
-                } else if (methImpl.isAbstract()) {
-                    MethodElement ameStub = methodFinder.getMethod("raiseAbstractMethodError");
-                    Function ameImpl = ctxt.getExactFunction(ameStub);
-                    PointerLiteral ameLiteral = lf.literalOf(programModule.declareFunction(ameImpl).getPointer());
-                    valueMap.put(itableInfo.getType().getMember(i), lf.bitcastLiteral(ameLiteral, implType.getPointer()));
-                } else if (methImpl.isNative()) {
-                    MethodElement uleStub = methodFinder.getMethod("raiseUnsatisfiedLinkError");
-                    Function uleImpl = ctxt.getExactFunction(uleStub);
-                    PointerLiteral uleLiteral = lf.literalOf(programModule.declareFunction(uleImpl).getPointer());
-                    valueMap.put(itableInfo.getType().getMember(i), lf.bitcastLiteral(uleLiteral, implType.getPointer()));
-                } else if (!reachabilityInfo.isInvokableInstanceMethod(methImpl)) {
-                    MethodElement uceStub = methodFinder.getMethod("raiseUnreachableCodeError");
-                    Function uceImpl = ctxt.getExactFunction(uceStub);
-                    PointerLiteral uceLiteral = lf.literalOf(programModule.declareFunction(uceImpl).getPointer());
-                    valueMap.put(itableInfo.getType().getMember(i), lf.bitcastLiteral(uceLiteral, implType.getPointer()));
-                } else {
-                    Function impl = ctxt.getExactFunctionIfExists(methImpl);
-                    if (impl == null) {
-                        ctxt.error(methImpl, "Missing method implementation for itable of %s", cls.getInternalName());
-                    } else {
-                        if (!methImpl.getEnclosingType().load().equals(cls)) {
-                            programModule.declareFunction(methImpl, impl.getName(), implType);
-                        }
-                        valueMap.put(itableInfo.getType().getMember(i), ctxt.getLiteralFactory().literalOf(impl));
-                    }
+                Literal entry = getITableEntry(cls, programModule, itable[i]);
+                if (entry != null) {
+                    valueMap.put(itableInfo.getType().getMember(i), entry);
                 }
             }
 
-            String functionsName = "qbicc_itable_funcs_for_"+currentInterface.getInterfaceType().toFriendlyString();
+            // private, but qualified by the class name so that it stays unique when modules are merged
+            String functionsName = "qbicc_itable_funcs_for_"+currentInterface.getInterfaceType().toFriendlyString()+"_in_"+cls.getInternalName().replace('/', '.')+(cls.isHidden() ? "~"+cls.getHiddenClassIndex() : "");
             Data data = cSection.addData(null, functionsName, lf.literalOf(itableInfo.getType(), valueMap));
             data.setLinkage(Linkage.PRIVATE);
             itableLiterals.add(lf.literalOf(itableDictType, Map.of(itableDictType.getMember("typeId"), lf.literalOf(currentInterface.getTypeId()),
@@ -392,6 +518,93 @@ public class DispatchTables {
         emittedClassITableDictBytes += (myITables.size() + 1) * itableDictType.getSize();
     }
 
+    /**
+     * Get the function pointer which implements an interface method for the given class, or a stub which raises
+     * the appropriate error.
+     *
+     * @param cls the implementing class
+     * @param programModule the module in which the function is referenced
+     * @param itableMethod the interface method
+     * @return the function pointer literal, or {@code null} if the implementation is missing (an error is reported)
+     */
+    private Literal getITableEntry(LoadedTypeDefinition cls, ProgramModule programModule, MethodElement itableMethod) {
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        RuntimeMethodFinder methodFinder = RuntimeMethodFinder.get(ctxt);
+        ReachabilityInfo reachabilityInfo = ReachabilityInfo.get(ctxt);
+        MethodElement methImpl = cls.resolveMethodElementVirtual(itableMethod.getName(), itableMethod.getDescriptor());
+        FunctionType implType = ctxt.getFunctionTypeForElement(methImpl == null ? itableMethod : methImpl);
+        String stubName;
+        if (methImpl == null) {
+            stubName = "raiseIncompatibleClassChangeError";
+        } else if (methImpl.isAbstract()) {
+            stubName = "raiseAbstractMethodError";
+        } else if (methImpl.isNative()) {
+            stubName = "raiseUnsatisfiedLinkError";
+        } else if (!reachabilityInfo.isInvokableInstanceMethod(methImpl)) {
+            stubName = "raiseUnreachableCodeError";
+        } else {
+            Function impl = ctxt.getExactFunctionIfExists(methImpl);
+            if (impl == null) {
+                ctxt.error(methImpl, "Missing method implementation for itable of %s", cls.getInternalName());
+                return null;
+            }
+            if (!methImpl.getEnclosingType().load().equals(programModule.getTypeDefinition().load())) {
+                programModule.declareFunction(methImpl, impl.getName(), implType);
+            }
+            return lf.literalOf(impl);
+        }
+        Function stubImpl = ctxt.getExactFunction(methodFinder.getMethod(stubName));
+        PointerLiteral stubLiteral = lf.literalOf(programModule.declareFunction(stubImpl).getPointer());
+        return lf.bitcastLiteral(stubLiteral, implType.getPointer());
+    }
+
+    void emitSelectorTable(LoadedTypeDefinition jlo) {
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        TypeSystem ts = ctxt.getTypeSystem();
+        ModuleSection section = ctxt.getImplicitSection(jlo);
+        ProgramModule programModule = section.getProgramModule();
+        UnsignedIntegerType u32 = ts.getUnsignedInteger32Type();
+        WordType voidPtr = ts.getVoidType().getPointer();
+
+        ArrayType rowOffsetsType = (ArrayType) selectorRowOffsetsGlobal.getType();
+        Literal[] rowOffsetLiterals = new Literal[(int) rowOffsetsType.getElementCount()];
+        Arrays.fill(rowOffsetLiterals, lf.literalOf(u32, 0));
+
+        Literal[] entryLiterals = new Literal[selectorTableLength];
+        Arrays.fill(entryLiterals, lf.zeroInitializerLiteralOfType(selectorEntryType));
+
+        for (Map.Entry<LoadedTypeDefinition, int[]> e : selectorRows.entrySet()) {
+            LoadedTypeDefinition cls = e.getKey();
+            int offset = selectorRowOffsets.get(cls).intValue();
+            rowOffsetLiterals[cls.getTypeId()] = lf.literalOf(u32, offset);
+            cls.forEachInterfaceFullImplementedSet(i -> {
+                ITableInfo iti = itables.get(i);
+                if (iti == null) {
+                    return;
+                }
+                MethodElement[] itable = iti.getItable();
+                for (int idx = 0; idx < itable.length; idx ++) {
+                    Literal function = getITableEntry(cls, programModule, itable[idx]);
+                    if (function != null) {
+                        entryLiterals[offset + iti.getColumn() + idx] = lf.literalOf(selectorEntryType, Map.of(
+                            selectorEntryType.getMember("function"), lf.bitcastLiteral(function, voidPtr),
+                            selectorEntryType.getMember("selector"), lf.literalOf(u32, iti.getFirstSelector() + idx)
+                        ));
+                        emittedSelectorEntryCount += 1;
+                    }
+                }
+            });
+        }
+
+        section.addData(null, selectorRowOffsetsGlobal.getName(), lf.literalOf(rowOffsetsType, List.of(rowOffsetLiterals)));
+        section.addData(null, selectorTableGlobal.getName(), lf.literalOf((ArrayType) selectorTableGlobal.getType(), List.of(entryLiterals)));
+        long rowOffsetBytes = rowOffsetLiterals.length * u32.getSize();
+        long tableBytes = entryLiterals.length * selectorEntryType.getSize();
+        slog.debugf("Root selector row offsets[] has %d slots (%d bytes)", rowOffsetLiterals.length, rowOffsetBytes);
+        slog.debugf("Emitted selector table with %d entries, %d of them used (%d bytes)", entryLiterals.length, emittedSelectorEntryCount, tableBytes);
+        slog.debugf("Lowered %d interface call sites with selector dispatch: 4 dependent loads and 1 compare each", interfaceCallSites.get());
+    }
+
     void emitITableTable(LoadedTypeDefinition jlo) {
         ArrayType itablesGlobalType = ((ArrayType) itablesGlobal.getType());
         ModuleSection section = ctxt.getImplicitSection(jlo);
@@ -415,6 +628,7 @@ public class DispatchTables {
         slog.debugf("Root itable_dict[] has %d slots (%d bytes)", itableLiterals.length, itableLiterals.length * ctxt.getTypeSystem().getPointerSize());
         slog.debugf("Emitted %d itables with combined size of %d bytes", emittedClassITableCount, emittedClassITableBytes);
         slog.debugf("Emitted %d class itable dictionaries with combined size of %d bytes", emittedClassITableDictCount, emittedClassITableDictBytes);
+        slog.debugf("Lowered %d interface call sites with searched dispatch: 3 loads and 2 compares per probed dictionary entry", interfaceCallSites.get());
     }
 
     void emitRTInitTable(LoadedTypeDefinition jlo) {
@@ -451,6 +665,18 @@ public class DispatchTables {
         return itableDictType;
     }
 
+    public GlobalVariableElement getSelectorRowOffsetsGlobal() {
+        return selectorRowOffsetsGlobal;
+    }
+
+    public GlobalVariableElement getSelectorTableGlobal() {
+        return selectorTableGlobal;
+    }
+
+    public CompoundType getSelectorEntryType() {
+        return selectorEntryType;
+    }
+
     public int getVTableIndex(MethodElement target) {
         LoadedTypeDefinition definingType = target.getEnclosingType().load();
         VTableInfo info = getVTableInfo(definingType);
@@ -501,6 +727,8 @@ public class DispatchTables {
         private final LoadedTypeDefinition myInterface;
         private final MethodElement[] itable;
         private final CompoundType type;
+        private int column;
+        private int firstSelector;
 
         ITableInfo(MethodElement[] itable, CompoundType type, LoadedTypeDefinition myInterface) {
             this.myInterface = myInterface;
@@ -508,8 +736,27 @@ public class DispatchTables {
             this.type = type;
         }
 
+        void setSelectors(int column, int firstSelector) {
+            this.column = column;
+            this.firstSelector = firstSelector;
+        }
+
         public LoadedTypeDefinition getInterface() { return myInterface; }
         public MethodElement[] getItable() { return itable; }
         public CompoundType getType() { return type; }
+
+        /**
+         * Get the selector table column of the first method of this interface, when selector dispatch is used.
+         *
+         * @return the column
+         */
+        public int getColumn() { return column; }
+
+        /**
+         * Get the selector ID of the first method of this interface, when selector dispatch is used.
+         *
+         * @return the selector ID
+         */
+        public int getFirstSelector() { return firstSelector; }
     }
 }
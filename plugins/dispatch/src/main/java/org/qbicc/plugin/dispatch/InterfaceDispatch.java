@@ -0,0 +1,17 @@
+package org.qbicc.plugin.dispatch;
+
+/**
+ * The possible strategies for dispatching interface method invocations.
+ */
+public enum InterfaceDispatch {
+    /**
+     * Search the dictionary of the receiver's class for the itable of the target interface.
+     */
+    searched,
+    /**
+     * Load the target method from a single selector-indexed table, using the receiver's row offset and a column which
+     * is assigned to each interface at build time.
+     */
+    selector,
+    ;
+}
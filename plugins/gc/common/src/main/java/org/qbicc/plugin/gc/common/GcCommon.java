@@ -6,7 +6,7 @@ import org.qbicc.context.ClassContext;
 import org.qbicc.context.CompilationContext;
 import org.qbicc.graph.literal.LiteralFactory;
 import org.qbicc.plugin.intrinsics.Intrinsics;
-import org.qbicc.type.TypeSystem;
+import org.qbicc.plugin.layout.Layout;
 import org.qbicc.type.descriptor.BaseTypeDescriptor;
 import org.qbicc.type.descriptor.ClassTypeDescriptor;
 import org.qbicc.type.descriptor.MethodDescriptor;
@@ -25,7 +25,6 @@ public final class GcCommon {
         Intrinsics intrinsics = Intrinsics.get(ctxt);
         ClassContext classContext = ctxt.getBootstrapClassContext();
         LiteralFactory lf = classContext.getLiteralFactory();
-        TypeSystem ts = classContext.getTypeSystem();
 
         ClassTypeDescriptor heapDesc = ClassTypeDescriptor.synthesize(classContext, "org/qbicc/runtime/gc/heap/Heap");
 
@@ -50,10 +49,8 @@ public final class GcCommon {
             return lf.literalOf(1L << 24);
         });
 
-        intrinsics.registerIntrinsic(heapDesc, "getConfiguredObjectAlignment", emptyToInt, (builder, target, arguments) -> {
-            // todo: configuration
-            // hard-coded to pointer alignment for now
-            return lf.literalOf(ts.getPointerAlignment());
-        });
+        intrinsics.registerIntrinsic(heapDesc, "getConfiguredObjectAlignment", emptyToInt, (builder, target, arguments) ->
+            lf.literalOf(Layout.get(ctxt).getObjectAlignment())
+        );
     }
 }
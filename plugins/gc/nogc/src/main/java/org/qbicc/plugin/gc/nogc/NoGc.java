@@ -6,6 +6,7 @@ import org.qbicc.type.ClassObjectType;
 import org.qbicc.context.ClassContext;
 import org.qbicc.type.definition.DefinedTypeDefinition;
 import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.element.FieldElement;
 import org.qbicc.type.definition.element.MethodElement;
 
 /**
@@ -14,9 +15,13 @@ import org.qbicc.type.definition.element.MethodElement;
 public final class NoGc {
     private final CompilationContext ctxt;
     private final MethodElement allocateMethod;
+    private final MethodElement allocateSlowMethod;
     private final MethodElement copyMethod;
     private final MethodElement zeroMethod;
     private final ClassObjectType stackObjectType;
+    private final FieldElement tlabPositionField;
+    private final FieldElement tlabEndField;
+    private volatile long tlabSize;
 
     private NoGc(final CompilationContext ctxt) {
         this.ctxt = ctxt;
@@ -31,6 +36,11 @@ public final class NoGc {
             throw methodMissing();
         }
         allocateMethod = loaded.getMethod(index);
+        index = loaded.findMethodIndex(e -> e.getName().equals("allocateSlow"));
+        if (index == -1) {
+            throw methodMissing();
+        }
+        allocateSlowMethod = loaded.getMethod(index);
         index = loaded.findMethodIndex(e -> e.getName().equals("copy"));
         if (index == -1) {
             throw methodMissing();
@@ -41,6 +51,12 @@ public final class NoGc {
             throw methodMissing();
         }
         zeroMethod = loaded.getMethod(index);
+        // resolving these fields injects their thread-local counterparts into Thread
+        tlabPositionField = loaded.findField("_qbicc_nogc_tlab_pos");
+        tlabEndField = loaded.findField("_qbicc_nogc_tlab_end");
+        if (tlabPositionField == null || tlabEndField == null) {
+            throw new IllegalStateException("Required field is missing from the NoGC helpers");
+        }
         defined = classContext.findDefinedType("org/qbicc/runtime/StackObject");
         if (defined == null) {
             throw runtimeMissing();
@@ -60,13 +76,26 @@ public final class NoGc {
     private static final AttachmentKey<NoGc> KEY = new AttachmentKey<>();
 
     public static NoGc get(CompilationContext ctxt) {
-        return ctxt.computeAttachmentIfAbsent(KEY, () -> new NoGc(ctxt));
+        // loading the helpers may compute other attachments, so this one must not be computed under the attachment map
+        NoGc noGc = ctxt.getAttachment(KEY);
+        if (noGc == null) {
+            noGc = new NoGc(ctxt);
+            NoGc appearing = ctxt.putAttachmentIfAbsent(KEY, noGc);
+            if (appearing != null) {
+                noGc = appearing;
+            }
+        }
+        return noGc;
     }
 
     public MethodElement getAllocateMethod() {
         return allocateMethod;
     }
 
+    public MethodElement getAllocateSlowMethod() {
+        return allocateSlowMethod;
+    }
+
     public MethodElement getCopyMethod() {
         return copyMethod;
     }
@@ -78,5 +107,36 @@ public final class NoGc {
     public ClassObjectType getStackObjectType() {
         return stackObjectType;
     }
+
+    /**
+     * Get the static field holding the next free byte of the current thread's allocation buffer.
+     *
+     * @return the thread-scoped static field (not {@code null})
+     */
+    public FieldElement getTlabPositionField() {
+        return tlabPositionField;
+    }
+
+    /**
+     * Get the static field holding the end of the current thread's allocation buffer.
+     *
+     * @return the thread-scoped static field (not {@code null})
+     */
+    public FieldElement getTlabEndField() {
+        return tlabEndField;
+    }
+
+    /**
+     * Get the size of each thread-local allocation buffer.
+     *
+     * @return the size in bytes, or {@code 0} if thread-local allocation buffers are disabled
+     */
+    public long getTlabSize() {
+        return tlabSize;
+    }
+
+    void setTlabSize(long tlabSize) {
+        this.tlabSize = tlabSize;
+    }
 }
 
@@ -1,11 +1,16 @@
 package org.qbicc.plugin.gc.nogc;
 
+import static org.qbicc.graph.atomic.AccessModes.SingleUnshared;
+
 import java.util.List;
 
 import org.qbicc.context.CompilationContext;
 import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
 import org.qbicc.graph.DelegatingBasicBlockBuilder;
+import org.qbicc.graph.PhiValue;
 import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
 import org.qbicc.graph.literal.IntegerLiteral;
 import org.qbicc.graph.literal.LiteralFactory;
 import org.qbicc.graph.literal.TypeLiteral;
@@ -13,12 +18,18 @@ import org.qbicc.plugin.coreclasses.BasicHeaderInitializer;
 import org.qbicc.plugin.coreclasses.CoreClasses;
 import org.qbicc.plugin.layout.Layout;
 import org.qbicc.plugin.layout.LayoutInfo;
+import org.qbicc.plugin.threadlocal.ThreadLocals;
 import org.qbicc.type.ClassObjectType;
 import org.qbicc.type.CompoundType;
 import org.qbicc.type.IntegerType;
 import org.qbicc.type.PrimitiveArrayObjectType;
 import org.qbicc.type.ReferenceArrayObjectType;
+import org.qbicc.type.ReferenceType;
+import org.qbicc.type.SignedIntegerType;
+import org.qbicc.type.TypeSystem;
+import org.qbicc.type.WordType;
 import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.element.FieldElement;
 import org.qbicc.type.definition.element.MethodElement;
 
 /**
@@ -47,8 +58,7 @@ public class NoGcBasicBlockBuilder extends DelegatingBasicBlockBuilder {
             }
         }
         if (ptrVal == null) {
-            MethodElement method = noGc.getAllocateMethod();
-            ptrVal = notNull(call(staticMethod(method), List.of(size, align)));
+            ptrVal = allocate(size, align);
         }
 
         // zero initialize the allocated storage
@@ -95,11 +105,58 @@ public class NoGcBasicBlockBuilder extends DelegatingBasicBlockBuilder {
         Value realSize = add(baseSize, elementShift == 0 ? size : shl(size, lf.literalOf((IntegerType)size.getType(), elementShift)));
 
         // Allocate and zero-initialize the storage
-        MethodElement method1 = noGc.getAllocateMethod();
-        Value ptrVal = notNull(call(staticMethod(method1), List.of(realSize, align)));
+        Value ptrVal = allocate(realSize, align);
         MethodElement method = noGc.getZeroMethod();
         call(staticMethod(method), List.of(ptrVal, realSize));
 
         return ptrVal;
     }
+
+    /**
+     * Allocate storage for an object.  If thread-local allocation buffers are enabled, the allocation is bumped
+     * inline from the current thread's buffer, and the helper is only called when the buffer is exhausted.
+     */
+    private Value allocate(Value size, Value align) {
+        NoGc noGc = NoGc.get(ctxt);
+        long tlabSize = noGc.getTlabSize();
+        if (tlabSize == 0) {
+            return notNull(call(staticMethod(noGc.getAllocateMethod()), List.of(size, align)));
+        }
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        TypeSystem ts = ctxt.getTypeSystem();
+        SignedIntegerType s64 = ts.getSignedInteger64Type();
+        long alignMask = Layout.get(ctxt).getObjectAlignment() - 1;
+        Value alignedSize;
+        if (size instanceof IntegerLiteral il) {
+            alignedSize = lf.literalOf(il.longValue() + alignMask & ~alignMask);
+        } else {
+            alignedSize = and(add(size, lf.literalOf(alignMask)), lf.literalOf(~alignMask));
+        }
+        ThreadLocals threadLocals = ThreadLocals.get(ctxt);
+        FieldElement posField = threadLocals.getThreadLocalField(noGc.getTlabPositionField());
+        FieldElement endField = threadLocals.getThreadLocalField(noGc.getTlabEndField());
+        // thread local values are never visible outside of the current thread
+        Value thread = load(currentThread(), SingleUnshared);
+        ValueHandle posHandle = instanceFieldOf(referenceHandle(thread), posField);
+        Value pos = load(posHandle, SingleUnshared);
+        Value end = load(instanceFieldOf(referenceHandle(thread), endField), SingleUnshared);
+        Value posVal = valueConvert(pos, s64);
+        ReferenceType refType = (ReferenceType) noGc.getAllocateMethod().getType().getReturnType();
+        BlockLabel fast = new BlockLabel();
+        BlockLabel slow = new BlockLabel();
+        BlockLabel resume = new BlockLabel();
+        if_(isLe(alignedSize, sub(valueConvert(end, s64), posVal)), fast, slow);
+        begin(fast);
+        store(posHandle, valueConvert(add(posVal, alignedSize), (WordType) pos.getType()), SingleUnshared);
+        Value fastPtr = notNull(valueConvert(pos, refType));
+        goto_(resume);
+        begin(slow);
+        Value slowPtr = notNull(call(staticMethod(noGc.getAllocateSlowMethod()), List.of(alignedSize, lf.literalOf(tlabSize))));
+        goto_(resume);
+        begin(resume);
+        PhiValue phi = phi(refType, resume, PhiValue.Flag.NOT_NULL);
+        phi.setValueForBlock(ctxt, getCurrentElement(), fast, fastPtr);
+        phi.setValueForBlock(ctxt, getCurrentElement(), slow, slowPtr);
+        return phi;
+    }
 }
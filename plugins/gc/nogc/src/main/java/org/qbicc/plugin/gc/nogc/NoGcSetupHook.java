@@ -3,13 +3,32 @@ package org.qbicc.plugin.gc.nogc;
 import java.util.function.Consumer;
 
 import org.qbicc.context.CompilationContext;
-import org.qbicc.type.definition.element.InitializerElement;
+import org.qbicc.plugin.layout.Layout;
 
 /**
  *
  */
 public class NoGcSetupHook implements Consumer<CompilationContext> {
+    private final long tlabSize;
+
+    public NoGcSetupHook() {
+        this(0);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param tlabSize the size of each thread-local allocation buffer in bytes, or {@code 0} to disable them
+     */
+    public NoGcSetupHook(final long tlabSize) {
+        this.tlabSize = tlabSize;
+    }
+
     public void accept(final CompilationContext ctxt) {
-        NoGc.get(ctxt); // Causes NoGc runtime classes to be loaded.
+        NoGc noGc = NoGc.get(ctxt); // Causes NoGc runtime classes to be loaded.
+        // round up to the object alignment
+        long alignMask = Layout.get(ctxt).getObjectAlignment() - 1;
+        long tlabSize = this.tlabSize + alignMask & ~alignMask;
+        noGc.setTlabSize(tlabSize);
     }
 }
@@ -0,0 +1,115 @@
+package org.qbicc.plugin.gc.semispace;
+
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.ClassContext;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.type.ClassObjectType;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * The run time entry points of the semispace copying collector.
+ */
+public final class Semispace {
+    private final MethodElement allocateMethod;
+    private final MethodElement allocateInstanceMethod;
+    private final MethodElement allocatePinnedMethod;
+    private final MethodElement copyMethod;
+    private final MethodElement zeroMethod;
+    private final MethodElement collectMethod;
+    private final ClassObjectType stackObjectType;
+    private final ClassObjectType threadType;
+
+    private Semispace(final CompilationContext ctxt) {
+        ClassContext classContext = ctxt.getBootstrapClassContext();
+        LoadedTypeDefinition loaded = findType(classContext, "org/qbicc/runtime/gc/semispace/SemispaceHelpers");
+        allocateMethod = findMethod(loaded, "allocate");
+        allocateInstanceMethod = findMethod(loaded, "allocateInstance");
+        allocatePinnedMethod = findMethod(loaded, "allocatePinned");
+        copyMethod = findMethod(loaded, "copy");
+        zeroMethod = findMethod(loaded, "clear");
+        collectMethod = findMethod(loaded, "collect");
+        // load the tables accessors so that their intrinsics can be resolved
+        findType(classContext, "org/qbicc/runtime/gc/semispace/SemispaceTables");
+        stackObjectType = findType(classContext, "org/qbicc/runtime/StackObject").getClassType();
+        threadType = findType(classContext, "java/lang/Thread").getClassType();
+    }
+
+    private static LoadedTypeDefinition findType(ClassContext classContext, String name) {
+        DefinedTypeDefinition defined = classContext.findDefinedType(name);
+        if (defined == null) {
+            throw new IllegalStateException("The semispace GC runtime classes are not present in the bootstrap class path");
+        }
+        return defined.load();
+    }
+
+    private static MethodElement findMethod(LoadedTypeDefinition loaded, String name) {
+        int index = loaded.findMethodIndex(e -> e.getName().equals(name));
+        if (index == -1) {
+            throw new IllegalStateException("Required method is missing from the semispace GC helpers");
+        }
+        return loaded.getMethod(index);
+    }
+
+    private static final AttachmentKey<Semispace> KEY = new AttachmentKey<>();
+
+    public static Semispace get(CompilationContext ctxt) {
+        Semispace semispace = ctxt.getAttachment(KEY);
+        if (semispace == null) {
+            semispace = new Semispace(ctxt);
+            Semispace appearing = ctxt.putAttachmentIfAbsent(KEY, semispace);
+            if (appearing != null) {
+                semispace = appearing;
+            }
+        }
+        return semispace;
+    }
+
+    public MethodElement getAllocateMethod() {
+        return allocateMethod;
+    }
+
+    /**
+     * Get the method which allocates an object whose type is only known at run time.
+     *
+     * @return the method (not {@code null})
+     */
+    public MethodElement getAllocateInstanceMethod() {
+        return allocateInstanceMethod;
+    }
+
+    /**
+     * Get the method which allocates an object that is never moved.
+     *
+     * @return the method (not {@code null})
+     */
+    public MethodElement getAllocatePinnedMethod() {
+        return allocatePinnedMethod;
+    }
+
+    public MethodElement getCopyMethod() {
+        return copyMethod;
+    }
+
+    public MethodElement getZeroMethod() {
+        return zeroMethod;
+    }
+
+    public MethodElement getCollectMethod() {
+        return collectMethod;
+    }
+
+    public ClassObjectType getStackObjectType() {
+        return stackObjectType;
+    }
+
+    /**
+     * Get the type whose instances are pinned.
+     *
+     * @return the type (not {@code null})
+     */
+    public ClassObjectType getPinnedType() {
+        return threadType;
+    }
+}
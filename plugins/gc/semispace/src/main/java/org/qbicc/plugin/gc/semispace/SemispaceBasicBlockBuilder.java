@@ -0,0 +1,102 @@
+package org.qbicc.plugin.gc.semispace;
+
+import java.util.List;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.DelegatingBasicBlockBuilder;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.literal.IntegerLiteral;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.graph.literal.TypeLiteral;
+import org.qbicc.plugin.coreclasses.BasicHeaderInitializer;
+import org.qbicc.plugin.coreclasses.CoreClasses;
+import org.qbicc.plugin.layout.Layout;
+import org.qbicc.plugin.layout.LayoutInfo;
+import org.qbicc.type.ClassObjectType;
+import org.qbicc.type.CompoundType;
+import org.qbicc.type.IntegerType;
+import org.qbicc.type.PrimitiveArrayObjectType;
+import org.qbicc.type.ReferenceArrayObjectType;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+
+/**
+ * Lower allocations to calls to the semispace collector.  Instances of the pinned type are allocated outside of the
+ * collected spaces; when the type of an allocation is not known at build time, the check is deferred to run time.
+ */
+public class SemispaceBasicBlockBuilder extends DelegatingBasicBlockBuilder {
+    private final CompilationContext ctxt;
+    private final CoreClasses coreClasses;
+
+    public SemispaceBasicBlockBuilder(final CompilationContext ctxt, final BasicBlockBuilder delegate) {
+        super(delegate);
+        this.ctxt = ctxt;
+        this.coreClasses = CoreClasses.get(ctxt);
+    }
+
+    @Override
+    public Value new_(final ClassObjectType type, final Value typeId, final Value size, final Value align) {
+        Semispace semispace = Semispace.get(ctxt);
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        Value ptrVal;
+        if (typeId instanceof TypeLiteral tl && tl.getValue() instanceof ClassObjectType cot) {
+            if (cot.isSubtypeOf(semispace.getStackObjectType())) {
+                CompoundType compoundType = Layout.get(ctxt).getInstanceLayoutInfo(cot.getDefinition()).getCompoundType();
+                ptrVal = valueConvert(stackAllocate(compoundType, lf.literalOf(1), align), type.getReference());
+            } else if (cot.isSubtypeOf(semispace.getPinnedType())) {
+                ptrVal = notNull(call(staticMethod(semispace.getAllocatePinnedMethod()), List.of(size, align)));
+            } else {
+                ptrVal = notNull(call(staticMethod(semispace.getAllocateMethod()), List.of(size, align)));
+            }
+        } else {
+            ptrVal = notNull(call(staticMethod(semispace.getAllocateInstanceMethod()), List.of(typeId, size, align)));
+        }
+
+        // zero initialize the allocated storage
+        call(staticMethod(semispace.getZeroMethod()), List.of(ptrVal, size));
+
+        Value oop = valueConvert(ptrVal, type.getReference());
+        BasicHeaderInitializer.initializeObjectHeader(ctxt, this, referenceHandle(oop), typeId);
+        return oop;
+    }
+
+    @Override
+    public Value newArray(final PrimitiveArrayObjectType arrayType, Value size) {
+        LoadedTypeDefinition ltd = coreClasses.getArrayContentField(arrayType).getEnclosingType().load();
+        CompoundType compoundType = Layout.get(ctxt).getInstanceLayoutInfo(ltd).getCompoundType();
+        Value ptrVal = allocateArray(compoundType, size, arrayType.getElementType().getSize());
+        Value oop = valueConvert(ptrVal, arrayType.getReference());
+        BasicHeaderInitializer.initializeArrayHeader(ctxt, this, referenceHandle(oop), ctxt.getLiteralFactory().literalOfType(ltd.getClassType()), size);
+        return oop;
+    }
+
+    @Override
+    public Value newReferenceArray(final ReferenceArrayObjectType arrayType, Value elemTypeId, Value dimensions, Value size) {
+        LayoutInfo info = Layout.get(ctxt).getInstanceLayoutInfo(coreClasses.getRefArrayContentField().getEnclosingType());
+        CompoundType compoundType = info.getCompoundType();
+        Value ptrVal = allocateArray(compoundType, size, ctxt.getTypeSystem().getReferenceSize());
+        Value oop = valueConvert(ptrVal, arrayType.getReference());
+        BasicHeaderInitializer.initializeRefArrayHeader(ctxt, this, referenceHandle(oop), elemTypeId, dimensions, size);
+        return oop;
+    }
+
+    private Value allocateArray(CompoundType compoundType, Value size, long elementSize) {
+        Semispace semispace = Semispace.get(ctxt);
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        IntegerLiteral align = lf.literalOf(compoundType.getAlign());
+        IntegerLiteral baseSize = lf.literalOf(compoundType.getSize());
+        IntegerType sizeType = (IntegerType) size.getType();
+        if (sizeType.getMinBits() < 64) {
+            size = extend(size, ctxt.getTypeSystem().getSignedInteger64Type());
+        }
+        assert Long.bitCount(elementSize) == 1;
+        int elementShift = Long.numberOfTrailingZeros(elementSize);
+        Value realSize = add(baseSize, elementShift == 0 ? size : shl(size, lf.literalOf((IntegerType)size.getType(), elementShift)));
+
+        // Allocate and zero-initialize the storage
+        Value ptrVal = notNull(call(staticMethod(semispace.getAllocateMethod()), List.of(realSize, align)));
+        call(staticMethod(semispace.getZeroMethod()), List.of(ptrVal, realSize));
+
+        return ptrVal;
+    }
+}
@@ -0,0 +1,95 @@
+package org.qbicc.plugin.gc.semispace;
+
+import java.util.List;
+
+import org.qbicc.context.ClassContext;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.driver.Phase;
+import org.qbicc.graph.GlobalVariable;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.plugin.intrinsics.InstanceIntrinsic;
+import org.qbicc.plugin.intrinsics.Intrinsics;
+import org.qbicc.plugin.intrinsics.StaticIntrinsic;
+import org.qbicc.type.CompoundType;
+import org.qbicc.type.descriptor.BaseTypeDescriptor;
+import org.qbicc.type.descriptor.ClassTypeDescriptor;
+import org.qbicc.type.descriptor.MethodDescriptor;
+
+/**
+ * Intrinsics of the semispace collector.
+ */
+public final class SemispaceIntrinsics {
+    private SemispaceIntrinsics() {}
+
+    public static void register(CompilationContext ctxt) {
+        registerRuntimeIntrinsics(ctxt);
+        registerTablesIntrinsics(ctxt);
+    }
+
+    private static void registerRuntimeIntrinsics(final CompilationContext ctxt) {
+        Intrinsics intrinsics = Intrinsics.get(ctxt);
+        ClassContext classContext = ctxt.getBootstrapClassContext();
+
+        ClassTypeDescriptor runtimeDesc = ClassTypeDescriptor.synthesize(classContext, "java/lang/Runtime");
+
+        MethodDescriptor emptyToVoid = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.V, List.of());
+
+        InstanceIntrinsic gc = (builder, instance, target, arguments) ->
+            builder.call(builder.staticMethod(Semispace.get(ctxt).getCollectMethod()), List.of());
+
+        intrinsics.registerIntrinsic(runtimeDesc, "gc", emptyToVoid, gc);
+    }
+
+    private static void registerTablesIntrinsics(final CompilationContext ctxt) {
+        Intrinsics intrinsics = Intrinsics.get(ctxt);
+        ClassContext classContext = ctxt.getBootstrapClassContext();
+        SemispaceTableTypes tableTypes = SemispaceTableTypes.get(ctxt);
+        CompoundType tablesType = tableTypes.getTablesType();
+        CompoundType typeInfoType = tableTypes.getTypeInfoType();
+
+        ClassTypeDescriptor tablesDesc = ClassTypeDescriptor.synthesize(classContext, "org/qbicc/runtime/gc/semispace/SemispaceTables");
+        ClassTypeDescriptor voidPtrDesc = ClassTypeDescriptor.synthesize(classContext, "org/qbicc/runtime/CNative$void_ptr");
+
+        MethodDescriptor emptyToInt = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.I, List.of());
+        MethodDescriptor intToInt = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.I, List.of(BaseTypeDescriptor.I));
+        MethodDescriptor intToVoidPtr = MethodDescriptor.synthesize(classContext, voidPtrDesc, List.of(BaseTypeDescriptor.I));
+
+        for (String memberName : List.of("instanceSize", "elementSize", "referenceOffsetStart", "referenceOffsetCount")) {
+            StaticIntrinsic getTypeInfoMember = (builder, target, arguments) -> {
+                GlobalVariable tables = (GlobalVariable) builder.globalVariable(tableTypes.getAndRegisterTables(builder.getCurrentElement()));
+                Value tablePointer = builder.load(builder.memberOf(tables, tablesType.getMember("typeInfoTable")));
+                ValueHandle typeInfo = builder.pointerHandle(tablePointer, arguments.get(0));
+                return builder.load(builder.memberOf(typeInfo, typeInfoType.getMember(memberName)));
+            };
+
+            String methodName = "get" + Character.toUpperCase(memberName.charAt(0)) + memberName.substring(1);
+            intrinsics.registerIntrinsic(Phase.LOWER, tablesDesc, methodName, intToInt, getTypeInfoMember);
+        }
+
+        StaticIntrinsic getReferenceOffset = (builder, target, arguments) -> {
+            GlobalVariable tables = (GlobalVariable) builder.globalVariable(tableTypes.getAndRegisterTables(builder.getCurrentElement()));
+            Value tablePointer = builder.load(builder.memberOf(tables, tablesType.getMember("referenceOffsetTable")));
+            return builder.load(builder.pointerHandle(tablePointer, arguments.get(0)));
+        };
+
+        intrinsics.registerIntrinsic(Phase.LOWER, tablesDesc, "getReferenceOffset", intToInt, getReferenceOffset);
+
+        for (String kind : List.of("static", "heap")) {
+            StaticIntrinsic getRootCount = (builder, target, arguments) -> {
+                GlobalVariable tables = (GlobalVariable) builder.globalVariable(tableTypes.getAndRegisterTables(builder.getCurrentElement()));
+                return builder.load(builder.memberOf(tables, tablesType.getMember(kind + "RootCount")));
+            };
+
+            StaticIntrinsic getRoot = (builder, target, arguments) -> {
+                GlobalVariable tables = (GlobalVariable) builder.globalVariable(tableTypes.getAndRegisterTables(builder.getCurrentElement()));
+                Value tablePointer = builder.load(builder.memberOf(tables, tablesType.getMember(kind + "RootTable")));
+                return builder.load(builder.pointerHandle(tablePointer, arguments.get(0)));
+            };
+
+            String prefix = "get" + Character.toUpperCase(kind.charAt(0)) + kind.substring(1) + "Root";
+            intrinsics.registerIntrinsic(Phase.LOWER, tablesDesc, prefix + "Count", emptyToInt, getRootCount);
+            intrinsics.registerIntrinsic(Phase.LOWER, tablesDesc, prefix, intToVoidPtr, getRoot);
+        }
+    }
+}
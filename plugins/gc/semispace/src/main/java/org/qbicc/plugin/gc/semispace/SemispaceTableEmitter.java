@@ -0,0 +1,147 @@
+package org.qbicc.plugin.gc.semispace;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.literal.Literal;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.object.Data;
+import org.qbicc.object.DataDeclaration;
+import org.qbicc.object.ModuleSection;
+import org.qbicc.object.ProgramModule;
+import org.qbicc.plugin.coreclasses.CoreClasses;
+import org.qbicc.plugin.instanceofcheckcast.SupersDisplayTables;
+import org.qbicc.plugin.layout.Layout;
+import org.qbicc.plugin.lowering.Lowering;
+import org.qbicc.plugin.serialization.BuildtimeHeap;
+import org.qbicc.type.ArrayType;
+import org.qbicc.type.CompoundType;
+import org.qbicc.type.ReferenceType;
+import org.qbicc.type.TypeSystem;
+import org.qbicc.type.UnsignedIntegerType;
+import org.qbicc.type.WordType;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.element.FieldElement;
+
+/**
+ * Emit the tables which describe the object layouts and the roots of the program to the semispace collector.
+ */
+public class SemispaceTableEmitter implements Consumer<CompilationContext> {
+    public SemispaceTableEmitter() {}
+
+    @Override
+    public void accept(CompilationContext ctxt) {
+        TypeSystem ts = ctxt.getTypeSystem();
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        SemispaceTableTypes tableTypes = SemispaceTableTypes.get(ctxt);
+        CompoundType typeInfoType = tableTypes.getTypeInfoType();
+        CompoundType tablesType = tableTypes.getTablesType();
+        UnsignedIntegerType uint32Type = ts.getUnsignedInteger32Type();
+        ProgramModule programModule = ctxt.getOrAddProgramModule(ctxt.getDefaultTypeDefinition());
+
+        // type descriptions, indexed by type ID
+        SupersDisplayTables tables = SupersDisplayTables.get(ctxt);
+        Literal emptyTypeInfo = lf.zeroInitializerLiteralOfType(typeInfoType);
+        Literal[] typeInfoLiterals = new Literal[tables.get_number_of_typeids()];
+        for (int i = 0; i < typeInfoLiterals.length; i ++) {
+            // primitive types and interfaces are never instantiated
+            typeInfoLiterals[i] = emptyTypeInfo;
+        }
+        Map<LoadedTypeDefinition, FieldElement> arrayContentFields = getArrayContentFields(CoreClasses.get(ctxt));
+        Layout layout = Layout.get(ctxt);
+        List<Literal> referenceOffsets = new ArrayList<>();
+        tables.visitTypesWithIds(ltd -> {
+            if (ltd.isInterface()) {
+                return;
+            }
+            CompoundType compoundType = layout.getInstanceLayoutInfo(ltd).getCompoundType();
+            long elementSize = 0;
+            FieldElement contentField = arrayContentFields.get(ltd);
+            if (contentField != null) {
+                ArrayType contentType = (ArrayType) layout.getInstanceLayoutInfo(ltd).getMember(contentField).getType();
+                elementSize = contentType.getElementType().getSize();
+            }
+            int start = referenceOffsets.size();
+            for (CompoundType.Member member : compoundType.getMembers()) {
+                if (member.getType() instanceof ReferenceType) {
+                    referenceOffsets.add(lf.literalOf(uint32Type, member.getOffset()));
+                }
+            }
+            HashMap<CompoundType.Member, Literal> valueMap = new HashMap<>();
+            valueMap.put(typeInfoType.getMember("instanceSize"), lf.literalOf(uint32Type, compoundType.getSize()));
+            valueMap.put(typeInfoType.getMember("elementSize"), lf.literalOf(uint32Type, elementSize));
+            valueMap.put(typeInfoType.getMember("referenceOffsetStart"), lf.literalOf(uint32Type, start));
+            valueMap.put(typeInfoType.getMember("referenceOffsetCount"), lf.literalOf(uint32Type, referenceOffsets.size() - start));
+            typeInfoLiterals[ltd.getTypeId()] = lf.literalOf(typeInfoType, valueMap);
+        });
+
+        // static fields of reference type
+        List<Literal> staticRoots = new ArrayList<>();
+        WordType voidPtrType = ts.getVoidType().getPointer();
+        Lowering.get(ctxt).visitStaticFieldGlobals((field, global) -> {
+            // the initial heap never refers to the allocation space
+            if (global.getType() instanceof ReferenceType && ! global.getEnclosingType().internalPackageAndNameEquals("org/qbicc/runtime/main", "InitialHeap")) {
+                DataDeclaration decl = programModule.declareData(null, global.getName(), global.getType());
+                staticRoots.add(lf.bitcastLiteral(lf.literalOf(decl), voidPtrType));
+            }
+        });
+
+        // initial heap objects which may be changed to refer to the allocation space
+        List<Literal> heapRoots = new ArrayList<>();
+        for (Literal object : BuildtimeHeap.get(ctxt).getReferenceHoldingObjects(programModule)) {
+            heapRoots.add(lf.bitcastLiteral(object, voidPtrType));
+        }
+
+        Data typeInfoData = defineData(ctxt, "qbicc_gc_type_info_table", lf.literalOf(ts.getArrayType(typeInfoType, typeInfoLiterals.length), List.of(typeInfoLiterals)));
+        Data referenceOffsetData = defineData(ctxt, "qbicc_gc_reference_offset_table", lf.literalOf(ts.getArrayType(uint32Type, referenceOffsets.size()), referenceOffsets));
+        Data staticRootData = defineData(ctxt, "qbicc_gc_static_root_table", lf.literalOf(ts.getArrayType(voidPtrType, staticRoots.size()), staticRoots));
+        Data heapRootData = defineData(ctxt, "qbicc_gc_heap_root_table", lf.literalOf(ts.getArrayType(voidPtrType, heapRoots.size()), heapRoots));
+
+        HashMap<CompoundType.Member, Literal> valueMap = new HashMap<>();
+        CompoundType.Member member;
+
+        member = tablesType.getMember("typeInfoTable");
+        valueMap.put(member, lf.bitcastLiteral(lf.literalOf(typeInfoData), (WordType) member.getType()));
+
+        member = tablesType.getMember("referenceOffsetTable");
+        valueMap.put(member, lf.bitcastLiteral(lf.literalOf(referenceOffsetData), (WordType) member.getType()));
+
+        member = tablesType.getMember("staticRootTable");
+        valueMap.put(member, lf.bitcastLiteral(lf.literalOf(staticRootData), (WordType) member.getType()));
+
+        member = tablesType.getMember("heapRootTable");
+        valueMap.put(member, lf.bitcastLiteral(lf.literalOf(heapRootData), (WordType) member.getType()));
+
+        valueMap.put(tablesType.getMember("staticRootCount"), lf.literalOf(uint32Type, staticRoots.size()));
+        valueMap.put(tablesType.getMember("heapRootCount"), lf.literalOf(uint32Type, heapRoots.size()));
+
+        defineData(ctxt, SemispaceTableTypes.QBICC_GC_TABLES, lf.literalOf(tablesType, valueMap));
+    }
+
+    private static Map<LoadedTypeDefinition, FieldElement> getArrayContentFields(CoreClasses coreClasses) {
+        Map<LoadedTypeDefinition, FieldElement> map = new HashMap<>();
+        for (FieldElement field : List.of(
+            coreClasses.getBooleanArrayContentField(),
+            coreClasses.getByteArrayContentField(),
+            coreClasses.getShortArrayContentField(),
+            coreClasses.getCharArrayContentField(),
+            coreClasses.getIntArrayContentField(),
+            coreClasses.getLongArrayContentField(),
+            coreClasses.getFloatArrayContentField(),
+            coreClasses.getDoubleArrayContentField(),
+            coreClasses.getRefArrayContentField()
+        )) {
+            map.put(field.getEnclosingType().load(), field);
+        }
+        return map;
+    }
+
+    private static Data defineData(CompilationContext ctxt, String variableName, Literal value) {
+        ModuleSection section = ctxt.getImplicitSection(ctxt.getDefaultTypeDefinition());
+        return section.addData(null, variableName, value);
+    }
+}
@@ -0,0 +1,87 @@
+package org.qbicc.plugin.gc.semispace;
+
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.object.ProgramModule;
+import org.qbicc.type.CompoundType;
+import org.qbicc.type.TypeSystem;
+import org.qbicc.type.ValueType;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.GlobalVariableElement;
+import org.qbicc.type.descriptor.BaseTypeDescriptor;
+import org.qbicc.type.generic.BaseTypeSignature;
+
+/**
+ * The types of the tables which describe the object layouts and roots to the semispace collector.
+ */
+public final class SemispaceTableTypes {
+    private static final AttachmentKey<SemispaceTableTypes> KEY = new AttachmentKey<>();
+
+    public static final String QBICC_GC_TABLES = "qbicc_gc_tables";
+
+    private final CompilationContext ctxt;
+    private final CompoundType typeInfoType;
+    private final CompoundType tablesType;
+    private final GlobalVariableElement tables;
+
+    private SemispaceTableTypes(final CompilationContext ctxt) {
+        this.ctxt = ctxt;
+        TypeSystem ts = ctxt.getTypeSystem();
+        ValueType voidPtrType = ts.getVoidType().getPointer();
+        ValueType uint32Type = ts.getUnsignedInteger32Type();
+
+        typeInfoType = CompoundType.builder(ts)
+            .setTag(CompoundType.Tag.STRUCT)
+            .setName("qbicc_gc_type_info")
+            .setOverallAlignment(uint32Type.getAlign())
+            .addNextMember("instanceSize", uint32Type)
+            .addNextMember("elementSize", uint32Type)
+            .addNextMember("referenceOffsetStart", uint32Type)
+            .addNextMember("referenceOffsetCount", uint32Type)
+            .build();
+
+        tablesType = CompoundType.builder(ts)
+            .setTag(CompoundType.Tag.STRUCT)
+            .setName("qbicc_gc_tables")
+            .setOverallAlignment(ts.getPointerAlignment())
+            .addNextMember("typeInfoTable", typeInfoType.getPointer())
+            .addNextMember("referenceOffsetTable", uint32Type.getPointer())
+            .addNextMember("staticRootTable", voidPtrType.getPointer())
+            .addNextMember("heapRootTable", voidPtrType.getPointer())
+            .addNextMember("staticRootCount", uint32Type)
+            .addNextMember("heapRootCount", uint32Type)
+            .build();
+
+        GlobalVariableElement.Builder builder = GlobalVariableElement.builder(QBICC_GC_TABLES, BaseTypeDescriptor.V);
+        builder.setType(tablesType);
+        builder.setEnclosingType(ctxt.getDefaultTypeDefinition().load());
+        builder.setSignature(BaseTypeSignature.V);
+        tables = builder.build();
+    }
+
+    public static SemispaceTableTypes get(CompilationContext ctxt) {
+        return ctxt.computeAttachmentIfAbsent(KEY, () -> new SemispaceTableTypes(ctxt));
+    }
+
+    /**
+     * Get the global variable holding the tables, declaring it in the program module of the given element.
+     *
+     * @param originalElement the element which refers to the tables (must not be {@code null})
+     * @return the global variable (not {@code null})
+     */
+    public GlobalVariableElement getAndRegisterTables(ExecutableElement originalElement) {
+        if (!tables.getEnclosingType().equals(originalElement.getEnclosingType())) {
+            ProgramModule programModule = ctxt.getOrAddProgramModule(originalElement.getEnclosingType());
+            programModule.declareData(null, tables.getName(), tables.getType());
+        }
+        return tables;
+    }
+
+    public CompoundType getTypeInfoType() {
+        return typeInfoType;
+    }
+
+    public CompoundType getTablesType() {
+        return tablesType;
+    }
+}
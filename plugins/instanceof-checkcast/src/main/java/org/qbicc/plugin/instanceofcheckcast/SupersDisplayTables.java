@@ -6,6 +6,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.stream.IntStream;
 
 import org.qbicc.context.AttachmentKey;
@@ -491,6 +492,15 @@ public class SupersDisplayTables {
         return typeIdStructType;
     }
 
+    /**
+     * Visit every class and interface which was assigned a type ID.
+     *
+     * @param visitor the visitor (must not be {@code null})
+     */
+    public void visitTypesWithIds(Consumer<LoadedTypeDefinition> visitor) {
+        typeids.keySet().forEach(visitor);
+    }
+
     public int get_number_of_typeids() {
         Assert.assertTrue(idAndRange.typeid_index == (typeids.size() + 1));
         supersLog.debug("get_highest_typeid == " + (typeids.size() + 1));
@@ -97,6 +97,7 @@ public final class CoreIntrinsics {
         registerOrgQbiccObjectModelIntrinsics(ctxt);
         registerOrgQbiccRuntimeBuildIntrinsics(ctxt);
         registerOrgQbiccRuntimeMainIntrinsics(ctxt);
+        registerOrgQbiccRuntimeGcNoGcIntrinsics(ctxt);
         registerJavaLangMathIntrinsics(ctxt);
         registerJavaUtilConcurrentAtomicLongIntrinsics(ctxt);
         registerOrgQbiccRuntimeMethodDataIntrinsics(ctxt);
@@ -430,6 +431,7 @@ public final class CoreIntrinsics {
         CompoundType gmdType = mdTypes.getGlobalMethodDataType();
         CompoundType minfoType = mdTypes.getMethodInfoType();
         CompoundType scInfoType = mdTypes.getSourceCodeInfoType();
+        CompoundType stackRootType = mdTypes.getStackRootType();
 
         StaticIntrinsic getInstructionListSize = (builder, target, arguments) -> {
             GlobalVariable gmdVariable = (GlobalVariable) builder.globalVariable(mdTypes.getAndRegisterGlobalMethodData(builder.getCurrentElement()));
@@ -454,6 +456,27 @@ public final class CoreIntrinsics {
 
         intrinsics.registerIntrinsic(Phase.LOWER, mdDesc, "getSourceCodeInfoIndex", intToIntDesc, getSourceCodeInfoIndex);
 
+        StaticIntrinsic getStackRootStart = (builder, target, arguments) -> {
+            GlobalVariable gmdVariable = (GlobalVariable) builder.globalVariable(mdTypes.getAndRegisterGlobalMethodData(builder.getCurrentElement()));
+            Value tablePointer = builder.load(builder.memberOf(gmdVariable, gmdType.getMember("stackRootIndexTable")));
+            return builder.load(builder.pointerHandle(tablePointer, arguments.get(0)));
+        };
+
+        intrinsics.registerIntrinsic(Phase.LOWER, mdDesc, "getStackRootStart", intToIntDesc, getStackRootStart);
+
+        for (String memberName : List.of("baseRegister", "baseOffset", "derivedRegister", "derivedOffset")) {
+            StaticIntrinsic getStackRootMember = (builder, target, arguments) -> {
+                GlobalVariable gmdVariable = (GlobalVariable) builder.globalVariable(mdTypes.getAndRegisterGlobalMethodData(builder.getCurrentElement()));
+                Value tablePointer = builder.load(builder.memberOf(gmdVariable, gmdType.getMember("stackRootTable")));
+
+                ValueHandle rootHandle = builder.pointerHandle(builder.bitCast(tablePointer, stackRootType.getPointer()), arguments.get(0));
+                return builder.load(builder.memberOf(rootHandle, stackRootType.getMember(memberName)));
+            };
+
+            String methodName = "getStackRoot" + Character.toUpperCase(memberName.charAt(0)) + memberName.substring(1);
+            intrinsics.registerIntrinsic(Phase.LOWER, mdDesc, methodName, intToIntDesc, getStackRootMember);
+        }
+
         StaticIntrinsic getMethodInfoIndex = (builder, target, arguments) -> {
             GlobalVariable gmdVariable = (GlobalVariable) builder.globalVariable(mdTypes.getAndRegisterGlobalMethodData(builder.getCurrentElement()));
             Value tablePointer = builder.load(builder.memberOf(gmdVariable, gmdType.getMember("sourceCodeInfoTable")));
@@ -730,15 +753,31 @@ public final class CoreIntrinsics {
             Value size = builder.extend(size32, ctxt.getTypeSystem().getSignedInteger64Type());
 
             // TODO: This is a kludge in multiple ways:
-            //  1. We should not directly call a NoGc method here.
+            //  1. We should not directly call a GC helper method here.
             //  2. We are overwriting the object header fields initialized by new when doing the copy
             //     (to make sure we copy any instance fields that have been assigned to use the padding bytes in the basic object header).
-            MethodElement method = NoGc.get(ctxt).getCopyMethod();
-            return builder.call(builder.staticMethod(method), List.of(dst, src, size));
+            MethodElement method = getGcCopyMethod(ctxt);
+            // the copy must not inherit the lock state of the original
+            ValueHandle dstHeader = builder.instanceFieldOf(builder.referenceHandle(dst), coreClasses.getObjectHeaderField());
+            Value header = builder.load(dstHeader);
+            Value result = builder.call(builder.staticMethod(method), List.of(dst, src, size));
+            builder.store(dstHeader, header);
+            FieldElement monitorField = coreClasses.getObjectTypeDefinition().findField("monitor");
+            builder.store(builder.instanceFieldOf(builder.referenceHandle(dst), monitorField), ctxt.getLiteralFactory().zeroInitializerLiteralOfType(monitorField.getType()));
+            return result;
         };
         intrinsics.registerIntrinsic(Phase.LOWER, ciDesc, "copyInstanceFields", copyDesc, copy);
     }
 
+    private static MethodElement getGcCopyMethod(final CompilationContext ctxt) {
+        // use the helpers of whichever GC is present
+        String semispaceHelpers = "org/qbicc/runtime/gc/semispace/SemispaceHelpers";
+        if (ctxt.getBootstrapClassContext().findDefinedType(semispaceHelpers) != null) {
+            return RuntimeMethodFinder.get(ctxt).getMethod(semispaceHelpers, "copy");
+        }
+        return NoGc.get(ctxt).getCopyMethod();
+    }
+
     static void registerOrgQbiccObjectModelIntrinsics(final CompilationContext ctxt) {
         Intrinsics intrinsics = Intrinsics.get(ctxt);
         ClassContext classContext = ctxt.getBootstrapClassContext();
@@ -1044,6 +1083,18 @@ public final class CoreIntrinsics {
         intrinsics.registerIntrinsic(mainDesc, "getSystemThreadGroup", returnTgDesc, sysThrGrp);
     }
 
+    static void registerOrgQbiccRuntimeGcNoGcIntrinsics(final CompilationContext ctxt) {
+        Intrinsics intrinsics = Intrinsics.get(ctxt);
+        ClassContext classContext = ctxt.getBootstrapClassContext();
+        ClassTypeDescriptor helpersDesc = ClassTypeDescriptor.synthesize(classContext, "org/qbicc/runtime/gc/nogc/NoGcHelpers");
+
+        MethodDescriptor emptyToLong = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.J, List.of());
+
+        // only ever expanded when the NoGC helpers are present
+        StaticIntrinsic tlabSize = (builder, target, arguments) -> ctxt.getLiteralFactory().literalOf(NoGc.get(ctxt).getTlabSize());
+        intrinsics.registerIntrinsic(helpersDesc, "getConfiguredTlabSize", emptyToLong, tlabSize);
+    }
+
     public static void registerJavaLangMathIntrinsics(CompilationContext ctxt) {
         Intrinsics intrinsics = Intrinsics.get(ctxt);
         ClassContext classContext = ctxt.getBootstrapClassContext();
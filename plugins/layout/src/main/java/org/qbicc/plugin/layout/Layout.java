@@ -48,6 +48,18 @@ public final class Layout {
         return layout;
     }
 
+    /**
+     * Get the minimum alignment of every object, which is also the granularity of heap allocations.  The run time
+     * sees this value as {@code Heap.getConfiguredObjectAlignment()}.
+     *
+     * @return the object alignment in bytes
+     */
+    public int getObjectAlignment() {
+        // todo: configuration
+        // hard-coded to pointer alignment for now
+        return ctxt.getTypeSystem().getPointerAlignment();
+    }
+
     /**
      * Get the layout info for a reference array which is narrowed to the given type.
      *
@@ -104,7 +116,7 @@ public final class Layout {
             minAlignment = superLayout.getCompoundType().getAlign();
         } else {
             superLayout = null;
-            minAlignment = ctxt.getTypeSystem().getPointerAlignment(); // All objects have at least pointer alignment.
+            minAlignment = getObjectAlignment();
         }
         BitSet allocated = new BitSet();
         if (superLayout != null) {
@@ -39,6 +39,10 @@ public final class Linker {
         }
     }
 
+    public Path getObjectFilePath(LoadedTypeDefinition typeDefinition) {
+        return objectPathsByType.get(typeDefinition);
+    }
+
     public List<Path> getObjectFilePathsInLinkOrder() {
         List<LoadedTypeDefinition> types = new ArrayList<>(objectPathsByType.keySet());
         types.sort(Comparator.comparingInt(LoadedTypeDefinition::getTypeId));
@@ -1,20 +1,29 @@
 package org.qbicc.plugin.llvm;
 
+import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.function.Consumer;
 
 import org.qbicc.context.CompilationContext;
+import org.qbicc.plugin.linker.Linker;
+import org.qbicc.plugin.metrics.Metrics;
 import org.qbicc.type.definition.LoadedTypeDefinition;
 
 public class LLVMCompileStage implements Consumer<CompilationContext> {
     private final boolean isPie;
     private final LLVMCompiler.Factory llvmCompilerFactory;
+    private final LLVMObjectCache objectCache;
 
     public LLVMCompileStage(final boolean isPie, final LLVMCompiler.Factory llvmCompilerFactory) {
+        this(isPie, llvmCompilerFactory, null);
+    }
+
+    public LLVMCompileStage(final boolean isPie, final LLVMCompiler.Factory llvmCompilerFactory, final LLVMObjectCache objectCache) {
         this.isPie = isPie;
         this.llvmCompilerFactory = llvmCompilerFactory;
+        this.objectCache = objectCache;
     }
 
     public void accept(final CompilationContext context) {
@@ -25,8 +34,10 @@ public class LLVMCompileStage implements Consumer<CompilationContext> {
         }
 
         Iterator<Map.Entry<LoadedTypeDefinition, Path>> iterator = llvmState.getModulePaths().entrySet().iterator();
-        context.runParallelTask(ctxt -> {
+        // the per-tool timers accumulate thread time; this one records the elapsed time of the whole stage
+        Metrics.get(context).getOrCreateRootTimer("llvm compile stage").runTimed(() -> context.runParallelTask(ctxt -> {
             LLVMCompiler compiler = llvmCompilerFactory.of(context, isPie);
+            String compilerKey = objectCache == null ? null : compiler.getCacheKey();
             for (;;) {
                 Map.Entry<LoadedTypeDefinition, Path> entry;
                 synchronized (iterator) {
@@ -37,8 +48,39 @@ public class LLVMCompileStage implements Consumer<CompilationContext> {
                 }
                 LoadedTypeDefinition typeDefinition = entry.getKey();
                 Path modulePath = entry.getValue();
-                compiler.compileModule(ctxt, typeDefinition, modulePath);
+                if (compilerKey == null) {
+                    compiler.compileModule(ctxt, typeDefinition, modulePath);
+                } else {
+                    compileCached(ctxt, compiler, compilerKey, typeDefinition, modulePath);
+                }
             }
-        });
+        }));
+        if (objectCache != null) {
+            objectCache.trim(context);
+        }
+    }
+
+    private void compileCached(CompilationContext ctxt, LLVMCompiler compiler, String compilerKey, LoadedTypeDefinition typeDefinition, Path modulePath) {
+        String key;
+        try {
+            key = objectCache.computeKey(compilerKey, modulePath);
+        } catch (IOException e) {
+            ctxt.warning("Failed to compute the object cache key of %s: %s", modulePath, e);
+            compiler.compileModule(ctxt, typeDefinition, modulePath);
+            return;
+        }
+        String moduleName = modulePath.getFileName().toString();
+        String baseName = moduleName.endsWith(".ll") || moduleName.endsWith(".bc") ? moduleName.substring(0, moduleName.length() - 3) : moduleName;
+        Path objectPath = modulePath.resolveSibling(baseName + "." + ctxt.getPlatform().getObjectType().objectSuffix());
+        if (objectCache.restore(ctxt, key, objectPath)) {
+            Linker.get(ctxt).addObjectFilePath(typeDefinition, objectPath);
+            return;
+        }
+        int errCnt = ctxt.errors();
+        compiler.compileModule(ctxt, typeDefinition, modulePath);
+        Path compiled = Linker.get(ctxt).getObjectFilePath(typeDefinition);
+        if (compiled != null && errCnt == ctxt.errors()) {
+            objectCache.store(ctxt, key, compiled);
+        }
     }
 }
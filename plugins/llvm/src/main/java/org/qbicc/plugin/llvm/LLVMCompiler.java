@@ -10,4 +10,14 @@ public interface LLVMCompiler {
         LLVMCompiler of(CompilationContext ctx, boolean isPie);
     }
     void compileModule(CompilationContext context, LoadedTypeDefinition typeDefinition, Path modulePath);
+
+    /**
+     * Get a string which identifies the tools and options used by this compiler, such that two compilers with equal
+     * keys produce equivalent object files from the same module.
+     *
+     * @return the cache key, or {@code null} if the output of this compiler must not be cached
+     */
+    default String getCacheKey() {
+        return null;
+    }
 }
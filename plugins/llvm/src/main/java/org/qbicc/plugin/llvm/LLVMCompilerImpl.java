@@ -9,6 +9,8 @@ import org.qbicc.machine.tool.ToolMessageHandler;
 import org.qbicc.machine.tool.process.InputSource;
 import org.qbicc.machine.tool.process.OutputDestination;
 import org.qbicc.plugin.linker.Linker;
+import org.qbicc.plugin.metrics.Metrics;
+import org.qbicc.plugin.metrics.Timer;
 import org.qbicc.tool.llvm.LlcInvoker;
 import org.qbicc.tool.llvm.LlvmToolChain;
 import org.qbicc.tool.llvm.OptInvoker;
@@ -19,16 +21,39 @@ import org.qbicc.type.definition.LoadedTypeDefinition;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.List;
 
+/**
+ * The LLVM module compiler.  By default, each module is piped through {@code opt} directly into {@code llc}, which
+ * writes the object file, so that no intermediate files are written.  For debugging, the compiler can instead write
+ * the optimized bitcode and the assembly of each module to disk and assemble it using the C compiler.
+ */
 public class LLVMCompilerImpl implements LLVMCompiler {
+    private static final List<OptPass> OPT_PASSES = List.of(OptPass.RewriteStatepointsForGc, OptPass.AlwaysInline);
+
     private final LlcInvoker llcInvoker;
     private final OptInvoker optInvoker;
     private final CCompilerInvoker ccInvoker;
+    private final boolean emitAssembly;
+    private final Timer timer;
+    private final String cacheKey;
 
     public LLVMCompilerImpl(CompilationContext context, boolean isPie) {
-        llcInvoker = createLlcInvoker(context, isPie);
+        this(context, isPie, false);
+    }
+
+    public LLVMCompilerImpl(CompilationContext context, boolean isPie, boolean emitAssembly) {
+        this.emitAssembly = emitAssembly;
+        llcInvoker = createLlcInvoker(context, isPie, emitAssembly);
         optInvoker = createOptInvoker(context);
-        ccInvoker = createCCompilerInvoker(context);
+        ccInvoker = emitAssembly ? createCCompilerInvoker(context) : null;
+        timer = Metrics.get(context).getOrCreateRootTimer("llvm compile");
+        cacheKey = createCacheKey(context, emitAssembly);
+    }
+
+    @Override
+    public String getCacheKey() {
+        return cacheKey;
     }
 
     @Override
@@ -36,55 +61,102 @@ public class LLVMCompilerImpl implements LLVMCompiler {
         CToolChain cToolChain = context.getAttachment(Driver.C_TOOL_CHAIN_KEY);
 
         String moduleName = modulePath.getFileName().toString();
-        if (moduleName.endsWith(".ll")) {
+        if (moduleName.endsWith(".ll") || moduleName.endsWith(".bc")) {
             String baseName = moduleName.substring(0, moduleName.length() - 3);
-            String optBitCodeName = baseName + "_opt.bc";
-            String assemblyName = baseName + ".s";
             String objectName = baseName + "." + cToolChain.getPlatform().getObjectType().objectSuffix();
-
-            Path optBitCodePath = modulePath.resolveSibling(optBitCodeName);
-            Path assemblyPath = modulePath.resolveSibling(assemblyName);
             Path objectPath = modulePath.resolveSibling(objectName);
 
-            optInvoker.setSource(InputSource.from(modulePath));
-            optInvoker.setDestination(OutputDestination.of(optBitCodePath));
-            int errCnt = context.errors();
-            try {
-                optInvoker.invoke();
-            } catch (IOException e) {
-                if (errCnt == context.errors()) {
-                    // whatever the problem was, it wasn't reported, so add an additional error here
-                    context.error(Location.builder().setSourceFilePath(modulePath.toString()).build(), "`opt` invocation has failed: %s", e.toString());
-                }
-                return;
+            if (emitAssembly ? compileViaAssembly(context, modulePath, baseName, objectPath) : compileDirect(context, modulePath, objectPath)) {
+                Linker.get(context).addObjectFilePath(typeDefinition, objectPath);
             }
+        } else {
+            context.warning("Ignoring unknown module file name \"%s\"", modulePath);
+        }
+    }
 
-            llcInvoker.setSource(InputSource.from(optBitCodePath));
-            llcInvoker.setDestination(OutputDestination.of(assemblyPath));
-            errCnt = context.errors();
-            try {
-                llcInvoker.invoke();
-            } catch (IOException e) {
-                if (errCnt == context.errors()) {
-                    // whatever the problem was, it wasn't reported, so add an additional error here
-                    context.error(Location.builder().setSourceFilePath(modulePath.toString()).build(), "`llc` invocation has failed: %s", e.toString());
-                }
-                return;
+    private boolean compileDirect(final CompilationContext context, Path modulePath, Path objectPath) {
+        // llc reads the optimized bitcode from the pipe and writes the object file
+        llcInvoker.setDestination(OutputDestination.of(objectPath));
+        optInvoker.setSource(InputSource.from(modulePath));
+        optInvoker.setDestination(llcInvoker.invokerAsDestination());
+        int errCnt = context.errors();
+        try (Timer.StopWatch ignored = timer.getOrAddChild("opt+llc").startTimedTryBlock()) {
+            optInvoker.invoke();
+        } catch (IOException e) {
+            if (errCnt == context.errors()) {
+                // whatever the problem was, it wasn't reported, so add an additional error here
+                context.error(Location.builder().setSourceFilePath(modulePath.toString()).build(), "`opt`/`llc` invocation has failed: %s", e.toString());
             }
+            return false;
+        }
+        return true;
+    }
+
+    private boolean compileViaAssembly(final CompilationContext context, Path modulePath, String baseName, Path objectPath) {
+        Path optBitCodePath = modulePath.resolveSibling(baseName + "_opt.bc");
+        Path assemblyPath = modulePath.resolveSibling(baseName + ".s");
 
-            // now compile it
-            ccInvoker.setSource(InputSource.from(assemblyPath));
-            ccInvoker.setOutputPath(objectPath);
-            try {
-                ccInvoker.invoke();
-            } catch (IOException e) {
-                context.error("Compiler invocation has failed for %s: %s", modulePath, e.toString());
-                return;
+        optInvoker.setSource(InputSource.from(modulePath));
+        optInvoker.setDestination(OutputDestination.of(optBitCodePath));
+        int errCnt = context.errors();
+        try (Timer.StopWatch ignored = timer.getOrAddChild("opt").startTimedTryBlock()) {
+            optInvoker.invoke();
+        } catch (IOException e) {
+            if (errCnt == context.errors()) {
+                // whatever the problem was, it wasn't reported, so add an additional error here
+                context.error(Location.builder().setSourceFilePath(modulePath.toString()).build(), "`opt` invocation has failed: %s", e.toString());
             }
-            Linker.get(context).addObjectFilePath(typeDefinition, objectPath);
-        } else {
-            context.warning("Ignoring unknown module file name \"%s\"", modulePath);
+            return false;
+        }
+
+        llcInvoker.setSource(InputSource.from(optBitCodePath));
+        llcInvoker.setDestination(OutputDestination.of(assemblyPath));
+        errCnt = context.errors();
+        try (Timer.StopWatch ignored = timer.getOrAddChild("llc").startTimedTryBlock()) {
+            llcInvoker.invoke();
+        } catch (IOException e) {
+            if (errCnt == context.errors()) {
+                // whatever the problem was, it wasn't reported, so add an additional error here
+                context.error(Location.builder().setSourceFilePath(modulePath.toString()).build(), "`llc` invocation has failed: %s", e.toString());
+            }
+            return false;
         }
+
+        // now compile it
+        ccInvoker.setSource(InputSource.from(assemblyPath));
+        ccInvoker.setOutputPath(objectPath);
+        try (Timer.StopWatch ignored = timer.getOrAddChild("assemble").startTimedTryBlock()) {
+            ccInvoker.invoke();
+        } catch (IOException e) {
+            context.error("Compiler invocation has failed for %s: %s", modulePath, e.toString());
+            return false;
+        }
+        return true;
+    }
+
+    private String createCacheKey(CompilationContext context, boolean emitAssembly) {
+        LlvmToolChain llvmToolChain = context.getAttachment(Driver.LLVM_TOOL_KEY);
+        if (llvmToolChain == null || llcInvoker == null) {
+            return null;
+        }
+        StringBuilder b = new StringBuilder();
+        b.append(llvmToolChain.getImplementationName()).append(' ').append(llvmToolChain.getVersion());
+        b.append(';').append(llvmToolChain.getPlatform());
+        b.append(";opt");
+        for (OptPass pass : OPT_PASSES) {
+            b.append(' ').append(pass.name);
+        }
+        b.append(";llc ").append(llcInvoker.getOptimizationLevel());
+        b.append(' ').append(llcInvoker.getRelocationModel());
+        b.append(' ').append(llcInvoker.getOutputFormat());
+        if (emitAssembly) {
+            CToolChain cToolChain = context.getAttachment(Driver.C_TOOL_CHAIN_KEY);
+            if (cToolChain == null) {
+                return null;
+            }
+            b.append(';').append(cToolChain.getImplementationName()).append(' ').append(cToolChain.getVersion());
+        }
+        return b.toString();
     }
 
     private static CCompilerInvoker createCCompilerInvoker(CompilationContext context) {
@@ -107,12 +179,13 @@ public class LLVMCompilerImpl implements LLVMCompiler {
         }
         OptInvoker optInvoker = llvmToolChain.newOptInvoker();
         optInvoker.setMessageHandler(ToolMessageHandler.reporting(context));
-        optInvoker.addOptimizationPass(OptPass.RewriteStatepointsForGc);
-        optInvoker.addOptimizationPass(OptPass.AlwaysInline);
+        for (OptPass pass : OPT_PASSES) {
+            optInvoker.addOptimizationPass(pass);
+        }
         return optInvoker;
     }
 
-    private static LlcInvoker createLlcInvoker(CompilationContext context, boolean isPie) {
+    private static LlcInvoker createLlcInvoker(CompilationContext context, boolean isPie, boolean emitAssembly) {
         LlvmToolChain llvmToolChain = context.getAttachment(Driver.LLVM_TOOL_KEY);
         if (llvmToolChain == null) {
             context.error("No LLVM tool chain is available");
@@ -120,7 +193,7 @@ public class LLVMCompilerImpl implements LLVMCompiler {
         }
         LlcInvoker llcInvoker = llvmToolChain.newLlcInvoker();
         llcInvoker.setMessageHandler(ToolMessageHandler.reporting(context));
-        llcInvoker.setOutputFormat(OutputFormat.ASM);
+        llcInvoker.setOutputFormat(emitAssembly ? OutputFormat.ASM : OutputFormat.OBJ);
         llcInvoker.setRelocationModel(isPie ? RelocationModel.Pic : RelocationModel.Static);
         return llcInvoker;
     }
@@ -11,17 +11,25 @@ public class LLVMDefaultModuleCompileStage implements Consumer<CompilationContex
     private final boolean compileOutput;
     private final LLVMReferencePointerFactory refFactory;
     private LLVMCompiler.Factory llvmCompilerFactory;
+    private final boolean bitcode;
+    private final boolean streaming;
 
     public LLVMDefaultModuleCompileStage(boolean isPie, boolean compileOutput, LLVMReferencePointerFactory refFactory, LLVMCompiler.Factory llvmCompilerFactory) {
+        this(isPie, compileOutput, refFactory, llvmCompilerFactory, false, false);
+    }
+
+    public LLVMDefaultModuleCompileStage(boolean isPie, boolean compileOutput, LLVMReferencePointerFactory refFactory, LLVMCompiler.Factory llvmCompilerFactory, boolean bitcode, boolean streaming) {
         this.isPie = isPie;
         this.compileOutput = compileOutput;
         this.refFactory = refFactory;
         this.llvmCompilerFactory = llvmCompilerFactory;
+        this.bitcode = bitcode;
+        this.streaming = streaming;
     }
 
     @Override
     public void accept(CompilationContext context) {
-        LLVMModuleGenerator generator = new LLVMModuleGenerator(context, isPie ? 2 : 0, isPie ? 2 : 0, refFactory);
+        LLVMModuleGenerator generator = new LLVMModuleGenerator(context, isPie ? 2 : 0, isPie ? 2 : 0, refFactory, bitcode, streaming);
         DefinedTypeDefinition defaultTypeDefinition = context.getDefaultTypeDefinition();
         Path modulePath = generator.processProgramModule(context.getOrAddProgramModule(defaultTypeDefinition));
         if (compileOutput) {
@@ -24,7 +24,7 @@ public class LLVMEmscriptenCompiler implements LLVMCompiler {
         CToolChain cToolChain = context.getAttachment(Driver.C_TOOL_CHAIN_KEY);
 
         String moduleName = modulePath.getFileName().toString();
-        if (moduleName.endsWith(".ll")) {
+        if (moduleName.endsWith(".ll") || moduleName.endsWith(".bc")) {
             String baseName = moduleName.substring(0, moduleName.length() - 3);
             String objectName = baseName + "." + cToolChain.getPlatform().getObjectType().objectSuffix();
             Path objectPath = modulePath.resolveSibling(objectName);
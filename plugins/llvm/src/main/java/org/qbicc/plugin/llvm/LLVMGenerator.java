@@ -1,32 +1,84 @@
 package org.qbicc.plugin.llvm;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.function.Consumer;
 
 import org.qbicc.context.CompilationContext;
+import org.qbicc.driver.Driver;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.Terminator;
 import org.qbicc.graph.ValueVisitor;
 import org.qbicc.machine.llvm.LLValue;
+import org.qbicc.object.Function;
+import org.qbicc.object.ModuleSection;
 import org.qbicc.object.ProgramModule;
+import org.qbicc.object.SectionObject;
+import org.qbicc.plugin.metrics.CountMetric;
+import org.qbicc.plugin.metrics.Metrics;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.MethodBody;
 
 /**
- *
+ * Generate the LLVM modules for the program.  By default, one LLVM module is generated for each program module.
+ * If a unit count is given, the program modules are instead grouped into at most that many compilation units of
+ * roughly equal estimated size, each of which is generated as a single LLVM module.  This avoids compiling many
+ * tiny modules, and allows LLVM to inline calls between the classes of a unit.
  */
 public class LLVMGenerator implements Consumer<CompilationContext>, ValueVisitor<CompilationContext, LLValue> {
     private final int picLevel;
     private final int pieLevel;
     private final LLVMReferencePointerFactory refFactory;
+    private static final Comparator<Unit> UNIT_ORDER = Comparator.comparingLong((Unit u) -> u.size).thenComparingInt(u -> u.index);
+
+    private final int unitCount;
+    private final boolean bitcode;
+    private final boolean streaming;
 
     public LLVMGenerator(final int picLevel, final int pieLevel, final LLVMReferencePointerFactory refFactory) {
+        this(picLevel, pieLevel, refFactory, 0);
+    }
+
+    public LLVMGenerator(final int picLevel, final int pieLevel, final LLVMReferencePointerFactory refFactory, final int unitCount) {
+        this(picLevel, pieLevel, refFactory, unitCount, false, false);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param picLevel the PIC level
+     * @param pieLevel the PIE level
+     * @param refFactory the reference pointer factory (must not be {@code null})
+     * @param unitCount the maximum number of compilation units, or {@code 0} to generate one module per program module
+     * @param bitcode {@code true} to write the modules as bitcode where possible, or {@code false} to write textual IR
+     * @param streaming {@code true} to write each function of a textual module as soon as it has been generated
+     */
+    public LLVMGenerator(final int picLevel, final int pieLevel, final LLVMReferencePointerFactory refFactory, final int unitCount, final boolean bitcode, final boolean streaming) {
         this.picLevel = picLevel;
         this.pieLevel = pieLevel;
         this.refFactory = refFactory;
+        this.unitCount = unitCount;
+        this.bitcode = bitcode;
+        this.streaming = streaming;
     }
 
     public void accept(final CompilationContext compilationContext) {
-        LLVMModuleGenerator generator = new LLVMModuleGenerator(compilationContext, picLevel, pieLevel, refFactory);
+        LLVMModuleGenerator generator = new LLVMModuleGenerator(compilationContext, picLevel, pieLevel, refFactory, bitcode, streaming);
         List<ProgramModule> allProgramModules = compilationContext.getAllProgramModules();
+        if (unitCount > 0) {
+            generateUnits(compilationContext, generator, allProgramModules);
+            return;
+        }
         Iterator<ProgramModule> iterator = allProgramModules.iterator();
         compilationContext.runParallelTask(ctxt -> {
             for (;;) {
@@ -43,4 +95,269 @@ public class LLVMGenerator implements Consumer<CompilationContext>, ValueVisitor
             }
         });
     }
+
+    private void generateUnits(final CompilationContext compilationContext, final LLVMModuleGenerator generator, final List<ProgramModule> allProgramModules) {
+        DefinedTypeDefinition defaultType = compilationContext.getDefaultTypeDefinition();
+        Path unitDirectory = compilationContext.getOutputDirectory().resolve("llvm-units");
+        List<Unit> units = partition(compilationContext, allProgramModules, defaultType, unitDirectory);
+        Iterator<Unit> iterator = units.iterator();
+        compilationContext.runParallelTask(ctxt -> {
+            for (;;) {
+                Unit unit;
+                synchronized (iterator) {
+                    if (! iterator.hasNext()) {
+                        return;
+                    }
+                    unit = iterator.next();
+                }
+                LLVMState llvmState = ctxt.computeAttachmentIfAbsent(LLVMState.KEY, LLVMState::new);
+                if (unit.programModules.size() == 1 && unit.programModules.get(0).getTypeDefinition() == defaultType) {
+                    // the default module is kept on its own
+                    ProgramModule programModule = unit.programModules.get(0);
+                    llvmState.addModulePath(defaultType.load(), generator.processProgramModule(programModule));
+                    continue;
+                }
+                String unitName = "unit-" + unit.index;
+                Path outputFile = generator.processProgramModules(unit.programModules, unitName + ".java", unitDirectory.resolve(unitName + ".ll"));
+                // register the unit under its first type, so that the link order stays close to the per-class order
+                LoadedTypeDefinition first = null;
+                for (ProgramModule programModule : unit.programModules) {
+                    LoadedTypeDefinition type = programModule.getTypeDefinition().load();
+                    if (first == null || type.getTypeId() < first.getTypeId()) {
+                        first = type;
+                    }
+                }
+                llvmState.addModulePath(first, outputFile);
+            }
+        });
+    }
+
+    /**
+     * Group the program modules into units.  If a previous build into the same output directory left its
+     * {@linkplain LLVMUnitAssignments assignments} behind, the classes it knew are kept in the same units, and new
+     * classes are added to units which have changed anyway, so that the unchanged units are generated with the same
+     * content as before.  Otherwise, or if that would leave the units too unbalanced, the longest-processing-time-first
+     * rule is used: the modules are sorted by decreasing estimated size, and each one is added to the unit which is
+     * smallest so far.
+     */
+    private List<Unit> partition(final CompilationContext ctxt, final List<ProgramModule> programModules, final DefinedTypeDefinition defaultType, final Path unitDirectory) {
+        Driver driver = Driver.get(ctxt);
+        Map<LoadedTypeDefinition, String> fingerprints = new HashMap<>();
+        List<Unit> units = new ArrayList<>();
+        List<Sized> sized = new ArrayList<>(programModules.size());
+        for (ProgramModule programModule : programModules) {
+            DefinedTypeDefinition def = programModule.getTypeDefinition();
+            if (def == defaultType) {
+                Unit unit = new Unit(-1);
+                unit.programModules.add(programModule);
+                units.add(unit);
+            } else {
+                String fingerprint = LLVMUnitAssignments.fingerprint(driver, def.load(), fingerprints);
+                sized.add(new Sized(programModule, def.getInternalName(), fingerprint, estimateSize(programModule)));
+            }
+        }
+        if (sized.isEmpty()) {
+            return units;
+        }
+        sized.sort(Comparator.comparingLong(Sized::size).reversed().thenComparing(Sized::name));
+        int cnt = Math.min(unitCount, sized.size());
+        Path stateFile = unitDirectory.resolve(LLVMUnitAssignments.FILE_NAME);
+        LLVMUnitAssignments previous = LLVMUnitAssignments.load(ctxt, stateFile, cnt);
+        Unit[] assigned = null;
+        if (! previous.isEmpty()) {
+            assigned = partitionIncrementally(ctxt, sized, cnt, previous);
+        }
+        if (assigned == null) {
+            assigned = partitionBalanced(sized, cnt);
+        }
+        Map<String, LLVMUnitAssignments.Entry> entries = new LinkedHashMap<>();
+        for (Unit unit : assigned) {
+            if (! unit.programModules.isEmpty()) {
+                units.add(unit);
+            }
+        }
+        for (Sized item : sized) {
+            entries.put(item.name(), new LLVMUnitAssignments.Entry(item.fingerprint(), item.unit));
+        }
+        LLVMUnitAssignments.save(ctxt, stateFile, cnt, entries);
+        // generate the largest units first
+        units.sort(Comparator.comparingLong((Unit u) -> u.size).reversed());
+        return units;
+    }
+
+    private static Unit[] partitionBalanced(final List<Sized> sized, final int cnt) {
+        Unit[] units = new Unit[cnt];
+        PriorityQueue<Unit> smallest = new PriorityQueue<>(cnt, UNIT_ORDER);
+        for (int i = 0; i < cnt; i ++) {
+            smallest.add(units[i] = new Unit(i));
+        }
+        for (Sized item : sized) {
+            Unit unit = smallest.remove();
+            unit.add(item);
+            smallest.add(unit);
+        }
+        return units;
+    }
+
+    /**
+     * Keep each class which was known to the previous build in its previous unit, and add the new classes to the
+     * smallest of the units which are generated differently anyway.
+     *
+     * @return the units, or {@code null} if the result would be too unbalanced
+     */
+    private static Unit[] partitionIncrementally(final CompilationContext ctxt, final List<Sized> sized, final int cnt, final LLVMUnitAssignments previous) {
+        Unit[] units = new Unit[cnt];
+        for (int i = 0; i < cnt; i ++) {
+            units[i] = new Unit(i);
+        }
+        boolean[] dirty = new boolean[cnt];
+        Set<String> kept = new HashSet<>();
+        List<Sized> added = new ArrayList<>();
+        long total = 0;
+        long largest = 0;
+        int changed = 0;
+        for (Sized item : sized) {
+            long size = Math.max(1, item.size());
+            total += size;
+            largest = Math.max(largest, size);
+            LLVMUnitAssignments.Entry entry = previous.get(item.name());
+            if (entry == null || ! kept.add(item.name())) {
+                added.add(item);
+                continue;
+            }
+            units[entry.unit()].add(item);
+            if (! entry.matches(item.fingerprint())) {
+                dirty[entry.unit()] = true;
+                changed ++;
+            }
+        }
+        int removed = 0;
+        for (String name : previous.names()) {
+            if (! kept.contains(name)) {
+                dirty[previous.get(name).unit()] = true;
+                removed ++;
+            }
+        }
+        for (Sized item : added) {
+            Unit target = null;
+            for (Unit unit : units) {
+                if (dirty[unit.index] && (target == null || UNIT_ORDER.compare(unit, target) < 0)) {
+                    target = unit;
+                }
+            }
+            if (target == null) {
+                for (Unit unit : units) {
+                    if (target == null || UNIT_ORDER.compare(unit, target) < 0) {
+                        target = unit;
+                    }
+                }
+                dirty[target.index] = true;
+            }
+            target.add(item);
+        }
+        // allow the units to drift apart by a factor of two before starting over
+        long limit = Math.max(2 * ((total + cnt - 1) / cnt), largest);
+        for (Unit unit : units) {
+            if (unit.size > limit) {
+                return null;
+            }
+        }
+        int dirtyUnits = 0;
+        for (boolean d : dirty) {
+            if (d) {
+                dirtyUnits ++;
+            }
+        }
+        CountMetric counts = Metrics.get(ctxt).getOrCreateRootCountMetric("llvm units");
+        counts.getOrAddChild("unchanged classes").add(kept.size() - changed);
+        counts.getOrAddChild("changed classes").add(changed);
+        counts.getOrAddChild("added classes").add(added.size());
+        counts.getOrAddChild("removed classes").add(removed);
+        counts.getOrAddChild("changed units").add(dirtyUnits);
+        return units;
+    }
+
+    /**
+     * Estimate the amount of code generated for a program module as the number of basic blocks of its functions plus
+     * the number of data objects.
+     */
+    private static long estimateSize(final ProgramModule programModule) {
+        long size = 0;
+        for (ModuleSection section : programModule.sections()) {
+            for (SectionObject item : section.contents()) {
+                if (item instanceof Function fn) {
+                    MethodBody body = fn.getBody();
+                    size += body == null ? 1 : countBlocks(body.getEntryBlock());
+                } else {
+                    size ++;
+                }
+            }
+        }
+        return size;
+    }
+
+    private static int countBlocks(final BasicBlock entryBlock) {
+        Set<BasicBlock> visited = new HashSet<>();
+        ArrayList<BasicBlock> stack = new ArrayList<>();
+        stack.add(entryBlock);
+        while (! stack.isEmpty()) {
+            BasicBlock block = stack.remove(stack.size() - 1);
+            if (visited.add(block)) {
+                Terminator terminator = block.getTerminator();
+                int cnt = terminator.getSuccessorCount();
+                for (int i = 0; i < cnt; i ++) {
+                    stack.add(terminator.getSuccessor(i));
+                }
+            }
+        }
+        return visited.size();
+    }
+
+    static final class Unit {
+        final int index;
+        final List<ProgramModule> programModules = new ArrayList<>();
+        long size;
+
+        Unit(int index) {
+            this.index = index;
+        }
+
+        void add(Sized item) {
+            programModules.add(item.programModule());
+            item.unit = index;
+            // count each module at least once so that empty modules are spread out too
+            size += Math.max(1, item.size());
+        }
+    }
+
+    static final class Sized {
+        private final ProgramModule programModule;
+        private final String name;
+        private final String fingerprint;
+        private final long size;
+        int unit;
+
+        Sized(ProgramModule programModule, String name, String fingerprint, long size) {
+            this.programModule = programModule;
+            this.name = name;
+            this.fingerprint = fingerprint;
+            this.size = size;
+        }
+
+        ProgramModule programModule() {
+            return programModule;
+        }
+
+        String name() {
+            return name;
+        }
+
+        String fingerprint() {
+            return fingerprint;
+        }
+
+        long size() {
+            return size;
+        }
+    }
 }
@@ -42,7 +42,6 @@ import org.qbicc.type.UnresolvedType;
 import org.qbicc.type.UnsignedIntegerType;
 import org.qbicc.type.ValueType;
 import org.qbicc.type.VoidType;
-import org.qbicc.type.definition.DefinedTypeDefinition;
 import org.qbicc.type.definition.element.ConstructorElement;
 import org.qbicc.type.definition.element.Element;
 import org.qbicc.type.definition.element.ExecutableElement;
@@ -55,6 +54,7 @@ import org.qbicc.type.definition.element.MethodElement;
 
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
@@ -66,21 +66,38 @@ final class LLVMModuleDebugInfo {
     private final LLValue diCompileUnit;
     private final Map<ExecutableElement, MethodDebugInfo> methods = new HashMap<>();
     private final Map<Type, LLValue> types = new HashMap<>();
-    private final Map<LocationKey, LLValue> locations = new HashMap<>();
+    private final Map<LocationKey, LLValue> locations;
     private final Map<String, LLValue> files = new HashMap<>();
     private final LLValue file;
     private final MetadataTuple globals;
 
     LLVMModuleDebugInfo(ProgramModule programModule, final Module module, final CompilationContext ctxt) {
+        this(programModule.getTypeDefinition().getInternalName() + ".java", module, ctxt);
+    }
+
+    LLVMModuleDebugInfo(final String fullPath, final Module module, final CompilationContext ctxt) {
+        this(fullPath, module, ctxt, 0);
+    }
+
+    /**
+     * Construct a new instance.  If the location table is bounded, the least recently used locations are dropped
+     * from it when it is full, and are created again if they are used again.  This is meant for modules which are
+     * written as they are generated, whose locations are released along with the functions which use them.
+     *
+     * @param fullPath the source file path of the compile unit (must not be {@code null})
+     * @param module the module (must not be {@code null})
+     * @param ctxt the compilation context (must not be {@code null})
+     * @param locationTableSize the maximum number of deduplicated locations, or {@code 0} for no limit
+     */
+    LLVMModuleDebugInfo(final String fullPath, final Module module, final CompilationContext ctxt, final int locationTableSize) {
         this.module = module;
         this.ctxt = ctxt;
+        locations = locationTableSize == 0 ? new HashMap<>() : new LocationTable(locationTableSize);
 
         module.addFlag(ModuleFlagBehavior.Warning, "Debug Info Version", Types.i32, Values.intConstant(3));
         module.addFlag(ModuleFlagBehavior.Warning, "Dwarf Version", Types.i32, Values.intConstant(4));
         module.metadataTuple("llvm.ident").elem(null, module.metadataTuple().elem(null, metadataString("qbicc")).asRef());
 
-        final DefinedTypeDefinition typeDefinition = programModule.getTypeDefinition();
-        final String fullPath = typeDefinition.getInternalName() + ".java";
         final int idx = fullPath.lastIndexOf('/');
         final String dirName, fileName;
         if (idx == -1) {
@@ -425,6 +442,20 @@ final class LLVMModuleDebugInfo {
         return expr;
     }
 
+    static final class LocationTable extends LinkedHashMap<LocationKey, LLValue> {
+        private final int maxSize;
+
+        LocationTable(final int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<LocationKey, LLValue> eldest) {
+            return size() > maxSize;
+        }
+    }
+
     final static class LocationKey {
         private final int line;
         private final int column;
@@ -16,6 +16,7 @@ import org.qbicc.machine.llvm.ModuleFlagBehavior;
 import org.qbicc.machine.llvm.RuntimePreemption;
 import org.qbicc.machine.llvm.ThreadLocalStorageModel;
 import org.qbicc.machine.llvm.Types;
+import org.qbicc.machine.llvm.UnsupportedBitcodeException;
 import org.qbicc.machine.llvm.Values;
 import org.qbicc.object.Data;
 import org.qbicc.object.DataDeclaration;
@@ -27,6 +28,7 @@ import org.qbicc.object.ModuleSection;
 import org.qbicc.object.ProgramModule;
 import org.qbicc.object.SectionObject;
 import org.qbicc.object.ThreadLocalMode;
+import org.qbicc.plugin.metrics.Metrics;
 import org.qbicc.type.ArrayType;
 import org.qbicc.type.CompoundType;
 import org.qbicc.type.FunctionType;
@@ -43,29 +45,70 @@ import org.qbicc.type.definition.element.MemberElement;
 import org.qbicc.type.definition.element.MethodElement;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 final class LLVMModuleGenerator {
+    /**
+     * The number of debug locations which are deduplicated when streaming.
+     */
+    private static final int STREAMING_LOCATION_TABLE_SIZE = 1 << 14;
+
     private final CompilationContext context;
     private final int picLevel;
     private final int pieLevel;
     private final LLVMReferencePointerFactory refFactory;
+    private final boolean bitcode;
+    private final boolean streaming;
 
-    LLVMModuleGenerator(final CompilationContext context, final int picLevel, final int pieLevel, final LLVMReferencePointerFactory refFactory) {
+    /**
+     * Construct a new instance.
+     *
+     * @param context the compilation context (must not be {@code null})
+     * @param picLevel the PIC level
+     * @param pieLevel the PIE level
+     * @param refFactory the reference pointer factory (must not be {@code null})
+     * @param bitcode {@code true} to write the modules as bitcode where possible
+     * @param streaming {@code true} to write each function of a textual module as soon as it has been generated,
+     *      instead of building the whole module in memory first
+     */
+    LLVMModuleGenerator(final CompilationContext context, final int picLevel, final int pieLevel, final LLVMReferencePointerFactory refFactory, final boolean bitcode, final boolean streaming) {
         this.context = context;
         this.picLevel = picLevel;
         this.pieLevel = pieLevel;
         this.refFactory = refFactory;
+        this.bitcode = bitcode;
+        // bitcode is written from the complete module
+        this.streaming = streaming && ! bitcode;
     }
 
     public Path processProgramModule(final ProgramModule programModule) {
         DefinedTypeDefinition def = programModule.getTypeDefinition();
-        Path outputFile = context.getOutputFile(def, "ll");
+        return processProgramModules(List.of(programModule), def.getInternalName() + ".java", context.getOutputFile(def, "ll"));
+    }
+
+    /**
+     * Generate a single LLVM module containing all of the given program modules.  Declarations of objects which are
+     * defined by another program module of the same LLVM module are dropped, so that calls between them can be inlined.
+     * The peak heap usage seen while the module is generated is recorded in the {@code llvm module peak heap} metric;
+     * it includes any other modules which are being generated at the same time.
+     *
+     * @param programModules the program modules to generate (must not be {@code null})
+     * @param sourceName the file name to give to the debug info compile unit (must not be {@code null})
+     * @param outputFile the path of the textual module file to write (must not be {@code null})
+     * @return the path of the module file which was written, which has a {@code .bc} suffix if it was written as bitcode
+     */
+    public Path processProgramModules(final List<ProgramModule> programModules, final String sourceName, final Path outputFile) {
         final Module module = Module.newModule();
         TypeSystem ts = context.getTypeSystem();
         module.dataLayout()
@@ -81,8 +124,21 @@ final class LLVMModuleGenerator {
             .float32Align(ts.getFloat32Type().getAlign() * 8)
             .float64Align(ts.getFloat64Type().getAlign() * 8)
             ;
-        final LLVMModuleNodeVisitor moduleVisitor = new LLVMModuleNodeVisitor(module, context, refFactory);
-        final LLVMModuleDebugInfo debugInfo = new LLVMModuleDebugInfo(programModule, module, context);
+        // objects defined in this LLVM module, so that other program modules' declarations of them can be dropped
+        Map<String, SectionObject> defined = new HashMap<>();
+        if (programModules.size() > 1) {
+            for (ProgramModule programModule : programModules) {
+                for (ModuleSection section : programModule.sections()) {
+                    for (SectionObject item : section.contents()) {
+                        if (defined.putIfAbsent(item.getName(), item) != null) {
+                            context.error("Object '%s' is defined by more than one program module of \"%s\"", item.getName(), outputFile);
+                        }
+                    }
+                }
+            }
+        }
+        final LLVMModuleNodeVisitor moduleVisitor = new LLVMModuleNodeVisitor(module, context, refFactory, defined);
+        final LLVMModuleDebugInfo debugInfo = new LLVMModuleDebugInfo(sourceName, module, context, streaming ? STREAMING_LOCATION_TABLE_SIZE : 0);
         final LLVMPseudoIntrinsics pseudoIntrinsics = new LLVMPseudoIntrinsics(module, refFactory);
 
         if (picLevel != 0) {
@@ -99,11 +155,21 @@ final class LLVMModuleGenerator {
         decl.param(Types.metadata).param(Types.metadata).param(Types.metadata);
 
         // declare global ctors and dtors
-        processXtors(programModule.constructors(), "llvm.global_ctors", module, moduleVisitor);
-        processXtors(programModule.destructors(), "llvm.global_dtors", module, moduleVisitor);
+        List<GlobalXtor> ctors = new ArrayList<>();
+        List<GlobalXtor> dtors = new ArrayList<>();
+        for (ProgramModule programModule : programModules) {
+            ctors.addAll(programModule.constructors());
+            dtors.addAll(programModule.destructors());
+        }
+        processXtors(ctors, "llvm.global_ctors", module, moduleVisitor);
+        processXtors(dtors, "llvm.global_dtors", module, moduleVisitor);
 
-        for (Declaration item : programModule.declarations()) {
+        Set<String> declared = new HashSet<>();
+        for (Declaration item : declarations(programModules)) {
             String name = item.getName();
+            if (defined.containsKey(name) || ! declared.add(name)) {
+                continue;
+            }
             Linkage linkage = map(item.getLinkage());
             if (item instanceof FunctionDeclaration fn) {
                 decl = module.declare(name).linkage(linkage);
@@ -130,7 +196,17 @@ final class LLVMModuleGenerator {
                 obj.asGlobal(item.getName());
             }
         }
-        for (ModuleSection section : programModule.sections()) {
+        BufferedWriter stream = null;
+        if (streaming) {
+            try {
+                stream = openOutput(outputFile);
+            } catch (IOException e) {
+                writeFailed(outputFile, e);
+                return outputFile;
+            }
+        }
+        long peakHeap = usedHeap();
+        for (ModuleSection section : sections(programModules)) {
             String sectionName = section.getName();
             for (SectionObject item : section.contents()) {
                 String name = item.getName();
@@ -201,27 +277,117 @@ final class LLVMModuleGenerator {
                 } else {
                     throw new IllegalStateException();
                 }
+                peakHeap = Math.max(peakHeap, usedHeap());
+                if (stream != null) {
+                    // release the function body or data as soon as it has been generated
+                    try {
+                        module.flushTo(stream);
+                    } catch (IOException e) {
+                        closeQuietly(stream);
+                        writeFailed(outputFile, e);
+                        return outputFile;
+                    }
+                }
+            }
+        }
+        Path written = writeModule(module, outputFile, stream);
+        peakHeap = Math.max(peakHeap, usedHeap());
+        String moduleName = sourceName.endsWith(".java") ? sourceName.substring(0, sourceName.length() - 5) : sourceName;
+        Metrics.get(context).getOrCreateRootMemorySizeMetric("llvm module peak heap").getOrAddChild(moduleName).max(peakHeap);
+        return written;
+    }
+
+    private Path writeModule(final Module module, final Path outputFile, final BufferedWriter stream) {
+        if (stream != null) {
+            try (BufferedWriter writer = stream) {
+                module.writeTo(writer);
+            } catch (IOException e) {
+                writeFailed(outputFile, e);
             }
+            return outputFile;
         }
         try {
-            Path parent = outputFile.getParent();
-            if (! Files.exists(parent)) {
-                Files.createDirectories(parent);
+            if (bitcode) {
+                byte[] bytes = null;
+                try {
+                    ByteArrayOutputStream os = new ByteArrayOutputStream();
+                    module.writeBitcodeTo(os);
+                    bytes = os.toByteArray();
+                } catch (UnsupportedBitcodeException e) {
+                    context.warning("Writing \"%s\" as textual IR because it cannot be written as bitcode: %s", outputFile, e.getMessage());
+                }
+                if (bytes != null) {
+                    String fileName = outputFile.getFileName().toString();
+                    Path bitcodeFile = outputFile.resolveSibling((fileName.endsWith(".ll") ? fileName.substring(0, fileName.length() - 3) : fileName) + ".bc");
+                    createParent(bitcodeFile);
+                    Files.write(bitcodeFile, bytes);
+                    return bitcodeFile;
+                }
             }
-            try (BufferedWriter writer = Files.newBufferedWriter(outputFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            try (BufferedWriter writer = openOutput(outputFile)) {
                 module.writeTo(writer);
             }
         } catch (IOException e) {
-            context.error("Failed to write \"%s\": %s", outputFile, e.getMessage());
-            try {
-                Files.deleteIfExists(outputFile);
-            } catch (IOException e2) {
-                context.warning("Failed to clean \"%s\": %s", outputFile, e.getMessage());
-            }
+            writeFailed(outputFile, e);
         }
         return outputFile;
     }
 
+    private static void createParent(final Path file) throws IOException {
+        Path parent = file.getParent();
+        if (! Files.exists(parent)) {
+            Files.createDirectories(parent);
+        }
+    }
+
+    private static BufferedWriter openOutput(final Path outputFile) throws IOException {
+        createParent(outputFile);
+        return Files.newBufferedWriter(outputFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    private static void closeQuietly(final BufferedWriter writer) {
+        try {
+            writer.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void writeFailed(final Path outputFile, final IOException e) {
+        context.error("Failed to write \"%s\": %s", outputFile, e.getMessage());
+        try {
+            Files.deleteIfExists(outputFile);
+        } catch (IOException e2) {
+            context.warning("Failed to clean \"%s\": %s", outputFile, e.getMessage());
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static Iterable<Declaration> declarations(final List<ProgramModule> programModules) {
+        if (programModules.size() == 1) {
+            return programModules.get(0).declarations();
+        }
+        List<Declaration> declarations = new ArrayList<>();
+        for (ProgramModule programModule : programModules) {
+            programModule.declarations().forEach(declarations::add);
+        }
+        return declarations;
+    }
+
+    private static Collection<ModuleSection> sections(final List<ProgramModule> programModules) {
+        if (programModules.size() == 1) {
+            return programModules.get(0).sections();
+        }
+        List<ModuleSection> sections = new ArrayList<>();
+        for (ProgramModule programModule : programModules) {
+            sections.addAll(programModule.sections());
+        }
+        return sections;
+    }
+
     private void processXtors(final List<GlobalXtor> xtors, final String xtorName, Module module, LLVMModuleNodeVisitor moduleVisitor) {
         if (! xtors.isEmpty()) {
             TypeSystem ts = context.getTypeSystem();
@@ -39,6 +39,8 @@ import org.qbicc.machine.llvm.StructType;
 import org.qbicc.machine.llvm.Types;
 import org.qbicc.machine.llvm.Values;
 import org.qbicc.machine.llvm.impl.LLVM;
+import org.qbicc.object.ProgramObject;
+import org.qbicc.object.SectionObject;
 import org.qbicc.plugin.coreclasses.CoreClasses;
 import org.qbicc.pointer.ElementPointer;
 import org.qbicc.pointer.IntegerAsPointer;
@@ -73,11 +75,18 @@ final class LLVMModuleNodeVisitor implements ValueVisitor<Void, LLValue>, Pointe
     final Map<Type, LLValue> types = new HashMap<>();
     final Map<CompoundType, Map<CompoundType.Member, LLValue>> structureOffsets = new HashMap<>();
     final Map<Value, LLValue> globalValues = new HashMap<>();
+    // objects defined by any of the program modules in this module, by name
+    private final Map<String, SectionObject> definitions;
 
     LLVMModuleNodeVisitor(final Module module, final CompilationContext ctxt, LLVMReferencePointerFactory refFactory) {
+        this(module, ctxt, refFactory, Map.of());
+    }
+
+    LLVMModuleNodeVisitor(final Module module, final CompilationContext ctxt, LLVMReferencePointerFactory refFactory, final Map<String, SectionObject> definitions) {
         this.module = module;
         this.ctxt = ctxt;
         this.refFactory = refFactory;
+        this.definitions = definitions;
     }
 
     LLValue map(Type type) {
@@ -391,6 +400,13 @@ final class LLVMModuleNodeVisitor implements ValueVisitor<Void, LLValue>, Pointe
 
     @Override
     public LLValue visit(PointerLiteral pointerLiteral, ProgramObjectPointer pointer) {
-        return Values.global(pointer.getProgramObject().getName());
+        ProgramObject programObject = pointer.getProgramObject();
+        LLValue global = Values.global(programObject.getName());
+        SectionObject definition = definitions.get(programObject.getName());
+        if (definition != null && ! definition.getSymbolType().equals(programObject.getSymbolType())) {
+            // declared with a different type (for example as a flexible array) by another program module
+            return Values.bitcastConstant(global, map(definition.getSymbolType()), map(programObject.getSymbolType()));
+        }
+        return global;
     }
 }
@@ -113,6 +113,7 @@ import org.qbicc.machine.llvm.debuginfo.DIOpcode;
 import org.qbicc.machine.llvm.debuginfo.MetadataNode;
 import org.qbicc.machine.llvm.impl.LLVM;
 import org.qbicc.machine.llvm.op.AtomicRmw;
+import org.qbicc.machine.llvm.op.Branch;
 import org.qbicc.machine.llvm.op.Call;
 import org.qbicc.machine.llvm.op.GetElementPtr;
 import org.qbicc.machine.llvm.op.Instruction;
@@ -121,6 +122,7 @@ import org.qbicc.machine.llvm.op.Phi;
 import org.qbicc.machine.llvm.op.YieldingInstruction;
 import org.qbicc.object.Function;
 import org.qbicc.plugin.methodinfo.CallSiteInfo;
+import org.qbicc.plugin.profile.ProfileData;
 import org.qbicc.plugin.unwind.UnwindHelper;
 import org.qbicc.type.BooleanType;
 import org.qbicc.type.CompoundType;
@@ -161,6 +163,7 @@ final class LLVMNodeVisitor implements NodeVisitor<Void, LLValue, Instruction, I
     final LLBuilder builder;
     final Map<Node, LLValue> inlineLocations = new HashMap<>();
     final Map<LocalVariableElement, DILocalVariable> localVariables = new HashMap<>();
+    final ProfileData profile;
 
     private boolean personalityAdded;
 
@@ -178,6 +181,7 @@ final class LLVMNodeVisitor implements NodeVisitor<Void, LLValue, Instruction, I
         entryBlock = methodBody.getEntryBlock();
         builder = LLBuilder.newBuilder(func.getRootBlock());
         personalityAdded = false;
+        profile = ProfileData.get(ctxt);
     }
 
     // begin
@@ -324,7 +328,25 @@ final class LLVMNodeVisitor implements NodeVisitor<Void, LLValue, Instruction, I
 
     public Instruction visit(final Void param, final If node) {
         map(node.getDependency());
-        return builder.br(map(node.getCondition()), map(node.getTrueBranch()), map(node.getFalseBranch()));
+        Branch br = builder.br(map(node.getCondition()), map(node.getTrueBranch()), map(node.getFalseBranch()));
+        if (! profile.isEmpty() && node.getElement() != null) {
+            // the weights also guide the placement of the blocks
+            long[] weights = profile.getBranchWeights(node.getElement(), node.getBytecodeIndex());
+            if (weights != null) {
+                br.meta("prof", branchWeights(weights[0], weights[1]));
+            }
+        }
+        return br;
+    }
+
+    private LLValue branchWeights(long trueWeight, long falseWeight) {
+        // the weights are 32-bit integers
+        long divisor = Math.max(trueWeight, falseWeight) / Integer.MAX_VALUE + 1;
+        return module.metadataTuple()
+            .elem(null, metadataString("branch_weights"))
+            .elem(i32, intConstant((int) (trueWeight / divisor)))
+            .elem(i32, intConstant((int) (falseWeight / divisor)))
+            .asRef();
     }
 
     public Instruction visit(final Void param, final Return node) {
@@ -0,0 +1,195 @@
+package org.qbicc.plugin.llvm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+import io.smallrye.common.constraint.Assert;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.plugin.metrics.CountMetric;
+import org.qbicc.plugin.metrics.Metrics;
+
+/**
+ * A persistent cache of compiled object files which is shared between builds.  Each entry is keyed by a hash of the
+ * module content and of the {@linkplain LLVMCompiler#getCacheKey() compiler configuration}, so a module which has not
+ * changed since a previous build does not have to be compiled again.
+ * <p>
+ * Objects are always copied in and out of the cache rather than linked, because later stages rewrite the object files
+ * in the output directory.  The modification time of each entry records when it was last used, and the least recently
+ * used entries are evicted when the cache grows beyond its maximum size.  Several builds may share one cache directory.
+ */
+public final class LLVMObjectCache {
+    private static final String FORMAT_VERSION = "qbicc-llvm-object-cache-1";
+    private static final String SUFFIX = ".o";
+
+    private final Path directory;
+    private final long maxSize;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param directory the cache directory (must not be {@code null})
+     * @param maxSize the maximum total size of the cached objects, in bytes
+     */
+    public LLVMObjectCache(Path directory, long maxSize) {
+        this.directory = Assert.checkNotNullParam("directory", directory);
+        Assert.checkMinimumParameter("maxSize", 0L, maxSize);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Compute the cache key of a module.
+     *
+     * @param compilerKey the compiler configuration key (must not be {@code null})
+     * @param modulePath the path of the module to compile (must not be {@code null})
+     * @return the hexadecimal cache key (not {@code null})
+     * @throws IOException if the module could not be read
+     */
+    String computeKey(String compilerKey, Path modulePath) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(FORMAT_VERSION.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(compilerKey.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        byte[] buf = new byte[16384];
+        try (InputStream is = Files.newInputStream(modulePath)) {
+            int res;
+            while ((res = is.read(buf)) != -1) {
+                digest.update(buf, 0, res);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Copy a cached object file into place, if the cache has it.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @param key the cache key (must not be {@code null})
+     * @param objectPath the path to copy the object file to (must not be {@code null})
+     * @return {@code true} if the object was restored from the cache, or {@code false} if it must be compiled
+     */
+    boolean restore(CompilationContext ctxt, String key, Path objectPath) {
+        Path entry = entryPath(key);
+        try {
+            Files.copy(entry, objectPath, StandardCopyOption.REPLACE_EXISTING);
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (NoSuchFileException e) {
+            // not cached (or evicted concurrently by another build)
+            getCounts(ctxt).getOrAddChild("misses").add(1);
+            return false;
+        } catch (IOException e) {
+            ctxt.warning("Failed to restore cached object file for %s: %s", objectPath, e);
+            getCounts(ctxt).getOrAddChild("misses").add(1);
+            return false;
+        }
+        getCounts(ctxt).getOrAddChild("hits").add(1);
+        return true;
+    }
+
+    /**
+     * Add a newly compiled object file to the cache.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @param key the cache key (must not be {@code null})
+     * @param objectPath the path of the compiled object file (must not be {@code null})
+     */
+    void store(CompilationContext ctxt, String key, Path objectPath) {
+        Path entry = entryPath(key);
+        try {
+            Files.createDirectories(entry.getParent());
+            // copy to a temporary file first so that other builds never see a partial entry
+            Path tmp = Files.createTempFile(entry.getParent(), key, ".tmp");
+            try {
+                Files.copy(objectPath, tmp, StandardCopyOption.REPLACE_EXISTING);
+                try {
+                    Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException ignored) {
+                    Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            ctxt.warning("Failed to add object file %s to the cache: %s", objectPath, e);
+            return;
+        }
+        getCounts(ctxt).getOrAddChild("stores").add(1);
+    }
+
+    /**
+     * Evict the least recently used entries until the cache is no larger than its maximum size.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     */
+    void trim(CompilationContext ctxt) {
+        if (! Files.isDirectory(directory)) {
+            return;
+        }
+        record Entry(Path path, long size, long lastUsed) {}
+        List<Entry> entries = new ArrayList<>();
+        long total = 0;
+        try (Stream<Path> stream = Files.walk(directory, 2)) {
+            for (Path path : (Iterable<Path>) stream::iterator) {
+                if (path.getFileName().toString().endsWith(SUFFIX)) {
+                    try {
+                        BasicFileAttributes attr = Files.readAttributes(path, BasicFileAttributes.class);
+                        entries.add(new Entry(path, attr.size(), attr.lastModifiedTime().toMillis()));
+                        total += attr.size();
+                    } catch (NoSuchFileException ignored) {
+                        // removed concurrently
+                    }
+                }
+            }
+        } catch (IOException e) {
+            ctxt.warning("Failed to scan the object file cache %s: %s", directory, e);
+            return;
+        }
+        if (total <= maxSize) {
+            return;
+        }
+        entries.sort(Comparator.comparingLong(Entry::lastUsed));
+        long evicted = 0;
+        for (Entry entry : entries) {
+            if (total <= maxSize) {
+                break;
+            }
+            try {
+                Files.deleteIfExists(entry.path());
+            } catch (IOException e) {
+                ctxt.warning("Failed to evict %s from the object file cache: %s", entry.path(), e);
+                continue;
+            }
+            total -= entry.size();
+            evicted++;
+        }
+        getCounts(ctxt).getOrAddChild("evictions").add(evicted);
+    }
+
+    private Path entryPath(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key + SUFFIX);
+    }
+
+    private static CountMetric getCounts(CompilationContext ctxt) {
+        return Metrics.get(ctxt).getOrCreateRootCountMetric("llvm object cache");
+    }
+}
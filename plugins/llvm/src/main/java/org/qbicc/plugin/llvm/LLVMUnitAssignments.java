@@ -0,0 +1,198 @@
+package org.qbicc.plugin.llvm;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.driver.Driver;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+
+/**
+ * The assignment of classes to compilation units made by a previous build into the same output directory.  Each class
+ * is recorded along with a fingerprint of its class file and of the class files of all of its supertypes, so that the
+ * next build can tell which classes have changed.  A build which keeps the unchanged classes in their previous units
+ * and adds new classes to units which must be compiled again anyway generates the same content for most units, all
+ * of which are then found in the {@linkplain LLVMObjectCache object cache}.
+ * <p>
+ * The fingerprints only steer the placement of classes.  Whether a unit must be compiled again is still decided by
+ * the content of the unit alone, so a class which is deemed unchanged but whose code did change (for example because
+ * a method of another class was inlined into it) never causes a stale object to be used.
+ */
+final class LLVMUnitAssignments {
+    static final String FILE_NAME = "units.state";
+    private static final String FORMAT_VERSION = "qbicc-llvm-units-1";
+    private static final String UNKNOWN = "-";
+
+    private final int unitCount;
+    private final Map<String, Entry> entries;
+
+    private LLVMUnitAssignments(final int unitCount, final Map<String, Entry> entries) {
+        this.unitCount = unitCount;
+        this.entries = entries;
+    }
+
+    /**
+     * Read the assignments of a previous build.  If there are none, or they were made for a different number of units,
+     * or they cannot be read, an empty set of assignments is returned.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @param file the file to read (must not be {@code null})
+     * @param unitCount the number of units of this build
+     * @return the previous assignments (not {@code null})
+     */
+    static LLVMUnitAssignments load(final CompilationContext ctxt, final Path file, final int unitCount) {
+        Map<String, Entry> entries = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (header == null || ! header.equals(FORMAT_VERSION + " " + unitCount)) {
+                return new LLVMUnitAssignments(unitCount, Map.of());
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // unit fingerprint name
+                int s1 = line.indexOf(' ');
+                int s2 = line.indexOf(' ', s1 + 1);
+                if (s1 == -1 || s2 == -1) {
+                    return new LLVMUnitAssignments(unitCount, Map.of());
+                }
+                int unit = Integer.parseInt(line.substring(0, s1));
+                if (unit < 0 || unit >= unitCount) {
+                    return new LLVMUnitAssignments(unitCount, Map.of());
+                }
+                String fingerprint = line.substring(s1 + 1, s2);
+                entries.put(line.substring(s2 + 1), new Entry(fingerprint.equals(UNKNOWN) ? null : fingerprint, unit));
+            }
+        } catch (NoSuchFileException e) {
+            // first build
+            return new LLVMUnitAssignments(unitCount, Map.of());
+        } catch (IOException | NumberFormatException e) {
+            ctxt.warning("Failed to read the compilation unit assignments %s: %s", file, e);
+            return new LLVMUnitAssignments(unitCount, Map.of());
+        }
+        return new LLVMUnitAssignments(unitCount, entries);
+    }
+
+    /**
+     * Write the assignments of this build.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @param file the file to write (must not be {@code null})
+     * @param unitCount the number of units of this build
+     * @param entries the assignment of each class, by internal name (must not be {@code null})
+     */
+    static void save(final CompilationContext ctxt, final Path file, final int unitCount, final Map<String, Entry> entries) {
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), FILE_NAME, ".tmp");
+            try {
+                try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                    writer.write(FORMAT_VERSION + " " + unitCount);
+                    writer.newLine();
+                    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                        Entry value = entry.getValue();
+                        writer.write(Integer.toString(value.unit()));
+                        writer.write(' ');
+                        writer.write(value.fingerprint() == null ? UNKNOWN : value.fingerprint());
+                        writer.write(' ');
+                        writer.write(entry.getKey());
+                        writer.newLine();
+                    }
+                }
+                try {
+                    Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException ignored) {
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            ctxt.warning("Failed to write the compilation unit assignments %s: %s", file, e);
+        }
+    }
+
+    /**
+     * Compute the fingerprint of a class, which covers its own class file and the class files of all of its
+     * supertypes, since the layout of a class depends on them.
+     *
+     * @param driver the driver (must not be {@code null})
+     * @param type the class (must not be {@code null})
+     * @param cache the fingerprints computed so far (must not be {@code null})
+     * @return the hexadecimal fingerprint, or {@code null} if the class or one of its supertypes was not loaded from
+     *      the class path
+     */
+    static String fingerprint(final Driver driver, final LoadedTypeDefinition type, final Map<LoadedTypeDefinition, String> cache) {
+        if (cache.containsKey(type)) {
+            return cache.get(type);
+        }
+        String fingerprint = null;
+        byte[] classDigest = driver.getClassDigest(type);
+        if (classDigest != null) {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            digest.update(classDigest);
+            boolean known = true;
+            LoadedTypeDefinition superClass = type.getSuperClass();
+            if (superClass != null) {
+                known = update(digest, fingerprint(driver, superClass, cache));
+            }
+            for (LoadedTypeDefinition interface_ : type.getInterfaces()) {
+                known &= update(digest, fingerprint(driver, interface_, cache));
+            }
+            if (known) {
+                fingerprint = HexFormat.of().formatHex(digest.digest());
+            }
+        }
+        cache.put(type, fingerprint);
+        return fingerprint;
+    }
+
+    private static boolean update(final MessageDigest digest, final String fingerprint) {
+        if (fingerprint == null) {
+            return false;
+        }
+        digest.update(fingerprint.getBytes(StandardCharsets.US_ASCII));
+        return true;
+    }
+
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    Entry get(final String name) {
+        return entries.get(name);
+    }
+
+    Set<String> names() {
+        return entries.keySet();
+    }
+
+    /**
+     * The assignment of one class.
+     *
+     * @param fingerprint the fingerprint of the class, or {@code null} if it is not known
+     * @param unit the index of the unit of the class
+     */
+    record Entry(String fingerprint, int unit) {
+        boolean matches(final String fingerprint) {
+            return fingerprint != null && fingerprint.equals(this.fingerprint);
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package org.qbicc.plugin.lowering;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import io.smallrye.common.constraint.Assert;
 import org.qbicc.context.CompilationContext;
@@ -14,6 +16,7 @@ import org.qbicc.graph.CurrentThread;
 import org.qbicc.graph.DelegatingBasicBlockBuilder;
 import org.qbicc.graph.ExactMethodElementHandle;
 import org.qbicc.graph.FunctionElementHandle;
+import org.qbicc.graph.Node;
 import org.qbicc.graph.InterfaceMethodElementHandle;
 import org.qbicc.graph.PhiValue;
 import org.qbicc.graph.PointerHandle;
@@ -35,8 +38,11 @@ import org.qbicc.object.ThreadLocalMode;
 import org.qbicc.plugin.coreclasses.CoreClasses;
 import org.qbicc.plugin.coreclasses.RuntimeMethodFinder;
 import org.qbicc.plugin.dispatch.DispatchTables;
+import org.qbicc.plugin.dispatch.InterfaceDispatch;
 import org.qbicc.plugin.reachability.ReachabilityInfo;
 import org.qbicc.plugin.serialization.BuildtimeHeap;
+import org.qbicc.type.CompoundType;
+import org.qbicc.type.IntegerType;
 import org.qbicc.type.MethodType;
 import org.qbicc.type.ReferenceType;
 import org.qbicc.type.ValueType;
@@ -54,6 +60,8 @@ import static org.qbicc.graph.atomic.AccessModes.SingleUnshared;
 public class InvocationLoweringBasicBlockBuilder extends DelegatingBasicBlockBuilder implements ValueHandleVisitor<ArrayList<Value>, ValueHandle> {
     private final CompilationContext ctxt;
     private final ExecutableElement originalElement;
+    // type IDs and dispatch table entries already loaded in the current block
+    private final Map<ValueHandle, Value> dispatchLoads = new HashMap<>();
 
     public InvocationLoweringBasicBlockBuilder(final CompilationContext ctxt, final BasicBlockBuilder delegate) {
         super(delegate);
@@ -69,6 +77,12 @@ public class InvocationLoweringBasicBlockBuilder extends DelegatingBasicBlockBui
         return super.load(handle, accessMode);
     }
 
+    @Override
+    public Node begin(BlockLabel blockLabel) {
+        dispatchLoads.clear();
+        return super.begin(blockLabel);
+    }
+
     @Override
     public ValueHandle currentThread() {
         if (originalElement instanceof FunctionElement fe) {
@@ -179,8 +193,8 @@ public class InvocationLoweringBasicBlockBuilder extends DelegatingBasicBlockBui
             programModule.declareData(null, vtables.getName(), vtables.getType());
         }
         int index = dt.getVTableIndex(target);
-        Value typeId = fb.load(fb.instanceFieldOf(fb.referenceHandle(node.getInstance()), CoreClasses.get(ctxt).getObjectTypeIdField()));
-        Value vtable = fb.load(elementOf(globalVariable(dt.getVTablesGlobal()), typeId));
+        Value typeId = loadDispatchValue(fb, fb.instanceFieldOf(fb.referenceHandle(node.getInstance()), CoreClasses.get(ctxt).getObjectTypeIdField()));
+        Value vtable = loadDispatchValue(fb, elementOf(globalVariable(dt.getVTablesGlobal()), typeId));
         Value ptr = fb.load(memberOf(pointerHandle(bitCast(vtable, info.getType().getPointer())), info.getType().getMember(index)));
         return pointerHandle(ptr);
     }
@@ -200,6 +214,11 @@ public class InvocationLoweringBasicBlockBuilder extends DelegatingBasicBlockBui
             throw new BlockEarlyTermination(fb.callNoReturn(staticMethod(method), List.of()));
         }
 
+        dt.registerInterfaceCallSite();
+        if (dt.getInterfaceDispatch() == InterfaceDispatch.selector) {
+            return selectorDispatch(fb, node, dt, info);
+        }
+
         ProgramModule programModule = ctxt.getOrAddProgramModule(originalElement.getEnclosingType());
         GlobalVariableElement rootITables = dt.getITablesGlobal();
         if (!rootITables.getEnclosingType().equals(originalElement.getEnclosingType())) {
@@ -207,8 +226,8 @@ public class InvocationLoweringBasicBlockBuilder extends DelegatingBasicBlockBui
         }
 
         // Use the receiver's typeId to get the itable dictionary for its class
-        Value typeId = fb.load(fb.instanceFieldOf(fb.referenceHandle(node.getInstance()), CoreClasses.get(ctxt).getObjectTypeIdField()));
-        Value itableDict = fb.load(elementOf(globalVariable(rootITables), typeId));
+        Value typeId = loadDispatchValue(fb, fb.instanceFieldOf(fb.referenceHandle(node.getInstance()), CoreClasses.get(ctxt).getObjectTypeIdField()));
+        Value itableDict = loadDispatchValue(fb, elementOf(globalVariable(rootITables), typeId));
         ValueHandle zeroElementHandle = fb.pointerHandle(itableDict);
 
         // Search loop to find the itableDictEntry with the typeId of the target interface.
@@ -242,6 +261,41 @@ public class InvocationLoweringBasicBlockBuilder extends DelegatingBasicBlockBui
         return pointerHandle(ptr);
     }
 
+    private ValueHandle selectorDispatch(final BasicBlockBuilder fb, final InterfaceMethodElementHandle node, final DispatchTables dt, final DispatchTables.ITableInfo info) {
+        final MethodElement target = node.getExecutable();
+        final LiteralFactory lf = ctxt.getLiteralFactory();
+        ProgramModule programModule = ctxt.getOrAddProgramModule(originalElement.getEnclosingType());
+        GlobalVariableElement rowOffsets = dt.getSelectorRowOffsetsGlobal();
+        GlobalVariableElement selectorTable = dt.getSelectorTableGlobal();
+        if (!rowOffsets.getEnclosingType().equals(originalElement.getEnclosingType())) {
+            programModule.declareData(null, rowOffsets.getName(), rowOffsets.getType());
+            programModule.declareData(null, selectorTable.getName(), selectorTable.getType());
+        }
+
+        // The receiver's row offset plus the column of the selector locates the entry, which is valid only if it holds the same selector
+        int index = dt.getITableIndex(target);
+        Value typeId = loadDispatchValue(fb, fb.instanceFieldOf(fb.referenceHandle(node.getInstance()), CoreClasses.get(ctxt).getObjectTypeIdField()));
+        Value rowOffset = loadDispatchValue(fb, elementOf(globalVariable(rowOffsets), typeId));
+        Value column = lf.literalOf((IntegerType) rowOffset.getType(), info.getColumn() + index);
+        ValueHandle entry = fb.elementOf(globalVariable(selectorTable), fb.add(rowOffset, column));
+        CompoundType entryType = dt.getSelectorEntryType();
+        Value selector = fb.load(fb.memberOf(entry, entryType.getMember("selector")));
+
+        BlockLabel failLabel = new BlockLabel();
+        BlockLabel exitMatched = new BlockLabel();
+        if_(isEq(selector, lf.literalOf((IntegerType) selector.getType(), info.getFirstSelector() + index)), exitMatched, failLabel);
+        try {
+            begin(failLabel);
+            MethodElement method = RuntimeMethodFinder.get(ctxt).getMethod("raiseIncompatibleClassChangeError");
+            callNoReturn(staticMethod(method), List.of());
+        } catch (BlockEarlyTermination ignored) {
+            // ignore; continue to generate exitMatched block
+        }
+        begin(exitMatched);
+        Value ptr = fb.bitCast(fb.load(fb.memberOf(entry, entryType.getMember("function"))), ctxt.getFunctionTypeForElement(target).getPointer());
+        return pointerHandle(ptr);
+    }
+
     @Override
     public ValueHandle visit(ArrayList<Value> args, StaticMethodElementHandle node) {
         if (!node.getExecutable().hasMethodBodyFactory() && node.getExecutable().hasAllModifiersOf(ClassFile.ACC_NATIVE)) {
@@ -282,6 +336,23 @@ public class InvocationLoweringBasicBlockBuilder extends DelegatingBasicBlockBui
         return node;
     }
 
+    /**
+     * Load a value which cannot change during the execution of the program, reusing an earlier load of the same
+     * value in the current block.  Object type IDs and the dispatch tables indexed by them qualify.
+     *
+     * @param fb the first builder
+     * @param handle the handle to load from
+     * @return the loaded value
+     */
+    private Value loadDispatchValue(final BasicBlockBuilder fb, final ValueHandle handle) {
+        Value value = dispatchLoads.get(handle);
+        if (value == null) {
+            value = fb.load(handle);
+            dispatchLoads.put(handle, value);
+        }
+        return value;
+    }
+
     private BasicBlock raiseLinkError(MethodElement target) {
         // Perform the transformation done by ObjectLiteralSerializingVisitor.visit(StringLiteral) because this BBB runs during LOWER
         VmString vString = ctxt.getVm().intern(target.getEnclosingType().getInternalName().replace("/", ".")+"."+target.getName());
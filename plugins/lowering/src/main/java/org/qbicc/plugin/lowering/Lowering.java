@@ -4,6 +4,7 @@ import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 
 import org.qbicc.context.AttachmentKey;
 import org.qbicc.context.ClassContext;
@@ -130,6 +131,15 @@ public class Lowering {
         return global;
     }
 
+    /**
+     * Visit the global variable of every static field which was lowered so far.
+     *
+     * @param visitor the visitor (must not be {@code null})
+     */
+    public void visitStaticFieldGlobals(BiConsumer<FieldElement, GlobalVariableElement> visitor) {
+        staticFields.forEach(visitor);
+    }
+
     private ValueType widenBoolean(ValueType type) {
         // todo: n-bit booleans
         if (type instanceof BooleanType) {
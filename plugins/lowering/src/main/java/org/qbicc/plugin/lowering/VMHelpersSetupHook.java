@@ -13,6 +13,7 @@ public class VMHelpersSetupHook implements Consumer<CompilationContext> {
             "org/qbicc/runtime/main/VMHelpers",
             "org/qbicc/runtime/main/RuntimeInitializerRunner",
             "org/qbicc/runtime/main/Once",
+            "org/qbicc/runtime/main/Monitor",
             "org/qbicc/runtime/stackwalk/MethodData",
             "org/qbicc/runtime/stackwalk/JavaStackFrameCache",
             "org/qbicc/runtime/stackwalk/JavaStackFrameCache"
@@ -1,16 +1,24 @@
 package org.qbicc.plugin.methodinfo;
 
+import java.util.List;
+
 import org.qbicc.type.definition.element.ExecutableElement;
 
 final class InstructionMap {
     private int offset;
     private int sourceCodeIndex;
     private ExecutableElement function;
+    private List<StackRoot> stackRoots;
 
     InstructionMap(int offset, int sourceCodeIndex, ExecutableElement element) {
+        this(offset, sourceCodeIndex, element, List.of());
+    }
+
+    InstructionMap(int offset, int sourceCodeIndex, ExecutableElement element, List<StackRoot> stackRoots) {
         this.offset = offset;
         this.sourceCodeIndex = sourceCodeIndex;
         this.function = element;
+        this.stackRoots = stackRoots;
     }
     public int getOffset() {
         return offset;
@@ -23,4 +31,8 @@ final class InstructionMap {
     public ExecutableElement getFunction() {
         return function;
     }
+
+    public List<StackRoot> getStackRoots() {
+        return stackRoots;
+    }
 }
@@ -8,6 +8,7 @@ import org.qbicc.graph.literal.Literal;
 import org.qbicc.graph.literal.LiteralFactory;
 import org.qbicc.graph.literal.PointerLiteral;
 import org.qbicc.interpreter.Vm;
+import org.qbicc.machine.llvm.stackmap.LocationType;
 import org.qbicc.machine.llvm.stackmap.StackMap;
 import org.qbicc.machine.llvm.stackmap.StackMapVisitor;
 import org.qbicc.machine.object.ObjectFile;
@@ -19,6 +20,7 @@ import org.qbicc.object.ProgramModule;
 import org.qbicc.plugin.linker.Linker;
 import org.qbicc.plugin.serialization.BuildtimeHeap;
 import org.qbicc.type.CompoundType;
+import org.qbicc.type.IntegerType;
 import org.qbicc.type.NullableType;
 import org.qbicc.type.ReferenceType;
 import org.qbicc.type.TypeSystem;
@@ -46,10 +48,14 @@ import java.util.stream.IntStream;
 /**
  * The MethodDataEmitter runs very late in compilation (after the BuildTimeHeap is emitted).
  * All of the Java Strings it needs to reference were already serialized by MethodDataStringsEmitter.
+ * If requested, the reference slots recorded in the stack map for each call site are emitted as well, so that a
+ * garbage collector can find and update the references held by each frame.
  */
 public class MethodDataEmitter implements Consumer<CompilationContext> {
     private static final Logger slog = Logger.getLogger("org.qbicc.plugin.methodinfo.stats");
 
+    private final boolean collectStackRoots;
+
     // fields for accumulating stats
     private int methodInfoTableCount;
     private int methodInfoTableSize;
@@ -59,6 +65,20 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
     private int sourceCodeIndexListSize;
     private int instructionListCount;
     private int instructionListSize;
+    private int stackRootCount;
+
+    public MethodDataEmitter() {
+        this(false);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param collectStackRoots {@code true} to emit the reference slots of each call site, {@code false} otherwise
+     */
+    public MethodDataEmitter(boolean collectStackRoots) {
+        this.collectStackRoots = collectStackRoots;
+    }
 
     private int createMethodInfo(CompilationContext ctxt, NullableType jlsRef, ProgramModule from, MethodData methodData, ExecutableElement element) {
         String methodName = "";
@@ -154,7 +174,7 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
                 int instructionOffset = record.getOffset();
                 Node node = callSiteInfo.getNodeForStatepointId((int)spId);
                 int scIndex = createSourceCodeInfo(ctxt, methodData, jlsRef, module, node);
-                methodData.add(index, new InstructionMap(instructionOffset, scIndex, getRootMethodOfInlineSequence(node)));
+                methodData.add(index, new InstructionMap(instructionOffset, scIndex, getRootMethodOfInlineSequence(node), record.getStackRoots()));
             }
         });
 
@@ -260,12 +280,57 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
         return lf.literalOf(data);
     }
 
+    Literal emitStackRootIndexList(CompilationContext ctxt, InstructionMap[] imapList) {
+        TypeSystem ts = ctxt.getTypeSystem();
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        ValueType uint32Type = ts.getUnsignedInteger32Type();
+
+        // one extra entry marks the end of the roots of the last instruction
+        Literal[] indexLiterals = new Literal[imapList.length + 1];
+        int start = 0;
+        for (int i = 0; i < imapList.length; i ++) {
+            indexLiterals[i] = lf.literalOf(start);
+            start += imapList[i].getStackRoots().size();
+        }
+        indexLiterals[imapList.length] = lf.literalOf(start);
+
+        Data data = defineData(ctxt, "qbicc_stack_root_index_table", lf.literalOf(ts.getArrayType(uint32Type, indexLiterals.length), List.of(indexLiterals)));
+        return lf.literalOf(data);
+    }
+
+    Literal emitStackRootTable(CompilationContext ctxt, InstructionMap[] imapList) {
+        TypeSystem ts = ctxt.getTypeSystem();
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        CompoundType stackRootType = MethodDataTypes.get(ctxt).getStackRootType();
+        IntegerType offsetType = (IntegerType) stackRootType.getMember("baseOffset").getType();
+        IntegerType registerType = (IntegerType) stackRootType.getMember("baseRegister").getType();
+
+        List<Literal> rootLiterals = new ArrayList<>();
+        for (InstructionMap imap : imapList) {
+            for (StackRoot root : imap.getStackRoots()) {
+                HashMap<CompoundType.Member, Literal> valueMap = new HashMap<>();
+                valueMap.put(stackRootType.getMember("baseOffset"), lf.literalOf(offsetType, root.getBaseOffset()));
+                valueMap.put(stackRootType.getMember("derivedOffset"), lf.literalOf(offsetType, root.getDerivedOffset()));
+                valueMap.put(stackRootType.getMember("baseRegister"), lf.literalOf(registerType, root.getBaseRegister()));
+                valueMap.put(stackRootType.getMember("derivedRegister"), lf.literalOf(registerType, root.getDerivedRegister()));
+                rootLiterals.add(lf.literalOf(stackRootType, valueMap));
+            }
+        }
+
+        stackRootCount += rootLiterals.size();
+
+        Data data = defineData(ctxt, "qbicc_stack_root_table", lf.literalOf(ts.getArrayType(stackRootType, rootLiterals.size()), rootLiterals));
+        return lf.literalOf(data);
+    }
+
     void emitGlobalMethodData(CompilationContext ctxt,
                               PointerLiteral minfoTable,
                               PointerLiteral scInfoTable,
                               PointerLiteral scIndexTable,
                               PointerLiteral instructionTable,
-                              int instructionTableSize) {
+                              int instructionTableSize,
+                              PointerLiteral stackRootIndexTable,
+                              PointerLiteral stackRootTable) {
         LiteralFactory lf = ctxt.getLiteralFactory();
         TypeSystem ts = ctxt.getTypeSystem();
         MethodDataTypes mdTypes = MethodDataTypes.get(ctxt);
@@ -287,6 +352,12 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
 
         valueMap.put(mdhType.getMember("instructionTableSize"), lf.literalOf(instructionTableSize));
 
+        member = mdhType.getMember("stackRootIndexTable");
+        valueMap.put(member, stackRootIndexTable == null ? lf.zeroInitializerLiteralOfType(member.getType()) : lf.bitcastLiteral(stackRootIndexTable, (WordType) member.getType()));
+
+        member = mdhType.getMember("stackRootTable");
+        valueMap.put(member, stackRootTable == null ? lf.zeroInitializerLiteralOfType(member.getType()) : lf.bitcastLiteral(stackRootTable, (WordType) member.getType()));
+
         Literal mdhLiteral = lf.literalOf(mdhType, valueMap);
         defineData(ctxt, MethodDataTypes.QBICC_GLOBAL_METHOD_DATA, mdhLiteral);
     }
@@ -296,7 +367,13 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
         PointerLiteral scInfoTableSymbol = (PointerLiteral) emitSourceCodeInfoTable(ctxt, methodData.getSourceCodeInfoTable());
         PointerLiteral scIndexTableSymbol = (PointerLiteral) emitSourceCodeIndexList(ctxt, methodData.getInstructionMapList());
         PointerLiteral instructionTableSymbol = (PointerLiteral) emitInstructionList(ctxt, methodData.getInstructionMapList());
-        emitGlobalMethodData(ctxt, minfoTableSymbol, scInfoTableSymbol, scIndexTableSymbol, instructionTableSymbol, methodData.getInstructionMapList().length);
+        PointerLiteral stackRootIndexTableSymbol = null;
+        PointerLiteral stackRootTableSymbol = null;
+        if (collectStackRoots) {
+            stackRootIndexTableSymbol = (PointerLiteral) emitStackRootIndexList(ctxt, methodData.getInstructionMapList());
+            stackRootTableSymbol = (PointerLiteral) emitStackRootTable(ctxt, methodData.getInstructionMapList());
+        }
+        emitGlobalMethodData(ctxt, minfoTableSymbol, scInfoTableSymbol, scIndexTableSymbol, instructionTableSymbol, methodData.getInstructionMapList().length, stackRootIndexTableSymbol, stackRootTableSymbol);
     }
 
     private void displayStats() {
@@ -310,6 +387,9 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
         slog.debugf("qbicc_source_code_index_list size: %d bytes", sourceCodeIndexListSize);
         slog.debugf("qbicc_instruction_list entry count: %d", instructionListCount);
         slog.debugf("qbicc_instruction_list size: %d bytes", instructionListSize);
+        if (collectStackRoots) {
+            slog.debugf("qbicc_stack_root_table entry count: %d", stackRootCount);
+        }
     }
 
     @Override
@@ -324,6 +404,7 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
         private final int functionIndex;
         private final int offset;
         private final long statepoindId;
+        private final List<StackRoot> stackRoots = new ArrayList<>();
 
         StackMapRecord(final int objectFileIndex, final int functionIndex, final int offset, final long statepoindId) {
             this.objectFileIndex = objectFileIndex;
@@ -334,6 +415,7 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
 
         long getStatepoindId() { return statepoindId; }
         int getOffset() { return offset; }
+        List<StackRoot> getStackRoots() { return stackRoots; }
 
         @Override
         public int hashCode() {
@@ -401,12 +483,44 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
                             ByteBuffer stackMapData = stackMapSection.getSectionContent();
                             StackMap.parse(stackMapData, new StackMapVisitor() {
                                 private long currentFnIndex;
+                                private StackMapRecord currentRecord;
+                                private int deoptCount;
+                                private LocationType baseType;
+                                private int baseRegister;
+                                private int baseOffset;
                                 public void startFunction(long fnIndex, long address, long stackSize, long recordCount) {
                                     currentFnIndex = fnIndex;
                                 }
                                 public void startRecord(long recIndex, long patchPointId, long offset, int locCnt, int liveOutCnt) {
+                                    currentRecord = new StackMapRecord(objFileIndex, (int)currentFnIndex, (int) offset, patchPointId);
+                                    deoptCount = 0;
                                     synchronized (recordList) {
-                                        recordList.add(new StackMapRecord(objFileIndex, (int)currentFnIndex, (int) offset, patchPointId));
+                                        recordList.add(currentRecord);
+                                    }
+                                }
+                                public void location(int locIndex, LocationType type, int size, int regNum, long data) {
+                                    // statepoint locations: calling convention, flags, deopt count, deopt values, then (base, derived) pairs
+                                    if (! collectStackRoots || locIndex < 2) {
+                                        return;
+                                    }
+                                    if (locIndex == 2) {
+                                        deoptCount = (int) data;
+                                        return;
+                                    }
+                                    int gcIndex = locIndex - 3 - deoptCount;
+                                    if (gcIndex < 0) {
+                                        return;
+                                    }
+                                    if ((gcIndex & 1) == 0) {
+                                        baseType = type;
+                                        baseRegister = regNum;
+                                        baseOffset = (int) data;
+                                    } else if (baseType == LocationType.Indirect && type == LocationType.Indirect) {
+                                        currentRecord.getStackRoots().add(new StackRoot(baseRegister, baseOffset, regNum, (int) data));
+                                    } else if (baseType == LocationType.Register || type == LocationType.Register) {
+                                        // constants are null and direct locations are stack addresses, but a register cannot be
+                                        // updated, and the collector would leave a dangling reference behind
+                                        ctxt.error("Reference held in a register at statepoint %d cannot be updated by the garbage collector", Long.valueOf(currentRecord.getStatepoindId()));
                                     }
                                 }
                             });
@@ -25,6 +25,7 @@ public class MethodDataTypes {
 
     private CompoundType methodInfoType;
     private CompoundType sourceCodeInfoType;
+    private CompoundType stackRootType;
     private CompoundType globalMethodDataType;
 
     public MethodDataTypes(final CompilationContext ctxt) {
@@ -33,6 +34,7 @@ public class MethodDataTypes {
         LoadedTypeDefinition jls = ctxt.getBootstrapClassContext().findDefinedType("java/lang/String").load();
         ReferenceType jlsRef = jls.getObjectType().getReference();
         ValueType uint8Type = ts.getUnsignedInteger8Type();
+        ValueType sint32Type = ts.getSignedInteger32Type();
         ValueType uint32Type = ts.getUnsignedInteger32Type();
         ValueType uint64Type = ts.getUnsignedInteger64Type();
 
@@ -57,6 +59,16 @@ public class MethodDataTypes {
             .addNextMember("inlinedAtIndex", uint32Type)
             .build();
 
+        stackRootType = CompoundType.builder(ts)
+            .setTag(CompoundType.Tag.STRUCT)
+            .setName("qbicc_stack_root")
+            .setOverallAlignment(sint32Type.getAlign())
+            .addNextMember("baseOffset", sint32Type)
+            .addNextMember("derivedOffset", sint32Type)
+            .addNextMember("baseRegister", uint32Type)
+            .addNextMember("derivedRegister", uint32Type)
+            .build();
+
         globalMethodDataType = CompoundType.builder(ts)
             .setTag(CompoundType.Tag.STRUCT)
             .setName("qbicc_method_data")
@@ -66,6 +78,8 @@ public class MethodDataTypes {
             .addNextMember("sourceCodeIndexTable", uint32Type.getPointer())
             .addNextMember("instructionTable", uint64Type.getPointer())
             .addNextMember("instructionTableSize", uint32Type)
+            .addNextMember("stackRootIndexTable", uint32Type.getPointer())
+            .addNextMember("stackRootTable", uint8Type.getPointer())
             .build();
 
         GlobalVariableElement.Builder builder = GlobalVariableElement.builder(QBICC_GLOBAL_METHOD_DATA, BaseTypeDescriptor.V);
@@ -104,6 +118,10 @@ public class MethodDataTypes {
         return sourceCodeInfoType;
     }
 
+    public CompoundType getStackRootType() {
+        return stackRootType;
+    }
+
     public CompoundType getGlobalMethodDataType() {
         return globalMethodDataType;
     }
@@ -0,0 +1,36 @@
+package org.qbicc.plugin.methodinfo;
+
+/**
+ * A reference slot of a frame at a call site, as recorded in the stack map.  The slot of a derived pointer is given
+ * along with the slot of its base; for plain references, both slots are the same.  Each slot is located at an offset
+ * from the value of a register.
+ */
+final class StackRoot {
+    private final int baseRegister;
+    private final int baseOffset;
+    private final int derivedRegister;
+    private final int derivedOffset;
+
+    StackRoot(int baseRegister, int baseOffset, int derivedRegister, int derivedOffset) {
+        this.baseRegister = baseRegister;
+        this.baseOffset = baseOffset;
+        this.derivedRegister = derivedRegister;
+        this.derivedOffset = derivedOffset;
+    }
+
+    public int getBaseRegister() {
+        return baseRegister;
+    }
+
+    public int getBaseOffset() {
+        return baseOffset;
+    }
+
+    public int getDerivedRegister() {
+        return derivedRegister;
+    }
+
+    public int getDerivedOffset() {
+        return derivedOffset;
+    }
+}
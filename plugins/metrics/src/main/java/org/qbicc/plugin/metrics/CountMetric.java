@@ -14,6 +14,16 @@ public final class CountMetric extends Metric<CountMetric> {
         addRawValue(amount);
     }
 
+    /**
+     * Raise this metric and its parents to the given amount, if they are smaller.  A metric which is only updated
+     * this way records a peak value.
+     *
+     * @param amount the amount
+     */
+    public void max(long amount) {
+        maxRawValue(amount);
+    }
+
     @Override
     String getDescription() {
         return "Count";
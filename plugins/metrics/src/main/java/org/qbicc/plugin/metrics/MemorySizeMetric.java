@@ -19,6 +19,16 @@ public final class MemorySizeMetric extends Metric<MemorySizeMetric> {
         addRawValue(amount << scale.getBitShift());
     }
 
+    /**
+     * Raise this metric and its parents to the given amount, if they are smaller.  A metric which is only updated
+     * this way records a peak value.
+     *
+     * @param amount the amount
+     */
+    public void max(long amount) {
+        maxRawValue(amount);
+    }
+
     @Override
     String getDescription() {
         return "Size";
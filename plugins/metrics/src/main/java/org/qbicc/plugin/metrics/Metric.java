@@ -100,6 +100,14 @@ public abstract class Metric<M extends Metric<M>> {
         }
     }
 
+    final void maxRawValue(long amount) {
+        cnt.accumulateAndGet(amount, Math::max);
+        M parent = getParent();
+        if (parent != null) {
+            parent.maxRawValue(amount);
+        }
+    }
+
     /**
      * Get all the existent children of this metric.  The children are of the same type as this instance.
      *
@@ -0,0 +1,213 @@
+package org.qbicc.plugin.native_;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.ClassContext;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.context.Location;
+import org.qbicc.driver.Driver;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.machine.probe.CProbe;
+import org.qbicc.machine.probe.ProbeCache;
+import org.qbicc.plugin.core.ConditionEvaluation;
+import org.qbicc.type.annotation.Annotation;
+import org.qbicc.type.annotation.ArrayAnnotationValue;
+import org.qbicc.type.annotation.StringAnnotationValue;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.element.FieldElement;
+import org.qbicc.type.descriptor.ClassTypeDescriptor;
+
+/**
+ * The probes of the native constants.  The constants of a class are registered when its initializer is processed,
+ * and the first time that any of them is needed, all of those that are still pending are probed together in one
+ * compiler run.  Since a constant which is not defined on the target makes the whole run fail, a failed run is split
+ * in halves until the undefined constants are isolated.
+ */
+final class ConstantProbes {
+    private static final AttachmentKey<ConstantProbes> KEY = new AttachmentKey<>();
+
+    private final CompilationContext ctxt;
+    private final Map<DefinedTypeDefinition, ClassConstants> classes = new ConcurrentHashMap<>();
+
+    private ConstantProbes(final CompilationContext ctxt) {
+        this.ctxt = ctxt;
+    }
+
+    static ConstantProbes get(final CompilationContext ctxt) {
+        ConstantProbes probes = ctxt.getAttachment(KEY);
+        if (probes == null) {
+            probes = new ConstantProbes(ctxt);
+            ConstantProbes appearing = ctxt.putAttachmentIfAbsent(KEY, probes);
+            if (appearing != null) {
+                probes = appearing;
+            }
+        }
+        return probes;
+    }
+
+    /**
+     * Register a constant to probe.  Registering the same constant again has no effect.
+     *
+     * @param fieldElement the constant field (must not be {@code null})
+     * @param location the location of the constant definition (must not be {@code null})
+     */
+    void register(final FieldElement fieldElement, final Location location) {
+        classes.computeIfAbsent(fieldElement.getEnclosingType(), ClassConstants::new).register(fieldElement, location);
+    }
+
+    /**
+     * Get the value of a registered constant, probing it if needed.
+     *
+     * @param fieldElement the constant field (must not be {@code null})
+     * @return the value of the constant, which is undefined if the constant is not defined on the target
+     */
+    Value getValue(final FieldElement fieldElement) {
+        return classes.get(fieldElement.getEnclosingType()).getValue(fieldElement);
+    }
+
+    record ConstantProbe(FieldElement fieldElement, String name, Location location, ProbeUtils.ProbeProcessor directives) {}
+
+    final class ClassConstants {
+        private final DefinedTypeDefinition enclosingType;
+        private final ClassContext classContext;
+        // protected by this
+        private final Map<FieldElement, Location> pending = new LinkedHashMap<>();
+        // protected by this; a null value means that the constant is undefined
+        private final Map<FieldElement, CProbe.ConstantInfo> results = new HashMap<>();
+        // protected by this
+        private ProbeUtils.ProbeProcessor classDirectives;
+
+        ClassConstants(final DefinedTypeDefinition enclosingType) {
+            this.enclosingType = enclosingType;
+            this.classContext = enclosingType.getContext();
+        }
+
+        synchronized void register(final FieldElement fieldElement, final Location location) {
+            if (! results.containsKey(fieldElement)) {
+                pending.putIfAbsent(fieldElement, location);
+            }
+        }
+
+        synchronized Value getValue(final FieldElement fieldElement) {
+            if (! results.containsKey(fieldElement)) {
+                probePending();
+            }
+            LiteralFactory lf = ctxt.getLiteralFactory();
+            CProbe.ConstantInfo constantInfo = results.get(fieldElement);
+            if (constantInfo == null) {
+                // constant is undefined
+                return lf.undefinedLiteralOfType(fieldElement.getType());
+            }
+            // compute the type and raw value
+            return constantInfo.getValueAsLiteralOfType(ctxt.getTypeSystem(), lf, fieldElement.getType());
+        }
+
+        private void probePending() {
+            if (classDirectives == null) {
+                classDirectives = new ProbeUtils.ProbeProcessor(classContext, enclosingType);
+                for (Annotation annotation : enclosingType.getInvisibleAnnotations()) {
+                    classDirectives.processAnnotation(annotation);
+                }
+            }
+            List<ConstantProbe> batch = new ArrayList<>(pending.size());
+            for (Map.Entry<FieldElement, Location> entry : pending.entrySet()) {
+                ConstantProbe probe = describe(entry.getKey(), entry.getValue());
+                if (probe.directives().isEmpty()) {
+                    batch.add(probe);
+                } else {
+                    // the directives of the member might affect the other constants, so probe it on its own
+                    probeAll(List.of(probe));
+                }
+            }
+            pending.clear();
+            probeAll(batch);
+        }
+
+        private void probeAll(final List<ConstantProbe> probes) {
+            if (probes.isEmpty()) {
+                return;
+            }
+            CProbe.Builder builder = CProbe.builder();
+            classDirectives.accept(builder);
+            if (probes.size() == 1) {
+                // now process the annotated member so it can override
+                probes.get(0).directives().accept(builder);
+            }
+            for (ConstantProbe probe : probes) {
+                builder.probeConstant(probe.name(), probe.location().getSourceFilePath(), probe.location().getLineNumber());
+            }
+            CProbe.Result result;
+            try {
+                result = builder.build().run(ctxt.getAttachment(Driver.C_TOOL_CHAIN_KEY), ctxt.getAttachment(Driver.OBJ_PROVIDER_TOOL_KEY), null, ProbeCache.get(ctxt));
+            } catch (IOException e) {
+                // constants are undefined either way
+                for (ConstantProbe probe : probes) {
+                    results.put(probe.fieldElement(), null);
+                }
+                return;
+            }
+            if (result != null) {
+                for (ConstantProbe probe : probes) {
+                    results.put(probe.fieldElement(), result.getConstantInfo(probe.name()));
+                }
+            } else if (probes.size() == 1) {
+                // constant is undefined
+                results.put(probes.get(0).fieldElement(), null);
+            } else {
+                int half = probes.size() >> 1;
+                probeAll(probes.subList(0, half));
+                probeAll(probes.subList(half, probes.size()));
+            }
+        }
+
+        private ConstantProbe describe(final FieldElement fieldElement, final Location location) {
+            ConditionEvaluation conditionEvaluation = ConditionEvaluation.get(ctxt);
+            // get the element's info
+            String name = fieldElement.getName();
+            boolean nameOverridden = false;
+            ProbeUtils.ProbeProcessor pp = new ProbeUtils.ProbeProcessor(classContext, fieldElement);
+            for (Annotation annotation : fieldElement.getInvisibleAnnotations()) {
+                ClassTypeDescriptor desc = annotation.getDescriptor();
+                if (pp.processAnnotation(annotation)) {
+                    continue;
+                }
+                if (desc.getPackageName().equals(Native.NATIVE_PKG))
+                    if (desc.getClassName().equals(Native.ANN_NAME) && ! nameOverridden) {
+                        if (conditionEvaluation.evaluateConditions(classContext, () -> location, annotation)) {
+                            name = ((StringAnnotationValue) annotation.getValue("value")).getString();
+                            nameOverridden = true;
+                        }
+                    } else if (desc.getClassName().equals(Native.ANN_NAME_LIST) && ! nameOverridden) {
+                        if (annotation.getValue("value") instanceof ArrayAnnotationValue aav) {
+                            int cnt = aav.getElementCount();
+                            for (int j = 0; j < cnt; j ++) {
+                                if (aav.getValue(j) instanceof Annotation nested) {
+                                    ClassTypeDescriptor nestedDesc = nested.getDescriptor();
+                                    if (nestedDesc.getPackageName().equals(Native.NATIVE_PKG)) {
+                                        if (nestedDesc.getClassName().equals(Native.ANN_NAME)) {
+                                            if (conditionEvaluation.evaluateConditions(classContext, () -> location, nested)) {
+                                                name = ((StringAnnotationValue) nested.getValue("value")).getString();
+                                                nameOverridden = true;
+                                                // stop searching for names
+                                                break;
+                                            }
+                                        }
+                                    }
+                                }
+                            }
+                        }
+                    }
+            }
+            // todo: recursively process enclosing types (requires InnerClasses support)
+            return new ConstantProbe(fieldElement, name, location, pp);
+        }
+    }
+}
@@ -8,6 +8,7 @@ import org.qbicc.context.ClassContext;
 import org.qbicc.context.CompilationContext;
 import org.qbicc.driver.Driver;
 import org.qbicc.machine.probe.CProbe;
+import org.qbicc.machine.probe.ProbeCache;
 import org.qbicc.object.Data;
 import org.qbicc.object.DataDeclaration;
 import org.qbicc.object.Linkage;
@@ -358,7 +359,7 @@ public class ExternExportTypeBuilder implements DefinedTypeDefinition.Builder.De
                 CProbe probe = builder.build();
                 CProbe.Result result;
                 try {
-                    result = probe.run(ctxt.getAttachment(Driver.C_TOOL_CHAIN_KEY), ctxt.getAttachment(Driver.OBJ_PROVIDER_TOOL_KEY), null);
+                    result = probe.run(ctxt.getAttachment(Driver.C_TOOL_CHAIN_KEY), ctxt.getAttachment(Driver.OBJ_PROVIDER_TOOL_KEY), null, ProbeCache.get(ctxt));
                     if (result == null) {
                         return null;
                     }
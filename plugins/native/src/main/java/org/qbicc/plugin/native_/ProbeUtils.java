@@ -105,6 +105,15 @@ final class ProbeUtils {
             }
         }
 
+        /**
+         * Determine whether no directives were found.
+         *
+         * @return {@code true} if no directives were found, or {@code false} if some might apply
+         */
+        boolean isEmpty() {
+            return defines.isEmpty() && undefs.isEmpty() && includes.isEmpty();
+        }
+
         @Override
         public void accept(CProbe.Builder builder) {
             // defines first, then undefs, then includes
@@ -1,45 +1,91 @@
 package org.qbicc.plugin.objectmonitor;
 
+import static org.qbicc.graph.atomic.AccessModes.*;
+
 import java.util.List;
 
 import org.qbicc.context.CompilationContext;
 import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockEarlyTermination;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.CmpAndSwap;
 import org.qbicc.graph.DelegatingBasicBlockBuilder;
 import org.qbicc.graph.Node;
 import org.qbicc.graph.Value;
-import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.plugin.coreclasses.RuntimeMethodFinder;
+import org.qbicc.type.definition.element.FieldElement;
 import org.qbicc.type.definition.element.MethodElement;
 
 /**
- * A graph factory which generates calls to runtime helpers for object monitor
- * bytecodes: monitorenter and monitorexit
+ * A graph factory which generates the object monitor bytecodes: monitorenter and monitorexit.  An object whose lock
+ * is not held is locked inline by a compare-and-set of its thin lock, and a thin lock which was entered once is
+ * unlocked the same way; all other cases are handled by calls to runtime helpers.
  */
 public class ObjectMonitorBasicBlockBuilder extends DelegatingBasicBlockBuilder {
+    private final CompilationContext ctxt;
+    private final ThinLocks thinLocks;
     private final MethodElement monitorEnterMethod;
     private final MethodElement monitorExitMethod;
+    private final FieldElement tidField;
 
     public ObjectMonitorBasicBlockBuilder(CompilationContext ctxt, BasicBlockBuilder delegate) {
         super(delegate);
-        LoadedTypeDefinition jlo = ctxt.getBootstrapClassContext().findDefinedType("java/lang/Object").load();
-        int idx = jlo.findSingleMethodIndex(me -> me.nameEquals("monitorEnter"));
-        if (idx == -1) {
-            throw new IllegalStateException();
-        }
-        monitorEnterMethod = jlo.getMethod(idx);
-        idx = jlo.findSingleMethodIndex(me -> me.nameEquals("monitorExit"));
-        if (idx == -1) {
-            throw new IllegalStateException();
-        }
-        monitorExitMethod = jlo.getMethod(idx);
+        this.ctxt = ctxt;
+        thinLocks = ThinLocks.get(ctxt);
+        RuntimeMethodFinder methodFinder = RuntimeMethodFinder.get(ctxt);
+        monitorEnterMethod = methodFinder.getMethod("org/qbicc/runtime/main/Monitor", "monitorEnter");
+        monitorExitMethod = methodFinder.getMethod("org/qbicc/runtime/main/Monitor", "monitorExit");
+        tidField = ctxt.getBootstrapClassContext().findDefinedType("java/lang/Thread").load().findField("tid");
     }
 
     public Node monitorEnter(final Value object) {
-        BasicBlockBuilder fb = getFirstBuilder();
-        return fb.call(fb.exactMethodOf(object, monitorEnterMethod), List.of());
+        Value threadId = currentThreadId();
+        BlockLabel tryLock = new BlockLabel();
+        BlockLabel slowPath = new BlockLabel();
+        BlockLabel resume = new BlockLabel();
+        if_(thinLocks.canOwn(this, threadId), tryLock, slowPath);
+        begin(tryLock);
+        ValueHandle header = getFirstBuilder().instanceFieldOf(getFirstBuilder().referenceHandle(object), thinLocks.getHeaderField());
+        Value unlocked = and(load(header, SingleOpaque), thinLocks.otherBitsMask());
+        Value locked = or(unlocked, thinLocks.ownerBits(this, threadId));
+        Value result = cmpAndSwap(header, unlocked, locked, GlobalAcquire, SingleOpaque, CmpAndSwap.Strength.STRONG);
+        if_(extractMember(result, CmpAndSwap.getResultType(ctxt, unlocked.getType()).getMember(1)), resume, slowPath);
+        callSlowPath(slowPath, monitorEnterMethod, object, resume);
+        begin(resume);
+        return nop();
     }
 
     public Node monitorExit(final Value object) {
-        BasicBlockBuilder fb = getFirstBuilder();
-        return fb.call(fb.exactMethodOf(object, monitorExitMethod), List.of());
+        Value threadId = currentThreadId();
+        BlockLabel tryUnlock = new BlockLabel();
+        BlockLabel slowPath = new BlockLabel();
+        BlockLabel resume = new BlockLabel();
+        if_(thinLocks.canOwn(this, threadId), tryUnlock, slowPath);
+        begin(tryUnlock);
+        ValueHandle header = getFirstBuilder().instanceFieldOf(getFirstBuilder().referenceHandle(object), thinLocks.getHeaderField());
+        Value unlocked = and(load(header, SingleOpaque), thinLocks.otherBitsMask());
+        Value locked = or(unlocked, thinLocks.ownerBits(this, threadId));
+        Value result = cmpAndSwap(header, locked, unlocked, SingleOpaque, GlobalRelease, CmpAndSwap.Strength.STRONG);
+        if_(extractMember(result, CmpAndSwap.getResultType(ctxt, unlocked.getType()).getMember(1)), resume, slowPath);
+        callSlowPath(slowPath, monitorExitMethod, object, resume);
+        begin(resume);
+        return nop();
+    }
+
+    private Value currentThreadId() {
+        Value thread = getFirstBuilder().load(getFirstBuilder().currentThread(), SingleUnshared);
+        Value tid = load(getFirstBuilder().instanceFieldOf(getFirstBuilder().referenceHandle(thread), tidField), SingleUnshared);
+        return bitCast(tid, ctxt.getTypeSystem().getUnsignedInteger64Type());
+    }
+
+    private void callSlowPath(BlockLabel slowPath, MethodElement helper, Value object, BlockLabel resume) {
+        try {
+            begin(slowPath);
+            getFirstBuilder().call(getFirstBuilder().staticMethod(helper), List.of(object));
+            goto_(resume);
+        } catch (BlockEarlyTermination ignored) {
+            // continue
+        }
     }
 }
@@ -0,0 +1,207 @@
+package org.qbicc.plugin.objectmonitor;
+
+import static org.qbicc.graph.atomic.AccessModes.*;
+
+import java.util.List;
+
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.ClassContext;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.driver.Phase;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.CmpAndSwap;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.plugin.coreclasses.CoreClasses;
+import org.qbicc.plugin.coreclasses.HeaderBits;
+import org.qbicc.plugin.coreclasses.RuntimeMethodFinder;
+import org.qbicc.plugin.intrinsics.InstanceIntrinsic;
+import org.qbicc.plugin.intrinsics.Intrinsics;
+import org.qbicc.plugin.intrinsics.StaticIntrinsic;
+import org.qbicc.type.TypeSystem;
+import org.qbicc.type.UnsignedIntegerType;
+import org.qbicc.type.WordType;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.element.FieldElement;
+import org.qbicc.type.definition.element.MethodElement;
+import org.qbicc.type.descriptor.BaseTypeDescriptor;
+import org.qbicc.type.descriptor.ClassTypeDescriptor;
+import org.qbicc.type.descriptor.MethodDescriptor;
+
+/**
+ * The thin locks of objects, which are kept in lock bits reserved in the object header.  The lock bits hold the
+ * thread ID of the owner in their upper bits, so that the compiler can lock and unlock an uncontended object with a
+ * single compare-and-set; everything else, including the inflation of the lock to a monitor, is done by
+ * {@code org.qbicc.runtime.main.Monitor}, whose layout of the lock bits must agree with this one.
+ * <p>
+ * The lock bits must be reserved before the object header is laid out, so {@link #get} must be called before the
+ * core classes are initialized.
+ */
+public final class ThinLocks {
+    private static final AttachmentKey<ThinLocks> KEY = new AttachmentKey<>();
+
+    static final int LOCK_BITS = 32;
+    static final int OWNER_SHIFT = 8;
+    static final long MAX_OWNER = (1L << 24) - 1;
+
+    private static final String MONITOR_INT_NAME = "org/qbicc/runtime/main/Monitor";
+
+    private final CompilationContext ctxt;
+    private final int shift;
+
+    private ThinLocks(final CompilationContext ctxt) {
+        this.ctxt = ctxt;
+        shift = HeaderBits.get(ctxt).reserveHeaderBits(LOCK_BITS);
+    }
+
+    public static ThinLocks get(CompilationContext ctxt) {
+        ThinLocks thinLocks = ctxt.getAttachment(KEY);
+        if (thinLocks == null) {
+            thinLocks = new ThinLocks(ctxt);
+            ThinLocks appearing = ctxt.putAttachmentIfAbsent(KEY, thinLocks);
+            if (appearing != null) {
+                thinLocks = appearing;
+            }
+        }
+        return thinLocks;
+    }
+
+    /**
+     * Register the intrinsics which give the runtime access to the lock bits, and route the monitor accessors of
+     * {@code Object} to the runtime so that they are aware of thin locks.  The intrinsics only apply to lowered code,
+     * so that the interpreter keeps its own object monitors.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     */
+    public static void registerIntrinsics(CompilationContext ctxt) {
+        ThinLocks thinLocks = get(ctxt);
+        Intrinsics intrinsics = Intrinsics.get(ctxt);
+        ClassContext classContext = ctxt.getBootstrapClassContext();
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        TypeSystem ts = ctxt.getTypeSystem();
+        RuntimeMethodFinder methodFinder = RuntimeMethodFinder.get(ctxt);
+
+        ClassTypeDescriptor ciDesc = ClassTypeDescriptor.synthesize(classContext, "org/qbicc/runtime/main/CompilerIntrinsics");
+        ClassTypeDescriptor objDesc = ClassTypeDescriptor.synthesize(classContext, "java/lang/Object");
+        ClassTypeDescriptor monitorDesc = ClassTypeDescriptor.synthesize(classContext, MONITOR_INT_NAME);
+
+        MethodElement inflate = methodFinder.getMethod(MONITOR_INT_NAME, "inflate");
+        MethodElement holdsLock = methodFinder.getMethod(MONITOR_INT_NAME, "holdsLock");
+
+        LoadedTypeDefinition jlo = classContext.findDefinedType("java/lang/Object").load();
+        FieldElement headerField = thinLocks.getHeaderField();
+        FieldElement monitorField = jlo.findField("monitor");
+        UnsignedIntegerType headerType = (UnsignedIntegerType) headerField.getType();
+
+        MethodDescriptor objIntDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.I, List.of(objDesc));
+        StaticIntrinsic getLockWord = (builder, target, arguments) -> {
+            Value word = builder.load(builder.instanceFieldOf(builder.referenceHandle(arguments.get(0)), headerField), GlobalAcquire);
+            return thinLocks.toLockWord(builder, word);
+        };
+        intrinsics.registerIntrinsic(Phase.LOWER, ciDesc, "getLockWord", objIntDesc, getLockWord);
+
+        MethodDescriptor casDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.Z, List.of(objDesc, BaseTypeDescriptor.I, BaseTypeDescriptor.I));
+        StaticIntrinsic compareAndSetLockWord = (builder, target, arguments) -> {
+            ValueHandle header = builder.instanceFieldOf(builder.referenceHandle(arguments.get(0)), headerField);
+            // the other header bits must be preserved
+            Value others = builder.and(builder.load(header, SingleOpaque), thinLocks.otherBitsMask());
+            Value expect = builder.or(others, thinLocks.fromLockWord(builder, arguments.get(1)));
+            Value update = builder.or(others, thinLocks.fromLockWord(builder, arguments.get(2)));
+            Value result = builder.cmpAndSwap(header, expect, update, SingleOpaque, GlobalSeqCst, CmpAndSwap.Strength.STRONG);
+            return builder.extractMember(result, CmpAndSwap.getResultType(ctxt, headerType).getMember(1));
+        };
+        intrinsics.registerIntrinsic(Phase.LOWER, ciDesc, "compareAndSetLockWord", casDesc, compareAndSetLockWord);
+
+        MethodDescriptor objMonitorDesc = MethodDescriptor.synthesize(classContext, monitorDesc, List.of(objDesc));
+        StaticIntrinsic getInflatedMonitor = (builder, target, arguments) ->
+            builder.load(builder.instanceFieldOf(builder.referenceHandle(arguments.get(0)), monitorField), GlobalAcquire);
+        intrinsics.registerIntrinsic(Phase.LOWER, ciDesc, "getInflatedMonitor", objMonitorDesc, getInflatedMonitor);
+
+        MethodDescriptor objMonitorVoidDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.V, List.of(objDesc, monitorDesc));
+        StaticIntrinsic setInflatedMonitor = (builder, target, arguments) -> {
+            builder.store(builder.instanceFieldOf(builder.referenceHandle(arguments.get(0)), monitorField), arguments.get(1), GlobalRelease);
+            return lf.zeroInitializerLiteralOfType(ts.getVoidType());
+        };
+        intrinsics.registerIntrinsic(Phase.LOWER, ciDesc, "setInflatedMonitor", objMonitorVoidDesc, setInflatedMonitor);
+
+        /* private Monitor getMonitor(); */
+        MethodDescriptor monitorDescNoArgs = MethodDescriptor.synthesize(classContext, monitorDesc, List.of());
+        InstanceIntrinsic getMonitor = (builder, instance, target, arguments) ->
+            builder.call(builder.staticMethod(inflate), List.of(instance));
+        intrinsics.registerIntrinsic(Phase.LOWER, objDesc, "getMonitor", monitorDescNoArgs, getMonitor);
+
+        /* private boolean holdsLock(); */
+        MethodDescriptor booleanDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.Z, List.of());
+        InstanceIntrinsic holdsLockIntrinsic = (builder, instance, target, arguments) ->
+            builder.call(builder.staticMethod(holdsLock), List.of(instance));
+        intrinsics.registerIntrinsic(Phase.LOWER, objDesc, "holdsLock", booleanDesc, holdsLockIntrinsic);
+    }
+
+    FieldElement getHeaderField() {
+        return CoreClasses.get(ctxt).getObjectHeaderField();
+    }
+
+    /**
+     * Get the lock bits of the given thread ID, shifted into place in the header, or zero if the thread cannot own a
+     * thin lock.
+     *
+     * @param bb the block builder (must not be {@code null})
+     * @param threadId the unsigned 64-bit thread ID (must not be {@code null})
+     * @return the owner bits of the header
+     */
+    Value ownerBits(BasicBlockBuilder bb, Value threadId) {
+        UnsignedIntegerType headerType = getHeaderType();
+        Value id = headerType.getMinBits() < 64 ? bb.truncate(threadId, headerType) : threadId;
+        return bb.shl(id, ctxt.getLiteralFactory().literalOf(headerType, shift + OWNER_SHIFT));
+    }
+
+    /**
+     * Determine whether the given thread ID can own a thin lock.
+     *
+     * @param bb the block builder (must not be {@code null})
+     * @param threadId the unsigned 64-bit thread ID (must not be {@code null})
+     * @return the boolean condition
+     */
+    Value canOwn(BasicBlockBuilder bb, Value threadId) {
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        UnsignedIntegerType u64 = ctxt.getTypeSystem().getUnsignedInteger64Type();
+        // IDs start from 1; zero wraps around to the maximum value
+        return bb.isLt(bb.sub(threadId, lf.literalOf(u64, 1)), lf.literalOf(u64, MAX_OWNER));
+    }
+
+    /**
+     * Get a mask of all header bits other than the lock bits.
+     *
+     * @return the mask literal
+     */
+    Value otherBitsMask() {
+        UnsignedIntegerType headerType = getHeaderType();
+        long lockMask = ((1L << LOCK_BITS) - 1) << shift;
+        long headerMask = headerType.getMinBits() == 64 ? -1L : (1L << headerType.getMinBits()) - 1;
+        return ctxt.getLiteralFactory().literalOf(headerType, ~lockMask & headerMask);
+    }
+
+    private Value toLockWord(BasicBlockBuilder bb, Value header) {
+        UnsignedIntegerType headerType = getHeaderType();
+        TypeSystem ts = ctxt.getTypeSystem();
+        Value word = bb.shr(header, ctxt.getLiteralFactory().literalOf(headerType, shift));
+        if (headerType.getMinBits() > LOCK_BITS) {
+            word = bb.truncate(word, ts.getUnsignedInteger32Type());
+        }
+        return bb.bitCast(word, ts.getSignedInteger32Type());
+    }
+
+    private Value fromLockWord(BasicBlockBuilder bb, Value lockWord) {
+        UnsignedIntegerType headerType = getHeaderType();
+        Value word = bb.bitCast(lockWord, ctxt.getTypeSystem().getUnsignedInteger32Type());
+        if (headerType.getMinBits() > LOCK_BITS) {
+            word = bb.extend(word, (WordType) headerType);
+        }
+        return bb.shl(word, ctxt.getLiteralFactory().literalOf(headerType, shift));
+    }
+
+    private UnsignedIntegerType getHeaderType() {
+        return (UnsignedIntegerType) getHeaderField().getType();
+    }
+}
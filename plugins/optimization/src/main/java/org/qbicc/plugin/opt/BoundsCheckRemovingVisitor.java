@@ -0,0 +1,544 @@
+package org.qbicc.plugin.opt;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.Add;
+import org.qbicc.graph.AddressOf;
+import org.qbicc.graph.And;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BinaryValue;
+import org.qbicc.graph.BlockEntry;
+import org.qbicc.graph.Extend;
+import org.qbicc.graph.If;
+import org.qbicc.graph.InstanceFieldOf;
+import org.qbicc.graph.IsGe;
+import org.qbicc.graph.IsGt;
+import org.qbicc.graph.IsLe;
+import org.qbicc.graph.IsLt;
+import org.qbicc.graph.Load;
+import org.qbicc.graph.LocalVariable;
+import org.qbicc.graph.Max;
+import org.qbicc.graph.Min;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.NodeVisitor;
+import org.qbicc.graph.NotNull;
+import org.qbicc.graph.OrderedNode;
+import org.qbicc.graph.PhiValue;
+import org.qbicc.graph.ReferenceHandle;
+import org.qbicc.graph.Store;
+import org.qbicc.graph.Sub;
+import org.qbicc.graph.Terminator;
+import org.qbicc.graph.Unschedulable;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.literal.IntegerLiteral;
+import org.qbicc.graph.literal.Literal;
+import org.qbicc.graph.schedule.Schedule;
+import org.qbicc.plugin.coreclasses.CoreClasses;
+import org.qbicc.type.SignedIntegerType;
+import org.qbicc.type.UnsignedIntegerType;
+
+/**
+ * A copier which removes array index checks that are known to pass.
+ * <p>
+ * The signed comparisons of the branches which dominate a check give the facts that hold at the check.  Loop
+ * counters are held in local variables, so each load of a local variable is first resolved to the value which was
+ * last stored to it, or to the value of the variable on entry to the block where the stores of several predecessors
+ * meet.  Such a merged value is treated like a {@code phi}: a counter which starts in range and moves by one towards
+ * a bound that is tested in the loop is shown to stay in range by induction over the incoming values.
+ * <p>
+ * Comparisons which are known to be {@code true} or {@code false} are replaced by a {@code goto}, which drops the
+ * branch that raises the exception.
+ */
+public class BoundsCheckRemovingVisitor implements NodeVisitor.Delegating<Node.Copier, Value, Node, BasicBlock, ValueHandle> {
+    private static final int MAX_DEPTH = 16;
+    private static final int MAX_WALK = 1000;
+
+    private final CompilationContext context;
+    private final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate;
+    // block -> the innermost fact which holds on entry to the block, or null if none does
+    private final Map<BasicBlock, Fact> facts = new HashMap<>();
+    private final Map<Value, Object> keys = new HashMap<>();
+    private final Map<LocalEntry, Object> entries = new HashMap<>();
+    private final Set<LocalVariable> addressTaken = new HashSet<>();
+    private final Set<Object> nonNegativeInProgress = new HashSet<>();
+    private final Set<List<Object>> lessThanInProgress = new HashSet<>();
+    private Schedule schedule;
+    private int entryDepth;
+
+    public BoundsCheckRemovingVisitor(final CompilationContext context, final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate) {
+        this.context = context;
+        this.delegate = delegate;
+    }
+
+    public NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> getDelegateNodeVisitor() {
+        return delegate;
+    }
+
+    public BasicBlock visit(final Node.Copier param, final If node) {
+        if (schedule == null) {
+            schedule = param.getSchedule();
+            findAddressTaken(param.getEntryBlock());
+        }
+        Value condition = node.getCondition();
+        BasicBlock block = node.getTerminatedBlock();
+        BasicBlock target = null;
+        if (isSignedCompare(condition)) {
+            Object a = key(((BinaryValue) condition).getLeftInput());
+            Object b = key(((BinaryValue) condition).getRightInput());
+            if (condition instanceof IsLt) {
+                target = isLessThan(a, b, block) ? node.getTrueBranch() : isLessOrEqual(b, a, block) ? node.getFalseBranch() : null;
+            } else if (condition instanceof IsLe) {
+                target = isLessOrEqual(a, b, block) ? node.getTrueBranch() : isLessThan(b, a, block) ? node.getFalseBranch() : null;
+            } else if (condition instanceof IsGt) {
+                target = isLessThan(b, a, block) ? node.getTrueBranch() : isLessOrEqual(a, b, block) ? node.getFalseBranch() : null;
+            } else {
+                target = isLessOrEqual(b, a, block) ? node.getTrueBranch() : isLessThan(a, b, block) ? node.getFalseBranch() : null;
+            }
+        }
+        if (target == null) {
+            return getDelegateTerminatorVisitor().visit(param, node);
+        }
+        param.copyNode(node.getDependency());
+        return param.getBlockBuilder().goto_(param.copyBlock(target));
+    }
+
+    // range reasoning
+
+    /**
+     * Determine whether {@code a < b} always holds at the end of the given block.
+     */
+    private boolean isLessThan(Object a, Object b, BasicBlock block) {
+        if (a instanceof IntegerLiteral al && b instanceof IntegerLiteral bl) {
+            return al.longValue() < bl.longValue();
+        }
+        for (Fact fact = factsAt(block); fact != null; fact = fact.next) {
+            if (fact.strict && fact.left.equals(a) && fact.right.equals(b)) {
+                return true;
+            }
+        }
+        if (a instanceof IntegerLiteral al && al.longValue() < 0) {
+            return isNonNegative(b, block);
+        }
+        // x - k < b if 0 <= x <= b, because the subtraction cannot wrap
+        Object base = negativeOffsetBase(a);
+        if (base != null) {
+            return isNonNegative(base, block) && isLessOrEqual(base, b, block);
+        }
+        if (isMerge(a) && lessThanInProgress.size() < MAX_DEPTH && isDefinedBefore(b, mergeBlock(a))) {
+            List<Object> key = List.of(a, b);
+            if (! lessThanInProgress.add(key)) {
+                // the values which enter the loop are less, and so are all values computed from them within it
+                return true;
+            }
+            try {
+                return allIncoming(a, (input, incoming) -> isLessThan(input, b, incoming));
+            } finally {
+                lessThanInProgress.remove(key);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determine whether {@code a <= b} always holds at the end of the given block.
+     */
+    private boolean isLessOrEqual(Object a, Object b, BasicBlock block) {
+        if (a.equals(b)) {
+            return true;
+        }
+        if (a instanceof IntegerLiteral al && b instanceof IntegerLiteral bl) {
+            return al.longValue() <= bl.longValue();
+        }
+        for (Fact fact = factsAt(block); fact != null; fact = fact.next) {
+            if (fact.left.equals(a) && fact.right.equals(b)) {
+                return true;
+            }
+        }
+        if (a instanceof IntegerLiteral al && al.longValue() <= 0 && isNonNegative(b, block)) {
+            return true;
+        }
+        return isLessThan(a, b, block);
+    }
+
+    /**
+     * Determine whether {@code 0 <= value} always holds at the end of the given block.
+     */
+    private boolean isNonNegative(Object value, BasicBlock block) {
+        if (value instanceof IntegerLiteral il) {
+            return il.longValue() >= 0;
+        }
+        if (value instanceof LengthOf || value instanceof Extend ext && ext.getInput().getType() instanceof UnsignedIntegerType) {
+            return true;
+        }
+        if (value instanceof And and && (isNonNegativeLiteral(and.getLeftInput()) || isNonNegativeLiteral(and.getRightInput()))) {
+            return true;
+        }
+        for (Fact fact = factsAt(block); fact != null; fact = fact.next) {
+            if (fact.left instanceof IntegerLiteral il && fact.right.equals(value) && il.longValue() >= (fact.strict ? -1 : 0)) {
+                return true;
+            }
+        }
+        if (isMerge(value) && nonNegativeInProgress.size() < MAX_DEPTH) {
+            if (! nonNegativeInProgress.add(value)) {
+                return true;
+            }
+            try {
+                // an increment cannot overflow if the value before it is less than some other value
+                return allIncoming(value, (input, incoming) -> isIncrementOf(input, value) ? hasUpperBound(value, incoming) : isNonNegative(input, incoming));
+            } finally {
+                nonNegativeInProgress.remove(value);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determine whether some fact {@code value < x} holds at the end of the given block.
+     */
+    private boolean hasUpperBound(Object value, BasicBlock block) {
+        for (Fact fact = factsAt(block); fact != null; fact = fact.next) {
+            if (fact.strict && fact.left.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isIncrementOf(Object value, Object base) {
+        return value instanceof Add add && (key(add.getLeftInput()).equals(base) && isLiteral(add.getRightInput(), 1) || key(add.getRightInput()).equals(base) && isLiteral(add.getLeftInput(), 1));
+    }
+
+    /**
+     * Get {@code x} if the given value is {@code x - k} for some positive constant {@code k}.
+     */
+    private Object negativeOffsetBase(Object value) {
+        if (value instanceof Sub sub && sub.getRightInput() instanceof IntegerLiteral il && il.longValue() > 0) {
+            return key(sub.getLeftInput());
+        } else if (value instanceof Add add) {
+            if (add.getRightInput() instanceof IntegerLiteral il && il.longValue() < 0) {
+                return key(add.getLeftInput());
+            } else if (add.getLeftInput() instanceof IntegerLiteral il && il.longValue() < 0) {
+                return key(add.getRightInput());
+            }
+        }
+        return null;
+    }
+
+    private static boolean isLiteral(Value value, long expected) {
+        return value instanceof IntegerLiteral il && il.longValue() == expected;
+    }
+
+    private static boolean isNonNegativeLiteral(Value value) {
+        return value instanceof IntegerLiteral il && il.longValue() >= 0;
+    }
+
+    // merged values
+
+    private static boolean isMerge(Object value) {
+        return value instanceof PhiValue phi && phi.getType() instanceof SignedIntegerType || value instanceof LocalEntry;
+    }
+
+    private static BasicBlock mergeBlock(Object value) {
+        return value instanceof PhiValue phi ? phi.getPinnedBlock() : ((LocalEntry) value).block();
+    }
+
+    private boolean allIncoming(Object merge, IncomingPredicate predicate) {
+        Set<BasicBlock> incomingBlocks = mergeBlock(merge).getIncoming();
+        if (incomingBlocks.isEmpty()) {
+            return false;
+        }
+        for (BasicBlock incoming : incomingBlocks) {
+            if (incoming.isReachable()) {
+                Object input = incomingValue(merge, incoming);
+                if (input == null || ! input.equals(merge) && ! predicate.test(input, incoming)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private Object incomingValue(Object merge, BasicBlock incoming) {
+        if (merge instanceof PhiValue phi) {
+            Value value = phi.getValueForInput(incoming.getTerminator());
+            return value == null ? null : key(value);
+        }
+        return valueBefore(((LocalEntry) merge).variable(), incoming.getTerminator());
+    }
+
+    /**
+     * Determine whether the given value is computed before entering the given loop header, and thus is the same
+     * in every iteration of the loop.
+     */
+    private boolean isDefinedBefore(Object value, BasicBlock header) {
+        if (value instanceof LengthOf length) {
+            value = length.array();
+        }
+        if (value instanceof LocalEntry entry) {
+            return entry.block() != header && schedule.dominates(entry.block(), header);
+        }
+        if (value instanceof Literal || value instanceof Unschedulable) {
+            return true;
+        }
+        BasicBlock block = value instanceof Node node ? schedule.getBlockForNode(node) : null;
+        return block != null && block != header && schedule.dominates(block, header);
+    }
+
+    // value keys
+
+    /**
+     * Get the key of a value.  Values with the same key are equal; the key of a load of a local variable is the
+     * key of the value which it loads, and the key of an array length is made from the key of the array.
+     */
+    private Object key(Value value) {
+        Object key = keys.get(value);
+        if (key == null) {
+            key = value;
+            if (value instanceof PhiValue phi) {
+                // the phi stands for itself until it is known to be the same as some other value
+                keys.put(phi, phi);
+                key = singleIncomingValue(phi);
+            } else if (value instanceof NotNull notNull) {
+                key = key(notNull.getInput());
+            } else if (value instanceof Load load) {
+                if (load.getValueHandle() instanceof LocalVariable lv && ! addressTaken.contains(lv)) {
+                    Object stored = valueBefore(lv, load.getDependency());
+                    if (stored != null) {
+                        key = stored;
+                    }
+                } else if (load.getValueHandle() instanceof InstanceFieldOf field
+                    && field.getVariableElement() == CoreClasses.get(context).getArrayLengthField()
+                    && field.getValueHandle() instanceof ReferenceHandle rh) {
+                    key = new LengthOf(key(rh.getReferenceValue()));
+                }
+            }
+            keys.put(value, key);
+        }
+        return resolve(key, 0);
+    }
+
+    /**
+     * Get the current form of a key.  A key which was made while a merged value was still standing for itself refers
+     * to that merged value, which may since have been found to be the same as some other value.
+     */
+    private Object resolve(Object key, int depth) {
+        if (depth >= MAX_DEPTH) {
+            return key;
+        }
+        Object resolved = key instanceof PhiValue phi ? keys.get(phi) : key instanceof LocalEntry entry ? entries.get(entry) : null;
+        if (resolved != null && ! resolved.equals(key)) {
+            return resolve(resolved, depth + 1);
+        }
+        if (key instanceof LengthOf length) {
+            Object array = resolve(length.array(), depth + 1);
+            return array.equals(length.array()) ? key : new LengthOf(array);
+        }
+        return key;
+    }
+
+    /**
+     * Get the key of the value held by a local variable just before the given node.
+     *
+     * @return the key, or {@code null} if it could not be found
+     */
+    private Object valueBefore(LocalVariable lv, Node node) {
+        for (int i = 0; i < MAX_WALK; i ++) {
+            if (node instanceof Store store && store.getValueHandle().equals(lv)) {
+                return key(store.getValue());
+            } else if (node instanceof BlockEntry entry) {
+                BasicBlock block = entry.getPinnedBlock();
+                Set<BasicBlock> incoming = block.getIncoming();
+                if (incoming.size() != 1) {
+                    return mergedValue(new LocalEntry(lv, block));
+                }
+                node = incoming.iterator().next().getTerminator();
+            } else if (node instanceof OrderedNode on) {
+                node = on.getDependency();
+            } else {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the key of the value of a local variable on entry to a block with several predecessors.
+     */
+    private Object mergedValue(LocalEntry entry) {
+        Object key = entries.get(entry);
+        if (key == null) {
+            // the entry value stands for itself until it is known to be the same as some other value
+            entries.put(entry, entry);
+            key = singleIncomingValue(entry);
+            entries.put(entry, key);
+        }
+        return resolve(key, 0);
+    }
+
+    /**
+     * Get the key of a {@code phi} or of the value of a local variable on entry to a block.  If every predecessor
+     * provides the same value, or keeps the merged value unchanged, that value is the key.
+     */
+    private Object singleIncomingValue(Object merge) {
+        Set<BasicBlock> incomingBlocks = mergeBlock(merge).getIncoming();
+        if (entryDepth >= MAX_DEPTH || incomingBlocks.isEmpty()) {
+            return merge;
+        }
+        entryDepth ++;
+        try {
+            Object single = null;
+            for (BasicBlock incoming : incomingBlocks) {
+                if (incoming.isReachable()) {
+                    Object value = incomingValue(merge, incoming);
+                    if (value == null || single != null && ! value.equals(single) && ! value.equals(merge)) {
+                        return merge;
+                    }
+                    if (! value.equals(merge)) {
+                        single = value;
+                    }
+                }
+            }
+            return single == null ? merge : single;
+        } finally {
+            entryDepth --;
+        }
+    }
+
+    /**
+     * Find the local variables which may be accessed other than by plain loads and stores.
+     */
+    private void findAddressTaken(BasicBlock entryBlock) {
+        ArrayDeque<BasicBlock> queue = new ArrayDeque<>();
+        Set<BasicBlock> visited = new HashSet<>();
+        queue.add(entryBlock);
+        visited.add(entryBlock);
+        BasicBlock block;
+        while ((block = queue.poll()) != null) {
+            for (Node node : schedule.getNodesForBlock(block)) {
+                if ((node instanceof Load || node instanceof Store) && node.getValueHandle() instanceof LocalVariable) {
+                    continue;
+                }
+                ValueHandle handle = node instanceof AddressOf addressOf ? addressOf.getValueHandle() : node.hasValueHandleDependency() ? node.getValueHandle() : null;
+                while (handle != null) {
+                    if (handle instanceof LocalVariable lv) {
+                        addressTaken.add(lv);
+                        break;
+                    }
+                    handle = handle.hasValueHandleDependency() ? handle.getValueHandle() : null;
+                }
+            }
+            Terminator terminator = block.getTerminator();
+            int cnt = terminator.getSuccessorCount();
+            for (int i = 0; i < cnt; i ++) {
+                BasicBlock successor = terminator.getSuccessor(i);
+                if (visited.add(successor)) {
+                    queue.add(successor);
+                }
+            }
+        }
+    }
+
+    // facts
+
+    private Fact factsAt(BasicBlock block) {
+        if (facts.containsKey(block)) {
+            return facts.get(block);
+        }
+        // compute the facts of the dominators first, outermost first
+        ArrayDeque<BasicBlock> stack = new ArrayDeque<>();
+        BasicBlock dominator = block;
+        while (dominator != null && ! facts.containsKey(dominator)) {
+            stack.push(dominator);
+            dominator = schedule.getImmediateDominator(dominator);
+        }
+        while (! stack.isEmpty()) {
+            BasicBlock current = stack.pop();
+            dominator = schedule.getImmediateDominator(current);
+            facts.put(current, dominator == null ? null : edgeFact(dominator, current, facts.get(dominator)));
+        }
+        return facts.get(block);
+    }
+
+    /**
+     * Get the fact which holds on the edge from a block to one of its successors which has no other predecessor.
+     */
+    private Fact edgeFact(BasicBlock from, BasicBlock to, Fact next) {
+        if (! (from.getTerminator() instanceof If node) || node.getTrueBranch() == node.getFalseBranch() || to.getIncoming().size() != 1) {
+            return next;
+        }
+        Value condition = node.getCondition();
+        if (! isSignedCompare(condition)) {
+            return next;
+        }
+        boolean holds = to == node.getTrueBranch();
+        Object a = key(((BinaryValue) condition).getLeftInput());
+        Object b = key(((BinaryValue) condition).getRightInput());
+        if (condition instanceof IsLt) {
+            return holds ? fact(a, true, b, next) : fact(b, false, a, next);
+        } else if (condition instanceof IsLe) {
+            return holds ? fact(a, false, b, next) : fact(b, true, a, next);
+        } else if (condition instanceof IsGt) {
+            return holds ? fact(b, true, a, next) : fact(a, false, b, next);
+        } else {
+            return holds ? fact(b, false, a, next) : fact(a, true, b, next);
+        }
+    }
+
+    /**
+     * Make a fact, along with the facts which follow from it when one side is a signed minimum or maximum: a value
+     * which is less than {@code min(x, y)} is less than both {@code x} and {@code y}, and likewise for a maximum which
+     * is less than a value.
+     */
+    private Fact fact(Object left, boolean strict, Object right, Fact next) {
+        if (right instanceof Min min && min.getType() instanceof SignedIntegerType) {
+            next = fact(left, strict, key(min.getLeftInput()), fact(left, strict, key(min.getRightInput()), next));
+        }
+        if (left instanceof Max max && max.getType() instanceof SignedIntegerType) {
+            next = fact(key(max.getLeftInput()), strict, right, fact(key(max.getRightInput()), strict, right, next));
+        }
+        return new Fact(left, strict, right, next);
+    }
+
+    private static boolean isSignedCompare(Value condition) {
+        return (condition instanceof IsLt || condition instanceof IsLe || condition instanceof IsGt || condition instanceof IsGe)
+            && ((BinaryValue) condition).getLeftInput().getType() instanceof SignedIntegerType;
+    }
+
+    interface IncomingPredicate {
+        boolean test(Object input, BasicBlock incoming);
+    }
+
+    /**
+     * The value of a local variable on entry to a block with several predecessors.
+     */
+    record LocalEntry(LocalVariable variable, BasicBlock block) {}
+
+    /**
+     * The length of an array.
+     */
+    record LengthOf(Object array) {}
+
+    /**
+     * A fact {@code left < right} or {@code left <= right}, linked to the facts which hold in the enclosing dominator.
+     */
+    static final class Fact {
+        final Object left;
+        final boolean strict;
+        final Object right;
+        final Fact next;
+
+        Fact(Object left, boolean strict, Object right, Fact next) {
+            this.left = left;
+            this.strict = strict;
+            this.right = right;
+            this.next = next;
+        }
+    }
+}
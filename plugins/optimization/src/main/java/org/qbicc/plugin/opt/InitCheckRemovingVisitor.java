@@ -0,0 +1,207 @@
+package org.qbicc.plugin.opt;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockEntry;
+import org.qbicc.graph.Goto;
+import org.qbicc.graph.InitCheck;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.NodeVisitor;
+import org.qbicc.graph.OrderedNode;
+import org.qbicc.graph.Terminator;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.literal.Literal;
+import org.qbicc.graph.schedule.Schedule;
+import org.qbicc.type.definition.element.InitializerElement;
+
+/**
+ * A copier which removes run time initialization checks that are dominated by a check of the same initializer.
+ * Checks which start a loop header are moved to the end of the block which enters the loop, so that they are
+ * performed once instead of on every iteration.
+ */
+public class InitCheckRemovingVisitor implements NodeVisitor.Delegating<Node.Copier, Value, Node, BasicBlock, ValueHandle> {
+    private final CompilationContext context;
+    private final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate;
+    private final Set<InitCheck> removed = new HashSet<>();
+    // loop entry block -> checks moved to the end of it
+    private final Map<BasicBlock, List<InitCheck>> hoisted = new HashMap<>();
+    private boolean analyzed;
+
+    public InitCheckRemovingVisitor(final CompilationContext context, final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate) {
+        this.context = context;
+        this.delegate = delegate;
+    }
+
+    public NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> getDelegateNodeVisitor() {
+        return delegate;
+    }
+
+    public Node visit(final Node.Copier param, final InitCheck node) {
+        analyze(param);
+        if (removed.contains(node)) {
+            param.copyNode(node.getDependency());
+            return param.getBlockBuilder().nop();
+        }
+        return getDelegateActionVisitor().visit(param, node);
+    }
+
+    public BasicBlock visit(final Node.Copier param, final Goto node) {
+        analyze(param);
+        List<InitCheck> checks = hoisted.get(node.getTerminatedBlock());
+        if (checks != null) {
+            param.copyNode(node.getDependency());
+            BasicBlockBuilder bb = param.getBlockBuilder();
+            for (InitCheck check : checks) {
+                bb.initCheck(check.getInitializerElement(), param.copyValue(check.getInitThunk()));
+            }
+        }
+        return getDelegateTerminatorVisitor().visit(param, node);
+    }
+
+    private void analyze(final Node.Copier param) {
+        if (analyzed) {
+            return;
+        }
+        analyzed = true;
+        Schedule schedule = param.getSchedule();
+        // find the checks of each block, in program order
+        Map<BasicBlock, List<InitCheck>> checks = new HashMap<>();
+        ArrayDeque<BasicBlock> queue = new ArrayDeque<>();
+        Set<BasicBlock> visited = new HashSet<>();
+        queue.add(param.getEntryBlock());
+        visited.add(param.getEntryBlock());
+        BasicBlock block;
+        while ((block = queue.poll()) != null) {
+            Terminator terminator = block.getTerminator();
+            List<InitCheck> list = null;
+            Node node = terminator.getDependency();
+            while (node instanceof OrderedNode on && ! (node instanceof BlockEntry)) {
+                if (node instanceof InitCheck ic) {
+                    if (list == null) {
+                        list = new ArrayList<>();
+                    }
+                    list.add(ic);
+                }
+                node = on.getDependency();
+            }
+            if (list != null) {
+                Collections.reverse(list);
+                checks.put(block, list);
+            }
+            int cnt = terminator.getSuccessorCount();
+            for (int i = 0; i < cnt; i ++) {
+                BasicBlock successor = terminator.getSuccessor(i);
+                if (visited.add(successor)) {
+                    queue.add(successor);
+                }
+            }
+        }
+        if (checks.isEmpty()) {
+            return;
+        }
+        // the initializers which are known to be checked by the end of each block
+        Map<BasicBlock, Set<InitializerElement>> checkedBy = new HashMap<>();
+        for (Map.Entry<BasicBlock, List<InitCheck>> entry : checks.entrySet()) {
+            Set<InitializerElement> set = checkedBy.computeIfAbsent(entry.getKey(), InitCheckRemovingVisitor::newSet);
+            for (InitCheck check : entry.getValue()) {
+                set.add(check.getInitializerElement());
+            }
+        }
+        // move the checks which start a loop header to the block which enters the loop
+        Map<InitCheck, BasicBlock> hoistable = new HashMap<>();
+        for (Map.Entry<BasicBlock, List<InitCheck>> entry : checks.entrySet()) {
+            BasicBlock header = entry.getKey();
+            BasicBlock loopEntry = findLoopEntry(schedule, header);
+            if (loopEntry != null) {
+                for (InitCheck check : entry.getValue()) {
+                    if (! (check.getDependency() instanceof BlockEntry || hoistable.containsKey(check.getDependency())) || ! (check.getInitThunk() instanceof Literal)) {
+                        break;
+                    }
+                    hoistable.put(check, loopEntry);
+                    checkedBy.computeIfAbsent(loopEntry, InitCheckRemovingVisitor::newSet).add(check.getInitializerElement());
+                }
+            }
+        }
+        // remove the dominated checks
+        for (Map.Entry<BasicBlock, List<InitCheck>> entry : checks.entrySet()) {
+            BasicBlock checkBlock = entry.getKey();
+            Set<InitializerElement> seen = new HashSet<>();
+            for (InitCheck check : entry.getValue()) {
+                InitializerElement init = check.getInitializerElement();
+                BasicBlock loopEntry = hoistable.get(check);
+                if (! seen.add(init)) {
+                    removed.add(check);
+                } else if (loopEntry != null) {
+                    // the loop entry block is the immediate dominator of the header
+                    removed.add(check);
+                    if (! containsCheck(checks.get(loopEntry), init) && ! isCheckedBefore(schedule, checkedBy, loopEntry, init)) {
+                        hoisted.computeIfAbsent(loopEntry, b -> new ArrayList<>()).add(check);
+                    }
+                } else if (isCheckedBefore(schedule, checkedBy, checkBlock, init)) {
+                    removed.add(check);
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the block which enters the loop headed by the given block.
+     *
+     * @param schedule the schedule
+     * @param header the possible loop header
+     * @return the single block outside of the loop which enters it with a {@code goto}, or {@code null} if the block
+     *      is not a loop header or there is no such single block
+     */
+    private static BasicBlock findLoopEntry(Schedule schedule, BasicBlock header) {
+        boolean loop = false;
+        BasicBlock loopEntry = null;
+        for (BasicBlock incoming : header.getIncoming()) {
+            if (schedule.dominates(header, incoming)) {
+                loop = true;
+            } else if (loopEntry == null) {
+                loopEntry = incoming;
+            } else {
+                return null;
+            }
+        }
+        return loop && loopEntry != null && loopEntry.getTerminator() instanceof Goto ? loopEntry : null;
+    }
+
+    private static boolean containsCheck(List<InitCheck> checks, InitializerElement init) {
+        if (checks != null) {
+            for (InitCheck check : checks) {
+                if (check.getInitializerElement().equals(init)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isCheckedBefore(Schedule schedule, Map<BasicBlock, Set<InitializerElement>> checkedBy, BasicBlock block, InitializerElement init) {
+        BasicBlock dominator = schedule.getImmediateDominator(block);
+        while (dominator != null) {
+            Set<InitializerElement> set = checkedBy.get(dominator);
+            if (set != null && set.contains(init)) {
+                return true;
+            }
+            dominator = schedule.getImmediateDominator(dominator);
+        }
+        return false;
+    }
+
+    private static <E> Set<E> newSet(Object ignored) {
+        return new HashSet<>();
+    }
+}
@@ -61,6 +61,7 @@ import org.qbicc.object.FunctionDeclaration;
 import org.qbicc.object.ProgramModule;
 import org.qbicc.object.ProgramObject;
 import org.qbicc.object.ModuleSection;
+import org.qbicc.plugin.profile.ProfileData;
 import org.qbicc.type.definition.MethodBody;
 import org.qbicc.type.definition.classfile.ClassFile;
 import org.qbicc.type.definition.element.ExecutableElement;
@@ -68,16 +69,22 @@ import org.qbicc.type.definition.element.FunctionElement;
 
 /**
  * The inliner.  Every method call is speculatively inlined unless it is specifically annotated otherwise.
+ * If a profile is given, calls from hot call sites are allowed to inline more code, and calls from cold call sites
+ * are not inlined.
  */
 public class  InliningBasicBlockBuilder extends DelegatingBasicBlockBuilder implements ValueHandleVisitor<Void, ExecutableElement> {
     private final CompilationContext ctxt;
     // todo: this is arbitrary
-    private final float costThreshold = 80.0f;
+    private static final float BASE_COST_THRESHOLD = 80.0f;
+    private static final float HOT_COST_THRESHOLD = BASE_COST_THRESHOLD * 4;
+    private final ProfileData profile;
+    private float costThreshold = BASE_COST_THRESHOLD;
     private float cost;
 
     public InliningBasicBlockBuilder(final CompilationContext ctxt, final BasicBlockBuilder delegate) {
         super(delegate);
         this.ctxt = ctxt;
+        profile = ProfileData.get(ctxt);
     }
 
     @Override
@@ -228,7 +235,14 @@ public class  InliningBasicBlockBuilder extends DelegatingBasicBlockBuilder impl
         MethodBody body = element.getPreviousMethodBody();
         if (body != null) {
             float savedCost = this.cost;
+            float savedCostThreshold = this.costThreshold;
             boolean alwaysInline = element.hasAllModifiersOf(ClassFile.I_ACC_ALWAYS_INLINE);
+            ProfileData.Hotness hotness = profile.getCallSiteHotness(getCurrentElement(), getLocation().getByteCodeIndex());
+            if (hotness == ProfileData.Hotness.COLD && ! alwaysInline) {
+                return null;
+            } else if (hotness == ProfileData.Hotness.HOT) {
+                this.costThreshold = Math.max(savedCostThreshold, HOT_COST_THRESHOLD);
+            }
             BlockLabel inlined = new BlockLabel();
             BasicBlock fromBlock = goto_(inlined);
             Terminator callSite = fromBlock.getTerminator();
@@ -246,12 +260,18 @@ public class  InliningBasicBlockBuilder extends DelegatingBasicBlockBuilder impl
                 // jump to the inlined code
                 inlined.setTarget(copied);
                 setCallSite(oldCallSite);
+                this.costThreshold = savedCostThreshold;
+                if (hotness == ProfileData.Hotness.HOT) {
+                    // hot call sites do not use up the inlining budget of the rest of the method
+                    this.cost = savedCost;
+                }
                 // this is the return point (it won't be reachable if the inlined function does not return)
                 andThen.run();
                 return fromBlock;
             } catch (Cancel ignored) {
                 // call site was not inlined; restore original inlining cost
                 this.cost = savedCost;
+                this.costThreshold = savedCostThreshold;
                 setCallSite(oldCallSite);
                 begin(inlined);
                 return null;
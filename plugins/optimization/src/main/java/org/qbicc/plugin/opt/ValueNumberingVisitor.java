@@ -0,0 +1,125 @@
+package org.qbicc.plugin.opt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.InstanceFieldOf;
+import org.qbicc.graph.Load;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.NodeVisitor;
+import org.qbicc.graph.OrderedNode;
+import org.qbicc.graph.PinnedNode;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.ValueVisitor;
+import org.qbicc.graph.atomic.ReadAccessMode;
+import org.qbicc.graph.literal.Literal;
+import org.qbicc.graph.schedule.Schedule;
+import org.qbicc.plugin.coreclasses.CoreClasses;
+import org.qbicc.type.definition.element.ConstructorElement;
+import org.qbicc.type.definition.element.FieldElement;
+
+import static org.qbicc.graph.atomic.AccessModes.SinglePlain;
+import static org.qbicc.graph.atomic.AccessModes.SingleUnshared;
+
+/**
+ * A copier which performs global value numbering.  Equal pure values are replaced by the first copy of the value;
+ * because such values are scheduled as early as their inputs allow, the first copy is available everywhere that
+ * the others are used.  Loads of fields which never change once the object is constructed, such as the type ID and
+ * array length of an object or a final instance field, are replaced by an equal load in a dominating block.
+ */
+public class ValueNumberingVisitor implements NodeVisitor.Delegating<Node.Copier, Value, Node, BasicBlock, ValueHandle> {
+    private final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate;
+    private final ValueVisitor<Node.Copier, Value> numberingVisitor;
+    private final Map<Value, Value> values = new HashMap<>();
+    // copied handle -> original invariant loads from it
+    private final Map<ValueHandle, List<Load>> loads = new HashMap<>();
+    // fields which are set when the object is allocated
+    private final Set<FieldElement> allocationFields;
+
+    public ValueNumberingVisitor(final CompilationContext context, final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate) {
+        this(delegate, allocationFields(CoreClasses.get(context)));
+    }
+
+    ValueNumberingVisitor(final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate, final Set<FieldElement> allocationFields) {
+        this.delegate = delegate;
+        this.allocationFields = allocationFields;
+        numberingVisitor = new ValueVisitor<Node.Copier, Value>() {
+            public Value visitUnknown(final Node.Copier param, final Value node) {
+                return number(node.accept(delegate, param));
+            }
+        };
+    }
+
+    public NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> getDelegateNodeVisitor() {
+        return delegate;
+    }
+
+    public ValueVisitor<Node.Copier, Value> getDelegateValueVisitor() {
+        // every value which is not handled here is copied by the delegate and then numbered
+        return numberingVisitor;
+    }
+
+    public Value visit(final Node.Copier param, final Load node) {
+        ReadAccessMode mode = node.getAccessMode();
+        if (mode != SinglePlain && mode != SingleUnshared || ! (node.getValueHandle() instanceof InstanceFieldOf field) || ! isInvariant(field.getVariableElement(), node)) {
+            return node.accept(delegate, param);
+        }
+        param.copyNode(node.getDependency());
+        ValueHandle handle = param.copyValueHandle(node.getValueHandle());
+        Schedule schedule = param.getSchedule();
+        BasicBlock block = schedule.getBlockForNode(node);
+        List<Load> list = loads.computeIfAbsent(handle, ValueNumberingVisitor::newList);
+        for (Load load : list) {
+            if (schedule.dominates(schedule.getBlockForNode(load), block)) {
+                return param.copyValue(load);
+            }
+        }
+        list.add(node);
+        return node.accept(delegate, param);
+    }
+
+    private Value number(final Value copy) {
+        if (copy instanceof OrderedNode || copy instanceof PinnedNode || copy instanceof Literal) {
+            return copy;
+        }
+        Value existing = values.putIfAbsent(copy, copy);
+        return existing == null ? copy : existing;
+    }
+
+    private boolean isInvariant(final FieldElement field, final Load load) {
+        if (allocationFields.contains(field)) {
+            return true;
+        }
+        // final fields may be assigned more than once while the object is being constructed
+        return field.isReallyFinal() && ! inConstructor(load);
+    }
+
+    private static Set<FieldElement> allocationFields(CoreClasses coreClasses) {
+        return Set.of(
+            coreClasses.getObjectTypeIdField(),
+            coreClasses.getArrayLengthField(),
+            coreClasses.getRefArrayElementTypeIdField(),
+            coreClasses.getRefArrayDimensionsField()
+        );
+    }
+
+    private static boolean inConstructor(Node node) {
+        while (node != null) {
+            if (node.getElement() instanceof ConstructorElement) {
+                return true;
+            }
+            node = node.getCallSite();
+        }
+        return false;
+    }
+
+    private static <E> List<E> newList(Object ignored) {
+        return new ArrayList<>();
+    }
+}
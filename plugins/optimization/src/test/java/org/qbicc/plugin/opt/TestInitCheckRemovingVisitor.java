@@ -0,0 +1,154 @@
+package org.qbicc.plugin.opt;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockEntry;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.InitCheck;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.OrderedNode;
+import org.qbicc.graph.ParameterValue;
+import org.qbicc.graph.Value;
+import org.qbicc.test.AbstractCompilerTestCase;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.InitializerElement;
+import org.qbicc.type.definition.element.MethodElement;
+import org.qbicc.type.descriptor.ClassTypeDescriptor;
+import org.qbicc.type.descriptor.MethodDescriptor;
+import org.qbicc.type.generic.ClassSignature;
+import org.qbicc.type.generic.MethodSignature;
+
+public final class TestInitCheckRemovingVisitor extends AbstractCompilerTestCase {
+
+    MethodElement method;
+    InitializerElement initializer;
+    Value initThunk;
+
+    @BeforeEach
+    public void setUpEach() {
+        final DefinedTypeDefinition.Builder typeBuilder = DefinedTypeDefinition.Builder.basic();
+        typeBuilder.setName("TestClass");
+        typeBuilder.setDescriptor(ClassTypeDescriptor.synthesize(bootClassContext, "TestClass"));
+        typeBuilder.setModifiers(ClassFile.ACC_SUPER | ClassFile.ACC_PUBLIC);
+        typeBuilder.setSignature(ClassSignature.synthesize(bootClassContext, null, List.of()));
+        typeBuilder.setSimpleName("TestClass");
+        typeBuilder.setInitializer((index, enclosing, builder) -> builder.build(), 0);
+        final DefinedTypeDefinition enclosingType = typeBuilder.build();
+        final MethodElement.Builder methodBuilder = MethodElement.builder("testMethod", MethodDescriptor.VOID_METHOD_DESCRIPTOR, 0);
+        methodBuilder.setEnclosingType(enclosingType);
+        methodBuilder.setSignature(MethodSignature.VOID_METHOD_SIGNATURE);
+        methodBuilder.setModifiers(ClassFile.ACC_STATIC);
+        methodBuilder.setParameters(List.of());
+        method = methodBuilder.build();
+        final InitializerElement.Builder initializerBuilder = InitializerElement.builder();
+        initializerBuilder.setEnclosingType(enclosingType);
+        initializerBuilder.setModifiers(ClassFile.ACC_STATIC);
+        initializer = initializerBuilder.build();
+        initThunk = lf.literalOf(0);
+    }
+
+    @Test
+    public void testDominatedCheckIsRemoved() {
+        final BasicBlockBuilder bbb = makeBlockBuilder();
+        bbb.startMethod(List.of());
+        bbb.begin(new BlockLabel());
+        bbb.initCheck(initializer, initThunk);
+        final BlockLabel next = new BlockLabel();
+        final BasicBlock entry = bbb.goto_(next);
+        bbb.begin(next);
+        bbb.initCheck(initializer, initThunk);
+        bbb.return_();
+        bbb.finish();
+
+        final BasicBlock copy = copy(entry);
+        assertEquals(1, countInitChecks(copy));
+        assertEquals(0, countInitChecks(copy.getTerminator().getSuccessor(0)));
+    }
+
+    @Test
+    public void testLoopHeaderCheckIsHoisted() {
+        final BasicBlockBuilder bbb = makeBlockBuilder();
+        final ParameterValue c = bbb.parameter(ts.getBooleanType(), "c", 0);
+        bbb.startMethod(List.of(c));
+        bbb.begin(new BlockLabel());
+        final BlockLabel header = new BlockLabel();
+        final BasicBlock entry = bbb.goto_(header);
+        buildLoop(bbb, header, c);
+        bbb.finish();
+
+        final BasicBlock copy = copy(entry, c);
+        assertEquals(1, countInitChecks(copy));
+        assertEquals(0, countInitChecks(copy.getTerminator().getSuccessor(0)));
+    }
+
+    @Test
+    public void testCheckOfLoopWithSeveralEntriesIsNotHoisted() {
+        final BasicBlockBuilder bbb = makeBlockBuilder();
+        final ParameterValue c = bbb.parameter(ts.getBooleanType(), "c", 0);
+        bbb.startMethod(List.of(c));
+        bbb.begin(new BlockLabel());
+        final BlockLabel left = new BlockLabel();
+        final BlockLabel right = new BlockLabel();
+        final BlockLabel header = new BlockLabel();
+        final BasicBlock entry = bbb.if_(c, left, right);
+        bbb.begin(left);
+        bbb.goto_(header);
+        bbb.begin(right);
+        bbb.goto_(header);
+        buildLoop(bbb, header, c);
+        bbb.finish();
+
+        final BasicBlock copy = copy(entry, c);
+        final BasicBlock copiedLeft = copy.getTerminator().getSuccessor(0);
+        final BasicBlock copiedRight = copy.getTerminator().getSuccessor(1);
+        assertEquals(0, countInitChecks(copiedLeft));
+        assertEquals(0, countInitChecks(copiedRight));
+        assertEquals(1, countInitChecks(copiedLeft.getTerminator().getSuccessor(0)));
+    }
+
+    /**
+     * Build a loop whose header starts with a check and which exits when the condition is false.
+     */
+    private void buildLoop(BasicBlockBuilder bbb, BlockLabel header, Value condition) {
+        final BlockLabel body = new BlockLabel();
+        final BlockLabel exit = new BlockLabel();
+        bbb.begin(header);
+        bbb.initCheck(initializer, initThunk);
+        bbb.if_(condition, body, exit);
+        bbb.begin(body);
+        bbb.goto_(header);
+        bbb.begin(exit);
+        bbb.return_();
+    }
+
+    private static int countInitChecks(BasicBlock block) {
+        int count = 0;
+        Node node = block.getTerminator().getDependency();
+        while (node instanceof OrderedNode on && ! (node instanceof BlockEntry)) {
+            if (node instanceof InitCheck) {
+                count ++;
+            }
+            node = on.getDependency();
+        }
+        return count;
+    }
+
+    private BasicBlock copy(BasicBlock entry, ParameterValue... parameters) {
+        final BasicBlockBuilder bbb = makeBlockBuilder();
+        bbb.startMethod(List.of(parameters));
+        final BasicBlock copy = Node.Copier.execute(entry, bbb, ctxt, InitCheckRemovingVisitor::new);
+        bbb.finish();
+        return copy;
+    }
+
+    private BasicBlockBuilder makeBlockBuilder() {
+        return BasicBlockBuilder.simpleBuilder(ts, method);
+    }
+}
@@ -0,0 +1,191 @@
+package org.qbicc.plugin.opt;
+
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.qbicc.graph.atomic.AccessModes.SinglePlain;
+
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.If;
+import org.qbicc.graph.IsEq;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.ParameterValue;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.ValueReturn;
+import org.qbicc.test.AbstractCompilerTestCase;
+import org.qbicc.type.ReferenceType;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.ConstructorElement;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.FieldElement;
+import org.qbicc.type.definition.element.MethodElement;
+import org.qbicc.type.descriptor.BaseTypeDescriptor;
+import org.qbicc.type.descriptor.ClassTypeDescriptor;
+import org.qbicc.type.descriptor.MethodDescriptor;
+import org.qbicc.type.generic.BaseTypeSignature;
+import org.qbicc.type.generic.ClassSignature;
+import org.qbicc.type.generic.MethodSignature;
+
+public final class TestValueNumberingVisitor extends AbstractCompilerTestCase {
+
+    DefinedTypeDefinition enclosingType;
+    ReferenceType referenceType;
+    // stands in for the object type ID field, which is set when the object is allocated
+    FieldElement typeIdField;
+    FieldElement finalField;
+    MethodElement method;
+    ConstructorElement constructor;
+
+    @BeforeEach
+    public void setUpEach() {
+        final DefinedTypeDefinition.Builder typeBuilder = DefinedTypeDefinition.Builder.basic();
+        typeBuilder.setName("TestClass");
+        typeBuilder.setDescriptor(ClassTypeDescriptor.synthesize(bootClassContext, "TestClass"));
+        typeBuilder.setModifiers(ClassFile.ACC_SUPER | ClassFile.ACC_PUBLIC);
+        typeBuilder.setSignature(ClassSignature.synthesize(bootClassContext, null, List.of()));
+        typeBuilder.setSimpleName("TestClass");
+        typeBuilder.setInitializer((index, enclosing, builder) -> builder.build(), 0);
+        enclosingType = typeBuilder.build();
+        referenceType = ts.generateClassObjectType(enclosingType, null, List.of()).getReference();
+        typeIdField = createField("typeId", 0);
+        finalField = createField("value", ClassFile.ACC_FINAL);
+        final MethodElement.Builder methodBuilder = MethodElement.builder("testMethod", MethodDescriptor.VOID_METHOD_DESCRIPTOR, 0);
+        methodBuilder.setEnclosingType(enclosingType);
+        methodBuilder.setSignature(MethodSignature.VOID_METHOD_SIGNATURE);
+        methodBuilder.setModifiers(ClassFile.ACC_STATIC);
+        methodBuilder.setParameters(List.of());
+        method = methodBuilder.build();
+        final ConstructorElement.Builder constructorBuilder = ConstructorElement.builder(MethodDescriptor.VOID_METHOD_DESCRIPTOR, 0);
+        constructorBuilder.setEnclosingType(enclosingType);
+        constructorBuilder.setSignature(MethodSignature.VOID_METHOD_SIGNATURE);
+        constructorBuilder.setParameters(List.of());
+        constructor = constructorBuilder.build();
+    }
+
+    private FieldElement createField(String name, int modifiers) {
+        final FieldElement.Builder builder = FieldElement.builder(name, BaseTypeDescriptor.I, 0);
+        builder.setEnclosingType(enclosingType);
+        builder.setModifiers(modifiers);
+        builder.setType(ts.getSignedInteger32Type());
+        builder.setSignature(BaseTypeSignature.I);
+        return builder.build();
+    }
+
+    @Test
+    public void testDominatedTypeIdLoadIsMerged() {
+        final BasicBlockBuilder bbb = makeBlockBuilder(method);
+        final ParameterValue p = bbb.parameter(referenceType, "p", 0);
+        bbb.startMethod(List.of(p));
+        bbb.begin(new BlockLabel());
+        final Value first = bbb.load(typeIdHandle(bbb, p), SinglePlain);
+        final BlockLabel taken = new BlockLabel();
+        final BlockLabel notTaken = new BlockLabel();
+        final BasicBlock entry = bbb.if_(bbb.isEq(first, lf.literalOf(0)), taken, notTaken);
+        bbb.begin(taken);
+        bbb.return_(bbb.load(typeIdHandle(bbb, p), SinglePlain));
+        bbb.begin(notTaken);
+        bbb.return_(lf.literalOf(1));
+        bbb.finish();
+
+        final If copy = (If) copy(entry, p).getTerminator();
+        final Value copiedFirst = ((IsEq) copy.getCondition()).getLeftInput();
+        assertSame(copiedFirst, returnedValue(copy.getTrueBranch()));
+    }
+
+    @Test
+    public void testNonDominatingLoadIsNotMerged() {
+        final BasicBlockBuilder bbb = makeBlockBuilder(method);
+        final ParameterValue p = bbb.parameter(referenceType, "p", 0);
+        final ParameterValue c = bbb.parameter(ts.getBooleanType(), "c", 1);
+        bbb.startMethod(List.of(p, c));
+        bbb.begin(new BlockLabel());
+        final BlockLabel taken = new BlockLabel();
+        final BlockLabel notTaken = new BlockLabel();
+        final BasicBlock entry = bbb.if_(c, taken, notTaken);
+        bbb.begin(taken);
+        bbb.return_(bbb.load(typeIdHandle(bbb, p), SinglePlain));
+        bbb.begin(notTaken);
+        bbb.return_(bbb.load(typeIdHandle(bbb, p), SinglePlain));
+        bbb.finish();
+
+        final If copy = (If) copy(entry, p, c).getTerminator();
+        assertNotSame(returnedValue(copy.getTrueBranch()), returnedValue(copy.getFalseBranch()));
+    }
+
+    @Test
+    public void testFinalFieldLoadIsMerged() {
+        final BasicBlockBuilder bbb = makeBlockBuilder(method);
+        final ParameterValue p = bbb.parameter(referenceType, "p", 0);
+        bbb.startMethod(List.of(p));
+        bbb.begin(new BlockLabel());
+        final Value first = bbb.load(finalFieldHandle(bbb, p), SinglePlain);
+        final BlockLabel next = new BlockLabel();
+        final BasicBlock entry = bbb.goto_(next);
+        bbb.begin(next);
+        bbb.return_(bbb.add(first, bbb.load(finalFieldHandle(bbb, p), SinglePlain)));
+        bbb.finish();
+
+        final Value sum = returnedValue(copy(entry, p).getTerminator().getSuccessor(0));
+        assertTrue(sum.getValueDependencyCount() == 2 && sum.getValueDependency(0) == sum.getValueDependency(1));
+    }
+
+    @Test
+    public void testFinalFieldLoadInInlinedConstructorIsNotMerged() {
+        final BasicBlockBuilder bbb = makeBlockBuilder(method);
+        final ParameterValue p = bbb.parameter(referenceType, "p", 0);
+        bbb.startMethod(List.of(p));
+        bbb.begin(new BlockLabel());
+        final BlockLabel inlined = new BlockLabel();
+        final BasicBlock entry = bbb.goto_(inlined);
+        bbb.begin(inlined);
+        // the body of the constructor, as the inliner would build it
+        final ExecutableElement oldElement = bbb.setCurrentElement(constructor);
+        final Node oldCallSite = bbb.setCallSite(entry.getTerminator());
+        final Value first = bbb.load(finalFieldHandle(bbb, p), SinglePlain);
+        final BlockLabel next = new BlockLabel();
+        bbb.goto_(next);
+        bbb.begin(next);
+        final Value second = bbb.load(finalFieldHandle(bbb, p), SinglePlain);
+        bbb.setCurrentElement(oldElement);
+        bbb.setCallSite(oldCallSite);
+        bbb.return_(bbb.add(first, second));
+        bbb.finish();
+
+        final BasicBlock copiedInlined = copy(entry, p).getTerminator().getSuccessor(0);
+        final Value sum = returnedValue(copiedInlined.getTerminator().getSuccessor(0));
+        assertTrue(sum.getValueDependencyCount() == 2 && sum.getValueDependency(0) != sum.getValueDependency(1));
+    }
+
+    private ValueHandle typeIdHandle(BasicBlockBuilder bbb, Value reference) {
+        return bbb.instanceFieldOf(bbb.referenceHandle(reference), typeIdField);
+    }
+
+    private ValueHandle finalFieldHandle(BasicBlockBuilder bbb, Value reference) {
+        return bbb.instanceFieldOf(bbb.referenceHandle(reference), finalField);
+    }
+
+    private static Value returnedValue(BasicBlock block) {
+        return ((ValueReturn) block.getTerminator()).getReturnValue();
+    }
+
+    private BasicBlock copy(BasicBlock entry, ParameterValue... parameters) {
+        final BasicBlockBuilder bbb = makeBlockBuilder(method);
+        bbb.startMethod(List.of(parameters));
+        final BasicBlock copy = Node.Copier.execute(entry, bbb, ctxt, (ctxt, delegate) -> new ValueNumberingVisitor(delegate, Set.of(typeIdField)));
+        bbb.finish();
+        return copy;
+    }
+
+    private BasicBlockBuilder makeBlockBuilder(ExecutableElement element) {
+        return BasicBlockBuilder.simpleBuilder(ts, element);
+    }
+}
@@ -0,0 +1,43 @@
+package org.qbicc.plugin.profile;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.DelegatingBasicBlockBuilder;
+import org.qbicc.graph.If;
+import org.qbicc.graph.Value;
+
+/**
+ * A block builder which relates the profiled branches of the bytecode to the {@code if} nodes which are built for
+ * them.  The rest of the chain may swap the branches of an {@code if} while simplifying its condition, so the weights
+ * of the branches are only known once the {@code if} is built.  Like the instrumenting builder, it must be the first
+ * builder of the chain.
+ */
+public final class BranchProfileBasicBlockBuilder extends DelegatingBasicBlockBuilder {
+    private final ProfileData profile;
+
+    private BranchProfileBasicBlockBuilder(final ProfileData profile, final BasicBlockBuilder delegate) {
+        super(delegate);
+        this.profile = profile;
+    }
+
+    public static BasicBlockBuilder createIfNeeded(CompilationContext ctxt, BasicBlockBuilder delegate) {
+        ProfileData profile = ProfileData.get(ctxt);
+        return profile.isEmpty() ? delegate : new BranchProfileBasicBlockBuilder(profile, delegate);
+    }
+
+    @Override
+    public BasicBlock if_(Value condition, BlockLabel trueTarget, BlockLabel falseTarget) {
+        int bci = getLocation().getByteCodeIndex();
+        BasicBlock block = super.if_(condition, trueTarget, falseTarget);
+        if (block.getTerminator() instanceof If if_) {
+            if (if_.getTrueBranchLabel() == trueTarget && if_.getFalseBranchLabel() == falseTarget) {
+                profile.setBranchSwapped(getCurrentElement(), bci, false);
+            } else if (if_.getTrueBranchLabel() == falseTarget && if_.getFalseBranchLabel() == trueTarget) {
+                profile.setBranchSwapped(getCurrentElement(), bci, true);
+            }
+        }
+        return block;
+    }
+}
@@ -0,0 +1,110 @@
+package org.qbicc.plugin.profile;
+
+import static org.qbicc.graph.atomic.AccessModes.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.ClassContext;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.interpreter.Memory;
+import org.qbicc.interpreter.Vm;
+import org.qbicc.interpreter.VmClass;
+import org.qbicc.interpreter.VmObject;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.element.ExecutableElement;
+
+/**
+ * The counters of an instrumented image.  Each profiled site is given a range of counters in one shared array; the
+ * first counter of the range is named by the site, so that the run time can write the profile without any further
+ * help from the compiler.
+ */
+public final class ProfileCounters {
+    private static final AttachmentKey<ProfileCounters> KEY = new AttachmentKey<>();
+
+    static final String PROFILE_INT_NAME = "org/qbicc/runtime/main/Profile";
+
+    /**
+     * The number of receiver classes which are counted at each virtual call site; this must agree with the run time.
+     */
+    static final int RECEIVER_ROWS = 4;
+
+    private final List<String> sites = new ArrayList<>();
+    private volatile String mainClass;
+
+    private ProfileCounters() {}
+
+    public static ProfileCounters get(CompilationContext ctxt) {
+        return ctxt.computeAttachmentIfAbsent(KEY, ProfileCounters::new);
+    }
+
+    /**
+     * Get the name of the class whose main method starts and finishes profiling.
+     *
+     * @return the binary name of the main class, or {@code null} if it is not set
+     */
+    public String getMainClass() {
+        return mainClass;
+    }
+
+    /**
+     * Set the name of the class whose main method starts and finishes profiling.
+     *
+     * @param mainClass the binary name of the main class
+     */
+    public void setMainClass(String mainClass) {
+        this.mainClass = mainClass;
+    }
+
+    /**
+     * Allocate the counters of a site.
+     *
+     * @param kind the kind of the site (must not be {@code null})
+     * @param element the element containing the site (must not be {@code null})
+     * @param bci the bytecode index of the site, or -1 for the method entry
+     * @param ordinal the ordinal of the site among the sites of its kind at its bytecode index
+     * @param count the number of counters to allocate
+     * @return the index of the first counter
+     */
+    synchronized int allocate(ProfileData.SiteKind kind, ExecutableElement element, int bci, int ordinal, int count) {
+        int id = sites.size();
+        sites.add(kind.getName() + ' ' + ProfileData.siteKey(element, bci, ordinal));
+        for (int i = 1; i < count; i ++) {
+            sites.add(null);
+        }
+        return id;
+    }
+
+    /**
+     * Install the counter arrays into the run time.  This must run after the last site is allocated.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     */
+    public static void installCounters(CompilationContext ctxt) {
+        ProfileCounters counters = get(ctxt);
+        ClassContext classContext = ctxt.getBootstrapClassContext();
+        LoadedTypeDefinition profileDef = classContext.findDefinedType(PROFILE_INT_NAME).load();
+        VmClass profileClass = profileDef.getVmClass();
+        VmClass stringClass = classContext.findDefinedType("java/lang/String").load().getVmClass();
+        VmClass classClass = classContext.findDefinedType("java/lang/Class").load().getVmClass();
+        Vm vm = ctxt.getVm();
+        vm.doAttached(vm.newThread("Profile Counter Installation", vm.getMainThreadGroup(), false, Thread.currentThread().getPriority()), () -> {
+            String[] sites;
+            synchronized (counters) {
+                sites = counters.sites.toArray(String[]::new);
+            }
+            VmObject[] siteNames = new VmObject[sites.length];
+            for (int i = 0; i < sites.length; i ++) {
+                if (sites[i] != null) {
+                    siteNames[i] = vm.intern(sites[i]);
+                }
+            }
+            vm.initialize(profileClass);
+            Memory statics = profileClass.getStaticMemory();
+            statics.storeRef(profileClass.indexOfStatic(profileDef.findField("counts")), vm.newLongArray(new long[sites.length]), SinglePlain);
+            statics.storeRef(profileClass.indexOfStatic(profileDef.findField("sites")), vm.newArrayOf(stringClass, siteNames), SinglePlain);
+            statics.storeRef(profileClass.indexOfStatic(profileDef.findField("receivers")), vm.newArrayOf(classClass, sites.length), SinglePlain);
+        });
+    }
+}
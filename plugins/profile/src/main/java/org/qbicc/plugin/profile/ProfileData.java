@@ -0,0 +1,386 @@
+package org.qbicc.plugin.profile;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.type.definition.element.ConstructorElement;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.InitializerElement;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * The profile which was written by an instrumented image, for use by a later build.  Sites are identified by the
+ * enclosing type, name and descriptor of their method and by their bytecode index, so a profile remains usable after
+ * the program is changed and rebuilt; sites whose method or bytecode changed simply have no profile.
+ * <p>
+ * One bytecode may have several sites of the same kind, so each site also has an ordinal among the sites of its kind
+ * at its bytecode index.  The sites are looked up by bytecode index alone, so nothing is known about a bytecode
+ * index which has several sites of the same kind; an instrumented image writes the sites which are not the first at
+ * their index even if they were never reached, so that such indexes are recognized.
+ * <p>
+ * If no profile is loaded, the empty profile is used, which knows nothing about any site.
+ */
+public final class ProfileData {
+    private static final AttachmentKey<ProfileData> KEY = new AttachmentKey<>();
+
+    static final String HEADER = "qbicc-profile-2";
+
+    /**
+     * The fraction of all counted calls which is made by hot call sites.
+     */
+    private static final double HOT_CALL_FRACTION = 0.99;
+
+    private final Map<String, Long> entryCounts;
+    private final Map<String, Long> callCounts;
+    private final Map<String, long[]> branchCounts;
+    private final Map<String, Long> allocationCounts;
+    private final Map<String, Map<String, Long>> receiverCounts;
+    // the kind and bytecode index of each site which is not the only one of its kind at its bytecode index
+    private final Set<String> ambiguousSites;
+    private final long hotCallCount;
+    // whether the `if` of a branch site was built with its branches swapped
+    private final Map<String, Boolean> swappedBranches = new ConcurrentHashMap<>();
+
+    private ProfileData() {
+        entryCounts = Map.of();
+        callCounts = Map.of();
+        branchCounts = Map.of();
+        allocationCounts = Map.of();
+        receiverCounts = Map.of();
+        ambiguousSites = Set.of();
+        hotCallCount = Long.MAX_VALUE;
+    }
+
+    private ProfileData(Map<String, Long> entryCounts, Map<String, Long> callCounts, Map<String, long[]> branchCounts, Map<String, Long> allocationCounts, Map<String, Map<String, Long>> receiverCounts, Set<String> ambiguousSites) {
+        this.entryCounts = entryCounts;
+        this.callCounts = callCounts;
+        this.branchCounts = branchCounts;
+        this.allocationCounts = allocationCounts;
+        this.receiverCounts = receiverCounts;
+        this.ambiguousSites = ambiguousSites;
+        hotCallCount = computeHotCallCount(callCounts);
+    }
+
+    /**
+     * Get the profile of this compilation.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @return the loaded profile, or the empty profile if none was loaded
+     */
+    public static ProfileData get(CompilationContext ctxt) {
+        return ctxt.computeAttachmentIfAbsent(KEY, ProfileData::new);
+    }
+
+    /**
+     * Load the profile of this compilation.  Errors are reported to the compilation context.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @param path the path of the profile file (must not be {@code null})
+     */
+    public static void load(CompilationContext ctxt, Path path) {
+        Map<String, Long> entryCounts = new HashMap<>();
+        Map<String, Long> callCounts = new HashMap<>();
+        Map<String, long[]> branchCounts = new HashMap<>();
+        Map<String, Long> allocationCounts = new HashMap<>();
+        Map<String, Map<String, Long>> receiverCounts = new HashMap<>();
+        Set<String> ambiguousSites = new HashSet<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (! HEADER.equals(line)) {
+                ctxt.error("Profile file \"%s\" has an unknown format", path);
+                return;
+            }
+            int lineNumber = 1;
+            while ((line = reader.readLine()) != null) {
+                lineNumber ++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                // kind owner name descriptor bci ordinal counts...
+                String[] fields = line.split(" ");
+                SiteKind kind = fields.length >= 7 ? SiteKind.forName(fields[0]) : null;
+                if (kind == null || fields.length != 6 + kind.getFieldCount()) {
+                    ctxt.error("Profile file \"%s\" has an invalid entry on line %d", path, Integer.valueOf(lineNumber));
+                    return;
+                }
+                String site = fields[1] + ' ' + fields[2] + ' ' + fields[3] + ' ' + fields[4];
+                try {
+                    int ordinal = Integer.parseInt(fields[5]);
+                    if (ordinal != 0) {
+                        ambiguousSites.add(kind.getLookupKind().getName() + ' ' + site);
+                    }
+                    site = site + ' ' + ordinal;
+                    switch (kind) {
+                        case ENTRY -> entryCounts.merge(elementKeyOf(site), Long.valueOf(fields[6]), Long::sum);
+                        case CALL -> callCounts.merge(site, Long.valueOf(fields[6]), Long::sum);
+                        case ALLOCATION -> allocationCounts.merge(site, Long.valueOf(fields[6]), Long::sum);
+                        case BRANCH -> branchCounts.merge(site, new long[] { Long.parseLong(fields[6]), Long.parseLong(fields[7]) }, (a, b) -> new long[] { a[0] + b[0], a[1] + b[1] });
+                        case RECEIVER -> receiverCounts.computeIfAbsent(site, k -> new HashMap<>()).merge(fields[6], Long.valueOf(fields[7]), Long::sum);
+                    }
+                } catch (NumberFormatException e) {
+                    ctxt.error("Profile file \"%s\" has an invalid count on line %d", path, Integer.valueOf(lineNumber));
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            ctxt.error(e, "Failed to read profile file \"%s\"", path);
+            return;
+        }
+        ctxt.putAttachment(KEY, new ProfileData(entryCounts, callCounts, branchCounts, allocationCounts, receiverCounts, ambiguousSites));
+    }
+
+    /**
+     * Determine whether this is the empty profile.
+     *
+     * @return {@code true} if no profile was loaded, or {@code false} otherwise
+     */
+    public boolean isEmpty() {
+        return entryCounts.isEmpty();
+    }
+
+    /**
+     * Get the number of times that the given method was entered.
+     *
+     * @param element the method (must not be {@code null})
+     * @return the entry count, which is zero if the method was not profiled
+     */
+    public long getEntryCount(ExecutableElement element) {
+        return entryCounts.getOrDefault(elementKey(element), Long.valueOf(0)).longValue();
+    }
+
+    /**
+     * Get the number of times that the given call site was executed.
+     *
+     * @param element the method containing the call site (must not be {@code null})
+     * @param bci the bytecode index of the call site
+     * @return the call count, which is zero if the call site was not profiled
+     */
+    public long getCallCount(ExecutableElement element, int bci) {
+        return lookup(callCounts, SiteKind.CALL, element, bci, Long.valueOf(0)).longValue();
+    }
+
+    /**
+     * Classify the given call site.  A call site is hot if it is among the most frequently executed call sites which
+     * together made nearly all calls.  A call site is cold if its method was entered but the site itself was never
+     * reached.  Nothing is known about the call sites of methods which were never entered.
+     *
+     * @param element the method containing the call site (must not be {@code null})
+     * @param bci the bytecode index of the call site
+     * @return the classification of the call site (not {@code null})
+     */
+    public Hotness getCallSiteHotness(ExecutableElement element, int bci) {
+        if (isAmbiguous(SiteKind.CALL, element, bci)) {
+            return Hotness.UNKNOWN;
+        }
+        long count = getCallCount(element, bci);
+        if (count > 0) {
+            return count >= hotCallCount ? Hotness.HOT : Hotness.WARM;
+        }
+        return getEntryCount(element) > 0 ? Hotness.COLD : Hotness.UNKNOWN;
+    }
+
+    /**
+     * Get the number of objects which were allocated by the given allocation site.
+     *
+     * @param element the method containing the allocation site (must not be {@code null})
+     * @param bci the bytecode index of the allocation site
+     * @return the allocation count, which is zero if the allocation site was not profiled
+     */
+    public long getAllocationCount(ExecutableElement element, int bci) {
+        return lookup(allocationCounts, SiteKind.ALLOCATION, element, bci, Long.valueOf(0)).longValue();
+    }
+
+    /**
+     * Get the receiver classes which were seen at the given virtual or interface call site.
+     *
+     * @param element the method containing the call site (must not be {@code null})
+     * @param bci the bytecode index of the call site
+     * @return the internal names of the receiver classes mapped to their counts, in decreasing order of count
+     *     (not {@code null})
+     */
+    public Map<String, Long> getReceiverCounts(ExecutableElement element, int bci) {
+        Map<String, Long> counts = lookup(receiverCounts, SiteKind.RECEIVER, element, bci, null);
+        if (counts == null) {
+            return Map.of();
+        }
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        LinkedHashMap<String, Long> sorted = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : entries) {
+            sorted.put(entry.getKey(), entry.getValue());
+        }
+        return Collections.unmodifiableMap(sorted);
+    }
+
+    /**
+     * Get the weights of the branches of the {@code if} at the given branch site, as the {@code if} was built.
+     *
+     * @param element the method containing the branch site (must not be {@code null})
+     * @param bci the bytecode index of the branch site
+     * @return the weights of the true and false branches, or {@code null} if the branch site was not profiled
+     */
+    public long[] getBranchWeights(ExecutableElement element, int bci) {
+        long[] counts = lookup(branchCounts, SiteKind.BRANCH, element, bci, null);
+        Boolean swapped = swappedBranches.get(siteKey(element, bci));
+        if (counts == null || swapped == null) {
+            return null;
+        }
+        return swapped.booleanValue() ? new long[] { counts[1], counts[0] } : counts.clone();
+    }
+
+    /**
+     * Record whether the {@code if} of the given branch site was built with its branches swapped with respect to
+     * the profiled branch.
+     *
+     * @param element the method containing the branch site (must not be {@code null})
+     * @param bci the bytecode index of the branch site
+     * @param swapped {@code true} if the branches were swapped, or {@code false} otherwise
+     */
+    void setBranchSwapped(ExecutableElement element, int bci, boolean swapped) {
+        if (branchCounts.containsKey(siteKey(element, bci, 0))) {
+            swappedBranches.put(siteKey(element, bci), Boolean.valueOf(swapped));
+        }
+    }
+
+    private boolean isAmbiguous(SiteKind kind, ExecutableElement element, int bci) {
+        return ambiguousSites.contains(kind.getLookupKind().getName() + ' ' + siteKey(element, bci));
+    }
+
+    private <T> T lookup(Map<String, T> counts, SiteKind kind, ExecutableElement element, int bci, T defaultValue) {
+        if (isAmbiguous(kind, element, bci)) {
+            return defaultValue;
+        }
+        return counts.getOrDefault(siteKey(element, bci, 0), defaultValue);
+    }
+
+    static String elementKey(ExecutableElement element) {
+        String name;
+        if (element instanceof MethodElement me) {
+            name = me.getName();
+        } else if (element instanceof ConstructorElement) {
+            name = "<init>";
+        } else if (element instanceof InitializerElement) {
+            name = "<clinit>";
+        } else {
+            name = element.toString();
+        }
+        return element.getEnclosingType().getInternalName() + ' ' + name + ' ' + element.getDescriptor();
+    }
+
+    static String siteKey(ExecutableElement element, int bci) {
+        return elementKey(element) + ' ' + bci;
+    }
+
+    static String siteKey(ExecutableElement element, int bci, int ordinal) {
+        return siteKey(element, bci) + ' ' + ordinal;
+    }
+
+    private static String elementKeyOf(String site) {
+        String bciKey = site.substring(0, site.lastIndexOf(' '));
+        return bciKey.substring(0, bciKey.lastIndexOf(' '));
+    }
+
+    private static long computeHotCallCount(Map<String, Long> callCounts) {
+        long[] counts = callCounts.values().stream().mapToLong(Long::longValue).sorted().toArray();
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        long covered = 0;
+        for (int i = counts.length - 1; i >= 0; i --) {
+            covered += counts[i];
+            if (covered >= total * HOT_CALL_FRACTION) {
+                return Math.max(1, counts[i]);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * The kinds of profiled sites.
+     */
+    public enum SiteKind {
+        ENTRY("entry", 1),
+        CALL("call", 1),
+        BRANCH("branch", 2),
+        ALLOCATION("alloc", 1),
+        RECEIVER("receiver", 2),
+        ;
+
+        private final String name;
+        private final int fieldCount;
+
+        SiteKind(String name, int fieldCount) {
+            this.name = name;
+            this.fieldCount = fieldCount;
+        }
+
+        /**
+         * Get the name of this kind in the profile file.
+         *
+         * @return the name (not {@code null})
+         */
+        public String getName() {
+            return name;
+        }
+
+        int getFieldCount() {
+            return fieldCount;
+        }
+
+        /**
+         * Get the kind whose ordinals number the sites of this kind.  A receiver site is the call site at the same
+         * bytecode index and ordinal.
+         *
+         * @return the kind (not {@code null})
+         */
+        SiteKind getLookupKind() {
+            return this == RECEIVER ? CALL : this;
+        }
+
+        static SiteKind forName(String name) {
+            for (SiteKind kind : values()) {
+                if (kind.name.equals(name)) {
+                    return kind;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The classification of a call site.
+     */
+    public enum Hotness {
+        /**
+         * The call site is one of the most frequently executed ones.
+         */
+        HOT,
+        /**
+         * The call site was executed, but not frequently.
+         */
+        WARM,
+        /**
+         * The call site was never executed, though its method was.
+         */
+        COLD,
+        /**
+         * Nothing is known about the call site.
+         */
+        UNKNOWN,
+    }
+}
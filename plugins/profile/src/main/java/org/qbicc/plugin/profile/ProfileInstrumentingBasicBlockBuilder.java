@@ -0,0 +1,209 @@
+package org.qbicc.plugin.profile;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.DelegatingBasicBlockBuilder;
+import org.qbicc.graph.Executable;
+import org.qbicc.graph.InstanceMethodElementHandle;
+import org.qbicc.graph.InterfaceMethodElementHandle;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.ParameterValue;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.VirtualMethodElementHandle;
+import org.qbicc.plugin.coreclasses.RuntimeMethodFinder;
+import org.qbicc.type.ReferenceType;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.FunctionElement;
+import org.qbicc.type.definition.element.MethodElement;
+import org.qbicc.type.descriptor.ArrayTypeDescriptor;
+import org.qbicc.type.descriptor.ClassTypeDescriptor;
+
+/**
+ * A block builder which counts the method entries, call sites, receiver classes, branches and allocation sites of
+ * the method being parsed.  It must be the first builder of the chain, so that it only sees the operations of the
+ * bytecode itself; the counting calls are given to the next builder so that they are not counted in turn.
+ * <p>
+ * The run time support code is not instrumented.  The main method starts profiling, and writes the profile when it
+ * returns.
+ */
+public final class ProfileInstrumentingBasicBlockBuilder extends DelegatingBasicBlockBuilder {
+    private static final String MAIN_DESCRIPTOR = "([Ljava/lang/String;)V";
+
+    private final CompilationContext ctxt;
+    private final ProfileCounters counters;
+    private final MethodElement countMethod;
+    private final MethodElement branchMethod;
+    private final MethodElement receiverMethod;
+    private final MethodElement startMethod;
+    private final MethodElement dumpMethod;
+    private final boolean isMain;
+    // the number of sites of each kind at each bytecode index so far
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    private boolean started;
+    private boolean entered;
+
+    private ProfileInstrumentingBasicBlockBuilder(final CompilationContext ctxt, final BasicBlockBuilder delegate) {
+        super(delegate);
+        this.ctxt = ctxt;
+        counters = ProfileCounters.get(ctxt);
+        RuntimeMethodFinder methodFinder = RuntimeMethodFinder.get(ctxt);
+        countMethod = methodFinder.getMethod(ProfileCounters.PROFILE_INT_NAME, "count");
+        branchMethod = methodFinder.getMethod(ProfileCounters.PROFILE_INT_NAME, "branch");
+        receiverMethod = methodFinder.getMethod(ProfileCounters.PROFILE_INT_NAME, "receiver");
+        startMethod = methodFinder.getMethod(ProfileCounters.PROFILE_INT_NAME, "start");
+        dumpMethod = methodFinder.getMethod(ProfileCounters.PROFILE_INT_NAME, "dump");
+        isMain = isMainMethod(counters.getMainClass(), delegate.getCurrentElement());
+    }
+
+    public static BasicBlockBuilder createIfNeeded(CompilationContext ctxt, BasicBlockBuilder delegate) {
+        ExecutableElement element = delegate.getCurrentElement();
+        if (element instanceof FunctionElement || ! element.hasNoModifiersOf(ClassFile.I_ACC_NO_THROW | ClassFile.I_ACC_FOLD | ClassFile.I_ACC_BUILD_TIME_ONLY)) {
+            return delegate;
+        }
+        String typeName = element.getEnclosingType().getInternalName();
+        if (typeName.startsWith("org/qbicc/runtime/") || typeName.startsWith("jdk/internal/org/qbicc/runtime/")) {
+            return delegate;
+        }
+        return new ProfileInstrumentingBasicBlockBuilder(ctxt, delegate);
+    }
+
+    @Override
+    public void startMethod(List<ParameterValue> arguments) {
+        super.startMethod(arguments);
+        started = true;
+    }
+
+    @Override
+    public Node begin(BlockLabel blockLabel) {
+        Node node = super.begin(blockLabel);
+        if (started && ! entered) {
+            // the entry block
+            entered = true;
+            if (isMain) {
+                callProfile(startMethod);
+            }
+            callProfile(countMethod, allocate(ProfileData.SiteKind.ENTRY, -1, 1));
+        }
+        return node;
+    }
+
+    @Override
+    public Value call(ValueHandle target, List<Value> arguments) {
+        countCall(target);
+        return super.call(target, arguments);
+    }
+
+    @Override
+    public Value callNoSideEffects(ValueHandle target, List<Value> arguments) {
+        countCall(target);
+        return super.callNoSideEffects(target, arguments);
+    }
+
+    @Override
+    public BasicBlock callNoReturn(ValueHandle target, List<Value> arguments) {
+        countCall(target);
+        return super.callNoReturn(target, arguments);
+    }
+
+    @Override
+    public Value invoke(ValueHandle target, List<Value> arguments, BlockLabel catchLabel, BlockLabel resumeLabel) {
+        countCall(target);
+        return super.invoke(target, arguments, catchLabel, resumeLabel);
+    }
+
+    @Override
+    public BasicBlock invokeNoReturn(ValueHandle target, List<Value> arguments, BlockLabel catchLabel) {
+        countCall(target);
+        return super.invokeNoReturn(target, arguments, catchLabel);
+    }
+
+    @Override
+    public BasicBlock if_(Value condition, BlockLabel trueTarget, BlockLabel falseTarget) {
+        int id = allocate(ProfileData.SiteKind.BRANCH, getLocation().getByteCodeIndex(), 2);
+        callProfile(branchMethod, ctxt.getLiteralFactory().literalOf(id), condition);
+        return super.if_(condition, trueTarget, falseTarget);
+    }
+
+    @Override
+    public Value new_(ClassTypeDescriptor desc) {
+        countAllocation();
+        return super.new_(desc);
+    }
+
+    @Override
+    public Value newArray(ArrayTypeDescriptor desc, Value size) {
+        countAllocation();
+        return super.newArray(desc, size);
+    }
+
+    @Override
+    public Value multiNewArray(ArrayTypeDescriptor desc, List<Value> dimensions) {
+        countAllocation();
+        return super.multiNewArray(desc, dimensions);
+    }
+
+    @Override
+    public BasicBlock return_() {
+        if (isMain) {
+            callProfile(dumpMethod);
+        }
+        return super.return_();
+    }
+
+    private void countCall(ValueHandle target) {
+        if (! (target instanceof Executable)) {
+            return;
+        }
+        int bci = getLocation().getByteCodeIndex();
+        int ordinal = nextOrdinal(ProfileData.SiteKind.CALL, bci);
+        callProfile(countMethod, counters.allocate(ProfileData.SiteKind.CALL, getCurrentElement(), bci, ordinal, 1));
+        if (target instanceof VirtualMethodElementHandle || target instanceof InterfaceMethodElementHandle) {
+            Value instance = ((InstanceMethodElementHandle) target).getInstance();
+            if (! (instance.getType() instanceof ReferenceType)) {
+                // a method of a native pointer or structure type
+                return;
+            }
+            // the receivers are counted as part of the call site
+            int id = counters.allocate(ProfileData.SiteKind.RECEIVER, getCurrentElement(), bci, ordinal, ProfileCounters.RECEIVER_ROWS);
+            callProfile(receiverMethod, ctxt.getLiteralFactory().literalOf(id), instance);
+        }
+    }
+
+    private void countAllocation() {
+        callProfile(countMethod, allocate(ProfileData.SiteKind.ALLOCATION, getLocation().getByteCodeIndex(), 1));
+    }
+
+    private int allocate(ProfileData.SiteKind kind, int bci, int count) {
+        return counters.allocate(kind, getCurrentElement(), bci, nextOrdinal(kind, bci), count);
+    }
+
+    private int nextOrdinal(ProfileData.SiteKind kind, int bci) {
+        return ordinals.merge(kind.getName() + ' ' + bci, Integer.valueOf(1), Integer::sum).intValue() - 1;
+    }
+
+    private void callProfile(MethodElement method, int id) {
+        callProfile(method, ctxt.getLiteralFactory().literalOf(id));
+    }
+
+    private void callProfile(MethodElement method, Value... arguments) {
+        BasicBlockBuilder next = getDelegate();
+        next.call(next.staticMethod(method), List.of(arguments));
+    }
+
+    private static boolean isMainMethod(String mainClass, ExecutableElement element) {
+        return mainClass != null
+            && element instanceof MethodElement me
+            && me.isStatic()
+            && me.getName().equals("main")
+            && me.getDescriptor().toString().equals(MAIN_DESCRIPTOR)
+            && me.getEnclosingType().getInternalName().equals(mainClass.replace('.', '/'));
+    }
+}
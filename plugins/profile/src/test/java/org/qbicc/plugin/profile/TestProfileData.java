@@ -0,0 +1,153 @@
+package org.qbicc.plugin.profile;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.qbicc.test.AbstractCompilerTestCase;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.MethodElement;
+import org.qbicc.type.descriptor.ClassTypeDescriptor;
+import org.qbicc.type.descriptor.MethodDescriptor;
+import org.qbicc.type.generic.ClassSignature;
+import org.qbicc.type.generic.MethodSignature;
+
+public final class TestProfileData extends AbstractCompilerTestCase {
+
+    static MethodElement caller;
+    static MethodElement other;
+
+    @BeforeAll
+    public static void setUpElements() {
+        final DefinedTypeDefinition.Builder typeBuilder = DefinedTypeDefinition.Builder.basic();
+        typeBuilder.setName("TestClass");
+        typeBuilder.setDescriptor(ClassTypeDescriptor.synthesize(bootClassContext, "TestClass"));
+        typeBuilder.setModifiers(ClassFile.ACC_SUPER | ClassFile.ACC_PUBLIC);
+        typeBuilder.setSignature(ClassSignature.synthesize(bootClassContext, null, List.of()));
+        typeBuilder.setSimpleName("TestClass");
+        typeBuilder.setInitializer((index, enclosing, builder) -> builder.build(), 0);
+        final DefinedTypeDefinition enclosingType = typeBuilder.build();
+        caller = method(enclosingType, "caller");
+        other = method(enclosingType, "other");
+    }
+
+    private static MethodElement method(DefinedTypeDefinition enclosingType, String name) {
+        final MethodElement.Builder methodBuilder = MethodElement.builder(name, MethodDescriptor.VOID_METHOD_DESCRIPTOR, 0);
+        methodBuilder.setEnclosingType(enclosingType);
+        methodBuilder.setSignature(MethodSignature.VOID_METHOD_SIGNATURE);
+        methodBuilder.setModifiers(ClassFile.ACC_STATIC);
+        methodBuilder.setParameters(List.of());
+        return methodBuilder.build();
+    }
+
+    @Test
+    public void testLoad(@TempDir Path dir) throws IOException {
+        ProfileData profile = load(dir,
+            "entry TestClass caller ()V -1 0 10",
+            "call TestClass caller ()V 3 0 1000",
+            "receiver TestClass caller ()V 3 0 Foo 600",
+            "receiver TestClass caller ()V 3 0 Bar 400",
+            "branch TestClass caller ()V 5 0 7 3",
+            "alloc TestClass caller ()V 8 0 2",
+            "alloc TestClass caller ()V 8 0 3"
+        );
+        assertFalse(profile.isEmpty());
+        assertEquals(10, profile.getEntryCount(caller));
+        assertEquals(0, profile.getEntryCount(other));
+        assertEquals(1000, profile.getCallCount(caller, 3));
+        assertEquals(List.of("Foo", "Bar"), List.copyOf(profile.getReceiverCounts(caller, 3).keySet()));
+        // repeated sites are summed
+        assertEquals(5, profile.getAllocationCount(caller, 8));
+        // the weights are only known once the `if` is built
+        assertNull(profile.getBranchWeights(caller, 5));
+        profile.setBranchSwapped(caller, 5, true);
+        assertArrayEquals(new long[] { 3, 7 }, profile.getBranchWeights(caller, 5));
+    }
+
+    @Test
+    public void testSeveralSitesAtOneIndex(@TempDir Path dir) throws IOException {
+        ProfileData profile = load(dir,
+            "entry TestClass caller ()V -1 0 10",
+            "call TestClass caller ()V 3 0 1000",
+            "call TestClass caller ()V 4 0 40",
+            "call TestClass caller ()V 4 1 0",
+            "receiver TestClass caller ()V 4 0 Foo 40",
+            "branch TestClass caller ()V 6 0 7 3",
+            "branch TestClass caller ()V 6 1 0 0",
+            "alloc TestClass caller ()V 8 1 2"
+        );
+        // nothing is known about the sites of an index which has several sites of the same kind
+        assertEquals(0, profile.getCallCount(caller, 4));
+        assertEquals(ProfileData.Hotness.UNKNOWN, profile.getCallSiteHotness(caller, 4));
+        assertEquals(Map.of(), profile.getReceiverCounts(caller, 4));
+        profile.setBranchSwapped(caller, 6, false);
+        assertNull(profile.getBranchWeights(caller, 6));
+        assertEquals(0, profile.getAllocationCount(caller, 8));
+        // the kinds are numbered separately
+        assertEquals(1000, profile.getCallCount(caller, 3));
+    }
+
+    @Test
+    public void testHotness(@TempDir Path dir) throws IOException {
+        ProfileData profile = load(dir,
+            "entry TestClass caller ()V -1 0 10",
+            "call TestClass caller ()V 3 0 600",
+            "call TestClass caller ()V 5 0 400",
+            "call TestClass caller ()V 7 0 5"
+        );
+        // the two sites which made 99% of the calls are hot
+        assertEquals(ProfileData.Hotness.HOT, profile.getCallSiteHotness(caller, 3));
+        assertEquals(ProfileData.Hotness.HOT, profile.getCallSiteHotness(caller, 5));
+        assertEquals(ProfileData.Hotness.WARM, profile.getCallSiteHotness(caller, 7));
+        // the method was entered but the site was not reached
+        assertEquals(ProfileData.Hotness.COLD, profile.getCallSiteHotness(caller, 9));
+        // the method was never entered
+        assertEquals(ProfileData.Hotness.UNKNOWN, profile.getCallSiteHotness(other, 3));
+    }
+
+    @Test
+    public void testUnknownFormat(@TempDir Path dir) throws IOException {
+        Path path = dir.resolve("test.profile");
+        Files.write(path, List.of("qbicc-profile-1", "call TestClass caller ()V 3 1000"));
+        assertLoadFails(path);
+    }
+
+    @Test
+    public void testInvalidEntry(@TempDir Path dir) throws IOException {
+        Path path = dir.resolve("test.profile");
+        Files.write(path, List.of(ProfileData.HEADER, "call TestClass caller ()V 3 1000"));
+        assertLoadFails(path);
+    }
+
+    @Test
+    public void testInvalidCount(@TempDir Path dir) throws IOException {
+        Path path = dir.resolve("test.profile");
+        Files.write(path, List.of(ProfileData.HEADER, "call TestClass caller ()V 3 0 many"));
+        assertLoadFails(path);
+    }
+
+    private static void assertLoadFails(Path path) {
+        int errors = ctxt.errors();
+        ProfileData before = ProfileData.get(ctxt);
+        ProfileData.load(ctxt, path);
+        assertEquals(errors + 1, ctxt.errors());
+        assertSame(before, ProfileData.get(ctxt));
+    }
+
+    private static ProfileData load(Path dir, String... lines) throws IOException {
+        Path path = dir.resolve("test.profile");
+        Files.writeString(path, ProfileData.HEADER + '\n' + String.join("\n", lines) + '\n');
+        int errors = ctxt.errors();
+        ProfileData.load(ctxt, path);
+        assertEquals(errors, ctxt.errors());
+        return ProfileData.get(ctxt);
+    }
+}
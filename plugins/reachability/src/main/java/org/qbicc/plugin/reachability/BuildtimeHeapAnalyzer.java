@@ -3,9 +3,8 @@ package org.qbicc.plugin.reachability;
 import static org.qbicc.graph.atomic.AccessModes.SinglePlain;
 
 import java.util.ArrayDeque;
-import java.util.Collections;
-import java.util.IdentityHashMap;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.qbicc.context.CompilationContext;
 import org.qbicc.graph.Value;
@@ -36,9 +35,11 @@ import org.qbicc.type.definition.element.StaticFieldElement;
  * them, since revisiting an object cannot make additional types reachable.
  * It also does skips over instance fields that cannot add reachable types (primitives,
  * java.lang.Class instances, and java.lang.String instances).
+ * Heap traces may run concurrently; each object is traced by whichever thread first adds it to the visited set.
  */
 class BuildtimeHeapAnalyzer {
-    private final Map<VmObject, Boolean> visited = Collections.synchronizedMap(new IdentityHashMap<>());
+    // VmObject uses identity equality, so a concurrent hash set behaves as an identity set
+    private final Set<VmObject> visited = ConcurrentHashMap.newKeySet();
 
     void clear() {
         visited.clear();
@@ -65,10 +66,9 @@ class BuildtimeHeapAnalyzer {
      * @param root The VmObject which is the starting point for this trace.
      */
     void traceHeap(CompilationContext ctxt, ReachabilityAnalysis analysis, VmObject root, ExecutableElement rootElement) {
-        if (visited.containsKey(root)) {
+        if (!visited.add(root)) {
             return;
         }
-        visited.put(root, Boolean.TRUE);
         ArrayDeque<VmObject> worklist = new ArrayDeque<>();
         worklist.add(root);
 
@@ -90,9 +90,8 @@ class BuildtimeHeapAnalyzer {
                 for (CompoundType.Member im : memLayout.getCompoundType().getMembers()) {
                     if (im.getType() instanceof ReferenceType) {
                         VmObject child = cur.getMemory().loadRef(im.getOffset(), SinglePlain);
-                        if (child != null && !visited.containsKey(child)) {
+                        if (child != null && visited.add(child)) {
                             worklist.add(child);
-                            visited.put(child, Boolean.TRUE);
                         }
                     } else if (im.getType() instanceof PointerType) {
                         Pointer pointer = cur.getMemory().loadPointer(im.getOffset(), SinglePlain);
@@ -105,9 +104,8 @@ class BuildtimeHeapAnalyzer {
                 analysis.processArrayElementType(((ReferenceArrayObjectType) ot).getLeafElementType());
 
                 for (VmObject e : ((VmReferenceArray) cur).getArray()) {
-                    if (e != null && !visited.containsKey(e)) {
+                    if (e != null && visited.add(e)) {
                         worklist.add(e);
-                        visited.put(e, Boolean.TRUE);
                     }
                 }
             }
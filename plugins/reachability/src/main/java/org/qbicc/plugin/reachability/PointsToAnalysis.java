@@ -0,0 +1,488 @@
+package org.qbicc.plugin.reachability;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BitCast;
+import org.qbicc.graph.Call;
+import org.qbicc.graph.CallNoSideEffects;
+import org.qbicc.graph.CheckCast;
+import org.qbicc.graph.ConstructorElementHandle;
+import org.qbicc.graph.ExactMethodElementHandle;
+import org.qbicc.graph.InstanceMethodElementHandle;
+import org.qbicc.graph.InterfaceMethodElementHandle;
+import org.qbicc.graph.Invoke;
+import org.qbicc.graph.New;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.NotNull;
+import org.qbicc.graph.ParameterValue;
+import org.qbicc.graph.PhiValue;
+import org.qbicc.graph.Select;
+import org.qbicc.graph.StaticMethodElementHandle;
+import org.qbicc.graph.TailCall;
+import org.qbicc.graph.TailInvoke;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.VirtualMethodElementHandle;
+import org.qbicc.graph.literal.NullLiteral;
+import org.qbicc.graph.literal.ObjectLiteral;
+import org.qbicc.graph.literal.ZeroInitializerLiteral;
+import org.qbicc.interpreter.VmObject;
+import org.qbicc.type.ClassObjectType;
+import org.qbicc.type.InterfaceObjectType;
+import org.qbicc.type.ObjectType;
+import org.qbicc.type.ReferenceType;
+import org.qbicc.type.ValueType;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.element.ConstructorElement;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.InitializerElement;
+import org.qbicc.type.definition.element.InvokableElement;
+import org.qbicc.type.definition.element.MethodElement;
+import org.qbicc.type.definition.element.StaticFieldElement;
+
+/**
+ * A context-insensitive points-to analysis.
+ *
+ * Where RTA assumes that an instance of any instantiated class may reach any call site, this analysis tracks the
+ * classes whose instances may flow to each parameter, return value and local value of the reachable methods, and
+ * only makes a dispatched method invokable if an instance of a class which inherits it may be the receiver of a
+ * reachable call site which dispatches to it.  The possible receivers are propagated along the call graph as it is
+ * discovered: the arguments of each call flow to the parameters of each of its targets, and the return values of
+ * the targets flow back to the result of the call.
+ *
+ * The analysis is field-insensitive: a value which is loaded from memory, caught as an exception, or otherwise
+ * produced by something other than the constructs above may be an instance of any instantiated subtype of its
+ * declared type.  The same holds for the parameters of methods which are reached from outside of the analysis, such
+ * as reachability roots and methods whose address is taken, and of all functions.  Flows which hold many classes are
+ * saturated to their declared type in the same way (see {@link TypeFlow}).
+ *
+ * The instantiated classes and the exactly invoked methods are tracked by an instance of RTA, which shares the
+ * build time heap with this analysis.  The possible targets of each call site are recorded, so that the call sites
+ * with a single target can be devirtualized once the analysis is complete.
+ */
+public final class PointsToAnalysis implements ReachabilityAnalysis {
+    private static final int THIS = -1;
+
+    private final ReachabilityInfo info;
+    private final CompilationContext ctxt;
+    private final RapidTypeAnalysis rta;
+    private final LoadedTypeDefinition objectType;
+    private final TypeFlow emptyFlow;
+
+    // Classes which were added to the flows of all instances of their supertypes
+    private final Set<LoadedTypeDefinition> instantiatedClasses = ConcurrentHashMap.newKeySet();
+    // Maps each type to the flow of all instances of its instantiated subtypes
+    private final Map<LoadedTypeDefinition, TypeFlow> allInstances = new ConcurrentHashMap<>();
+    // Maps each class to a flow holding only that class
+    private final Map<LoadedTypeDefinition, TypeFlow> exactFlows = new ConcurrentHashMap<>();
+    private final Map<ParameterKey, TypeFlow> parameterFlows = new ConcurrentHashMap<>();
+    private final Map<ExecutableElement, TypeFlow> returnFlows = new ConcurrentHashMap<>();
+    // The flows of the values of the elements which are being processed; each element is processed by one thread
+    private final Map<ExecutableElement, Map<Value, TypeFlow>> valueFlows = new ConcurrentHashMap<>();
+    // Elements whose parameters are saturated
+    private final Set<ExecutableElement> saturatedElements = ConcurrentHashMap.newKeySet();
+    // Methods which are dispatched to with unknown receivers
+    private final Set<MethodElement> saturatedDispatches = ConcurrentHashMap.newKeySet();
+    private final Map<CallSiteKey, Set<MethodElement>> dispatchTargets = new ConcurrentHashMap<>();
+
+    PointsToAnalysis(ReachabilityInfo info, CompilationContext ctxt) {
+        this.info = info;
+        this.ctxt = ctxt;
+        this.rta = new RapidTypeAnalysis(info, ctxt, this);
+        objectType = ctxt.getBootstrapClassContext().findDefinedType("java/lang/Object").load();
+        emptyFlow = TypeFlow.of(this, objectType);
+    }
+
+    /*
+     * Implementation of the ReachabilityAnalysis interface
+     */
+
+    public void processArrayElementType(ObjectType elemType) {
+        rta.processArrayElementType(elemType);
+    }
+
+    public void processBuildtimeInstantiatedObjectType(LoadedTypeDefinition ltd, ExecutableElement currentElement) {
+        processInstantiatedClass(ltd, true, currentElement);
+    }
+
+    public void processReachableObject(VmObject object, ExecutableElement currentElement) {
+        rta.processReachableObject(object, currentElement);
+    }
+
+    public void processReachableRuntimeInitializer(InitializerElement target, ExecutableElement currentElement) {
+        rta.processReachableRuntimeInitializer(target, currentElement);
+    }
+
+    public void processReachableExactInvocation(InvokableElement target, ExecutableElement currentElement) {
+        // invoked through a pointer or from outside of the analysis
+        rta.processReachableExactInvocation(target, currentElement);
+        saturateParameters(target, true);
+    }
+
+    public void processReachableDispatchedInvocation(MethodElement target, ExecutableElement currentElement) {
+        // dispatched to from outside of the analysis
+        info.addDispatchableMethod(target);
+        if (saturatedDispatches.add(target)) {
+            allInstances(target.getEnclosingType().load()).addUse(new DispatchSite(target, null, null, null));
+        }
+    }
+
+    public void processReachableStaticFieldAccess(StaticFieldElement field, ExecutableElement currentElement) {
+        rta.processReachableStaticFieldAccess(field, currentElement);
+    }
+
+    public void processReachableType(LoadedTypeDefinition ltd, ExecutableElement currentElement) {
+        rta.processReachableType(ltd, currentElement);
+    }
+
+    public void processInstantiatedClass(LoadedTypeDefinition type, boolean onHeapType, ExecutableElement currentElement) {
+        rta.processInstantiatedClass(type, onHeapType, currentElement);
+        if (instantiatedClasses.add(type)) {
+            Set<LoadedTypeDefinition> supertypes = new HashSet<>();
+            RapidTypeAnalysis.collectSupertypes(type, supertypes);
+            for (LoadedTypeDefinition st : supertypes) {
+                allInstances(st).add(type);
+            }
+        }
+    }
+
+    public boolean processReachableCall(Node call, ValueHandle target, List<Value> arguments, ExecutableElement currentElement) {
+        if (! isModeledTarget(target)) {
+            return false;
+        }
+        TypeFlow result = resultFlow(call, currentElement);
+        if (target instanceof StaticMethodElementHandle handle) {
+            rta.processReachableExactInvocation(handle.getExecutable(), currentElement);
+            linkCall(handle.getExecutable(), null, arguments, result, currentElement);
+        } else if (target instanceof ConstructorElementHandle handle) {
+            rta.processReachableExactInvocation(handle.getExecutable(), currentElement);
+            linkCall(handle.getExecutable(), handle.getInstance(), arguments, result, currentElement);
+        } else if (target instanceof ExactMethodElementHandle handle) {
+            rta.processReachableExactInvocation(handle.getExecutable(), currentElement);
+            linkCall(handle.getExecutable(), handle.getInstance(), arguments, result, currentElement);
+        } else {
+            InstanceMethodElementHandle handle = (InstanceMethodElementHandle) target;
+            MethodElement method = handle.getExecutable();
+            info.addDispatchableMethod(method);
+            TypeFlow[] argumentFlows = new TypeFlow[arguments.size()];
+            for (int i = 0; i < argumentFlows.length; i ++) {
+                Value argument = arguments.get(i);
+                if (argument.getType() instanceof ReferenceType) {
+                    argumentFlows[i] = flowOf(argument, currentElement);
+                }
+            }
+            CallSiteKey key = new CallSiteKey(handle.getElement(), handle.getBytecodeIndex(), method);
+            Set<MethodElement> targets = dispatchTargets.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet());
+            flowOf(handle.getInstance(), currentElement).addUse(new DispatchSite(method, argumentFlows, result, targets));
+        }
+        return true;
+    }
+
+    public void processReachableReturn(Value value, ExecutableElement currentElement) {
+        if (value.getType() instanceof ReferenceType && currentElement instanceof MethodElement) {
+            flowOf(value, currentElement).linkTo(returnFlow(currentElement));
+        }
+    }
+
+    public void processDispatchableMethod(MethodElement method) {
+        // only the receivers of the call sites make it invokable
+        info.addDispatchableMethod(method);
+    }
+
+    public void finishReachableElement(ExecutableElement element) {
+        valueFlows.remove(element);
+    }
+
+    public Set<MethodElement> getDispatchTargets(ExecutableElement element, int bci, MethodElement target) {
+        Set<MethodElement> targets = dispatchTargets.get(new CallSiteKey(element, bci, target));
+        return targets == null ? null : Collections.unmodifiableSet(targets);
+    }
+
+    public Set<LoadedTypeDefinition> getInstantiatedSubtypes(LoadedTypeDefinition type) {
+        return rta.getInstantiatedSubtypes(type);
+    }
+
+    public void clear() {
+        rta.clear();
+        instantiatedClasses.clear();
+        allInstances.clear();
+        exactFlows.clear();
+        parameterFlows.clear();
+        returnFlows.clear();
+        valueFlows.clear();
+        saturatedElements.clear();
+        saturatedDispatches.clear();
+        dispatchTargets.clear();
+    }
+
+    public void reportStats() {
+        rta.reportStats();
+        int saturated = 0;
+        for (TypeFlow flow : parameterFlows.values()) {
+            if (flow.isSaturated()) {
+                saturated ++;
+            }
+        }
+        int monomorphic = 0;
+        for (Set<MethodElement> targets : dispatchTargets.values()) {
+            if (targets.size() == 1) {
+                monomorphic ++;
+            }
+        }
+        ReachabilityInfo.LOGGER.debugf("  Parameter flows:               %s", parameterFlows.size());
+        ReachabilityInfo.LOGGER.debugf("  Saturated parameter flows:     %s", saturated);
+        ReachabilityInfo.LOGGER.debugf("  Dispatching call sites:        %s", dispatchTargets.size());
+        ReachabilityInfo.LOGGER.debugf("  Monomorphic call sites:        %s", monomorphic);
+    }
+
+    /*
+     * Flows
+     */
+
+    TypeFlow allInstances(LoadedTypeDefinition type) {
+        return allInstances.computeIfAbsent(type, t -> TypeFlow.allInstancesOf(this, t));
+    }
+
+    private TypeFlow exactFlow(LoadedTypeDefinition type) {
+        return exactFlows.computeIfAbsent(type, t -> {
+            TypeFlow flow = TypeFlow.of(this, t);
+            flow.add(t);
+            return flow;
+        });
+    }
+
+    private TypeFlow parameterFlow(ExecutableElement element, int index) {
+        return parameterFlows.computeIfAbsent(new ParameterKey(element, index), k -> {
+            LoadedTypeDefinition bound = index == THIS ? element.getEnclosingType().load() : boundOf(element.getType().getParameterType(index));
+            return TypeFlow.of(this, bound);
+        });
+    }
+
+    private TypeFlow returnFlow(ExecutableElement element) {
+        return returnFlows.computeIfAbsent(element, e -> {
+            LoadedTypeDefinition bound = boundOf(e.getType().getReturnType());
+            // nothing is known about what a method without a body returns
+            return e.hasMethodBodyFactory() ? TypeFlow.of(this, bound) : TypeFlow.saturatedOf(this, bound);
+        });
+    }
+
+    /*
+     * The flow which receives the result of the given call, if it produces a reference.
+     */
+    private TypeFlow resultFlow(Node call, ExecutableElement currentElement) {
+        if (call instanceof Invoke invoke) {
+            Value result = invoke.getReturnValue();
+            return result.getType() instanceof ReferenceType ? flowOf(result, currentElement) : null;
+        } else if (call instanceof TailCall || call instanceof TailInvoke) {
+            return currentElement instanceof MethodElement && currentElement.getType().getReturnType() instanceof ReferenceType ? returnFlow(currentElement) : null;
+        } else if (call instanceof Value result && result.getType() instanceof ReferenceType) {
+            return flowOf(result, currentElement);
+        } else {
+            return null;
+        }
+    }
+
+    private TypeFlow flowOf(Value value, ExecutableElement currentElement) {
+        return flowOf(value, currentElement, valueFlows.computeIfAbsent(currentElement, e -> new HashMap<>()));
+    }
+
+    private TypeFlow flowOf(Value value, ExecutableElement currentElement, Map<Value, TypeFlow> flows) {
+        TypeFlow flow = flows.get(value);
+        if (flow != null) {
+            return flow;
+        }
+        if (value instanceof NotNull nn) {
+            flow = flowOf(nn.getInput(), currentElement, flows);
+        } else if (value instanceof BitCast bc && bc.getInput().getType() instanceof ReferenceType) {
+            flow = flowOf(bc.getInput(), currentElement, flows);
+        } else if (value instanceof PhiValue phi) {
+            flow = TypeFlow.of(this, boundOf(phi.getType()));
+            // phis may depend on themselves
+            flows.put(value, flow);
+            for (BasicBlock incoming : phi.getPinnedBlock().getIncoming()) {
+                Value input = phi.getValueForInput(incoming.getTerminator());
+                if (input != null) {
+                    flowOf(input, currentElement, flows).linkTo(flow);
+                }
+            }
+        } else if (value instanceof Select select) {
+            flow = TypeFlow.of(this, boundOf(select.getType()));
+            flowOf(select.getTrueValue(), currentElement, flows).linkTo(flow);
+            flowOf(select.getFalseValue(), currentElement, flows).linkTo(flow);
+        } else if (value instanceof CheckCast cc) {
+            flow = TypeFlow.of(this, boundOf(cc.getType()));
+            ObjectType expected = cc.getExpectedType();
+            if (expected instanceof ClassObjectType || expected instanceof InterfaceObjectType) {
+                flowOf(cc.getInput(), currentElement, flows).linkTo(flow, expected.getDefinition().load());
+            } else {
+                flowOf(cc.getInput(), currentElement, flows).linkTo(flow);
+            }
+        } else if (value instanceof New n) {
+            flow = exactFlow(n.getClassObjectType().getDefinition().load());
+        } else if (value instanceof ObjectLiteral ol && ol.getValue().getObjectType() instanceof ClassObjectType cot) {
+            LoadedTypeDefinition type = cot.getDefinition().load();
+            processBuildtimeInstantiatedObjectType(type, currentElement);
+            flow = exactFlow(type);
+        } else if (value instanceof NullLiteral || value instanceof ZeroInitializerLiteral) {
+            flow = emptyFlow;
+        } else if (value instanceof ParameterValue pv) {
+            flow = parameterFlow(pv, currentElement);
+        } else if (value instanceof Call c && isModeledTarget(c.getValueHandle())
+            || value instanceof CallNoSideEffects c2 && isModeledTarget(c2.getValueHandle())
+            || value instanceof Invoke.ReturnValue rv && isModeledTarget(rv.getInvoke().getValueHandle())) {
+            // filled in when the call is processed
+            flow = TypeFlow.of(this, boundOf(value.getType()));
+        } else {
+            flow = allInstances(boundOf(value.getType()));
+        }
+        flows.put(value, flow);
+        return flow;
+    }
+
+    private TypeFlow parameterFlow(ParameterValue pv, ExecutableElement currentElement) {
+        // the parameters of functions are not tracked
+        if (currentElement instanceof MethodElement || currentElement instanceof ConstructorElement) {
+            if (pv.getLabel().equals("this")) {
+                return parameterFlow(currentElement, THIS);
+            } else if (pv.getLabel().equals("p")) {
+                return parameterFlow(currentElement, pv.getIndex());
+            }
+        }
+        return allInstances(boundOf(pv.getType()));
+    }
+
+    /*
+     * Link the arguments of a call to the parameters of an exactly invoked target, and its return value to the
+     * result of the call.
+     */
+    private void linkCall(InvokableElement target, Value instance, List<Value> arguments, TypeFlow result, ExecutableElement currentElement) {
+        if (instance != null && instance.getType() instanceof ReferenceType) {
+            flowOf(instance, currentElement).linkTo(parameterFlow(target, THIS));
+        }
+        for (int i = 0; i < arguments.size(); i ++) {
+            Value argument = arguments.get(i);
+            if (argument.getType() instanceof ReferenceType) {
+                flowOf(argument, currentElement).linkTo(parameterFlow(target, i));
+            }
+        }
+        if (result != null) {
+            returnFlow(target).linkTo(result);
+        }
+    }
+
+    private void saturateParameters(ExecutableElement element, boolean includeThis) {
+        if (! (element instanceof MethodElement || element instanceof ConstructorElement)) {
+            return;
+        }
+        if (includeThis && (element instanceof ConstructorElement || ! ((MethodElement) element).isStatic())) {
+            parameterFlow(element, THIS).saturate();
+        }
+        if (saturatedElements.add(element)) {
+            int cnt = element.getType().getParameterCount();
+            for (int i = 0; i < cnt; i ++) {
+                if (element.getType().getParameterType(i) instanceof ReferenceType) {
+                    parameterFlow(element, i).saturate();
+                }
+            }
+        }
+    }
+
+    /*
+     * Helper methods
+     */
+
+    private boolean isModeledTarget(ValueHandle target) {
+        if (target instanceof StaticMethodElementHandle || target instanceof ConstructorElementHandle || target instanceof ExactMethodElementHandle) {
+            return true;
+        } else if (target instanceof VirtualMethodElementHandle || target instanceof InterfaceMethodElementHandle) {
+            // not a method of a native pointer or structure type
+            return ((InstanceMethodElementHandle) target).getInstance().getType() instanceof ReferenceType;
+        } else {
+            return false;
+        }
+    }
+
+    private LoadedTypeDefinition boundOf(ValueType type) {
+        if (type instanceof ReferenceType rt) {
+            // interface bounds are not checked by the verifier, so they are not relied upon
+            if (rt.getUpperBound() instanceof ClassObjectType cot) {
+                return cot.getDefinition().load();
+            }
+        }
+        return objectType;
+    }
+
+    private void makeInvokable(MethodElement method, MethodElement dispatched) {
+        info.addDispatchableMethod(method);
+        if (! info.isInvokableInstanceMethod(method)) {
+            ReachabilityInfo.LOGGER.debugf("Adding dispatched method %s (receiver of a call to %s)", method, dispatched);
+            info.addInvokableInstanceMethod(method);
+            ctxt.enqueue(method);
+        }
+    }
+
+    record ParameterKey(ExecutableElement element, int index) {}
+
+    record CallSiteKey(ExecutableElement element, int bci, MethodElement target) {}
+
+    /**
+     * A call site which dispatches to a method.  Each receiver class which is added to the flow of the receiver
+     * selects a target, which receives the class as its {@code this}, the arguments of the call as its parameters,
+     * and the result of the call as its return value.
+     */
+    private final class DispatchSite implements Consumer<LoadedTypeDefinition> {
+        private final MethodElement method;
+        private final LoadedTypeDefinition definingType;
+        // null if the arguments are not known
+        private final TypeFlow[] argumentFlows;
+        private final TypeFlow result;
+        private final Set<MethodElement> targets;
+        private final Set<MethodElement> linked = ConcurrentHashMap.newKeySet();
+
+        DispatchSite(MethodElement method, TypeFlow[] argumentFlows, TypeFlow result, Set<MethodElement> targets) {
+            this.method = method;
+            this.definingType = method.getEnclosingType().load();
+            this.argumentFlows = argumentFlows;
+            this.result = result;
+            this.targets = targets;
+        }
+
+        public void accept(LoadedTypeDefinition type) {
+            if (! type.isSubtypeOf(definingType)) {
+                return;
+            }
+            MethodElement target = type.resolveMethodElementVirtual(method.getName(), method.getDescriptor());
+            if (target == null || target.isAbstract()) {
+                return;
+            }
+            parameterFlow(target, THIS).add(type);
+            if (linked.add(target)) {
+                if (targets != null) {
+                    targets.add(target);
+                }
+                makeInvokable(target, method);
+                if (argumentFlows == null) {
+                    saturateParameters(target, false);
+                } else {
+                    for (int i = 0; i < argumentFlows.length; i ++) {
+                        if (argumentFlows[i] != null) {
+                            argumentFlows[i].linkTo(parameterFlow(target, i));
+                        }
+                    }
+                }
+                if (result != null) {
+                    returnFlow(target).linkTo(result);
+                }
+            }
+        }
+    }
+}
@@ -1,10 +1,16 @@
 package org.qbicc.plugin.reachability;
 
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
 import org.qbicc.graph.literal.ObjectLiteral;
 import org.qbicc.interpreter.VmObject;
 import org.qbicc.type.ClassObjectType;
@@ -34,37 +40,62 @@ import org.qbicc.type.definition.element.StaticFieldElement;
  *   b. deferred instance methods that are dispatchable/reachable but not yet invokable because
  *      no instance of a receiver for that method has been instantiated.
  *
- *  When a new type is instantiated, the algorithm inspects all deferred methods and
+ *  When a new type is instantiated, the algorithm inspects the deferred methods of each of its supertypes and
  *  moves them to be invokable as necessary.
  *
- *  When a new dispatchable method is discovered, the algorithm inspects all instantiated
- *  classes and either makes the method invokable or deferred.
+ *  When a new dispatchable method is discovered, the algorithm inspects the instantiated subtypes of
+ *  the method's defining type and either makes the method invokable or deferred.
+ *
+ * The analysis is called concurrently from every compiler thread, so it does not take any locks.  Both sets of
+ * information are indexed by type, and are only ever added to before being inspected: an instantiating thread
+ * records the new class against each of its supertypes before looking at their deferred methods, and a deferring
+ * thread records the deferred method before looking at the instantiated subtypes of its defining type.  Therefore
+ * at least one of two racing threads sees the other's update, and whichever thread removes the deferred method
+ * from its set is responsible for making it invokable.  This makes the result independent of the order in which
+ * the compiler threads discover types and methods.
  */
 public final class RapidTypeAnalysis implements ReachabilityAnalysis {
     private final ReachabilityInfo info;
     private final CompilationContext ctxt;
+    private final ReachabilityAnalysis heapAnalysis;
 
     private final BuildtimeHeapAnalyzer heapAnalyzer = new BuildtimeHeapAnalyzer();
 
     // Tracks actually instantiated classes
     private final Set<LoadedTypeDefinition> instantiatedClasses = ConcurrentHashMap.newKeySet();
 
-    // Set of dispatchable, but not yet invokable, instance methods
-    private final Set<MethodElement> deferredDispatchableMethods = ConcurrentHashMap.newKeySet();
+    // Maps each type (class or interface) to its instantiated subclasses or implementors, including itself
+    private final Map<LoadedTypeDefinition, Set<LoadedTypeDefinition>> instantiatedSubtypes = new ConcurrentHashMap<>();
+
+    // Dispatchable, but not yet invokable, instance methods indexed by defining type
+    private final Map<LoadedTypeDefinition, Set<MethodElement>> deferredDispatchableMethods = new ConcurrentHashMap<>();
 
-    // Set of invoked, but not yet invokable, instance methods
-    private final Set<MethodElement> deferredExactMethods = ConcurrentHashMap.newKeySet();
+    // Invoked, but not yet invokable, instance methods indexed by defining type
+    private final Map<LoadedTypeDefinition, Set<MethodElement>> deferredExactMethods = new ConcurrentHashMap<>();
 
     RapidTypeAnalysis(ReachabilityInfo info, CompilationContext ctxt) {
+        this(info, ctxt, null);
+    }
+
+    /**
+     * Construct a new instance which reports what it finds in the build time heap to another analysis, which uses
+     * this instance to track the instantiated classes.
+     *
+     * @param info the reachability info (must not be {@code null})
+     * @param ctxt the compilation context (must not be {@code null})
+     * @param heapAnalysis the analysis to report the heap to, or {@code null} to report it to this instance
+     */
+    RapidTypeAnalysis(ReachabilityInfo info, CompilationContext ctxt, ReachabilityAnalysis heapAnalysis) {
         this.info = info;
         this.ctxt = ctxt;
+        this.heapAnalysis = heapAnalysis == null ? this : heapAnalysis;
     }
 
     /*
      * Implementation of the ReachabilityAnalysis interface
      */
 
-    public synchronized void processArrayElementType(ObjectType elemType) {
+    public void processArrayElementType(ObjectType elemType) {
         if (elemType instanceof ClassObjectType) {
             info.addReachableClass(elemType.getDefinition().load());
         } else if (elemType instanceof InterfaceObjectType) {
@@ -72,35 +103,37 @@ public final class RapidTypeAnalysis implements ReachabilityAnalysis {
         }
     }
 
-    public synchronized void processBuildtimeInstantiatedObjectType(LoadedTypeDefinition ltd, ExecutableElement currentElement) {
+    public void processBuildtimeInstantiatedObjectType(LoadedTypeDefinition ltd, ExecutableElement currentElement) {
         processInstantiatedClass(ltd, true, currentElement);
     }
 
-    public synchronized void processReachableObject(VmObject object, ExecutableElement currentElement) {
-        heapAnalyzer.traceHeap(ctxt, this, object, currentElement);
+    public void processReachableObject(VmObject object, ExecutableElement currentElement) {
+        heapAnalyzer.traceHeap(ctxt, heapAnalysis, object, currentElement);
     }
 
-    public synchronized void processReachableRuntimeInitializer(final InitializerElement target, ExecutableElement currentElement) {
+    public void processReachableRuntimeInitializer(final InitializerElement target, ExecutableElement currentElement) {
         if (!ctxt.wasEnqueued(target)) {
             ReachabilityInfo.LOGGER.debugf("Adding <rtinit> %s (potentially invoked from %s)", target, currentElement);
             ctxt.enqueue(target);
         }
     }
 
-    public synchronized void processReachableExactInvocation(final InvokableElement target, ExecutableElement currentElement) {
+    public void processReachableExactInvocation(final InvokableElement target, ExecutableElement currentElement) {
         if (!ctxt.wasEnqueued(target)) {
             processReachableType(target.getEnclosingType().load(), currentElement);
 
             if (target instanceof MethodElement me && !me.isStatic()) {
-                if (deferredExactMethods.contains(me)) return;
                 LoadedTypeDefinition definingClass = me.getEnclosingType().load();
-                if (!definingClass.isInterface() && !hasInstantiatedSubclass(definingClass)) {
-                    deferredExactMethods.add(me);
-                    ReachabilityInfo.LOGGER.debugf("Deferring method %s (invoked exactly in %s, but no instantiated receiver)", target, currentElement);
-                    return;
-                } else {
-                    info.addInvokableInstanceMethod(me);
+                if (!definingClass.isInterface() && !hasInstantiatedSubtype(definingClass)) {
+                    Set<MethodElement> deferred = getDeferred(deferredExactMethods, definingClass);
+                    if (!deferred.add(me)) return;
+                    // re-check now that the deferral is visible to instantiating threads
+                    if (!hasInstantiatedSubtype(definingClass) || !deferred.remove(me)) {
+                        ReachabilityInfo.LOGGER.debugf("Deferring method %s (invoked exactly in %s, but no instantiated receiver)", target, currentElement);
+                        return;
+                    }
                 }
+                info.addInvokableInstanceMethod(me);
             }
 
             ReachabilityInfo.LOGGER.debugf("Adding %s %s (invoked exactly in %s)", target instanceof ConstructorElement ? "<init>" : "method", target, currentElement);
@@ -108,72 +141,107 @@ public final class RapidTypeAnalysis implements ReachabilityAnalysis {
         }
     }
 
-    public synchronized void processReachableDispatchedInvocation(final MethodElement target, ExecutableElement currentElement) {
+    public void processReachableDispatchedInvocation(final MethodElement target, ExecutableElement currentElement) {
         info.addDispatchableMethod(target);
-        if (!info.isInvokableInstanceMethod(target) && !deferredDispatchableMethods.contains(target)) {
-            if (hasInstantiatedReceiver(target)) {
-                ReachabilityInfo.LOGGER.debugf("Adding dispatched method %s (invoked in %s)", target, currentElement);
-                info.addInvokableInstanceMethod(target);
-                ctxt.enqueue(target);
-            } else {
-                ReachabilityInfo.LOGGER.debugf("Deferring method %s (dispatched to in %s, but no instantiated receiver)", target, currentElement);
-                deferredDispatchableMethods.add(target);
+        if (!info.isInvokableInstanceMethod(target)) {
+            if (!hasInstantiatedReceiver(target)) {
+                Set<MethodElement> deferred = getDeferred(deferredDispatchableMethods, target.getEnclosingType().load());
+                if (!deferred.add(target)) return;
+                // re-check now that the deferral is visible to instantiating threads
+                if (!hasInstantiatedReceiver(target) || !deferred.remove(target)) {
+                    ReachabilityInfo.LOGGER.debugf("Deferring method %s (dispatched to in %s, but no instantiated receiver)", target, currentElement);
+                    return;
+                }
             }
+            ReachabilityInfo.LOGGER.debugf("Adding dispatched method %s (invoked in %s)", target, currentElement);
+            info.addInvokableInstanceMethod(target);
+            ctxt.enqueue(target);
         }
     }
 
-    public synchronized void processReachableStaticFieldAccess(final StaticFieldElement field, ExecutableElement currentElement) {
+    public void processReachableStaticFieldAccess(final StaticFieldElement field, ExecutableElement currentElement) {
         if (!info.isAccessedStaticField(field)) {
             processReachableType(field.getEnclosingType().load(), null);
             info.addAccessedStaticField(field);
-            heapAnalyzer.traceHeap(ctxt, this, field, currentElement);
+            heapAnalyzer.traceHeap(ctxt, heapAnalysis, field, currentElement);
         }
     }
 
-    public synchronized void processReachableType(final LoadedTypeDefinition ltd, ExecutableElement currentElement) {
+    public void processReachableType(final LoadedTypeDefinition ltd, ExecutableElement currentElement) {
         info.addReachableType(ltd);
     }
 
-    public synchronized void processInstantiatedClass(final LoadedTypeDefinition type, boolean onHeapType, ExecutableElement currentElement) {
+    public void processInstantiatedClass(final LoadedTypeDefinition type, boolean onHeapType, ExecutableElement currentElement) {
         if (instantiatedClasses.contains(type)) return;
 
+        info.addReachableClass(type);
+        if (!instantiatedClasses.add(type)) return;
+
         if (onHeapType) {
             ReachabilityInfo.LOGGER.debugf("Adding class %s (heap reachable from %s)", type.getDescriptor(), currentElement);
         } else {
             ReachabilityInfo.LOGGER.debugf("Adding class %s (instantiated in %s)", type.getDescriptor(), currentElement);
         }
 
-        info.addReachableClass(type);
-        instantiatedClasses.add(type);
-
-        ArrayList<MethodElement> toRemove = new ArrayList<>();
-        for (MethodElement dm : deferredExactMethods ) {
-            if (type.isSubtypeOf(dm.getEnclosingType().load())) {
-                ReachabilityInfo.LOGGER.debugf("\tDeferred exact method %s is now invokable)", dm);
-                toRemove.add(dm);
-                info.addInvokableInstanceMethod(dm);
-                ctxt.enqueue(dm);
-            }
+        Set<LoadedTypeDefinition> supertypes = new HashSet<>();
+        collectSupertypes(type, supertypes);
+        // publish the new instance to every supertype before looking for deferred methods
+        for (LoadedTypeDefinition st : supertypes) {
+            instantiatedSubtypes.computeIfAbsent(st, t -> ConcurrentHashMap.newKeySet()).add(type);
         }
-        toRemove.forEach(deferredExactMethods::remove);
-        toRemove.clear();
-
-        for (MethodElement dm : deferredDispatchableMethods ) {
-            if (type.isSubtypeOf(dm.getEnclosingType().load())) {
-                MethodElement cand = type.resolveMethodElementVirtual(dm.getName(), dm.getDescriptor());
-                if (cand != null && cand.equals(dm)) {
-                    ReachabilityInfo.LOGGER.debugf("\tDeferred dispatchable method %s is now invokable)", dm);
-                    toRemove.add(dm);
-                    info.addInvokableInstanceMethod(dm);
-                    ctxt.enqueue(dm);
+
+        for (LoadedTypeDefinition st : supertypes) {
+            Set<MethodElement> deferred = deferredExactMethods.get(st);
+            if (deferred != null) {
+                for (MethodElement dm : deferred) {
+                    if (deferred.remove(dm)) {
+                        ReachabilityInfo.LOGGER.debugf("\tDeferred exact method %s is now invokable)", dm);
+                        info.addInvokableInstanceMethod(dm);
+                        ctxt.enqueue(dm);
+                    }
+                }
+            }
+            deferred = deferredDispatchableMethods.get(st);
+            if (deferred != null) {
+                for (MethodElement dm : deferred) {
+                    MethodElement cand = type.resolveMethodElementVirtual(dm.getName(), dm.getDescriptor());
+                    if (cand != null && cand.equals(dm) && deferred.remove(dm)) {
+                        ReachabilityInfo.LOGGER.debugf("\tDeferred dispatchable method %s is now invokable)", dm);
+                        info.addInvokableInstanceMethod(dm);
+                        ctxt.enqueue(dm);
+                    }
                 }
             }
         }
-        toRemove.forEach(deferredDispatchableMethods::remove);
+    }
+
+    public boolean processReachableCall(Node call, ValueHandle target, List<Value> arguments, ExecutableElement currentElement) {
+        // the target alone determines what is invoked
+        return false;
+    }
+
+    public void processReachableReturn(Value value, ExecutableElement currentElement) {
+    }
+
+    public void processDispatchableMethod(MethodElement method) {
+        processReachableDispatchedInvocation(method, null);
+    }
+
+    public void finishReachableElement(ExecutableElement element) {
+    }
+
+    public Set<MethodElement> getDispatchTargets(ExecutableElement element, int bci, MethodElement target) {
+        return null;
+    }
+
+    public Set<LoadedTypeDefinition> getInstantiatedSubtypes(LoadedTypeDefinition type) {
+        Set<LoadedTypeDefinition> subtypes = instantiatedSubtypes.get(type);
+        return subtypes == null ? Set.of() : Collections.unmodifiableSet(subtypes);
     }
 
     public void clear() {
         instantiatedClasses.clear();
+        instantiatedSubtypes.clear();
         deferredDispatchableMethods.clear();
         deferredExactMethods.clear();
         heapAnalyzer.clear();
@@ -181,36 +249,51 @@ public final class RapidTypeAnalysis implements ReachabilityAnalysis {
 
     public void reportStats() {
         ReachabilityInfo.LOGGER.debugf("  Instantiated classes:          %s", instantiatedClasses.size());
-        ReachabilityInfo.LOGGER.debugf("  Deferred dispatchable methods: %s", deferredDispatchableMethods.size());
-        ReachabilityInfo.LOGGER.debugf("  Deferred exact methods:        %s", deferredExactMethods.size());
+        ReachabilityInfo.LOGGER.debugf("  Deferred dispatchable methods: %s", countDeferred(deferredDispatchableMethods));
+        ReachabilityInfo.LOGGER.debugf("  Deferred exact methods:        %s", countDeferred(deferredExactMethods));
     }
 
     /*
      * RTA Helper methods.
      */
-    private boolean hasInstantiatedSubclass(LoadedTypeDefinition ltd) {
-        if (instantiatedClasses.contains(ltd)) return true;
-        boolean[] ans = { false };
-        info.visitReachableSubclassesPreOrder(ltd, sc -> {
-            if (instantiatedClasses.contains(sc)) {
-                ans[0] = true;
-            }
-        });
-        return ans[0];
+    private boolean hasInstantiatedSubtype(LoadedTypeDefinition ltd) {
+        Set<LoadedTypeDefinition> subtypes = instantiatedSubtypes.get(ltd);
+        return subtypes != null && !subtypes.isEmpty();
     }
 
     private boolean hasInstantiatedReceiver(MethodElement target) {
-        LoadedTypeDefinition definingType = target.getEnclosingType().load();
-        if (instantiatedClasses.contains(definingType)) return true;
-        boolean[] ans = { false };
-        info.visitReachableSubclassesPreOrder(definingType, sc -> {
-            if (instantiatedClasses.contains(sc)) {
+        Set<LoadedTypeDefinition> subtypes = instantiatedSubtypes.get(target.getEnclosingType().load());
+        if (subtypes != null) {
+            for (LoadedTypeDefinition sc : subtypes) {
                 MethodElement cand = sc.resolveMethodElementVirtual(target.getName(), target.getDescriptor());
                 if (cand != null && cand.equals(target)) {
-                    ans[0] = true;
+                    return true;
                 }
             }
-        });
-        return ans[0];
+        }
+        return false;
+    }
+
+    static void collectSupertypes(LoadedTypeDefinition type, Set<LoadedTypeDefinition> supertypes) {
+        if (supertypes.add(type)) {
+            if (type.hasSuperClass()) {
+                collectSupertypes(type.getSuperClass(), supertypes);
+            }
+            for (LoadedTypeDefinition i : type.getInterfaces()) {
+                collectSupertypes(i, supertypes);
+            }
+        }
+    }
+
+    private static Set<MethodElement> getDeferred(Map<LoadedTypeDefinition, Set<MethodElement>> deferred, LoadedTypeDefinition definingType) {
+        return deferred.computeIfAbsent(definingType, t -> ConcurrentHashMap.newKeySet());
+    }
+
+    private static int countDeferred(Map<LoadedTypeDefinition, Set<MethodElement>> deferred) {
+        int cnt = 0;
+        for (Set<MethodElement> methods : deferred.values()) {
+            cnt += methods.size();
+        }
+        return cnt;
     }
 }
@@ -1,5 +1,11 @@
 package org.qbicc.plugin.reachability;
 
+import java.util.List;
+import java.util.Set;
+
+import org.qbicc.graph.Node;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
 import org.qbicc.graph.literal.ObjectLiteral;
 import org.qbicc.interpreter.VmObject;
 import org.qbicc.type.ObjectType;
@@ -33,6 +39,47 @@ interface ReachabilityAnalysis {
 
     void processInstantiatedClass(final LoadedTypeDefinition type, boolean onHeapType, ExecutableElement currentElement);
 
+    /**
+     * Process a reachable call as a whole.  If the analysis accepts the call, the target itself is not given to the
+     * other hooks.
+     *
+     * @param call the call node
+     * @param target the target of the call
+     * @param arguments the arguments of the call
+     * @param currentElement the element containing the call
+     * @return {@code true} if the call was processed, or {@code false} if its target should be processed on its own
+     */
+    boolean processReachableCall(Node call, ValueHandle target, List<Value> arguments, ExecutableElement currentElement);
+
+    void processReachableReturn(Value value, ExecutableElement currentElement);
+
+    /**
+     * Process a method which became dispatchable because it overrides or implements a dispatchable method.
+     *
+     * @param method the newly dispatchable method
+     */
+    void processDispatchableMethod(MethodElement method);
+
+    void finishReachableElement(ExecutableElement element);
+
+    /**
+     * Get the methods which may be invoked by a virtual or interface call site.
+     *
+     * @param element the element containing the call site
+     * @param bci the bytecode index of the call site
+     * @param target the method which is dispatched to by the call site
+     * @return the possible targets, or {@code null} if they are not known
+     */
+    Set<MethodElement> getDispatchTargets(ExecutableElement element, int bci, MethodElement target);
+
+    /**
+     * Get the instantiated classes which are subtypes of a class or interface.
+     *
+     * @param type the class or interface
+     * @return the instantiated subtypes, including the type itself if it is instantiated
+     */
+    Set<LoadedTypeDefinition> getInstantiatedSubtypes(LoadedTypeDefinition type);
+
     void clear();
 
     void reportStats();
@@ -0,0 +1,17 @@
+package org.qbicc.plugin.reachability;
+
+/**
+ * The algorithms which can determine the invokable instance methods of the program.
+ */
+public enum ReachabilityAnalysisKind {
+    /**
+     * Rapid type analysis: a dispatched method is invokable once any class which inherits it is instantiated.
+     */
+    rta,
+    /**
+     * Points-to analysis: a dispatched method is invokable once an instance of a class which inherits it may be the
+     * receiver of a call site which dispatches to it.
+     */
+    pta,
+    ;
+}
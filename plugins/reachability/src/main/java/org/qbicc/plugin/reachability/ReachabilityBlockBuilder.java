@@ -1,11 +1,15 @@
 package org.qbicc.plugin.reachability;
 
 import java.util.HashSet;
+import java.util.List;
 
 import org.qbicc.context.CompilationContext;
 import org.qbicc.graph.Action;
 import org.qbicc.graph.BasicBlock;
 import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.Call;
+import org.qbicc.graph.CallNoReturn;
+import org.qbicc.graph.CallNoSideEffects;
 import org.qbicc.graph.ClassOf;
 import org.qbicc.graph.ConstructorElementHandle;
 import org.qbicc.graph.DelegatingBasicBlockBuilder;
@@ -13,6 +17,8 @@ import org.qbicc.graph.ExactMethodElementHandle;
 import org.qbicc.graph.FunctionElementHandle;
 import org.qbicc.graph.InitCheck;
 import org.qbicc.graph.InterfaceMethodElementHandle;
+import org.qbicc.graph.Invoke;
+import org.qbicc.graph.InvokeNoReturn;
 import org.qbicc.graph.MultiNewArray;
 import org.qbicc.graph.New;
 import org.qbicc.graph.NewReferenceArray;
@@ -21,10 +27,13 @@ import org.qbicc.graph.NodeVisitor;
 import org.qbicc.graph.OrderedNode;
 import org.qbicc.graph.StaticField;
 import org.qbicc.graph.StaticMethodElementHandle;
+import org.qbicc.graph.TailCall;
+import org.qbicc.graph.TailInvoke;
 import org.qbicc.graph.Terminator;
 import org.qbicc.graph.Value;
 import org.qbicc.graph.ValueHandle;
 import org.qbicc.graph.ValueHandleVisitor;
+import org.qbicc.graph.ValueReturn;
 import org.qbicc.graph.VirtualMethodElementHandle;
 import org.qbicc.graph.literal.ObjectLiteral;
 import org.qbicc.graph.literal.PointerLiteral;
@@ -63,7 +72,9 @@ public class ReachabilityBlockBuilder extends DelegatingBasicBlockBuilder implem
     @Override
     public void finish() {
         BasicBlock entryBlock = getFirstBlock();
-        entryBlock.getTerminator().accept(new ReachabilityVisitor(), new ReachabilityContext(ctxt, getDelegate().getCurrentElement()));
+        ReachabilityContext context = new ReachabilityContext(ctxt, getDelegate().getCurrentElement());
+        entryBlock.getTerminator().accept(new ReachabilityVisitor(), context);
+        context.analysis.finishReachableElement(context.currentElement);
         super.finish();
     }
 
@@ -137,6 +148,68 @@ public class ReachabilityBlockBuilder extends DelegatingBasicBlockBuilder implem
             return false;
         }
 
+        /*
+         * Give the analysis the chance to process a call as a whole before its target is processed on its own.
+         */
+        void visitCall(ReachabilityContext param, Node node, ValueHandle target, List<Value> arguments) {
+            if (! param.visited.contains(node) && param.analysis.processReachableCall(node, target, arguments, param.currentElement)) {
+                // visit the dependencies of the target without processing the target itself
+                visitUnknown(param, (Node) target);
+            }
+        }
+
+        @Override
+        public Void visit(ReachabilityContext param, Call node) {
+            visitCall(param, node, node.getValueHandle(), node.getArguments());
+            visitUnknown(param, (Node) node);
+            return null;
+        }
+
+        @Override
+        public Void visit(ReachabilityContext param, CallNoSideEffects node) {
+            visitCall(param, node, node.getValueHandle(), node.getArguments());
+            visitUnknown(param, (Node) node);
+            return null;
+        }
+
+        @Override
+        public Void visit(ReachabilityContext param, CallNoReturn node) {
+            visitCall(param, node, node.getValueHandle(), node.getArguments());
+            return visitUnknown(param, (Terminator) node);
+        }
+
+        @Override
+        public Void visit(ReachabilityContext param, TailCall node) {
+            visitCall(param, node, node.getValueHandle(), node.getArguments());
+            return visitUnknown(param, (Terminator) node);
+        }
+
+        @Override
+        public Void visit(ReachabilityContext param, Invoke node) {
+            visitCall(param, node, node.getValueHandle(), node.getArguments());
+            return visitUnknown(param, (Terminator) node);
+        }
+
+        @Override
+        public Void visit(ReachabilityContext param, InvokeNoReturn node) {
+            visitCall(param, node, node.getValueHandle(), node.getArguments());
+            return visitUnknown(param, (Terminator) node);
+        }
+
+        @Override
+        public Void visit(ReachabilityContext param, TailInvoke node) {
+            visitCall(param, node, node.getValueHandle(), node.getArguments());
+            return visitUnknown(param, (Terminator) node);
+        }
+
+        @Override
+        public Void visit(ReachabilityContext param, ValueReturn node) {
+            if (! param.visited.contains(node)) {
+                param.analysis.processReachableReturn(node.getReturnValue(), param.currentElement);
+            }
+            return visitUnknown(param, (Terminator) node);
+        }
+
         @Override
         public Void visit(ReachabilityContext param, ObjectLiteral value) {
             param.analysis.processReachableObject(value.getValue(), param.currentElement);
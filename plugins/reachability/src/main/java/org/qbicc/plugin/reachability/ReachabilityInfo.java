@@ -76,11 +76,11 @@ public class ReachabilityInfo {
     // Set of static fields that are potentially accessed by reachable code
     private final Set<FieldElement> accessedStaticField = ConcurrentHashMap.newKeySet();
 
-    private final ReachabilityAnalysis analysis;
+    private volatile ReachabilityAnalysis analysis;
+    private volatile ReachabilityAnalysisKind analysisKind = ReachabilityAnalysisKind.rta;
     private final CompilationContext ctxt;
 
     private ReachabilityInfo(final CompilationContext ctxt) {
-        // TODO: Currently hardwired to RTA; eventually will support multiple analysis algorithms
         this.analysis = new RapidTypeAnalysis(this, ctxt);
         this.ctxt = ctxt;
     }
@@ -104,7 +104,21 @@ public class ReachabilityInfo {
         info.dispatchableMethods.clear();
         info.invokableInstanceMethods.clear();
         info.accessedStaticField.clear();
-        info.analysis.clear();
+        if (info.analysisKind == ReachabilityAnalysisKind.pta) {
+            info.analysis = new PointsToAnalysis(info, ctxt);
+        } else {
+            info.analysis.clear();
+        }
+    }
+
+    /**
+     * Select the analysis which determines the invokable instance methods.  The ADD phase always uses RTA, since
+     * every element which is added is treated as a root; the selected analysis is used from the ANALYZE phase on.
+     *
+     * @param analysisKind the analysis to use (must not be {@code null})
+     */
+    public void setAnalysisKind(ReachabilityAnalysisKind analysisKind) {
+        this.analysisKind = analysisKind;
     }
 
     public static void reportStats(CompilationContext ctxt) {
@@ -181,6 +195,30 @@ public class ReachabilityInfo {
         return invokableInstanceMethods.contains(meth);
     }
 
+    /**
+     * Get the methods which may be invoked by a virtual or interface call site, as determined by the analysis of the
+     * most recent phase.  The result is only complete once that phase has finished.
+     *
+     * @param element the element containing the call site (must not be {@code null})
+     * @param bci the bytecode index of the call site
+     * @param target the method which is dispatched to by the call site (must not be {@code null})
+     * @return the possible targets, or {@code null} if they are not known
+     */
+    public Set<MethodElement> getDispatchTargets(ExecutableElement element, int bci, MethodElement target) {
+        return analysis.getDispatchTargets(element, bci, target);
+    }
+
+    /**
+     * Get the instantiated classes which are subtypes of a class or interface, as determined by the analysis of the
+     * most recent phase.  The result is only complete once that phase has finished.
+     *
+     * @param type the class or interface (must not be {@code null})
+     * @return the instantiated subtypes, including the type itself if it is instantiated (not {@code null})
+     */
+    public Set<LoadedTypeDefinition> getInstantiatedSubtypes(LoadedTypeDefinition type) {
+        return analysis.getInstantiatedSubtypes(type);
+    }
+
     public boolean isAccessedStaticField(FieldElement field) {
         return accessedStaticField.contains(field);
     }
@@ -259,32 +297,35 @@ public class ReachabilityInfo {
 
     void addReachableInterface(LoadedTypeDefinition type) {
         if (isReachableInterface(type)) return;
-        synchronized (this) {
-            interfaceHierarchy.computeIfAbsent(type, t -> ConcurrentHashMap.newKeySet());
-            for (LoadedTypeDefinition i : type.getInterfaces()) {
-                addReachableInterface(i);
-                addInterfaceEdge(type, i);
-            }
-
-            // For every instance method that is not already dispatchable,
-            // check to see if it has the same selector as an "overridden" dispatchable method.
-            outer:
-            for (MethodElement im : type.getInstanceMethods()) {
-                if (!isDispatchableMethod(im)) {
-                    for (LoadedTypeDefinition si : type.getInterfaces()) {
-                        MethodElement sm = si.resolveMethodElementInterface(im.getName(), im.getDescriptor());
-                        if (sm != null && isDispatchableMethod(sm)) {
-                            LOGGER.debugf("\tnewly reachable interface: dispatchable method:  %s", im);
-                            analysis.processReachableDispatchedInvocation(im, null);
-                            continue outer;
-                        }
+        // Link the interface into the hierarchy before it becomes visible as reachable, so that
+        // a reachable interface is always reachable from each of its superinterfaces.
+        for (LoadedTypeDefinition i : type.getInterfaces()) {
+            addReachableInterface(i);
+            addInterfaceEdge(type, i);
+        }
+        // Linking may race, but only the thread which installs the entry processes the new interface.
+        if (interfaceHierarchy.putIfAbsent(type, ConcurrentHashMap.newKeySet()) != null) return;
+
+        // For every instance method that is not already dispatchable,
+        // check to see if it has the same selector as an "overridden" dispatchable method.
+        // The edges above are published before this check, and addDispatchableMethod publishes the method
+        // before visiting implementors, so a concurrent dispatch is always seen by at least one of the two threads.
+        outer:
+        for (MethodElement im : type.getInstanceMethods()) {
+            if (!isDispatchableMethod(im)) {
+                for (LoadedTypeDefinition si : type.getInterfaces()) {
+                    MethodElement sm = si.resolveMethodElementInterface(im.getName(), im.getDescriptor());
+                    if (sm != null && isDispatchableMethod(sm)) {
+                        LOGGER.debugf("\tnewly reachable interface: dispatchable method:  %s", im);
+                        analysis.processDispatchableMethod(im);
+                        continue outer;
                     }
                 }
             }
-
-            // The Class object of a reachable type is a heap root.
-            analysis.processReachableObject(type.getVmClass(), null);
         }
+
+        // The Class object of a reachable type is a heap root.
+        analysis.processReachableObject(type.getVmClass(), null);
     }
 
     private void addInterfaceEdge(LoadedTypeDefinition child, LoadedTypeDefinition parent) {
@@ -293,46 +334,46 @@ public class ReachabilityInfo {
 
     void addReachableClass(LoadedTypeDefinition type) {
         if (isReachableClass(type)) return;
-        synchronized (this) {
-            classHierarchy.computeIfAbsent(type, t -> ConcurrentHashMap.newKeySet());
-            LoadedTypeDefinition superClass = type.getSuperClass();
-            if (superClass != null) {
-                addReachableClass(superClass);
-                classHierarchy.get(superClass).add(type);
-            }
-            for (LoadedTypeDefinition i : type.getInterfaces()) {
-                addReachableInterface(i);
-                addInterfaceEdge(type, i);
-            }
-            // force class to be loaded (will fail if new reachable classes are discovered after ADD)
-            type.getVmClass();
-
-            // If I override a dispatchable superclass or interface method, make my version of that method dispatchable.
-            methodLoop:
-            for (MethodElement im : type.getInstanceMethods()) {
-                if (!isDispatchableMethod(im)) {
-                    if (type.hasSuperClass()) {
-                        MethodElement overiddenMethod = type.getSuperClass().resolveMethodElementVirtual(im.getName(), im.getDescriptor());
-                        if (overiddenMethod != null && isDispatchableMethod(overiddenMethod)) {
-                            ReachabilityInfo.LOGGER.debugf("\tnewly reachable class: dispatchable method %s from %s", im, type.getSuperClass());
-                            analysis.processReachableDispatchedInvocation(im, null);
-                            continue methodLoop;
-                        }
+        // Link the class into the hierarchy before it becomes visible as reachable (see addReachableInterface).
+        LoadedTypeDefinition superClass = type.getSuperClass();
+        if (superClass != null) {
+            addReachableClass(superClass);
+            classHierarchy.get(superClass).add(type);
+        }
+        for (LoadedTypeDefinition i : type.getInterfaces()) {
+            addReachableInterface(i);
+            addInterfaceEdge(type, i);
+        }
+        if (classHierarchy.putIfAbsent(type, ConcurrentHashMap.newKeySet()) != null) return;
+        // force class to be loaded (will fail if new reachable classes are discovered after ADD)
+        type.getVmClass();
+
+        // If I override a dispatchable superclass or interface method, make my version of that method dispatchable.
+        // As with interfaces, the hierarchy edges are published before the dispatchability check.
+        methodLoop:
+        for (MethodElement im : type.getInstanceMethods()) {
+            if (!isDispatchableMethod(im)) {
+                if (type.hasSuperClass()) {
+                    MethodElement overiddenMethod = type.getSuperClass().resolveMethodElementVirtual(im.getName(), im.getDescriptor());
+                    if (overiddenMethod != null && isDispatchableMethod(overiddenMethod)) {
+                        ReachabilityInfo.LOGGER.debugf("\tnewly reachable class: dispatchable method %s from %s", im, type.getSuperClass());
+                        analysis.processDispatchableMethod(im);
+                        continue methodLoop;
                     }
-                    for (LoadedTypeDefinition i : type.getInterfaces()) {
-                        MethodElement sm = i.resolveMethodElementInterface(im.getName(), im.getDescriptor());
-                        if (sm != null && isDispatchableMethod(sm)) {
-                            ReachabilityInfo.LOGGER.debugf("\tnewly reachable class: dispatchable method: %s from %s", im, i);
-                            analysis.processReachableDispatchedInvocation(im, null);
-                            continue methodLoop;
-                        }
+                }
+                for (LoadedTypeDefinition i : type.getInterfaces()) {
+                    MethodElement sm = i.resolveMethodElementInterface(im.getName(), im.getDescriptor());
+                    if (sm != null && isDispatchableMethod(sm)) {
+                        ReachabilityInfo.LOGGER.debugf("\tnewly reachable class: dispatchable method: %s from %s", im, i);
+                        analysis.processDispatchableMethod(im);
+                        continue methodLoop;
                     }
                 }
             }
-
-            // The Class object of a reachable type is a heap root.
-            analysis.processReachableObject(type.getVmClass(), null);
         }
+
+        // The Class object of a reachable type is a heap root.
+        analysis.processReachableObject(type.getVmClass(), null);
     }
 
     void addReachableType(LoadedTypeDefinition type) {
@@ -345,50 +386,48 @@ public class ReachabilityInfo {
 
     void addDispatchableMethod(MethodElement meth) {
         if (dispatchableMethods.contains(meth)) return;
-        synchronized (this) {
-            addReachableType(meth.getEnclosingType().load());
-            dispatchableMethods.add(meth);
-
-            // First we must propagate dispatchability down the method family
-            LoadedTypeDefinition definingClass = meth.getEnclosingType().load();
-
-            if (definingClass.isInterface()) {
-                // Traverse the reachable extenders and implementors and handle as-if we just saw
-                // an invokevirtual/invokeinterface  of their overriding/implementing method
-                visitReachableImplementors(definingClass, (c) -> {
-                    MethodElement cand;
-                    if (c.isInterface()) {
-                        cand = c.resolveMethodElementInterface(meth.getName(), meth.getDescriptor());
-                    } else {
-                        cand = c.resolveMethodElementVirtual(meth.getName(), meth.getDescriptor());
-                    }
-                    if (cand != null && !isDispatchableMethod(cand)) {
-                        ReachabilityInfo.LOGGER.debugf("\tnewly dispatchable method due to down propagation: %s", cand);
-                        analysis.processReachableDispatchedInvocation(cand, null);
-                    }
-                });
-            } else {
-                // Traverse the instantiated subclasses of target's defining class and
-                // ensure that all overriding implementations of this method are marked dispatchable.
-                visitReachableSubclassesPreOrder(definingClass, (sc) -> {
-                    MethodElement cand = sc.resolveMethodElementVirtual(meth.getName(), meth.getDescriptor());
-                    if (cand != null && !isDispatchableMethod(cand)) {
-                        ReachabilityInfo.LOGGER.debugf("\tnewly dispatchable method due to down propagation: %s", cand);
-                        analysis.processReachableDispatchedInvocation(cand, null);
-                    }
-                });
-                // To ensure compatible vtable layouts, we must also propagate dispatchability up the class hierarchy.
-                // We do not have to propagate dispatchability up the interface hierarchy because the itable dispatch
-                // mechanism does not have the strong identical-prefix requirements for superinterfaces that vtables do for superclasses.
-                LoadedTypeDefinition ancestor = definingClass.getSuperClass();
-                while (ancestor != null) {
-                    MethodElement cand = ancestor.resolveMethodElementVirtual(meth.getName(), meth.getDescriptor());
-                    if (cand != null && !isDispatchableMethod(cand)) {
-                        ReachabilityInfo.LOGGER.debugf("\tnewly dispatchable method due to up propagation: %s", cand);
-                        analysis.processReachableDispatchedInvocation(cand, null);
-                    }
-                    ancestor = ancestor.getSuperClass();
+        addReachableType(meth.getEnclosingType().load());
+        if (!dispatchableMethods.add(meth)) return;
+
+        // First we must propagate dispatchability down the method family
+        LoadedTypeDefinition definingClass = meth.getEnclosingType().load();
+
+        if (definingClass.isInterface()) {
+            // Traverse the reachable extenders and implementors and handle as-if we just saw
+            // an invokevirtual/invokeinterface  of their overriding/implementing method
+            visitReachableImplementors(definingClass, (c) -> {
+                MethodElement cand;
+                if (c.isInterface()) {
+                    cand = c.resolveMethodElementInterface(meth.getName(), meth.getDescriptor());
+                } else {
+                    cand = c.resolveMethodElementVirtual(meth.getName(), meth.getDescriptor());
+                }
+                if (cand != null && !isDispatchableMethod(cand)) {
+                    ReachabilityInfo.LOGGER.debugf("\tnewly dispatchable method due to down propagation: %s", cand);
+                    analysis.processDispatchableMethod(cand);
+                }
+            });
+        } else {
+            // Traverse the instantiated subclasses of target's defining class and
+            // ensure that all overriding implementations of this method are marked dispatchable.
+            visitReachableSubclassesPreOrder(definingClass, (sc) -> {
+                MethodElement cand = sc.resolveMethodElementVirtual(meth.getName(), meth.getDescriptor());
+                if (cand != null && !isDispatchableMethod(cand)) {
+                    ReachabilityInfo.LOGGER.debugf("\tnewly dispatchable method due to down propagation: %s", cand);
+                    analysis.processDispatchableMethod(cand);
+                }
+            });
+            // To ensure compatible vtable layouts, we must also propagate dispatchability up the class hierarchy.
+            // We do not have to propagate dispatchability up the interface hierarchy because the itable dispatch
+            // mechanism does not have the strong identical-prefix requirements for superinterfaces that vtables do for superclasses.
+            LoadedTypeDefinition ancestor = definingClass.getSuperClass();
+            while (ancestor != null) {
+                MethodElement cand = ancestor.resolveMethodElementVirtual(meth.getName(), meth.getDescriptor());
+                if (cand != null && !isDispatchableMethod(cand)) {
+                    ReachabilityInfo.LOGGER.debugf("\tnewly dispatchable method due to up propagation: %s", cand);
+                    analysis.processDispatchableMethod(cand);
                 }
+                ancestor = ancestor.getSuperClass();
             }
         }
     }
@@ -0,0 +1,236 @@
+package org.qbicc.plugin.reachability;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.qbicc.type.definition.LoadedTypeDefinition;
+
+/**
+ * The classes whose instances may flow to a program point, for the {@link PointsToAnalysis}.  Each class added to a
+ * flow is passed on to the uses of the flow, such as the flows it is linked to and the call sites it is the receiver
+ * of.  Uses must tolerate being given the same class more than once.
+ * <p>
+ * Every flow has a bound, which is the declared type of the values it stands for.  A flow which holds more than
+ * {@link #SATURATION_CUTOFF} classes is saturated: from then on it stands for all instantiated subtypes of its
+ * bound, and its uses are given to the flow of all instances of the bound instead of being notified of each class
+ * separately.  This keeps the number of notifications proportional to the size of the program.
+ * <p>
+ * Classes are passed on through a per-thread work list rather than recursively, since chains of flows can be as long
+ * as the call graph is deep.
+ */
+final class TypeFlow {
+    /**
+     * The number of classes which a flow may hold before it is saturated.
+     */
+    static final int SATURATION_CUTOFF = 20;
+
+    private static final ThreadLocal<ArrayDeque<Object>> PENDING = ThreadLocal.withInitial(ArrayDeque::new);
+    private static final ThreadLocal<boolean[]> DRAINING = ThreadLocal.withInitial(() -> new boolean[1]);
+
+    private final PointsToAnalysis analysis;
+    private final LoadedTypeDefinition bound;
+    // whether this is the flow of all instances of the bound, which holds exactly the instantiated subtypes
+    private final boolean allInstances;
+    private volatile boolean saturated;
+    // both guarded by this
+    private Set<LoadedTypeDefinition> types;
+    private List<Consumer<LoadedTypeDefinition>> uses;
+
+    private TypeFlow(PointsToAnalysis analysis, LoadedTypeDefinition bound, boolean allInstances, boolean saturated) {
+        this.analysis = analysis;
+        this.bound = bound;
+        this.allInstances = allInstances;
+        this.saturated = saturated;
+    }
+
+    static TypeFlow of(PointsToAnalysis analysis, LoadedTypeDefinition bound) {
+        return new TypeFlow(analysis, bound, false, false);
+    }
+
+    static TypeFlow saturatedOf(PointsToAnalysis analysis, LoadedTypeDefinition bound) {
+        return new TypeFlow(analysis, bound, false, true);
+    }
+
+    static TypeFlow allInstancesOf(PointsToAnalysis analysis, LoadedTypeDefinition bound) {
+        return new TypeFlow(analysis, bound, true, false);
+    }
+
+    LoadedTypeDefinition getBound() {
+        return bound;
+    }
+
+    boolean isSaturated() {
+        return saturated || allInstances;
+    }
+
+    /**
+     * Add a class to this flow.
+     *
+     * @param type the class to add (must not be {@code null})
+     */
+    void add(LoadedTypeDefinition type) {
+        if (saturated && type.isSubtypeOf(bound)) {
+            // already stood for
+            return;
+        }
+        Object[] toNotify;
+        boolean saturate = false;
+        synchronized (this) {
+            if (types == null) {
+                types = new HashSet<>();
+            }
+            if (! types.add(type)) {
+                return;
+            }
+            toNotify = uses == null ? null : uses.toArray();
+            if (! allInstances && ! saturated && types.size() > SATURATION_CUTOFF) {
+                saturate = true;
+            }
+        }
+        if (toNotify != null) {
+            for (Object use : toNotify) {
+                schedule(use, type);
+            }
+        }
+        if (saturate) {
+            saturate();
+        }
+    }
+
+    /**
+     * Add a use to this flow.  The use is given every class which is in the flow or which is added to it later.
+     *
+     * @param use the use to add (must not be {@code null})
+     */
+    void addUse(Consumer<LoadedTypeDefinition> use) {
+        if (allInstances && use instanceof Edge edge && edge.coversAllInstancesOf(bound)) {
+            // everything this flow will ever hold is stood for by the target once it is saturated
+            edge.target.saturate();
+            return;
+        }
+        Object[] toReplay;
+        boolean wasSaturated;
+        synchronized (this) {
+            if (uses == null) {
+                uses = new ArrayList<>();
+            }
+            uses.add(use);
+            toReplay = types == null ? null : types.toArray();
+            wasSaturated = saturated;
+        }
+        if (toReplay != null) {
+            for (Object type : toReplay) {
+                schedule(use, type);
+            }
+        }
+        if (wasSaturated) {
+            analysis.allInstances(bound).addUse(use);
+        }
+    }
+
+    /**
+     * Add a use to this flow which adds each of its classes to the given flow.
+     *
+     * @param target the flow to link to (must not be {@code null})
+     */
+    void linkTo(TypeFlow target) {
+        if (target != this) {
+            addUse(new Edge(target, null));
+        }
+    }
+
+    /**
+     * Add a use to this flow which adds each of its classes which is a subtype of the given type to the given flow.
+     *
+     * @param target the flow to link to (must not be {@code null})
+     * @param filter the type which the classes must be a subtype of (must not be {@code null})
+     */
+    void linkTo(TypeFlow target, LoadedTypeDefinition filter) {
+        addUse(new Edge(target, filter));
+    }
+
+    /**
+     * Saturate this flow, so that it stands for all instantiated subtypes of its bound.
+     */
+    void saturate() {
+        if (! saturated && ! allInstances) {
+            schedule(this, null);
+        }
+    }
+
+    private void saturateNow() {
+        Object[] toMove;
+        synchronized (this) {
+            if (saturated) {
+                return;
+            }
+            saturated = true;
+            toMove = uses == null ? null : uses.toArray();
+        }
+        if (toMove != null) {
+            TypeFlow all = analysis.allInstances(bound);
+            for (Object use : toMove) {
+                all.addUse(castUse(use));
+            }
+        }
+    }
+
+    private static void schedule(Object use, Object type) {
+        ArrayDeque<Object> pending = PENDING.get();
+        pending.addLast(use);
+        if (type != null) {
+            pending.addLast(type);
+        }
+        boolean[] draining = DRAINING.get();
+        if (draining[0]) {
+            return;
+        }
+        draining[0] = true;
+        try {
+            Object item;
+            while ((item = pending.pollFirst()) != null) {
+                if (item instanceof TypeFlow flow) {
+                    flow.saturateNow();
+                } else {
+                    castUse(item).accept((LoadedTypeDefinition) pending.pollFirst());
+                }
+            }
+        } finally {
+            draining[0] = false;
+            pending.clear();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Consumer<LoadedTypeDefinition> castUse(Object use) {
+        return (Consumer<LoadedTypeDefinition>) use;
+    }
+
+    /**
+     * A use which adds classes to another flow.
+     */
+    static final class Edge implements Consumer<LoadedTypeDefinition> {
+        final TypeFlow target;
+        final LoadedTypeDefinition filter;
+
+        Edge(TypeFlow target, LoadedTypeDefinition filter) {
+            this.target = target;
+            this.filter = filter;
+        }
+
+        public void accept(LoadedTypeDefinition type) {
+            if (filter == null || type.isSubtypeOf(filter)) {
+                target.add(type);
+            }
+        }
+
+        boolean coversAllInstancesOf(LoadedTypeDefinition type) {
+            LoadedTypeDefinition targetBound = target.bound;
+            return type.isSubtypeOf(targetBound) || filter != null && filter.isSubtypeOf(targetBound);
+        }
+    }
+}
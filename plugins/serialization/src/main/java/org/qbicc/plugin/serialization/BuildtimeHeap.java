@@ -1,11 +1,20 @@
 package org.qbicc.plugin.serialization;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Supplier;
 
 import io.smallrye.common.constraint.Assert;
@@ -13,8 +22,12 @@ import org.jboss.logging.Logger;
 import org.qbicc.context.AttachmentKey;
 import org.qbicc.context.CompilationContext;
 import org.qbicc.graph.literal.BooleanLiteral;
+import org.qbicc.graph.literal.FloatLiteral;
+import org.qbicc.graph.literal.IntegerLiteral;
 import org.qbicc.graph.literal.Literal;
 import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.graph.literal.NullLiteral;
+import org.qbicc.graph.literal.ZeroInitializerLiteral;
 import org.qbicc.interpreter.Memory;
 import org.qbicc.interpreter.VmArray;
 import org.qbicc.interpreter.VmClass;
@@ -37,12 +50,14 @@ import org.qbicc.pointer.MemoryPointer;
 import org.qbicc.pointer.Pointer;
 import org.qbicc.pointer.ProgramObjectPointer;
 import org.qbicc.pointer.StaticMethodPointer;
+import org.qbicc.type.ArrayObjectType;
 import org.qbicc.type.ArrayType;
 import org.qbicc.type.ClassObjectType;
 import org.qbicc.type.CompoundType;
 import org.qbicc.type.FloatType;
 import org.qbicc.type.IntegerType;
 import org.qbicc.type.NullableType;
+import org.qbicc.type.ObjectType;
 import org.qbicc.type.PhysicalObjectType;
 import org.qbicc.type.PointerType;
 import org.qbicc.type.PrimitiveArrayObjectType;
@@ -51,6 +66,8 @@ import org.qbicc.type.ReferenceType;
 import org.qbicc.type.TypeSystem;
 import org.qbicc.type.TypeType;
 import org.qbicc.type.ValueType;
+import org.qbicc.type.VoidType;
+import org.qbicc.type.WordType;
 import org.qbicc.type.definition.DefinedTypeDefinition;
 import org.qbicc.type.definition.LoadedTypeDefinition;
 import org.qbicc.type.definition.element.ExecutableElement;
@@ -59,9 +76,24 @@ import org.qbicc.type.definition.element.StaticMethodElement;
 
 import static org.qbicc.graph.atomic.AccessModes.SinglePlain;
 
+/**
+ * The build time heap.  Serialization happens in two passes:
+ * <ul>
+ *     <li>Discovery, which may run concurrently on any number of threads, assigns each reachable object its section
+ *     and its symbol (or its offset in a heap image) and walks the objects it refers to, so that references to the
+ *     object can be created right away.  Objects are named and laid out in the order they are claimed, so the
+ *     output only has a stable order if discovery ran on one thread.</li>
+ *     <li>Emission, which runs once all objects are discovered, builds the contents of the objects in parallel,
+ *     partitioned by section and object type.</li>
+ * </ul>
+ */
 public class BuildtimeHeap {
     private static final AttachmentKey<BuildtimeHeap> KEY = new AttachmentKey<>();
     private static final Logger slog = Logger.getLogger("org.qbicc.plugin.serialization.stats");
+    /**
+     * The maximum number of objects of one section and type which are emitted as one unit of work
+     */
+    private static final int PARTITION_SIZE = 1024;
 
     private final CompilationContext ctxt;
     private final Layout layout;
@@ -69,11 +101,23 @@ public class BuildtimeHeap {
     /**
      * For lazy definition of native array types for literals
      */
-    private final HashMap<String, CompoundType> arrayTypes = new HashMap<>();
+    private final ConcurrentHashMap<String, CompoundType> arrayTypes = new ConcurrentHashMap<>();
+    /**
+     * For interning VmObjects (VmObjects have identity equality)
+     */
+    private final ConcurrentHashMap<VmObject, SerializedObject> vmObjects = new ConcurrentHashMap<>();
+    /**
+     * The objects which have been discovered but not yet emitted, in discovery order
+     */
+    private final ConcurrentLinkedQueue<SerializedObject> pending = new ConcurrentLinkedQueue<>();
+    /**
+     * The offsets of the reference fields of each class which must be walked during discovery
+     */
+    private final ConcurrentHashMap<LoadedTypeDefinition, int[]> referenceOffsets = new ConcurrentHashMap<>();
     /**
-     * For interning VmObjects
+     * The offsets of the pointer fields of each class which must be walked during discovery
      */
-    private final IdentityHashMap<VmObject, DataDeclaration> vmObjects = new IdentityHashMap<>();
+    private final ConcurrentHashMap<LoadedTypeDefinition, int[]> pointerOffsets = new ConcurrentHashMap<>();
     /**
      * The array of root classes which is intended to be the first object in the initial heap
      */
@@ -101,7 +145,20 @@ public class BuildtimeHeap {
      */
     private Literal[] rootClasses;
 
-    private int literalCounter = 0;
+    /**
+     * The pre-laid-out images of the object and interned string sections, if the heap is being serialized as images
+     */
+    private HeapImage objectImage;
+    private HeapImage stringImage;
+
+    private final AtomicInteger literalCounter = new AtomicInteger();
+    private final LongAdder serializedBytes = new LongAdder();
+    private final LongAdder discoveryTime = new LongAdder();
+    private long emissionTime;
+    /**
+     * Set once the discovered objects have been emitted; any object discovered later is emitted right away.
+     */
+    private volatile boolean emitted;
 
     private BuildtimeHeap(CompilationContext ctxt) {
         this.ctxt = ctxt;
@@ -125,10 +182,60 @@ public class BuildtimeHeap {
         return heap;
     }
 
+    /**
+     * Serialize the objects of the initial heap into a pre-laid-out image per section rather than into one global
+     * per object.  Must be called before any object is serialized.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     */
+    public static void enableImages(CompilationContext ctxt) {
+        BuildtimeHeap heap = get(ctxt);
+        synchronized (heap) {
+            if (! heap.vmObjects.isEmpty()) {
+                throw new IllegalStateException("Objects have already been serialized");
+            }
+            heap.objectImage = new HeapImage(ctxt, heap.objectSection, "qbicc_initial_heap_obj_image");
+            heap.stringImage = new HeapImage(ctxt, heap.stringSection, "qbicc_initial_heap_iss_image");
+        }
+    }
+
+    /**
+     * Emit every object which has been discovered so far, along with the root class array and the heap images.
+     * Objects which are discovered afterwards are emitted as they are discovered; since an image cannot grow once it
+     * is emitted, they are emitted as separate globals even if the heap is serialized as images.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     */
+    public static void emitObjects(CompilationContext ctxt) {
+        BuildtimeHeap heap = get(ctxt);
+        synchronized (heap) {
+            long start = System.nanoTime();
+            heap.emitPending(true);
+            heap.emitRootClassArray();
+            // objects discovered from now on are not allocated in the images
+            heap.emitted = true;
+            if (heap.objectImage != null) {
+                for (HeapImage image : List.of(heap.objectImage, heap.stringImage)) {
+                    if (slog.isDebugEnabled()) {
+                        slog.debugf("The initial heap image %s contains %,d objects in %,d bytes with %,d relocations.",
+                            image.getName(), image.getObjectCount(), image.getSize(), image.getRelocationCount());
+                    }
+                    ProgramModule module = image.getSection().getProgramModule();
+                    image.emit(r -> heap.referToSerializedVmObject(r.target(), (NullableType) r.type(), module));
+                }
+            }
+            heap.emissionTime = System.nanoTime() - start;
+            if (slog.isDebugEnabled()) {
+                heap.reportThroughput();
+            }
+        }
+    }
+
     public static void reportStats(CompilationContext ctxt) {
         if (!slog.isDebugEnabled()) return;
         BuildtimeHeap heap = ctxt.getAttachment(KEY);
         slog.debugf("The initial heap contains %,d objects.", heap.vmObjects.size());
+        heap.reportThroughput();
         HashMap<LoadedTypeDefinition, Integer> instanceCounts = new HashMap<>();
         for (VmObject obj : heap.vmObjects.keySet()) {
             LoadedTypeDefinition ltd = obj.getVmClass().getTypeDefinition();
@@ -141,6 +248,24 @@ public class BuildtimeHeap {
             .forEach(e -> slog.debugf("  %,6d instances of %s", e.getValue(), e.getKey().getDescriptor()));
     }
 
+    private void reportThroughput() {
+        long bytes = serializedBytes.sum();
+        long bytesPerSecond = emissionTime == 0 ? 0 : bytes * 1_000_000_000 / emissionTime;
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        if (emitted) {
+            slog.debugf("Discovered %,d bytes of initial heap in %,d ms of thread time; emitted %s in %,d ms (%,d bytes/s); peak compiler heap usage is %,d MiB.",
+                bytes, discoveryTime.sum() / 1_000_000, objectImage == null ? "literals" : "images", emissionTime / 1_000_000, bytesPerSecond, peakHeap >> 20);
+        } else {
+            slog.debugf("Discovered %,d bytes of initial heap in %,d ms of thread time; peak compiler heap usage is %,d MiB.",
+                bytes, discoveryTime.sum() / 1_000_000, peakHeap >> 20);
+        }
+    }
+
     void initializeRootClassArray(int numTypeIds) {
         LoadedTypeDefinition jlc = ctxt.getBootstrapClassContext().findDefinedType("java/lang/Class").load();
         CompoundType jlcType = layout.getInstanceLayoutInfo(jlc).getCompoundType();
@@ -150,7 +275,7 @@ public class BuildtimeHeap {
         rootClasses[0] = ctxt.getLiteralFactory().zeroInitializerLiteralOfType(jlc.getObjectType()); // TODO: Remove if we assign void typeId 0 instead of using 0 as an invalid typeId
     }
 
-    void emitRootClassArray() {
+    private void emitRootClassArray() {
         Data d = classSection.addData(null, rootClassesDecl.getName(), ctxt.getLiteralFactory().literalOf((ArrayType) rootClassesDecl.getValueType(), List.of(rootClasses)));
         d.setLinkage(Linkage.EXTERNAL);
     }
@@ -193,11 +318,58 @@ public class BuildtimeHeap {
         return decl;
     }
 
+    /**
+     * Get a pointer to every serialized object which may refer to another object at run time, including the root
+     * classes.  Primitive arrays and interned strings are excluded, since their contents never change to refer to
+     * another object.
+     *
+     * @param from the program module from which the objects are referenced (must not be {@code null})
+     * @return the list of object pointers (not {@code null})
+     */
+    public List<Literal> getReferenceHoldingObjects(ProgramModule from) {
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        PointerType bytePointer = ctxt.getTypeSystem().getUnsignedInteger8Type().getPointer();
+        List<Literal> objects = new ArrayList<>();
+        for (SerializedObject so : vmObjects.values()) {
+            VmObject value = so.value;
+            PhysicalObjectType ot = value.getObjectType();
+            if (so.section == classSection || ot instanceof PrimitiveArrayObjectType || ctxt.getVm().isInternedString(value)) {
+                continue;
+            }
+            if (ot instanceof ClassObjectType && ! hasReferenceMembers(layout.getInstanceLayoutInfo(ot.getDefinition()).getCompoundType())) {
+                continue;
+            }
+            if (so.image != null) {
+                objects.add(so.image.pointerTo(so.offset, from));
+            } else {
+                DataDeclaration decl = from.declareData(so.decl);
+                objects.add(lf.bitcastLiteral(lf.literalOf(decl), bytePointer));
+            }
+        }
+        from.declareData(rootClassesDecl);
+        Literal base = lf.bitcastLiteral(lf.literalOf(ProgramObjectPointer.of(rootClassesDecl)), ((ArrayType)rootClassesDecl.getValueType()).getElementType().getPointer());
+        for (int typeId = 1; typeId < rootClasses.length; typeId ++) {
+            if (rootClasses[typeId] != null && ! (rootClasses[typeId] instanceof ZeroInitializerLiteral)) {
+                objects.add(lf.bitcastLiteral(lf.elementOfLiteral(base, lf.literalOf(typeId)), bytePointer));
+            }
+        }
+        return objects;
+    }
+
+    private static boolean hasReferenceMembers(CompoundType type) {
+        for (CompoundType.Member member : type.getMembers()) {
+            if (member.getType() instanceof ReferenceType) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public boolean containsObject(VmObject value) {
         return vmObjects.containsKey(value);
     }
 
-    public synchronized Literal referToSerializedVmObject(VmObject value, NullableType desiredType, ProgramModule from) {
+    public Literal referToSerializedVmObject(VmObject value, NullableType desiredType, ProgramModule from) {
         if (isRootClass(value)) {
             LiteralFactory lf  = ctxt.getLiteralFactory();
             DataDeclaration d = from.declareData(rootClassesDecl); // d not used?
@@ -206,68 +378,149 @@ public class BuildtimeHeap {
             Literal elem = lf.elementOfLiteral(base, lf.literalOf(typeId));
             return ctxt.getLiteralFactory().valueConvertLiteral(elem, desiredType);
         } else {
-            DataDeclaration objDecl = vmObjects.get(value);
-            if (objDecl == null) {
+            SerializedObject so = vmObjects.get(value);
+            if (so == null) {
                 ctxt.warning("Requested VmObject not found in build time heap: " + value);
                 return ctxt.getLiteralFactory().zeroInitializerLiteralOfType(desiredType);
             }
-            DataDeclaration decl = from.declareData(objDecl);
+            if (so.image != null) {
+                return ctxt.getLiteralFactory().valueConvertLiteral(so.image.pointerTo(so.offset, from), desiredType);
+            }
+            DataDeclaration decl = from.declareData(so.decl);
             return ctxt.getLiteralFactory().valueConvertLiteral(ctxt.getLiteralFactory().literalOf(decl), desiredType);
         }
     }
 
-    public synchronized void serializeVmObject(VmObject value, boolean toInternedStringSection) {
-        if (toInternedStringSection) {
-            serializeVmObject(value, stringSection);
-        } else {
-            serializeVmObject(value, objectSection);
+    /**
+     * Serialize an object and every object reachable from it.  May be called concurrently from any number of threads;
+     * once this method returns, the object may be referred to by {@link #referToSerializedVmObject}.
+     *
+     * @param value the object to serialize (must not be {@code null})
+     * @param toInternedStringSection {@code true} to place the object with the interned strings
+     */
+    public void serializeVmObject(VmObject value, boolean toInternedStringSection) {
+        long start = System.nanoTime();
+        try {
+            discover(value, toInternedStringSection ? stringSection : objectSection);
+        } finally {
+            discoveryTime.add(System.nanoTime() - start);
         }
+        if (emitted && ! pending.isEmpty()) {
+            synchronized (this) {
+                emitPending(false);
+            }
+        }
+    }
+
+    // Discovery
+
+    private SerializedObject discover(VmObject value, ModuleSection into) {
+        SerializedObject so = vmObjects.get(value);
+        if (so != null) {
+            return so;
+        }
+        // walk the graph iteratively, so that long chains of objects do not exhaust the stack
+        ArrayDeque<SerializedObject> worklist = new ArrayDeque<>();
+        so = claim(value, into, worklist);
+        SerializedObject next;
+        while ((next = worklist.poll()) != null) {
+            scan(next, worklist);
+        }
+        return so;
     }
 
-    private void serializeVmObject(VmObject value, ModuleSection into) {
-        if (vmObjects.containsKey(value)) {
-            return;
+    private SerializedObject claim(VmObject value, ModuleSection into, ArrayDeque<SerializedObject> worklist) {
+        SerializedObject so = vmObjects.get(value);
+        if (so != null) {
+            return so;
         }
+        SerializedObject[] created = new SerializedObject[1];
+        so = vmObjects.computeIfAbsent(value, v -> created[0] = newSerializedObject(v, into));
+        if (so == created[0]) {
+            // this thread won the race, so it is responsible for the objects this one refers to
+            pending.add(so);
+            worklist.add(so);
+        }
+        return so;
+    }
+
+    private SerializedObject newSerializedObject(VmObject value, ModuleSection into) {
+        PhysicalObjectType ot = value.getObjectType();
         if (isRootClass(value)) {
-            int typeId = ((VmClass)value).getTypeDefinition().getTypeId();
-            if (rootClasses[typeId] != null) {
-                return;
+            LoadedTypeDefinition concreteType = ot.getDefinition().load();
+            CompoundType objType = layout.getInstanceLayoutInfo(concreteType).getCompoundType();
+            serializedBytes.add(objType.getSize());
+            return new SerializedObject(value, classSection, objType, null, null, -1);
+        }
+        CompoundType objType;
+        if (ot instanceof ClassObjectType) {
+            if (into == objectSection && ctxt.getVm().isInternedString(value)) {
+                // Detect when the first reference to an interned String is from some arbitrary heap object and override section
+                into = stringSection;
             }
+            objType = layout.getInstanceLayoutInfo(ot.getDefinition()).getCompoundType();
+        } else {
+            FieldElement contentsField = ot instanceof ReferenceArrayObjectType ? coreClasses.getRefArrayContentField() : coreClasses.getArrayContentField((PrimitiveArrayObjectType) ot);
+            LayoutInfo info = layout.getInstanceLayoutInfo(contentsField.getEnclosingType());
+            int length = value.getMemory().load32(info.getMember(coreClasses.getArrayLengthField()).getOffset(), SinglePlain);
+            objType = arrayLiteralType(contentsField, length);
         }
-        Layout layout = Layout.get(ctxt);
+        serializedBytes.add(objType.getSize());
+        if (objectImage != null && ! emitted) {
+            HeapImage image = into == stringSection ? stringImage : objectImage;
+            return new SerializedObject(value, into, objType, null, image, image.allocate(objType.getSize(), objType.getAlign()));
+        } else {
+            DataDeclaration decl = into.getProgramModule().declareData(null, nextLiteralName(into), objType);
+            return new SerializedObject(value, into, objType, decl, null, -1);
+        }
+    }
+
+    private void scan(SerializedObject so, ArrayDeque<SerializedObject> worklist) {
+        VmObject value = so.value;
         PhysicalObjectType ot = value.getObjectType();
+        Memory memory = value.getMemory();
         if (ot instanceof ClassObjectType) {
-            // Could be part of a cyclic object graph; must record the symbol for this object before we serialize its fields
             LoadedTypeDefinition concreteType = ot.getDefinition().load();
-            LayoutInfo objLayout = layout.getInstanceLayoutInfo(concreteType);
-            if (isRootClass(value)) {
-                int typeId = ((VmClass)value).getTypeDefinition().getTypeId();
-                rootClasses[typeId] = ctxt.getLiteralFactory().zeroInitializerLiteralOfType(value.getObjectType()); // indicate serialization has started
-                serializeVmObject(concreteType, objLayout, value, classSection, typeId, null); // now serialize and update rootClass[typeId]
-            } else {
-                if (into == objectSection && ctxt.getVm().isInternedString(value)) {
-                    // Detect when the first reference to an interned String is from some arbitrary heap object and override section
-                    into = stringSection;
+            ModuleSection into = so.section == classSection ? objectSection : so.section;
+            for (int offset : referenceOffsets.computeIfAbsent(concreteType, t -> findFieldOffsets(t, ReferenceType.class))) {
+                VmObject contents = memory.loadRef(offset, SinglePlain);
+                if (contents != null) {
+                    claim(contents, into, worklist);
+                }
+            }
+            for (int offset : pointerOffsets.computeIfAbsent(concreteType, t -> findFieldOffsets(t, PointerType.class))) {
+                if (memory.loadPointer(offset, SinglePlain) instanceof StaticMethodPointer smp) {
+                    // the method must be compiled if the object refers to it
+                    ctxt.enqueue(smp.getStaticMethod());
                 }
-                String name = nextLiteralName(into);
-                DataDeclaration decl = into.getProgramModule().declareData(null, name, objLayout.getCompoundType());
-                vmObjects.put(value, decl); // record declaration
-                serializeVmObject(concreteType, objLayout, value, into, -1, decl.getName()); // now serialize and define a Data
             }
         } else if (ot instanceof ReferenceArrayObjectType) {
-            // Could be part of a cyclic object graph; must record the symbol for this array before we serialize its elements
-            FieldElement contentsField = coreClasses.getRefArrayContentField();
-            LayoutInfo info = layout.getInstanceLayoutInfo(contentsField.getEnclosingType());
-            Memory memory = value.getMemory();
-            int length = memory.load32(info.getMember(coreClasses.getArrayLengthField()).getOffset(), SinglePlain);
-            CompoundType literalCT = arrayLiteralType(contentsField, length);
-            DataDeclaration decl = into.getProgramModule().declareData(null, nextLiteralName(into), literalCT);
-            vmObjects.put(value, decl); // record declaration
-            serializeRefArray((ReferenceArrayObjectType) ot, literalCT, length, into, decl, (VmArray)value); // now serialize
-        } else {
-            // Can't be part of cyclic structure; don't need to record declaration first
-            vmObjects.put(value, serializePrimArray((PrimitiveArrayObjectType) ot, (VmArray)value, into));
+            for (VmObject e : ((VmReferenceArray) value).getArray()) {
+                if (e != null) {
+                    claim(e, so.section, worklist);
+                }
+            }
+        }
+    }
+
+    private int[] findFieldOffsets(LoadedTypeDefinition concreteType, Class<? extends ValueType> typeClass) {
+        LayoutInfo objLayout = layout.getInstanceLayoutInfo(concreteType);
+        int[] offsets = new int[0];
+        for (LoadedTypeDefinition type = concreteType; type != null; type = type.hasSuperClass() ? type.getSuperClass() : null) {
+            int fc = type.getFieldCount();
+            for (int i=0; i<fc; i++) {
+                FieldElement f = type.getField(i);
+                if (f.isStatic() || f.getReplacementValue(ctxt) != null) {
+                    continue;
+                }
+                CompoundType.Member om = objLayout.getMember(f);
+                if (om != null && typeClass.isInstance(om.getType())) {
+                    offsets = Arrays.copyOf(offsets, offsets.length + 1);
+                    offsets[offsets.length - 1] = om.getOffset();
+                }
+            }
         }
+        return offsets;
     }
 
     private boolean isRootClass(VmObject value) {
@@ -276,24 +529,16 @@ public class BuildtimeHeap {
 
     private String nextLiteralName(ModuleSection into) {
         if (into == objectSection) {
-            return "qbicc_initial_heap_obj_" + (this.literalCounter++);
+            return "qbicc_initial_heap_obj_" + literalCounter.getAndIncrement();
         } else {
-            return "qbicc_initial_heap_iss_" + (this.literalCounter++);
+            return "qbicc_initial_heap_iss_" + literalCounter.getAndIncrement();
         }
     }
 
-    private Data defineData(ModuleSection into, String name, Literal value) {
-        Data d = into.addData(null, name, value);
-        d.setLinkage(Linkage.EXTERNAL);
-        return d;
-    }
-
     private CompoundType arrayLiteralType(FieldElement contents, int length) {
         LoadedTypeDefinition ltd = contents.getEnclosingType().load();
         String typeName = ltd.getInternalName() + "_" + length;
-        CompoundType sizedArrayType = arrayTypes.get(typeName);
-        Layout layout = Layout.get(ctxt);
-        if (sizedArrayType == null) {
+        return arrayTypes.computeIfAbsent(typeName, n -> {
             TypeSystem ts = ctxt.getTypeSystem();
             LayoutInfo objLayout = layout.getInstanceLayoutInfo(ltd);
             CompoundType arrayCT = objLayout.getCompoundType();
@@ -312,25 +557,117 @@ public class BuildtimeHeap {
                 return Arrays.asList(items);
             };
 
-            sizedArrayType = ts.getCompoundType(CompoundType.Tag.STRUCT, typeName, arrayCT.getSize() + sizedContentMem.getSize(), arrayCT.getAlign(), thunk);
-            arrayTypes.put(typeName, sizedArrayType);
+            return ts.getCompoundType(CompoundType.Tag.STRUCT, n, arrayCT.getSize() + sizedContentMem.getSize(), arrayCT.getAlign(), thunk);
+        });
+    }
+
+    // Emission
+
+    private void emitPending(boolean parallel) {
+        for (;;) {
+            // objects may still be discovered while emitting, if a field was changed after its object was discovered
+            List<SerializedObject> batch = new ArrayList<>();
+            SerializedObject polled;
+            while ((polled = pending.poll()) != null) {
+                batch.add(polled);
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            if (objectImage != null) {
+                objectImage.prepare();
+                stringImage.prepare();
+            }
+            Iterator<List<SerializedObject>> iterator = partition(batch).iterator();
+            if (parallel) {
+                ctxt.runParallelTask(ctxt -> {
+                    for (;;) {
+                        List<SerializedObject> partition;
+                        synchronized (iterator) {
+                            if (! iterator.hasNext()) {
+                                return;
+                            }
+                            partition = iterator.next();
+                        }
+                        emitPartition(partition);
+                    }
+                });
+            } else {
+                iterator.forEachRemaining(this::emitPartition);
+            }
+            // define the data in discovery order rather than in the order the partitions finished; the discovery order
+            // itself, like the names and image offsets, depends on the threads unless discovery ran on one thread
+            for (SerializedObject so : batch) {
+                if (so.decl != null) {
+                    defineData(so.section, so.decl.getName(), so.literal);
+                    so.literal = null;
+                }
+            }
         }
-        return sizedArrayType;
     }
 
-    private void serializeVmObject(LoadedTypeDefinition concreteType, LayoutInfo objLayout, VmObject value, ModuleSection into, int typeId, String name) {
-        Memory memory = value.getMemory();
-        LayoutInfo memLayout = layout.getInstanceLayoutInfo(concreteType);
-        CompoundType objType = objLayout.getCompoundType();
-        HashMap<CompoundType.Member, Literal> memberMap = new HashMap<>();
+    private static List<List<SerializedObject>> partition(List<SerializedObject> batch) {
+        LinkedHashMap<ModuleSection, LinkedHashMap<PhysicalObjectType, List<SerializedObject>>> bySection = new LinkedHashMap<>();
+        for (SerializedObject so : batch) {
+            bySection.computeIfAbsent(so.section, s -> new LinkedHashMap<>()).computeIfAbsent(so.value.getObjectType(), t -> new ArrayList<>()).add(so);
+        }
+        List<List<SerializedObject>> partitions = new ArrayList<>();
+        for (LinkedHashMap<PhysicalObjectType, List<SerializedObject>> byType : bySection.values()) {
+            for (List<SerializedObject> list : byType.values()) {
+                for (int i = 0; i < list.size(); i += PARTITION_SIZE) {
+                    partitions.add(list.subList(i, Math.min(list.size(), i + PARTITION_SIZE)));
+                }
+            }
+        }
+        // hand out the biggest units of work first
+        partitions.sort(Comparator.comparingInt(List<SerializedObject>::size).reversed());
+        return partitions;
+    }
+
+    private void emitPartition(List<SerializedObject> partition) {
+        ArrayList<HeapImage.Relocation> relocations = new ArrayList<>();
+        for (SerializedObject so : partition) {
+            if (so.section == classSection) {
+                emitRootClass(so);
+            } else if (so.image != null) {
+                writeToImage(so, relocations);
+            } else {
+                so.literal = buildLiteral(so);
+            }
+        }
+        if (! relocations.isEmpty()) {
+            // a partition only holds objects of one section, and so of one image
+            partition.get(0).image.addRelocations(relocations);
+        }
+    }
+
+    private Data defineData(ModuleSection into, String name, Literal value) {
+        Data d = into.addData(null, name, value);
+        d.setLinkage(Linkage.EXTERNAL);
+        return d;
+    }
 
-        populateMemberMap(concreteType, objType, objLayout, memLayout, memory, memberMap, into);
+    private void emitRootClass(SerializedObject so) {
+        LoadedTypeDefinition concreteType = so.value.getObjectType().getDefinition().load();
+        LayoutInfo objLayout = layout.getInstanceLayoutInfo(concreteType);
+        HashMap<CompoundType.Member, Literal> memberMap = new HashMap<>();
+        populateMemberMap(concreteType, so.type, objLayout, objLayout, so.value.getMemory(), memberMap, classSection);
+        rootClasses[((VmClass) so.value).getTypeDefinition().getTypeId()] = ctxt.getLiteralFactory().literalOf(so.type, memberMap);
+    }
 
-        // Define it!
-        if (typeId == -1) {
-            defineData(into, name, ctxt.getLiteralFactory().literalOf(objType, memberMap));
+    private Literal buildLiteral(SerializedObject so) {
+        PhysicalObjectType ot = so.value.getObjectType();
+        Memory memory = so.value.getMemory();
+        if (ot instanceof ClassObjectType) {
+            LoadedTypeDefinition concreteType = ot.getDefinition().load();
+            LayoutInfo objLayout = layout.getInstanceLayoutInfo(concreteType);
+            HashMap<CompoundType.Member, Literal> memberMap = new HashMap<>();
+            populateMemberMap(concreteType, so.type, objLayout, objLayout, memory, memberMap, so.section);
+            return ctxt.getLiteralFactory().literalOf(so.type, memberMap);
+        } else if (ot instanceof ReferenceArrayObjectType at) {
+            return buildRefArrayLiteral(at, so.type, so.section, (VmReferenceArray) so.value);
         } else {
-            rootClasses[typeId] = ctxt.getLiteralFactory().literalOf(objType, memberMap);
+            return buildPrimArrayLiteral((PrimitiveArrayObjectType) ot, so.type, so.section, (VmArray) so.value);
         }
     }
 
@@ -409,7 +746,7 @@ public class BuildtimeHeap {
                 if (contents == null) {
                     memberMap.put(om, lf.zeroInitializerLiteralOfType(om.getType()));
                 } else {
-                    serializeVmObject(contents, into == classSection ? objectSection : into);
+                    discover(contents, into == classSection ? objectSection : into);
                     memberMap.put(om, referToSerializedVmObject(contents, rt, into.getProgramModule()));
                 }
             } else if (im.getType() instanceof PointerType pt) {
@@ -419,7 +756,6 @@ public class BuildtimeHeap {
                 } else if (pointer instanceof StaticMethodPointer smp) {
                     // lower method pointers to their corresponding objects
                     StaticMethodElement method = smp.getStaticMethod();
-                    ctxt.enqueue(method);
                     Function function = ctxt.getExactFunction(method);
                     FunctionDeclaration decl = into.getProgramModule().declareFunction(function);
                     memberMap.put(om, lf.bitcastLiteral(lf.literalOf(ProgramObjectPointer.of(decl)), smp.getType()));
@@ -435,29 +771,28 @@ public class BuildtimeHeap {
         }
     }
 
-    private void serializeRefArray(ReferenceArrayObjectType at, CompoundType literalCT, int length, ModuleSection into, DataDeclaration sl, VmArray value) {
+    private Literal buildRefArrayLiteral(ReferenceArrayObjectType at, CompoundType literalCT, ModuleSection into, VmReferenceArray value) {
         LoadedTypeDefinition jlo = ctxt.getBootstrapClassContext().findDefinedType("java/lang/Object").load();
         LiteralFactory lf = ctxt.getLiteralFactory();
 
-        Layout layout = Layout.get(ctxt);
         Memory memory = value.getMemory();
         FieldElement contentField = coreClasses.getRefArrayContentField();
         DefinedTypeDefinition concreteType = contentField.getEnclosingType();
         LayoutInfo objLayout = layout.getInstanceLayoutInfo(concreteType);
-        LayoutInfo memLayout = this.layout.getInstanceLayoutInfo(concreteType);
         CompoundType objType = objLayout.getCompoundType();
         HashMap<CompoundType.Member, Literal> memberMap = new HashMap<>();
 
-        populateMemberMap(concreteType.load(), objType, objLayout, memLayout, memory, memberMap, into);
+        populateMemberMap(concreteType.load(), objType, objLayout, objLayout, memory, memberMap, into);
 
+        int length = memory.load32(objLayout.getMember(coreClasses.getArrayLengthField()).getOffset(), SinglePlain);
         List<Literal> elements = new ArrayList<>(length);
-        VmObject[] elementArray = ((VmReferenceArray) value).getArray();
+        VmObject[] elementArray = value.getArray();
         for (int i=0; i<length; i++) {
             VmObject e = elementArray[i];
             if (e == null) {
                 elements.add(lf.zeroInitializerLiteralOfType(at.getElementType()));
             } else {
-                serializeVmObject(e, into);
+                discover(e, into);
                 elements.add(referToSerializedVmObject(e, jlo.getClassType().getReference(), into.getProgramModule()));
             }
         }
@@ -468,21 +803,18 @@ public class BuildtimeHeap {
         memberMap.put(literalCT.getMember(literalCT.getMemberCount() - 1), lf.literalOf(arrayType, elements));
 
         // Define it with the literal type we generated above
-        defineData(into, sl.getName(), ctxt.getLiteralFactory().literalOf(literalCT, memberMap));
+        return ctxt.getLiteralFactory().literalOf(literalCT, memberMap);
     }
 
-    private DataDeclaration serializePrimArray(PrimitiveArrayObjectType at, VmArray value, ModuleSection into) {
+    private Literal buildPrimArrayLiteral(PrimitiveArrayObjectType at, CompoundType literalCT, ModuleSection into, VmArray value) {
         LiteralFactory lf = ctxt.getLiteralFactory();
-        Layout layout = Layout.get(ctxt);
         FieldElement contentsField = coreClasses.getArrayContentField(at);
         DefinedTypeDefinition concreteType = contentsField.getEnclosingType();
         LayoutInfo objLayout = layout.getInstanceLayoutInfo(concreteType);
-        LayoutInfo memLayout = this.layout.getInstanceLayoutInfo(concreteType);
         CompoundType objType = objLayout.getCompoundType();
 
         Memory memory = value.getMemory();
         int length = memory.load32(objLayout.getMember(coreClasses.getArrayLengthField()).getOffset(), SinglePlain);
-        CompoundType literalCT = arrayLiteralType(contentsField, length);
 
         Literal arrayContentsLiteral;
         if (contentsField.equals(coreClasses.getByteArrayContentField())) {
@@ -532,12 +864,224 @@ public class BuildtimeHeap {
 
         HashMap<CompoundType.Member, Literal> memberMap = new HashMap<>();
 
-        populateMemberMap(concreteType.load(), objType, objLayout, memLayout, memory, memberMap, into);
+        populateMemberMap(concreteType.load(), objType, objLayout, objLayout, memory, memberMap, into);
 
         // add the actual array contents
         memberMap.put(literalCT.getMember(literalCT.getMemberCount() - 1), arrayContentsLiteral);
 
-        Data arrayData = defineData(into, nextLiteralName(into), ctxt.getLiteralFactory().literalOf(literalCT, memberMap));
-        return arrayData.getDeclaration();
+        return ctxt.getLiteralFactory().literalOf(literalCT, memberMap);
+    }
+
+    private void writeToImage(SerializedObject so, List<HeapImage.Relocation> relocations) {
+        VmObject value = so.value;
+        HeapImage image = so.image;
+        int offset = so.offset;
+        PhysicalObjectType ot = value.getObjectType();
+        Memory memory = value.getMemory();
+        if (ot instanceof ClassObjectType) {
+            LoadedTypeDefinition concreteType = ot.getDefinition().load();
+            writeFieldsToImage(concreteType, layout.getInstanceLayoutInfo(concreteType), memory, image, offset, relocations);
+        } else if (ot instanceof ReferenceArrayObjectType) {
+            LoadedTypeDefinition jlo = ctxt.getBootstrapClassContext().findDefinedType("java/lang/Object").load();
+            ReferenceType elementType = jlo.getClassType().getReference();
+            FieldElement contentsField = coreClasses.getRefArrayContentField();
+            LoadedTypeDefinition concreteType = contentsField.getEnclosingType().load();
+            LayoutInfo objLayout = layout.getInstanceLayoutInfo(concreteType);
+            int length = memory.load32(objLayout.getMember(coreClasses.getArrayLengthField()).getOffset(), SinglePlain);
+            writeFieldsToImage(concreteType, objLayout, memory, image, offset, relocations);
+            int elementOffset = offset + objLayout.getMember(contentsField).getOffset();
+            int elementSize = (int) elementType.getSize();
+            VmObject[] elementArray = ((VmReferenceArray) value).getArray();
+            for (int i = 0; i < length; i++) {
+                VmObject e = elementArray[i];
+                if (e != null) {
+                    discover(e, so.section);
+                    relocations.add(HeapImage.Relocation.of(elementOffset + i * elementSize, elementType, e));
+                }
+            }
+        } else {
+            PrimitiveArrayObjectType at = (PrimitiveArrayObjectType) ot;
+            WordType elementType = at.getElementType();
+            FieldElement contentsField = coreClasses.getArrayContentField(at);
+            LoadedTypeDefinition concreteType = contentsField.getEnclosingType().load();
+            LayoutInfo objLayout = layout.getInstanceLayoutInfo(concreteType);
+            int length = memory.load32(objLayout.getMember(coreClasses.getArrayLengthField()).getOffset(), SinglePlain);
+            writeFieldsToImage(concreteType, objLayout, memory, image, offset, relocations);
+            int elementOffset = offset + objLayout.getMember(contentsField).getOffset();
+            int elementSize = (int) elementType.getSize();
+            Object contents = ((VmArray) value).getArray();
+            if (contents instanceof byte[] bytes) {
+                image.putBytes(elementOffset, bytes);
+            } else if (contents instanceof boolean[] booleans) {
+                for (int i = 0; i < length; i++) {
+                    image.putInt(elementOffset + i * elementSize, elementType, booleans[i] ? 1 : 0);
+                }
+            } else if (contents instanceof short[] shorts) {
+                for (int i = 0; i < length; i++) {
+                    image.putInt(elementOffset + i * elementSize, elementType, shorts[i]);
+                }
+            } else if (contents instanceof char[] chars) {
+                for (int i = 0; i < length; i++) {
+                    image.putInt(elementOffset + i * elementSize, elementType, chars[i]);
+                }
+            } else if (contents instanceof int[] ints) {
+                for (int i = 0; i < length; i++) {
+                    image.putInt(elementOffset + i * elementSize, elementType, ints[i]);
+                }
+            } else if (contents instanceof long[] longs) {
+                for (int i = 0; i < length; i++) {
+                    image.putInt(elementOffset + i * elementSize, elementType, longs[i]);
+                }
+            } else if (contents instanceof float[] floats) {
+                for (int i = 0; i < length; i++) {
+                    image.putFloat(elementOffset + i * elementSize, floats[i]);
+                }
+            } else {
+                double[] doubles = (double[]) contents;
+                for (int i = 0; i < length; i++) {
+                    image.putDouble(elementOffset + i * elementSize, doubles[i]);
+                }
+            }
+        }
+    }
+
+    private void writeFieldsToImage(final LoadedTypeDefinition concreteType, final LayoutInfo objLayout, final Memory memory, final HeapImage image, final int base,
+                                    final List<HeapImage.Relocation> relocations) {
+        if (concreteType.hasSuperClass()) {
+            writeFieldsToImage(concreteType.getSuperClass(), objLayout, memory, image, base, relocations);
+        }
+
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        // Iterate over declared instance fields and copy values from the backing Memory to the image
+        int fc = concreteType.getFieldCount();
+        for (int i=0; i<fc; i++) {
+            FieldElement f = concreteType.getField(i);
+            if (f.isStatic()) {
+                continue;
+            }
+
+            CompoundType.Member om = objLayout.getMember(f);
+            if (om == null) {
+                ctxt.warning("Field " + f +" not serialized due to incomplete layout");
+                continue;
+            }
+            int offset = base + om.getOffset();
+            ValueType type = om.getType();
+            Literal replacement = f.getReplacementValue(ctxt);
+            if (replacement != null) {
+                writeLiteralToImage(image, offset, type, replacement, relocations);
+            } else if (type instanceof IntegerType it) {
+                if (it.getSize() == 1) {
+                    image.putInt(offset, it, memory.load8(om.getOffset(), SinglePlain));
+                } else if (it.getSize() == 2) {
+                    image.putInt(offset, it, memory.load16(om.getOffset(), SinglePlain));
+                } else if (it.getSize() == 4) {
+                    image.putInt(offset, it, memory.load32(om.getOffset(), SinglePlain));
+                } else {
+                    Pointer asPointerVal = memory.loadPointer(om.getOffset(), SinglePlain);
+                    if (asPointerVal instanceof IntegerAsPointer iap) {
+                        image.putInt(offset, it, iap.getValue());
+                    } else if (asPointerVal instanceof MemoryPointer mp) {
+                        ctxt.error(f.getLocation(), "An object contains a memory pointer: %s", mp);
+                    } else if (asPointerVal != null) {
+                        relocations.add(HeapImage.Relocation.of(offset, it, lf.bitcastLiteral(lf.literalOf(asPointerVal), it)));
+                    }
+                }
+            } else if (type instanceof FloatType ft) {
+                if (ft.getSize() == 4) {
+                    image.putFloat(offset, memory.loadFloat(om.getOffset(), SinglePlain));
+                } else {
+                    image.putDouble(offset, memory.loadDouble(om.getOffset(), SinglePlain));
+                }
+            } else if (type instanceof TypeType tt) {
+                ValueType valueType = memory.loadType(om.getOffset(), SinglePlain);
+                if (valueType != null) {
+                    image.putInt(offset, tt, getTypeId(valueType));
+                }
+            } else if (type instanceof ArrayType) {
+                if (type.getSize() > 0) {
+                    throw new UnsupportedOperationException("Copying array data is not yet supported");
+                }
+            } else if (type instanceof ReferenceType rt) {
+                VmObject contents = memory.loadRef(om.getOffset(), SinglePlain);
+                if (contents != null) {
+                    discover(contents, image.getSection());
+                    relocations.add(HeapImage.Relocation.of(offset, rt, contents));
+                }
+            } else if (type instanceof PointerType pt) {
+                Pointer pointer = memory.loadPointer(om.getOffset(), SinglePlain);
+                if (pointer instanceof StaticMethodPointer smp) {
+                    // lower method pointers to their corresponding objects
+                    StaticMethodElement method = smp.getStaticMethod();
+                    Function function = ctxt.getExactFunction(method);
+                    FunctionDeclaration decl = image.getSection().getProgramModule().declareFunction(function);
+                    relocations.add(HeapImage.Relocation.of(offset, pt, lf.bitcastLiteral(lf.literalOf(ProgramObjectPointer.of(decl)), smp.getType())));
+                } else if (pointer instanceof MemoryPointer mp) {
+                    ctxt.error(f.getLocation(), "An object contains a memory pointer: %s", mp);
+                } else if (pointer != null) {
+                    relocations.add(HeapImage.Relocation.of(offset, pt, lf.literalOf(pointer)));
+                }
+            } else {
+                ctxt.warning("Serializing " + f + " as zero literal. Unsupported type");
+            }
+        }
+    }
+
+    private void writeLiteralToImage(HeapImage image, int offset, ValueType type, Literal value, List<HeapImage.Relocation> relocations) {
+        if (value instanceof BooleanLiteral bl && type instanceof IntegerType it) {
+            image.putInt(offset, it, bl.booleanValue() ? 1 : 0);
+        } else if (value instanceof IntegerLiteral il && type instanceof WordType wt) {
+            image.putInt(offset, wt, il.longValue());
+        } else if (value instanceof FloatLiteral fl && type instanceof FloatType ft) {
+            if (ft.getSize() == 4) {
+                image.putFloat(offset, fl.floatValue());
+            } else {
+                image.putDouble(offset, fl.doubleValue());
+            }
+        } else if (! (value instanceof ZeroInitializerLiteral || value instanceof NullLiteral)) {
+            relocations.add(HeapImage.Relocation.of(offset, type, value));
+        }
+    }
+
+    private int getTypeId(ValueType type) {
+        // must agree with the lowering of type literals by the back end
+        if (type instanceof ArrayObjectType aot) {
+            return coreClasses.getArrayContentField(aot).getEnclosingType().load().getTypeId();
+        } else if (type instanceof ObjectType ot) {
+            return ot.getDefinition().load().getTypeId();
+        } else if (type instanceof WordType wt) {
+            return wt.asPrimitive().getTypeId();
+        } else if (type instanceof VoidType vt) {
+            return vt.asPrimitive().getTypeId();
+        } else {
+            ctxt.error("Cannot serialize type %s into the initial heap image", type);
+            return 0;
+        }
+    }
+
+    /**
+     * A discovered object, which is either defined as its own global or placed in a heap image.  Root classes are
+     * elements of the root class array instead.
+     */
+    private static final class SerializedObject {
+        final VmObject value;
+        final ModuleSection section;
+        final CompoundType type;
+        final DataDeclaration decl;
+        final HeapImage image;
+        final int offset;
+        /**
+         * The contents of the object, between its emission and its definition
+         */
+        Literal literal;
+
+        SerializedObject(VmObject value, ModuleSection section, CompoundType type, DataDeclaration decl, HeapImage image, int offset) {
+            this.value = value;
+            this.section = section;
+            this.type = type;
+            this.decl = decl;
+            this.image = image;
+            this.offset = offset;
+        }
     }
 }
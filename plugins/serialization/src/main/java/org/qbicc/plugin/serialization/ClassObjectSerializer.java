@@ -36,7 +36,6 @@ public class ClassObjectSerializer implements Consumer<CompilationContext> {
             bth.serializeVmObject(vmClass, false);
         });
 
-        bth.emitRootClassArray();
         bth.emitRootClassDictionaries(reachable);
     }
 }
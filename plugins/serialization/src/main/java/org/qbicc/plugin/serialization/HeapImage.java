@@ -0,0 +1,252 @@
+package org.qbicc.plugin.serialization;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Function;
+
+import io.smallrye.common.constraint.Assert;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.literal.Literal;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.interpreter.VmObject;
+import org.qbicc.object.Data;
+import org.qbicc.object.DataDeclaration;
+import org.qbicc.object.Linkage;
+import org.qbicc.object.ModuleSection;
+import org.qbicc.object.ProgramModule;
+import org.qbicc.pointer.ProgramObjectPointer;
+import org.qbicc.type.ArrayType;
+import org.qbicc.type.CompoundType;
+import org.qbicc.type.PointerType;
+import org.qbicc.type.TypeSystem;
+import org.qbicc.type.UnsignedIntegerType;
+import org.qbicc.type.ValueType;
+import org.qbicc.type.WordType;
+
+/**
+ * A contiguous, pre-laid-out image of a part of the initial heap.  Objects are appended to a byte buffer in their
+ * target layout, and each word which cannot be known until link time (references, function pointers, and the like)
+ * is recorded as a relocation.  The image is emitted as a single global whose type is a run of opaque byte chunks
+ * interleaved with the relocated words.
+ */
+final class HeapImage {
+    private final CompilationContext ctxt;
+    private final ModuleSection section;
+    private final String name;
+    private final ArrayType placeholderType;
+    private final PointerType bytePointer;
+    private final ArrayList<Relocation> relocations = new ArrayList<>();
+    private ByteBuffer buffer;
+    private int size;
+    private int align = 1;
+    private int objectCount;
+    private boolean emitted;
+    /**
+     * The declaration of the image in its own module, which is only available once the image is being emitted.
+     */
+    private DataDeclaration definition;
+
+    HeapImage(CompilationContext ctxt, ModuleSection section, String name) {
+        this.ctxt = ctxt;
+        this.section = section;
+        this.name = name;
+        TypeSystem ts = ctxt.getTypeSystem();
+        UnsignedIntegerType u8 = ts.getUnsignedInteger8Type();
+        this.placeholderType = ts.getArrayType(u8, 0);
+        this.bytePointer = u8.getPointer();
+        this.buffer = ByteBuffer.allocate(1 << 16).order(ts.getEndianness());
+    }
+
+    String getName() {
+        return name;
+    }
+
+    ModuleSection getSection() {
+        return section;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    int getObjectCount() {
+        return objectCount;
+    }
+
+    int getRelocationCount() {
+        return relocations.size();
+    }
+
+    /**
+     * Reserve zero-filled space for an object in the image.  May be called concurrently; the space is not backed by
+     * the buffer until the image is {@linkplain #prepare() prepared}.
+     *
+     * @param objectSize the size of the object in bytes
+     * @param objectAlign the alignment of the object
+     * @return the offset of the object from the start of the image
+     */
+    synchronized int allocate(long objectSize, int objectAlign) {
+        Assert.checkMinimumParameter("objectAlign", 1, objectAlign);
+        if (emitted) {
+            throw new IllegalStateException("Initial heap image " + name + " has already been emitted");
+        }
+        long offset = (size + objectAlign - 1) & -(long) objectAlign;
+        long end = offset + objectSize;
+        if (end > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Initial heap image " + name + " is too large");
+        }
+        size = (int) end;
+        align = Math.max(align, objectAlign);
+        objectCount++;
+        return (int) offset;
+    }
+
+    /**
+     * Grow the buffer to cover every object allocated so far, so that their contents can be written.  Must not be
+     * called while contents are being written.
+     */
+    synchronized void prepare() {
+        if (size > buffer.capacity()) {
+            ByteBuffer newBuffer = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE, Math.max(size, (long) buffer.capacity() << 1))).order(buffer.order());
+            newBuffer.put(0, buffer, 0, buffer.capacity());
+            buffer = newBuffer;
+        }
+    }
+
+    void putInt(int offset, WordType type, long value) {
+        switch ((int) type.getSize()) {
+            case 1 -> buffer.put(offset, (byte) value);
+            case 2 -> buffer.putShort(offset, (short) value);
+            case 4 -> buffer.putInt(offset, (int) value);
+            case 8 -> buffer.putLong(offset, value);
+            default -> throw new IllegalArgumentException("Unsupported word size: " + type);
+        }
+    }
+
+    void putFloat(int offset, float value) {
+        buffer.putFloat(offset, value);
+    }
+
+    void putDouble(int offset, double value) {
+        buffer.putDouble(offset, value);
+    }
+
+    void putBytes(int offset, byte[] bytes) {
+        buffer.put(offset, bytes);
+    }
+
+    /**
+     * Record the words of the image which are only known at link time.  May be called concurrently.
+     *
+     * @param relocations the relocations to add (must not be {@code null})
+     */
+    synchronized void addRelocations(List<Relocation> relocations) {
+        this.relocations.addAll(relocations);
+    }
+
+    /**
+     * Get a pointer to the object at the given offset in this image, as seen from the given module.
+     *
+     * @param offset the offset of the object
+     * @param from the referencing module (must not be {@code null})
+     * @return the pointer literal (not {@code null})
+     */
+    Literal pointerTo(int offset, ProgramModule from) {
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        DataDeclaration decl;
+        if (definition != null && from == section.getProgramModule()) {
+            decl = definition;
+        } else {
+            // the size of the image is not known until it is emitted, so other modules only see an unsized array
+            decl = from.declareData(null, name, placeholderType);
+        }
+        Literal base = lf.bitcastLiteral(lf.literalOf(ProgramObjectPointer.of(decl)), bytePointer);
+        return lf.elementOfLiteral(base, lf.literalOf(offset));
+    }
+
+    /**
+     * Emit the image into its section.  No more objects may be added to the image afterwards.
+     *
+     * @param resolver the function which resolves a reference to a serialized object in the image module
+     */
+    synchronized void emit(Function<Relocation, Literal> resolver) {
+        ByteBuffer buffer = this.buffer;
+        this.buffer = null;
+        emitted = true;
+        if (size == 0) {
+            return;
+        }
+        TypeSystem ts = ctxt.getTypeSystem();
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        UnsignedIntegerType u8 = ts.getUnsignedInteger8Type();
+        relocations.sort(Comparator.comparingInt(Relocation::offset));
+        int imageSize = (size + align - 1) & -align;
+        List<CompoundType.Member> members = new ArrayList<>(relocations.size() * 2 + 1);
+        CompoundType.Member[] relocationMembers = new CompoundType.Member[relocations.size()];
+        HashMap<CompoundType.Member, Literal> values = new HashMap<>();
+        int cursor = 0;
+        for (int i = 0; i < relocationMembers.length; i++) {
+            Relocation relocation = relocations.get(i);
+            int offset = relocation.offset();
+            if (offset > cursor) {
+                addChunk(ts, lf, u8, buffer, cursor, offset, members, values);
+            }
+            CompoundType.Member member = ts.getCompoundTypeMember("r" + offset, relocation.type(), offset, relocation.type().getAlign());
+            members.add(member);
+            relocationMembers[i] = member;
+            if (relocation.target() == null) {
+                values.put(member, relocation.value());
+            }
+            cursor = offset + (int) relocation.type().getSize();
+        }
+        if (imageSize > cursor) {
+            addChunk(ts, lf, u8, buffer, cursor, imageSize, members, values);
+        }
+        CompoundType imageType = ts.getCompoundType(CompoundType.Tag.NONE, name, imageSize, align, () -> members);
+        definition = section.getProgramModule().declareData(null, name, imageType);
+        // resolve the deferred references now that the image can refer to itself
+        for (int i = 0; i < relocationMembers.length; i++) {
+            Relocation relocation = relocations.get(i);
+            if (relocation.target() != null) {
+                values.put(relocationMembers[i], resolver.apply(relocation));
+            }
+        }
+        relocations.clear();
+        relocations.trimToSize();
+        Data data = section.addData(null, name, lf.literalOf(imageType, values));
+        data.setLinkage(Linkage.EXTERNAL);
+    }
+
+    private static void addChunk(TypeSystem ts, LiteralFactory lf, UnsignedIntegerType u8, ByteBuffer buffer, int start, int end, List<CompoundType.Member> members, HashMap<CompoundType.Member, Literal> values) {
+        ArrayType chunkType = ts.getArrayType(u8, end - start);
+        CompoundType.Member member = ts.getCompoundTypeMember("b" + start, chunkType, start, 1);
+        members.add(member);
+        // the buffer may be shorter than the image if the image has trailing padding
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes, 0, Math.min(end, buffer.capacity()) - start);
+        for (byte b : bytes) {
+            if (b != 0) {
+                values.put(member, lf.literalOf(chunkType, bytes));
+                return;
+            }
+        }
+        // all-zero chunks are left out of the value map and emitted as zero initializers
+    }
+
+    /**
+     * A word of the image whose value is either a literal or a reference to a serialized object.  References are
+     * resolved when the image is emitted, because the object may be in this very image.
+     */
+    record Relocation(int offset, ValueType type, Literal value, VmObject target) {
+        static Relocation of(int offset, ValueType type, Literal value) {
+            return new Relocation(offset, type, value, null);
+        }
+
+        static Relocation of(int offset, ValueType type, VmObject target) {
+            return new Relocation(offset, type, null, target);
+        }
+    }
+}
@@ -6,6 +6,7 @@ import static org.qbicc.runtime.stdc.String.*;
 
 import org.qbicc.runtime.AutoQueued;
 import org.qbicc.runtime.Hidden;
+import org.qbicc.runtime.ThreadScoped;
 import org.qbicc.runtime.gc.heap.Heap;
 
 /**
@@ -17,10 +18,61 @@ public final class NoGcHelpers {
     // our allocation position
     private static long pos;
 
+    /**
+     * The next free byte of the current thread's allocation buffer.
+     */
+    @ThreadScoped
+    static void_ptr _qbicc_nogc_tlab_pos;
+
+    /**
+     * The end of the current thread's allocation buffer.
+     */
+    @ThreadScoped
+    static void_ptr _qbicc_nogc_tlab_end;
+
+    /**
+     * Get the configured size of each thread-local allocation buffer.
+     * It is always the case that the size is zero or a multiple of the object alignment.
+     *
+     * @return the configured buffer size in bytes, or {@code 0} if thread-local allocation buffers are disabled
+     */
+    public static native long getConfiguredTlabSize();
+
     @Hidden
     @AutoQueued
     public static Object allocate(long size, int align) {
         // todo: per-object alignment - should we allow it? perhaps not (ignore for now)
+        long tlabSize = getConfiguredTlabSize();
+        if (tlabSize == 0) {
+            return allocateShared(size);
+        }
+        int objAlign = Heap.getConfiguredObjectAlignment();
+        int objAlignMask = objAlign - 1;
+        long alignedSize = size + objAlignMask & ~objAlignMask;
+        // this is only ever accessed by the current thread
+        void_ptr tlabPos = _qbicc_nogc_tlab_pos;
+        if (alignedSize <= _qbicc_nogc_tlab_end.longValue() - tlabPos.longValue()) {
+            _qbicc_nogc_tlab_pos = tlabPos.plus(alignedSize);
+            return ptrToRef(tlabPos);
+        }
+        return allocateSlow(alignedSize, tlabSize);
+    }
+
+    @Hidden
+    @AutoQueued
+    public static Object allocateSlow(long size, long tlabSize) {
+        if (size > tlabSize >> 1) {
+            // too big to be worth buffering; the remainder of the current buffer stays usable
+            return allocateShared(size);
+        }
+        // retire the current buffer (its remainder is wasted) and claim a new one
+        void_ptr start = (void_ptr)(ptr<?>)refToPtr(allocateShared(tlabSize));
+        _qbicc_nogc_tlab_pos = start.plus(size);
+        _qbicc_nogc_tlab_end = start.plus(tlabSize);
+        return ptrToRef(start);
+    }
+
+    private static Object allocateShared(long size) {
         int64_t_ptr posPtr = addr_of(pos);
 
         long oldPos, newPos;
@@ -0,0 +1,476 @@
+package org.qbicc.runtime.gc.semispace;
+
+import static org.qbicc.runtime.CNative.*;
+import static org.qbicc.runtime.stdc.Stdint.*;
+import static org.qbicc.runtime.stdc.Stdlib.*;
+import static org.qbicc.runtime.stdc.String.*;
+
+import org.qbicc.runtime.AutoQueued;
+import org.qbicc.runtime.Hidden;
+import org.qbicc.runtime.gc.heap.Heap;
+import org.qbicc.runtime.main.CompilerIntrinsics;
+import org.qbicc.runtime.main.VMHelpers;
+import org.qbicc.runtime.stackwalk.MethodData;
+import org.qbicc.runtime.stackwalk.StackWalker;
+
+/**
+ * A stop-the-world semispace copying collector.
+ * <p>
+ * The heap is divided into two spaces of equal size.  Objects are allocated from one of them by bumping a pointer.
+ * When that space is exhausted, the live objects are copied into the other space using Cheney's algorithm, and the
+ * spaces are exchanged.  The roots of a collection are:
+ * <ul>
+ *     <li>the reference slots of the frames of the current thread, as recorded in the LLVM stack maps,</li>
+ *     <li>the static fields of reference type,</li>
+ *     <li>the objects of the initial heap which may hold references, and</li>
+ *     <li>the current thread.</li>
+ * </ul>
+ * Instances of {@link Thread} are pinned, because their addresses are held by native code.  They are allocated
+ * outside of the spaces and are never moved, and those which are not reached by a collection are freed.
+ * <p>
+ * Only the current thread's stack can be scanned, so no collection takes place while a started thread is running.
+ * The stacks of the other threads may refer to any object, so an object which does not fit in the exhausted space is
+ * pinned instead until the other threads have finished.
+ */
+public final class SemispaceHelpers {
+    private SemispaceHelpers() {}
+
+    /**
+     * The space from which objects are allocated, or {@code null} if the spaces were not yet established.
+     */
+    private static void_ptr space;
+    /**
+     * The space into which the next collection copies the live objects.
+     */
+    private static void_ptr reserve;
+    /**
+     * The size of each space.
+     */
+    private static long spaceSize;
+    /**
+     * The offset of the next free byte of the allocation space.
+     */
+    private static long pos;
+    /**
+     * The bitmap of objects of the allocation space which were copied by the current collection, with one bit for
+     * each unit of object alignment.
+     */
+    private static uint8_t_ptr forwarded;
+    /**
+     * The next free byte of the reserve space during a collection.
+     */
+    private static void_ptr copyPos;
+    /**
+     * The pinned objects, which are sorted by address at the start of each collection.
+     */
+    private static void_ptr_ptr pinned;
+    /**
+     * The state of each pinned object during a collection: {@code 0} if it was not reached, {@code 1} if it was reached
+     * but not yet scanned, and {@code 2} if it was scanned.
+     */
+    private static uint8_t_ptr pinnedMarks;
+    private static int pinnedCount;
+    private static int pinnedCapacity;
+    /**
+     * The lock which guards the spaces and the pinned objects ({@code 1} while held).
+     */
+    private static int lockState;
+    private static long collectionCount;
+    private static long copiedBytes;
+
+    @Hidden
+    @AutoQueued
+    public static Object allocate(long size, int align) {
+        // todo: per-object alignment - should we allow it? perhaps not (ignore for now)
+        int objAlignMask = Heap.getConfiguredObjectAlignment() - 1;
+        long alignedSize = size + objAlignMask & ~objAlignMask;
+        void_ptr ptr = tryAllocate(alignedSize);
+        if (ptr.isNull()) {
+            if (! tryCollect()) {
+                return allocatePinned(alignedSize, align);
+            }
+            ptr = tryAllocate(alignedSize);
+            if (ptr.isNull()) {
+                throw Heap.OOME;
+            }
+        }
+        return ptrToRef(ptr);
+    }
+
+    /**
+     * Allocate an object whose type is not known at build time, pinning it if it is a {@link Thread}.
+     */
+    @Hidden
+    @AutoQueued
+    public static Object allocateInstance(type_id typeId, long size, int align) {
+        int threadTypeId = CompilerIntrinsics.getTypeIdFromClass(Thread.class).intValue();
+        int maxThreadTypeId = CompilerIntrinsics.maxSubClassTypeIdOf(word(threadTypeId)).intValue();
+        int id = typeId.intValue();
+        if (threadTypeId <= id && id <= maxThreadTypeId) {
+            return allocatePinned(size, align);
+        }
+        return allocate(size, align);
+    }
+
+    /**
+     * Allocate an object which is never moved.
+     */
+    @Hidden
+    @AutoQueued
+    public static Object allocatePinned(long size, int align) {
+        // malloc alignment is at least the object alignment
+        void_ptr ptr = calloc(word(1), word(size));
+        if (ptr.isNull()) {
+            throw Heap.OOME;
+        }
+        lock();
+        if (pinnedCount == pinnedCapacity) {
+            int newCapacity = pinnedCapacity == 0 ? 16 : pinnedCapacity << 1;
+            void_ptr_ptr newPinned = realloc(pinned, word((long) newCapacity * sizeof(void_ptr.class).longValue()));
+            if (newPinned.isNull()) {
+                unlock();
+                free(ptr);
+                throw Heap.OOME;
+            }
+            pinned = newPinned;
+            uint8_t_ptr newMarks = realloc(pinnedMarks, word(newCapacity));
+            if (newMarks.isNull()) {
+                unlock();
+                free(ptr);
+                throw Heap.OOME;
+            }
+            pinnedMarks = newMarks;
+            pinnedCapacity = newCapacity;
+        }
+        pinned.plus(pinnedCount++).storeUnshared(ptr);
+        unlock();
+        return ptrToRef(ptr);
+    }
+
+    /**
+     * Collect the garbage of the allocation space, and free the pinned objects which are not reachable.  Nothing is
+     * done if other threads are running.
+     */
+    @Hidden
+    @AutoQueued
+    public static void collect() {
+        tryCollect();
+    }
+
+    /**
+     * Collect the garbage of the allocation space, unless other threads are running.  Only a thread which was not
+     * started by {@link Thread#start()} can find that no thread is running, and no thread can be started while it
+     * collects.
+     *
+     * @return {@code true} if the garbage was collected, or {@code false} if other threads are running
+     */
+    private static boolean tryCollect() {
+        if (VMHelpers.getRunningThreadCount() != 0) {
+            // we cannot scan the stacks of other threads
+            return false;
+        }
+        lock();
+        if (space.isNull()) {
+            unlock();
+            return true;
+        }
+        long alignShift = Integer.numberOfTrailingZeros(Heap.getConfiguredObjectAlignment());
+        memset(forwarded.cast(), word(0), word(bitmapSize(spaceSize, alignShift)));
+        copyPos = reserve;
+        if (pinnedCount != 0) {
+            sortPinned();
+            memset(pinnedMarks.cast(), word(0), word(pinnedCount));
+            // the current thread is held by native code
+            forward((void_ptr)(ptr<?>)refToPtr(Thread.currentThread()));
+        }
+        scanStack();
+        int cnt = SemispaceTables.getStaticRootCount();
+        for (int i = 0; i < cnt; i ++) {
+            forwardSlot(SemispaceTables.getStaticRoot(i).cast());
+        }
+        cnt = SemispaceTables.getHeapRootCount();
+        for (int i = 0; i < cnt; i ++) {
+            scanObject(SemispaceTables.getHeapRoot(i));
+        }
+        // everything between the scan position and the copy position is a copied object which is not yet scanned
+        void_ptr scan = reserve;
+        boolean scanned;
+        do {
+            while (scan.longValue() < copyPos.longValue()) {
+                scan = scan.plus(scanObject(scan));
+            }
+            scanned = false;
+            for (int i = 0; i < pinnedCount; i ++) {
+                if (pinnedMarks.plus(i).loadUnshared().intValue() == 1) {
+                    pinnedMarks.plus(i).storeUnshared(word(2));
+                    scanObject(pinned.plus(i).loadUnshared());
+                    scanned = true;
+                }
+            }
+        } while (scanned);
+        freeUnreachablePinned();
+        long used = copyPos.longValue() - reserve.longValue();
+        void_ptr oldSpace = space;
+        space = reserve;
+        reserve = oldSpace;
+        addr_of(pos).storeSingleRelease(word(used));
+        collectionCount ++;
+        copiedBytes += used;
+        unlock();
+        return true;
+    }
+
+    /**
+     * Get the number of collections which have taken place.
+     *
+     * @return the number of collections
+     */
+    public static long getCollectionCount() {
+        return collectionCount;
+    }
+
+    /**
+     * Get the total number of bytes which were copied by collections.
+     *
+     * @return the number of bytes
+     */
+    public static long getCopiedBytes() {
+        return copiedBytes;
+    }
+
+    @Hidden
+    @AutoQueued
+    public static void clear(Object ptr, long size) { memset((void_ptr)(ptr<?>)refToPtr(ptr), word(0), word(size)); }
+
+    @Hidden
+    @AutoQueued
+    public static void copy(Object to, Object from, long size) {
+        memcpy((void_ptr)(ptr<?>)refToPtr(to), (const_void_ptr)(ptr<?>)refToPtr(from), word(size));
+    }
+
+    private static void_ptr tryAllocate(long size) {
+        if (addr_of(space).loadSingleAcquire().isNull()) {
+            initialize();
+        }
+        int64_t_ptr posPtr = addr_of(pos);
+        long oldPos;
+        do {
+            oldPos = posPtr.loadSingleAcquire().longValue();
+            if (size > spaceSize - oldPos) {
+                return zero();
+            }
+        } while (! posPtr.compareAndSetRelease(word(oldPos), word(oldPos + size)));
+        return space.plus(oldPos);
+    }
+
+    private static void initialize() {
+        lock();
+        if (space.isNull()) {
+            long pageMask = Heap.getPageSize() - 1;
+            long size = Heap.getHeapUnallocated() >> 1 & ~pageMask;
+            long alignShift = Integer.numberOfTrailingZeros(Heap.getConfiguredObjectAlignment());
+            uint8_t_ptr bitmap = malloc(word(bitmapSize(size, alignShift)));
+            if (size == 0 || bitmap.isNull()) {
+                unlock();
+                throw Heap.OOME;
+            }
+            forwarded = bitmap;
+            spaceSize = size;
+            reserve = Heap.pointerToOffset(Heap.allocateRegion(-1, size));
+            addr_of(space).storeSingleRelease(Heap.pointerToOffset(Heap.allocateRegion(-1, size)));
+        }
+        unlock();
+    }
+
+    /**
+     * Sort the pinned objects by address.  Objects pinned since the previous collection were appended to the end, so
+     * an insertion sort is cheap.
+     */
+    private static void sortPinned() {
+        for (int i = 1; i < pinnedCount; i ++) {
+            void_ptr obj = pinned.plus(i).loadUnshared();
+            int j = i;
+            while (j > 0 && pinned.plus(j - 1).loadUnshared().longValue() > obj.longValue()) {
+                pinned.plus(j).storeUnshared(pinned.plus(j - 1).loadUnshared());
+                j --;
+            }
+            pinned.plus(j).storeUnshared(obj);
+        }
+    }
+
+    /**
+     * Find a pinned object.
+     *
+     * @param obj the object address
+     * @return the index of the object in the sorted pinned objects, or {@code -1} if it is not pinned
+     */
+    private static int findPinned(void_ptr obj) {
+        long addr = obj.longValue();
+        int low = 0;
+        int high = pinnedCount - 1;
+        while (low <= high) {
+            int mid = low + high >>> 1;
+            long midAddr = pinned.plus(mid).loadUnshared().longValue();
+            if (midAddr < addr) {
+                low = mid + 1;
+            } else if (midAddr > addr) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private static void freeUnreachablePinned() {
+        int kept = 0;
+        for (int i = 0; i < pinnedCount; i ++) {
+            void_ptr obj = pinned.plus(i).loadUnshared();
+            if (pinnedMarks.plus(i).loadUnshared().intValue() == 0) {
+                free(obj);
+            } else {
+                pinned.plus(kept++).storeUnshared(obj);
+            }
+        }
+        pinnedCount = kept;
+    }
+
+    private static long bitmapSize(long spaceSize, long alignShift) {
+        return (spaceSize >>> alignShift) + 7 >>> 3;
+    }
+
+    private static void lock() {
+        int32_t_ptr lockPtr = addr_of(lockState);
+        while (! lockPtr.compareAndSetAcquire(word(0), word(1))) {
+            Thread.onSpinWait();
+        }
+    }
+
+    private static void unlock() {
+        addr_of(lockState).storeSingleRelease(word(0));
+    }
+
+    /**
+     * Update the reference slots of the frames of the current thread.  The frames of the collector itself hold no
+     * references.
+     */
+    private static void scanStack() {
+        StackWalker walker = new StackWalker();
+        while (walker.next()) {
+            int index = MethodData.findInstructionIndex(walker.getIp().longValue());
+            if (index == -1) {
+                // not a compiled Java frame
+                continue;
+            }
+            int start = MethodData.getStackRootStart(index);
+            int end = MethodData.getStackRootStart(index + 1);
+            // derived pointers are relocated first, relative to their base before it is updated
+            for (int i = start; i < end; i ++) {
+                void_ptr_ptr baseSlot = slotOf(walker, MethodData.getStackRootBaseRegister(i), MethodData.getStackRootBaseOffset(i));
+                void_ptr_ptr derivedSlot = slotOf(walker, MethodData.getStackRootDerivedRegister(i), MethodData.getStackRootDerivedOffset(i));
+                if (baseSlot.longValue() != derivedSlot.longValue()) {
+                    void_ptr base = baseSlot.loadUnshared();
+                    void_ptr derived = derivedSlot.loadUnshared();
+                    derivedSlot.storeUnshared(forward(base).plus(derived.longValue() - base.longValue()));
+                }
+            }
+            for (int i = start; i < end; i ++) {
+                forwardSlot(slotOf(walker, MethodData.getStackRootBaseRegister(i), MethodData.getStackRootBaseOffset(i)));
+            }
+        }
+    }
+
+    private static void_ptr_ptr slotOf(StackWalker walker, int regNum, int offset) {
+        return walker.getRegister(regNum).plus(offset).cast();
+    }
+
+    /**
+     * Update the reference slots of an object.
+     *
+     * @param obj the object
+     * @return the size of the object
+     */
+    private static long scanObject(void_ptr obj) {
+        Object ref = ptrToRef(obj);
+        type_id typeId = CompilerIntrinsics.typeIdOf(ref);
+        int id = typeId.intValue();
+        long size = SemispaceTables.getInstanceSize(id);
+        if (CompilerIntrinsics.isReferenceArray(typeId)) {
+            int length = CompilerIntrinsics.lengthOf(ref);
+            void_ptr_ptr elements = obj.plus(size).cast();
+            for (int i = 0; i < length; i ++) {
+                forwardSlot(elements.plus(i));
+            }
+            size += (long) length * SemispaceTables.getElementSize(id);
+        } else {
+            int elementSize = SemispaceTables.getElementSize(id);
+            if (elementSize != 0) {
+                size += (long) CompilerIntrinsics.lengthOf(ref) * elementSize;
+            }
+            int start = SemispaceTables.getReferenceOffsetStart(id);
+            int end = start + SemispaceTables.getReferenceOffsetCount(id);
+            for (int i = start; i < end; i ++) {
+                forwardSlot(obj.plus(SemispaceTables.getReferenceOffset(i)).cast());
+            }
+        }
+        int objAlignMask = Heap.getConfiguredObjectAlignment() - 1;
+        return size + objAlignMask & ~objAlignMask;
+    }
+
+    private static void forwardSlot(void_ptr_ptr slot) {
+        void_ptr value = slot.loadUnshared();
+        void_ptr forwarded = forward(value);
+        if (forwarded.longValue() != value.longValue()) {
+            slot.storeUnshared(forwarded);
+        }
+    }
+
+    /**
+     * Get the new address of an object, copying it to the reserve space if it is in the allocation space and was not
+     * yet copied.  The first word of a copied object is overwritten with its new address.  A pinned object is marked
+     * as reached instead.
+     *
+     * @param obj the object address (may be {@code null})
+     * @return the new object address
+     */
+    private static void_ptr forward(void_ptr obj) {
+        long offset = obj.longValue() - space.longValue();
+        if (offset < 0 || offset >= spaceSize) {
+            // null, pinned, or in the initial heap
+            if (! obj.isNull() && pinnedCount != 0) {
+                int index = findPinned(obj);
+                if (index != -1 && pinnedMarks.plus(index).loadUnshared().intValue() == 0) {
+                    pinnedMarks.plus(index).storeUnshared(word(1));
+                }
+            }
+            return obj;
+        }
+        long bit = offset >>> Integer.numberOfTrailingZeros(Heap.getConfiguredObjectAlignment());
+        uint8_t_ptr bitmapPtr = SemispaceHelpers.forwarded.plus(bit >>> 3);
+        int mask = 1 << (bit & 7);
+        int bits = bitmapPtr.loadUnshared().intValue();
+        void_ptr_ptr header = obj.cast();
+        if ((bits & mask) != 0) {
+            return header.loadUnshared();
+        }
+        long size = sizeOf(obj);
+        void_ptr copy = copyPos;
+        memcpy(copy, obj.cast(), word(size));
+        copyPos = copy.plus(size);
+        header.storeUnshared(copy);
+        bitmapPtr.storeUnshared(word(bits | mask));
+        return copy;
+    }
+
+    private static long sizeOf(void_ptr obj) {
+        Object ref = ptrToRef(obj);
+        int id = CompilerIntrinsics.typeIdOf(ref).intValue();
+        long size = SemispaceTables.getInstanceSize(id);
+        int elementSize = SemispaceTables.getElementSize(id);
+        if (elementSize != 0) {
+            size += (long) CompilerIntrinsics.lengthOf(ref) * elementSize;
+        }
+        int objAlignMask = Heap.getConfiguredObjectAlignment() - 1;
+        return size + objAlignMask & ~objAlignMask;
+    }
+}
@@ -0,0 +1,80 @@
+package org.qbicc.runtime.gc.semispace;
+
+import static org.qbicc.runtime.CNative.*;
+
+/**
+ * Accessors for the tables which are generated at build time to describe the objects and roots of the program.
+ */
+public final class SemispaceTables {
+    private SemispaceTables() {}
+
+    /**
+     * Get the size of the instances of the given type.  For array types, this is the offset of the first element.
+     *
+     * @param typeId the type ID
+     * @return the size in bytes
+     */
+    public static native int getInstanceSize(int typeId);
+
+    /**
+     * Get the size of the elements of the given type.
+     *
+     * @param typeId the type ID
+     * @return the element size in bytes, or {@code 0} if the type is not an array type
+     */
+    public static native int getElementSize(int typeId);
+
+    /**
+     * Get the index of the first reference field offset of the given type.
+     *
+     * @param typeId the type ID
+     * @return the index into the reference field offset table
+     */
+    public static native int getReferenceOffsetStart(int typeId);
+
+    /**
+     * Get the number of reference fields of the given type.
+     *
+     * @param typeId the type ID
+     * @return the number of reference fields
+     */
+    public static native int getReferenceOffsetCount(int typeId);
+
+    /**
+     * Get an entry of the reference field offset table.
+     *
+     * @param index the index into the table
+     * @return the offset of the reference field from the start of the object
+     */
+    public static native int getReferenceOffset(int index);
+
+    /**
+     * Get the number of static fields of reference type.
+     *
+     * @return the number of static fields
+     */
+    public static native int getStaticRootCount();
+
+    /**
+     * Get the address of a static field of reference type.
+     *
+     * @param index the index of the static field
+     * @return the address of the field
+     */
+    public static native void_ptr getStaticRoot(int index);
+
+    /**
+     * Get the number of initial heap objects which may hold references.
+     *
+     * @return the number of objects
+     */
+    public static native int getHeapRootCount();
+
+    /**
+     * Get the address of an initial heap object which may hold references.
+     *
+     * @param index the index of the object
+     * @return the address of the object
+     */
+    public static native void_ptr getHeapRoot(int index);
+}
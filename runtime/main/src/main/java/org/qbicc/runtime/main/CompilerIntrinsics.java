@@ -224,4 +224,43 @@ public class CompilerIntrinsics {
 
     @Hidden
     public static native byte getByteOfInterfaceBits(type_id typeId, int index);
+
+    /**
+     * Get the lock bits of the object header of the referenced object, with acquire semantics.
+     *
+     * @param reference the object reference (must not be {@code null})
+     * @return the lock bits
+     */
+    @Hidden
+    public static native int getLockWord(Object reference);
+
+    /**
+     * Atomically replace the lock bits of the object header of the referenced object, leaving the other header bits
+     * unchanged.
+     *
+     * @param reference the object reference (must not be {@code null})
+     * @param expect the expected lock bits
+     * @param update the new lock bits
+     * @return {@code true} if the lock bits were replaced, or {@code false} if they did not match
+     */
+    @Hidden
+    public static native boolean compareAndSetLockWord(Object reference, int expect, int update);
+
+    /**
+     * Get the inflated monitor of the referenced object, with acquire semantics.
+     *
+     * @param reference the object reference (must not be {@code null})
+     * @return the monitor, or {@code null} if none was installed
+     */
+    @Hidden
+    public static native Monitor getInflatedMonitor(Object reference);
+
+    /**
+     * Install the inflated monitor of the referenced object, with release semantics.
+     *
+     * @param reference the object reference (must not be {@code null})
+     * @param monitor the monitor (must not be {@code null})
+     */
+    @Hidden
+    public static native void setInflatedMonitor(Object reference, Monitor monitor);
 }
@@ -1,44 +1,71 @@
 package org.qbicc.runtime.main;
 
+import static org.qbicc.runtime.CNative.*;
+
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
 import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
 
+import org.qbicc.runtime.AutoQueued;
 import org.qbicc.runtime.Hidden;
 
 /**
  * An object monitor (lock) implementation. This is the platform-independent implementation and should not be assumed to be
  * the actual monitor implementation for some targets. This implementation is guaranteed to be based on
  * {@link java.util.concurrent.locks.LockSupport LockSupport}'s {@code park} mechanism.
+ * <p>
+ * Objects are first locked with a <em>thin lock</em>, which is kept in the lock bits of the object header: the thread
+ * ID of the owner and the number of recursive entries.  Locking and unlocking an object which no other thread uses is
+ * a single compare-and-set, which the compiler emits inline; the static methods of this class handle all other cases.
+ * A monitor is only created (the lock is <em>inflated</em>) when a second thread contends for the lock, when the lock is
+ * entered too many times recursively, when the thread ID of the owner does not fit in the lock bits, or when the
+ * object is waited on or notified.  An object keeps its monitor once it is inflated.
  */
 @SuppressWarnings("unused")
 public final class Monitor {
     private static final long MAX_MILLIS = Long.MAX_VALUE / 1_000_000L;
 
-    private final ReentrantLock lock;
+    // the lock bits; this layout must agree with the one used by the compiler
+    private static final int INFLATED = 1 << 0;
+    private static final int INFLATING = 1 << 1;
+    private static final int COUNT_SHIFT = 2;
+    private static final int COUNT_MASK = 0x3f << COUNT_SHIFT;
+    private static final int OWNER_SHIFT = 8;
+    private static final long MAX_OWNER = (1L << 24) - 1;
+
+    /**
+     * The number of locks which were inflated.
+     */
+    private static long inflationCount;
+
+    private final Sync sync;
     private final Condition condition;
 
     /**
      * Construct a new instance.
      */
     public Monitor() {
-        lock = new ReentrantLock();
-        condition = lock.newCondition();
+        this(0, 0);
+    }
+
+    private Monitor(long ownerId, int holds) {
+        sync = new Sync(ownerId, holds);
+        condition = sync.newCondition();
     }
 
     @Hidden
     public boolean isHeldByCurrentThread() {
-        return lock.isHeldByCurrentThread();
+        return sync.isHeldExclusively();
     }
 
     @Hidden
     public void enter() {
-        lock.lock();
+        sync.acquire(1);
     }
 
     @Hidden
     public void exit() throws IllegalMonitorStateException {
-        lock.unlock();
+        sync.release(1);
     }
 
     @Hidden
@@ -80,4 +107,199 @@ public final class Monitor {
     public void signalAll() throws IllegalMonitorStateException {
         condition.signalAll();
     }
+
+    /**
+     * Enter the lock of an object.  The compiler handles an unlocked object inline and calls this method otherwise.
+     *
+     * @param obj the object (must not be {@code null})
+     */
+    @Hidden
+    @AutoQueued
+    public static void monitorEnter(Object obj) {
+        int self = thinLockOwner();
+        for (;;) {
+            int word = CompilerIntrinsics.getLockWord(obj);
+            if ((word & INFLATED) != 0) {
+                CompilerIntrinsics.getInflatedMonitor(obj).enter();
+                return;
+            } else if ((word & INFLATING) != 0) {
+                Thread.onSpinWait();
+            } else if (word == 0 && self != 0) {
+                if (CompilerIntrinsics.compareAndSetLockWord(obj, 0, self << OWNER_SHIFT)) {
+                    return;
+                }
+            } else if (self != 0 && word >>> OWNER_SHIFT == self && (word & COUNT_MASK) != COUNT_MASK) {
+                if (CompilerIntrinsics.compareAndSetLockWord(obj, word, word + (1 << COUNT_SHIFT))) {
+                    return;
+                }
+            } else {
+                // contended, nested too deeply, or this thread cannot own a thin lock
+                tryInflate(obj, word);
+            }
+        }
+    }
+
+    /**
+     * Exit the lock of an object.  The compiler handles a thin lock which was entered once inline and calls this
+     * method otherwise.
+     *
+     * @param obj the object (must not be {@code null})
+     * @throws IllegalMonitorStateException if the current thread does not hold the lock
+     */
+    @Hidden
+    @AutoQueued
+    public static void monitorExit(Object obj) throws IllegalMonitorStateException {
+        int self = thinLockOwner();
+        for (;;) {
+            int word = CompilerIntrinsics.getLockWord(obj);
+            if ((word & INFLATED) != 0) {
+                CompilerIntrinsics.getInflatedMonitor(obj).exit();
+                return;
+            } else if ((word & INFLATING) != 0) {
+                Thread.onSpinWait();
+            } else if (self == 0 || word >>> OWNER_SHIFT != self) {
+                throw new IllegalMonitorStateException();
+            } else if (CompilerIntrinsics.compareAndSetLockWord(obj, word, (word & COUNT_MASK) == 0 ? 0 : word - (1 << COUNT_SHIFT))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Determine whether the current thread holds the lock of an object.
+     *
+     * @param obj the object (must not be {@code null})
+     * @return {@code true} if the current thread holds the lock, or {@code false} otherwise
+     */
+    @Hidden
+    @AutoQueued
+    public static boolean holdsLock(Object obj) {
+        int word = CompilerIntrinsics.getLockWord(obj);
+        if ((word & INFLATED) != 0) {
+            return CompilerIntrinsics.getInflatedMonitor(obj).isHeldByCurrentThread();
+        }
+        // the owner bits remain valid while the lock is being inflated
+        int self = thinLockOwner();
+        return self != 0 && word >>> OWNER_SHIFT == self;
+    }
+
+    /**
+     * Get the monitor of an object, inflating its lock if needed.  A thin lock which is held by some thread is
+     * inflated into a monitor which is held by the same thread.
+     *
+     * @param obj the object (must not be {@code null})
+     * @return the monitor of the object (not {@code null})
+     */
+    @Hidden
+    @AutoQueued
+    public static Monitor inflate(Object obj) {
+        for (;;) {
+            int word = CompilerIntrinsics.getLockWord(obj);
+            if ((word & INFLATED) != 0) {
+                return CompilerIntrinsics.getInflatedMonitor(obj);
+            } else if ((word & INFLATING) != 0) {
+                Thread.onSpinWait();
+            } else {
+                tryInflate(obj, word);
+            }
+        }
+    }
+
+    /**
+     * Get the number of object locks which were inflated into a monitor.  Locks which are only ever used by one
+     * thread at a time, and not waited on, are never inflated.
+     *
+     * @return the number of inflated locks
+     */
+    public static long getInflationCount() {
+        return addr_of(inflationCount).loadSingleAcquire().longValue();
+    }
+
+    @Hidden
+    private static void tryInflate(Object obj, int word) {
+        // allocate before claiming the lock bits, so that no other thread waits on this one while it allocates
+        Monitor monitor = word == 0 ? new Monitor() : new Monitor(word >>> OWNER_SHIFT, ((word & COUNT_MASK) >>> COUNT_SHIFT) + 1);
+        // claim the lock bits, so that the owner can neither exit nor re-enter the thin lock meanwhile
+        if (CompilerIntrinsics.compareAndSetLockWord(obj, word, word | INFLATING)) {
+            CompilerIntrinsics.setInflatedMonitor(obj, monitor);
+            while (! CompilerIntrinsics.compareAndSetLockWord(obj, word | INFLATING, INFLATED)) {
+                // other header bits changed
+                Thread.onSpinWait();
+            }
+            addr_of(inflationCount).getAndAdd(word(1));
+        }
+    }
+
+    @Hidden
+    private static int thinLockOwner() {
+        long id = Thread.currentThread().getId();
+        // zero means that the thread cannot own a thin lock
+        return id > 0 && id <= MAX_OWNER ? (int) id : 0;
+    }
+
+    /**
+     * The lock of a monitor.  Unlike {@link java.util.concurrent.locks.ReentrantLock}, it can be created held by
+     * another thread, which is then only known by its thread ID until it next uses the lock.
+     */
+    @SuppressWarnings("serial")
+    static final class Sync extends AbstractQueuedSynchronizer {
+        private Thread owner;
+        private long ownerId;
+
+        Sync(long ownerId, int holds) {
+            this.ownerId = ownerId;
+            setState(holds);
+        }
+
+        @Override
+        protected boolean tryAcquire(int acquires) {
+            Thread current = Thread.currentThread();
+            int c = getState();
+            if (c == 0) {
+                if (compareAndSetState(0, acquires)) {
+                    owner = current;
+                    return true;
+                }
+            } else if (isOwner(current)) {
+                setState(c + acquires);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        protected boolean tryRelease(int releases) {
+            if (! isOwner(Thread.currentThread())) {
+                throw new IllegalMonitorStateException();
+            }
+            int c = getState() - releases;
+            if (c == 0) {
+                owner = null;
+            }
+            setState(c);
+            return c == 0;
+        }
+
+        @Override
+        protected boolean isHeldExclusively() {
+            return getState() != 0 && isOwner(Thread.currentThread());
+        }
+
+        private boolean isOwner(Thread current) {
+            if (owner == current) {
+                return true;
+            }
+            if (owner == null && ownerId != 0 && ownerId == current.getId()) {
+                // the thin lock of this thread was inflated by another thread
+                owner = current;
+                ownerId = 0;
+                return true;
+            }
+            return false;
+        }
+
+        Condition newCondition() {
+            return new ConditionObject();
+        }
+    }
 }
@@ -0,0 +1,157 @@
+package org.qbicc.runtime.main;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import org.qbicc.runtime.AutoQueued;
+import org.qbicc.runtime.Hidden;
+import org.qbicc.runtime.NoThrow;
+
+/**
+ * The profile counters of an instrumented image.  The compiler allocates a range of counters for each profiled site
+ * and installs the counter arrays and the site names at build time; the instrumented code calls the static methods of
+ * this class with the index of the first counter of the site.  The counters are not updated atomically, so their
+ * values are approximate when several threads run the same code.
+ * <p>
+ * The profile is written when the main method returns or when the program exits, to the file named by the
+ * {@code QBICC_PROFILE} environment variable or to {@code qbicc.profile} in the working directory.  Each line of the
+ * file names the kind of the site, the enclosing type, name and descriptor of the method, the bytecode index of
+ * the site and its ordinal among the sites of its kind at that index, followed by its counts.  Sites which were never
+ * reached are left out, except for those whose ordinal is not zero, so that a bytecode index with several sites can be
+ * recognized.
+ * <p>
+ * The counting methods never throw, so that counting a site does not add exception edges to the instrumented code.
+ */
+@SuppressWarnings("unused")
+public final class Profile {
+    private static final String HEADER = "qbicc-profile-2";
+    private static final int RECEIVER_ROWS = 4;
+
+    // all installed by the compiler
+    private static long[] counts;
+    private static String[] sites;
+    private static Class<?>[] receivers;
+
+    private static boolean dumped;
+
+    private Profile() {}
+
+    /**
+     * Count an execution of a method entry, call site or allocation site.
+     *
+     * @param id the counter index
+     */
+    @Hidden
+    @AutoQueued
+    @NoThrow
+    public static void count(int id) {
+        long[] counts = Profile.counts;
+        if (counts != null && id < counts.length) {
+            counts[id] ++;
+        }
+    }
+
+    /**
+     * Count an execution of a branch.  The first counter of the site counts the executions which went to the true
+     * branch, and the second one counts those which went to the false branch.
+     *
+     * @param id the index of the first counter of the site
+     * @param cond the branch condition
+     */
+    @Hidden
+    @AutoQueued
+    @NoThrow
+    public static void branch(int id, boolean cond) {
+        long[] counts = Profile.counts;
+        if (counts != null && id + 1 < counts.length) {
+            counts[cond ? id : id + 1] ++;
+        }
+    }
+
+    /**
+     * Count the class of the receiver of a virtual or interface call.  The first few classes which are seen at a
+     * site are counted; the others are not.
+     *
+     * @param id the index of the first counter of the site
+     * @param receiver the receiver of the call (may be {@code null})
+     */
+    @Hidden
+    @AutoQueued
+    @NoThrow
+    public static void receiver(int id, Object receiver) {
+        long[] counts = Profile.counts;
+        Class<?>[] receivers = Profile.receivers;
+        if (receiver == null || counts == null || receivers == null || id + RECEIVER_ROWS > counts.length) {
+            return;
+        }
+        Class<?> clazz = receiver.getClass();
+        for (int i = id; i < id + RECEIVER_ROWS; i ++) {
+            Class<?> seen = receivers[i];
+            if (seen == null) {
+                receivers[i] = clazz;
+                counts[i] ++;
+                return;
+            } else if (seen == clazz) {
+                counts[i] ++;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Start profiling.  Called at the entry of the main method.
+     */
+    @Hidden
+    @AutoQueued
+    public static void start() {
+        Runtime.getRuntime().addShutdownHook(new Thread(Profile::dump, "profile writer"));
+    }
+
+    /**
+     * Write the profile, if it was not written before.  Called when the main method returns, and when the
+     * program exits.
+     */
+    @Hidden
+    @AutoQueued
+    public static synchronized void dump() {
+        if (dumped || counts == null || sites == null) {
+            return;
+        }
+        dumped = true;
+        String fileName = System.getenv("QBICC_PROFILE");
+        if (fileName == null || fileName.isEmpty()) {
+            fileName = "qbicc.profile";
+        }
+        try (PrintStream ps = new PrintStream(new FileOutputStream(fileName), false)) {
+            ps.println(HEADER);
+            StringBuilder b = new StringBuilder();
+            for (int i = 0; i < sites.length; i ++) {
+                String site = sites[i];
+                if (site == null) {
+                    continue;
+                }
+                b.setLength(0);
+                // the ordinal is the last part of the site name
+                boolean first = site.endsWith(" 0");
+                if (site.startsWith("branch ")) {
+                    if (counts[i] != 0 || counts[i + 1] != 0 || ! first) {
+                        b.append(site).append(' ').append(counts[i]).append(' ').append(counts[i + 1]);
+                        ps.println(b);
+                    }
+                } else if (site.startsWith("receiver ")) {
+                    for (int j = i; j < i + RECEIVER_ROWS && receivers[j] != null; j ++) {
+                        b.setLength(0);
+                        b.append(site).append(' ').append(receivers[j].getName().replace('.', '/')).append(' ').append(counts[j]);
+                        ps.println(b);
+                    }
+                } else if (counts[i] != 0 || ! first) {
+                    b.append(site).append(' ').append(counts[i]);
+                    ps.println(b);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println(new StringBuilder().append("Failed to write profile to ").append(fileName).append(": ").append(e).toString());
+        }
+    }
+}
@@ -193,6 +193,21 @@ public final class VMHelpers {
         throw new NotReachableException(target);
     }
 
+    /**
+     * The number of started threads which have not yet finished running.
+     */
+    private static int runningThreads;
+
+    /**
+     * Get the number of threads started by {@link #JLT_start0} which have not yet finished running.  This count
+     * does not include the thread which started the program.
+     *
+     * @return the number of running started threads
+     */
+    public static int getRunningThreadCount() {
+        return addr_of(runningThreads).loadSingleAcquire().intValue();
+    }
+
     /**
      * Wrapper for threadWrapperNative intrinsic.
      * The export annotation allows this function to be passed as the void*(void*) type required by pthread_create
@@ -206,7 +221,9 @@ public final class VMHelpers {
             // TODO this is a workaround until addr_of_function is working
             return threadParam;
         }
-        return CompilerIntrinsics.threadWrapperNative(threadParam);
+        void_ptr result = CompilerIntrinsics.threadWrapperNative(threadParam);
+        addr_of(runningThreads).getAndAdd(word(-1));
+        return result;
     }
 
     /**
@@ -233,8 +250,10 @@ public final class VMHelpers {
             throw new OutOfMemoryError();
         }
 
+        addr_of(runningThreads).getAndAdd(word(1));
         int result = pthread_create(pthreadPtr, zero(), runFuncPtr, thread).intValue();
         if (0 != result) {
+            addr_of(runningThreads).getAndAdd(word(-1));
             free(pthreadPtr.cast());
             throw new InternalError("pthread error code: " + result);
         }
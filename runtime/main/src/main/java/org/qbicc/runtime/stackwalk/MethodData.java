@@ -44,7 +44,21 @@ public final class MethodData {
     public static native long getInstructionAddress(int index);
     public static native int getInstructionListSize();
 
-    static int findInstructionIndex(long ip) {
+    /**
+     * Get the index of the first stack root of the given instruction.  The stack roots of the instruction are
+     * the ones from this index up to (but not including) the first stack root of the next instruction.
+     * Stack roots are only recorded when the garbage collector requires them.
+     *
+     * @param index the instruction index, which may be equal to the instruction list size
+     * @return the index of the first stack root
+     */
+    public static native int getStackRootStart(int index);
+    public static native int getStackRootBaseRegister(int rootIndex);
+    public static native int getStackRootBaseOffset(int rootIndex);
+    public static native int getStackRootDerivedRegister(int rootIndex);
+    public static native int getStackRootDerivedOffset(int rootIndex);
+
+    public static int findInstructionIndex(long ip) {
         // do a binary search in instruction table
         int upper = MethodData.getInstructionListSize();
         int lower = 0;
@@ -75,6 +75,19 @@ public final class StackWalker extends StackObject {
         return sp.cast();
     }
 
+    /**
+     * Get the value of a register in the current frame, as it was at the call site.
+     *
+     * @param regNum the DWARF number of the register
+     * @return the register value
+     */
+    public void_ptr getRegister(int regNum) {
+        if (! ready) throw new IllegalStateException();
+        unw_word_t val = auto();
+        unw_get_reg(addr_of(refToPtr(this).sel().cursor), word(regNum), addr_of(val));
+        return val.cast();
+    }
+
     /**
      * Overwrite the current cursor (iteration) position. This allows the stack walker to be rewound or to
      * skip over frames.